@@ -1500,6 +1500,20 @@ public class LockssApp {
     return res;
   }
 
+  /** Determine which LcapStreamComm to use.
+   * @return the LcapStreamComm implementation class name */
+  public String chooseStreamComm() {
+    String res;
+    if (CurrentConfig.getBooleanParam(LcapStreamComm.PARAM_USE_NIO,
+				      LcapStreamComm.DEFAULT_USE_NIO)) {
+      res = "org.lockss.protocol.NioStreamComm";
+    } else {
+      res = "org.lockss.protocol.BlockingStreamComm";
+    }
+    log.debug("LcapStreamComm: " + res);
+    return res;
+  }
+
   public static StartupOptions getStartupOptions(String[] args) {
     return new StartupOptions().parse(args);
   }
@@ -246,9 +246,12 @@ public class LockssDaemon extends LockssApp {
   protected final ManagerDesc[] auManagerDescs = {
   };
 
-  // Maps au to sequenced map of managerKey -> manager instance
-  protected HashMap<ArchivalUnit,Map<String,LockssAuManager>> auManagerMaps = 
-      new HashMap<ArchivalUnit,Map<String,LockssAuManager>>();
+  // Maps au to sequenced map of managerKey -> manager instance.
+  // Synchronized because AUs may be started concurrently (see
+  // PluginManager.PARAM_AU_STARTUP_THREADS)
+  protected Map<ArchivalUnit,Map<String,LockssAuManager>> auManagerMaps =
+      Collections.synchronizedMap(
+          new HashMap<ArchivalUnit,Map<String,LockssAuManager>>());
 
   // Maps managerKey -> LockssAuManager.Factory instance
   protected HashMap<String,LockssAuManager.Factory> auManagerFactoryMap = 
@@ -713,13 +716,19 @@ public class LockssDaemon extends LockssApp {
    */
   public void stopAllAuManagers() {
     ArchivalUnit au;
-    while ((au = CollectionUtil.getAnElement(auManagerMaps.keySet())) != null) {
+    while ((au = getAnAuWithManagers()) != null) {
       log.debug2("Stopping all managers for " + au);
       stopAuManagers(au);
     }
     auManagerMaps.clear();
   }
 
+  private ArchivalUnit getAnAuWithManagers() {
+    synchronized (auManagerMaps) {
+      return CollectionUtil.getAnElement(auManagerMaps.keySet());
+    }
+  }
+
   /**
    * Return the LockssAuManagers of a particular type.
    * @param managerKey the manager type
@@ -727,14 +736,16 @@ public class LockssDaemon extends LockssApp {
    */
   @SuppressWarnings("unchecked")
   <T extends LockssAuManager> List<T> getAuManagersOfType(String managerKey) {
-    List<T> res = new ArrayList<T>(auManagerMaps.size());
-    for (Map<String,LockssAuManager> auMgrMap : auManagerMaps.values()) {
-      Object auMgr = auMgrMap.get(managerKey);
-      if (auMgr != null) {
-        res.add((T)auMgr);
+    synchronized (auManagerMaps) {
+      List<T> res = new ArrayList<T>(auManagerMaps.size());
+      for (Map<String,LockssAuManager> auMgrMap : auManagerMaps.values()) {
+        Object auMgr = auMgrMap.get(managerKey);
+        if (auMgr != null) {
+          res.add((T)auMgr);
+        }
       }
+      return res;
     }
-    return res;
   }
 
   // Daemon start, stop
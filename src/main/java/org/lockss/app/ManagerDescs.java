@@ -140,7 +140,10 @@ public class ManagerDescs {
                     "org.lockss.proxy.FailOverProxyManager");
   public static ManagerDesc STREAM_COMM_MANAGER_DESC =
     new ManagerDesc(LockssDaemon.STREAM_COMM_MANAGER,
-                    "org.lockss.protocol.BlockingStreamComm");
+                    "org.lockss.protocol.BlockingStreamComm") {
+      public String getDefaultClass(LockssApp app) {
+	return app.chooseStreamComm();
+      }};
   public static ManagerDesc ROUTER_MANAGER_DESC =
     new ManagerDesc(LockssDaemon.ROUTER_MANAGER,
                     "org.lockss.protocol.LcapRouter");
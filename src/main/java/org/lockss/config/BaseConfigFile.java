@@ -288,31 +288,33 @@ public abstract class BaseConfigFile implements ConfigFile {
    * @return <code>true</code> if title database entries were extracted
    */
   protected boolean extractTdb(PropertyTree propTree, Tdb tdb) {
-    PropertyTree tdbTree = propTree.getTree(ConfigManager.PARAM_TITLE_DB);
-    if (tdbTree.isEmpty()) {
+    Enumeration elements = propTree.getNodes(ConfigManager.PARAM_TITLE_DB);
+    if (elements == null || !elements.hasMoreElements()) {
       return false;
     }
-    
-    // remove title database keys from propTree
-    // (why doesn't PropertyTree encapsulate this?)
-    for (Object key : new HashSet(propTree.keySet())) {
-      if (((String)key).startsWith(ConfigManager.PREFIX_TITLE_DB)) {
-        propTree.remove(key);
-      }
-    }
 
-    // process title database
-    Enumeration elements = tdbTree.getNodes();
+    // process title database.  Each entry's subtree is taken directly from
+    // propTree; making a copy of the whole title database subtree first
+    // would double the space it occupies while loading.
     while (elements.hasMoreElements()) {
       String element = (String)elements.nextElement();
-      PropertyTree tdbProps = tdbTree.getTree(element);
+      PropertyTree tdbProps =
+	propTree.getTree(ConfigManager.PREFIX_TITLE_DB + element);
       try {
         tdb.addTdbAuFromProperties(tdbProps);
       } catch (Throwable ex) {
         log.error("Error processing TdbAu entry " + element + ": " + ex.getMessage());
       }
     }
-    
+
+    // remove title database keys from propTree
+    // (why doesn't PropertyTree encapsulate this?)
+    for (Object key : new ArrayList(propTree.keySet())) {
+      if (((String)key).startsWith(ConfigManager.PREFIX_TITLE_DB)) {
+        propTree.remove(key);
+      }
+    }
+
     return true;
   }
   
@@ -33,6 +33,8 @@ package org.lockss.config;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.net.*;
 import java.sql.Connection;
@@ -113,6 +115,23 @@ public class ConfigManager implements LockssManager {
   static final String PARAM_RELOAD_INTERVAL = MYPREFIX + "reloadInterval";
   static final long DEFAULT_RELOAD_INTERVAL = 30 * Constants.MINUTE;
 
+  /** If true, a reload compares only the keys set by config files that
+   * changed since the previous load, and the title database is shared
+   * with the previous config if none of its sources changed.  If false,
+   * every reload rebuilds and compares the entire config. */
+  public static final String PARAM_INCREMENTAL_RELOAD =
+    MYPREFIX + "incrementalReload";
+  public static final boolean DEFAULT_INCREMENTAL_RELOAD = true;
+
+  /** Sealed configurations with at least this many keys are converted to
+   * a compact, read-only representation.  Lookups in the compact form
+   * are somewhat slower.  -1, the default, disables.
+   * @ParamRelevance Rare
+   */
+  public static final String PARAM_PACK_MIN_SIZE = MYPREFIX + "packMinSize";
+  public static final int DEFAULT_PACK_MIN_SIZE =
+    ConfigurationPropTreeImpl.DEFAULT_PACK_MIN_SIZE;
+
   /** If set to <i>hostname</i>:<i>port</i>, the configuration server will
    * be accessed via the specified proxy.  For direct connection, leave
    * unset or set to <tt>DIRECT</tt> or <tt>NONE</tt>
@@ -1330,7 +1349,9 @@ public class ConfigManager implements LockssManager {
       if (keyPred != null) {
 	cf.setKeyPredicate(keyPred);
       }
+      long start = TimeBase.nowMs();
       ConfigFile.Generation gen = cf.getGeneration();
+      fileLoadTimes.put(cf.getFileUrl(), TimeBase.msSince(start));
       if (log.isDebug2()) log.debug2(DEBUG_HEADER + "gen = " + gen);
       return gen;
     } catch (IOException e) {
@@ -1677,11 +1698,25 @@ public class ConfigManager implements LockssManager {
   private long startUpdateTime;
   private volatile long lastUpdateTime;
   private long startCallbacksTime;
+  private boolean paramIncrementalReload = DEFAULT_INCREMENTAL_RELOAD;
+  // Time to get each ConfigFile's current generation, by URL
+  private Map<String,Long> fileLoadTimes = new ConcurrentHashMap<>();
+  // Sources of the currently installed config, if loaded by
+  // updateConfigOnce()
+  private volatile ConfigLoad lastConfigLoad;
+  // Most recent reload, whether or not it resulted in a new config
+  private volatile ConfigLoad lastReload;
 
   public long getLastUpdateTime() {
     return lastUpdateTime;
   }
 
+  /** Return a record of the most recent reload, including time spent on
+   * each config source, or null if no reload has happened. */
+  ConfigLoad getLastReload() {
+    return lastReload;
+  }
+
   public boolean updateConfigOnce(List urls, boolean reload) {
     final String DEBUG_HEADER = "updateConfigOnce(): ";
     if (log.isDebug2()) {
@@ -1723,21 +1758,22 @@ public class ConfigManager implements LockssManager {
       }
       return false;
     }
+    ConfigLoad load = new ConfigLoad(getConfigSources(gens), groupNames);
+    ConfigLoad prevLoad = paramIncrementalReload ? lastConfigLoad : null;
     Configuration newConfig = initNewConfiguration();
-    // Add app defaults
-    mergeAppConfig(newConfig, LockssApp::getBootDefault, "app bootstrap default");
-    mergeAppConfig(newConfig, LockssApp::getAppDefault, "app default");
-    loadList(newConfig, gens);
-    // Add app un-overridable config
-    mergeAppConfig(newConfig, LockssApp::getAppConfig, "app config");
+    mergeSources(newConfig, load, prevLoad);
     if (log.isDebug3()) log.debug3(DEBUG_HEADER + "newConfig = " + newConfig);
 
-    boolean did = installConfig(newConfig, gens);
+    boolean did = installConfig(newConfig, gens, load, prevLoad);
     long tottime = TimeBase.msSince(startUpdateTime);
     long cbtime = TimeBase.msSince(startCallbacksTime);
     if (did) {
       lastUpdateTime = startUpdateTime;
     }
+    load.startTime = startUpdateTime;
+    load.totalTime = tottime;
+    load.callbackTime = did ? cbtime : 0;
+    lastReload = load;
     if (log.isDebug2() || tottime > Constants.SECOND) {
       if (did) {
 	log.debug("Reload time: "
@@ -1794,6 +1830,251 @@ public class ConfigManager implements LockssManager {
     return sb.toString();
   }
 
+  /** One of the sources merged to produce a config: a loaded ConfigFile
+   * or one of the app's builtin configs. */
+  static class ConfigSource {
+    final String name;
+    final Configuration config;
+    final int generation;
+    final boolean changed;
+    final long loadTime;
+    long mergeTime;
+
+    ConfigSource(String name, Configuration config, int generation,
+		 boolean changed, long loadTime) {
+      this.name = name;
+      this.config = config;
+      this.generation = generation;
+      this.changed = changed;
+      this.loadTime = loadTime;
+    }
+
+    /** The URL, or a description of a builtin config */
+    String getName() {
+      return name;
+    }
+
+    /** The ConfigFile generation, or -1 for builtin configs */
+    int getGeneration() {
+      return generation;
+    }
+
+    /** True if the file was (re)loaded since the previous config was
+     * installed */
+    boolean isChanged() {
+      return changed;
+    }
+
+    /** Time to check for changes and (if changed) load and parse the
+     * file */
+    long getLoadTime() {
+      return loadTime;
+    }
+
+    /** Time to merge into the new config */
+    long getMergeTime() {
+      return mergeTime;
+    }
+  }
+
+  /** Record of one reload: the sources that were merged, the resulting
+   * config, and timing information.  The record of the load that
+   * produced the current config is used by the next reload to determine
+   * what changed. */
+  static class ConfigLoad {
+    final List<ConfigSource> sources;
+    final String groupNames;
+    // Tdbs of the sources, in order
+    final List<Tdb> tdbSources = new ArrayList<Tdb>();
+    // The installed config, or the current config if it's equal to the
+    // one merged from these sources
+    Configuration config;
+    // Keys set by the processing following the merge
+    Set<String> postKeys;
+    boolean installed;
+    boolean incremental;
+    boolean tdbShared;
+    int numCandidateKeys;
+    int numDiffKeys;
+    long startTime;
+    long totalTime;
+    long mergeTime;
+    long diffTime;
+    long callbackTime;
+
+    ConfigLoad(List<ConfigSource> sources, String groupNames) {
+      this.sources = sources;
+      this.groupNames = groupNames;
+      for (ConfigSource src : sources) {
+	Tdb tdb = src.config.getTdb();
+	if (tdb != null) {
+	  tdbSources.add(tdb);
+	}
+      }
+    }
+
+    List<ConfigSource> getSources() {
+      return sources;
+    }
+
+    int getNumChangedSources() {
+      int res = 0;
+      for (ConfigSource src : sources) {
+	if (src.isChanged()) {
+	  res++;
+	}
+      }
+      return res;
+    }
+
+    boolean isInstalled() {
+      return installed;
+    }
+
+    /** True if only keys from changed sources were compared */
+    boolean isIncremental() {
+      return incremental;
+    }
+
+    /** True if the previous config's Tdb was reused */
+    boolean isTdbShared() {
+      return tdbShared;
+    }
+
+    int getNumCandidateKeys() {
+      return numCandidateKeys;
+    }
+
+    int getNumDiffKeys() {
+      return numDiffKeys;
+    }
+
+    long getStartTime() {
+      return startTime;
+    }
+
+    long getTotalTime() {
+      return totalTime;
+    }
+
+    long getMergeTime() {
+      return mergeTime;
+    }
+
+    long getDiffTime() {
+      return diffTime;
+    }
+
+    long getCallbackTime() {
+      return callbackTime;
+    }
+  }
+
+  /** Return the sources to be merged, in order, to produce a new config:
+   * app defaults, the loaded config files, then the app's un-overridable
+   * config. */
+  List<ConfigSource> getConfigSources(List<ConfigFile.Generation> gens) {
+    List<ConfigSource> res = new ArrayList<ConfigSource>(gens.size() + 3);
+    addAppSource(res, LockssApp::getBootDefault, "app bootstrap default");
+    addAppSource(res, LockssApp::getAppDefault, "app default");
+    for (ConfigFile.Generation gen : gens) {
+      if (gen != null) {
+	String url = gen.getUrl();
+	Long loadTime = fileLoadTimes.get(url);
+	res.add(new ConfigSource(url, gen.getConfig(), gen.getGeneration(),
+				 isChanged(gen),
+				 loadTime != null ? loadTime : 0));
+      }
+    }
+    addAppSource(res, LockssApp::getAppConfig, "app config");
+    return res;
+  }
+
+  private void addAppSource(List<ConfigSource> sources,
+			    Function<LockssApp,Configuration> getter,
+			    String msg) {
+    if (getApp() != null) {
+      Configuration config = getter.apply(getApp());
+      if (config != null && !config.isEmpty()) {
+	if (log.isDebug2()) log.debug2("Adding " + msg + ": " + config);
+	sources.add(new ConfigSource(msg, config, -1, false, 0));
+      }
+    }
+  }
+
+  /** Merge the sources into newConfig.  If the title database sources
+   * are the same objects that produced the Tdb of the previous load, that
+   * (sealed) Tdb is shared by the new config rather than being rebuilt.
+   */
+  void mergeSources(Configuration newConfig, ConfigLoad load,
+		    ConfigLoad prevLoad) {
+    final String DEBUG_HEADER = "mergeSources(): ";
+    Tdb sharedTdb = null;
+    if (prevLoad != null && !load.tdbSources.isEmpty()
+	&& isSameObjects(load.tdbSources, prevLoad.tdbSources)) {
+      sharedTdb = prevLoad.config.getTdb();
+    }
+    long startMerge = TimeBase.nowMs();
+    for (ConfigSource src : load.sources) {
+      long start = TimeBase.nowMs();
+      if (sharedTdb != null) {
+	newConfig.copyParamsFrom(src.config, null);
+      } else {
+	newConfig.copyFrom(src.config);
+      }
+      src.mergeTime = TimeBase.msSince(start);
+    }
+    if (sharedTdb != null) {
+      if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Sharing previous Tdb");
+      newConfig.setTdb(sharedTdb);
+      load.tdbShared = true;
+    }
+    load.mergeTime = TimeBase.msSince(startMerge);
+  }
+
+  static boolean isSameObjects(List l1, List l2) {
+    if (l1.size() != l2.size()) {
+      return false;
+    }
+    for (int ix = 0; ix < l1.size(); ix++) {
+      if (l1.get(ix) != l2.get(ix)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /** Return the keys that may differ between the config being installed
+   * and the previous one, or null if they can't be determined (in which
+   * case the entire configs must be compared).  A key's merged value can
+   * change only if it's set differently by a source that changed, or if
+   * it was set by the processing that follows merging, in either config.
+   */
+  Collection<String> getCandidateKeys(ConfigLoad load, ConfigLoad prevLoad,
+				      Configuration oldConfig,
+				      Set<String> postKeys) {
+    if (load == null || prevLoad == null
+	|| postKeys == null || prevLoad.postKeys == null
+	|| prevLoad.config != oldConfig || oldConfig.isEmpty()
+	|| !StringUtil.equalStrings(load.groupNames, prevLoad.groupNames)
+	|| load.sources.size() != prevLoad.sources.size()) {
+      return null;
+    }
+    Set<String> res = new HashSet<String>(postKeys);
+    res.addAll(prevLoad.postKeys);
+    for (int ix = 0; ix < load.sources.size(); ix++) {
+      ConfigSource src = load.sources.get(ix);
+      ConfigSource prevSrc = prevLoad.sources.get(ix);
+      if (!src.name.equals(prevSrc.name)) {
+	return null;
+      }
+      if (src.config != prevSrc.config) {
+	res.addAll(src.config.differentKeys(prevSrc.config));
+      }
+    }
+    return res;
+  }
+
   void loadList(Configuration intoConfig,
 		Collection<ConfigFile.Generation> gens) {
     final String DEBUG_HEADER = "loadList(): ";
@@ -1919,6 +2200,23 @@ public class ConfigManager implements LockssManager {
   }
 
   boolean installConfig(Configuration newConfig, List gens) {
+    return installConfig(newConfig, gens, null, null);
+  }
+
+  /**
+   * Installs the passed configuration as the current one.
+   * 
+   * @param newConfig the merged configuration
+   * @param gens the ConfigFile.Generations it was loaded from
+   * @param load null, or the sources from which newConfig was merged.
+   * @param prevLoad null, or the sources from which the current config
+   * was merged.  If both are non-null, only the keys set by changed
+   * sources are compared.
+   * @return <code>TRUE</code> if the passed configuration is installed,
+   *         <code>FALSE</code> otherwise.
+   */
+  boolean installConfig(Configuration newConfig, List gens,
+			ConfigLoad load, ConfigLoad prevLoad) {
     final String DEBUG_HEADER = "installConfig(): ";
     if (log.isDebug2()) {
       log.debug2(DEBUG_HEADER + "newConfig = " + newConfig);
@@ -1928,22 +2226,55 @@ public class ConfigManager implements LockssManager {
       if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Returning false.");
       return false;
     }
+    newConfig.startKeyJournal();
     copyPlatformParams(newConfig);
     inferMiscParams(newConfig);
     setConfigMacros(newConfig);
     setCompatibilityParams(newConfig);
+    Set<String> postKeys = newConfig.stopKeyJournal();
     newConfig.seal();
     Configuration oldConfig = currentConfig;
-    if (!oldConfig.isEmpty() && newConfig.equals(oldConfig)) {
+    long startDiff = TimeBase.nowMs();
+    Collection<String> candidateKeys =
+      getCandidateKeys(load, prevLoad, oldConfig, postKeys);
+    Configuration.Differences diffs = null;
+    boolean unchanged;
+    if (candidateKeys != null) {
+      diffs = newConfig.differences(oldConfig, candidateKeys);
+      unchanged = diffs.getDifferenceSet().isEmpty()
+	&& !newConfig.isTdbDifferent(oldConfig);
+      load.incremental = true;
+      load.numCandidateKeys = candidateKeys.size();
+    } else {
+      unchanged = !oldConfig.isEmpty() && newConfig.equals(oldConfig);
+    }
+    if (unchanged) {
       if (reloadInterval >= 10 * Constants.MINUTE) {
 	log.info("Config unchanged, not updated");
       }
       updateGenerations(gens);
+      if (load != null) {
+	// oldConfig is equal to the merge of these sources
+	load.diffTime = TimeBase.msSince(startDiff);
+	load.config = oldConfig;
+	load.postKeys = postKeys;
+	lastConfigLoad = load;
+      }
       if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Returning false.");
       return false;
     }
 
-    Configuration.Differences diffs = newConfig.differences(oldConfig);
+    if (diffs == null) {
+      diffs = newConfig.differences(oldConfig);
+    }
+    if (load != null) {
+      load.diffTime = TimeBase.msSince(startDiff);
+      load.numDiffKeys = diffs.getDifferenceSet().size();
+      load.installed = true;
+      load.config = newConfig;
+      load.postKeys = postKeys;
+    }
+    lastConfigLoad = load;
     // XXX for test utils.  ick
     initCacheConfig(newConfig);
     setCurrentConfig(newConfig);
@@ -1998,6 +2329,10 @@ public class ConfigManager implements LockssManager {
       clientId = config.get(PARAM_JMS_CLIENT_ID, DEFAULT_JMS_CLIENT_ID);
       auInsertCommitCount = config.getInt(PARAM_AU_INSERT_COMMIT_COUNT,
 	  				  DEFAULT_AU_INSERT_COMMIT_COUNT);
+      paramIncrementalReload = config.getBoolean(PARAM_INCREMENTAL_RELOAD,
+						 DEFAULT_INCREMENTAL_RELOAD);
+      ConfigurationPropTreeImpl.setPackMinSize(
+          config.getInt(PARAM_PACK_MIN_SIZE, DEFAULT_PACK_MIN_SIZE));
     }
 
     if (changedKeys.contains(PARAM_PLATFORM_VERSION)) {
@@ -4259,6 +4594,70 @@ public class ConfigManager implements LockssManager {
     return result;
   }
 
+  /**
+   * Passes each of the Archival Unit configurations stored in the database to
+   * a consumer.  Unlike {@link #retrieveAllArchivalUnitConfiguration()}, the
+   * configurations are not all accumulated when they come from the local
+   * database, but are read in chunks of at most <code>chunkSize</code>.
+   * Each chunk is read in full, and its database cursor closed, before any
+   * of its configurations is passed to the consumer, so the consumer may
+   * block or take a long time.
+   * 
+   * @param chunkSize
+   *          An int with the maximum number of Archival Unit configurations
+   *          read from the database at once.
+   * @param consumer
+   *          A Consumer<AuConfiguration> that receives each Archival Unit
+   *          configuration.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   * @throws IOException
+   *           if any IO problem occurred.
+   * @throws LockssRestException
+   *           if any problem occurred accessing the REST service.
+   */
+  public void processAllArchivalUnitConfiguration(int chunkSize,
+      Consumer<AuConfiguration> consumer)
+	  throws DbException, IOException, LockssRestException {
+    if (log.isDebug2()) log.debug2("chunkSize = " + chunkSize);
+
+    if (restConfigClient.isActive()) {
+      // The REST service returns all the configurations at once.
+      for (AuConfiguration auConfiguration :
+	     retrieveAllArchivalUnitConfiguration()) {
+	consumer.accept(auConfiguration);
+      }
+    } else {
+      ConfigManagerSql configManagerSql = getConfigManagerSql();
+      long lastAuSeq = -1;
+
+      do {
+	lastAuSeq = configManagerSql.processArchivalUnitConfigurationChunk(
+	    lastAuSeq, chunkSize,
+	    (auId, auConfig) -> consumer.accept(new AuConfiguration(auId,
+								    auConfig)));
+      } while (lastAuSeq >= 0);
+    }
+
+    if (log.isDebug2()) log.debug2("Done");
+  }
+
+  /**
+   * Provides the number of Archival Unit configurations stored in the
+   * database, if it can be determined cheaply.
+   * 
+   * @return an int with the number of Archival Unit configurations, or -1 if
+   *         the configurations are obtained from the REST service.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public int countArchivalUnitConfigurations() throws DbException {
+    if (restConfigClient.isActive()) {
+      return -1;
+    }
+    return getConfigManagerSql().countArchivalUnitConfigurations();
+  }
+
   /**
    * Provides the configuration of an Archival Unit stored in the database.
    * 
@@ -36,6 +36,7 @@ import org.lockss.app.*;
 import org.lockss.daemon.status.*;
 import org.lockss.daemon.status.StatusService.NoSuchTableException;
 import org.lockss.util.*;
+import org.lockss.util.time.TimeUtil;
 import org.lockss.config.*;
 import org.lockss.plugin.*;
 
@@ -45,6 +46,7 @@ public class ConfigStatus extends BaseLockssDaemonManager {
 
   final static String CONFIG_STATUS_TABLE = "ConfigStatus";
   final static String CONFIG_FILE_STATUS_TABLE = "ConfigFileStatus";
+  final static String CONFIG_RELOAD_TABLE = "ConfigReload";
 
   public static final String PREFIX = Configuration.PREFIX + "configStatus.";
 
@@ -62,6 +64,7 @@ public class ConfigStatus extends BaseLockssDaemonManager {
     StatusService statusServ = getDaemon().getStatusService();
     statusServ.registerStatusAccessor(CONFIG_STATUS_TABLE, new Status());
     statusServ.registerStatusAccessor(CONFIG_FILE_STATUS_TABLE, new OneFile());
+    statusServ.registerStatusAccessor(CONFIG_RELOAD_TABLE, new Reload());
     configMgr = getDaemon().getConfigManager();
   }
 
@@ -69,6 +72,7 @@ public class ConfigStatus extends BaseLockssDaemonManager {
     StatusService statusServ = getDaemon().getStatusService();
     statusServ.unregisterStatusAccessor(CONFIG_STATUS_TABLE);
     statusServ.unregisterStatusAccessor(CONFIG_FILE_STATUS_TABLE);
+    statusServ.unregisterStatusAccessor(CONFIG_RELOAD_TABLE);
   }
 
   /** Base class for status tables displaying a Configuration */
@@ -222,6 +226,14 @@ public class ConfigStatus extends BaseLockssDaemonManager {
       res.add(new StatusTable.SummaryInfo("Last Reload",
 					  ColumnDescriptor.TYPE_DATE,
 					  configMgr.getLastUpdateTime()));
+      ConfigManager.ConfigLoad load = configMgr.getLastReload();
+      if (load != null) {
+	String time = TimeUtil.timeIntervalToString(load.getTotalTime());
+	res.add(new StatusTable.SummaryInfo("Reload Time",
+					    ColumnDescriptor.TYPE_STRING,
+					    new StatusTable.Reference(time,
+								      CONFIG_RELOAD_TABLE)));
+      }
       return res;
     }
   }
@@ -306,5 +318,113 @@ public class ConfigStatus extends BaseLockssDaemonManager {
       return res;
     }
   }
-}
 
+  /** Timing of the most recent reload, broken down by config source */
+  class Reload implements StatusAccessor.DebugOnly {
+
+    private final List colDescs =
+      ListUtil.list(new ColumnDescriptor("sort", "Order",
+					 ColumnDescriptor.TYPE_INT),
+		    new ColumnDescriptor("name", "Source",
+					 ColumnDescriptor.TYPE_STRING),
+		    new ColumnDescriptor("gen", "Generation",
+					 ColumnDescriptor.TYPE_INT),
+		    new ColumnDescriptor("changed", "Changed",
+					 ColumnDescriptor.TYPE_STRING),
+		    new ColumnDescriptor("load", "Load Time",
+					 ColumnDescriptor.TYPE_TIME_INTERVAL),
+		    new ColumnDescriptor("merge", "Merge Time",
+					 ColumnDescriptor.TYPE_TIME_INTERVAL)
+		    );
+
+    private final List sortRules =
+      ListUtil.list(new StatusTable.SortRule("sort", true));
+
+    public String getDisplayName() {
+      return "Configuration Reload";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      ConfigManager.ConfigLoad load = configMgr.getLastReload();
+      table.setColumnDescriptors(colDescs, "name;gen;changed;load;merge");
+      table.setDefaultSortRules(sortRules);
+      if (load != null) {
+	table.setSummaryInfo(getSummaryInfo(load));
+	table.setRows(getRows(load));
+      }
+    }
+
+    List getRows(ConfigManager.ConfigLoad load) {
+      List rows = new ArrayList();
+      int ix = 0;
+      for (ConfigManager.ConfigSource src : load.getSources()) {
+	Map row = new HashMap();
+	row.put("sort", ix++);
+	if (src.getGeneration() >= 0) {
+	  row.put("name",
+		  new StatusTable.Reference(src.getName(),
+					    CONFIG_FILE_STATUS_TABLE,
+					    "cf:" + src.getName()));
+	  row.put("gen", src.getGeneration());
+	  row.put("changed", src.isChanged() ? "Yes" : "No");
+	  row.put("load", src.getLoadTime());
+	} else {
+	  row.put("name", src.getName());
+	}
+	row.put("merge", src.getMergeTime());
+	rows.add(row);
+      }
+      return rows;
+    }
+
+    List getSummaryInfo(ConfigManager.ConfigLoad load) {
+      List res = new ArrayList();
+      res.add(new StatusTable.SummaryInfo("Reload Started",
+					  ColumnDescriptor.TYPE_DATE,
+					  load.getStartTime()));
+      res.add(new StatusTable.SummaryInfo("Result",
+					  ColumnDescriptor.TYPE_STRING,
+					  load.isInstalled()
+					  ? "Installed new config"
+					  : "Config unchanged"));
+      res.add(new StatusTable.SummaryInfo("Changed Sources",
+					  ColumnDescriptor.TYPE_STRING,
+					  load.getNumChangedSources() + " of "
+					  + load.getSources().size()));
+      res.add(new StatusTable.SummaryInfo("Comparison",
+					  ColumnDescriptor.TYPE_STRING,
+					  load.isIncremental()
+					  ? ("Incremental, "
+					     + load.getNumCandidateKeys()
+					     + " candidate keys")
+					  : "Full"));
+      if (load.isInstalled()) {
+	res.add(new StatusTable.SummaryInfo("Changed Keys",
+					    ColumnDescriptor.TYPE_INT,
+					    load.getNumDiffKeys()));
+      }
+      res.add(new StatusTable.SummaryInfo("Title DB",
+					  ColumnDescriptor.TYPE_STRING,
+					  load.isTdbShared()
+					  ? "Shared with previous config"
+					  : "Rebuilt"));
+      res.add(new StatusTable.SummaryInfo("Total Time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  load.getTotalTime()));
+      res.add(new StatusTable.SummaryInfo("Merge Time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  load.getMergeTime()));
+      res.add(new StatusTable.SummaryInfo("Compare Time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  load.getDiffTime()));
+      res.add(new StatusTable.SummaryInfo("Callback Time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  load.getCallbackTime()));
+      return res;
+    }
+  }
+}
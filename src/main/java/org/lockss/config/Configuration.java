@@ -210,23 +210,21 @@ public abstract class Configuration {
    * @pse null, or an event to be called for every param copied
    */
   public void copyFrom(Configuration other, ParamCopyEvent pse) {
-    // merge other config tree into this one
-    for (Iterator iter = other.keyIterator(); iter.hasNext(); ) {
-      String key = (String)iter.next();
-      String val = other.get(key);
-      if (pse != null) {
-	pse.paramCopied(key, val);
-      }
-      put(key, val);
-    }
+    copyParamsFrom(other, pse);
     
     // merge other config Tdb into this one
     Tdb otherTdb = other.getTdb();
     if (otherTdb != null) {
-      if (tdb == null) {
-        tdb = new Tdb();
-      }
       try {
+	if (tdb == null) {
+	  tdb = new Tdb();
+	} else if (tdb.isSealed()) {
+	  // Tdb is shared with another Configuration; copy it before
+	  // modifying it
+	  Tdb copy = new Tdb();
+	  copy.copyFrom(tdb);
+	  tdb = copy;
+	}
         tdb.copyFrom(otherTdb);
       } catch (TdbException ex) {
         log.error("Error copying into Tdb", ex);
@@ -234,6 +232,22 @@ public abstract class Configuration {
     }
   }
 
+  /** Copy the params (but not the Tdb) of the argument into this config.
+   * Duplicate keys will be overwritten.
+   * @other the config from which to copy
+   * @pse null, or an event to be called for every param copied
+   */
+  void copyParamsFrom(Configuration other, ParamCopyEvent pse) {
+    for (Iterator iter = other.keyIterator(); iter.hasNext(); ) {
+      String key = (String)iter.next();
+      String val = other.get(key);
+      if (pse != null) {
+	pse.paramCopied(key, val);
+      }
+      put(key, val);
+    }
+  }
+
   /** Copy contents of the argument into this config.  Duplicate keys
    *  will <em>not</em> be overwritten. Title Database is not copied.
    */
@@ -301,11 +315,43 @@ public abstract class Configuration {
     return new Configuration.Differences(this, otherConfig);
   }
 
+  /** Return the difference between this instance and another
+   * Configuration, examining only the candidate keys.  The caller must
+   * ensure that every key whose value might differ is among the
+   * candidates.  Otherwise behaves like {@link
+   * #differences(Configuration)}.
+   * 
+   * @param otherConfig the config to compare with.  May be null.
+   * @param candidateKeys the keys that may have changed
+   */
+  Configuration.Differences differences(Configuration otherConfig,
+					Collection<String> candidateKeys) {
+    return new Configuration.Differences(this, otherConfig, candidateKeys);
+  }
+
   /** Return the set of keys whose values differ.
    * 
    * @param otherConfig the config to compare with.  May be null.
    */
   public abstract Set<String> differentKeys(Configuration otherConfig);
+
+  /** Return the set of keys and prefixes whose values differ, examining
+   * only the candidate keys.
+   * 
+   * @param otherConfig the config to compare with.  May be null.
+   * @param candidateKeys the keys to compare
+   */
+  abstract Set<String> differentKeys(Configuration otherConfig,
+				     Collection<String> candidateKeys);
+
+  /** Start recording the keys that are subsequently put or removed.
+   * Used to determine which keys are set by processing that follows the
+   * merging of config files. */
+  abstract void startKeyJournal();
+
+  /** Stop recording keys, return those put or removed since {@link
+   * #startKeyJournal()} was called. */
+  abstract Set<String> stopKeyJournal();
   
 
   /** Return true iff config has no keys or title database 
@@ -921,6 +967,21 @@ public abstract class Configuration {
      * @param otherConfig the previous configuration
      */
     protected Differences(Configuration thisConfig, Configuration otherConfig) {
+      this(thisConfig, otherConfig, null);
+    }
+
+    /**
+     * Create instance for differences between thisConfig and otherConfig,
+     * examining only the candidate keys (if non-null) rather than the
+     * entire config.  Used by incremental reload, which knows which
+     * config sources changed.
+     * 
+     * @param thisConfig this configuration
+     * @param otherConfig the previous configuration
+     * @param candidateKeys null, or the keys whose values may differ
+     */
+    Differences(Configuration thisConfig, Configuration otherConfig,
+		Collection<String> candidateKeys) {
       if (thisConfig == null) {
         throw new IllegalArgumentException("thisConfig cannot be null");
       }
@@ -937,7 +998,9 @@ public abstract class Configuration {
 	// config trees and this gets called repeatedly at start as plugins
 	// register their config callbacks.
 	this.containsAllKeys = false;
-	this.diffKeys = thisConfig.differentKeys(otherConfig);
+	this.diffKeys = (candidateKeys == null)
+	  ? thisConfig.differentKeys(otherConfig)
+	  : thisConfig.differentKeys(otherConfig, candidateKeys);
       }
       this.tdbDiffs = Tdb.computeDifferences(thisConfig.getTdb(),
 					     otherConfig == null ? null :
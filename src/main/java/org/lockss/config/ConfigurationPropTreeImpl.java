@@ -38,11 +38,21 @@ import java.util.*;
 import org.lockss.util.*;
 
 /** <code>ConfigurationPropTreeImpl</code> represents the config parameters
- * as a {@link org.lockss.util.PropertyTree}
+ * as a {@link org.lockss.util.PropertyTree}.  When a large instance is
+ * sealed the PropertyTree is replaced by a read-only {@link
+ * PackedConfigTree}, which takes a small fraction of the space.
  */
 public class ConfigurationPropTreeImpl extends Configuration {
+  static final int DEFAULT_PACK_MIN_SIZE = -1;
+
+  // Sealed instances with at least this many keys are packed; -1 never
+  private static volatile int packMinSize = DEFAULT_PACK_MIN_SIZE;
+
+  // Exactly one of props and packed is non-null
   private PropertyTree props;
+  private PackedConfigTree packed;
   private boolean isSealed = false;
+  private Set<String> keyJournal;
 
   ConfigurationPropTreeImpl() {
     super();
@@ -54,10 +64,31 @@ public class ConfigurationPropTreeImpl extends Configuration {
     props = tree;
   }
 
+  private ConfigurationPropTreeImpl(PackedConfigTree tree) {
+    super();
+    packed = tree;
+  }
+
+  /** Set the minimum number of keys for a sealed config to be packed.
+   * -1 disables packing.  Called by ConfigManager. */
+  static void setPackMinSize(int n) {
+    packMinSize = n;
+  }
+
+  /** Return the PropertyTree.  If this config has been packed this is a
+   * new copy, so must not be modified. */
   PropertyTree getPropertyTree() {
+    if (packed != null) {
+      return packed.toPropertyTree();
+    }
     return props;
   }
 
+  /** Return true if the keys and values are in packed form */
+  boolean isPacked() {
+    return packed != null;
+  }
+
   public boolean store(OutputStream ostr, String header) throws IOException {
     return store(ostr, header, null);
   }
@@ -108,7 +139,7 @@ public class ConfigurationPropTreeImpl extends Configuration {
   }
 
   private Collection<String> sortedKeys() {
-     return new TreeSet(props.keySet());
+     return new TreeSet(keySet());
   }
 
   private static void writeComments(BufferedWriter bw, String comments) 
@@ -259,7 +290,13 @@ public class ConfigurationPropTreeImpl extends Configuration {
    */
   void reset() {
     super.reset();
-    props.clear();
+    if (packed != null) {
+      packed = null;
+      props = new PropertyTree();
+    } else {
+      props.clear();
+    }
+    keySet = null;
   }
 
   /** Return the set of keys whose values differ.
@@ -272,16 +309,84 @@ public class ConfigurationPropTreeImpl extends Configuration {
     if (this == otherConfig) {
       return Collections.EMPTY_SET;
     }
-    PropertyTree otherTree = (otherConfig == null) ? 
-        new PropertyTree() : ((ConfigurationPropTreeImpl)otherConfig).getPropertyTree();
-    return PropUtil.differentKeysAndPrefixes(getPropertyTree(), otherTree);
+    if (otherConfig == null) {
+      otherConfig = ConfigManager.EMPTY_CONFIGURATION;
+    }
+    if (packed == null &&
+	!((ConfigurationPropTreeImpl)otherConfig).isPacked()) {
+      PropertyTree otherTree =
+	((ConfigurationPropTreeImpl)otherConfig).getPropertyTree();
+      return PropUtil.differentKeysAndPrefixes(getPropertyTree(), otherTree);
+    }
+    Set<String> res = new HashSet<String>();
+    for (String key : keySet()) {
+      if (!isKeySame(key, otherConfig)) {
+	PropUtil.addKeyAndPrefixes(res, key);
+      }
+    }
+    for (String key : otherConfig.keySet()) {
+      if (!containsKey(key)) {
+	PropUtil.addKeyAndPrefixes(res, key);
+      }
+    }
+    return res;
+  }
+
+  Set<String> differentKeys(Configuration otherConfig,
+			    Collection<String> candidateKeys) {
+    if (this == otherConfig) {
+      return Collections.EMPTY_SET;
+    }
+    if (otherConfig == null) {
+      otherConfig = ConfigManager.EMPTY_CONFIGURATION;
+    }
+    if (packed == null &&
+	!((ConfigurationPropTreeImpl)otherConfig).isPacked()) {
+      PropertyTree otherTree =
+	((ConfigurationPropTreeImpl)otherConfig).getPropertyTree();
+      return PropUtil.differentKeysAndPrefixes(getPropertyTree(), otherTree,
+					       candidateKeys);
+    }
+    Set<String> res = new HashSet<String>();
+    for (String key : candidateKeys) {
+      if (containsKey(key)) {
+	if (!isKeySame(key, otherConfig)) {
+	  PropUtil.addKeyAndPrefixes(res, key);
+	}
+      } else if (otherConfig.containsKey(key)) {
+	PropUtil.addKeyAndPrefixes(res, key);
+      }
+    }
+    return res;
+  }
+
+  private boolean isKeySame(String key, Configuration otherConfig) {
+    String val = get(key);
+    return otherConfig.containsKey(key) &&
+      StringUtil.equalStrings(val, otherConfig.get(key));
+  }
+
+  void startKeyJournal() {
+    keyJournal = new HashSet<String>();
+  }
+
+  Set<String> stopKeyJournal() {
+    Set<String> res = keyJournal;
+    keyJournal = null;
+    return res;
   }
 
   public boolean containsKey(String key) {
+    if (packed != null) {
+      return packed.containsKey(key);
+    }
     return props.containsKey(key);
   }
 
   public String get(String key) {
+    if (packed != null) {
+      return packed.get(key);
+    }
     return (String)props.get(key);
   }
 
@@ -303,7 +408,7 @@ public class ConfigurationPropTreeImpl extends Configuration {
     List propList = null;
 
     try {
-      Object o = props.get(key);
+      Object o = (packed != null) ? packed.get(key) : props.get(key);
       if (o != null) {
 	if (o instanceof List) {
 	  propList = (List)o;
@@ -325,6 +430,9 @@ public class ConfigurationPropTreeImpl extends Configuration {
     if (isSealed) {
       throw new IllegalStateException("Can't modify sealed configuration");
     }
+    if (keyJournal != null) {
+      keyJournal.add(key);
+    }
     props.setProperty(key, val);
   }
 
@@ -335,12 +443,16 @@ public class ConfigurationPropTreeImpl extends Configuration {
     if (isSealed) {
       throw new IllegalStateException("Can't modify sealed configuration");
     }
+    if (keyJournal != null) {
+      keyJournal.add(key);
+    }
     props.remove(key);
   }
 
   public void seal() {
     isSealed = true;
-    
+    pack();
+
     // also seal the title database
     Tdb tdb = getTdb();
     if (tdb != null) {
@@ -348,11 +460,36 @@ public class ConfigurationPropTreeImpl extends Configuration {
     }
   }
 
+  /** Replace the PropertyTree with a PackedConfigTree if it's large
+   * enough and representable */
+  private void pack() {
+    int min = packMinSize;
+    if (packed != null || min < 0 || props.size() < min) {
+      return;
+    }
+    PackedConfigTree tree = PackedConfigTree.fromPropertyTree(props);
+    if (tree != null) {
+      packed = tree;
+      props = null;
+      keySet = null;
+    }
+  }
+
   public boolean isSealed() {
     return isSealed;
   }
 
   public Configuration getConfigTree(String key) {
+    if (packed != null) {
+      PackedConfigTree sub = packed.getTree(key);
+      if (sub == null) {
+	return ConfigManager.EMPTY_CONFIGURATION;
+      }
+      // Already immutable; mark sealed without repacking
+      ConfigurationPropTreeImpl res = new ConfigurationPropTreeImpl(sub);
+      res.isSealed = true;
+      return res;
+    }
     PropertyTree tree = props.getTree(key);
     if (tree == null) {
       // getTree never returns null, but be safe
@@ -366,11 +503,16 @@ public class ConfigurationPropTreeImpl extends Configuration {
   }
 
   // Cache the unmodifiable keySet so tests can compare identity
-  private Set keySet = null;
+  private Set<String> keySet = null;
 
-  public Set keySet() {
+  public Set<String> keySet() {
     if (keySet == null) {
-      keySet = Collections.unmodifiableSet(props.keySet());
+      if (packed != null) {
+	keySet = packed.keySet();
+      } else {
+	// PropertyTree keys are always Strings
+	keySet = Collections.unmodifiableSet((Set<String>)(Set)props.keySet());
+      }
     }
     return keySet;
   }
@@ -380,13 +522,23 @@ public class ConfigurationPropTreeImpl extends Configuration {
   }
 
   public Iterator nodeIterator() {
+    if (packed != null) {
+      return possiblyEmptyIterator(packed.getNodes(null));
+    }
     return possiblyEmptyIterator(props.getNodes());
   }
 
   public Iterator nodeIterator(String key) {
+    if (packed != null) {
+      return possiblyEmptyIterator(packed.getNodes(key));
+    }
     return possiblyEmptyIterator(props.getNodes(key));
   }
 
+  private Iterator possiblyEmptyIterator(Iterator iter) {
+    return (iter != null) ? iter : CollectionUtil.EMPTY_ITERATOR;
+  }
+
   private Iterator possiblyEmptyIterator(Enumeration en) {
     if (en != null) {
       return new EnumerationIterator(en);
@@ -396,6 +548,9 @@ public class ConfigurationPropTreeImpl extends Configuration {
   }
 
   public String toString() {
-    return getPropertyTree().toString();
+    if (packed != null) {
+      return packed.toString();
+    }
+    return props.toString();
   }
 }
@@ -149,6 +149,59 @@ public class CurrentConfig {
     return cur.getDouble(key, dfault);
   }
 
+  /** Return a handle that caches the boolean value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.BooleanParam booleanParam(String key,
+						      boolean dfault) {
+    return new ParamHandle.BooleanParam(key, dfault);
+  }
+
+  /** Return a handle that caches the int value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.IntParam intParam(String key, int dfault) {
+    return new ParamHandle.IntParam(key, dfault);
+  }
+
+  /** Return a handle that caches the long value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.LongParam longParam(String key, long dfault) {
+    return new ParamHandle.LongParam(key, dfault);
+  }
+
+  /** Return a handle that caches the time interval value of the param in
+   * the current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.TimeIntervalParam timeIntervalParam(String key,
+								long dfault) {
+    return new ParamHandle.TimeIntervalParam(key, dfault);
+  }
+
+  /** Return a handle that caches the size value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.SizeParam sizeParam(String key, long dfault) {
+    return new ParamHandle.SizeParam(key, dfault);
+  }
+
+  /** Return a handle that caches the double value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.DoubleParam doubleParam(String key,
+						    double dfault) {
+    return new ParamHandle.DoubleParam(key, dfault);
+  }
+
+  /** Return a handle that caches the percentage value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.PercentageParam percentageParam(String key,
+							    double dfault) {
+    return new ParamHandle.PercentageParam(key, dfault);
+  }
+
+  /** Return a handle that caches the String value of the param in the
+   * current configuration.  See {@link ParamHandle}. */
+  public static ParamHandle.StringParam stringParam(String key,
+						    String dfault) {
+    return new ParamHandle.StringParam(key, dfault);
+  }
+
   /** Static convenience method to get a <code>Configuration</code>
    * subtree from the current configuration.
    */
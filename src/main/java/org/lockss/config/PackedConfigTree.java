@@ -0,0 +1,501 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import java.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Immutable, compact representation of a set of dotted config keys and
+ * their values, used by sealed {@link ConfigurationPropTreeImpl}s in place
+ * of a {@link PropertyTree}.
+ *
+ * <p>The keys form a trie with one node per distinct key prefix (in
+ * units of dot-separated segments).  Nodes are numbered breadth-first so
+ * that the children of each node are contiguous and sorted; the whole
+ * tree is three parallel arrays, with no per-node or per-entry objects.
+ * Segments are interned in {@link StringPool#PROPERTY_TREE}, equal values
+ * share a single String, and full key strings aren't stored at all;
+ * they're generated by {@link #keySet()} on demand.
+ *
+ * <p>Lookup is a binary search at each level.  Children are ordered by
+ * the segment's hash code, then by the segment, so that siblings with
+ * long common prefixes (<i>eg</i>, AU keys) are usually distinguished by
+ * an int comparison rather than by comparing their characters.
+ *
+ * <p>{@link #getTree(String)} returns a view rooted at an interior node,
+ * sharing the arrays, so subtrees are free.
+ *
+ * <p>Only sets of keys that a PropertyTree represents exactly can be
+ * packed: keys must be non-empty, have no empty segments and no
+ * <code>*</code> (wildcard) segments, and all values must be Strings.
+ * {@link #fromPropertyTree(PropertyTree)} returns null otherwise.
+ */
+final class PackedConfigTree {
+
+  // Shared by all views of the same tree
+  private final String[] segs;		// node -> last segment of its key
+  private final String[] vals;		// node -> value, or null
+  // Children of node n are [childStart[n], childStart[n+1])
+  private final int[] childStart;
+
+  private final int root;		// Node at which this view is rooted
+  private int size = -1;		// Number of keys in view, lazily computed
+  private Set<String> keySet;
+
+  private PackedConfigTree(String[] segs, String[] vals, int[] childStart,
+			   int root) {
+    this.segs = segs;
+    this.vals = vals;
+    this.childStart = childStart;
+    this.root = root;
+  }
+
+  /** Build a PackedConfigTree containing the keys and values in the
+   * PropertyTree.
+   * @return the PackedConfigTree, or null if the PropertyTree contains
+   * keys or values that can't be represented.
+   */
+  static PackedConfigTree fromPropertyTree(PropertyTree props) {
+    int n = props.size();
+    Entry[] ents = new Entry[n];
+    Map<String,String> valPool = new HashMap<String,String>();
+    int ix = 0;
+    synchronized (props) {
+      for (Map.Entry<Object,Object> me : props.entrySet()) {
+	if (!(me.getKey() instanceof String) ||
+	    !(me.getValue() instanceof String)) {
+	  return null;
+	}
+	String[] toks = splitKey((String)me.getKey());
+	if (toks == null || ix >= n) {
+	  return null;
+	}
+	String val = (String)me.getValue();
+	String pooled = valPool.get(val);
+	if (pooled == null) {
+	  valPool.put(val, val);
+	  pooled = val;
+	}
+	ents[ix++] = new Entry(toks, pooled);
+      }
+    }
+    if (ix != n) {
+      return null;
+    }
+    valPool = null;
+    Arrays.sort(ents, ENTRY_CMP);
+    return build(ents);
+  }
+
+  /** Split the key into interned segments, or return null if it has
+   * empty or wildcard segments. */
+  private static String[] splitKey(String key) {
+    if (key.isEmpty()) {
+      return null;
+    }
+    int nseg = 1;
+    for (int ix = 0; ix < key.length(); ix++) {
+      if (key.charAt(ix) == '.') {
+	nseg++;
+      }
+    }
+    String[] res = new String[nseg];
+    int pos = 0;
+    for (int ix = 0; ix < nseg; ix++) {
+      int dot = key.indexOf('.', pos);
+      if (dot < 0) {
+	dot = key.length();
+      }
+      if (dot == pos) {
+	return null;
+      }
+      String seg = key.substring(pos, dot);
+      if ("*".equals(seg)) {
+	return null;
+      }
+      res[ix] = StringPool.PROPERTY_TREE.intern(seg);
+      pos = dot + 1;
+    }
+    return res;
+  }
+
+  /** Lay out the trie breadth-first from entries sorted segment-wise */
+  private static PackedConfigTree build(Entry[] ents) {
+    // Upper bound on number of nodes: root plus one per segment
+    int max = 1;
+    for (Entry ent : ents) {
+      max += ent.toks.length;
+    }
+    String[] segs = new String[max];
+    String[] vals = new String[max];
+    int[] childStart = new int[max + 1];
+    // Range of entries below each node, and its depth.  Only needed
+    // during construction.
+    int[] lo = new int[max];
+    int[] hi = new int[max];
+    int[] depth = new int[max];
+
+    int count = 1;
+    lo[0] = 0;
+    hi[0] = ents.length;
+    depth[0] = 0;
+    for (int node = 0; node < count; node++) {
+      int l = lo[node];
+      int h = hi[node];
+      int d = depth[node];
+      // A key that ends at this node sorts first in its range
+      if (l < h && ents[l].toks.length == d) {
+	vals[node] = ents[l].val;
+	l++;
+      }
+      childStart[node] = count;
+      while (l < h) {
+	String seg = ents[l].toks[d];
+	int e = l + 1;
+	while (e < h && ents[e].toks[d].equals(seg)) {
+	  e++;
+	}
+	segs[count] = seg;
+	lo[count] = l;
+	hi[count] = e;
+	depth[count] = d + 1;
+	count++;
+	l = e;
+      }
+    }
+    childStart[count] = count;
+    return new PackedConfigTree(Arrays.copyOf(segs, count),
+				Arrays.copyOf(vals, count),
+				Arrays.copyOf(childStart, count + 1),
+				0);
+  }
+
+  /** Return the value of the key, or null.  As with {@link
+   * PropertyTree#get(Object)}, empty segments in the key are ignored. */
+  String get(String key) {
+    int node = find(key, false);
+    return node < 0 ? null : vals[node];
+  }
+
+  /** Return true if the key is present.  As with {@link
+   * Hashtable#containsKey(Object)}, the key must match exactly. */
+  boolean containsKey(String key) {
+    int node = find(key, true);
+    return node >= 0 && vals[node] != null;
+  }
+
+  /** Return the view rooted at the key, or null if there's no such
+   * node. */
+  PackedConfigTree getTree(String key) {
+    int node = find(key, false);
+    if (node < 0) {
+      return null;
+    }
+    return new PackedConfigTree(segs, vals, childStart, node);
+  }
+
+  /** Return the names of the children of the node, or null if there's no
+   * such node. */
+  Iterator<String> getNodes(String key) {
+    int node = StringUtil.isNullString(key) ? root : find(key, false);
+    if (node < 0) {
+      return null;
+    }
+    return Arrays.asList(segs).subList(childStart[node],
+				       childStart[node + 1]).iterator();
+  }
+
+  /** Return the number of keys */
+  int size() {
+    if (size < 0) {
+      int res = 0;
+      int[] stack = new int[16];
+      int sp = 0;
+      stack[sp++] = root;
+      while (sp > 0) {
+	int node = stack[--sp];
+	for (int child = childStart[node]; child < childStart[node + 1];
+	     child++) {
+	  if (vals[child] != null) {
+	    res++;
+	  }
+	  if (childStart[child] < childStart[child + 1]) {
+	    if (sp == stack.length) {
+	      stack = Arrays.copyOf(stack, sp * 2);
+	    }
+	    stack[sp++] = child;
+	  }
+	}
+      }
+      size = res;
+    }
+    return size;
+  }
+
+  boolean isEmpty() {
+    return childStart[root] == childStart[root + 1];
+  }
+
+  /** Return an unmodifiable view of the keys, relative to the root of
+   * this view.  Key strings are built as they're iterated. */
+  Set<String> keySet() {
+    if (keySet == null) {
+      keySet = new AbstractSet<String>() {
+	  public Iterator<String> iterator() {
+	    return new KeyIterator();
+	  }
+	  public int size() {
+	    return PackedConfigTree.this.size();
+	  }
+	  public boolean contains(Object o) {
+	    return (o instanceof String) && containsKey((String)o);
+	  }
+	};
+    }
+    return keySet;
+  }
+
+  /** Copy the keys and values into a new PropertyTree */
+  PropertyTree toPropertyTree() {
+    PropertyTree res = new PropertyTree();
+    for (String key : keySet()) {
+      res.put(key, get(key));
+    }
+    return res;
+  }
+
+  /** Return the number of trie nodes (including interior nodes) in the
+   * whole tree, for stats and testing */
+  int getNodeCount() {
+    return segs.length;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{");
+    boolean first = true;
+    for (String key : keySet()) {
+      if (!first) {
+	sb.append(", ");
+      }
+      first = false;
+      sb.append(key);
+      sb.append("=");
+      sb.append(get(key));
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+
+  /** Return the node for the key, or -1.  If exact, empty segments
+   * cause the lookup to fail, else they're skipped. */
+  private int find(String key, boolean exact) {
+    if (key == null) {
+      return -1;
+    }
+    int node = root;
+    int len = key.length();
+    int pos = 0;
+    boolean any = false;
+    while (pos <= len) {
+      int dot = key.indexOf('.', pos);
+      if (dot < 0) {
+	dot = len;
+      }
+      if (dot == pos) {
+	if (exact) {
+	  return -1;
+	}
+      } else {
+	node = findChild(node, key, pos, dot);
+	if (node < 0) {
+	  return -1;
+	}
+	any = true;
+      }
+      pos = dot + 1;
+    }
+    return any ? node : -1;
+  }
+
+  /** Binary search the children of node for key[from,to) */
+  private int findChild(int node, String key, int from, int to) {
+    int lo = childStart[node];
+    int hi = childStart[node + 1] - 1;
+    if (lo > hi) {
+      return -1;
+    }
+    // Same as key.substring(from, to).hashCode()
+    int hash = 0;
+    for (int ix = from; ix < to; ix++) {
+      hash = 31 * hash + key.charAt(ix);
+    }
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      String seg = segs[mid];
+      int cmp = Integer.compare(seg.hashCode(), hash);
+      if (cmp == 0) {
+	cmp = compareSeg(seg, key, from, to);
+      }
+      if (cmp < 0) {
+	lo = mid + 1;
+      } else if (cmp > 0) {
+	hi = mid - 1;
+      } else {
+	return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Same as seg.compareTo(key.substring(from, to)), without creating
+   * the substring */
+  private static int compareSeg(String seg, String key, int from, int to) {
+    int len1 = seg.length();
+    int len2 = to - from;
+    int lim = Math.min(len1, len2);
+    for (int ix = 0; ix < lim; ix++) {
+      char c1 = seg.charAt(ix);
+      char c2 = key.charAt(from + ix);
+      if (c1 != c2) {
+	return c1 - c2;
+      }
+    }
+    return len1 - len2;
+  }
+
+  /** Pre-order traversal of the view, yielding the key of each node that
+   * has a value */
+  private class KeyIterator implements Iterator<String> {
+    // For each level on the stack, the next child to visit and the end
+    private int[] cur = new int[8];
+    private int[] end = new int[8];
+    private String[] path = new String[8];
+    private int depth = 0;
+    private String next;
+
+    KeyIterator() {
+      push(root);
+      advance();
+    }
+
+    private void push(int node) {
+      if (depth == cur.length) {
+	cur = Arrays.copyOf(cur, depth * 2);
+	end = Arrays.copyOf(end, depth * 2);
+	path = Arrays.copyOf(path, depth * 2);
+      }
+      cur[depth] = childStart[node];
+      end[depth] = childStart[node + 1];
+      depth++;
+    }
+
+    private void advance() {
+      next = null;
+      while (depth > 0) {
+	int d = depth - 1;
+	if (cur[d] >= end[d]) {
+	  depth--;
+	  continue;
+	}
+	int node = cur[d]++;
+	path[d] = segs[node];
+	push(node);
+	if (vals[node] != null) {
+	  next = joinPath(d + 1);
+	  return;
+	}
+      }
+    }
+
+    private String joinPath(int n) {
+      if (n == 1) {
+	return path[0];
+      }
+      StringBuilder sb = new StringBuilder();
+      for (int ix = 0; ix < n; ix++) {
+	if (ix > 0) {
+	  sb.append('.');
+	}
+	sb.append(path[ix]);
+      }
+      return sb.toString();
+    }
+
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    public String next() {
+      if (next == null) {
+	throw new NoSuchElementException();
+      }
+      String res = next;
+      advance();
+      return res;
+    }
+  }
+
+  /** Key split into segments, with its value.  Only used while
+   * building. */
+  private static class Entry {
+    final String[] toks;
+    final String val;
+
+    Entry(String[] toks, String val) {
+      this.toks = toks;
+      this.val = val;
+    }
+  }
+
+  /** Segment-wise ordering, so that keys sharing a prefix are contiguous
+   * and a key sorts before the keys below it.  Segments are ordered as in
+   * {@link #findChild(int, String, int, int)}. */
+  private static final Comparator<Entry> ENTRY_CMP = new Comparator<Entry>() {
+      public int compare(Entry e1, Entry e2) {
+	String[] t1 = e1.toks;
+	String[] t2 = e2.toks;
+	int lim = Math.min(t1.length, t2.length);
+	for (int ix = 0; ix < lim; ix++) {
+	  String s1 = t1[ix];
+	  String s2 = t2[ix];
+	  int cmp = Integer.compare(s1.hashCode(), s2.hashCode());
+	  if (cmp == 0) {
+	    cmp = s1.compareTo(s2);
+	  }
+	  if (cmp != 0) {
+	    return cmp;
+	  }
+	}
+	return t1.length - t2.length;
+      }
+    };
+}
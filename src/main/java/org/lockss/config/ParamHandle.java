@@ -0,0 +1,295 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Typed handle on a single config param, for use on hot paths in place
+ * of {@link CurrentConfig#getBooleanParam(String, boolean)} and friends.
+ * The key is looked up and its value parsed the first time the handle is
+ * used with a given Configuration; the result is cached until a different
+ * Configuration is installed.  Handles are normally created once, in a
+ * static final field next to the corresponding PARAM_ and DEFAULT_
+ * constants, by the factory methods in {@link CurrentConfig}:
+ *
+ * <pre>
+ *   static final ParamHandle.BooleanParam recordReferrer =
+ *     CurrentConfig.booleanParam(PARAM_RECORD_REFERRER,
+ *                                DEFAULT_RECORD_REFERRER);
+ *   ...
+ *   if (recordReferrer.get()) ...
+ * </pre>
+ *
+ * The cached value and the Configuration it came from are held in a
+ * single immutable snapshot, which is replaced with one volatile write,
+ * so a reader never sees a value paired with the wrong Configuration.
+ * The snapshot refers to the Configuration weakly, so a handle doesn't
+ * keep an old Configuration alive after it's been replaced.
+ * ConfigManager.installConfig() installs a new Configuration before it
+ * runs callbacks, so handles return the new values from that point on.
+ * Handles are thread-safe; concurrent first uses of a new Configuration
+ * may each parse the value, which is harmless.
+ */
+public abstract class ParamHandle {
+
+  final String key;
+  private volatile Snapshot snap;
+  // Number of times the value was (re)computed.  For testing
+  private final AtomicLong resolveCount = new AtomicLong();
+
+  ParamHandle(String key) {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    this.key = key;
+  }
+
+  /** Return the param key */
+  public String getKey() {
+    return key;
+  }
+
+  /** Return the snapshot for the config, computing it if the cached one
+   * came from a different Configuration */
+  final Snapshot snapshot(Configuration config) {
+    Snapshot s = snap;
+    if (s == null || s.configRef.get() != config) {
+      s = resolve(config);
+      snap = s;
+      resolveCount.incrementAndGet();
+    }
+    return s;
+  }
+
+  final Snapshot snapshot() {
+    return snapshot(ConfigManager.getCurrentConfig());
+  }
+
+  /** Look up and parse the value in the config */
+  abstract Snapshot resolve(Configuration config);
+
+  long getResolveCount() {
+    return resolveCount.get();
+  }
+
+  public String toString() {
+    return "[" + getClass().getSimpleName() + ": " + key + "]";
+  }
+
+  /** Immutable (Configuration, value) pair.  Each handle type uses the
+   * field appropriate to its value type.  If the Configuration has been
+   * collected the snapshot matches no Configuration. */
+  static final class Snapshot {
+    final WeakReference<Configuration> configRef;
+    final long lval;
+    final double dval;
+    final Object oval;
+
+    Snapshot(Configuration config, long lval) {
+      this(config, lval, 0.0, null);
+    }
+
+    Snapshot(Configuration config, double dval) {
+      this(config, 0, dval, null);
+    }
+
+    Snapshot(Configuration config, Object oval) {
+      this(config, 0, 0.0, oval);
+    }
+
+    private Snapshot(Configuration config,
+		     long lval, double dval, Object oval) {
+      this.configRef = new WeakReference<Configuration>(config);
+      this.lval = lval;
+      this.dval = dval;
+      this.oval = oval;
+    }
+  }
+
+  /** Handle on a boolean param */
+  public static class BooleanParam extends ParamHandle {
+    private final boolean dfault;
+
+    public BooleanParam(String key, boolean dfault) {
+      super(key);
+      this.dfault = dfault;
+    }
+
+    /** Return the value in the current configuration */
+    public boolean get() {
+      return snapshot().lval != 0;
+    }
+
+    /** Return the value in the supplied configuration */
+    public boolean get(Configuration config) {
+      return snapshot(config).lval != 0;
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, config.getBoolean(key, dfault) ? 1L : 0L);
+    }
+  }
+
+  /** Handle on an int param */
+  public static class IntParam extends ParamHandle {
+    private final int dfault;
+
+    public IntParam(String key, int dfault) {
+      super(key);
+      this.dfault = dfault;
+    }
+
+    /** Return the value in the current configuration */
+    public int get() {
+      return (int)snapshot().lval;
+    }
+
+    /** Return the value in the supplied configuration */
+    public int get(Configuration config) {
+      return (int)snapshot(config).lval;
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, (long)config.getInt(key, dfault));
+    }
+  }
+
+  /** Handle on a long param */
+  public static class LongParam extends ParamHandle {
+    final long dfault;
+
+    public LongParam(String key, long dfault) {
+      super(key);
+      this.dfault = dfault;
+    }
+
+    /** Return the value in the current configuration */
+    public long get() {
+      return snapshot().lval;
+    }
+
+    /** Return the value in the supplied configuration */
+    public long get(Configuration config) {
+      return snapshot(config).lval;
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, config.getLong(key, dfault));
+    }
+  }
+
+  /** Handle on a time interval param.  See {@link
+   * Configuration#getTimeInterval(String, long)} */
+  public static class TimeIntervalParam extends LongParam {
+
+    public TimeIntervalParam(String key, long dfault) {
+      super(key, dfault);
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, config.getTimeInterval(key, dfault));
+    }
+  }
+
+  /** Handle on a size param.  See {@link Configuration#getSize(String,
+   * long)} */
+  public static class SizeParam extends LongParam {
+
+    public SizeParam(String key, long dfault) {
+      super(key, dfault);
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, config.getSize(key, dfault));
+    }
+  }
+
+  /** Handle on a double param */
+  public static class DoubleParam extends ParamHandle {
+    final double dfault;
+
+    public DoubleParam(String key, double dfault) {
+      super(key);
+      this.dfault = dfault;
+    }
+
+    /** Return the value in the current configuration */
+    public double get() {
+      return snapshot().dval;
+    }
+
+    /** Return the value in the supplied configuration */
+    public double get(Configuration config) {
+      return snapshot(config).dval;
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, config.getDouble(key, dfault));
+    }
+  }
+
+  /** Handle on a percentage param.  See {@link
+   * Configuration#getPercentage(String, double)} */
+  public static class PercentageParam extends DoubleParam {
+
+    public PercentageParam(String key, double dfault) {
+      super(key, dfault);
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, (double)config.getPercentage(key, dfault));
+    }
+  }
+
+  /** Handle on a String param */
+  public static class StringParam extends ParamHandle {
+    private final String dfault;
+
+    public StringParam(String key, String dfault) {
+      super(key);
+      this.dfault = dfault;
+    }
+
+    /** Return the value in the current configuration */
+    public String get() {
+      return (String)snapshot().oval;
+    }
+
+    /** Return the value in the supplied configuration */
+    public String get(Configuration config) {
+      return (String)snapshot(config).oval;
+    }
+
+    Snapshot resolve(Configuration config) {
+      return new Snapshot(config, (Object)config.get(key, dfault));
+    }
+  }
+}
@@ -28,6 +28,7 @@
 package org.lockss.config;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +39,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -1263,6 +1265,151 @@ public class RestConfigClient {
 	requestEntity, String.class, "Cannot update AU NoAuPeerSet object");
   }
 
+  /**
+   * Provides the states of multiple Archival Units obtained via the REST web
+   * service in a single request.
+   * 
+   * @param auIds
+   *          A Collection<String> with the Archival Unit identifiers.
+   * @return a Map<String, String> with the state of each requested Archival
+   *         Unit that has one, keyed by Archival Unit identifier.
+   * @throws LockssRestException
+   *           if there are problems getting the Archival Unit states.
+   */
+  public Map<String, String> getArchivalUnitStates(Collection<String> auIds)
+      throws LockssRestException {
+    return getBulkStateObjects(getBulkRequestUrl("austates"), auIds,
+	"Cannot get AU states");
+  }
+
+  /**
+   * Provides the poll agreements of multiple Archival Units obtained via the
+   * REST web service in a single request.
+   * 
+   * @param auIds
+   *          A Collection<String> with the Archival Unit identifiers.
+   * @return a Map<String, String> with the poll agreements of each requested
+   *         Archival Unit that has them, keyed by Archival Unit identifier.
+   * @throws LockssRestException
+   *           if there are problems getting the Archival Unit poll agreements.
+   */
+  public Map<String, String> getArchivalUnitsAgreements(
+      Collection<String> auIds) throws LockssRestException {
+    return getBulkStateObjects(getBulkRequestUrl("auagreements"), auIds,
+	"Cannot get AU poll agreements");
+  }
+
+  /**
+   * Provides the suspect URL versions of multiple Archival Units obtained via
+   * the REST web service in a single request.
+   * 
+   * @param auIds
+   *          A Collection<String> with the Archival Unit identifiers.
+   * @return a Map<String, String> with the suspect URL versions of each
+   *         requested Archival Unit that has them, keyed by Archival Unit
+   *         identifier.
+   * @throws LockssRestException
+   *           if there are problems getting the Archival Unit suspect URL
+   *           versions.
+   */
+  public Map<String, String> getArchivalUnitsSuspectUrlVersions(
+      Collection<String> auIds) throws LockssRestException {
+    return getBulkStateObjects(getBulkRequestUrl("aususpecturls"), auIds,
+	"Cannot get AU suspect URL versions");
+  }
+
+  /**
+   * Provides the NoAuPeerSet objects of multiple Archival Units obtained via
+   * the REST web service in a single request.
+   * 
+   * @param auIds
+   *          A Collection<String> with the Archival Unit identifiers.
+   * @return a Map<String, String> with the NoAuPeerSet object of each
+   *         requested Archival Unit that has one, keyed by Archival Unit
+   *         identifier.
+   * @throws LockssRestException
+   *           if there are problems getting the Archival Unit NoAuPeerSet
+   *           objects.
+   */
+  public Map<String, String> getNoAuPeersForAus(Collection<String> auIds)
+      throws LockssRestException {
+    return getBulkStateObjects(getBulkRequestUrl("noaupeers"), auIds,
+	"Cannot get AU NoAuPeerSet objects");
+  }
+
+  /**
+   * Provides per-AU state objects of multiple Archival Units via the REST web
+   * service.  The identifiers are sent as a JSON array and the response is a
+   * JSON object mapping each Archival Unit identifier to its state object.
+   * 
+   * @param url
+   *          A String with the URL of the bulk request.
+   * @param auIds
+   *          A Collection<String> with the Archival Unit identifiers.
+   * @param exceptionMessage
+   *          A String with the message of the exception thrown if the request
+   *          fails.
+   * @return a Map<String, String> with the serialized state object of each
+   *         Archival Unit, keyed by Archival Unit identifier.
+   * @throws LockssRestException
+   *           if there are problems getting the state objects.
+   */
+  private Map<String, String> getBulkStateObjects(String url,
+      Collection<String> auIds, String exceptionMessage)
+	  throws LockssRestException {
+    if (log.isDebug2()) log.debug2("auIds = " + auIds);
+
+    // Create the URI of the request to the REST service.
+    UriComponents uriComponents =
+	UriComponentsBuilder.fromUriString(url).build();
+
+    URI uri = UriComponentsBuilder.newInstance().uriComponents(uriComponents)
+	.build().encode().toUri();
+    if (log.isDebug3()) log.debug3("uri = " + uri);
+
+    // Initialize the request headers.
+    HttpHeaders requestHeaders = new HttpHeaders();
+
+    // Set the content type.
+    requestHeaders.setContentType(MediaType.APPLICATION_JSON);
+
+    // Set the authentication credentials.
+    setAuthenticationCredentials(requestHeaders);
+
+    // Create the request entity.
+    HttpEntity<Collection<String>> requestEntity =
+	new HttpEntity<Collection<String>>(auIds, requestHeaders);
+
+    // Make the request and get the response.
+    ResponseEntity<String> response =
+	RestUtil.callRestService(getRestTemplate(), uri, HttpMethod.POST,
+	    requestEntity, String.class, exceptionMessage);
+
+    Map<String, String> result = new LinkedHashMap<String, String>();
+
+    try {
+      JsonNode root = new ObjectMapper().readTree(response.getBody());
+
+      if (root != null) {
+	Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+
+	while (fields.hasNext()) {
+	  Map.Entry<String, JsonNode> field = fields.next();
+
+	  // Archival Units without the object may be absent or null.
+	  if (!field.getValue().isNull()) {
+	    result.put(field.getKey(), field.getValue().toString());
+	  }
+	}
+      }
+    } catch (Exception e) {
+      log.error("Cannot get body of response", e);
+    }
+
+    if (log.isDebug2()) log.debug2("result.size() = " + result.size());
+    return result;
+  }
+
   /**
    * Provides the URL needed to read from, or write to, the REST Configuration
    * Service the configuration of a section.
@@ -1325,6 +1472,18 @@ public class RestConfigClient {
     return serviceLocation + "/noaupeers/{auid}";
   }
 
+  /**
+   * Provides the URL needed to read from the REST Configuration Service a
+   * per-AU state object of multiple Archival Units.
+   * 
+   * @param collection
+   *          A String with the name of the per-AU object collection.
+   * @return a String with the URL.
+   */
+  private String getBulkRequestUrl(String collection) {
+    return serviceLocation + "/" + collection + "/bulk";
+  }
+
   /**
    * Sets the authentication credentials in a request.
    * 
@@ -373,6 +373,9 @@ public class Tdb {
   public static Differences computeDifferences(Tdb newTdb, Tdb oldTdb) {
     if (newTdb == null) {
       newTdb = new Tdb();
+    } else if (newTdb == oldTdb) {
+      // Tdb shared by successive configs (incremental reload)
+      return new Differences();
     }
     return newTdb.computeDifferences(oldTdb);
   }
@@ -44,6 +44,7 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.lockss.config.AuConfiguration;
 import org.lockss.config.AuConfigurationUtils;
@@ -109,6 +110,38 @@ public class ConfigManagerSql {
       + ARCHIVAL_UNIT_SEQ_COLUMN
       + " order by a." + ARCHIVAL_UNIT_SEQ_COLUMN;
 
+  // Query to find, in order, the database identifiers of the Archival Units
+  // that have a configuration and follow a given one.  Used with a row limit
+  // to delimit a chunk.
+  private static final String GET_CONFIGURED_AU_SEQS_AFTER_QUERY =
+      "select distinct " + ARCHIVAL_UNIT_SEQ_COLUMN
+      + " from " + ARCHIVAL_UNIT_CONFIG_TABLE
+      + " where " + ARCHIVAL_UNIT_SEQ_COLUMN + " > ?"
+      + " order by " + ARCHIVAL_UNIT_SEQ_COLUMN;
+
+  // Query to find the configurations of the Archival Units in a range of
+  // database identifiers.
+  private static final String GET_AU_CONFIGURATION_RANGE_QUERY = "select "
+      + "p." + PLUGIN_ID_COLUMN
+      + ", a." + ARCHIVAL_UNIT_KEY_COLUMN
+      + ", a." + ARCHIVAL_UNIT_SEQ_COLUMN
+      + ", ac." + CONFIG_KEY_COLUMN
+      + ", ac." + CONFIG_VALUE_COLUMN
+      + " from " + PLUGIN_TABLE + " p"
+      + ", " + ARCHIVAL_UNIT_TABLE + " a"
+      + ", " + ARCHIVAL_UNIT_CONFIG_TABLE + " ac"
+      + " where p." + PLUGIN_SEQ_COLUMN + " = a." + PLUGIN_SEQ_COLUMN
+      + " and a." + ARCHIVAL_UNIT_SEQ_COLUMN + " = ac."
+      + ARCHIVAL_UNIT_SEQ_COLUMN
+      + " and a." + ARCHIVAL_UNIT_SEQ_COLUMN + " > ?"
+      + " and a." + ARCHIVAL_UNIT_SEQ_COLUMN + " <= ?"
+      + " order by a." + ARCHIVAL_UNIT_SEQ_COLUMN;
+
+  // Query to count the Archival Units that have a configuration.
+  private static final String COUNT_AU_CONFIGURATION_QUERY = "select "
+      + "count(distinct " + ARCHIVAL_UNIT_SEQ_COLUMN + ")"
+      + " from " + ARCHIVAL_UNIT_CONFIG_TABLE;
+
   // Query to find the configurations of an Archival Unit.
   private static final String GET_AU_CONFIGURATION_QUERY = "select "
       + "ac." + CONFIG_KEY_COLUMN
@@ -187,6 +220,26 @@ public class ConfigManagerSql {
       + " and p." + PLUGIN_ID_COLUMN + " = ?"
       + " order by a." + ARCHIVAL_UNIT_SEQ_COLUMN;
 
+  /**
+   * Receives Archival Unit configurations one at a time as they are read
+   * from the database.
+   */
+  @FunctionalInterface
+  public interface AuConfigurationProcessor {
+    /**
+     * Processes the configuration of an Archival Unit.
+     * 
+     * @param auId
+     *          A String with the Archival Unit identifier.
+     * @param auConfig
+     *          A Map<String,String> with the Archival Unit configuration
+     *          properties.
+     * @throws IOException
+     *           if there are problems writing the configuration.
+     */
+    void process(String auId, Map<String,String> auConfig) throws IOException;
+  }
+
   /**
    * Constructor.
    * 
@@ -323,7 +376,7 @@ public class ConfigManagerSql {
    */
   public Map<String, Map<String,String>> findAllArchivalUnitConfiguration()
       throws IOException, DbException {
-    return processAllArchivalUnitConfigurations(null);
+    return processAllArchivalUnitConfigurations((OutputStream)null);
   }
 
   /**
@@ -346,11 +399,39 @@ public class ConfigManagerSql {
       OutputStream outputStream) throws IOException, DbException {
     log.debug2("Invoked");
 
-    Map<String, Map<String,String>> result = null;
+    Map<String, Map<String,String>> result =
+	outputStream == null ? new HashMap<>() : null;
+
+    processAllArchivalUnitConfigurations((auId, auConfig) -> {
+      // Check whether the Archival Unit configuration needs to be written to
+      // the stream.
+      if (outputStream != null) {
+	// Yes: Write the Archival Unit configuration to the stream.
+	writeAuConfigurationBackupToStream(auId, auConfig, outputStream);
+      } else {
+	result.put(auId, auConfig);
+      }
+    });
 
-    if (outputStream == null) {
-      result = new HashMap<>();
-    }
+    log.debug2("Done");
+    return result;
+  }
+
+  /**
+   * Passes each of the Archival Unit configurations stored in the database to
+   * a processor as it is read, without accumulating them.
+   * 
+   * @param processor
+   *          An AuConfigurationProcessor that receives each Archival Unit
+   *          configuration.
+   * @throws IOException
+   *           if the processor throws it.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void processAllArchivalUnitConfigurations(
+      AuConfigurationProcessor processor) throws IOException, DbException {
+    log.debug2("Invoked");
 
     String auId = null;
     Map<String,String> auConfig = null;
@@ -382,14 +463,8 @@ public class ConfigManagerSql {
   	if (!auSeq.equals(previousAuSeq)) {
   	  // Check whether this is not the first Archival Unit seen.
   	  if (previousAuSeq != null) {
-  	    // Yes: Check whether the previous Archival Unit configuration needs
-  	    // to be written to the stream.
-  	    if (outputStream != null) {
-  	      // Write the previous Archival Unit configuration to the stream.
-  	      writeAuConfigurationBackupToStream(auId, auConfig, outputStream);
-  	    } else {
-  	      result.put(auId, auConfig);
-  	    }
+  	    // Yes: Process the previous Archival Unit configuration.
+  	    processor.process(auId, auConfig);
   	  }
 
   	  // Yes: Get the identifier of the plugin of this result.
@@ -427,13 +502,8 @@ public class ConfigManagerSql {
 
       // Check whether there is a last Archival Unit to be saved.
       if (auConfig != null && !auConfig.isEmpty()) {
-	// Yes: Check whether it needs to be written to the stream.
-	if (outputStream != null) {
-	  // Write the previous Archival Unit configuration to the stream.
-	  writeAuConfigurationBackupToStream(auId, auConfig, outputStream);
-	} else {
-	  result.put(auId, auConfig);
-	}
+	// Yes: Process it.
+	processor.process(auId, auConfig);
       }
     } catch (SQLException sqle) {
       log.error(errorMessage, sqle);
@@ -450,6 +520,191 @@ public class ConfigManagerSql {
     }
 
     log.debug2("Done");
+  }
+
+  /**
+   * Passes to a processor the configurations of the next chunk of Archival
+   * Units, in database identifier order.  The whole chunk is read, and the
+   * database connection closed, before any configuration is passed to the
+   * processor, so the processor may block or take a long time without
+   * holding a cursor open.
+   * 
+   * @param afterAuSeq
+   *          A long with the database identifier of the last Archival Unit of
+   *          the previous chunk, or -1 to start with the first one.
+   * @param maxAus
+   *          An int with the maximum number of Archival Units in the chunk.
+   * @param processor
+   *          An AuConfigurationProcessor that receives each Archival Unit
+   *          configuration.
+   * @return a long with the database identifier of the last Archival Unit in
+   *         the chunk, to be passed as <code>afterAuSeq</code> to get the next
+   *         chunk, or -1 if there are no more Archival Units.
+   * @throws IOException
+   *           if the processor throws it.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public long processArchivalUnitConfigurationChunk(long afterAuSeq,
+      int maxAus, AuConfigurationProcessor processor)
+	  throws IOException, DbException {
+    log.debug2("afterAuSeq = {}", afterAuSeq);
+    log.debug2("maxAus = {}", maxAus);
+
+    Map<String, Map<String,String>> chunk = new LinkedHashMap<>();
+    long lastAuSeq = findArchivalUnitConfigurationChunk(afterAuSeq, maxAus,
+							 chunk);
+
+    for (Map.Entry<String, Map<String,String>> entry : chunk.entrySet()) {
+      processor.process(entry.getKey(), entry.getValue());
+    }
+
+    log.debug2("lastAuSeq = {}", lastAuSeq);
+    return lastAuSeq;
+  }
+
+  /**
+   * Reads the configurations of the next chunk of Archival Units.
+   * 
+   * @param afterAuSeq
+   *          A long with the database identifier of the last Archival Unit of
+   *          the previous chunk, or -1 to start with the first one.
+   * @param maxAus
+   *          An int with the maximum number of Archival Units in the chunk.
+   * @param chunk
+   *          A Map<String, Map<String,String>> to which the Archival Unit
+   *          configurations are added, keyed by Archival Unit identifier.
+   * @return a long with the database identifier of the last Archival Unit in
+   *         the chunk, or -1 if there are no more Archival Units.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  private long findArchivalUnitConfigurationChunk(long afterAuSeq, int maxAus,
+      Map<String, Map<String,String>> chunk) throws DbException {
+    long lastAuSeq = -1;
+    Connection conn = null;
+    PreparedStatement statement = null;
+    ResultSet resultSet = null;
+    String sql = GET_CONFIGURED_AU_SEQS_AFTER_QUERY;
+    String errorMessage = "Cannot get AU configurations";
+
+    try {
+      // Get a connection to the database.
+      conn = configDbManager.getConnection();
+
+      // Find the last Archival Unit database identifier of the chunk.
+      statement = configDbManager.prepareStatement(conn, sql);
+      statement.setMaxRows(maxAus);
+      statement.setLong(1, afterAuSeq);
+      resultSet = configDbManager.executeQuery(statement);
+
+      while (resultSet.next()) {
+	lastAuSeq = resultSet.getLong(ARCHIVAL_UNIT_SEQ_COLUMN);
+      }
+      log.trace("lastAuSeq = {}", lastAuSeq);
+
+      DbManager.safeCloseResultSet(resultSet);
+      DbManager.safeCloseStatement(statement);
+      resultSet = null;
+      statement = null;
+
+      if (lastAuSeq < 0) {
+	return lastAuSeq;
+      }
+
+      // Get the configurations of the chunk, grouped by Archival Unit.
+      sql = GET_AU_CONFIGURATION_RANGE_QUERY;
+      statement = configDbManager.prepareStatement(conn, sql);
+      statement.setLong(1, afterAuSeq);
+      statement.setLong(2, lastAuSeq);
+      resultSet = configDbManager.executeQuery(statement);
+
+      Long previousAuSeq = null;
+      Map<String,String> auConfig = null;
+
+      while (resultSet.next()) {
+	Long auSeq = resultSet.getLong(ARCHIVAL_UNIT_SEQ_COLUMN);
+
+	// Check whether this is a newly seen Archival Unit.
+	if (!auSeq.equals(previousAuSeq)) {
+	  String auId = PluginManager.generateAuId(
+	      resultSet.getString(PLUGIN_ID_COLUMN),
+	      resultSet.getString(ARCHIVAL_UNIT_KEY_COLUMN));
+	  log.trace("auId = {}", auId);
+
+	  auConfig = new HashMap<>();
+	  chunk.put(auId, auConfig);
+	  previousAuSeq = auSeq;
+	}
+
+	auConfig.put(resultSet.getString(CONFIG_KEY_COLUMN),
+		     resultSet.getString(CONFIG_VALUE_COLUMN));
+      }
+    } catch (SQLException sqle) {
+      log.error(errorMessage, sqle);
+      log.error("SQL = '{}'.", sql);
+      log.error("afterAuSeq = {}", afterAuSeq);
+      throw new DbException(errorMessage, sqle);
+    } catch (DbException dbe) {
+      log.error(errorMessage, dbe);
+      log.error("SQL = '{}'.", sql);
+      log.error("afterAuSeq = {}", afterAuSeq);
+      throw dbe;
+    } finally {
+      DbManager.safeCloseResultSet(resultSet);
+      DbManager.safeCloseStatement(statement);
+      DbManager.safeRollbackAndClose(conn);
+    }
+
+    return lastAuSeq;
+  }
+
+  /**
+   * Provides the number of Archival Units with a configuration stored in the
+   * database.
+   * 
+   * @return an int with the number of Archival Unit configurations.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public int countArchivalUnitConfigurations() throws DbException {
+    log.debug2("Invoked");
+
+    int result = 0;
+    Connection conn = null;
+    PreparedStatement countConfigurations = null;
+    ResultSet resultSet = null;
+    String errorMessage = "Cannot count AU configurations";
+
+    try {
+      // Get a connection to the database.
+      conn = configDbManager.getConnection();
+
+      // Prepare the query.
+      countConfigurations =
+	  configDbManager.prepareStatement(conn, COUNT_AU_CONFIGURATION_QUERY);
+
+      // Count the Archival Unit configurations.
+      resultSet = configDbManager.executeQuery(countConfigurations);
+
+      if (resultSet.next()) {
+	result = resultSet.getInt(1);
+      }
+    } catch (SQLException sqle) {
+      log.error(errorMessage, sqle);
+      log.error("SQL = '{}'.", COUNT_AU_CONFIGURATION_QUERY);
+      throw new DbException(errorMessage, sqle);
+    } catch (DbException dbe) {
+      log.error(errorMessage, dbe);
+      log.error("SQL = '{}'.", COUNT_AU_CONFIGURATION_QUERY);
+      throw dbe;
+    } finally {
+      DbManager.safeCloseResultSet(resultSet);
+      DbManager.safeCloseStatement(countConfigurations);
+      DbManager.safeRollbackAndClose(conn);
+    }
+
+    log.debug2("result = {}", result);
     return result;
   }
 
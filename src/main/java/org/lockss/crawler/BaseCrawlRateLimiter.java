@@ -100,7 +100,9 @@ public abstract class BaseCrawlRateLimiter implements CrawlRateLimiter {
     RateLimiter limiter = getRateLimiterFor(url, previousContentType);
     try {
       if (log.isDebug3()) log.debug3("Pausing: " + limiter.rateString());
-      pauseCounter++;
+      synchronized (this) {
+	pauseCounter++;
+      }
       limiter.fifoWaitAndSignalEvent();
     } catch (InterruptedException ignore) {
       // no action
@@ -108,7 +110,7 @@ public abstract class BaseCrawlRateLimiter implements CrawlRateLimiter {
   }
 
   /** Used to check that rate limiter is actually being invoked, */
-  public int getPauseCounter() {
+  public synchronized int getPauseCounter() {
     return pauseCounter;
   }
 }
@@ -201,7 +201,7 @@ public abstract class BaseCrawler implements Crawler {
   protected AuState aus;
   protected CrawlManager crawlMgr;
   protected AlertManager alertMgr;
-  protected boolean crawlAborted = false;
+  protected volatile boolean crawlAborted = false;
   protected LockssWatchdog wdog;
   protected IPAddr crawlFromAddr;
   protected String proxyHost;
@@ -209,7 +209,7 @@ public abstract class BaseCrawler implements Crawler {
   protected String proxyStatus;
   protected PermissionMap permissionMap;
   protected CrawlRateLimiter crl;
-  protected String previousContentType;
+  protected volatile String previousContentType;
   protected String crawlPoolKey;
   protected CrawlReq req;
   protected CrawlerFacade facade;
@@ -541,7 +541,7 @@ public abstract class BaseCrawler implements Crawler {
   /** If this url was allowed due to globallyPermittedHosts or cdn host and
    * its stem isn't already contained in the AU's stems, add it to the
    * dynamic stem list */
-  protected void updateCdnStems(String url) {
+  protected synchronized void updateCdnStems(String url) {
     try {
       String stem = UrlUtil.getUrlPrefix(url);
       if (!origStems.contains(stem) && !cdnStems.contains(stem)) {
@@ -554,12 +554,19 @@ public abstract class BaseCrawler implements Crawler {
     }
   }
 
-  protected void updateCacheStats(UrlFetcher uf,
-				  FetchResult res,
-				  CrawlUrlData curl) {
-    // Paranoia - assert that the rate limiter was actually used
+  /** Return true if more than one URL may be fetched at once.  Crawlers
+   * that fetch concurrently must override this. */
+  protected boolean isConcurrentFetch() {
+    return false;
+  }
+
+  protected synchronized void updateCacheStats(UrlFetcher uf,
+					       FetchResult res,
+					       CrawlUrlData curl) {
+    // Paranoia - assert that the rate limiter was actually used.  Pauses
+    // can't be attributed to individual fetches if several are in flight.
     CrawlRateLimiter crl = getCrawlRateLimiter();
-    if(res != FetchResult.NOT_FETCHED &&
+    if(res != FetchResult.NOT_FETCHED && !isConcurrentFetch() &&
        pauseCounter == crl.getPauseCounter()) {
       logger.critical("CrawlRateLimiter not used after " + curl,
                       new Throwable());
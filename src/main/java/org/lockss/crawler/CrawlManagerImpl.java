@@ -207,6 +207,30 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       ODC_PREFIX + "favorUnsharedRateThreads";
   static final int DEFAULT_FAVOR_UNSHARED_RATE_THREADS = 1;
 
+  /**
+   * If true, the crawl queue for each rate limiter pool is maintained
+   * incrementally: an AU's entry is recomputed when a crawl of it ends,
+   * when it's created, reconfigured or explicitly requested, and when a
+   * temporary reason it was ineligible (closed crawl window, rate limit)
+   * may have gone away.  All AUs are examined only every
+   * <tt>queueRecalcInterval</tt>, to find AUs that have come due for a
+   * crawl and to correct any drift.  If false, the bounded queues are
+   * rebuilt from all AUs whenever they run out.
+   */
+  public static final String PARAM_INCREMENTAL_CRAWL_QUEUE =
+      ODC_PREFIX + "incrementalQueue";
+  static final boolean DEFAULT_INCREMENTAL_CRAWL_QUEUE = true;
+
+  /**
+   * With an incremental crawl queue, interval after which an AU that
+   * wants to crawl but is temporarily ineligible (e.g., because its crawl
+   * window is closed) is checked again.
+   */
+  public static final String PARAM_INELIGIBLE_RECHECK_INTERVAL =
+      ODC_PREFIX + "ineligibleRecheckInterval";
+  static final long DEFAULT_INELIGIBLE_RECHECK_INTERVAL =
+      10 * Constants.MINUTE;
+
   enum CrawlOrder {CrawlDate, CreationDate}
 
   /**
@@ -451,6 +475,13 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       public void auCreated(AuEvent event, ArchivalUnit au) {
         auEventCreated(event, au);
       }
+
+      @Override
+      public void auReconfigured(AuEvent event, ArchivalUnit au,
+                                 Configuration oldAuConf) {
+        // Rate limiter pool or priority may have changed
+        crawlQueueChanged(au.getAuId());
+      }
     };
     pluginMgr.registerAuEventHandler(auCreateDestroyHandler);
 
@@ -565,9 +596,22 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
           config.getInt(PARAM_FAVOR_UNSHARED_RATE_THREADS,
               DEFAULT_FAVOR_UNSHARED_RATE_THREADS);
 
+      CrawlOrder oldCrawlOrder = paramCrawlOrder;
       paramCrawlOrder = (CrawlOrder) config.getEnum(CrawlOrder.class,
           PARAM_CRAWL_ORDER,
           DEFAULT_CRAWL_ORDER);
+      boolean oldIncrementalQueue = paramIncrementalQueue;
+      paramIncrementalQueue =
+          config.getBoolean(PARAM_INCREMENTAL_CRAWL_QUEUE,
+              DEFAULT_INCREMENTAL_CRAWL_QUEUE);
+      paramIneligibleRecheckInterval =
+          config.getTimeInterval(PARAM_INELIGIBLE_RECHECK_INTERVAL,
+              DEFAULT_INELIGIBLE_RECHECK_INTERVAL);
+      if (paramCrawlOrder != oldCrawlOrder ||
+          paramIncrementalQueue != oldIncrementalQueue) {
+        // Queue order or structure has changed, must be rebuilt
+        forceQueueRebuild();
+      }
 
       paramRebuildCrawlQueueInterval =
           config.getTimeInterval(PARAM_REBUILD_CRAWL_QUEUE_INTERVAL,
@@ -922,6 +966,7 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
         }
         if (crawler.isWholeAU()) {
           setRunningNCCrawl(au, false);
+          crawlQueueChanged(au.getAuId());
           startOneWait.expire();
         }
       }
@@ -966,6 +1011,8 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
         if (req != null) {
           req.auDeleted();
         }
+        // Drop queue entry referring to old AU instance
+        crawlQueueChanged(au.getAuId());
         break;
       default:
         removeAuFromQueues(au);
@@ -1028,7 +1075,12 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
       req.refresh(au, AuUtil.getAuState(au));
     }
 
-    rebuildQueueSoon();
+    if (paramIncrementalQueue) {
+      crawlQueueChanged(au.getAuId());
+      updateQueueSoon();
+    } else {
+      rebuildQueueSoon();
+    }
   }
 
   /**
@@ -1730,6 +1782,8 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
   int paramSharedQueueMax = DEFAULT_SHARED_QUEUE_MAX;
   int paramFavorUnsharedRateThreads = DEFAULT_FAVOR_UNSHARED_RATE_THREADS;
   CrawlOrder paramCrawlOrder = DEFAULT_CRAWL_ORDER;
+  boolean paramIncrementalQueue = DEFAULT_INCREMENTAL_CRAWL_QUEUE;
+  long paramIneligibleRecheckInterval = DEFAULT_INELIGIBLE_RECHECK_INTERVAL;
 
   Deadline timeToRebuildCrawlQueue = Deadline.in(0);
   Deadline startOneWait = Deadline.in(0);
@@ -1742,6 +1796,27 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
   BoundedTreeSet unsharedRateReqs =
       new BoundedTreeSet(paramUnsharedQueueMax, CPC);
 
+  // Incrementally maintained queue, used if paramIncrementalQueue.  All
+  // guarded by queueLock.
+
+  // Eligible reqs in each rate limiter pool (UNSHARED_RATE_KEY for AUs
+  // with unshared rate limiters), in priority order as of when they were
+  // queued
+  Map<String, TreeSet<PoolQueueEntry>> poolQueues =
+      new HashMap<String, TreeSet<PoolQueueEntry>>();
+  // auid -> queued entry, and auid -> pool it's queued in
+  Map<String, PoolQueueEntry> queuedEntries =
+      new HashMap<String, PoolQueueEntry>();
+  Map<String, String> queuedPools = new HashMap<String, String>();
+  // auid -> time at which to recheck AUs that want to crawl but are
+  // temporarily ineligible
+  Map<String, Long> recheckTimes = new HashMap<String, Long>();
+  long nextRecheckTime = Long.MAX_VALUE;
+
+  // auids whose queue entry must be recomputed.  Has its own lock as it's
+  // updated from event handlers and within runningCrawlersLock.
+  Set<String> changedAuids = new LinkedHashSet<String>();
+
   class MultiCrawlPriorityMap extends MultiValueMap {
     MultiCrawlPriorityMap() {
       super(new HashMap(), new org.apache.commons.collections4.Factory() {
@@ -1775,7 +1850,13 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     synchronized (highPriorityCrawlRequests) {
       highPriorityCrawlRequests.remove(auid);
     }
-    forceQueueRebuild();
+    if (paramIncrementalQueue) {
+      synchronized (queueLock) {
+        dequeue(auid);
+      }
+    } else {
+      forceQueueRebuild();
+    }
   }
 
   private void forceQueueRebuild() {
@@ -1792,6 +1873,14 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
   }
 
   CrawlReq nextReq() throws InterruptedException {
+    if (paramIncrementalQueue) {
+      if (timeToRebuildCrawlQueue.expired()) {
+        rebuildCrawlQueue();
+      } else {
+        updateCrawlQueue();
+      }
+      return nextReqFromPoolQueues();
+    }
     boolean rebuilt = false;
 
     if (timeToRebuildCrawlQueue.expired()) {
@@ -1945,6 +2034,18 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
         finalSort.addAll((TreeSet) ent.getValue());
       }
       finalSort.addAll(unsharedRateReqs);
+      // Incremental queues are unbounded, include just the head of each
+      for (Map.Entry<String, TreeSet<PoolQueueEntry>> ent :
+             poolQueues.entrySet()) {
+        int max = (ent.getKey() == UNSHARED_RATE_KEY)
+            ? paramUnsharedQueueMax : paramSharedQueueMax;
+        for (PoolQueueEntry entry : ent.getValue()) {
+          if (max-- <= 0) {
+            break;
+          }
+          finalSort.add(entry.req);
+        }
+      }
     }
     return finalSort;
   }
@@ -1954,7 +2055,11 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     synchronized (highPriorityCrawlRequests) {
       highPriorityCrawlRequests.put(req.getAuId(), req);
     }
-    forceQueueRebuild();
+    if (paramIncrementalQueue) {
+      crawlQueueChanged(req.getAuId());
+    } else {
+      forceQueueRebuild();
+    }
     startOneWait.expire();
   }
 
@@ -1974,9 +2079,15 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
   void rebuildCrawlQueue() {
     timeToRebuildCrawlQueue.expireIn(paramRebuildCrawlQueueInterval);
     long startTime = TimeBase.nowMs();
-    rebuildCrawlQueue0();
+    if (paramIncrementalQueue) {
+      rebuildPoolQueues();
+    } else {
+      rebuildCrawlQueue0();
+    }
+    long elapsed = TimeBase.msSince(startTime);
+    cmStatus.recordQueueRebuild(elapsed);
     logger.debug("rebuildCrawlQueue(): " +
-        StringUtil.timeIntervalToString(TimeBase.msSince(startTime)));
+        StringUtil.timeIntervalToString(elapsed));
   }
 
   void rebuildCrawlQueue0() {
@@ -2077,6 +2188,362 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
     }
   }
 
+  /**
+   * Note that the AU's entry in the incrementally maintained crawl queue
+   * must be recomputed before the next crawl is chosen.
+   */
+  void crawlQueueChanged(String auid) {
+    if (paramIncrementalQueue) {
+      synchronized (changedAuids) {
+        changedAuids.add(auid);
+      }
+    }
+  }
+
+  /**
+   * Arrange for the crawl starter to run soon, without pushing it back if
+   * it's already due sooner.
+   */
+  void updateQueueSoon() {
+    if (startOneWait.getRemainingTime() > paramQueueRecalcAfterNewAu) {
+      startOneWait.expireIn(paramQueueRecalcAfterNewAu);
+    }
+  }
+
+  /**
+   * Rebuild the incremental queues from all AUs
+   */
+  void rebuildPoolQueues() {
+    synchronized (changedAuids) {
+      changedAuids.clear();
+    }
+    synchronized (queueLock) {
+      poolQueues.clear();
+      queuedEntries.clear();
+      queuedPools.clear();
+      recheckTimes.clear();
+      nextRecheckTime = Long.MAX_VALUE;
+      for (ArchivalUnit au : (areAusStarted()
+          ? pluginMgr.getAllAus()
+          : getHighPriorityAus())) {
+        queueIfEligible(au);
+      }
+      updateQueueCounts();
+    }
+  }
+
+  /**
+   * Recompute the incremental queue entries of AUs that have changed, and
+   * of ineligible AUs whose recheck time has come.
+   * @return the number of AUs examined
+   */
+  int updateCrawlQueue() {
+    long startTime = TimeBase.nowMs();
+    Set<String> auids;
+    synchronized (changedAuids) {
+      auids = new LinkedHashSet<String>(changedAuids);
+      changedAuids.clear();
+    }
+    synchronized (queueLock) {
+      if (TimeBase.nowMs() >= nextRecheckTime) {
+        long now = TimeBase.nowMs();
+        nextRecheckTime = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> ent : recheckTimes.entrySet()) {
+          long time = ent.getValue();
+          if (time <= now) {
+            auids.add(ent.getKey());
+          } else {
+            nextRecheckTime = Math.min(nextRecheckTime, time);
+          }
+        }
+      }
+      if (auids.isEmpty()) {
+        return 0;
+      }
+      for (String auid : auids) {
+        dequeue(auid);
+        ArchivalUnit au = null;
+        synchronized (highPriorityCrawlRequests) {
+          CrawlReq req = highPriorityCrawlRequests.get(auid);
+          if (req != null) {
+            au = req.getAu();
+          }
+        }
+        if (au == null && areAusStarted()) {
+          au = pluginMgr.getAuFromIdIfExists(auid);
+        }
+        if (au != null) {
+          queueIfEligible(au);
+        }
+      }
+      updateQueueCounts();
+    }
+    long elapsed = TimeBase.msSince(startTime);
+    cmStatus.recordQueueUpdate(auids.size(), elapsed);
+    if (logger.isDebug2()) {
+      logger.debug2("updateCrawlQueue(): " + auids.size() + " AUs in " +
+          StringUtil.timeIntervalToString(elapsed));
+    }
+    return auids.size();
+  }
+
+  // called within synchronized (queueLock) {...}
+  private void queueIfEligible(ArchivalUnit au) {
+    try {
+      CrawlReq req;
+      synchronized (highPriorityCrawlRequests) {
+        req = highPriorityCrawlRequests.get(au.getAuId());
+        if (req != null && !req.isActive()) {
+          logger.warning("Found inactive req on queue: " + req);
+          return;
+        }
+      }
+      if (req == null && !shouldCrawlForNewContent(au)) {
+        return;
+      }
+      try {
+        checkEligibleForNewContentCrawl(au);
+      } catch (NotEligibleException e) {
+        // A running crawl will cause the AU to be rechecked when it ends
+        if (e.isTemporary() && !isRunningNCCrawl(au)) {
+          scheduleRecheck(au, e);
+        }
+        return;
+      }
+      if (req == null) {
+        CrawlerStatus crawlerStatus =
+            new CrawlerStatus(au, au.getStartUrls(), null);
+        req = new CrawlReq(au, crawlerStatus);
+        setReqPriority(req);
+      }
+      if (req.priority > MIN_CRAWL_PRIORITY) {
+        String pool = req.getRateKey();
+        if (pool == null) {
+          pool = UNSHARED_RATE_KEY;
+        }
+        TreeSet<PoolQueueEntry> queue = poolQueues.get(pool);
+        if (queue == null) {
+          queue = new TreeSet<PoolQueueEntry>();
+          poolQueues.put(pool, queue);
+        }
+        PoolQueueEntry entry = new PoolQueueEntry(req);
+        queue.add(entry);
+        queuedEntries.put(req.getAuId(), entry);
+        queuedPools.put(req.getAuId(), pool);
+        if (logger.isDebug3()) {
+          logger.debug3("Added to pool queue: " + pool + ", " + req);
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.warning("Checking for crawlworthiness: " + au.getName(), e);
+      // ignore AU if it caused an error
+    }
+  }
+
+  // called within synchronized (queueLock) {...}
+  private void scheduleRecheck(ArchivalUnit au, NotEligibleException e) {
+    long in = paramIneligibleRecheckInterval;
+    if (e instanceof NotEligibleException.RateLimiter) {
+      RateLimiter limiter = getNewContentRateLimiter(au);
+      if (limiter != null) {
+        in = Math.min(in, Math.max(limiter.timeUntilEventOk(), 1));
+      }
+    }
+    long time = TimeBase.nowMs() + in;
+    recheckTimes.put(au.getAuId(), time);
+    nextRecheckTime = Math.min(nextRecheckTime, time);
+  }
+
+  // called within synchronized (queueLock) {...}
+  private void dequeue(String auid) {
+    recheckTimes.remove(auid);
+    PoolQueueEntry entry = queuedEntries.remove(auid);
+    if (entry == null) {
+      return;
+    }
+    String pool = queuedPools.remove(auid);
+    TreeSet<PoolQueueEntry> queue = poolQueues.get(pool);
+    if (queue == null) {
+      return;
+    }
+    queue.remove(entry);
+    if (queue.isEmpty()) {
+      poolQueues.remove(pool);
+    }
+  }
+
+  /**
+   * Return the head of a pool queue, first moving any entries at the head
+   * whose AU's state has changed since they were queued to their current
+   * place.
+   */
+  // called within synchronized (queueLock) {...}
+  private CrawlReq currentHead(TreeSet<PoolQueueEntry> queue) {
+    while (true) {
+      PoolQueueEntry head = queue.first();
+      PoolQueueEntry current = new PoolQueueEntry(head.req);
+      if (head.compareTo(current) == 0) {
+        return head.req;
+      }
+      if (logger.isDebug3()) {
+        logger.debug3("Requeueing changed: " + head.req);
+      }
+      queue.remove(head);
+      queue.add(current);
+      queuedEntries.put(head.req.getAuId(), current);
+    }
+  }
+
+  /**
+   * A queued req, with the values {@link CrawlPriorityComparator} orders
+   * by taken when it was queued.  The AU's crawl times may change while
+   * it's queued; the pool queues are ordered by these fixed values so that
+   * doesn't corrupt them.  Changes are taken into account when the entry
+   * reaches the head of its queue.
+   */
+  class PoolQueueEntry implements Comparable<PoolQueueEntry> {
+    final CrawlReq req;
+    final boolean active;
+    final int priority;
+    final boolean registry;
+    final int resultOrder;
+    final long time1;
+    final long time2;
+
+    PoolQueueEntry(CrawlReq req) {
+      this.req = req;
+      // Get all info before active check, as in CrawlPriorityComparator
+      ArchivalUnit au = req.getAu();
+      AuState aus = req.getAuState();
+      active = req.isActive();
+      priority = req.priority;
+      registry = au instanceof RegistryArchivalUnit;
+      if (!active) {
+        resultOrder = 0;
+        time1 = 0;
+        time2 = 0;
+        return;
+      }
+      resultOrder = ((CrawlPriorityComparator)CPC)
+          .previousResultOrder(aus.getLastCrawlResult());
+      switch (paramCrawlOrder) {
+        case CreationDate:
+          time1 = aus.getAuCreationTime();
+          time2 = 0;
+          break;
+        case CrawlDate:
+        default:
+          time1 = aus.getLastCrawlAttempt();
+          time2 = aus.getLastCrawlTime();
+          break;
+      }
+    }
+
+    public int compareTo(PoolQueueEntry other) {
+      if (this == other) {
+        return 0;
+      }
+      // ensure reqs representing inactive AUs sort last
+      if (active != other.active) {
+        return active ? -1 : 1;
+      }
+      return new CompareToBuilder()
+          .append(-priority, -other.priority)
+          .append(!registry, !other.registry)
+          .append(resultOrder, other.resultOrder)
+          .append(time1, other.time1)
+          .append(time2, other.time2)
+          // An AU is queued at most once
+          .append(req.getAuId(), other.req.getAuId())
+          .toComparison();
+    }
+  }
+
+  // called within synchronized (queueLock) {...}
+  private void updateQueueCounts() {
+    cmStatus.setWaitingCount(queuedEntries.size() + recheckTimes.size());
+    cmStatus.setEligibleCount(queuedEntries.size());
+  }
+
+  /**
+   * Choose the next crawl from the heads of the incremental pool queues,
+   * by the same rules as {@link #nextReqFromBuiltQueue()}.  The chosen
+   * AU's eligibility is rechecked, as its entry may be stale.
+   */
+  CrawlReq nextReqFromPoolQueues() {
+    Bag runKeys = copySharedRunKeys();
+    synchronized (queueLock) {
+      while (true) {
+        CrawlReq bestReq = null;
+        for (Map.Entry<String, TreeSet<PoolQueueEntry>> ent :
+               poolQueues.entrySet()) {
+          String rateKey = ent.getKey();
+          if (rateKey == UNSHARED_RATE_KEY ||
+              runKeys.getCount(rateKey) >= getCrawlPoolSize(rateKey)) {
+            continue;
+          }
+          CrawlReq req = currentHead(ent.getValue());
+          if (bestReq == null || CPC.compare(req, bestReq) < 0) {
+            bestReq = req;
+          }
+        }
+        TreeSet<PoolQueueEntry> unshared =
+            poolQueues.get(UNSHARED_RATE_KEY);
+        CrawlReq unsharedHead =
+            (unshared != null) ? currentHead(unshared) : null;
+        if (unsharedHead != null &&
+            (bestReq == null ||
+                runKeys.size() >= (paramMaxPoolSize -
+                    paramFavorUnsharedRateThreads) ||
+                unsharedHead.isHiPri())) {
+          CrawlReq req = unsharedHead;
+          if (bestReq == null || CPC.compare(req, bestReq) < 0) {
+            bestReq = req;
+          }
+        }
+        if (bestReq == null) {
+          logger.debug3("nextReqFromPoolQueues(): null");
+          return null;
+        }
+        dequeue(bestReq.getAuId());
+        if (isStillQueueable(bestReq)) {
+          logger.debug3("nextReqFromPoolQueues: " + bestReq);
+          return bestReq;
+        }
+        // Stale entry; recompute it (and possibly schedule a recheck)
+        // before the next choice.
+        logger.debug2("No longer eligible: " + bestReq);
+        crawlQueueChanged(bestReq.getAuId());
+      }
+    }
+  }
+
+  private boolean isStillQueueable(CrawlReq req) {
+    if (!req.isActive()) {
+      return false;
+    }
+    ArchivalUnit au = req.getAu();
+    boolean isRequested;
+    synchronized (highPriorityCrawlRequests) {
+      isRequested = highPriorityCrawlRequests.get(req.getAuId()) == req;
+    }
+    try {
+      return (isRequested || shouldCrawlForNewContent(au))
+          && isEligibleForNewContentCrawl(au);
+    } catch (RuntimeException e) {
+      logger.warning("Checking for crawlworthiness: " + au.getName(), e);
+      return false;
+    }
+  }
+
+  /** Return the time at which temporarily ineligible AUs will next be
+   * rechecked */
+  long getNextRecheckTime() {
+    synchronized (queueLock) {
+      return nextRecheckTime;
+    }
+  }
+
   void setReqPriority(CrawlReq req) {
     int pri = getAuPriority(req.getAu());
     if (pri != 0) {
@@ -2186,6 +2653,13 @@ public class CrawlManagerImpl extends BaseLockssDaemonManager
         startCrawl(req);
         return true;
       }
+      if (paramIncrementalQueue) {
+        // Don't sleep past the time an ineligible AU should be rechecked
+        long recheckIn = TimeBase.msUntil(getNextRecheckTime());
+        if (recheckIn < startOneWait.getRemainingTime()) {
+          startOneWait.expireIn(Math.max(recheckIn, 0));
+        }
+      }
     }
     cmStatus.setNextCrawlStarter(startOneWait);
     while (!startOneWait.expired()) {
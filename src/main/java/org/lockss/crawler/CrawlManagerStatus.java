@@ -54,6 +54,14 @@ public class CrawlManagerStatus {
   private int ausEligibleCrawl;
   private boolean isOdc = false;
   private Collection runningNCCrawls = Collections.EMPTY_LIST;
+  private int queueRebuilds = 0;
+  private long lastQueueRebuildTime = 0;
+  private long totalQueueRebuildTime = 0;
+  private long maxQueueRebuildTime = 0;
+  private int queueUpdates = 0;
+  private long queueUpdateAus = 0;
+  private long totalQueueUpdateTime = 0;
+  private long maxQueueUpdateTime = 0;
 
 
   /** Return an LRUMap that prevents deletion of active crawls */
@@ -167,4 +175,53 @@ public class CrawlManagerStatus {
   public void setEligibleCount(int val) {
     ausEligibleCrawl = val;
   }
+
+  /** Record the duration of a crawl queue rebuild from all AUs */
+  public synchronized void recordQueueRebuild(long time) {
+    queueRebuilds++;
+    lastQueueRebuildTime = time;
+    totalQueueRebuildTime += time;
+    maxQueueRebuildTime = Math.max(maxQueueRebuildTime, time);
+  }
+
+  /** Record the number of AUs examined by, and the duration of, an
+   * incremental crawl queue update */
+  public synchronized void recordQueueUpdate(int aus, long time) {
+    queueUpdates++;
+    queueUpdateAus += aus;
+    totalQueueUpdateTime += time;
+    maxQueueUpdateTime = Math.max(maxQueueUpdateTime, time);
+  }
+
+  public synchronized int getQueueRebuildCount() {
+    return queueRebuilds;
+  }
+
+  public synchronized long getLastQueueRebuildTime() {
+    return lastQueueRebuildTime;
+  }
+
+  public synchronized long getAvgQueueRebuildTime() {
+    return queueRebuilds == 0 ? 0 : totalQueueRebuildTime / queueRebuilds;
+  }
+
+  public synchronized long getMaxQueueRebuildTime() {
+    return maxQueueRebuildTime;
+  }
+
+  public synchronized int getQueueUpdateCount() {
+    return queueUpdates;
+  }
+
+  public synchronized long getQueueUpdateAuCount() {
+    return queueUpdateAus;
+  }
+
+  public synchronized long getAvgQueueUpdateTime() {
+    return queueUpdates == 0 ? 0 : totalQueueUpdateTime / queueUpdates;
+  }
+
+  public synchronized long getMaxQueueUpdateTime() {
+    return maxQueueUpdateTime;
+  }
 }
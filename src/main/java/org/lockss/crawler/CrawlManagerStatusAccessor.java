@@ -51,6 +51,12 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
     Configuration.PREFIX + "crawlStatus.includeDeletedAus";
   public static final boolean DEFAULT_INCLUDE_DELETED_AUS = true;
 
+  /** Number of rows per page when the table is displayed interactively.
+   * 0 means all rows on one page. */
+  public static final String PARAM_ROWS_PER_PAGE =
+    Configuration.PREFIX + "crawlStatus.rowsPerPage";
+  public static final int DEFAULT_ROWS_PER_PAGE = 500;
+
 
   private static final String AU_COL_NAME = "au";
   private static final String CRAWL_TYPE = "crawl_type";
@@ -80,6 +86,8 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
   // Sort keys, not visible columns
   private static final String SORT_KEY1 = "sort1";
   private static final String SORT_KEY2 = "sort2";
+  private static final Set<String> SORT_COLS =
+    SetUtil.set(SORT_KEY1, SORT_KEY2);
 
   private static int SORT_BASE_ACTIVE = 0;
   private static int SORT_BASE_WAITING = 1000000;
@@ -183,7 +191,27 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
     Counts ct = new Counts();
     boolean includeInternalAus =
       table.getOptions().get(StatusTable.OPTION_DEBUG_USER);
-    table.setRows(getRows(cms, key, includeInternalAus, ct));
+    final List<CrawlRow> rowObjs =
+      getRowObjects(cms, key, includeInternalAus, ct);
+    table.setRowSource(new StatusTable.RowSource<CrawlRow>() {
+	public Collection<CrawlRow> getRowObjects() {
+	  return rowObjs;
+	}
+	public Map makeRow(CrawlRow cr, Set<String> cols) {
+	  if (SORT_COLS.containsAll(cols)) {
+	    Map row = new HashMap();
+	    if (cr.req != null) {
+	      putSortKeys(row, cr.req, cr.rowNum);
+	    } else {
+	      putSortKeys(row, cr.status, cr.rowNum);
+	    }
+	    return row;
+	  }
+	  return cr.req != null
+	    ? CrawlManagerStatusAccessor.this.makeRow(cr.req, cr.rowNum)
+	    : CrawlManagerStatusAccessor.this.makeRow(cr.status, cr.rowNum);
+	}},
+      CurrentConfig.getIntParam(PARAM_ROWS_PER_PAGE, DEFAULT_ROWS_PER_PAGE));
     table.setDefaultSortRules(sortRules);
     table.setColumnDescriptors(getColDescs(cms, ct),
 			       "-" + StringUtil.separatedString(DEF_OMITTED,
@@ -211,10 +239,30 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
     return res;
   }
 
-  private List getRows(CrawlManagerStatus cms, String key,
-		       boolean includeInternalAus, Counts ct) {
+  /** A crawl or pending crawl request, and its position in the list */
+  private static class CrawlRow {
+    CrawlerStatus status;
+    CrawlReq req;
+    int rowNum;
+
+    CrawlRow(CrawlerStatus status, int rowNum) {
+      this.status = status;
+      this.rowNum = rowNum;
+    }
+
+    CrawlRow(CrawlReq req, int rowNum) {
+      this.req = req;
+      this.rowNum = rowNum;
+    }
+  }
+
+  /** Collect the crawls and pending requests to be displayed, and count
+   * the active and waiting ones.  Rows are built only for those on the
+   * page being displayed. */
+  private List<CrawlRow> getRowObjects(CrawlManagerStatus cms, String key,
+				       boolean includeInternalAus, Counts ct) {
     List allCrawls = cms.getCrawlerStatusList();
-    List rows = new ArrayList();
+    List<CrawlRow> rows = new ArrayList<CrawlRow>();
     int rowNum = 0;
     if (allCrawls != null) {
       boolean includeDeletedAus =
@@ -232,7 +280,12 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
 	if (!includeInternalAus && au != null && pluginMgr.isInternalAu(au)) {
 	  continue;
 	}
-	rows.add(makeRow(crawlStat, ct, rowNum++));
+	if (crawlStat.getStartTime() <= 0) {
+	  ct.waiting++;
+	} else if (crawlStat.getEndTime() <= 0) {
+	  ct.active++;
+	}
+	rows.add(new CrawlRow(crawlStat, rowNum++));
       }
     }
     Collection<CrawlReq> pendingQ = statusSource.getPendingQueue();
@@ -243,13 +296,14 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
 	} else if (key != null && !key.equals(req.getAuId())) {
 	  continue;
 	}
-	rows.add(makeRow(req, ct, rowNum++));
+	ct.waiting++;
+	rows.add(new CrawlRow(req, rowNum++));
       }
     }
     return rows;
   }
 
-  private Map makeRow(CrawlReq req, Counts ct, int rowNum) {
+  private Map makeRow(CrawlReq req, int rowNum) {
     Map row = new HashMap();
     ArchivalUnit au = req.getAu();
     if (au != null) {
@@ -273,13 +327,31 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
     row.put(CRAWL_TYPE, "New Content");
     row.put(CRAWL_PRIORITY, req.getPriority());
     row.put(CRAWL_DEPTH, req.getRefetchDepth());
+    putSortKeys(row, req, rowNum);
+    return row;
+  }
+
+  private void putSortKeys(Map row, CrawlReq req, int rowNum) {
     row.put(SORT_KEY1, SORT_BASE_WAITING);
     row.put(SORT_KEY2, Integer.MAX_VALUE - rowNum);
-    ct.waiting++;
-    return row;
   }
 
-  private Map makeRow(CrawlerStatus status, Counts ct, int rowNum) {
+  private void putSortKeys(Map row, CrawlerStatus status, int rowNum) {
+    if (status.getStartTime() > 0) {
+      if (status.getEndTime() > 0) {
+	row.put(SORT_KEY1, SORT_BASE_DONE);
+	row.put(SORT_KEY2, status.getEndTime());
+      } else {
+	row.put(SORT_KEY1, SORT_BASE_ACTIVE);
+	row.put(SORT_KEY2, status.getStartTime());
+      }
+    } else {
+      row.put(SORT_KEY1, SORT_BASE_WAITING);
+      row.put(SORT_KEY2, rowNum);
+    }
+  }
+
+  private Map makeRow(CrawlerStatus status, int rowNum) {
     Map row = new HashMap();
     String key = status.getKey();
 
@@ -320,8 +392,6 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
       if (status.getEndTime() > 0) {
 	row.put(DURATION_COL_NAME, new Long(status.getEndTime() -
 					    status.getStartTime()));
-	row.put(SORT_KEY1, SORT_BASE_DONE);
-	row.put(SORT_KEY2, status.getEndTime());
 	if (status.getErrorCtr().getCount() > 0) {
 	  switch (status.getCrawlStatus()) {
 	  case Crawler.STATUS_ERROR:
@@ -342,15 +412,9 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
       } else {
 	row.put(DURATION_COL_NAME, new Long(TimeBase.nowMs() -
 					    status.getStartTime()));
-	row.put(SORT_KEY1, SORT_BASE_ACTIVE);
-	row.put(SORT_KEY2, status.getStartTime());
-	ct.active++;
       }
-    } else {
-      ct.waiting++;
-      row.put(SORT_KEY1, SORT_BASE_WAITING);
-      row.put(SORT_KEY2, rowNum);
     }
+    putSortKeys(row, status, rowNum);
 
 //     row.put(START_URLS,
 // 	    (StringUtil.separatedString(status.getStartUrls(), "\n")));
@@ -461,10 +525,37 @@ public class CrawlManagerStatusAccessor implements StatusAccessor {
 					      instr));
 	}
       }
+      if (table.getOptions().get(StatusTable.OPTION_DEBUG_USER)) {
+	addQueueTimings(res, cms);
+      }
     }
     return res;
   }
 
+  private void addQueueTimings(List res, CrawlManagerStatus cms) {
+    if (cms.getQueueRebuildCount() != 0) {
+      res.add(new StatusTable.SummaryInfo("Queue Rebuilds",
+					  ColumnDescriptor.TYPE_STRING,
+					  cms.getQueueRebuildCount() +
+					  ", last: " +
+					  cms.getLastQueueRebuildTime() +
+					  "ms, avg: " +
+					  cms.getAvgQueueRebuildTime() +
+					  "ms, max: " +
+					  cms.getMaxQueueRebuildTime() + "ms"));
+    }
+    if (cms.getQueueUpdateCount() != 0) {
+      res.add(new StatusTable.SummaryInfo("Queue Updates",
+					  ColumnDescriptor.TYPE_STRING,
+					  cms.getQueueUpdateCount() + " (" +
+					  cms.getQueueUpdateAuCount() +
+					  " AUs), avg: " +
+					  cms.getAvgQueueUpdateTime() +
+					  "ms, max: " +
+					  cms.getMaxQueueUpdateTime() + "ms"));
+    }
+  }
+
   private void addIfNonZero(List res, String head, int val) {
     if (val != 0) {
       res.add(new StatusTable.SummaryInfo(head,
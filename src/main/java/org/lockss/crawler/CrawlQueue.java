@@ -34,10 +34,12 @@ package org.lockss.crawler;
 
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.*;
 
 import org.apache.commons.collections.Buffer;
 import org.apache.commons.collections.buffer.*;
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.lockss.util.*;
 
 /**
@@ -46,13 +48,36 @@ import org.lockss.util.*;
  * {@link CrawlUrl}s) by the specified comparator.  If comparator is null,
  * the urls are sorted first by depth then alphabetically, resulting in a
  * breadth-first crawl.  The comparator should never return 0; if it does
- * the results are undefined.
+ * the results are undefined.<p>
+ *
+ * A FIFO (null comparator) queue may be allowed to spill to disk, with
+ * {@link #enableSpill(int)}.  Once the in-memory part of the queue reaches
+ * the hot window size, further additions are appended to a file until the
+ * in-memory part has been consumed, then read back a window at a time.
+ * Spilled entries are recreated as plain CrawlUrlData without children,
+ * and can't be retrieved with {@link #get(String)}; {@link
+ * #contains(String)} reports them (by fingerprint) until the spill file
+ * has been drained.
  */
 public class CrawlQueue {
   static Logger log = Logger.getLogger();
 
   Buffer sorted;
   Map<String,CrawlUrlData> map;
+  boolean isFifo;
+
+  // Spill state.  Entries in spillList at or after spillReadPos are
+  // logically after everything in sorted.
+  int hotWindow = 0;			// 0 means never spill
+  FileBackedList<byte[]> spillList;
+  int spillReadPos = 0;
+  UrlFingerprintSet spilledUrls;
+
+  // Spill statistics
+  long numSpilled = 0;
+  long spillBytes = 0;
+  int maxSpilled = 0;
+  int numSpillFiles = 0;
 
   /** Create a CrawlQueue that sorts {@link CrawlUrlData} objects (viewed
    * as {@link CrawlUrl}) by the specified comparator.
@@ -64,21 +89,43 @@ public class CrawlQueue {
   public CrawlQueue(Comparator<CrawlUrl> comparator) {
     if (comparator == null) {
       sorted = new UnboundedFifoBuffer();
+      isFifo = true;
     } else {
       sorted = new PriorityBuffer(comparator);
     }
     map = new HashMap<String,CrawlUrlData>();
   }
 
+  /** Return true if the queue may be spilled to disk (<i>ie</i>, it's a
+   * FIFO) */
+  public boolean isSpillable() {
+    return isFifo;
+  }
+
+  /** Allow the queue to spill to disk once more than hotWindow entries
+   * are in memory.
+   * @throws IllegalStateException if the queue isn't a FIFO
+   */
+  public void enableSpill(int hotWindow) {
+    if (!isFifo) {
+      throw new IllegalStateException("Only FIFO CrawlQueue can spill");
+    }
+    this.hotWindow = Math.max(1, hotWindow);
+  }
+
   /** Add CrawlUrlData to the queue.
    * @throws IllegalArgumentException if the CrawlUrlData is already in the
-   * queue
+   * in-memory part of the queue
    */
   public void add(CrawlUrlData curl) {
     String url = curl.getUrl();
     if (map.containsKey(url)) {
       throw new IllegalArgumentException("Illegal to replace entry");
     }
+    if (hasSpilled() || (hotWindow > 0 && sorted.size() >= hotWindow)) {
+      spill(curl);
+      return;
+    }
     map.put(url, curl);
     int size = sorted.size();
     sorted.add(curl);
@@ -91,37 +138,194 @@ public class CrawlQueue {
 
   /** Return the first CrawlUrlData in the queue */
   public CrawlUrlData first() {
+    refillIfEmpty();
     return (CrawlUrlData)sorted.get();
   }
 
   /** For unit tests */
   Collection asList() {
-    return new ArrayList(sorted);
+    List res = new ArrayList(sorted);
+    if (hasSpilled()) {
+      for (int ix = spillReadPos; ix < spillList.size(); ix++) {
+	res.add(decode(spillList.get(ix)));
+      }
+    }
+    return res;
   }
 
   /** Remove the first CrawlUrlData from the queue and return it */
   public CrawlUrlData remove() {
+    refillIfEmpty();
     CrawlUrlData res = (CrawlUrlData)sorted.remove();
     map.remove(res.getUrl());
     return res;
   }
 
-  /** Retun the CrawlUrlData corresponding to the URL */
+  /** Retun the CrawlUrlData corresponding to the URL, if it's in the
+   * in-memory part of the queue */
   public CrawlUrlData get(String url) {
     return map.get(url);
   }
 
+  /** Return true if the URL is in the queue.  If the queue has spilled,
+   * may also return true for a URL that was recently in the queue, or
+   * (very rarely) one whose fingerprint matches a spilled URL */
+  public boolean contains(String url) {
+    return map.containsKey(url)
+      || (spilledUrls != null && spilledUrls.contains(url));
+  }
+
   /** Return the number of elements in the queue */
   public int size() {
-    return sorted.size();
+    return sorted.size() + numUnreadSpilled();
   }
 
   public boolean isEmpty() {
-    return map.isEmpty();
+    return map.isEmpty() && !hasSpilled();
+  }
+
+  /** Return the number of entries currently on disk */
+  public int numUnreadSpilled() {
+    return spillList == null ? 0 : spillList.size() - spillReadPos;
+  }
+
+  /** Return the total number of entries that have been spilled to disk */
+  public long getNumSpilled() {
+    return numSpilled;
+  }
+
+  /** Return the total number of bytes written to spill files */
+  public long getSpillBytes() {
+    return spillBytes;
+  }
+
+  /** Return the largest number of entries that were on disk at once */
+  public int getMaxSpilled() {
+    return maxSpilled;
+  }
+
+  /** Return the number of spill files that have been created */
+  public int getNumSpillFiles() {
+    return numSpillFiles;
+  }
+
+  /** Release any spill file */
+  public void close() {
+    if (spillList != null) {
+      spillList.close();
+      spillList = null;
+      spillReadPos = 0;
+    }
+    spilledUrls = null;
+  }
+
+  private boolean hasSpilled() {
+    return numUnreadSpilled() > 0;
+  }
+
+  private void spill(CrawlUrlData curl) {
+    try {
+      if (spillList == null) {
+	spillList = new FileBackedList<byte[]>();
+	spillReadPos = 0;
+	spilledUrls = new UrlFingerprintSet(hotWindow);
+	numSpillFiles++;
+	log.debug("Spilling crawl queue to disk at " + sorted.size());
+      }
+      byte[] rec = encode(curl);
+      spillList.add(rec);
+      spilledUrls.add(curl.getUrl());
+      numSpilled++;
+      spillBytes += rec.length;
+      maxSpilled = Math.max(maxSpilled, numUnreadSpilled());
+    } catch (IOException e) {
+      throw new RuntimeException("Couldn't spill crawl queue", e);
+    }
+  }
+
+  /** If the in-memory queue is empty, read the next window of entries
+   * from the spill file.  Once the file has been read completely it's
+   * deleted, along with the spilled URL fingerprints. */
+  private void refillIfEmpty() {
+    if (!sorted.isEmpty() || spillList == null) {
+      return;
+    }
+    int end = Math.min(spillList.size(), spillReadPos + hotWindow);
+    while (spillReadPos < end) {
+      CrawlUrlData curl = decode(spillList.get(spillReadPos++));
+      if (map.containsKey(curl.getUrl())) {
+	log.debug2("Duplicate spilled URL: " + curl);
+	continue;
+      }
+      map.put(curl.getUrl(), curl);
+      sorted.add(curl);
+    }
+    if (spillReadPos >= spillList.size()) {
+      log.debug2("Spill file drained");
+      close();
+    }
+  }
+
+  static byte[] encode(CrawlUrlData curl) throws IOException {
+    UnsynchronizedByteArrayOutputStream baos =
+      new UnsynchronizedByteArrayOutputStream(curl.getUrl().length() + 16);
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.writeInt(curl.getDepth());
+    dos.writeInt(curl.getFlags());
+    writeString(dos, curl.getUrl());
+    writeString(dos, curl.getReferrer());
+    dos.flush();
+    return baos.toByteArray();
+  }
+
+  static CrawlUrlData decode(byte[] rec) {
+    try {
+      DataInputStream dis = new DataInputStream(new ByteArrayInputStream(rec));
+      int depth = dis.readInt();
+      int flags = dis.readInt();
+      CrawlUrlData curl = new CrawlUrlData(readString(dis), depth);
+      curl.setFlags(flags);
+      curl.setReferrer(readString(dis));
+      return curl;
+    } catch (IOException e) {
+      throw new RuntimeException("Corrupt crawl queue spill record", e);
+    }
+  }
+
+  // Strings are written as length-prefixed UTF-8; -1 means null.
+  // (DataOutputStream.writeUTF() can't handle long URLs.)
+  private static void writeString(DataOutputStream dos, String s)
+      throws IOException {
+    if (s == null) {
+      dos.writeInt(-1);
+    } else {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      dos.writeInt(b.length);
+      dos.write(b);
+    }
+  }
+
+  private static String readString(DataInputStream dis) throws IOException {
+    int len = dis.readInt();
+    if (len < 0) {
+      return null;
+    }
+    byte[] b = new byte[len];
+    dis.readFully(b);
+    return new String(b, StandardCharsets.UTF_8);
   }
 
   public String toString() {
-    return "[" + StringUtil.separatedString(sorted, ", ") + "]";
+    StringBuilder sb = new StringBuilder();
+    sb.append("[");
+    sb.append(StringUtil.separatedString(sorted, ", "));
+    if (hasSpilled()) {
+      sb.append(", (");
+      sb.append(numUnreadSpilled());
+      sb.append(" spilled)");
+    }
+    sb.append("]");
+    return sb.toString();
   }
 
   /** A comparator that implements a breadth-first crawl where, at each
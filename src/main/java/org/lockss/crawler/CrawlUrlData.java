@@ -78,6 +78,16 @@ public class CrawlUrlData implements CrawlUrl {
     return referrerUrl;
   }
 
+  /** Return all the flags, for serialization */
+  int getFlags() {
+    return flags;
+  }
+
+  /** Set all the flags, for deserialization */
+  void setFlags(int flags) {
+    this.flags = flags;
+  }
+
   public boolean isFetched() {
     return (flags & IS_FETCHED) != 0;
   }
@@ -214,6 +214,11 @@ public class CrawlerStatus {
   protected int refetchDepth = -1;
   protected int depth = -1;
   protected int priority = -1;
+  protected boolean compactTracking = false;
+  protected long numSpilled = 0;
+  protected long spillBytes = 0;
+  protected int maxSpilled = 0;
+  protected int numSpillFiles = 0;
 
   protected String type;
   private long contentBytesFetched = 0;
@@ -609,6 +614,44 @@ public class CrawlerStatus {
     return depth;
   }
 
+  /** Record that the crawl has switched to tracking URLs by fingerprint */
+  public void setCompactTracking(boolean val) {
+    compactTracking = val;
+  }
+
+  public boolean isCompactTracking() {
+    return compactTracking;
+  }
+
+  /** Record the fetch queue's spill statistics */
+  public void setQueueSpill(long numSpilled, long spillBytes,
+			    int maxSpilled, int numSpillFiles) {
+    this.numSpilled = numSpilled;
+    this.spillBytes = spillBytes;
+    this.maxSpilled = maxSpilled;
+    this.numSpillFiles = numSpillFiles;
+  }
+
+  /** Return the number of URLs the fetch queue has spilled to disk */
+  public long getNumSpilled() {
+    return numSpilled;
+  }
+
+  /** Return the number of bytes the fetch queue has spilled to disk */
+  public long getSpillBytes() {
+    return spillBytes;
+  }
+
+  /** Return the maximum number of URLs on disk at once */
+  public int getMaxSpilled() {
+    return maxSpilled;
+  }
+
+  /** Return the number of spill files the fetch queue has created */
+  public int getNumSpillFiles() {
+    return numSpillFiles;
+  }
+
   public int getPriority() {
     return priority;
   }
@@ -32,6 +32,14 @@ import java.io.*;
 import java.net.MalformedURLException;
 import java.util.*;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang3.tuple.Pair;
@@ -112,6 +120,36 @@ public class FollowLinkCrawler extends BaseCrawler {
   public static final String PARAM_PARSE_ON_PERM_FAIL = PREFIX + "parseOnPermFail";
   public static final boolean DEFAULT_PARSE_ON_PERM_FAIL = true;
 
+  /** Once the number of URLs known to a breadth-first crawl (queued,
+   * processed and too deep) exceeds this, the crawl switches to compact
+   * bookkeeping: processed URLs are remembered only by fingerprint, the
+   * link graph used to propagate depth reductions is discarded (depths
+   * can't be reduced in a breadth-first crawl) and the fetch queue spills
+   * to disk.  Crawls using a plugin-supplied URL comparator are
+   * unaffected.  0 disables. */
+  public static final String PARAM_MAX_IN_MEMORY_URLS =
+    PREFIX + "maxInMemoryUrls";
+  public static final int DEFAULT_MAX_IN_MEMORY_URLS = 250000;
+
+  /** Number of fetch queue entries kept in memory once the queue has
+   * started spilling to disk */
+  public static final String PARAM_FRONTIER_HOT_WINDOW =
+    PREFIX + "frontierHotWindow";
+  public static final int DEFAULT_FRONTIER_HOT_WINDOW = 10000;
+
+  /** Number of URLs of an AU that may be fetched concurrently.  Fetches
+   * still wait on the AU's CrawlRateLimiter, so more than one is useful
+   * only when the rate limits (e.g., per-host or per-MIME-type limits
+   * spread across several hosts) leave room for overlapping fetches.
+   * Parsing and link bookkeeping remain in the crawl thread.  1 fetches
+   * serially in the crawl thread. */
+  public static final String PARAM_FETCH_THREADS = PREFIX + "fetchThreads";
+  public static final int DEFAULT_FETCH_THREADS = 1;
+
+  // Interval at which the crawl thread pokes its watchdog while waiting
+  // for concurrent fetches
+  static final long FETCH_WAIT_INTERVAL = 1000;
+
   protected int maxDepth = DEFAULT_MAX_CRAWL_DEPTH;
 
   protected int hiDepth = 0;		// maximum depth seen
@@ -129,12 +167,19 @@ public class FollowLinkCrawler extends BaseCrawler {
   protected String crawlEndReportHashAlg = DEFAULT_CRAWL_END_REPORT_HASH_ALG;
   protected SubstanceChecker subChecker;
   protected boolean isAbbreviatedCrawlTest = false;
-  protected boolean crawlTerminated = false;
+  protected volatile boolean crawlTerminated = false;
   protected boolean isRefetchEmptyFiles = false;
   protected boolean shouldFollowLink = true;
   protected boolean isFullSubstanceCheck = false;
   protected boolean refindCdnStems   = false;
   protected boolean parseOnPermFail = DEFAULT_PARSE_ON_PERM_FAIL;
+  protected int maxInMemoryUrls = DEFAULT_MAX_IN_MEMORY_URLS;
+  protected int frontierHotWindow = DEFAULT_FRONTIER_HOT_WINDOW;
+  protected int fetchThreads = DEFAULT_FETCH_THREADS;
+
+  // Non-null once the crawl has switched to compact bookkeeping
+  protected UrlFingerprintSet processedFps;
+  protected UrlFingerprintSet maxDepthFps;
 
   // Cache recent negative results from au.shouldBeCached().  This is set
   // to an LRUMsp when crawl is initialized, it's initialized here to a
@@ -142,13 +187,21 @@ public class FollowLinkCrawler extends BaseCrawler {
   // this.setCrawlConfig().  If we want to report all excluded URLs, this
   // can be changed to a simple Set.
   private Map excludedUrlCache = new HashMap();
-  private Set<String> failedUrls = new HashSet<String>();
+  private Set<String> failedUrls =
+    Collections.synchronizedSet(new HashSet<String>());
     
   protected CrawlQueue fetchQueue;
   protected Queue<CrawlUrlData> permissionProbeUrls;
   protected FifoQueue parseQueue;
   protected Comparator<CrawlUrl> urlOrderComparator;
 
+  // URLs removed from the fetch queue whose fetch hasn't yet completed.
+  // Accessed only by the crawl thread.
+  protected Map<String,CrawlUrlData> inFlightUrls =
+    new HashMap<String,CrawlUrlData>();
+  private ThreadPoolExecutor fetchExecutor;
+  private ExecutorCompletionService<FetchTask> fetchCompletion;
+
   public FollowLinkCrawler(ArchivalUnit au, AuState aus) {
     super(au, aus);
 
@@ -232,6 +285,20 @@ public class FollowLinkCrawler extends BaseCrawler {
       config.getBoolean(PARAM_REFIND_CDN_STEMS, DEFAULT_REFIND_CDN_STEMS);
     parseOnPermFail =
         config.getBoolean(PARAM_PARSE_ON_PERM_FAIL, DEFAULT_PARSE_ON_PERM_FAIL);
+    maxInMemoryUrls =
+      config.getInt(PARAM_MAX_IN_MEMORY_URLS, DEFAULT_MAX_IN_MEMORY_URLS);
+    frontierHotWindow =
+      config.getInt(PARAM_FRONTIER_HOT_WINDOW, DEFAULT_FRONTIER_HOT_WINDOW);
+    fetchThreads =
+      Math.max(1, config.getInt(PARAM_FETCH_THREADS, DEFAULT_FETCH_THREADS));
+    if (isConcurrentFetch()) {
+      connectionPool.setMultiThreaded(fetchThreads, fetchThreads);
+    }
+  }
+
+  @Override
+  protected boolean isConcurrentFetch() {
+    return fetchThreads > 1;
   }
  
 
@@ -247,7 +314,19 @@ public class FollowLinkCrawler extends BaseCrawler {
     crawlStatus.setRefetchDepth(getRefetchDepth());
     processedUrls = new HashMap<String,CrawlUrlData>();
     maxDepthUrls = new HashMap<String,CrawlUrlData>();
+    processedFps = null;
+    maxDepthFps = null;
+    inFlightUrls.clear();
+    try {
+      return crawlFromStartUrls();
+    } finally {
+      stopFetchWorkers();
+      // Release any spill file
+      fetchQueue.close();
+    }
+  }
 
+  private boolean crawlFromStartUrls() {
     // Enable no-substance-collected detection if so configured and
     // supported by plugin.
     subChecker = new SubstanceChecker(au);
@@ -337,7 +416,11 @@ public class FollowLinkCrawler extends BaseCrawler {
       return aborted(ABORTED_BEFORE_START_MSG);
     }
 
-    while (!fetchQueue.isEmpty() && !(isAborted() || crawlTerminated)) {
+    if (isConcurrentFetch()) {
+      startFetchWorkers();
+    }
+    while ((!fetchQueue.isEmpty() || !inFlightUrls.isEmpty())
+	   && !(isAborted() || crawlTerminated)) {
       // check crawl window during crawl
       if (!withinCrawlWindow()) {
         crawlStatus.setCrawlStatus(Crawler.STATUS_WINDOW_CLOSED);
@@ -345,54 +428,53 @@ public class FollowLinkCrawler extends BaseCrawler {
         return false;
       }
       if (log.isDebug3()) log.debug3("Fetch queue: " + fetchQueue);
-      int len = fetchQueue.size();
-      fqMaxLen = Math.max(fqMaxLen, len);
-      fqSumLen += len;
-      fqSamples += 1;
-
-      CrawlUrlData curl = fetchQueue.remove();
-      if (log.isDebug3()) log.debug3("Removed from queue: " + curl);
-      hiDepth = Math.max(hiDepth, curl.getDepth());
-      String url = curl.getUrl();
 
-      crawlStatus.removePendingUrl(url);
-      try {
-        if (!fetch(curl)) {
-          if (!crawlStatus.isCrawlError()) {
-            log.warning("fetch() failed, didn't set error status: "
-                + curl);
-          }
-        }
-      } catch (RuntimeException e) {
-        if (isAborted()) {
-          log.debug("Expected exception while aborting crawl: " + e);
+      if (isConcurrentFetch()) {
+	// Keep up to fetchThreads fetches in flight, then wait for one to
+	// finish so its page can be parsed before dispatching more
+	while (inFlightUrls.size() < fetchThreads && !fetchQueue.isEmpty()
+	       && !isAborted()) {
+	  dispatchFetch(nextFetchUrl());
+	}
+	if (inFlightUrls.isEmpty()) {
+	  continue;
+	}
+	FetchTask task = awaitFetch();
+	if (!fetchCompleted(task.curl, task.result, task.exception)) {
           crawlStatus.setDepth(hiDepth);
-          return aborted(e.getMessage());
-        }
-        log.warning("Unexpected exception processing: " + url, e);
-        crawlStatus.signalErrorForUrl(url, e.getMessage(),
-                                      CrawlerStatus.Severity.Error);
-        if (!crawlStatus.isCrawlError()) {
-          crawlStatus.setCrawlStatus(Crawler.STATUS_FETCH_ERROR);
-        }
+          return aborted(task.exception.getMessage());
+	}
+      } else {
+	CrawlUrlData curl = nextFetchUrl();
+	boolean res = false;
+	RuntimeException ex = null;
+	try {
+	  res = fetch(curl);
+	} catch (RuntimeException e) {
+	  ex = e;
+	}
+	if (!fetchCompleted(curl, res, ex)) {
+          crawlStatus.setDepth(hiDepth);
+          return aborted(ex.getMessage());
+	}
       }
       if (isAborted()) {
         return aborted();
       }
       
       while(!parseQueue.isEmpty()) {
+        CrawlUrlData parseCurl = (CrawlUrlData) parseQueue.peek();
         try {
-          CrawlUrlData parseCurl = (CrawlUrlData) parseQueue.peek();
           if(isAborted()) {
             return aborted();
           }
 	  pokeWDog();
           parseQueue.remove(parseCurl);
           parse(parseCurl);
-          processedUrls.put(parseCurl.getUrl(), parseCurl);
+          markProcessed(parseCurl);
         } catch (RuntimeException e) {
-          log.warning("Unexpected exception parsing: " + url, e);
-          crawlStatus.signalErrorForUrl(url, e.toString(),
+          log.warning("Unexpected exception parsing: " + parseCurl, e);
+          crawlStatus.signalErrorForUrl(parseCurl.getUrl(), e.toString(),
                                         CrawlerStatus.Severity.Error);
           if (!crawlStatus.isCrawlError()) {
             crawlStatus.setCrawlStatus(Crawler.STATUS_ERROR);
@@ -403,12 +485,20 @@ public class FollowLinkCrawler extends BaseCrawler {
         return aborted();
       }
     }
+    // If the crawl was terminated early, let outstanding fetches finish
+    // before the end-of-crawl checks
+    stopFetchWorkers();
     
     crawlStatus.setDepth(hiDepth);
-    if (!maxDepthUrls.isEmpty()) {
+    if (!maxDepthUrls.isEmpty()
+	|| (maxDepthFps != null && !maxDepthFps.isEmpty())) {
       String msg = "Site depth exceeds max crawl depth (" + maxDepth + ")";
       log.error(msg + ". Stopped crawl of " + au.getName());
-      log.debug("Too deep URLs: " + maxDepthUrls);
+      if (maxDepthFps != null) {
+	log.debug("Too deep URLs: " + maxDepthFps.size());
+      } else {
+	log.debug("Too deep URLs: " + maxDepthUrls);
+      }
       crawlStatus.setCrawlStatus(Crawler.STATUS_ERROR, msg);
     } else {
       log.info("Crawled depth = " + (hiDepth) +
@@ -417,6 +507,13 @@ public class FollowLinkCrawler extends BaseCrawler {
     }
     log.debug("Max queue len: " + fqMaxLen + ", avg: "
         + Math.round((fqSumLen) / ((double)fqSamples)));
+    updateSpillStatus();
+    if (fetchQueue.getNumSpillFiles() > 0) {
+      log.info("Fetch queue spilled " + fetchQueue.getNumSpilled() +
+	       " URLs (" + fetchQueue.getSpillBytes() + " bytes) to " +
+	       fetchQueue.getNumSpillFiles() + " files, max on disk: " +
+	       fetchQueue.getMaxSpilled());
+    }
     
     if (subChecker != null) {
       switch (subChecker.hasSubstance()) {
@@ -484,6 +581,197 @@ public class FollowLinkCrawler extends BaseCrawler {
     return (!crawlStatus.isCrawlError());
   }
 
+  /** Remove and return the next URL to fetch, updating queue statistics
+   * and depth bookkeeping */
+  protected CrawlUrlData nextFetchUrl() {
+    checkFrontierSize();
+    int len = fetchQueue.size();
+    fqMaxLen = Math.max(fqMaxLen, len);
+    fqSumLen += len;
+    fqSamples += 1;
+
+    CrawlUrlData curl = fetchQueue.remove();
+    if (log.isDebug3()) log.debug3("Removed from queue: " + curl);
+    hiDepth = Math.max(hiDepth, curl.getDepth());
+    crawlStatus.removePendingUrl(curl.getUrl());
+    return curl;
+  }
+
+  /** Record the outcome of a call to {@link #fetch(CrawlUrlData)}.
+   * @return false iff the fetch threw because the crawl is being aborted
+   */
+  protected boolean fetchCompleted(CrawlUrlData curl, boolean res,
+				   RuntimeException ex) {
+    if (ex != null) {
+      if (isAborted()) {
+	log.debug("Expected exception while aborting crawl: " + ex);
+	return false;
+      }
+      String url = curl.getUrl();
+      log.warning("Unexpected exception processing: " + url, ex);
+      crawlStatus.signalErrorForUrl(url, ex.getMessage(),
+				    CrawlerStatus.Severity.Error);
+      if (!crawlStatus.isCrawlError()) {
+	crawlStatus.setCrawlStatus(Crawler.STATUS_FETCH_ERROR);
+      }
+    } else if (!res) {
+      if (!crawlStatus.isCrawlError()) {
+	log.warning("fetch() failed, didn't set error status: " + curl);
+      }
+    }
+    return true;
+  }
+
+  /** Result of a fetch run in a worker thread */
+  static class FetchTask {
+    CrawlUrlData curl;
+    boolean result;
+    RuntimeException exception;
+
+    FetchTask(CrawlUrlData curl) {
+      this.curl = curl;
+    }
+  }
+
+  void startFetchWorkers() {
+    log.debug("Fetching with " + fetchThreads + " threads: " + au.getName());
+    fetchExecutor =
+      new ThreadPoolExecutor(fetchThreads, fetchThreads,
+			     0L, TimeUnit.MILLISECONDS,
+			     new LinkedBlockingQueue<Runnable>(),
+			     new ThreadFactory() {
+			       int n = 0;
+			       public Thread newThread(Runnable r) {
+				 Thread th =
+				   new Thread(r, "CrawlFetch-" + (++n) + ": "
+					      + au.getName());
+				 th.setDaemon(true);
+				 return th;
+			       }});
+    fetchCompletion = new ExecutorCompletionService<FetchTask>(fetchExecutor);
+  }
+
+  /** Wait for any in-flight fetches to finish, then shut down the worker
+   * threads */
+  void stopFetchWorkers() {
+    if (fetchExecutor == null) {
+      return;
+    }
+    fetchExecutor.shutdown();
+    try {
+      while (!fetchExecutor.awaitTermination(FETCH_WAIT_INTERVAL,
+					     TimeUnit.MILLISECONDS)) {
+	pokeWDog();
+      }
+    } catch (InterruptedException e) {
+      fetchExecutor.shutdownNow();
+    }
+    fetchExecutor = null;
+    fetchCompletion = null;
+    inFlightUrls.clear();
+  }
+
+  /** Start fetching the URL in a worker thread */
+  void dispatchFetch(final CrawlUrlData curl) {
+    if (log.isDebug3()) log.debug3("Dispatching fetch: " + curl);
+    inFlightUrls.put(curl.getUrl(), curl);
+    fetchCompletion.submit(new Callable<FetchTask>() {
+	public FetchTask call() {
+	  FetchTask task = new FetchTask(curl);
+	  try {
+	    task.result = fetch(curl);
+	  } catch (RuntimeException e) {
+	    task.exception = e;
+	  }
+	  return task;
+	}});
+  }
+
+  /** Wait for the next in-flight fetch to finish */
+  FetchTask awaitFetch() {
+    while (true) {
+      try {
+	Future<FetchTask> fut =
+	  fetchCompletion.poll(FETCH_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+	if (fut != null) {
+	  FetchTask task = fut.get();
+	  inFlightUrls.remove(task.curl.getUrl());
+	  return task;
+	}
+      } catch (InterruptedException ignore) {
+	// no action
+      } catch (ExecutionException e) {
+	// fetch() exceptions are caught in the task, so this must be an Error
+	if (e.getCause() instanceof Error) {
+	  throw (Error)e.getCause();
+	}
+	throw new RuntimeException(e.getCause());
+      }
+      pokeWDog();
+    }
+  }
+
+  /** If a breadth-first crawl has grown too large to track every URL in
+   * memory, switch to compact bookkeeping.  See {@link
+   * #PARAM_MAX_IN_MEMORY_URLS}. */
+  protected void checkFrontierSize() {
+    if (processedFps != null) {
+      updateSpillStatus();
+      return;
+    }
+    if (maxInMemoryUrls <= 0
+	|| !fetchQueue.isSpillable()) {
+      return;
+    }
+    int known = processedUrls.size() + maxDepthUrls.size() + fetchQueue.size();
+    if (known <= maxInMemoryUrls) {
+      return;
+    }
+    log.info("Crawl of " + au.getName() + " has " + known +
+	     " URLs, switching to compact URL tracking");
+    processedFps = new UrlFingerprintSet(known * 2);
+    for (String url : processedUrls.keySet()) {
+      processedFps.add(url);
+    }
+    maxDepthFps = new UrlFingerprintSet();
+    for (String url : maxDepthUrls.keySet()) {
+      maxDepthFps.add(url);
+    }
+    // Discard the link graph
+    processedUrls.clear();
+    maxDepthUrls.clear();
+    fetchQueue.enableSpill(frontierHotWindow);
+    crawlStatus.setCompactTracking(true);
+  }
+
+  /** Copy the fetch queue's spill statistics to the crawl status */
+  protected void updateSpillStatus() {
+    crawlStatus.setQueueSpill(fetchQueue.getNumSpilled(),
+			      fetchQueue.getSpillBytes(),
+			      fetchQueue.getMaxSpilled(),
+			      fetchQueue.getNumSpillFiles());
+  }
+
+  /** Return true if using compact URL tracking */
+  protected boolean isCompactTracking() {
+    return processedFps != null;
+  }
+
+  /** Record that the URL has been processed */
+  protected void markProcessed(CrawlUrlData curl) {
+    if (processedFps != null) {
+      processedFps.add(curl.getUrl());
+    } else {
+      processedUrls.put(curl.getUrl(), curl);
+    }
+  }
+
+  /** Return true if the URL has been processed */
+  protected boolean isProcessed(String url) {
+    return processedUrls.containsKey(url)
+      || (processedFps != null && processedFps.contains(url));
+  }
+
   // Overridable for testing
   protected void enqueueStartUrls() 
       throws ConfigurationException, PluginException, IOException {
@@ -568,7 +856,11 @@ public class FollowLinkCrawler extends BaseCrawler {
         return true;
       } else {
         // checking the crawl permission of the url's host
-        if (!permissionMap.hasPermission(url)) {
+        boolean permitted;
+        synchronized (permissionMap) {
+          permitted = permissionMap.hasPermission(url);
+        }
+        if (!permitted) {
           if (!crawlStatus.isCrawlError()) {
             crawlStatus.setCrawlStatus(Crawler.STATUS_NO_PUB_PERMISSION,
                                        CrawlerStatus.HOST_PERM_ERR_MSG);
@@ -645,7 +937,7 @@ public class FollowLinkCrawler extends BaseCrawler {
     // don't parse if not following links
     if (shouldFollowLink()) {
       try {
-        if (!processedUrls.containsKey(curl.getUrl())) {
+        if (!isProcessed(curl.getUrl())) {
           CachedUrl cu = au.makeCachedUrl(curl.getUrl());
           log.debug3("Parsing "+ cu);
           
@@ -715,7 +1007,7 @@ public class FollowLinkCrawler extends BaseCrawler {
           log.siteWarning("Couldn't parse "+curl+". ignoring error", ex);
         }
         curl.setFailedParse(true);
-        processedUrls.put(curl.getUrl(), curl);
+        markProcessed(curl);
       } catch (IOException ioe) {
         log.error("Problem parsing "+curl+". Ignoring", ioe);
         crawlStatus.signalErrorForUrl(curl.getUrl(), ioe.getMessage(),
@@ -729,7 +1021,8 @@ public class FollowLinkCrawler extends BaseCrawler {
   }
 
   // Callers are all local and know that we release the CU
-  private void checkSubstanceCollected(CachedUrl cu) throws CacheException {
+  private synchronized void checkSubstanceCollected(CachedUrl cu)
+      throws CacheException {
     try {
       if (subChecker != null) {
         subChecker.checkSubstance(cu);
@@ -810,18 +1103,27 @@ public class FollowLinkCrawler extends BaseCrawler {
 	}
 	foundUrls.add(normUrl);
 
+	// When tracking compactly, already-seen URLs may be known only by
+	// fingerprint, in which case child remains null
 	CrawlUrlData child = null;
-	if ((child = processedUrls.get(normUrl)) != null) {
+	if ((child = processedUrls.get(normUrl)) != null
+	    || (processedFps != null && processedFps.contains(normUrl))) {
 	  if (log.isDebug2())
-	    log.debug2("Already processed url: " + child);
+	    log.debug2("Already processed url: " + normUrl);
+	  signalReferrer(normUrl, ReferrerType.Included);
+	} else if (fetchQueue.contains(normUrl)) {
+	  child = fetchQueue.get(normUrl);
+	  if (log.isDebug3())
+	    log.debug3("Already queued url: " + normUrl);
 	  signalReferrer(normUrl, ReferrerType.Included);
-	} else if ((child = fetchQueue.get(normUrl)) != null) {
+	} else if ((child = inFlightUrls.get(normUrl)) != null) {
 	  if (log.isDebug3())
-	    log.debug3("Already queued url: " + child);
+	    log.debug3("Already fetching url: " + normUrl);
 	  signalReferrer(normUrl, ReferrerType.Included);
-	} else if ((child = maxDepthUrls.get(normUrl)) != null) {
+	} else if ((child = maxDepthUrls.get(normUrl)) != null
+		   || (maxDepthFps != null && maxDepthFps.contains(normUrl))) {
 	  if (log.isDebug3())
-	    log.debug3("Already too-deep url: " + child);
+	    log.debug3("Already too-deep url: " + normUrl);
 	  signalReferrer(normUrl, ReferrerType.Included);
 	} else if (excludedUrlCache.containsKey(normUrl)) {
 	  // au.shouldBeCached() is expensive, don't call it if we already
@@ -852,7 +1154,11 @@ public class FollowLinkCrawler extends BaseCrawler {
 	      child = newCrawlUrlData(normUrl, curl.getDepth() + 1);
 	      child.setReferrer(curl.getUrl());
 	      if (child.getDepth() > maxDepth) {
-		maxDepthUrls.put(normUrl, child);
+		if (maxDepthFps != null) {
+		  maxDepthFps.add(normUrl);
+		} else {
+		  maxDepthUrls.put(normUrl, child);
+		}
 	      } else {
 		addToFetchQueue(child);
 	      }
@@ -866,7 +1172,7 @@ public class FollowLinkCrawler extends BaseCrawler {
 	    excludedUrlCache.put(normUrl, "");
 	  }
 	}
-	if (child != null) {
+	if (child != null && processedFps == null) {
 	  curl.addChild(child, rdh);
 	}
       } catch (MalformedURLException e) {
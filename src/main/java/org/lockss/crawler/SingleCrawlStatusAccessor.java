@@ -186,6 +186,20 @@ public class SingleCrawlStatusAccessor implements StatusAccessor {
 					  ColumnDescriptor.TYPE_INT,
 					  status.getDepth()));
     }
+    if (status.isCompactTracking()) {
+      res.add(new StatusTable.SummaryInfo("URL Tracking",
+					  ColumnDescriptor.TYPE_STRING,
+					  "Fingerprints"));
+    }
+    if (status.getNumSpillFiles() > 0) {
+      res.add(new StatusTable.SummaryInfo("Queue Spilled",
+					  ColumnDescriptor.TYPE_STRING,
+					  status.getNumSpilled() + " URLs (" +
+					  StringUtil.sizeToString(status.getSpillBytes()) +
+					  ") to " + status.getNumSpillFiles() +
+					  " files, max on disk: " +
+					  status.getMaxSpilled()));
+    }
     return res;
   }
 
@@ -0,0 +1,160 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.crawler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+
+import org.lockss.util.*;
+
+/**
+ * A compact set of URLs, used to record which URLs a crawl has already
+ * seen once the crawl is too large to keep them all in a Map.  Only a
+ * 64-bit fingerprint (part of the MD5 hash) of each URL is stored, in an
+ * open-addressed long array, so each member costs 16 bytes or less rather
+ * than the few hundred bytes of a String in a HashMap.  Lookups may return
+ * a false positive if two URLs have the same fingerprint; with 64-bit
+ * fingerprints the probability of that is negligible even for many
+ * millions of URLs (roughly n<sup>2</sup>/2<sup>65</sup>).  Removal isn't
+ * supported.  Not synchronized.
+ */
+public class UrlFingerprintSet {
+  static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+  // Stand-in for a fingerprint of zero, which marks an empty slot
+  private static final long ZERO_FP = 1;
+
+  private long[] table;
+  private int size = 0;
+  private MessageDigest md5;
+
+  public UrlFingerprintSet() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /** @param expectedSize number of URLs expected to be added */
+  public UrlFingerprintSet(int expectedSize) {
+    int cap = 16;
+    while (cap < expectedSize * 2) {
+      cap <<= 1;
+    }
+    table = new long[cap];
+    try {
+      md5 = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("MD5 not available", e);
+    }
+  }
+
+  /** Add the URL to the set.
+   * @return true if it wasn't already present */
+  public boolean add(String url) {
+    long fp = fingerprint(url);
+    if (insert(table, fp)) {
+      if (++size * 2 > table.length) {
+	grow();
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /** Return true if the URL (or one with the same fingerprint) has been
+   * added */
+  public boolean contains(String url) {
+    long fp = fingerprint(url);
+    int mask = table.length - 1;
+    for (int ix = slot(fp, mask); ; ix = (ix + 1) & mask) {
+      long ent = table[ix];
+      if (ent == fp) {
+	return true;
+      }
+      if (ent == 0) {
+	return false;
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Remove all members, retaining the current capacity */
+  public void clear() {
+    java.util.Arrays.fill(table, 0);
+    size = 0;
+  }
+
+  /** Return the number of bytes used by the fingerprint table */
+  public long getTableBytes() {
+    return table.length * 8L;
+  }
+
+  long fingerprint(String url) {
+    byte[] hash = md5.digest(url.getBytes(StandardCharsets.UTF_8));
+    long fp = ByteArray.decodeLong(hash, 0);
+    return fp == 0 ? ZERO_FP : fp;
+  }
+
+  private static int slot(long fp, int mask) {
+    return (int)(fp ^ (fp >>> 32)) & mask;
+  }
+
+  private static boolean insert(long[] tab, long fp) {
+    int mask = tab.length - 1;
+    for (int ix = slot(fp, mask); ; ix = (ix + 1) & mask) {
+      long ent = tab[ix];
+      if (ent == fp) {
+	return false;
+      }
+      if (ent == 0) {
+	tab[ix] = fp;
+	return true;
+      }
+    }
+  }
+
+  private void grow() {
+    long[] newTable = new long[table.length * 2];
+    for (long fp : table) {
+      if (fp != 0) {
+	insert(newTable, fp);
+      }
+    }
+    table = newTable;
+  }
+
+  public String toString() {
+    return "[UrlFingerprintSet: " + size + "]";
+  }
+}
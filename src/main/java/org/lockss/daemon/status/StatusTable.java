@@ -45,6 +45,11 @@ public class StatusTable {
 
   public static final int OPTION_NO_ROWS = 1;
   public static final int OPTION_DEBUG_USER = 2;
+  /** Tables with a {@link RowSource} return only their default page size
+   * number of rows, if no <tt>numrows</tt> property is given.  Set for
+   * interactive (HTML) display; XML, text and CSV output get all rows
+   * unless they ask for a page. */
+  public static final int OPTION_PAGED = 3;
   public static final OrderedObject NO_VALUE =
     new OrderedObject("-", new Long(-1));
 
@@ -57,6 +62,9 @@ public class StatusTable {
   private List columnDescriptors;
   private Map columnDescriptorMap;
   private List rows;
+  private RowSource rowSource;
+  private int defaultPageSize;
+  private int totalRows = -1;
   private List defaultSortRules;
   private static Logger logger = Logger.getLogger();
   private List summaryInfo;
@@ -495,7 +503,7 @@ public class StatusTable {
    * in their default sort order
    */
   public List<Map> getSortedRows() {
-    if (rows == null) {
+    if (rows == null && rowSource == null) {
       return Collections.EMPTY_LIST;
     }
     return getSortedRows(getDefaultSortRules());
@@ -510,11 +518,153 @@ public class StatusTable {
    * in the sort order specified by sortRules
    */
   public List getSortedRows(List sortRules) {
+    if (rowSource != null) {
+      rows = buildRows(sortRules);
+      return rows;
+    }
     Collections.sort(rows, new SortRuleComparator(sortRules,
 						  getColumnDescriptorMap()));
     return rows;
   }
 
+  /**
+   * Supply the rows lazily, from a {@link RowSource}, instead of with
+   * {@link #setRows(List)}.  When the rows are requested, only the sort
+   * columns are computed for each row object; complete rows are built
+   * only for the requested page.
+   * @param rowSource the source of row objects and rows
+   * @param defaultPageSize the number of rows to return if {@link
+   * #OPTION_PAGED} is set and there's no <tt>numrows</tt> property, or 0
+   * for all rows
+   */
+  public void setRowSource(RowSource rowSource, int defaultPageSize) {
+    this.rowSource = rowSource;
+    this.defaultPageSize = defaultPageSize;
+    this.rows = null;
+  }
+
+  /**
+   * Supply the rows lazily, from a {@link RowSource}; all rows are
+   * returned unless a <tt>numrows</tt> property is given.
+   */
+  public void setRowSource(RowSource rowSource) {
+    setRowSource(rowSource, 0);
+  }
+
+  /** Return the total number of rows from which the last page was taken,
+   * or -1 if the rows haven't been built from a {@link RowSource}. */
+  public int getTotalRows() {
+    return totalRows;
+  }
+
+  /** Return the number of rows to build from the RowSource, or 0 for
+   * all */
+  int getPageSize() {
+    int numRows = getIntProp("numrows");
+    if (numRows > 0) {
+      return numRows;
+    }
+    return (options != null && options.get(OPTION_PAGED))
+      ? defaultPageSize : 0;
+  }
+
+  /** A row object paired with the partial row holding its sort values */
+  private static class KeyedRow {
+    Object obj;
+    Map sortRow;
+    KeyedRow(Object obj, Map sortRow) {
+      this.obj = obj;
+      this.sortRow = sortRow;
+    }
+  }
+
+  private List buildRows(List sortRules) {
+    Set<String> sortCols = new HashSet<String>();
+    for (Iterator iter = sortRules.iterator(); iter.hasNext(); ) {
+      sortCols.add(((SortRule)iter.next()).getColumnName());
+    }
+    Collection objs = rowSource.getRowObjects();
+    List<KeyedRow> keyed = new ArrayList<KeyedRow>(objs.size());
+    for (Object obj : objs) {
+      Map sortRow = makeSourceRow(obj, sortCols);
+      if (sortRow != null) {
+	keyed.add(new KeyedRow(obj, sortRow));
+      }
+    }
+    final Comparator cmp =
+      new SortRuleComparator(sortRules, getColumnDescriptorMap());
+    Collections.sort(keyed, new Comparator<KeyedRow>() {
+	public int compare(KeyedRow a, KeyedRow b) {
+	  return cmp.compare(a.sortRow, b.sortRow);
+	}});
+    totalRows = keyed.size();
+    int pageSize = getPageSize();
+    int start = pageSize > 0 ? Math.min(getStartRow(), totalRows) : 0;
+    int end = pageSize > 0 ? Math.min(start + pageSize, totalRows) : totalRows;
+
+    Set<String> cols = new HashSet<String>(getColumnDescriptorMap().keySet());
+    cols.addAll(sortCols);
+    List res = new ArrayList(end - start + 2);
+    if (pageSize > 0) {
+      addPrevRowsLink(res, getLinkColumn(), start, pageSize,
+		      new PageLinkProps(sortRules));
+    }
+    for (KeyedRow kr : keyed.subList(start, end)) {
+      Map row = makeSourceRow(kr.obj, cols);
+      if (row != null) {
+	res.add(row);
+      }
+    }
+    if (pageSize > 0 && end < totalRows) {
+      res.add(makeOtherRowsLink(getLinkColumn(), true, end, pageSize,
+				new PageLinkProps(sortRules)));
+    }
+    return res;
+  }
+
+  private Map makeSourceRow(Object obj, Set<String> cols) {
+    try {
+      return rowSource.makeRow(obj, cols);
+    } catch (RuntimeException e) {
+      logger.warning("Unexpected exception building row for " + obj, e);
+      return null;
+    }
+  }
+
+  private String getLinkColumn() {
+    return (columnDescriptors == null || columnDescriptors.isEmpty()) ? "sort"
+      : ((ColumnDescriptor)columnDescriptors.get(0)).getColumnName();
+  }
+
+  /** Carry the table's properties and non-default sort order into
+   * <tt>Next</tt> and <tt>Previous</tt> links */
+  private class PageLinkProps
+    implements java.util.function.Consumer<Reference> {
+    private List sortRules;
+
+    PageLinkProps(List sortRules) {
+      this.sortRules = sortRules;
+    }
+
+    public void accept(Reference ref) {
+      if (props != null) {
+	for (String key : props.stringPropertyNames()) {
+	  if (!key.equals("skiprows") && !key.equals("numrows")) {
+	    ref.setProperty(key, props.getProperty(key));
+	  }
+	}
+      }
+      if (sortRules != getDefaultSortRules()) {
+	List<String> specs = new ArrayList<String>();
+	for (Iterator iter = sortRules.iterator(); iter.hasNext(); ) {
+	  SortRule rule = (SortRule)iter.next();
+	  specs.add((rule.sortAscending() ? "A" : "D") + rule.getColumnName());
+	}
+	ref.setProperty("sort", StringUtil.separatedString(specs, ","));
+      }
+    }
+  }
+
   /**
    * Set the rows ({@link Map}s) for this table
    * @param rows List of unsorted rows for this table
@@ -593,6 +743,27 @@ public class StatusTable {
     return sb.toString();
   }
 
+  /**
+   * Lazy source of rows, for tables with many rows that are expensive to
+   * compute.  See {@link #setRowSource(RowSource, int)}.
+   */
+  public interface RowSource<T> {
+    /** Return the objects from which rows are built (<i>eg</i>, AUs), in
+     * the order the rows would be added by {@link #setRows(List)}.
+     * Should be cheap. */
+    public Collection<T> getRowObjects();
+
+    /** Return the row for the object.  The row must contain values for
+     * the named columns and may contain others.  Called with only the sort
+     * columns for every object, then with all the displayed and sort
+     * columns for the objects on the requested page.
+     * @param obj the row object
+     * @param cols the columns whose values are needed
+     * @return the row Map, or null to omit the row
+     */
+    public Map makeRow(T obj, Set<String> cols);
+  }
+
   /**
    * Interface for embedded values
    */
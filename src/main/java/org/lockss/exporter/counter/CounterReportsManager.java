@@ -46,6 +46,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -57,6 +58,7 @@ import org.lockss.app.LockssDaemon;
 import org.lockss.config.ConfigManager;
 import org.lockss.config.Configuration;
 import org.lockss.daemon.Cron;
+import org.lockss.daemon.status.StatusAccessor;
 import org.lockss.db.DbException;
 import org.lockss.metadata.MetadataDbManager;
 import org.lockss.metadata.MetadataManager;
@@ -443,6 +445,9 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
   private static final String CANNOT_CONNECT_TO_DB_ERROR_MESSAGE =
       "Cannot connect to the database";
 
+  // Time to wait at shutdown for queued requests to be persisted.
+  private static final long REQUEST_QUEUE_STOP_TIMEOUT = Constants.MINUTE;
+
   // An indication of whether this object is ready to be used.
   private boolean ready = false;
 
@@ -469,6 +474,12 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
   // The default organization name.
   private String defaultOrgName = DEFAULT_REPORT_ORGNAME;
 
+  // The queue of requests waiting to be persisted.
+  private CounterReportsRequestQueue requestQueue = null;
+
+  // The status table of the request queue.
+  private StatusAccessor requestQueueStatus = null;
+
   /**
    * Starts the CounterReportsManager service.
    */
@@ -571,9 +582,37 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
     log.debug2(DEBUG_HEADER
 	+ "CounterReportsRequestAggregator task added to cron.");
 
+    // Start recording requests.
+    requestQueue = new CounterReportsRequestQueue(this, dbManager);
+    requestQueue.setConfig(ConfigManager.getCurrentConfig());
+    requestQueue.start();
+    requestQueueStatus = requestQueue.new Status();
+    getDaemon().getStatusService().registerStatusAccessor(
+	CounterReportsRequestQueue.STATUS_TABLE_NAME, requestQueueStatus);
+
     ready = true;
   }
 
+  /**
+   * Stops the CounterReportsManager service, persisting any queued requests.
+   */
+  @Override
+  public void stopService() {
+    ready = false;
+
+    if (requestQueue != null) {
+      requestQueue.stop(REQUEST_QUEUE_STOP_TIMEOUT);
+    }
+
+    if (requestQueueStatus != null) {
+      getDaemon().getStatusService().unregisterStatusAccessor(
+	  CounterReportsRequestQueue.STATUS_TABLE_NAME);
+      requestQueueStatus = null;
+    }
+
+    super.stopService();
+  }
+
   /**
    * Handles configuration parameters.
    * 
@@ -717,6 +756,16 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
     return ready;
   }
 
+  /**
+   * Provides the queue of requests waiting to be persisted.
+   * 
+   * @return a CounterReportsRequestQueue with the request queue, or
+   *         <code>null</code> if this object is not ready to be used.
+   */
+  public CounterReportsRequestQueue getRequestQueue() {
+    return requestQueue;
+  }
+
   /**
    * Persists the data involved in a request.
    * 
@@ -732,18 +781,27 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
    */
   public void persistRequest(String url, boolean isPublisherInvolved,
       String organization) throws DbException {
-    final String DEBUG_HEADER = "persistRequest(): ";
-
     // Do nothing more if the service is not ready to be used.
     if (!ready) {
       return;
     }
 
-    // Use the default organization name if none is passed.
-    if (StringUtil.isNullString(organization)) {
-      organization = defaultOrgName;
-      if (log.isDebug3()) log.debug3("organization = " + organization);
-    }
+    persistRequests(Collections.singletonList(
+	new CounterReportsRequestQueue.Request(url, isPublisherInvolved,
+	    organization, TimeBase.nowMs())));
+  }
+
+  /**
+   * Persists the data involved in some requests in a single transaction.
+   * 
+   * @param requests
+   *          A List<CounterReportsRequestQueue.Request> with the requests.
+   * @throws DbException
+   *           if there are problems accessing the database.
+   */
+  void persistRequests(List<CounterReportsRequestQueue.Request> requests)
+      throws DbException {
+    final String DEBUG_HEADER = "persistRequests(): ";
 
     Connection conn = null;
     boolean success = false;
@@ -752,46 +810,72 @@ public class CounterReportsManager extends BaseLockssDaemonManager {
       // Get a connection to the database.
       conn = dbManager.getConnection();
 
-      // Get the date of the request.
-      Calendar calendar = Calendar.getInstance();
-      calendar.setTime(TimeBase.nowDate());
-
-      int requestYear = calendar.get(Calendar.YEAR);
-      log.debug2(DEBUG_HEADER + "requestYear = " + requestYear);
-      int requestMonth = (calendar.get(Calendar.MONTH) + 1);
-      log.debug2(DEBUG_HEADER + "requestMonth = " + requestMonth);
-      int requestDay = calendar.get(Calendar.DAY_OF_MONTH);
-      log.debug2(DEBUG_HEADER + "requestDay = " + requestDay);
-
       String sql = SQL_QUERY_URL_REQUEST_INSERT;
       log.debug2(DEBUG_HEADER + "SQL = '" + sql + "'.");
       PreparedStatement insertRequest = null;
+      String url = null;
 
       try {
-        // Prepare the statement used to persist the request.
+        // Prepare the statement used to persist the requests.
         insertRequest = dbManager.prepareStatement(conn, sql);
+        Calendar calendar = Calendar.getInstance();
+
+        for (CounterReportsRequestQueue.Request request : requests) {
+          url = request.url;
+
+          // The organization is not persisted, but the default would be
+          // used if none is passed.
+          if (log.isDebug3()) {
+            String organization = request.organization;
+            if (StringUtil.isNullString(organization)) {
+              organization = defaultOrgName;
+            }
+            log.debug3("organization = " + organization);
+          }
+
+          // Get the date of the request.
+          calendar.setTimeInMillis(request.time);
+
+          int requestYear = calendar.get(Calendar.YEAR);
+          int requestMonth = (calendar.get(Calendar.MONTH) + 1);
+          int requestDay = calendar.get(Calendar.DAY_OF_MONTH);
+          if (log.isDebug3()) log.debug3(DEBUG_HEADER + "url = '" + url
+              + "', date = " + requestYear + "-" + requestMonth + "-"
+              + requestDay);
+
+          short index = 1;
+
+          // Populate the URL.
+          insertRequest.setString(index++, url);
+
+          // Populate the indication of whether this record corresponds to the
+          // serving of the request by the publisher.
+          insertRequest.setBoolean(index++, request.isPublisherInvolved);
+
+          // Populate the year of the request.
+          insertRequest.setShort(index++, (short) requestYear);
+
+          // Populate the month of the request.
+          insertRequest.setShort(index++, (short) requestMonth);
+
+          // Populate the day of the request.
+          insertRequest.setShort(index++, (short) requestDay);
+
+          if (requests.size() == 1) {
+            // Insert the record.
+            int count = dbManager.executeUpdate(insertRequest);
+            log.debug2(DEBUG_HEADER + "count = " + count);
+          } else {
+            insertRequest.addBatch();
+          }
+        }
 
-        short index = 1;
-
-        // Populate the URL.
-        insertRequest.setString(index++, url);
-
-        // Populate the indication of whether this record corresponds to the
-        // serving of the request by the publisher.
-        insertRequest.setBoolean(index++, isPublisherInvolved);
-
-        // Populate the year of the request.
-        insertRequest.setShort(index++, (short) requestYear);
-
-        // Populate the month of the request.
-        insertRequest.setShort(index++, (short) requestMonth);
-
-        // Populate the day of the request.
-        insertRequest.setShort(index++, (short) requestDay);
-
-        // Insert the record.
-        int count = dbManager.executeUpdate(insertRequest);
-        log.debug2(DEBUG_HEADER + "count = " + count);
+        if (requests.size() > 1) {
+          // Insert the records.
+          url = null;
+          int[] counts = insertRequest.executeBatch();
+          log.debug2(DEBUG_HEADER + "counts.length = " + counts.length);
+        }
       } catch (SQLException sqle) {
         log.error("Cannot persist URL request", sqle);
         log.error("URL = '" + url + "'.");
@@ -0,0 +1,727 @@
+/*
+
+ Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+ all rights reserved.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+ STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+ IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+ Except as contained in this notice, the name of Stanford University shall not
+ be used in advertising or otherwise to promote the sale, use or other dealings
+ in this Software without prior written authorization from Stanford University.
+
+ */
+package org.lockss.exporter.counter;
+
+import static org.lockss.metadata.SqlConstants.*;
+import static org.lockss.plugin.ArticleFiles.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.collections.map.LRUMap;
+import org.lockss.config.Configuration;
+import org.lockss.daemon.LockssRunnable;
+import org.lockss.daemon.status.ColumnDescriptor;
+import org.lockss.daemon.status.StatusAccessor;
+import org.lockss.daemon.status.StatusTable;
+import org.lockss.db.DbException;
+import org.lockss.metadata.MetadataDbManager;
+import org.lockss.util.Constants;
+import org.lockss.util.Logger;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Queue of requests waiting to be persisted for COUNTER reports.
+ * <p>
+ * Requests are recorded by the threads serving content, so in asynchronous
+ * mode they are just added to a bounded in-memory queue, from which a
+ * background thread takes them in batches, finds the metadata item of each
+ * URL and inserts those that are full-text requests in a single
+ * transaction. The URL to metadata item lookups, including those that find
+ * nothing, are cached.
+ * 
+ * @version 1.0
+ */
+public class CounterReportsRequestQueue {
+  private static final Logger log = Logger.getLogger();
+
+  // Prefix for the request queue configuration entries.
+  public static final String PREFIX =
+      CounterReportsManager.PREFIX + "requestQueue.";
+
+  /**
+   * Indication of whether requests should be persisted asynchronously.
+   * <p>
+   * Defaults to true. If false, each request is persisted by the thread
+   * serving it. Changes require daemon restart.
+   */
+  public static final String PARAM_ASYNC = PREFIX + "async";
+  public static final boolean DEFAULT_ASYNC = true;
+
+  /**
+   * Maximum number of requests waiting to be persisted.
+   * <p>
+   * Defaults to 10000. Changes require daemon restart.
+   */
+  public static final String PARAM_QUEUE_SIZE = PREFIX + "size";
+  public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+  /**
+   * Maximum number of requests persisted in one transaction.
+   * <p>
+   * Defaults to 500. Changes require daemon restart.
+   */
+  public static final String PARAM_BATCH_SIZE = PREFIX + "batchSize";
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  /**
+   * Maximum time a request waits in the queue for a batch to fill before
+   * it's persisted.
+   * <p>
+   * Defaults to 10 seconds. Changes require daemon restart.
+   */
+  public static final String PARAM_FLUSH_INTERVAL = PREFIX + "flushInterval";
+  public static final long DEFAULT_FLUSH_INTERVAL = 10 * Constants.SECOND;
+
+  /**
+   * What to do with a request when the queue is full: <code>DropNewest</code>
+   * discards it, <code>DropOldest</code> discards the oldest queued request
+   * to make room for it, <code>Block</code> makes the serving thread wait up
+   * to the flush interval for room and then discards it.
+   * <p>
+   * Defaults to <code>DropNewest</code>. Changes require daemon restart.
+   */
+  public static final String PARAM_OVERFLOW_POLICY = PREFIX + "overflowPolicy";
+  public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY =
+      OverflowPolicy.DropNewest;
+
+  /**
+   * Maximum number of URL to metadata item lookups to cache.
+   * <p>
+   * Defaults to 10000. Changes require daemon restart.
+   */
+  public static final String PARAM_URL_CACHE_SIZE = PREFIX + "urlCacheSize";
+  public static final int DEFAULT_URL_CACHE_SIZE = 10000;
+
+  /**
+   * Maximum age of a cached URL to metadata item lookup. Bounds the time
+   * after a URL's metadata is indexed before its requests are counted.
+   * <p>
+   * Defaults to 10 minutes. Changes require daemon restart.
+   */
+  public static final String PARAM_URL_CACHE_MAX_AGE = PREFIX
+      + "urlCacheMaxAge";
+  public static final long DEFAULT_URL_CACHE_MAX_AGE = 10 * Constants.MINUTE;
+
+  /**
+   * The name of the status table.
+   */
+  public static final String STATUS_TABLE_NAME = "CounterRequestQueue";
+
+  private static final String SQL_QUERY_MD_ITEM_ID_FROM_URL = "select "
+      + MD_ITEM_SEQ_COLUMN
+      + " from " + URL_TABLE
+      + " where " + URL_COLUMN + " = ?"
+      + " and (" + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_HTML
+      + "' or " + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_PDF
+      + "')";
+
+  /**
+   * The action taken when a request arrives at a full queue.
+   */
+  public static enum OverflowPolicy {
+    DropNewest, DropOldest, Block
+  }
+
+  /**
+   * A request waiting to be persisted.
+   */
+  static class Request {
+    final String url;
+    final boolean isPublisherInvolved;
+    final String organization;
+    final long time;
+
+    Request(String url, boolean isPublisherInvolved, String organization,
+	long time) {
+      this.url = url;
+      this.isPublisherInvolved = isPublisherInvolved;
+      this.organization = organization;
+      this.time = time;
+    }
+  }
+
+  // Queued by flush() to make the writer persist what it has right away.
+  private static final Request FLUSH_MARKER = new Request(null, false, null,
+      0);
+
+  // A cached URL lookup; mdItemId is null if the URL is not a full-text URL.
+  private static class CachedLookup {
+    final Long mdItemId;
+    final long time;
+
+    CachedLookup(Long mdItemId, long time) {
+      this.mdItemId = mdItemId;
+      this.time = time;
+    }
+  }
+
+  private final CounterReportsManager counterReportsManager;
+  private final MetadataDbManager dbManager;
+
+  private boolean async = DEFAULT_ASYNC;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+  private OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+  private long urlCacheMaxAge = DEFAULT_URL_CACHE_MAX_AGE;
+
+  private LinkedBlockingQueue<Request> queue;
+  private Map<String, CachedLookup> urlCache;
+  private Writer writer;
+
+  // Requests queued but not yet processed by the writer.
+  private final AtomicLong outstanding = new AtomicLong();
+  // Notified when the writer has processed a batch.
+  private final Object flushLock = new Object();
+
+  // Metrics.
+  private final AtomicLong queuedCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong persistedCount = new AtomicLong();
+  private final AtomicLong ignoredCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong lookupCount = new AtomicLong();
+  private final AtomicLong cacheHitCount = new AtomicLong();
+  private volatile int maxDepth = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param counterReportsManager
+   *          A CounterReportsManager with the manager that persists the
+   *          requests.
+   * @param dbManager
+   *          A MetadataDbManager with the database manager.
+   */
+  CounterReportsRequestQueue(CounterReportsManager counterReportsManager,
+      MetadataDbManager dbManager) {
+    this.counterReportsManager = counterReportsManager;
+    this.dbManager = dbManager;
+  }
+
+  /**
+   * Handles configuration parameters.
+   * 
+   * @param config
+   *          A Configuration with the current configuration.
+   */
+  void setConfig(Configuration config) {
+    async = config.getBoolean(PARAM_ASYNC, DEFAULT_ASYNC);
+    int queueSize =
+	Math.max(1, config.getInt(PARAM_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+    batchSize =
+	Math.max(1, config.getInt(PARAM_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    flushInterval =
+	config.getTimeInterval(PARAM_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL);
+    overflowPolicy = (OverflowPolicy)config.getEnum(OverflowPolicy.class,
+	PARAM_OVERFLOW_POLICY, DEFAULT_OVERFLOW_POLICY);
+    urlCacheMaxAge = config.getTimeInterval(PARAM_URL_CACHE_MAX_AGE,
+	DEFAULT_URL_CACHE_MAX_AGE);
+    int urlCacheSize = config.getInt(PARAM_URL_CACHE_SIZE,
+	DEFAULT_URL_CACHE_SIZE);
+
+    queue = new LinkedBlockingQueue<Request>(queueSize);
+    if (urlCacheSize > 0) {
+      urlCache = Collections.synchronizedMap(new LRUMap(urlCacheSize));
+    } else {
+      urlCache = null;
+    }
+    if (log.isDebug2()) log.debug2("async = " + async + ", queueSize = "
+	+ queueSize + ", batchSize = " + batchSize + ", flushInterval = "
+	+ flushInterval + ", overflowPolicy = " + overflowPolicy);
+  }
+
+  /**
+   * Starts the background writer, if requests are persisted asynchronously.
+   */
+  void start() {
+    if (async && writer == null) {
+      writer = new Writer();
+      new Thread(writer).start();
+    }
+  }
+
+  /**
+   * Persists the requests still queued and stops the background writer.
+   * 
+   * @param timeout
+   *          A long with the maximum number of milliseconds to wait for the
+   *          queued requests to be persisted.
+   */
+  void stop(long timeout) {
+    if (writer != null) {
+      flush(timeout);
+      writer.stopWriter();
+      writer = null;
+    }
+  }
+
+  /**
+   * Provides an indication of whether requests are persisted
+   * asynchronously.
+   * 
+   * @return <code>true</code> if requests are persisted by a background
+   *         thread, <code>false</code> otherwise.
+   */
+  public boolean isAsync() {
+    return async;
+  }
+
+  /**
+   * Records a request, which is persisted if its URL is a full-text URL.
+   * 
+   * @param url
+   *          A String with the requested URL.
+   * @param isPublisherInvolved
+   *          A boolean indicating the involvement of the publisher.
+   * @param organization
+   *          A String with the name of the organization to which to assign this
+   *          request for COUNTER purposes.
+   */
+  public void record(String url, boolean isPublisherInvolved,
+      String organization) {
+    final String DEBUG_HEADER = "record(): ";
+    Request req = new Request(url, isPublisherInvolved, organization,
+	TimeBase.nowMs());
+
+    if (!async || writer == null) {
+      processBatch(Collections.singletonList(req));
+      return;
+    }
+
+    if (enqueue(req)) {
+      queuedCount.incrementAndGet();
+      int depth = queue.size();
+      if (depth > maxDepth) {
+	maxDepth = depth;
+      }
+    } else {
+      long dropped = droppedCount.incrementAndGet();
+      // Don't flood the log when the queue stays full.
+      if (dropped == 1 || dropped % 1000 == 0) {
+	log.warning(DEBUG_HEADER + "COUNTER request queue full, " + dropped
+	    + " requests dropped");
+      }
+    }
+  }
+
+  /**
+   * Adds a request to the queue, applying the overflow policy if it is full.
+   * 
+   * @param req
+   *          A Request with the request to be added.
+   * @return <code>true</code> if the request was added, <code>false</code>
+   *         if it was dropped.
+   */
+  boolean enqueue(Request req) {
+    // Count before queueing so the writer can't decrement first.
+    outstanding.incrementAndGet();
+    if (queue.offer(req)) {
+      return true;
+    }
+
+    switch (overflowPolicy) {
+    case DropOldest:
+      Request oldest = queue.poll();
+      if (oldest != null && oldest != FLUSH_MARKER) {
+	// The oldest one is dropped instead of this one.
+	outstanding.decrementAndGet();
+	droppedCount.incrementAndGet();
+      }
+      if (queue.offer(req)) {
+	return true;
+      }
+      break;
+    case Block:
+      try {
+	if (queue.offer(req, flushInterval, TimeUnit.MILLISECONDS)) {
+	  return true;
+	}
+      } catch (InterruptedException ie) {
+	// Fall through to drop it.
+      }
+      break;
+    default:
+      break;
+    }
+
+    outstanding.decrementAndGet();
+    return false;
+  }
+
+  /**
+   * Waits until all the requests queued so far have been processed.
+   * 
+   * @param timeout
+   *          A long with the maximum number of milliseconds to wait.
+   * @return <code>true</code> if all the queued requests have been
+   *         processed, <code>false</code> if the wait timed out.
+   */
+  public boolean flush(long timeout) {
+    if (writer == null) {
+      return outstanding.get() == 0;
+    }
+
+    long until = System.currentTimeMillis() + timeout;
+
+    synchronized (flushLock) {
+      if (outstanding.get() == 0) {
+	return true;
+      }
+
+      // Wake up the writer if it's waiting for a batch to fill.
+      queue.offer(FLUSH_MARKER);
+
+      while (outstanding.get() > 0) {
+	long remaining = until - System.currentTimeMillis();
+
+	if (remaining <= 0) {
+	  return false;
+	}
+
+	try {
+	  flushLock.wait(remaining);
+	} catch (InterruptedException ie) {
+	  return false;
+	}
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Finds the metadata item of each request's URL and persists those that are
+   * full-text requests.
+   * 
+   * @param batch
+   *          A List<Request> with the requests to be processed.
+   */
+  void processBatch(List<Request> batch) {
+    final String DEBUG_HEADER = "processBatch(): ";
+    List<Request> recordable = new ArrayList<Request>(batch.size());
+
+    for (Request req : batch) {
+      try {
+	if (findMatchingFullTextMdItemId(req.url) != null) {
+	  recordable.add(req);
+	} else {
+	  ignoredCount.incrementAndGet();
+	}
+      } catch (DbException dbe) {
+	log.error("Cannot find metadata item - Statistics not collected", dbe);
+	failedCount.incrementAndGet();
+      }
+    }
+
+    if (recordable.isEmpty()) {
+      return;
+    }
+
+    try {
+      counterReportsManager.persistRequests(recordable);
+      persistedCount.addAndGet(recordable.size());
+      batchCount.incrementAndGet();
+      if (log.isDebug2())
+	log.debug2(DEBUG_HEADER + "Persisted " + recordable.size()
+	    + " requests.");
+    } catch (DbException dbe) {
+      log.error("Cannot persist " + recordable.size()
+	  + " requests - Statistics not collected", dbe);
+      failedCount.addAndGet(recordable.size());
+    }
+  }
+
+  /**
+   * Provides the metadata item identifier that corresponds to a full-text URL,
+   * using the cache if possible.
+   * 
+   * @param url
+   *          A String with the URL.
+   * @return a Long with the metadata item identifier, if any.
+   * @throws DbException
+   *           if there are problems accessing the database.
+   */
+  Long findMatchingFullTextMdItemId(String url) throws DbException {
+    long now = TimeBase.nowMs();
+
+    if (urlCache != null) {
+      CachedLookup cached = urlCache.get(url);
+
+      if (cached != null && now - cached.time < urlCacheMaxAge) {
+	cacheHitCount.incrementAndGet();
+	return cached.mdItemId;
+      }
+    }
+
+    Long mdItemId = queryFullTextMdItemId(url);
+
+    if (urlCache != null) {
+      urlCache.put(url, new CachedLookup(mdItemId, now));
+    }
+
+    return mdItemId;
+  }
+
+  /**
+   * Provides from the database the metadata item identifier that corresponds
+   * to a full-text URL.
+   * 
+   * @param url
+   *          A String with the URL.
+   * @return a Long with the metadata item identifier, if any.
+   * @throws DbException
+   *           if there are problems accessing the database.
+   */
+  private Long queryFullTextMdItemId(String url) throws DbException {
+    final String DEBUG_HEADER = "queryFullTextMdItemId(): ";
+    lookupCount.incrementAndGet();
+
+    Connection conn = null;
+    PreparedStatement getUrlMdItemId = null;
+    ResultSet results = null;
+    Long mdItemId = null;
+
+    try {
+      // Get the database connection.
+      conn = dbManager.getConnection();
+
+      // Prepare the query.
+      getUrlMdItemId =
+	  dbManager.prepareStatement(conn, SQL_QUERY_MD_ITEM_ID_FROM_URL);
+      getUrlMdItemId.setString(1, url);
+
+      // Get any results.
+      results = dbManager.executeQuery(getUrlMdItemId);
+
+      // Get the metadata item identifier.
+      if (results.next()) {
+	mdItemId = results.getLong(MD_ITEM_SEQ_COLUMN);
+      }
+    } catch (SQLException sqle) {
+      throw new DbException(
+	  "Cannot find full-text URL metadata item identifier", sqle);
+    } finally {
+      MetadataDbManager.safeCloseResultSet(results);
+      MetadataDbManager.safeCloseStatement(getUrlMdItemId);
+      MetadataDbManager.safeRollbackAndClose(conn);
+    }
+
+    log.debug2(DEBUG_HEADER + "mdItemId = '" + mdItemId + "'.");
+    return mdItemId;
+  }
+
+  /**
+   * Provides the number of requests waiting to be persisted.
+   * 
+   * @return an int with the queue depth.
+   */
+  public int getQueueDepth() {
+    return queue == null ? 0 : queue.size();
+  }
+
+  public int getMaxQueueDepth() {
+    return maxDepth;
+  }
+
+  public long getQueuedCount() {
+    return queuedCount.get();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getPersistedCount() {
+    return persistedCount.get();
+  }
+
+  public long getIgnoredCount() {
+    return ignoredCount.get();
+  }
+
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  public long getLookupCount() {
+    return lookupCount.get();
+  }
+
+  public long getCacheHitCount() {
+    return cacheHitCount.get();
+  }
+
+  /**
+   * The background thread that persists the queued requests.
+   */
+  private class Writer extends LockssRunnable {
+    static final String PRIORITY_PARAM_WRITER = "CounterRequestWriter";
+    static final int PRIORITY_DEFAULT_WRITER = Thread.NORM_PRIORITY - 1;
+
+    private volatile boolean goOn = true;
+
+    Writer() {
+      super("CounterRequestWriter");
+    }
+
+    public void lockssRun() {
+      setPriority(PRIORITY_PARAM_WRITER, PRIORITY_DEFAULT_WRITER);
+      List<Request> batch = new ArrayList<Request>(batchSize);
+
+      while (goOn) {
+	try {
+	  fillBatch(batch);
+	} catch (InterruptedException ie) {
+	  // Just wake up and check for exit, but don't lose the batch.
+	}
+
+	int taken = 0;
+
+	for (int i = batch.size() - 1; i >= 0; i--) {
+	  if (batch.get(i) == FLUSH_MARKER) {
+	    batch.remove(i);
+	  } else {
+	    taken++;
+	  }
+	}
+
+	try {
+	  if (!batch.isEmpty()) {
+	    processBatch(batch);
+	  }
+	} catch (RuntimeException re) {
+	  log.error("Unexpected error persisting COUNTER requests", re);
+	  failedCount.addAndGet(batch.size());
+	} finally {
+	  batch.clear();
+	  synchronized (flushLock) {
+	    outstanding.addAndGet(-taken);
+	    flushLock.notifyAll();
+	  }
+	}
+      }
+    }
+
+    /**
+     * Takes requests from the queue until the batch is full, the flush
+     * interval has elapsed since the first one was taken, or a flush is
+     * requested.
+     */
+    private void fillBatch(List<Request> batch) throws InterruptedException {
+      Request first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+
+      if (first == null) {
+	return;
+      }
+
+      batch.add(first);
+      long until = System.currentTimeMillis() + flushInterval;
+
+      while (first != FLUSH_MARKER && batch.size() < batchSize) {
+	queue.drainTo(batch, batchSize - batch.size());
+
+	if (batch.contains(FLUSH_MARKER) || batch.size() >= batchSize) {
+	  return;
+	}
+
+	long remaining = until - System.currentTimeMillis();
+
+	if (remaining <= 0) {
+	  return;
+	}
+
+	Request next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+
+	if (next == null || next == FLUSH_MARKER) {
+	  return;
+	}
+
+	batch.add(next);
+      }
+    }
+
+    void stopWriter() {
+      goOn = false;
+      interruptThread();
+    }
+  }
+
+  /**
+   * Status table showing the state of the queue.
+   */
+  class Status implements StatusAccessor {
+    public String getDisplayName() {
+      return "COUNTER Request Queue";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      List<StatusTable.SummaryInfo> res =
+	  new ArrayList<StatusTable.SummaryInfo>();
+      res.add(new StatusTable.SummaryInfo("Mode", ColumnDescriptor.TYPE_STRING,
+	  async ? "Asynchronous" : "Synchronous"));
+      res.add(new StatusTable.SummaryInfo("Queue depth",
+	  ColumnDescriptor.TYPE_INT, getQueueDepth()));
+      res.add(new StatusTable.SummaryInfo("Max queue depth",
+	  ColumnDescriptor.TYPE_INT, getMaxQueueDepth()));
+      res.add(new StatusTable.SummaryInfo("Queued",
+	  ColumnDescriptor.TYPE_INT, getQueuedCount()));
+      res.add(new StatusTable.SummaryInfo("Dropped",
+	  ColumnDescriptor.TYPE_INT, getDroppedCount()));
+      res.add(new StatusTable.SummaryInfo("Persisted",
+	  ColumnDescriptor.TYPE_INT, getPersistedCount()));
+      res.add(new StatusTable.SummaryInfo("Not full-text",
+	  ColumnDescriptor.TYPE_INT, getIgnoredCount()));
+      res.add(new StatusTable.SummaryInfo("Failed",
+	  ColumnDescriptor.TYPE_INT, getFailedCount()));
+      res.add(new StatusTable.SummaryInfo("Batches",
+	  ColumnDescriptor.TYPE_INT, getBatchCount()));
+      res.add(new StatusTable.SummaryInfo("URL lookups",
+	  ColumnDescriptor.TYPE_INT, getLookupCount()));
+      res.add(new StatusTable.SummaryInfo("URL cache hits",
+	  ColumnDescriptor.TYPE_INT, getCacheHitCount()));
+      table.setSummaryInfo(res);
+    }
+  }
+}
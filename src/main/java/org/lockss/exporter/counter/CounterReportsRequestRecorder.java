@@ -27,15 +27,7 @@
  */
 package org.lockss.exporter.counter;
 
-import static org.lockss.metadata.SqlConstants.*;
-import static org.lockss.plugin.ArticleFiles.*;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import org.lockss.app.LockssDaemon;
-import org.lockss.db.DbException;
-import org.lockss.metadata.MetadataDbManager;
 import org.lockss.util.Logger;
 import org.mortbay.http.HttpResponse;
 
@@ -48,14 +40,6 @@ public class CounterReportsRequestRecorder {
   private static final Logger log = Logger
       .getLogger(CounterReportsRequestRecorder.class);
 
-  private static final String SQL_QUERY_MD_ITEM_ID_FROM_URL = "select "
-      + MD_ITEM_SEQ_COLUMN
-      + " from " + URL_TABLE
-      + " where " + URL_COLUMN + " = ?"
-      + " and (" + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_HTML
-      + "' or " + FEATURE_COLUMN + " = '" + ROLE_FULL_TEXT_PDF
-      + "')";
-
   // The singleton instance of this class.
   private static final CounterReportsRequestRecorder instance =
       new CounterReportsRequestRecorder();
@@ -86,6 +70,9 @@ public class CounterReportsRequestRecorder {
 
   /**
    * Records a request that is the subject of a report.
+   * <p>
+   * Unless configured otherwise, the request is only queued, to be persisted
+   * by a background thread, if it is a full-text request.
    * 
    * @param url
    *          A String with the URL being requested.
@@ -100,89 +87,31 @@ public class CounterReportsRequestRecorder {
    */
   public void recordRequest(String url, PublisherContacted contacted,
       int publisherCode, String organization) {
-    try {
-      final String DEBUG_HEADER = "recordRequest(): ";
-      CounterReportsManager counterReportsManager =
-	  LockssDaemon.getLockssDaemon().getCounterReportsManager();
-      
-      // Check whether the COUNTER reports manager is disabled.
-      if (!counterReportsManager.isReady()) {
-	// Yes: Do nothing.
-	log.debug2(DEBUG_HEADER + "Done: COUNTER reports manager is disabled.");
-	return;
-      }
-
-      // No: Get the metadata identifier of the URL.
-      log.debug2(DEBUG_HEADER + "url = '" + url + "'.");
-      Long mdItemId = findMatchingFullTextMdItemId(url);
-
-      // Do nothing more if it is not a request needed for any report.
-      if (mdItemId == null) {
-	return;
-      }
-
-      // Get an indication of whether the publisher is involved in serving the
-      // content.
-      log.debug2("publisherCode = " + publisherCode);
-      boolean isPublisherInvolved = contacted == PublisherContacted.TRUE
-	  && (publisherCode == HttpResponse.__200_OK
-	      || publisherCode == HttpResponse.__304_Not_Modified);
-      log.debug2("isPublisherInvolved = " + isPublisherInvolved);
-
-      // Persist the request data.
-      counterReportsManager.persistRequest(url, isPublisherInvolved,
-	  organization);
-      log.debug2(DEBUG_HEADER + "Done.");
-    } catch (DbException sqle) {
-      log.error("Cannot persist request - Statistics not collected", sqle);
-    }
-  }
-
-  /**
-   * Provides the metadata item identifier that corresponds to a full-text URL.
-   * 
-   * @param url
-   *          A String with the URL.
-   * @return a Long with the metadata item identifier, if any.
-   * @throws DbException
-   *           if there are problems accessing the database.
-   */
-  private Long findMatchingFullTextMdItemId(String url) throws DbException {
-    final String DEBUG_HEADER = "findMatchingFullTextMdItemId(): ";
-
-    Connection conn = null;
-    PreparedStatement getUrlMdItemId = null;
-    ResultSet results = null;
-    Long mdItemId = null;
-    MetadataDbManager dbManager =
-	LockssDaemon.getLockssDaemon().getMetadataDbManager();
-
-    try {
-      // Get the database connection.
-      conn = dbManager.getConnection();
-
-      // Prepare the query.
-      getUrlMdItemId =
-	  dbManager.prepareStatement(conn, SQL_QUERY_MD_ITEM_ID_FROM_URL);
-      getUrlMdItemId.setString(1, url);
-
-      // Get any results.
-      results = dbManager.executeQuery(getUrlMdItemId);
-
-      // Get the metadata item identifier.
-      if (results.next()) {
-	mdItemId = results.getLong(MD_ITEM_SEQ_COLUMN);
-      }
-    } catch (SQLException sqle) {
-      throw new DbException(
-	  "Cannot find full-text URL metadata item identifier", sqle);
-    } finally {
-      MetadataDbManager.safeCloseResultSet(results);
-      MetadataDbManager.safeCloseStatement(getUrlMdItemId);
-      MetadataDbManager.safeRollbackAndClose(conn);
+    final String DEBUG_HEADER = "recordRequest(): ";
+    CounterReportsManager counterReportsManager =
+	LockssDaemon.getLockssDaemon().getCounterReportsManager();
+
+    // Check whether the COUNTER reports manager is disabled.
+    if (!counterReportsManager.isReady()) {
+      // Yes: Do nothing.
+      log.debug2(DEBUG_HEADER + "Done: COUNTER reports manager is disabled.");
+      return;
     }
 
-    log.debug2(DEBUG_HEADER + "mdItemId = '" + mdItemId + "'.");
-    return mdItemId;
+    log.debug2(DEBUG_HEADER + "url = '" + url + "'.");
+
+    // Get an indication of whether the publisher is involved in serving the
+    // content.
+    log.debug2("publisherCode = " + publisherCode);
+    boolean isPublisherInvolved = contacted == PublisherContacted.TRUE
+	&& (publisherCode == HttpResponse.__200_OK
+	    || publisherCode == HttpResponse.__304_Not_Modified);
+    log.debug2("isPublisherInvolved = " + isPublisherInvolved);
+
+    // Hand the request off to be persisted, if it is a request needed for any
+    // report.
+    counterReportsManager.getRequestQueue().record(url, isPublisherInvolved,
+	organization);
+    log.debug2(DEBUG_HEADER + "Done.");
   }
 }
@@ -34,6 +34,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.lockss.config.Configuration;
 import org.lockss.config.CurrentConfig;
+import org.lockss.config.ParamHandle;
 import org.lockss.plugin.ArchivalUnit;
 import org.lockss.util.CharRing;
 import org.lockss.util.DataUri;
@@ -62,12 +63,18 @@ public class GoslingHtmlLinkExtractor implements LinkExtractor {
   public static final String PARAM_BUFFER_CAPACITY =
     PREFIX + "buffer_capacity";
   public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+  private static final ParamHandle.IntParam bufferCapacityParam =
+    CurrentConfig.intParam(PARAM_BUFFER_CAPACITY, DEFAULT_BUFFER_CAPACITY);
 
   public static final String PARAM_PARSE_JS = PREFIX + "parse_js";
   public static final boolean DEFAULT_PARSE_JS = false;
+  private static final ParamHandle.BooleanParam parseJsParam =
+    CurrentConfig.booleanParam(PARAM_PARSE_JS, DEFAULT_PARSE_JS);
 
   public static final String PARAM_PARSE_CSS = PREFIX + "parse_css";
   public static final boolean DEFAULT_PARSE_CSS = true;
+  private static final ParamHandle.BooleanParam parseCssParam =
+    CurrentConfig.booleanParam(PARAM_PARSE_CSS, DEFAULT_PARSE_CSS);
 
   protected static final String ATAG = "a";
   protected static final String APPLETTAG = "applet";
@@ -142,10 +149,8 @@ public class GoslingHtmlLinkExtractor implements LinkExtractor {
   private boolean hasBaseBeenSet = false;
 
   public GoslingHtmlLinkExtractor() {
-    ringCapacity = CurrentConfig.getIntParam(PARAM_BUFFER_CAPACITY,
-					     DEFAULT_BUFFER_CAPACITY);
-    shouldParseJavaScript =
-      CurrentConfig.getBooleanParam(PARAM_PARSE_JS, DEFAULT_PARSE_JS);
+    ringCapacity = bufferCapacityParam.get();
+    shouldParseJavaScript = parseJsParam.get();
   }
 
   private void init() {
@@ -273,8 +278,7 @@ public class GoslingHtmlLinkExtractor implements LinkExtractor {
         } else if (ringStartsWithIgnoreCase(ring, "script>")) { // <script> (no attributes)
           readThroughTag(SCRIPTTAGEND);
         } else if (ringStartsWithIgnoreCase(ring, "style>")
-                   && CurrentConfig.getBooleanParam(PARAM_PARSE_CSS,
-                                                    DEFAULT_PARSE_CSS)) { // <style> (no attributes)
+                   && parseCssParam.get()) { // <style> (no attributes)
           ring.skip("style>".length());
           parseStyleContentsFromRing(au, cb);
 	} else {
@@ -483,8 +487,7 @@ public class GoslingHtmlLinkExtractor implements LinkExtractor {
           return (  getAttributeValue(SRC, link) );
         }
         if (beginsWithTag(link, STYLETAG)
-            && CurrentConfig.getBooleanParam(PARAM_PARSE_CSS,
-                                             DEFAULT_PARSE_CSS)) {
+            && parseCssParam.get()) {
           parseStyleContentsFromRing(au, cb);
         }
         break;
@@ -50,11 +50,28 @@ public class HtmlTagFilter extends Reader {
   public static final int DEFAULT_BUFFER_CAPACITY = 4096;
   public static final String PARAM_BUFFER_CAPACITY =
     Configuration.PREFIX + "filter.buffer_capacity";
+  private static final ParamHandle.IntParam bufferCapacityParam =
+    CurrentConfig.intParam(PARAM_BUFFER_CAPACITY, DEFAULT_BUFFER_CAPACITY);
 
   /** If true, require strict pairing of start and end tags */
   public static final String PARAM_THROW_IF_NO_END_TAG =
     Configuration.PREFIX + "HtmlTagFilter.throwIfNoEndTag";
   public static final boolean DEFAULT_THROW_IF_NO_END_TAG = false;
+  private static final ParamHandle.BooleanParam throwIfNoEndTagParam =
+    CurrentConfig.booleanParam(PARAM_THROW_IF_NO_END_TAG,
+                               DEFAULT_THROW_IF_NO_END_TAG);
+
+  /** If true, {@link #makeNestedFilter(Reader, List)} returns a filter
+   * that looks for all the tag pairs in a single pass, rather than a chain
+   * of HtmlTagFilters.  The results differ if the region of one pair
+   * contains an unmatched start or end string of another (the chain
+   * removes each pair in list order, the single pass removes whichever
+   * region starts first), so this is off by default. */
+  public static final String PARAM_MULTI_PAIR =
+    Configuration.PREFIX + "HtmlTagFilter.multiPair";
+  public static final boolean DEFAULT_MULTI_PAIR = false;
+  private static final ParamHandle.BooleanParam multiPairParam =
+    CurrentConfig.booleanParam(PARAM_MULTI_PAIR, DEFAULT_MULTI_PAIR);
 
 
   Reader reader;
@@ -77,7 +94,7 @@ public class HtmlTagFilter extends Reader {
 
   private boolean throwIfNoEndTag;
 
-  private HtmlTagFilter(Reader reader) {
+  HtmlTagFilter(Reader reader) {
     if (reader == null) {
       throw new IllegalArgumentException("Called with a null reader");
     }
@@ -113,17 +130,14 @@ public class HtmlTagFilter extends Reader {
       maxTagLen = endLen;
       minTagLen = startLen;
     }
-    bufferCapacity = CurrentConfig.getIntParam(PARAM_BUFFER_CAPACITY,
-                                               DEFAULT_BUFFER_CAPACITY);
+    bufferCapacity = bufferCapacityParam.get();
     if (maxTagLen > bufferCapacity) {
       bufferCapacity = maxTagLen;
     }
     charBuffer = new CharRing(bufferCapacity);
     ringSize = charBuffer.size();
 
-    throwIfNoEndTag =
-      CurrentConfig.getBooleanParam(PARAM_THROW_IF_NO_END_TAG,
-                                    DEFAULT_THROW_IF_NO_END_TAG);
+    throwIfNoEndTag = throwIfNoEndTagParam.get();
   }
 
   /**
@@ -131,6 +145,9 @@ public class HtmlTagFilter extends Reader {
    * it behaves as though everything between each pair is removed sequentially
    * (ie, everything between the first pair is filtered, then the second pair
    * then the third, etc).
+   * If {@link #PARAM_MULTI_PAIR} is true the pairs are instead found in a
+   * single pass, which gives the same result unless their regions
+   * partially overlap.
    *
    * @param reader reader to filter from
    * @param pairs List of TagPairs to filter between.
@@ -143,6 +160,13 @@ public class HtmlTagFilter extends Reader {
     if (pairs.size() <= 0) {
       throw new IllegalArgumentException("Called with empty tag pair list");
     }
+    if (pairs.size() > 1 && multiPairParam.get()) {
+      if (reader == null) {
+	throw new IllegalArgumentException("Called with a null reader");
+      }
+      return new MultiHtmlTagFilter(reader,
+				    (TagPair[])pairs.toArray(new TagPair[0]));
+    }
 
     Reader curReader = reader;
     for (int ix = 0; ix < pairs.size(); ix++) {
@@ -0,0 +1,161 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter;
+
+import java.io.*;
+
+import org.lockss.config.*;
+import org.lockss.util.*;
+
+/**
+ * HtmlTagFilter that removes the text between any of several {@link
+ * HtmlTagFilter.TagPair}s in a single pass over the input.  While outside
+ * a pair it looks for all the start strings at once; inside a pair it
+ * looks only for that pair's end string (and start string, if it can
+ * nest).  The result is the same as that of a chain of HtmlTagFilters
+ * unless the regions of different pairs partially overlap, in which case
+ * the pair that starts first wins.
+ */
+class MultiHtmlTagFilter extends HtmlTagFilter {
+  private static Logger log = Logger.getLogger();
+
+  private HtmlTagFilter.TagPair[] pairs;
+  private MultiStringMatcher startMatcher;
+  // Per pair, matcher for its end string followed by its start string if
+  // it can nest
+  private MultiStringMatcher[] innerMatchers;
+  private MultiStringScanner scanner;
+  private boolean throwIfNoEndTag;
+  // Index of the pair we're inside, or -1
+  private int inPair = -1;
+  private int nesting = 0;
+  private StringBuilder out = new StringBuilder();
+  private int outPos = 0;
+  private boolean closed = false;
+
+  private MultiStringScanner.Handler handler =
+    new MultiStringScanner.Handler() {
+      public void text(char[] buf, int off, int len) {
+	if (inPair < 0) {
+	  out.append(buf, off, len);
+	}
+      }
+      public void match(int n) {
+	if (inPair < 0) {
+	  inPair = n;
+	  nesting = 1;
+	  scanner.setMatcher(innerMatchers[n]);
+	} else if (n == 0) {
+	  if (--nesting == 0) {
+	    inPair = -1;
+	    scanner.setMatcher(startMatcher);
+	  }
+	} else {
+	  nesting++;
+	}
+      }
+    };
+
+  MultiHtmlTagFilter(Reader reader, HtmlTagFilter.TagPair[] pairs) {
+    super(reader);
+    if (pairs == null || pairs.length == 0) {
+      throw new IllegalArgumentException("Called with no tag pairs");
+    }
+    this.pairs = pairs;
+    String[] starts = new String[pairs.length];
+    boolean[] ignoreCases = new boolean[pairs.length];
+    innerMatchers = new MultiStringMatcher[pairs.length];
+    int maxLen = 0;
+    for (int ix = 0; ix < pairs.length; ix++) {
+      TagPair pair = pairs[ix];
+      if (pair == null) {
+	throw new IllegalArgumentException("Called with a null tag pair");
+      }
+      if (StringUtil.isNullString(pair.start) ||
+	  StringUtil.isNullString(pair.end)) {
+	throw new IllegalArgumentException("Called with a tag pair with an "
+					   +"empty string: "+pair);
+      }
+      starts[ix] = pair.start;
+      ignoreCases[ix] = pair.ignoreCase;
+      innerMatchers[ix] = new MultiStringMatcher(pair.canNest
+						 ? new String[] {pair.end,
+								 pair.start}
+						 : new String[] {pair.end},
+						 pair.ignoreCase);
+      maxLen = Math.max(maxLen, pair.getMaxTagLength());
+    }
+    startMatcher = new MultiStringMatcher(starts, ignoreCases);
+    int bufferCapacity = CurrentConfig.getIntParam(PARAM_BUFFER_CAPACITY,
+						   DEFAULT_BUFFER_CAPACITY);
+    scanner = new MultiStringScanner(reader, startMatcher,
+				     Math.max(bufferCapacity, 2 * maxLen));
+    throwIfNoEndTag =
+      CurrentConfig.getBooleanParam(PARAM_THROW_IF_NO_END_TAG,
+                                    DEFAULT_THROW_IF_NO_END_TAG);
+  }
+
+  public int read(char[] outputBuf, int off, int bufSize) throws IOException {
+    if (closed) throw new IOException("Read from closed HtmlTagFilter");
+    if ((off < 0) || (bufSize < 0) || (off + bufSize > outputBuf.length)) {
+      throw new IndexOutOfBoundsException("char["+outputBuf.length+"], "+off+
+					  ", "+bufSize);
+    }
+    if (bufSize == 0) {
+      return 0;
+    }
+    if (out.length() - outPos < bufSize && outPos > 0) {
+      // Discard what has already been read before adding more
+      out.delete(0, outPos);
+      outPos = 0;
+    }
+    // Fill the caller's buffer if possible
+    while (out.length() - outPos < bufSize && !streamDone) {
+      if (!scanner.scan(handler)) {
+	streamDone = true;
+	if (throwIfNoEndTag && inPair >= 0) {
+	  throw new MissingEndTagException("End tag not found: " +
+					   pairs[inPair].end);
+	}
+      }
+    }
+    if (outPos >= out.length()) {
+      return -1;
+    }
+    int n = Math.min(bufSize, out.length() - outPos);
+    out.getChars(outPos, outPos + n, outputBuf, off);
+    outPos += n;
+    return n;
+  }
+
+  public void close() throws IOException {
+    closed = true;
+    super.close();
+  }
+}
@@ -0,0 +1,157 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter;
+
+import java.io.*;
+
+import org.lockss.config.*;
+import org.lockss.util.*;
+
+/** Filter that removes or replaces all instances of any of a set of
+ * strings, in a single pass over the input.  Where occurrences overlap,
+ * the one that starts first is replaced, then the longest.  The result is
+ * the same as that of a chain of {@link StringFilter}s unless removing or
+ * replacing one string creates or breaks up an occurrence of another. */
+public class MultiStringFilter extends StringFilter {
+
+  private static Logger log = Logger.getLogger();
+
+  private String[] strings;
+  private String[] replacements;
+  private int bufferCapacity;
+  private MultiStringScanner scanner;
+  private StringBuilder out = new StringBuilder();
+  private int outPos = 0;
+
+  private MultiStringScanner.Handler handler =
+    new MultiStringScanner.Handler() {
+      public void text(char[] buf, int off, int len) {
+	out.append(buf, off, len);
+      }
+      public void match(int n) {
+	if (replacements != null && replacements[n] != null) {
+	  out.append(replacements[n]);
+	}
+      }
+    };
+
+  /**
+   * Create a filter that removes all instances of the strings
+   * @param reader the source Reader
+   * @param strings the strings to remove
+   */
+  public MultiStringFilter(Reader reader, String[] strings) {
+    this(reader, -1, strings, null);
+  }
+
+  /**
+   * Create a filter that replaces all instances of the strings
+   * @param reader the source Reader
+   * @param strings the strings to replace
+   * @param replacements the corresponding replacements, or null to remove
+   */
+  public MultiStringFilter(Reader reader, String[] strings,
+			   String[] replacements) {
+    this(reader, -1, strings, replacements);
+  }
+
+  /**
+   * Create a filter that replaces all instances of the strings
+   * @param reader the source Reader
+   * @param bufferCapacity number of chars to read at once, or -1 for the
+   * default
+   * @param strings the strings to replace
+   * @param replacements the corresponding replacements, or null to remove
+   */
+  public MultiStringFilter(Reader reader, int bufferCapacity,
+			   String[] strings, String[] replacements) {
+    super(reader);
+    if (strings == null || strings.length == 0) {
+      throw new IllegalArgumentException("Called with no strings");
+    }
+    for (String s : strings) {
+      if (StringUtil.isNullString(s)) {
+	throw new IllegalArgumentException("Called with a null or empty string");
+      }
+    }
+    if (replacements != null && replacements.length != strings.length) {
+      throw new IllegalArgumentException("Must have same number of strings and replacements");
+    }
+    if (bufferCapacity < 0) {
+      bufferCapacity = CurrentConfig.getIntParam(PARAM_BUFFER_CAPACITY,
+                                                 DEFAULT_BUFFER_CAPACITY);
+    }
+    this.strings = strings;
+    this.replacements = replacements;
+    this.bufferCapacity = bufferCapacity;
+  }
+
+  /** Must be called before reading */
+  public void setIgnoreCase(boolean ignoreCase) {
+    if (scanner != null) {
+      throw new IllegalStateException("Can't change case sensitivity after reading has started");
+    }
+    super.setIgnoreCase(ignoreCase);
+  }
+
+  public int read(char[] outputBuf, int off, int bufSize) throws IOException {
+    if (isTrace) log.debug3("read(buf, " + off + ", " + bufSize + ")");
+    if (isClosed) throw new IOException("Read from closed MultiStringFilter");
+    if ((off < 0) || (bufSize < 0) || (off + bufSize > outputBuf.length)) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (bufSize == 0) {
+      return 0;
+    }
+    if (scanner == null) {
+      scanner = new MultiStringScanner(reader,
+				       new MultiStringMatcher(strings,
+							      ignoreCase),
+				       bufferCapacity);
+    }
+    if (out.length() - outPos < bufSize && outPos > 0) {
+      // Discard what has already been read before adding more
+      out.delete(0, outPos);
+      outPos = 0;
+    }
+    // Fill the caller's buffer if possible
+    while (out.length() - outPos < bufSize && !streamDone) {
+      if (!scanner.scan(handler)) {
+	streamDone = true;
+      }
+    }
+    if (outPos >= out.length()) {
+      return -1;
+    }
+    int n = Math.min(bufSize, out.length() - outPos);
+    out.getChars(outPos, outPos + n, outputBuf, off);
+    outPos += n;
+    return n;
+  }
+}
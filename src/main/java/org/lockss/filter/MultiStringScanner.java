@@ -0,0 +1,184 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter;
+
+import java.io.*;
+
+import org.lockss.util.*;
+
+/**
+ * Scans a Reader for occurrences of the strings in a {@link
+ * MultiStringMatcher} in a single pass, reporting the text between them
+ * and each occurrence to a {@link Handler}.  Occurrences don't overlap;
+ * where they would, the one that starts first wins, then the longest.
+ * The matcher may be changed by the handler when an occurrence is
+ * reported, in which case scanning resumes with the new matcher right
+ * after the occurrence.
+ */
+class MultiStringScanner {
+
+  interface Handler {
+    /** Called with a run of chars that aren't part of an occurrence */
+    void text(char[] buf, int off, int len);
+    /** Called for each occurrence, with the index of the string */
+    void match(int n) throws IOException;
+  }
+
+  private Reader reader;
+  private MultiStringMatcher matcher;
+  private char[] win;
+  // Chars in win not yet reported
+  private int winLen = 0;
+  // Next char in win to feed to the matcher
+  private int scan = 0;
+  private int state = MultiStringMatcher.ROOT;
+  // Best occurrence found so far: start and end in win, and string index
+  private int candStart = -1;
+  private int candEnd;
+  private int candN;
+  private boolean eof = false;
+
+  /**
+   * @param reader the source
+   * @param matcher the initial matcher
+   * @param capacity number of chars to read at once.  Must be larger than
+   * the longest string of any matcher that will be used.
+   */
+  MultiStringScanner(Reader reader, MultiStringMatcher matcher,
+		     int capacity) {
+    this.reader = reader;
+    this.matcher = matcher;
+    win = new char[Math.max(capacity, 2 * matcher.getMaxLength())];
+  }
+
+  /** Switch to a different matcher.  May be called only from {@link
+   * Handler#match(int)}. */
+  void setMatcher(MultiStringMatcher matcher) {
+    if (win.length < 2 * matcher.getMaxLength()) {
+      char[] newWin = new char[2 * matcher.getMaxLength()];
+      System.arraycopy(win, 0, newWin, 0, winLen);
+      win = newWin;
+    }
+    this.matcher = matcher;
+  }
+
+  /** Scan until at least one call has been made to the handler.
+   * @return false if there was no more input */
+  boolean scan(Handler h) throws IOException {
+    while (true) {
+      while (scan < winLen) {
+	if (state == MultiStringMatcher.ROOT && candStart < 0) {
+	  scan = matcher.skipFromRoot(win, scan, winLen);
+	  if (scan >= winLen) {
+	    break;
+	  }
+	}
+	state = matcher.next(state, win[scan++]);
+	if (matcher.hasOutput(state)) {
+	  int n = matcher.match(state, win, scan);
+	  if (n >= 0) {
+	    int start = scan - matcher.length(n);
+	    if (candStart < 0 || start < candStart
+		|| (start == candStart && scan > candEnd)) {
+	      candStart = start;
+	      candEnd = scan;
+	      candN = n;
+	    }
+	  }
+	}
+	// No occurrence not yet seen can start before scan - depth
+	if (candStart >= 0 && scan - matcher.depth(state) > candStart) {
+	  reportMatch(h);
+	  return true;
+	}
+      }
+      if (candStart >= 0 && eof) {
+	reportMatch(h);
+	return true;
+      }
+      if (eof) {
+	if (winLen == 0) {
+	  return false;
+	}
+	h.text(win, 0, winLen);
+	winLen = 0;
+	scan = 0;
+	state = MultiStringMatcher.ROOT;
+	return true;
+      }
+      // Report the chars that can't be part of an occurrence, then refill
+      int keep = scan - matcher.depth(state);
+      if (candStart >= 0 && candStart < keep) {
+	keep = candStart;
+      }
+      boolean reported = false;
+      if (keep > 0) {
+	h.text(win, 0, keep);
+	discard(keep);
+	reported = true;
+      }
+      int n = reader.read(win, winLen, win.length - winLen);
+      if (n < 0) {
+	eof = true;
+      } else {
+	winLen += n;
+      }
+      if (reported) {
+	return true;
+      }
+    }
+  }
+
+  private void reportMatch(Handler h) throws IOException {
+    if (candStart > 0) {
+      h.text(win, 0, candStart);
+    }
+    int n = candN;
+    discard(candEnd);
+    candStart = -1;
+    // Rescan anything following the occurrence
+    scan = 0;
+    state = MultiStringMatcher.ROOT;
+    h.match(n);
+  }
+
+  private void discard(int n) {
+    System.arraycopy(win, n, win, 0, winLen - n);
+    winLen -= n;
+    scan -= n;
+    if (candStart >= 0) {
+      candStart -= n;
+      candEnd -= n;
+    }
+  }
+
+  void close() throws IOException {
+    reader.close();
+  }
+}
@@ -46,6 +46,18 @@ public class StringFilter extends Reader {
   public static final String PARAM_BUFFER_CAPACITY =
     Configuration.PREFIX + "filter.buffer_capacity";
 
+  /** If true, {@link #makeNestedFilter(Reader, List)} and {@link
+   * #makeNestedFilter(Reader, String[][], boolean)} return a {@link
+   * MultiStringFilter}, which finds all the strings in a single pass,
+   * rather than a chain of StringFilters.  The results differ if removing
+   * or replacing one string creates or breaks up an occurrence of another
+   * (<i>eg</i>, with a&rarr;b and b&rarr;c the chain turns "a" into "c",
+   * the single pass into "b"), and filtered content feeds poll hashes, so
+   * this is off by default. */
+  public static final String PARAM_MULTI_PATTERN =
+    Configuration.PREFIX + "filter.multiPattern";
+  public static final boolean DEFAULT_MULTI_PATTERN = false;
+
   private static Logger logger = Logger.getLogger();
   private int replaceLen;
   private int toReplace = 0;
@@ -100,6 +112,14 @@ public class StringFilter extends Reader {
     ringSize = charBuffer.size();
   }
 
+  /** For subclasses that do their own matching */
+  protected StringFilter(Reader reader) {
+    if (reader == null) {
+      throw new IllegalArgumentException("Called with a null reader");
+    }
+    this.reader = reader;
+  }
+
   public void setIgnoreCase(boolean ignoreCase) {
     this.ignoreCase = ignoreCase;
   }
@@ -110,6 +130,10 @@ public class StringFilter extends Reader {
 
   /**
    * Factory method for a series of nested StringFilters, with no replacement.
+   * Calling {@link #setIgnoreCase(boolean)} on the returned chain affects
+   * only the last string in the list; on the {@link MultiStringFilter}
+   * returned if {@link #PARAM_MULTI_PATTERN} is true it affects all the
+   * strings.
    * @param reader the source Reader
    * @param strList a List of strings to remove
    * @return the nested StringFilter
@@ -122,6 +146,13 @@ public class StringFilter extends Reader {
     } else if (strList.size() <= 0) {
       throw new IllegalArgumentException("Called with a empty list");
     }
+    if (strList.size() > 1 && isMultiPattern()) {
+      String[] strs = new String[strList.size()];
+      for (int ix = 0; ix < strs.length; ix++) {
+	strs[ix] = (String)strList.get(ix);
+      }
+      return new MultiStringFilter(reader, strs);
+    }
     Reader curReader = reader;
     for (int ix = 0; ix < strList.size(); ix++) {
       curReader = new StringFilter(curReader, (String)strList.get(ix));
@@ -147,6 +178,19 @@ public class StringFilter extends Reader {
     } else if ((strArray.length <= 0) || (strArray[0].length <= 0)) {
       throw new IllegalArgumentException("Called with a empty array");
     }
+    if (strArray.length > 1 && isMultiPattern()) {
+      String[] strs = new String[strArray.length];
+      String[] repls = new String[strArray.length];
+      for (int ix = 0; ix < strArray.length; ix++) {
+	strs[ix] = strArray[ix][0];
+	if (strArray[ix].length > 1) {
+	  repls[ix] = strArray[ix][1];
+	}
+      }
+      MultiStringFilter filt = new MultiStringFilter(reader, strs, repls);
+      filt.setIgnoreCase(ignoreCase);
+      return filt;
+    }
     Reader curReader = reader;
     for (int ix = 0; ix < strArray.length; ix++) {
       String srcStr = strArray[ix][0];
@@ -160,6 +204,11 @@ public class StringFilter extends Reader {
     return (StringFilter)curReader;
   }
 
+  static boolean isMultiPattern() {
+    return CurrentConfig.getBooleanParam(PARAM_MULTI_PATTERN,
+					 DEFAULT_MULTI_PATTERN);
+  }
+
   public int read(char[] outputBuf, int off, int bufSize) throws IOException {
     if (isTrace) logger.debug3("read(buf, " + off + ", " + bufSize + ")");
     if (isClosed) throw new IOException("Read from closed StringFilter");
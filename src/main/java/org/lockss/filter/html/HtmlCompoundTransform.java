@@ -95,4 +95,8 @@ public class HtmlCompoundTransform implements HtmlTransform {
     }
     return nodeList;
   }
+
+  HtmlTransform[] getTransforms() {
+    return transforms;
+  }
 }
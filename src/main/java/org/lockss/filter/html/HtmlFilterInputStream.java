@@ -89,6 +89,10 @@ public class HtmlFilterInputStream
 
   private static Logger log = Logger.getLogger();
 
+  private static final ParamHandle.BooleanParam monitorInputStreamsParam =
+    CurrentConfig.booleanParam(LockssApp.PARAM_MONITOR_INPUT_STREAMS,
+                               LockssApp.DEFAULT_MONITOR_INPUT_STREAMS);
+
   /** Maximum offset into file of charset change (<code>&lt;META
    * HTTP-EQUIV="Content-Type" CONTENT="text/html; charset=..."&gt;</code>)
    * that is guaranteed to be handled.  Due to various hard-to-control
@@ -144,6 +148,18 @@ public class HtmlFilterInputStream
     Configuration.PREFIX + "filter.html.useFile";
   public static final boolean DEFAULT_USE_FILE = true;
 
+  /** If true, transforms that consist only of node-local exclusions
+   * (tag names, attributes, text and comment matches) are applied as the
+   * input is lexed, without building a parse tree or buffering the
+   * output, so memory use doesn't grow with the size of the document.
+   * Other transforms, and non-verbatim output, always use the tree.  The
+   * output is the same as the tree's for well-formed HTML but may differ
+   * for some malformed HTML, and filter output is hashed for polls, so
+   * this must be set consistently across the network. */
+  public static final String PARAM_STREAMING =
+    Configuration.PREFIX + "filter.html.streaming";
+  public static final boolean DEFAULT_STREAMING = false;
+
   private FeedbackLogger fl = new FeedbackLogger();
 
   private InputStream in;
@@ -159,6 +175,7 @@ public class HtmlFilterInputStream
   private boolean verbatim;
   private int wrFileThresh;
   private boolean useFile;
+  private boolean streaming;
   private boolean adaptEncoding = DEFAULT_ADAPT_ENCODING;
   private PrototypicalNodeFactory nodeFact;
 
@@ -223,6 +240,7 @@ public class HtmlFilterInputStream
     verbatim = config.getBoolean(PARAM_VERBATIM, DEFAULT_VERBATIM);
     wrFileThresh = config.getInt(PARAM_WRFILE_THRESH, DEFAULT_WRFILE_THRESH);
     useFile = config.getBoolean(PARAM_USE_FILE, DEFAULT_USE_FILE);
+    streaming = config.getBoolean(PARAM_STREAMING, DEFAULT_STREAMING);
     adaptEncoding = config.getBoolean(PARAM_ADAPT_ENCODING,
 				     DEFAULT_ADAPT_ENCODING);
   }
@@ -230,6 +248,13 @@ public class HtmlFilterInputStream
   /** Parse the input, apply the transform, generate output string and
    * InputStream */
   void parse() throws IOException {
+    if (streaming) {
+      if (verbatim && HtmlStreamingReader.isStreamable(xform)) {
+	parseStreaming();
+	return;
+      }
+      if (log.isDebug3()) log.debug3("Not streamable, using tree: " + xform);
+    }
     try {
 
       Parser parser = makeParser();
@@ -243,15 +268,7 @@ public class HtmlFilterInputStream
       nl = xform.transform(nl);
       if (log.isDebug3()) log.debug3("xformed (" + nl.size() + "):\n" +
                                        nodeString(nl));
-      // outCharset == null means the client wants the no-charset
-      // re-encoding behavior; don't look at the input encoding
-      if (outCharset != null && adaptEncoding) {
-	String sourceCharset = isSource.getEncoding();
-	if (!sourceCharset.equalsIgnoreCase(outCharset)) {
-	  log.debug2("Using changed charset: " + sourceCharset); 
-	  outCharset = sourceCharset;
-	}
-      }
+      adaptOutCharset();
       if(useFile) {
         try {
           setOutToFileInputStream(nl);
@@ -273,6 +290,36 @@ public class HtmlFilterInputStream
     }
   }
 
+  /** Lex the input and apply the transform incrementally, as the output
+   * stream is read.  The beginning of the input is processed before
+   * returning, to detect charset changes while the input can still be
+   * reset. */
+  void parseStreaming() throws IOException {
+    HtmlStreamingReader rdr = new HtmlStreamingReader(makeLexer(), xform);
+    rdr.prime(markSize);
+    adaptOutCharset();
+    if (outCharset != null) {
+      out = new ReaderInputStream(rdr, outCharset);
+    } else {
+      out = new ReaderInputStream(rdr);
+    }
+    if (monitorInputStreamsParam.get()) {
+      out = new MonitoringInputStream(out,"HtmlFilterInputStream");
+    }
+  }
+
+  void adaptOutCharset() {
+    // outCharset == null means the client wants the no-charset
+    // re-encoding behavior; don't look at the input encoding
+    if (outCharset != null && adaptEncoding) {
+      String sourceCharset = isSource.getEncoding();
+      if (!sourceCharset.equalsIgnoreCase(outCharset)) {
+	log.debug2("Using changed charset: " + sourceCharset); 
+	outCharset = sourceCharset;
+      }
+    }
+  }
+
   void setOutToReaderInputStream(NodeList nl)
   {
     String h = nl.toHtml(verbatim);
@@ -282,8 +329,7 @@ public class HtmlFilterInputStream
     } else {
       out = new ReaderInputStream(new StringReader(h));
     }
-    if (CurrentConfig.getBooleanParam(LockssApp.PARAM_MONITOR_INPUT_STREAMS,
-				      LockssApp.DEFAULT_MONITOR_INPUT_STREAMS)) {
+    if (monitorInputStreamsParam.get()) {
       out = new MonitoringInputStream(out,"HtmlFilterInputStream");
     }
   }
@@ -319,8 +365,7 @@ public class HtmlFilterInputStream
     // return an input stream of either the in memory bytes
     // or the file
     out = dtfos.getDeleteOnCloseInputStream();
-    if (CurrentConfig.getBooleanParam(LockssApp.PARAM_MONITOR_INPUT_STREAMS,
-				      LockssApp.DEFAULT_MONITOR_INPUT_STREAMS)) {
+    if (monitorInputStreamsParam.get()) {
       out = new MonitoringInputStream(out,"HtmlFilterInputStream");
     }
   }
@@ -329,6 +374,15 @@ public class HtmlFilterInputStream
   /** Make a parser, register our extra nodes */
   protected Parser makeParser()
       throws UnsupportedEncodingException, IOException {
+    Parser parser = new Parser(makeLexer(), fl);
+
+    NodeFactory factory = getNodeFactory();
+    parser.setNodeFactory(factory);
+    return parser;
+  }
+
+  /** Make a Lexer on the input stream, using our node factory */
+  Lexer makeLexer() throws UnsupportedEncodingException, IOException {
     // InputStreamSource may reset() the stream if it encounters a charset
     // change.  It expects the stream already to have been mark()ed.
     if (markSize > 0) {
@@ -353,11 +407,8 @@ public class HtmlFilterInputStream
     setupHtmlParser();
 
     Lexer lx = new Lexer(pg);
-    Parser parser = new Parser(lx, fl);
-
-    NodeFactory factory = getNodeFactory();
-    parser.setNodeFactory(factory);
-    return parser;
+    lx.setNodeFactory(getNodeFactory());
+    return lx;
   }
 
   protected PrototypicalNodeFactory makeNodeFactory() {
@@ -447,6 +498,13 @@ public class HtmlFilterInputStream
   public void setEncodingMatchRange(int encodingMatchRange){
     this.encodingMatchRange = encodingMatchRange;
   }
+
+  /** Override the default streaming mode.  See {@link #PARAM_STREAMING}
+   */
+  public HtmlFilterInputStream setStreaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
   public int read() throws IOException {
     return getOut().read();
   }
@@ -89,4 +89,12 @@ public class HtmlNodeFilterTransform implements HtmlTransform {
     }
     return nodeList;
   }
+
+  NodeFilter getFilter() {
+    return filter;
+  }
+
+  boolean isExclude() {
+    return exclude;
+  }
 }
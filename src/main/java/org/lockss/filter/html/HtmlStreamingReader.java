@@ -0,0 +1,357 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter.html;
+
+import java.io.*;
+import java.util.*;
+
+import org.htmlparser.*;
+import org.htmlparser.filters.*;
+import org.htmlparser.lexer.*;
+import org.htmlparser.scanners.*;
+import org.htmlparser.util.*;
+
+import org.lockss.util.*;
+
+/**
+ * Reader that applies an {@link HtmlTransform} to HTML as it is lexed,
+ * one node at a time, rather than building a parse tree of the whole
+ * document.  This is possible only for transforms whose decision about
+ * each node depends on that node alone (see {@link
+ * #isStreamable(HtmlTransform)}): an excluded composite tag (and
+ * everything up to its end tag) is dropped, a kept one is emitted and its
+ * contents are considered individually.
+ *
+ * <p>The nesting rules (enders, end tag enders, closing of unterminated
+ * tags by an ancestor's end tag) follow those of htmlparser's
+ * CompositeTagScanner, so for well-formed input the output is identical
+ * to that of {@link HtmlFilterInputStream}'s tree engine.  Tags with their
+ * own non-composite scanner (<code>script</code>, <code>style</code>,
+ * <code>meta</code>, etc.) are scanned and transformed as a unit.
+ * Unterminated tags are closed silently, so only verbatim output is
+ * supported.
+ */
+class HtmlStreamingReader extends Reader {
+  private static Logger log = Logger.getLogger();
+
+  // Generate at least this much output on each refill
+  static final int CHUNK_SIZE = 8 * 1024;
+
+  private Lexer lexer;
+  private HtmlTransform xform;
+  // Currently open composite tags, innermost last
+  private List<Tag> openTags = new ArrayList<Tag>();
+  // Index in openTags of the outermost excluded tag, or -1
+  private int excludedFrom = -1;
+  private StringBuilder buf = new StringBuilder();
+  private int bufPos = 0;
+  private boolean eof = false;
+  private boolean closed = false;
+
+  HtmlStreamingReader(Lexer lexer, HtmlTransform xform) {
+    this.lexer = lexer;
+    this.xform = xform;
+  }
+
+  /** Return true if the transform can be applied by this class.  That's
+   * the case for {@link HtmlNodeFilterTransform#exclude(NodeFilter)} with
+   * a node-local filter, and for {@link HtmlCompoundTransform}s made up
+   * entirely of those. */
+  static boolean isStreamable(HtmlTransform xform) {
+    if (xform instanceof HtmlNodeFilterTransform) {
+      HtmlNodeFilterTransform nft = (HtmlNodeFilterTransform)xform;
+      return nft.isExclude() && isNodeLocal(nft.getFilter());
+    }
+    if (xform instanceof HtmlCompoundTransform) {
+      for (HtmlTransform t : ((HtmlCompoundTransform)xform).getTransforms()) {
+	if (!isStreamable(t)) {
+	  return false;
+	}
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /** Return true if the filter's result for a node depends only on the
+   * node itself, not on its children, parent or siblings.  Exact class
+   * matches only, as subclasses may look elsewhere. */
+  static boolean isNodeLocal(NodeFilter filter) {
+    if (filter == null) {
+      return false;
+    }
+    Class<?> cls = filter.getClass();
+    if (cls == NotFilter.class) {
+      return isNodeLocal(((NotFilter)filter).getPredicate());
+    }
+    if (cls == AndFilter.class) {
+      return areNodeLocal(((AndFilter)filter).getPredicates());
+    }
+    if (cls == OrFilter.class) {
+      return areNodeLocal(((OrFilter)filter).getPredicates());
+    }
+    return cls == TagNameFilter.class
+      || cls == HasAttributeFilter.class
+      || cls == NodeClassFilter.class
+      || cls == StringFilter.class
+      || cls == RegexFilter.class
+      || cls == HtmlNodeFilters.CommentFilter.class
+      || cls == HtmlNodeFilters.CommentStringFilter.class
+      || cls == HtmlNodeFilters.CommentRegexFilter.class
+      || cls == HtmlNodeFilters.HasAttributeRegexFilter.class;
+  }
+
+  private static boolean areNodeLocal(NodeFilter[] filters) {
+    if (filters == null) {
+      return false;
+    }
+    for (NodeFilter f : filters) {
+      if (!isNodeLocal(f)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /** Process input until at least <code>limit</code> characters have been
+   * consumed, or the end of input is reached, holding the output.  If the
+   * input encoding changes within that range, start over with the new
+   * encoding.  (The input must be marked at least that far.)  After this
+   * returns, the lexer's page reflects the encoding in effect for the
+   * rest of the stream. */
+  void prime(int limit) throws IOException {
+    boolean retried = false;
+    while (true) {
+      try {
+	while (!eof && lexer.getPosition() < limit) {
+	  processNode();
+	}
+	return;
+      } catch (EncodingChangeException e) {
+	if (retried) {
+	  throw asIOException(e);
+	}
+	log.debug2("Encoding change, restarting: " + e.getMessage());
+	retried = true;
+	try {
+	  lexer.reset();
+	} catch (RuntimeException re) {
+	  throw asIOException(e);
+	}
+	openTags.clear();
+	excludedFrom = -1;
+	buf.setLength(0);
+	eof = false;
+      } catch (ParserException e) {
+	throw asIOException(e);
+      }
+    }
+  }
+
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Reader closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (bufPos >= buf.length()) {
+      buf.setLength(0);
+      bufPos = 0;
+      try {
+	while (!eof && buf.length() < CHUNK_SIZE) {
+	  processNode();
+	}
+      } catch (ParserException e) {
+	throw asIOException(e);
+      }
+      if (buf.length() == 0) {
+	return -1;
+      }
+    }
+    int n = Math.min(len, buf.length() - bufPos);
+    buf.getChars(bufPos, bufPos + n, cbuf, off);
+    bufPos += n;
+    return n;
+  }
+
+  public void close() {
+    closed = true;
+    buf = new StringBuilder();
+    openTags.clear();
+  }
+
+  /** Consume the next node from the lexer and generate its output, if
+   * any */
+  void processNode() throws ParserException {
+    Node node = lexer.nextNode(false);
+    if (node == null) {
+      // Unterminated tags are closed with virtual end tags, which aren't
+      // output in verbatim mode
+      while (!openTags.isEmpty()) {
+	popTag();
+      }
+      eof = true;
+      return;
+    }
+    if (!(node instanceof Tag)) {
+      emit(node);
+      return;
+    }
+    Tag tag = (Tag)node;
+    if (tag.isEndTag()) {
+      processEndTag(tag);
+    } else {
+      processStartTag(tag);
+    }
+  }
+
+  private void processStartTag(Tag tag) throws ParserException {
+    // Close any open tags this tag ends
+    while (!openTags.isEmpty() && isTagToBeEndedFor(innermost(), tag)) {
+      popTag();
+    }
+    Scanner scanner = tag.getThisScanner();
+    if (scanner == null) {
+      emit(tag);
+    } else if (scanner.getClass() == CompositeTagScanner.class) {
+      if (tag.isEmptyXmlTag()) {
+	tag.setEndTag(tag);
+	emit(tag);
+      } else {
+	open(tag);
+      }
+    } else {
+      // script, style and simple tags with a scanner (e.g., meta, which
+      // may change the encoding) are scanned and transformed as a unit.
+      emit(scanner.scan(tag, lexer, new NodeList()));
+    }
+  }
+
+  private void processEndTag(Tag tag) throws ParserException {
+    String name = tag.getTagName();
+    while (!openTags.isEmpty()) {
+      Tag top = innermost();
+      if (name.equals(top.getTagName())) {
+	top.setEndTag(tag);
+	boolean output = excludedFrom < 0;
+	popTag();
+	if (output) {
+	  buf.append(tag.toHtml(true));
+	}
+	return;
+      }
+      if (isTagToBeEndedFor(top, tag) || isEndedByAncestor(tag)) {
+	popTag();
+      } else {
+	break;
+      }
+    }
+    // Stray end tag
+    emit(tag);
+  }
+
+  /** Return true if the end tag matches, or ends, an open tag other than
+   * the innermost one */
+  private boolean isEndedByAncestor(Tag endTag) {
+    String name = endTag.getTagName();
+    for (int ix = openTags.size() - 2; ix >= 0; ix--) {
+      Tag anc = openTags.get(ix);
+      if (name.equals(anc.getTagName()) || isTagToBeEndedFor(anc, endTag)) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /** Same as CompositeTagScanner.isTagToBeEndedFor() */
+  static boolean isTagToBeEndedFor(Tag current, Tag tag) {
+    String[] ends = tag.isEndTag()
+      ? current.getEndTagEnders() : current.getEnders();
+    if (ends != null) {
+      String name = tag.getTagName();
+      for (String end : ends) {
+	if (name.equalsIgnoreCase(end)) {
+	  return true;
+	}
+      }
+    }
+    return false;
+  }
+
+  private Tag innermost() {
+    return openTags.get(openTags.size() - 1);
+  }
+
+  private void open(Tag tag) throws ParserException {
+    if (excludedFrom < 0) {
+      NodeList res = transform(tag);
+      if (res.size() == 1 && res.elementAt(0) == tag) {
+	// Tag has no children yet, so this is just the start tag
+	buf.append(tag.toHtml(true));
+      } else {
+	excludedFrom = openTags.size();
+      }
+    }
+    openTags.add(tag);
+  }
+
+  /** Close the innermost open tag */
+  private void popTag() throws ParserException {
+    Tag tag = openTags.remove(openTags.size() - 1);
+    tag.doSemanticAction();
+    if (excludedFrom == openTags.size()) {
+      excludedFrom = -1;
+    }
+  }
+
+  private void emit(Node node) throws ParserException {
+    if (excludedFrom >= 0) {
+      return;
+    }
+    NodeList nl = transform(node);
+    for (int ix = 0; ix < nl.size(); ix++) {
+      buf.append(nl.elementAt(ix).toHtml(true));
+    }
+  }
+
+  private NodeList transform(Node node) throws ParserException {
+    try {
+      return xform.transform(new NodeList(node));
+    } catch (IOException e) {
+      throw new ParserException("Transform failed", e);
+    }
+  }
+
+  private static IOException asIOException(ParserException e) {
+    IOException ioe = new IOException(e.toString());
+    ioe.initCause(e);
+    return ioe;
+  }
+}
@@ -0,0 +1,879 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.hasher;
+
+import java.util.*;
+import java.text.*;
+import java.math.*;
+import java.security.MessageDigest;
+
+import org.lockss.config.Configuration;
+import org.lockss.daemon.*;
+import org.lockss.daemon.status.*;
+import org.lockss.util.*;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimeUtil;
+import org.lockss.app.*;
+import org.lockss.plugin.*;
+
+/**
+ * Implementation of API for content and name hashing services that runs
+ * several independent hash requests concurrently on a bounded pool of
+ * worker threads.
+ *
+ * Like HashQueue, requests are admitted only if they, and all those
+ * already accepted, can finish by their deadlines, but the available hash
+ * time is that of all the workers.  Each worker repeatedly takes the
+ * waiting request with the earliest deadline (requests that have overrun
+ * their estimate go last), runs a slice of it and puts it back, so large
+ * requests don't lock out smaller ones.  A request is run by only one
+ * worker at a time.
+ */
+public class HashSvcParallelImpl
+  extends BaseLockssDaemonManager implements HashService, ConfigurableManager {
+
+  protected static Logger log = Logger.getLogger();
+
+  public static final String HASH_STATUS_TABLE =
+    HashSvcSchedImpl.HASH_STATUS_TABLE;
+
+  static final String PARALLEL_PREFIX = PREFIX + "parallel.";
+
+  /** Number of worker threads that hash concurrently.  Each worker can
+   * run one request at a time. */
+  public static final String PARAM_NUM_WORKERS = PARALLEL_PREFIX + "workers";
+  public static final int DEFAULT_NUM_WORKERS = 4;
+
+  /** If true, at most one request on any given AU is hashed at a time,
+   * to avoid competing for the same disk. */
+  public static final String PARAM_ONE_PER_AU = PARALLEL_PREFIX + "onePerAu";
+  public static final boolean DEFAULT_ONE_PER_AU = true;
+
+  static final String WORKER_THREAD_NAME = "HashWorker";
+
+  private long estPadConstant = 0;
+  private long estPadPercent = 0;
+  private int hashPriority = DEFAULT_PRIORITY;
+  private int hashStepBytes = DEFAULT_STEP_BYTES;
+  private int hashNumSteps = DEFAULT_NUM_STEPS;
+  private int numWorkers = DEFAULT_NUM_WORKERS;
+  private boolean onePerAu = DEFAULT_ONE_PER_AU;
+
+  // Waiting and running requests, in deadline order
+  private List<Request> queue = new ArrayList<Request>();
+  private HistoryList completed = new HistoryList(DEFAULT_COMPLETED_MAX);
+  // AUs with a request currently being hashed
+  private Set<ArchivalUnit> busyAus = new HashSet<ArchivalUnit>();
+  private List<Worker> workers = new ArrayList<Worker>();
+  // lock object for queue, completed, busyAus, workers and the totals
+  private Object queueLock = new Object();
+  private boolean running = false;
+
+  private int schedCtr = 0;
+  private int finishCtr = 0;
+  private BigInteger totalBytesHashed = BigInteger.valueOf(0);
+  private long totalTime = 0;
+
+  public HashSvcParallelImpl() {}
+
+  /**
+   * start the hash service.
+   * @see org.lockss.app.LockssManager#startService()
+   */
+  public void startService() {
+    super.startService();
+    log.debug("startService()");
+    start();
+    StatusService statSvc = getDaemon().getStatusService();
+    statSvc.registerStatusAccessor(HASH_STATUS_TABLE, new Status());
+    statSvc.registerOverviewAccessor(HASH_STATUS_TABLE, new HashOverview());
+  }
+
+  /**
+   * stop the hash service
+   * @see org.lockss.app.LockssManager#stopService()
+   */
+  public void stopService() {
+    StatusService statSvc = getDaemon().getStatusService();
+    statSvc.unregisterStatusAccessor(HASH_STATUS_TABLE);
+    statSvc.unregisterOverviewAccessor(HASH_STATUS_TABLE);
+    stop();
+    super.stopService();
+  }
+
+  public void setConfig(Configuration config, Configuration prevConfig,
+			Configuration.Differences changedKeys) {
+    estPadConstant = config.getTimeInterval(PARAM_ESTIMATE_PAD_CONSTANT,
+					    DEFAULT_ESTIMATE_PAD_CONSTANT);
+    estPadPercent = config.getLong(PARAM_ESTIMATE_PAD_PERCENT,
+				   DEFAULT_ESTIMATE_PAD_PERCENT);
+    hashPriority = config.getInt(PARAM_PRIORITY, DEFAULT_PRIORITY);
+    hashStepBytes = config.getInt(PARAM_STEP_BYTES, DEFAULT_STEP_BYTES);
+    hashNumSteps = config.getInt(PARAM_NUM_STEPS, DEFAULT_NUM_STEPS);
+    if (changedKeys.contains(PARAM_COMPLETED_MAX) ) {
+      synchronized (queueLock) {
+	completed.setMax(config.getInt(PARAM_COMPLETED_MAX,
+				       DEFAULT_COMPLETED_MAX));
+      }
+    }
+    if (changedKeys.contains(PARALLEL_PREFIX)) {
+      onePerAu = config.getBoolean(PARAM_ONE_PER_AU, DEFAULT_ONE_PER_AU);
+      synchronized (queueLock) {
+	numWorkers = Math.max(1, config.getInt(PARAM_NUM_WORKERS,
+					       DEFAULT_NUM_WORKERS));
+	if (running) {
+	  adjustWorkers();
+	}
+      }
+    }
+  }
+
+  /**
+   * Ask for the <code>CachedUrlSetHasher</code> to be
+   * executed by the <code>hasher</code> before the expiration of
+   * <code>deadline</code>, and the result provided to the
+   * <code>callback</code>.
+   * @param hasher   an instance of a <code>CachedUrlSetHasher</code>
+   *                 representing a specific <code>CachedUrlSet</code>
+   *                 and hash type
+   * @param deadline the time by which the callback must have been
+   *                 called.
+   * @param callback the object whose <code>hashComplete()</code>
+   *                 method will be called when hashing succeds
+   *                 or fails.
+   * @param cookie   used to disambiguate callbacks
+   * @return <code>true</code> if the request has been queued,
+   *         <code>false</code> if the resources to do it are not
+   *         available.
+   */
+  public boolean scheduleHash(CachedUrlSetHasher hasher,
+			      Deadline deadline,
+			      Callback callback,
+			      Object cookie) {
+    if (hasher == null) throw new NullPointerException("null hasher");
+    Request req = new Request(hasher.getCachedUrlSet(), deadline,
+			      callback, cookie, hasher,
+			      hasher.getEstimatedHashDuration());
+    synchronized (queueLock) {
+      if (!running) {
+	throw new IllegalStateException("HashService has not been initialized");
+      }
+      if (!isSchedulable(req.origEst, deadline)) {
+	log.debug("Can't schedule hash: " + req);
+	return false;
+      }
+      req.sched = ++schedCtr;
+      queue.add(insertPosition(deadline), req);
+      queueLock.notifyAll();
+    }
+    log.debug("Scheduled hash: " + req);
+    return true;
+  }
+
+  /** Cancel all hashes on the specified AU.  Temporary until a better
+   * cancel mechanism is implemented.
+   * @param au the AU
+   */
+  public void cancelAuHashes(ArchivalUnit au) {
+    synchronized (queueLock) {
+      for (Iterator<Request> iter = queue.iterator(); iter.hasNext(); ) {
+	Request req = iter.next();
+	if (req.urlset.getArchivalUnit() == au) {
+	  // A running request is abandoned by its worker at the end of the
+	  // current slice
+	  req.cancelled = true;
+	  if (req.worker == null) {
+	    req.urlsetHasher.abortHash();
+	  }
+	  iter.remove();
+	}
+      }
+    }
+  }
+
+  /** Return the average hash speed of a single worker, or -1 if not
+   * known.
+   * @param digest the hashing algorithm
+   * @return hash speed in bytes/ms, or -1 if not known
+   */
+  public int getHashSpeed(MessageDigest digest) {
+    synchronized (queueLock) {
+      if (totalTime < 5 * Constants.SECOND) {
+	return -1;
+      }
+      return totalBytesHashed.divide(BigInteger.valueOf(totalTime)).intValue();
+    }
+  }
+
+  /** Add the configured padding percentage, plus the constant */
+  public long padHashEstimate(long estimate) {
+    return estimate + ((estimate * estPadPercent) / 100) + estPadConstant;
+  }
+
+  /** Test whether a hash request could be successfully sceduled before a
+   * given deadline.
+   * @param duration the estimated hash time needed.
+   * @param when the deadline
+   * @return true if such a request could be accepted into the scedule.
+   */
+  public boolean canHashBeScheduledBefore(long duration, Deadline when) {
+    synchronized (queueLock) {
+      return isSchedulable(duration, when);
+    }
+  }
+
+  /** Return true if the HashService has nothing to do.  Useful in unit
+   * tests. */
+  public boolean isIdle() {
+    synchronized (queueLock) {
+      return queue.isEmpty();
+    }
+  }
+
+  /** Return the number of worker threads currently running */
+  int getNumWorkers() {
+    synchronized (queueLock) {
+      return workers.size();
+    }
+  }
+
+  // Must be called with queueLock held.  Returns true if a request of the
+  // given duration and deadline, and all those after it in deadline order,
+  // can finish in time.  With earliest-deadline-first scheduling on n
+  // workers, the work due by any deadline can't exceed n times the time
+  // remaining until then, and no single request can use more than one
+  // worker's time.  Overrunners' estimates are used up, so they don't
+  // contribute, and their deadlines aren't checked, as in HashQueue.
+  boolean isSchedulable(long duration, Deadline when) {
+    long now = TimeBase.nowMs();
+    long whenMs = when.getExpirationTime();
+    if (now + duration > whenMs) {
+      return false;
+    }
+    long demand = 0;
+    boolean placed = false;
+    for (Request qreq : queue) {
+      if (!placed && when.before(qreq.deadline)) {
+	demand += duration;
+	placed = true;
+	if (demand > capacityUntil(whenMs, now)) {
+	  return false;
+	}
+      }
+      demand += qreq.curEst();
+      if (placed && !qreq.overrun()
+	  && demand > capacityUntil(qreq.deadline.getExpirationTime(), now)) {
+	return false;
+      }
+    }
+    if (!placed) {
+      demand += duration;
+      if (demand > capacityUntil(whenMs, now)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  private long capacityUntil(long whenMs, long now) {
+    return numWorkers * (whenMs - now);
+  }
+
+  // Must be called with queueLock held
+  private int insertPosition(Deadline deadline) {
+    int pos = 0;
+    for (Request qreq : queue) {
+      if (deadline.before(qreq.deadline)) {
+	break;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  List<Request> getQueueSnapshot() {
+    synchronized (queueLock) {
+      return new ArrayList<Request>(queue);
+    }
+  }
+
+  List<Request> getCompletedSnapshot() {
+    synchronized (queueLock) {
+      return new ArrayList<Request>(completed);
+    }
+  }
+
+  List<Worker> getWorkersSnapshot() {
+    synchronized (queueLock) {
+      return new ArrayList<Worker>(workers);
+    }
+  }
+
+  /** Start the worker threads */
+  protected void start() {
+    synchronized (queueLock) {
+      running = true;
+      adjustWorkers();
+    }
+  }
+
+  /** Stop the worker threads */
+  protected void stop() {
+    List<Worker> toStop;
+    synchronized (queueLock) {
+      running = false;
+      toStop = new ArrayList<Worker>(workers);
+      workers.clear();
+      queueLock.notifyAll();
+    }
+    for (Worker worker : toStop) {
+      worker.stopWorker();
+    }
+  }
+
+  // Must be called with queueLock held.  Starts or stops workers so that
+  // the number running matches the configured number.
+  private void adjustWorkers() {
+    while (workers.size() < numWorkers) {
+      Worker worker = new Worker(workers.size());
+      workers.add(worker);
+      log.debug("Starting " + worker.getName());
+      new Thread(worker).start();
+    }
+    while (workers.size() > numWorkers) {
+      Worker worker = workers.remove(workers.size() - 1);
+      log.debug("Stopping " + worker.getName());
+      worker.goOn = false;
+    }
+    queueLock.notifyAll();
+  }
+
+  // Must be called with queueLock held.  Removes waiting requests that
+  // have expired, adding them to done, and returns the waiting request
+  // that should run next, or null if none can run now.
+  private Request nextRequest(List<Request> done) {
+    Request overrunner = null;
+    for (Iterator<Request> iter = queue.iterator(); iter.hasNext(); ) {
+      Request req = iter.next();
+      if (req.worker != null) {
+	continue;
+      }
+      if (req.deadline.expired()) {
+	req.urlsetHasher.abortHash();
+	req.e = new HashService.Timeout("hash not finished before deadline");
+	iter.remove();
+	finished(req, done, "Expired: ");
+	continue;
+      }
+      if (onePerAu && busyAus.contains(req.urlset.getArchivalUnit())) {
+	continue;
+      }
+      if (!req.overrun()) {
+	return req;
+      }
+      if (overrunner == null) {
+	overrunner = req;
+      }
+    }
+    return overrunner;
+  }
+
+  // Must be called with queueLock held
+  private void finished(Request req, List<Request> done, String msg) {
+    req.finish = ++finishCtr;
+    if (log.isDebug()) {
+      log.debug(msg + ((req.e != null) ? (req.e + ": ") : "") + req);
+    }
+    done.add(req);
+    completed.add(req);
+  }
+
+  // Separated out so callbacks are run outside of synchronized block.
+  void doCallbacks(List<Request> list) {
+    for (Request req : list) {
+      try {
+	req.urlsetHasher.storeActualHashDuration(req.timeUsed, req.e);
+      } catch (Exception e) {
+	log.error("Hasher threw", e);
+      }
+      try {
+	if (req.callback != null) {
+	  req.callback.hashingFinished(req.urlset, req.timeUsed, req.cookie,
+				       req.urlsetHasher, req.e);
+	}
+      } catch (Exception e) {
+	log.error("Hash callback threw", e);
+      }
+      // completed list for status only, don't hold on to caller's objects
+      req.callback = null;
+      req.cookie = null;
+      req.urlsetHasher = null;
+    }
+  }
+
+  // Request - hash queue element.
+  static class Request {
+    CachedUrlSet urlset;
+    Deadline deadline;
+    HashService.Callback callback;
+    Object cookie;
+    CachedUrlSetHasher urlsetHasher;
+    int sched;
+    int finish;
+    long origEst;
+    volatile long timeUsed = 0;
+    volatile long bytesHashed = 0;
+    Exception e;
+    String typeString;
+    // Worker currently hashing this request, or null if waiting
+    Worker worker;
+    // Worker that most recently hashed this request
+    String lastWorkerName;
+    volatile boolean cancelled = false;
+
+    Request(CachedUrlSet urlset,
+	    Deadline deadline,
+	    HashService.Callback callback,
+	    Object cookie,
+	    CachedUrlSetHasher urlsetHasher,
+	    long estimatedDuration) {
+      this.urlset = urlset;
+      this.deadline = deadline;
+      this.callback = callback;
+      this.cookie = cookie;
+      if (urlsetHasher == null) {
+	throw new NullPointerException("CachedUrlSetHasher is null");
+      }
+      this.urlsetHasher = urlsetHasher;
+      this.origEst = estimatedDuration;
+      this.typeString = urlsetHasher.typeString();
+    }
+
+    public String typeString() {
+      // this must not reference the urlsetHasher, as it might have been
+      // reset to null
+      return typeString;
+    }
+
+    long curEst() {
+      long t = origEst - timeUsed;
+      return (t > 0 ? t : 0);
+    }
+
+    boolean finished() {
+      return (e != null) || urlsetHasher.finished();
+    }
+
+    boolean overrun() {
+      return timeUsed > origEst;
+    }
+
+    public String toString() {
+      StringBuffer sb = new StringBuffer();
+      sb.append("[HP.Req:");
+      sb.append(urlset);
+      sb.append(' ');
+      if (cookie instanceof String) {
+	sb.append("\"");
+	sb.append(cookie);
+	sb.append("\"");
+      }
+      sb.append(" ");
+      sb.append(origEst);
+      sb.append("ms by ");
+      sb.append(deadline);
+      sb.append("]");
+      return sb.toString();
+    }
+  }
+
+  // Hash worker thread
+  class Worker extends LockssRunnable {
+    private int index;
+    volatile boolean goOn = true;
+    volatile Request current;
+    volatile long bytesHashed = 0;
+    volatile long timeUsed = 0;
+    volatile long slices = 0;
+    volatile long requestsFinished = 0;
+
+    Worker(int index) {
+      super(WORKER_THREAD_NAME + "-" + index);
+      this.index = index;
+    }
+
+    int getIndex() {
+      return index;
+    }
+
+    public void lockssRun() {
+      setPriority(WORKER_THREAD_NAME, hashPriority);
+      nowRunning();
+      try {
+	while (goOn) {
+	  List<Request> done = new ArrayList<Request>();
+	  Request req;
+	  synchronized (queueLock) {
+	    req = nextRequest(done);
+	    if (req != null) {
+	      req.worker = this;
+	      req.lastWorkerName = getName();
+	      busyAus.add(req.urlset.getArchivalUnit());
+	      current = req;
+	    }
+	  }
+	  doCallbacks(done);
+	  if (req == null) {
+	    synchronized (queueLock) {
+	      if (goOn) {
+		// Also wakes up periodically to notice expired requests
+		queueLock.wait(Constants.SECOND);
+	      }
+	    }
+	    continue;
+	  }
+	  try {
+	    runSlice(req);
+	  } finally {
+	    finishSlice(req);
+	  }
+	}
+      } catch (InterruptedException e) {
+	// no action - expected when stopping
+      } finally {
+	synchronized (queueLock) {
+	  workers.remove(this);
+	}
+      }
+    }
+
+    // Run up to hashNumSteps steps of the request.  Only this worker
+    // touches the request's hasher while it's running.
+    private void runSlice(Request req) {
+      CachedUrlSetHasher ush = req.urlsetHasher;
+      Deadline overrunDeadline = null;
+      if (!req.overrun()) {
+	// watch for overrun only if it hasn't overrun yet
+	overrunDeadline = Deadline.in(req.curEst());
+      }
+      long startTime = TimeBase.nowMs();
+      long bytes = 0;
+      try {
+	for (int cnt = hashNumSteps;
+	     cnt > 0 && goOn && !req.cancelled && !req.finished();
+	     cnt--) {
+	  if (log.isDebug3()) log.debug3("hashStep(" + hashStepBytes + "): " +
+					 req);
+	  bytes += ush.hashStep(hashStepBytes);
+	  // stop the slice if it's newly overrun, so it goes to the back
+	  if (!ush.finished() &&
+	      overrunDeadline != null && overrunDeadline.expired()) {
+	    if (log.isDebug()) log.debug("Overrun: " + req);
+	    break;
+	  }
+	}
+	if (!req.finished() && req.deadline.expired()) {
+	  if (log.isDebug()) log.debug("Expired: " + req);
+	  throw
+	    new HashService.Timeout("hash not finished before deadline");
+	}
+      } catch (Exception e) {
+	req.e = e;
+      }
+      long timeDelta = TimeBase.msSince(startTime);
+      req.timeUsed += timeDelta;
+      req.bytesHashed += bytes;
+      bytesHashed += bytes;
+      timeUsed += timeDelta;
+      slices++;
+      synchronized (queueLock) {
+	totalBytesHashed = totalBytesHashed.add(BigInteger.valueOf(bytes));
+	totalTime += timeDelta;
+      }
+    }
+
+    // Return the request to the queue, or remove it and call its callback
+    // if it's done.
+    private void finishSlice(Request req) {
+      List<Request> done = new ArrayList<Request>();
+      synchronized (queueLock) {
+	req.worker = null;
+	current = null;
+	busyAus.remove(req.urlset.getArchivalUnit());
+	if (req.cancelled) {
+	  // Already removed from the queue
+	  req.urlsetHasher.abortHash();
+	} else if (req.e != null || !running) {
+	  if (req.e == null) {
+	    req.e = new HashService.Timeout("hash service stopped");
+	  }
+	  req.urlsetHasher.abortHash();
+	  queue.remove(req);
+	  finished(req, done, "Errored: ");
+	} else if (req.urlsetHasher.finished()) {
+	  queue.remove(req);
+	  requestsFinished++;
+	  finished(req, done, "Finished: ");
+	}
+	// Let another worker pick up the request or the AU
+	queueLock.notifyAll();
+      }
+      doCallbacks(done);
+    }
+
+    private void stopWorker() {
+      goOn = false;
+      interruptThread();
+    }
+  }
+
+  // status table
+
+  private static final List statusSortRules =
+    ListUtil.list(new StatusTable.SortRule("state", true),
+		  new StatusTable.SortRule("sort", true));
+
+  static final String FOOT_IN = "Order in which requests were made.";
+
+  static final String FOOT_OVER = "Red indicates overrun.";
+
+  static final String FOOT_TITLE =
+    "Pending requests are first in table, in deadline order." +
+    "  Completed requests follow, in reverse completion order " +
+    "(most recent first).";
+
+  private static final List statusColDescs =
+    ListUtil.list(
+		  new ColumnDescriptor("sched", "Req",
+				       ColumnDescriptor.TYPE_INT, FOOT_IN),
+		  new ColumnDescriptor("state", "State",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("worker", "Worker",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("au", "Volume",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("cus", "Cached Url Set",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("type", "Type",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("deadline", "Deadline",
+				       ColumnDescriptor.TYPE_DATE),
+		  new ColumnDescriptor("estimate", "Estimated",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL),
+		  new ColumnDescriptor("timeused", "Used",
+				       ColumnDescriptor.TYPE_TIME_INTERVAL,
+				       FOOT_OVER),
+		  new ColumnDescriptor("bytesHashed", "Bytes<br>Hashed",
+				       ColumnDescriptor.TYPE_INT),
+		  new ColumnDescriptor("rate", "Bytes/ms",
+				       ColumnDescriptor.TYPE_STRING)
+		  );
+
+  private static final NumberFormat fmt_2dec = new DecimalFormat("0.00");
+  private static final BigInteger big1000 = BigInteger.valueOf(1000);
+
+  private class Status implements StatusAccessor {
+
+    public String getDisplayName() {
+      return "Hash Queue";
+    }
+
+    public void populateTable(StatusTable table) {
+      table.setResortable(false);
+      String key = table.getKey();
+      table.setTitleFootnote(FOOT_TITLE);
+      if (!table.getOptions().get(StatusTable.OPTION_NO_ROWS)) {
+	table.setColumnDescriptors(statusColDescs);
+	table.setDefaultSortRules(statusSortRules);
+	table.setRows(getRows(key));
+      }
+      table.setSummaryInfo(getSummaryInfo(key));
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    private List getRows(String key) {
+      List table = new ArrayList();
+      int ix = 0;
+      for (Request req : getQueueSnapshot()) {
+	table.add(makeRow(req, false, ix++));
+      }
+      for (ListIterator<Request> iter = getCompletedSnapshot().listIterator();
+	   iter.hasNext();) {
+	Map row = makeRow(iter.next(), true, 0);
+	// if both parts of the table are present (ix is number of pending
+	// requests), add a separator before the first displayed completed
+	// request (which is the last one in the history list)
+	if (ix != 0 && !iter.hasNext()) {
+	  row.put(StatusTable.ROW_SEPARATOR, "");
+	}
+	table.add(row);
+      }
+      return table;
+    }
+
+    private Map makeRow(Request req, boolean done, int qpos) {
+      Map row = new HashMap();
+      row.put("sort", new Integer(done ? -req.finish : qpos));
+      row.put("sched", new Integer(req.sched));
+      row.put("state", getState(req, done));
+      if (req.lastWorkerName != null) {
+	row.put("worker", req.lastWorkerName);
+      }
+      row.put("au", req.urlset.getArchivalUnit().getName());
+      row.put("cus", req.urlset.getSpec());
+      row.put("type", req.typeString());
+      row.put("deadline", req.deadline.getExpiration());
+      row.put("estimate", new Long(req.origEst));
+      long timeUsed = req.timeUsed;
+      Object used = new Long(timeUsed);
+      if (req.overrun()) {
+	StatusTable.DisplayedValue val = new StatusTable.DisplayedValue(used);
+	val.setColor("red");
+	used = val;
+      }
+      row.put("timeused", used);
+      row.put("bytesHashed", new Long(req.bytesHashed));
+      if (timeUsed > 0 && req.bytesHashed > 0) {
+	row.put("rate", hashRate(BigInteger.valueOf(req.bytesHashed),
+				 timeUsed));
+      }
+      return row;
+    }
+
+    private Object getState(Request req, boolean done) {
+      if (!done) {
+	return (req.worker != null)
+	  ? HashQueue.REQ_STATE_RUN : HashQueue.REQ_STATE_WAIT;
+      }
+      if (req.e == null) {
+	return HashQueue.REQ_STATE_DONE;
+      } else if (req.e instanceof HashService.Timeout) {
+	return HashQueue.REQ_STATE_TIMEOUT;
+      } else {
+	return HashQueue.REQ_STATE_ERROR;
+      }
+    }
+
+    private List getSummaryInfo(String key) {
+      List res = new ArrayList();
+      BigInteger bytes;
+      long time;
+      synchronized (queueLock) {
+	bytes = totalBytesHashed;
+	time = totalTime;
+      }
+      res.add(new StatusTable.SummaryInfo("Total bytes hashed",
+					  ColumnDescriptor.TYPE_INT,
+					  bytes));
+      res.add(new StatusTable.SummaryInfo("Total hash time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  new Long(time)));
+      if (time != 0) {
+	res.add(new StatusTable.SummaryInfo("Bytes/ms per worker",
+					    ColumnDescriptor.TYPE_STRING,
+					    hashRate(bytes, time)));
+      }
+      for (Worker worker : getWorkersSnapshot()) {
+	res.add(new StatusTable.SummaryInfo(worker.getName(),
+					    ColumnDescriptor.TYPE_STRING,
+					    workerSummary(worker)));
+      }
+      return res;
+    }
+
+    private String workerSummary(Worker worker) {
+      List res = new ArrayList();
+      long wBytes = worker.bytesHashed;
+      long wTime = worker.timeUsed;
+      res.add(wBytes + " bytes hashed");
+      if (wTime != 0) {
+	res.add(" in " + TimeUtil.timeIntervalToString(wTime));
+	res.add(" at " + hashRate(BigInteger.valueOf(wBytes), wTime)
+		+ " bytes/ms");
+      }
+      res.add(worker.requestsFinished + " finished");
+      Request cur = worker.current;
+      res.add(cur != null ? ("hashing " + cur.sched) : "idle");
+      return StringUtil.separatedString(res, ", ");
+    }
+  }
+
+  String hashRate(BigInteger bytes, long time) {
+    BigInteger bigTotal = BigInteger.valueOf(time);
+    long bpms = bytes.divide(bigTotal).intValue();
+    if (bpms >= 100) {
+      return Long.toString(bpms);
+    } else {
+      long bpsec =
+	bytes.multiply(big1000).divide(bigTotal).intValue();
+      return fmt_2dec.format((double)bpsec / (double)1000);
+    }
+  }
+
+  static NumberFormat bigIntFmt = NumberFormat.getInstance();
+
+  class HashOverview implements OverviewAccessor {
+
+    public Object getOverview(String tableName, BitSet options) {
+      List res = new ArrayList();
+      BigInteger bytes;
+      long time;
+      int wait = 0;
+      int run = 0;
+      synchronized (queueLock) {
+	bytes = totalBytesHashed;
+	time = totalTime;
+	for (Request req : queue) {
+	  if (req.worker != null) {
+	    run++;
+	  } else {
+	    wait++;
+	  }
+	}
+      }
+      res.add(bigIntFmt.format(bytes) + " bytes hashed");
+      if (time != 0) {
+	res.add(" in " + TimeUtil.timeIntervalToString(time));
+	res.add(" at " + hashRate(bytes, time) + " bytes/ms per worker");
+      }
+      if (run != 0) {
+	res.add(run + " running");
+      }
+      if (wait != 0) {
+	res.add(wait + " waiting");
+      }
+      String summ = StringUtil.separatedString(res, ", ");
+      return new StatusTable.Reference(summ, HASH_STATUS_TABLE);
+    }
+  }
+}
@@ -0,0 +1,582 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+package org.lockss.metadata;
+
+import static org.lockss.metadata.SqlConstants.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.collections4.map.LRUMap;
+import org.lockss.config.Configuration;
+import org.lockss.config.CurrentConfig;
+import org.lockss.db.DbException;
+import org.lockss.extractor.ArticleMetadata;
+import org.lockss.extractor.MetadataField;
+import org.lockss.util.Logger;
+import org.lockss.util.StringUtil;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Writes the metadata of the items of an ingest job to the database in
+ * batches.
+ * 
+ * The identifiers of publishers, publications and metadata item types are
+ * cached for the duration of the job, so each is looked up or created only
+ * once. Metadata item rows are inserted as they are added, as their
+ * generated keys are needed, but their name, URL and DOI rows are queued and
+ * written with JDBC batch inserts. The transaction is committed after every
+ * group of a configurable number of items and when the job is closed.
+ * 
+ * An instance uses the connection passed to it and is not thread-safe.
+ */
+public class MetadataIngestBatch {
+  private static final Logger log = Logger.getLogger();
+
+  static final String PREFIX = Configuration.PREFIX
+      + "metadataManager.ingest.";
+
+  /**
+   * Number of metadata items written between commits. Changes apply to jobs
+   * started afterwards.
+   */
+  public static final String PARAM_COMMIT_GROUP_SIZE = PREFIX
+      + "commitGroupSize";
+  public static final int DEFAULT_COMMIT_GROUP_SIZE = 100;
+
+  /**
+   * Maximum number of queued rows of each kind (names, URLs, DOIs) before
+   * they are sent to the database. Changes apply to jobs started afterwards.
+   */
+  public static final String PARAM_MAX_BATCH_ROWS = PREFIX + "maxBatchRows";
+  public static final int DEFAULT_MAX_BATCH_ROWS = 1000;
+
+  /**
+   * Maximum number of publisher and publication identifiers cached during a
+   * job. Changes apply to jobs started afterwards.
+   */
+  public static final String PARAM_CACHE_SIZE = PREFIX + "cacheSize";
+  public static final int DEFAULT_CACHE_SIZE = 1000;
+
+  private final MetadataManager mdManager;
+  private final MetadataDbManager dbManager;
+  private final Connection conn;
+  private final int commitGroupSize;
+  private final int maxBatchRows;
+
+  // The identifiers resolved during this job.
+  private final Map<String, Long> publisherCache;
+  private final Map<List<Object>, Long> publicationCache;
+  private final Map<String, Long> mdItemTypeCache = new HashMap<String, Long>();
+
+  // The rows waiting to be inserted.
+  private final PendingRows nameRows;
+  private final PendingRows urlRows;
+  private final PendingRows doiRows;
+
+  private final long startTime;
+  private int uncommittedItems = 0;
+  private long itemCount = 0;
+  private long rowCount = 0;
+  private long batchCount = 0;
+  private long commitCount = 0;
+  private long cacheHits = 0;
+  private long cacheMisses = 0;
+  private boolean closed = false;
+
+  /**
+   * Constructor.
+   * 
+   * @param mdManager
+   *          A MetadataManager with the metadata manager.
+   * @param dbManager
+   *          A MetadataDbManager with the database manager.
+   * @param conn
+   *          A Connection with the database connection to be used.
+   */
+  MetadataIngestBatch(MetadataManager mdManager, MetadataDbManager dbManager,
+      Connection conn) {
+    this.mdManager = mdManager;
+    this.dbManager = dbManager;
+    this.conn = conn;
+
+    Configuration config = CurrentConfig.getCurrentConfig();
+    commitGroupSize = Math.max(1, config.getInt(PARAM_COMMIT_GROUP_SIZE,
+	DEFAULT_COMMIT_GROUP_SIZE));
+    maxBatchRows = Math.max(1, config.getInt(PARAM_MAX_BATCH_ROWS,
+	DEFAULT_MAX_BATCH_ROWS));
+    int cacheSize = Math.max(1, config.getInt(PARAM_CACHE_SIZE,
+	DEFAULT_CACHE_SIZE));
+
+    publisherCache = new LRUMap<String, Long>(cacheSize);
+    publicationCache = new LRUMap<List<Object>, Long>(cacheSize);
+
+    nameRows = new PendingRows("metadata item name",
+	MetadataManagerSql.INSERT_MD_ITEM_NAME_QUERY);
+    urlRows = new PendingRows("metadata item URL",
+	MetadataManagerSql.INSERT_URL_QUERY);
+    doiRows = new PendingRows("metadata item DOI",
+	MetadataManagerSql.INSERT_DOI_QUERY);
+
+    startTime = TimeBase.nowMs();
+  }
+
+  /**
+   * Provides the identifier of a publisher if existing or after creating it
+   * otherwise.
+   * 
+   * @param publisherName
+   *          A String with the publisher name.
+   * @return a Long with the identifier of the publisher.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public Long findOrCreatePublisher(String publisherName) throws DbException {
+    Long publisherSeq = publisherCache.get(publisherName);
+
+    if (publisherSeq != null) {
+      cacheHits++;
+      return publisherSeq;
+    }
+
+    cacheMisses++;
+    publisherSeq = mdManager.findOrCreatePublisher(conn, publisherName);
+
+    if (publisherSeq != null) {
+      publisherCache.put(publisherName, publisherSeq);
+    }
+
+    return publisherSeq;
+  }
+
+  /**
+   * Provides the identifier of a publication if existing or after creating it
+   * otherwise.
+   * 
+   * @see MetadataManager#findOrCreatePublication(Connection, Long, String,
+   *      String, String, String, String, String, String, String, String)
+   */
+  public Long findOrCreatePublication(Long publisherSeq, String pIssn,
+      String eIssn, String pIsbn, String eIsbn, String pubType,
+      String seriesName, String proprietarySeriesId, String pubName,
+      String proprietaryId) throws DbException {
+    List<Object> key = Arrays.<Object>asList(publisherSeq, pIssn, eIssn, pIsbn,
+	eIsbn, pubType, seriesName, proprietarySeriesId, pubName,
+	proprietaryId);
+    Long publicationSeq = publicationCache.get(key);
+
+    if (publicationSeq != null) {
+      cacheHits++;
+      return publicationSeq;
+    }
+
+    cacheMisses++;
+    publicationSeq = mdManager.findOrCreatePublication(conn, publisherSeq,
+	pIssn, eIssn, pIsbn, eIsbn, pubType, seriesName, proprietarySeriesId,
+	pubName, proprietaryId);
+
+    if (publicationSeq != null) {
+      publicationCache.put(key, publicationSeq);
+    }
+
+    return publicationSeq;
+  }
+
+  /**
+   * Provides the identifier of a metadata item type by its name.
+   * 
+   * @param typeName
+   *          A String with the name of the metadata item type.
+   * @return a Long with the identifier of the metadata item type.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public Long findMetadataItemType(String typeName) throws DbException {
+    Long mdItemTypeSeq = mdItemTypeCache.get(typeName);
+
+    if (mdItemTypeSeq != null) {
+      cacheHits++;
+      return mdItemTypeSeq;
+    }
+
+    cacheMisses++;
+    mdItemTypeSeq = mdManager.findMetadataItemType(conn, typeName);
+
+    if (mdItemTypeSeq != null) {
+      mdItemTypeCache.put(typeName, mdItemTypeSeq);
+    }
+
+    return mdItemTypeSeq;
+  }
+
+  /**
+   * Adds a metadata item to the database, queueing its name, URLs and DOI to
+   * be written in batches.
+   * 
+   * @param parentSeq
+   *          A Long with the metadata item parent identifier.
+   * @param mdItemTypeSeq
+   *          A Long with the identifier of the type of metadata item.
+   * @param auMdSeq
+   *          A Long with the identifier of the Archival Unit metadata.
+   * @param md
+   *          An ArticleMetadata with the extracted metadata of the item.
+   * @param fetchTime
+   *          A long with the fetch time of metadata item.
+   * @return a Long with the identifier of the metadata item just added.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public Long addItem(Long parentSeq, Long mdItemTypeSeq, Long auMdSeq,
+      ArticleMetadata md, long fetchTime) throws DbException {
+    final String DEBUG_HEADER = "addItem(): ";
+    Long mdItemSeq = addMdItem(parentSeq, mdItemTypeSeq, auMdSeq,
+	md.get(MetadataField.FIELD_DATE), md.get(MetadataField.FIELD_COVERAGE),
+	fetchTime);
+    if (log.isDebug3()) log.debug3(DEBUG_HEADER + "mdItemSeq = " + mdItemSeq);
+
+    if (mdItemSeq == null) {
+      return null;
+    }
+
+    String title = md.get(MetadataField.FIELD_ARTICLE_TITLE);
+
+    if (!StringUtil.isNullString(title)) {
+      addMdItemName(mdItemSeq, title.substring(0, Math.min(title.length(),
+	  MAX_NAME_COLUMN)), PRIMARY_NAME_TYPE);
+    }
+
+    String accessUrl = md.get(MetadataField.FIELD_ACCESS_URL);
+
+    if (!StringUtil.isNullString(accessUrl)) {
+      addMdItemUrl(mdItemSeq, MetadataManager.ACCESS_URL_FEATURE, accessUrl);
+    }
+
+    Map<String, String> featuredUrls =
+	md.getRawMap(MetadataField.FIELD_FEATURED_URL_MAP);
+
+    for (Map.Entry<String, String> entry : featuredUrls.entrySet()) {
+      if (!MetadataManager.ACCESS_URL_FEATURE.equals(entry.getKey())) {
+	addMdItemUrl(mdItemSeq, entry.getKey(), entry.getValue());
+      }
+    }
+
+    addMdItemDoi(mdItemSeq, md.get(MetadataField.FIELD_DOI));
+    itemDone();
+
+    return mdItemSeq;
+  }
+
+  /**
+   * Adds a metadata item to the database.
+   * 
+   * @see MetadataManager#addMdItem(Connection, Long, Long, Long, String,
+   *      String, long)
+   */
+  public Long addMdItem(Long parentSeq, Long mdItemTypeSeq, Long auMdSeq,
+      String date, String coverage, long fetchTime) throws DbException {
+    Long mdItemSeq = mdManager.addMdItem(conn, parentSeq, mdItemTypeSeq,
+	auMdSeq, date, coverage, fetchTime);
+
+    if (mdItemSeq != null) {
+      rowCount++;
+    }
+
+    return mdItemSeq;
+  }
+
+  /**
+   * Queues a metadata item name to be added to the database.
+   * 
+   * @param mdItemSeq
+   *          A Long with the metadata item identifier.
+   * @param name
+   *          A String with the name of the metadata item.
+   * @param type
+   *          A String with the type of name of the metadata item.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void addMdItemName(Long mdItemSeq, String name, String type)
+      throws DbException {
+    if (name == null || type == null) {
+      return;
+    }
+
+    nameRows.add(mdItemSeq, name, type);
+  }
+
+  /**
+   * Queues a metadata item URL to be added to the database.
+   * 
+   * @param mdItemSeq
+   *          A Long with the metadata item identifier.
+   * @param feature
+   *          A String with the feature of the metadata item URL.
+   * @param url
+   *          A String with the metadata item URL.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void addMdItemUrl(Long mdItemSeq, String feature, String url)
+      throws DbException {
+    if (StringUtil.isNullString(url)) {
+      return;
+    }
+
+    urlRows.add(mdItemSeq, feature, url);
+  }
+
+  /**
+   * Queues a metadata item DOI to be added to the database.
+   * 
+   * @param mdItemSeq
+   *          A Long with the metadata item identifier.
+   * @param doi
+   *          A String with the DOI of the metadata item.
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void addMdItemDoi(Long mdItemSeq, String doi) throws DbException {
+    if (StringUtil.isNullString(doi)) {
+      return;
+    }
+
+    doiRows.add(mdItemSeq, doi);
+  }
+
+  /**
+   * Records that all the rows of a metadata item have been added, committing
+   * the transaction if a commit group has been completed.
+   * 
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void itemDone() throws DbException {
+    itemCount++;
+
+    if (++uncommittedItems >= commitGroupSize) {
+      commit();
+    }
+  }
+
+  /**
+   * Sends all the queued rows to the database.
+   * 
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void flush() throws DbException {
+    nameRows.flush();
+    urlRows.flush();
+    doiRows.flush();
+  }
+
+  /**
+   * Sends all the queued rows to the database and commits the transaction.
+   * 
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void commit() throws DbException {
+    final String DEBUG_HEADER = "commit(): ";
+    flush();
+    MetadataDbManager.commitOrRollback(conn, log);
+    commitCount++;
+    uncommittedItems = 0;
+    if (log.isDebug3()) log.debug3(DEBUG_HEADER + "itemCount = " + itemCount);
+  }
+
+  /**
+   * Commits the remaining rows, releases the statements and records the
+   * statistics of this job in the metadata manager. The connection is not
+   * closed.
+   * 
+   * @throws DbException
+   *           if any problem occurred accessing the database.
+   */
+  public void close() throws DbException {
+    if (closed) {
+      return;
+    }
+
+    try {
+      commit();
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Discards the queued rows and releases the statements, without
+   * committing. The caller is responsible for rolling back the transaction.
+   */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+
+    release();
+  }
+
+  private void release() {
+    closed = true;
+    nameRows.close();
+    urlRows.close();
+    doiRows.close();
+
+    // Identifiers created in an uncommitted transaction may not survive.
+    publisherCache.clear();
+    publicationCache.clear();
+    mdItemTypeCache.clear();
+
+    mdManager.recordIngestJob(this);
+  }
+
+  public long getItemCount() {
+    return itemCount;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  public long getCommitCount() {
+    return commitCount;
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits;
+  }
+
+  public long getCacheMissCount() {
+    return cacheMisses;
+  }
+
+  /**
+   * Provides the time elapsed since this job started.
+   * 
+   * @return a long with the number of milliseconds since the job started.
+   */
+  public long getElapsedTime() {
+    return TimeBase.msSince(startTime);
+  }
+
+  /**
+   * Rows of one kind waiting to be inserted with a JDBC batch.
+   */
+  private class PendingRows {
+    private final String what;
+    private final String sql;
+    private PreparedStatement statement = null;
+    private int count = 0;
+
+    PendingRows(String what, String sql) {
+      this.what = what;
+      this.sql = sql;
+    }
+
+    // Adds a row with a metadata item identifier and one string.
+    void add(Long mdItemSeq, String value1) throws DbException {
+      add(mdItemSeq, value1, null, false);
+    }
+
+    // Adds a row with a metadata item identifier and two strings.
+    void add(Long mdItemSeq, String value1, String value2)
+	throws DbException {
+      add(mdItemSeq, value1, value2, true);
+    }
+
+    private void add(Long mdItemSeq, String value1, String value2,
+	boolean hasValue2) throws DbException {
+      try {
+	if (statement == null) {
+	  statement = dbManager.prepareStatement(conn, sql);
+	}
+
+	statement.setLong(1, mdItemSeq);
+	statement.setString(2, value1);
+	if (hasValue2) {
+	  // Parameters persist across addBatch(), so always bind this one
+	  if (value2 != null) {
+	    statement.setString(3, value2);
+	  } else {
+	    statement.setNull(3, Types.VARCHAR);
+	  }
+	}
+	statement.addBatch();
+      } catch (SQLException sqle) {
+	String message = "Cannot queue a " + what;
+	log.error(message, sqle);
+	log.error("SQL = '" + sql + "'.");
+	log.error("mdItemSeq = " + mdItemSeq + ".");
+	throw new DbException(message, sqle);
+      }
+
+      if (++count >= maxBatchRows) {
+	flush();
+      }
+    }
+
+    void flush() throws DbException {
+      final String DEBUG_HEADER = "flush(): ";
+
+      if (count == 0) {
+	return;
+      }
+
+      try {
+	int[] counts = statement.executeBatch();
+	if (log.isDebug3()) log.debug3(DEBUG_HEADER + "Added " + counts.length
+	    + " " + what + " rows");
+	rowCount += count;
+	batchCount++;
+	count = 0;
+      } catch (SQLException sqle) {
+	String message = "Cannot add " + count + " " + what + " rows";
+	log.error(message, sqle);
+	log.error("SQL = '" + sql + "'.");
+	throw new DbException(message, sqle);
+      }
+    }
+
+    void close() {
+      MetadataDbManager.safeCloseStatement(statement);
+      statement = null;
+      count = 0;
+    }
+  }
+}
@@ -32,9 +32,11 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.lockss.app.BaseLockssManager;
 import org.lockss.db.DbException;
 import org.lockss.extractor.MetadataField;
@@ -74,6 +76,16 @@ public class MetadataManager extends BaseLockssManager {
   // The SQL code executor.
   private MetadataManagerSql mdManagerSql;
 
+  // The accumulated statistics of the batched ingest jobs.
+  private final AtomicLong ingestJobCount = new AtomicLong();
+  private final AtomicLong ingestItemCount = new AtomicLong();
+  private final AtomicLong ingestRowCount = new AtomicLong();
+  private final AtomicLong ingestBatchCount = new AtomicLong();
+  private final AtomicLong ingestCommitCount = new AtomicLong();
+  private final AtomicLong ingestCacheHitCount = new AtomicLong();
+  private final AtomicLong ingestCacheMissCount = new AtomicLong();
+  private final AtomicLong ingestTime = new AtomicLong();
+
   /**
    * No-argument constructor.
    */
@@ -2259,6 +2271,64 @@ public class MetadataManager extends BaseLockssManager {
     return mdManagerSql.removeAu(auSeq, auKey);
   }
 
+  /**
+   * Provides a writer of the metadata of the items of an ingest job that
+   * batches database operations.
+   * 
+   * @param conn
+   *          A Connection with the database connection to be used.
+   * @return a MetadataIngestBatch with the writer of the job metadata.
+   */
+  public MetadataIngestBatch newIngestBatch(Connection conn) {
+    return new MetadataIngestBatch(this, dbManager, conn);
+  }
+
+  /**
+   * Adds the statistics of a finished ingest job to the totals.
+   * 
+   * @param batch
+   *          A MetadataIngestBatch with the finished ingest job.
+   */
+  void recordIngestJob(MetadataIngestBatch batch) {
+    ingestJobCount.incrementAndGet();
+    ingestItemCount.addAndGet(batch.getItemCount());
+    ingestRowCount.addAndGet(batch.getRowCount());
+    ingestBatchCount.addAndGet(batch.getBatchCount());
+    ingestCommitCount.addAndGet(batch.getCommitCount());
+    ingestCacheHitCount.addAndGet(batch.getCacheHitCount());
+    ingestCacheMissCount.addAndGet(batch.getCacheMissCount());
+    ingestTime.addAndGet(batch.getElapsedTime());
+  }
+
+  /**
+   * Provides the accumulated statistics of the batched ingest jobs.
+   * 
+   * @return a Map<String, Object> with the statistic values keyed by their
+   *         names, in display order.
+   */
+  public Map<String, Object> getIngestStatistics() {
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+    long items = ingestItemCount.get();
+    long rows = ingestRowCount.get();
+    long time = ingestTime.get();
+
+    stats.put("Jobs", ingestJobCount.get());
+    stats.put("Metadata items", items);
+    stats.put("Rows written", rows);
+    stats.put("JDBC batches", ingestBatchCount.get());
+    stats.put("Commits", ingestCommitCount.get());
+    stats.put("Cache hits", ingestCacheHitCount.get());
+    stats.put("Cache misses", ingestCacheMissCount.get());
+    stats.put("Time (ms)", time);
+
+    if (time > 0) {
+      stats.put("Metadata items/sec", (items * 1000) / time);
+      stats.put("Rows/sec", (rows * 1000) / time);
+    }
+
+    return stats;
+  }
+
   /**
    * Provides the identifier of a publisher if existing or after creating it
    * otherwise.
@@ -256,7 +256,7 @@ public class MetadataManagerSql {
       + " where " + MD_ITEM_SEQ_COLUMN + " = ?";
 
   // Query to add a metadata item name.
-  private static final String INSERT_MD_ITEM_NAME_QUERY = "insert into "
+  static final String INSERT_MD_ITEM_NAME_QUERY = "insert into "
       + MD_ITEM_NAME_TABLE
       + "(" + MD_ITEM_SEQ_COLUMN
       + "," + NAME_COLUMN
@@ -264,7 +264,7 @@ public class MetadataManagerSql {
       + ") values (?,?,?)";
 
   // Query to add a metadata item URL.
-  private static final String INSERT_URL_QUERY = "insert into "
+  static final String INSERT_URL_QUERY = "insert into "
       + URL_TABLE
       + "(" + MD_ITEM_SEQ_COLUMN
       + "," + FEATURE_COLUMN
@@ -272,7 +272,7 @@ public class MetadataManagerSql {
       + ") values (?,?,?)";
 
   // Query to add a metadata item DOI.
-  private static final String INSERT_DOI_QUERY = "insert into "
+  static final String INSERT_DOI_QUERY = "insert into "
       + DOI_TABLE
       + "(" + MD_ITEM_SEQ_COLUMN
       + "," + DOI_COLUMN
@@ -0,0 +1,174 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.plugin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimeUtil;
+
+/**
+ * Progress of starting the configured AUs at daemon startup, for the
+ * status page and log.  Counters are updated concurrently by the threads
+ * starting AUs.
+ */
+public class AuStartupProgress {
+
+  private final int threads;
+  private final long startTime;
+  private volatile long endTime = 0;
+  // Number of AU configs expected, -1 if not known in advance
+  private volatile int expected = -1;
+  private final AtomicInteger numRead = new AtomicInteger();
+  private final AtomicInteger numStarted = new AtomicInteger();
+  private final AtomicInteger numNotStarted = new AtomicInteger();
+
+  AuStartupProgress(int threads) {
+    this.threads = threads;
+    this.startTime = TimeBase.nowMs();
+  }
+
+  void setExpected(int expected) {
+    this.expected = expected;
+  }
+
+  /** Record that an AU config has been read */
+  void auRead() {
+    numRead.incrementAndGet();
+  }
+
+  /** Record that an AU has been processed.
+   * @param running true if the AU is now running, false if it was
+   * disabled or couldn't be started */
+  void auDone(boolean running) {
+    if (running) {
+      numStarted.incrementAndGet();
+    } else {
+      numNotStarted.incrementAndGet();
+    }
+  }
+
+  /** Record that all AUs have been processed */
+  void finished() {
+    endTime = TimeBase.nowMs();
+  }
+
+  /** Return the number of threads starting AUs */
+  public int getThreads() {
+    return threads;
+  }
+
+  public boolean isRunning() {
+    return endTime == 0;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /** Return the time taken so far, or in total if finished */
+  public long getElapsed() {
+    long end = endTime;
+    return (end == 0 ? TimeBase.nowMs() : end) - startTime;
+  }
+
+  /** Return the total number of AUs to process, -1 if not known */
+  public int getTotal() {
+    int read = numRead.get();
+    if (!isRunning()) {
+      return read;
+    }
+    int exp = expected;
+    // AUs may have been added since they were counted
+    return exp < 0 ? -1 : Math.max(exp, read);
+  }
+
+  public int getNumRead() {
+    return numRead.get();
+  }
+
+  /** Return the number of AUs now running */
+  public int getNumStarted() {
+    return numStarted.get();
+  }
+
+  /** Return the number of AUs that were disabled or failed to start */
+  public int getNumNotStarted() {
+    return numNotStarted.get();
+  }
+
+  public int getNumDone() {
+    return numStarted.get() + numNotStarted.get();
+  }
+
+  /** Return the average number of AUs processed per second */
+  public double getRate() {
+    long elapsed = getElapsed();
+    if (elapsed <= 0) {
+      return 0.0;
+    }
+    return getNumDone() * 1000.0 / elapsed;
+  }
+
+  /** Return the estimated time until all AUs have been processed, 0 if
+   * finished, -1 if it can't yet be estimated */
+  public long getEta() {
+    if (!isRunning()) {
+      return 0;
+    }
+    int total = getTotal();
+    int done = getNumDone();
+    if (total < 0 || done == 0) {
+      return -1;
+    }
+    return Math.max(0, (long)((total - done) * (double)getElapsed() / done));
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    int total = getTotal();
+    sb.append(getNumDone());
+    if (total >= 0) {
+      sb.append(" of ");
+      sb.append(total);
+    }
+    sb.append(" AUs processed (");
+    sb.append(getNumStarted());
+    sb.append(" running) in ");
+    sb.append(TimeUtil.timeIntervalToString(getElapsed()));
+    sb.append(", ");
+    sb.append(String.format("%.1f", getRate()));
+    sb.append("/sec");
+    long eta = getEta();
+    if (eta > 0) {
+      sb.append(", ETA ");
+      sb.append(TimeUtil.timeIntervalToString(eta));
+    }
+    return sb.toString();
+  }
+}
@@ -69,6 +69,10 @@ import org.lockss.laaws.rs.model.*;
 public class AuUtil {
 	
   private static final Logger log = Logger.getLogger();
+
+  private static final ParamHandle.BooleanParam useRawContentTypeParam =
+    CurrentConfig.booleanParam(BaseCachedUrl.PARAM_USE_RAW_CONTENT_TYPE,
+                               BaseCachedUrl.DEFAULT_USE_RAW_CONTENT_TYPE);
   
   /** The default poll protocol to use, unless otherwise overridden by the
    * Archival Unit's poll_protocol config param.=
@@ -440,16 +444,53 @@ public class AuUtil {
     return dpis;
   }
 
+  /** Return the AU statistics cache, or null if it's disabled or
+   * unavailable */
+  public static AuStatsCache getAuStatsCache(ArchivalUnit au) {
+    Plugin plugin = au.getPlugin();
+    LockssDaemon daemon = plugin != null ? plugin.getDaemon() : null;
+    if (daemon == null) {
+      return null;
+    }
+    RepositoryManager repoMgr = daemon.getRepositoryManager();
+    if (repoMgr == null || !repoMgr.getAuStatsCache().isEnabled()) {
+      return null;
+    }
+    return repoMgr.getAuStatsCache();
+  }
+
   /**
    * Return the size of the AU, calculating it if necessary.
    * @param au the AU
+   * @param calcIfUnknown if true and the cached size is unknown, the AU's
+   * statistics are calculated and cached; if false the size is calculated
+   * but not cached
    * @return the AU's total content size.
    */
   public static long getAuContentSize(ArchivalUnit au,
 				      boolean calcIfUnknown) {
+    AuStatsCache statsCache = getAuStatsCache(au);
+    if (statsCache != null) {
+      return statsCache.getContentSize(au, calcIfUnknown);
+    }
     return au.getAuCachedUrlSet().getContentSize();
   }
 
+  /**
+   * Return the number of URLs in the AU that have content.
+   * @param au the AU
+   * @param calcIfUnknown if true, the count will be calculated if
+   * unknown (time consuming)
+   * @return the number of URLs, or -1 if unknown
+   */
+  public static long getAuUrlCount(ArchivalUnit au, boolean calcIfUnknown) {
+    AuStatsCache statsCache = getAuStatsCache(au);
+    if (statsCache != null) {
+      return statsCache.getUrlCount(au, calcIfUnknown);
+    }
+    return -1;
+  }
+
   public static long calculateCusContentSize(Iterable<CachedUrl> coll) {
     long tot = 0;
     for (CachedUrl cu : coll) {
@@ -468,8 +509,13 @@ public class AuUtil {
    * (time consumeing)
    * @return the AU's disk usage in bytes.
    */
-  // XXXREPO
+  // XXXREPO - this is the size of all versions, not including
+  // repository overhead
   public static long getAuDiskUsage(ArchivalUnit au, boolean calcIfUnknown) {
+    AuStatsCache statsCache = getAuStatsCache(au);
+    if (statsCache != null) {
+      return statsCache.getDiskUsage(au, calcIfUnknown);
+    }
     return -1;
   }
 
@@ -903,9 +949,7 @@ public class AuUtil {
     String res = null;
     if (props != null) {
       res = props.getProperty(CachedUrl.PROPERTY_CONTENT_TYPE);
-      if (res == null &&
-	  CurrentConfig.getBooleanParam(BaseCachedUrl.PARAM_USE_RAW_CONTENT_TYPE,
-					BaseCachedUrl.DEFAULT_USE_RAW_CONTENT_TYPE)) {
+      if (res == null && useRawContentTypeParam.get()) {
 	res = props.getProperty("Content-Type");
       }
     }
@@ -33,6 +33,19 @@ import java.net.*;
 import java.security.KeyStore;
 import java.sql.Connection;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.*;
 import java.util.regex.*;
 import java.util.stream.*;
@@ -52,6 +65,7 @@ import org.lockss.repository.*;
 import org.lockss.laaws.rs.model.*;
 import org.lockss.util.rest.exception.LockssRestException;
 import org.lockss.state.AuState;
+import org.lockss.state.StateManager;
 import org.lockss.util.*;
 import org.lockss.util.io.FileUtil;
 import org.lockss.util.time.Deadline;
@@ -244,6 +258,35 @@ public class PluginManager
   public static final String DEFAULT_PREFERRED_PLUGIN_TYPE =
     "xml";
 
+  static final String AU_STARTUP_PREFIX = PREFIX + "auStartup.";
+
+  /** Number of threads used to start the configured AUs at daemon
+   * startup.  If 1, AUs are started one at a time by the thread that
+   * reads their configurations. */
+  public static final String PARAM_AU_STARTUP_THREADS =
+    AU_STARTUP_PREFIX + "threads";
+  public static final int DEFAULT_AU_STARTUP_THREADS = 1;
+
+  /** The max number of AUs started as a batch.  With multiple threads,
+   * the AUs of a batch belong to a single plugin and are handed to a
+   * thread at once.  The StateManager is given the chance to prefetch the
+   * state of each batch's AUs before they're started. */
+  public static final String PARAM_AU_STARTUP_BATCH_SIZE =
+    AU_STARTUP_PREFIX + "batchSize";
+  public static final int DEFAULT_AU_STARTUP_BATCH_SIZE = 50;
+
+  /** The max number of AU configurations read from the database at once.
+   * Each chunk is read in full, and its cursor closed, before its AUs are
+   * started. */
+  public static final String PARAM_AU_STARTUP_READ_CHUNK_SIZE =
+    AU_STARTUP_PREFIX + "readChunkSize";
+  public static final int DEFAULT_AU_STARTUP_READ_CHUNK_SIZE = 1000;
+
+  /** Interval at which AU startup progress is logged. */
+  public static final String PARAM_AU_STARTUP_LOG_INTERVAL =
+    AU_STARTUP_PREFIX + "logInterval";
+  public static final long DEFAULT_AU_STARTUP_LOG_INTERVAL = Constants.MINUTE;
+
   static final String AU_SEARCH_SET_PREFIX = PREFIX + "auSearch.";
 
   /** If true, use V2 repo index to search for cached URL */
@@ -424,8 +467,19 @@ public class PluginManager
 
   // maps host to collections of AUs.  Used to quickly locate candidate AUs
   // for incoming URLs.  Each collection is sorted in AU order (for proxy
-  // manifest index display).
-  private Map<String,AuSearchSet> hostAus = new HashMap<String,AuSearchSet>();
+  // manifest index display).  Lookups are lock-free; additions and
+  // removals are serialized by hostAusLock so that an AuSearchSet that
+  // has just become empty can't be removed while an AU is being added to
+  // it.
+  private final ConcurrentMap<String,AuSearchSet> hostAus =
+    new ConcurrentHashMap<String,AuSearchSet>();
+  private final ReentrantLock hostAusLock = new ReentrantLock();
+
+  // hostAusLock contention metrics
+  private final AtomicLong stemLockAcquisitions = new AtomicLong();
+  private final AtomicLong stemLockContentions = new AtomicLong();
+  private final AtomicLong stemLockWaitNanos = new AtomicLong();
+  private final AtomicLong maxStemLockWaitNanos = new AtomicLong();
 
   private Set<String> inactiveAuIds =
       Collections.synchronizedSet(new HashSet<String>());
@@ -468,6 +522,13 @@ public class PluginManager
     DEFAULT_PREVENT_CONCURRENT_SEARCHES;
 
   private boolean paramStartAllAus = DEFAULT_START_ALL_AUS;
+  private int paramAuStartupThreads = DEFAULT_AU_STARTUP_THREADS;
+  private int paramAuStartupBatchSize = DEFAULT_AU_STARTUP_BATCH_SIZE;
+  private int paramAuStartupReadChunkSize =
+    DEFAULT_AU_STARTUP_READ_CHUNK_SIZE;
+  private long paramAuStartupLogInterval = DEFAULT_AU_STARTUP_LOG_INTERVAL;
+  private volatile AuStartupProgress auStartupProgress;
+  private long lastAuStartupLog;
   private boolean paramInferConfigFromAuId = DEFAULT_INFER_CONFIG_FROM_AUID;
   private boolean paramLoadAllPlugins = DEFAULT_LOAD_ALL_PLUGINS;
 
@@ -512,6 +573,7 @@ public class PluginManager
     PluginStatus.register(getDaemon(), this);
     // watch for changes to plugin registry AUs and AUs with stems in hostAus
     registerAuEventHandler(myAuEventHandler);
+    registerAuEventHandler(urlAuIndex);
     if (enableJmsNotifications) {
       startJms();
     }
@@ -548,6 +610,8 @@ public class PluginManager
     auEventHandlers = new ArrayList<AuEventHandler>();
     PluginStatus.unregister(getDaemon());
     unregisterAuEventHandler(myAuEventHandler);
+    unregisterAuEventHandler(urlAuIndex);
+    urlAuIndex.stopService();
     super.stopService();
   }
 
@@ -655,6 +719,21 @@ public class PluginManager
 	initKeystore(configMgr.getCurrentConfig());
       }
 
+      if (changedKeys.contains(AU_STARTUP_PREFIX)) {
+	paramAuStartupThreads =
+	  Math.max(1, config.getInt(PARAM_AU_STARTUP_THREADS,
+				    DEFAULT_AU_STARTUP_THREADS));
+	paramAuStartupBatchSize =
+	  Math.max(1, config.getInt(PARAM_AU_STARTUP_BATCH_SIZE,
+				    DEFAULT_AU_STARTUP_BATCH_SIZE));
+	paramAuStartupReadChunkSize =
+	  Math.max(1, config.getInt(PARAM_AU_STARTUP_READ_CHUNK_SIZE,
+				    DEFAULT_AU_STARTUP_READ_CHUNK_SIZE));
+	paramAuStartupLogInterval =
+	  config.getTimeInterval(PARAM_AU_STARTUP_LOG_INTERVAL,
+				 DEFAULT_AU_STARTUP_LOG_INTERVAL);
+      }
+
       if (changedKeys.contains(AU_SEARCH_SET_PREFIX)) {
         paramAuSearchUseV2Repo =
           config.getBoolean(PARAM_AU_SEARCH_USE_V2_REPO,
@@ -665,10 +744,8 @@ public class PluginManager
 	func = config.get(PARAM_AU_SEARCH_404_CACHE_SIZE,
 				 DEFAULT_AU_SEARCH_404_CACHE_SIZE);
 	auSearch404CacheSizeFunc = new IntStepFunction(func);
-	synchronized (hostAus) {
-	  for (Map.Entry<String,AuSearchSet> ent : hostAus.entrySet()) {
-	    ent.getValue().setConfig(config, oldConfig, changedKeys);
-	  }
+	for (AuSearchSet searchSet : hostAus.values()) {
+	  searchSet.setConfig(config, oldConfig, changedKeys);
 	}
 	paramMinDiskSearchesFor404Cache =
 	  config.getInt(PARAM_AU_SEARCH_MIN_DISK_SEARCHES_FOR_404_CACHE,
@@ -676,6 +753,7 @@ public class PluginManager
 	paramPreventConcurrentSearches =
 	  config.getBoolean(PARAM_PREVENT_CONCURRENT_SEARCHES,
 			    DEFAULT_PREVENT_CONCURRENT_SEARCHES);
+	urlAuIndex.setConfig(config, oldConfig, changedKeys);
       }
 
       useDefaultPluginRegistries =
@@ -782,50 +860,352 @@ public class PluginManager
   private enum SkipConfigCondition {ConfigUnchanged, AuRunning};
 
   /**
-   * Configures all the Archival Units.
+   * Configures all the Archival Units.  Their configurations are read from
+   * the database in chunks of {@link #PARAM_AU_STARTUP_READ_CHUNK_SIZE},
+   * and no cursor is open while the AUs of a chunk are started, in batches
+   * either serially or, if {@link #PARAM_AU_STARTUP_THREADS} is greater
+   * than 1, by a {@link ParallelAuStartup}.
    */
   private void configureAllArchivalUnits() {
-    Collection<AuConfiguration> auConfigurations = null;
-
     if (isStartAusOnDemand()) {
       log.debug("In on-demand mode, Not starting AUs");
       return;
     }
 
-    // Get the configurations of all the Archival Units.
+    final AuStartupProgress progress =
+      new AuStartupProgress(paramAuStartupThreads);
+    auStartupProgress = progress;
+    lastAuStartupLog = TimeBase.nowMs();
     try {
-      auConfigurations = configMgr.retrieveAllArchivalUnitConfiguration();
+      progress.setExpected(configMgr.countArchivalUnitConfigurations());
     } catch (DbException dbe) {
-      log.critical(
-	  "Error getting Archival Unit configurations: Not starting AUs",
-	  dbe);
-      return;
+      log.warning("Couldn't count Archival Unit configurations", dbe);
+    }
+    log.info("Starting " +
+	     (progress.getTotal() >= 0 ? progress.getTotal() + " " : "") +
+	     "AUs with " +
+	     StringUtil.numberOfUnits(paramAuStartupThreads, "thread"));
+
+    final ParallelAuStartup parallel =
+      paramAuStartupThreads > 1 ? new ParallelAuStartup(progress) : null;
+    final List<AuConfiguration> serialBatch =
+      new ArrayList<AuConfiguration>();
+
+    // Process each Archival Unit configuration of each chunk as it's read.
+    try {
+      configMgr.processAllArchivalUnitConfiguration(paramAuStartupReadChunkSize,
+						    auConfiguration -> {
+	  if (log.isDebug3())
+	    log.debug3("auConfiguration = " + auConfiguration);
+	  progress.auRead();
+	  if (parallel != null) {
+	    parallel.add(auConfiguration);
+	  } else {
+	    serialBatch.add(auConfiguration);
+	    if (serialBatch.size() >= paramAuStartupBatchSize) {
+	      startAuSerialBatch(serialBatch, progress);
+	    }
+	  }
+	  logAuStartupProgress(progress, false);
+	});
+    } catch (DbException dbe) {
+      log.critical("Error getting Archival Unit configurations: "
+		   + "Not starting remaining AUs", dbe);
     } catch (LockssRestException lre) {
-      log.critical(
-	  "Error getting Archival Unit configurations: Not starting AUs",
-	  lre);
-      return;
+      log.critical("Error getting Archival Unit configurations: "
+		   + "Not starting remaining AUs", lre);
     } catch (IOException ioe) {
-      log.critical(
-	  "Error getting Archival Unit configurations: Not starting AUs",
-	  ioe);
+      log.critical("Error getting Archival Unit configurations: "
+		   + "Not starting remaining AUs", ioe);
+    } finally {
+      if (parallel != null) {
+	parallel.finish();
+      } else {
+	startAuSerialBatch(serialBatch, progress);
+      }
+      progress.finished();
+      logAuStartupProgress(progress, true);
+    }
+  }
+
+  /** Start, in the calling thread, the AUs accumulated in the batch, then
+   * clear it */
+  private void startAuSerialBatch(List<AuConfiguration> batch,
+				  AuStartupProgress progress) {
+    prefetchAuState(batch);
+    List<String> notRunning = new ArrayList<String>();
+    for (AuConfiguration auConfiguration : batch) {
+      boolean running =
+	startOrReconfigureAu(auConfiguration,
+			     SkipConfigCondition.ConfigUnchanged);
+      if (!running) {
+	notRunning.add(auConfiguration.getAuId());
+      }
+      progress.auDone(running);
+    }
+    discardPrefetchedAuState(notRunning);
+    batch.clear();
+  }
+
+  /** Tell the StateManager that the state of the AUs in the batch is
+   * about to be needed, so that it can load it in bulk.  Disabled AUs
+   * won't be started so are omitted. */
+  private void prefetchAuState(List<AuConfiguration> batch) {
+    String stateMgrKey = LockssApp.managerKey(StateManager.class);
+    if (batch.isEmpty() || !getDaemon().hasManagerByKey(stateMgrKey)) {
+      return;
+    }
+    List<String> auIds = new ArrayList<String>(batch.size());
+    for (AuConfiguration auConfiguration : batch) {
+      if (!AuConfigurationUtils.toUnprefixedConfiguration(auConfiguration)
+	  .getBoolean(AU_PARAM_DISABLED, false)) {
+	auIds.add(auConfiguration.getAuId());
+      }
+    }
+    if (auIds.isEmpty()) {
+      return;
+    }
+    try {
+      ((StateManager)getDaemon().getManagerByKey(stateMgrKey))
+	.prefetchState(auIds);
+    } catch (RuntimeException e) {
+      log.warning("Couldn't prefetch AU state", e);
+    }
+  }
+
+  /** Tell the StateManager that the AUs weren't started, so that it can
+   * discard any state it prefetched for them */
+  private void discardPrefetchedAuState(List<String> auIds) {
+    String stateMgrKey = LockssApp.managerKey(StateManager.class);
+    if (auIds.isEmpty() || !getDaemon().hasManagerByKey(stateMgrKey)) {
       return;
     }
+    try {
+      ((StateManager)getDaemon().getManagerByKey(stateMgrKey))
+	.discardPrefetchedState(auIds);
+    } catch (RuntimeException e) {
+      log.warning("Couldn't discard prefetched AU state", e);
+    }
+  }
 
-    if (log.isDebug3())
-      log.debug3("auConfigurations.size() = " + auConfigurations.size());
+  /** Log startup progress if the log interval has elapsed, or if force
+   * is true */
+  private void logAuStartupProgress(AuStartupProgress progress,
+				    boolean force) {
+    if (force ||
+	TimeBase.msSince(lastAuStartupLog) >= paramAuStartupLogInterval) {
+      log.info((progress.isRunning() ? "Starting AUs: " : "Started AUs: ")
+	       + progress);
+      lastAuStartupLog = TimeBase.nowMs();
+    }
+  }
 
-    // Loop over each Archival Unit configuration.
-    for (AuConfiguration auConfiguration : auConfigurations) {
-      if (log.isDebug3()) log.debug3("auConfiguration = " + auConfiguration);
+  /** Return the progress of starting AUs at daemon startup, or null if
+   * that hasn't begun */
+  public AuStartupProgress getAuStartupProgress() {
+    return auStartupProgress;
+  }
 
-      startOrReconfigureAu(auConfiguration,
-			   SkipConfigCondition.ConfigUnchanged);
+  /**
+   * Starts AUs on a bounded pool of threads.  AU configurations are
+   * grouped into per-plugin batches, so that each task loads or checks
+   * its plugin once, and the number of batches waiting or running is
+   * bounded, so that configurations aren't read from the database faster
+   * than AUs can be started.  Configurations are read in chunks, so
+   * waiting for a slot doesn't hold a database cursor open.  {@link #add(AuConfiguration)} and {@link
+   * #finish()} must be called from a single thread.
+   */
+  private class ParallelAuStartup {
+    private final AuStartupProgress progress;
+    private final int batchSize = paramAuStartupBatchSize;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    // Maps plugin key to batch of AUs not yet submitted
+    private final Map<String,List<AuConfiguration>> batches =
+      new HashMap<String,List<AuConfiguration>>();
+
+    ParallelAuStartup(AuStartupProgress progress) {
+      this.progress = progress;
+      int threads = progress.getThreads();
+      executor =
+	new ThreadPoolExecutor(threads, threads,
+			       60, TimeUnit.SECONDS,
+			       new LinkedBlockingQueue<Runnable>(),
+			       new ThreadFactory() {
+				 AtomicInteger n = new AtomicInteger();
+				 public Thread newThread(Runnable r) {
+				   Thread th =
+				     new Thread(r, "AuStartup-" +
+						n.incrementAndGet());
+				   th.setDaemon(true);
+				   return th;
+				 }});
+      slots = new Semaphore(2 * threads);
+    }
+
+    void add(AuConfiguration auConfiguration) {
+      String pluginKey = pluginIdFromAuId(auConfiguration.getAuId());
+      List<AuConfiguration> batch = batches.get(pluginKey);
+      if (batch == null) {
+	batch = new ArrayList<AuConfiguration>(batchSize);
+	batches.put(pluginKey, batch);
+      }
+      batch.add(auConfiguration);
+      if (batch.size() >= batchSize) {
+	batches.remove(pluginKey);
+	submit(pluginKey, batch);
+      }
+    }
+
+    /** Submit a batch, waiting if too many are already queued */
+    private void submit(final String pluginKey,
+			final List<AuConfiguration> batch) {
+      slots.acquireUninterruptibly();
+      try {
+	executor.execute(new Runnable() {
+	    public void run() {
+	      try {
+		startAuBatch(pluginKey, batch, progress);
+	      } finally {
+		slots.release();
+	      }
+	    }});
+      } catch (RejectedExecutionException e) {
+	slots.release();
+	log.warning("AU startup task rejected, running in caller", e);
+	startAuBatch(pluginKey, batch, progress);
+      }
+    }
+
+    /** Submit the remaining partial batches and wait for all AUs to be
+     * started */
+    void finish() {
+      for (Map.Entry<String,List<AuConfiguration>> ent : batches.entrySet()) {
+	submit(ent.getKey(), ent.getValue());
+      }
+      batches.clear();
+      executor.shutdown();
+      try {
+	while (!executor.awaitTermination(Math.max(paramAuStartupLogInterval,
+						   1),
+					  TimeUnit.MILLISECONDS)) {
+	  logAuStartupProgress(progress, false);
+	}
+      } catch (InterruptedException e) {
+	log.warning("Interrupted waiting for AUs to start");
+	executor.shutdownNow();
+	Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Start a batch of AUs of the same plugin.  Called by ParallelAuStartup
+   * threads. */
+  private void startAuBatch(String pluginKey, List<AuConfiguration> batch,
+			    AuStartupProgress progress) {
+    boolean loaded;
+    synchronized (auAddDelLock) {
+      loaded = ensurePluginLoaded(pluginKey);
+    }
+    if (!loaded) {
+      log.warning("Plugin " + pluginKey
+		  + " not loaded, not configuring its AUs");
+      for (int ix = batch.size(); ix > 0; ix--) {
+	progress.auDone(false);
+      }
+      return;
+    }
+    Plugin plugin = getPlugin(pluginKey);
+    prefetchAuState(batch);
+    List<String> notRunning = new ArrayList<String>();
+    for (AuConfiguration auConfiguration : batch) {
+      boolean running = false;
+      try {
+	running = startAuConcurrently(auConfiguration, plugin);
+      } catch (RuntimeException e) {
+	log.error("Unexpected exception starting AU "
+		  + auConfiguration.getAuId(), e);
+      } finally {
+	if (!running) {
+	  notRunning.add(auConfiguration.getAuId());
+	}
+	progress.auDone(running);
+      }
+    }
+    discardPrefetchedAuState(notRunning);
+  }
+
+  /**
+   * Start an AU at startup, concurrently with other AUs.  Checking for
+   * an existing AU, and registering the new one, are done under
+   * auAddDelLock, but the AU is created and its managers started without
+   * holding the lock.  AUs that are already running or are disabled are
+   * handled by {@link #startOrReconfigureAu(AuConfiguration,
+   * SkipConfigCondition)}.
+   * @return true if the AU is running
+   */
+  private boolean startAuConcurrently(AuConfiguration auConfiguration,
+				      Plugin plugin) {
+    String auId = auConfiguration.getAuId();
+    Configuration auConf =
+      AuConfigurationUtils.toUnprefixedConfiguration(auConfiguration);
+
+    synchronized (auAddDelLock) {
+      if (auMap.containsKey(auId) ||
+	  auConf.getBoolean(AU_PARAM_DISABLED, false)) {
+	return startOrReconfigureAu(auConfiguration,
+				    SkipConfigCondition.ConfigUnchanged);
+      }
     }
+
+    if (log.isDebug2()) log.debug2("Configuring AU id: " + auId);
+    if (!isStoredAuIdConsistent(plugin, auConf, auId)) {
+      return false;
+    }
+    ArchivalUnit au = null;
+    try {
+      au = plugin.configureAu(auConf, null);
+      checkConfiguredAu(au, null, auId);
+      startOrReconfigureAuManagers(au, auConf);
+    } catch (Exception e) {
+      log.error("Failed to configure AU " + auId, e);
+      if (au != null) {
+	discardUnregisteredAu(au);
+      }
+      return false;
+    }
+
+    synchronized (auAddDelLock) {
+      if (auMap.containsKey(auId)) {
+	// Started by another thread (e.g., auConfigChanged()) in the meantime
+	log.debug("AU started concurrently, discarding duplicate: " + auId);
+	discardUnregisteredAu(au);
+	return true;
+      }
+      log.debug("Configured AU " + au);
+      putAuInMap(au);
+      inactiveAuIds.remove(auId);
+      signalAuEvent(au, AuEvent.forAu(au, AuEvent.Type.StartupCreate));
+    }
+    return true;
   }
 
-  private void startOrReconfigureAu(AuConfiguration auConfiguration,
-				    SkipConfigCondition scc) {
+  /** Stop an AU that was created but never put in auMap */
+  private void discardUnregisteredAu(ArchivalUnit au) {
+    try {
+      au.getPlugin().stopAu(au);
+      getDaemon().stopAuManagers(au);
+    } catch (Exception e) {
+      log.warning("Error discarding AU " + au, e);
+    }
+  }
+
+  /**
+   * Starts or reconfigures an AU, if necessary.
+   * @return true if the AU is running
+   */
+  private boolean startOrReconfigureAu(AuConfiguration auConfiguration,
+				       SkipConfigCondition scc) {
     String auId = auConfiguration.getAuId();
     String pluginKey = pluginIdFromAuId(auId);
 
@@ -836,7 +1216,7 @@ public class PluginManager
 	// Yes: Do not configure this Archival Unit.
 	log.warning("Plugin " + pluginKey
 		    + " not loaded, not configuring its AUs");
-	return;
+	return false;
       }
 
       String auKey = PluginManager.auKeyFromAuId(auId);
@@ -853,7 +1233,7 @@ public class PluginManager
 	} else {
           inactiveAuIds.add(auId);
         }
-	return;
+	return false;
       }
 
       switch (scc) {
@@ -861,14 +1241,14 @@ public class PluginManager
 	if (curAu != null && auConf.equals(curAu.getConfiguration())) {
 	  if (log.isDebug3())
 	    log.debug3("AU already configured, not reconfiguring: " + auId);
-	  return;
+	  return true;
 	}
 	break;
       case AuRunning:
 	if (auMap.containsKey(auId)) {
 	  if (log.isDebug3())
 	    log.debug3("AU already running, not reconfiguring: " + auKey);
-	  return;
+	  return true;
 	}
 	log.debug2("Retrying previously unstarted AU id: " + auId);
 	break;
@@ -881,27 +1261,40 @@ public class PluginManager
 	Plugin plugin = getPlugin(pluginKey);
 
 	// Check the consistency of the Archival Unit configuration.
-	try {
-	  String genAuid = generateAuId(plugin, auConf);
-	  if (!auId.equals(genAuid)) {
-	    log.warning("Generated AUID " + genAuid +
-			" does not match stored AUID " + auId +
-			". Proceeding anyway.");
-	  }
-	} catch (RuntimeException e) {
-	  log.warning("Not configuring probable non-AU.  " +
-		      "Can't generate AUID from config: " + auConf);
-	  return;
+	if (!isStoredAuIdConsistent(plugin, auConf, auId)) {
+	  return false;
 	}
 
 	// Configure this Archival Unit.
 	configureAu(plugin, auConf, auId);
 	inactiveAuIds.remove(generateAuId(pluginKey, auKey));
+	return true;
       } catch (ArchivalUnit.ConfigurationException e) {
 	log.error("Failed to configure AU " + auId, e);
       } catch (Exception e) {
 	log.error("Unexpected exception configuring AU " + auKey, e);
       }
+      return false;
+    }
+  }
+
+  /** Return false if no AUID can be generated from the config, which
+   * likely means it isn't an AU.  A generated AUID that differs from the
+   * stored one is logged but allowed. */
+  private boolean isStoredAuIdConsistent(Plugin plugin, Configuration auConf,
+					 String auId) {
+    try {
+      String genAuid = generateAuId(plugin, auConf);
+      if (!auId.equals(genAuid)) {
+	log.warning("Generated AUID " + genAuid +
+		    " does not match stored AUID " + auId +
+		    ". Proceeding anyway.");
+      }
+      return true;
+    } catch (RuntimeException e) {
+      log.warning("Not configuring probable non-AU.  " +
+		  "Can't generate AUID from config: " + auConf);
+      return false;
     }
   }
 
@@ -1242,24 +1635,8 @@ public class PluginManager
 	}
       }
       ArchivalUnit au = plugin.configureAu(auConf, oldAu);
-      if (oldAu != null && oldAu != au) {
-	String msg = "Plugin created new AU: " + au +
-	  ", should have reconfigured old AU: " + oldAu;
-	throw new ArchivalUnit.ConfigurationException(msg);
-      }
-      if (!auId.equals(au.getAuId())) {
-	String msg = "Configured AU has unexpected AUID: " + au.getAuId() +
-	  ", expected: "+ auId;
-	throw new ArchivalUnit.ConfigurationException(msg);
-      }
-      if (!isAuContentFromWs()) {
-	try {
-	  getDaemon().startOrReconfigureAuManagers(au, auConf);
-	} catch (Exception e) {
-	  throw new ArchivalUnit.ConfigurationException(
-	      "Couldn't configure AU managers", e);
-	}
-      }
+      checkConfiguredAu(au, oldAu, auId);
+      startOrReconfigureAuManagers(au, auConf);
       if (oldAu != null) {
 	log.debug("Reconfigured AU " + au);
 	signalAuEvent(au,
@@ -1278,6 +1655,35 @@ public class PluginManager
     }
   }
 
+  /** Throw if the plugin didn't return the expected AU */
+  private void checkConfiguredAu(ArchivalUnit au, ArchivalUnit oldAu,
+				 String auId)
+      throws ArchivalUnit.ConfigurationException {
+    if (oldAu != null && oldAu != au) {
+      String msg = "Plugin created new AU: " + au +
+	", should have reconfigured old AU: " + oldAu;
+      throw new ArchivalUnit.ConfigurationException(msg);
+    }
+    if (!auId.equals(au.getAuId())) {
+      String msg = "Configured AU has unexpected AUID: " + au.getAuId() +
+	", expected: "+ auId;
+      throw new ArchivalUnit.ConfigurationException(msg);
+    }
+  }
+
+  private void startOrReconfigureAuManagers(ArchivalUnit au,
+					    Configuration auConf)
+      throws ArchivalUnit.ConfigurationException {
+    if (!isAuContentFromWs()) {
+      try {
+	getDaemon().startOrReconfigureAuManagers(au, auConf);
+      } catch (Exception e) {
+	throw new ArchivalUnit.ConfigurationException(
+	    "Couldn't configure AU managers", e);
+      }
+    }
+  }
+
   ArchivalUnit createAu(Plugin plugin, Configuration auConf, AuEvent event)
       throws ArchivalUnit.ConfigurationException {
     final String DEBUG_HEADER = "createAu(): ";
@@ -1749,10 +2155,13 @@ public class PluginManager
   public void addHostAus(ArchivalUnit au) {
     try {
       Collection<String> stems = normalizeStems(au.getUrlStems());
-      synchronized (hostAus) {
+      lockHostAus();
+      try {
 	for (String stem : stems) {
-	  addAuStem(stem, au);
+	  addAuStem0(stem, au);
 	}
+      } finally {
+	hostAusLock.unlock();
       }
     } catch (Exception e) {
       log.error("addHostAus()", e);
@@ -1762,10 +2171,13 @@ public class PluginManager
   private void delHostAus(ArchivalUnit au) {
     try {
       Collection<String> stems = normalizeStems(au.getUrlStems());
-      synchronized (hostAus) {
+      lockHostAus();
+      try {
 	for (String stem : stems) {
 	  delAuStem(stem, au);
 	}
+      } finally {
+	hostAusLock.unlock();
       }
     } catch (Exception e) {
       log.error("delHostAus()", e);
@@ -1773,6 +2185,16 @@ public class PluginManager
   }
 
   public void addAuStem(String stem, ArchivalUnit au) {
+    lockHostAus();
+    try {
+      addAuStem0(stem, au);
+    } finally {
+      hostAusLock.unlock();
+    }
+  }
+
+  // Must be called with hostAusLock held
+  private void addAuStem0(String stem, ArchivalUnit au) {
     log.debug2("Adding stem: " + stem + ", " + au);
     AuSearchSet searchSet = hostAus.get(stem);
     if (searchSet == null) {
@@ -1782,6 +2204,7 @@ public class PluginManager
     searchSet.addAu(au);
   }
 
+  // Must be called with hostAusLock held
   private void delAuStem(String stem, ArchivalUnit au) {
     log.debug2("Removing stem: " + stem + ", " + au);
     AuSearchSet searchSet = hostAus.get(stem);
@@ -1797,13 +2220,11 @@ public class PluginManager
     if (!isAuContentFromWs()) {
       try {
 	Collection<String> stems = normalizeStems(au.getUrlStems());
-	synchronized (hostAus) {
-	  for (String stem : stems) {
-	    AuSearchSet searchSet = hostAus.get(stem);
-	    if (searchSet != null) {
-	      if (log.isDebug2()) log.debug2("Flushing 404 cache for: " + stem);
-	      searchSet.flush404Cache();
-	    }
+	for (String stem : stems) {
+	  AuSearchSet searchSet = hostAus.get(stem);
+	  if (searchSet != null) {
+	    if (log.isDebug2()) log.debug2("Flushing 404 cache for: " + stem);
+	    searchSet.flush404Cache();
 	  }
 	}
       } catch (Exception e) {
@@ -1818,12 +2239,10 @@ public class PluginManager
   public void promoteAuInSearchSets(ArchivalUnit au) {
     try {
       Collection<String> stems = normalizeStems(au.getUrlStems());
-      synchronized (hostAus) {
-	for (String stem : stems) {
-	  AuSearchSet searchSet = hostAus.get(stem);
-	  if (searchSet != null) {
-	    makeFirstCandidate(searchSet, au);
-	  }
+      for (String stem : stems) {
+	AuSearchSet searchSet = hostAus.get(stem);
+	if (searchSet != null) {
+	  makeFirstCandidate(searchSet, au);
 	}
       }
     } catch (Exception e) {
@@ -1831,6 +2250,49 @@ public class PluginManager
     }
   }
 
+  /** Acquire hostAusLock, recording contention metrics.  Caller must
+   * release it in a finally block. */
+  private void lockHostAus() {
+    stemLockAcquisitions.incrementAndGet();
+    if (!hostAusLock.tryLock()) {
+      stemLockContentions.incrementAndGet();
+      long start = System.nanoTime();
+      hostAusLock.lock();
+      long wait = System.nanoTime() - start;
+      stemLockWaitNanos.addAndGet(wait);
+      updateMax(maxStemLockWaitNanos, wait);
+    }
+  }
+
+  private static void updateMax(AtomicLong max, long val) {
+    long cur;
+    while (val > (cur = max.get()) && !max.compareAndSet(cur, val)) {
+    }
+  }
+
+  /** Return the number of times the stem map update lock was acquired */
+  public long getStemLockAcquisitions() {
+    return stemLockAcquisitions.get();
+  }
+
+  /** Return the number of times the stem map update lock was held by
+   * another thread when requested */
+  public long getStemLockContentions() {
+    return stemLockContentions.get();
+  }
+
+  /** Return the total time spent waiting for the stem map update lock, in
+   * ms */
+  public long getStemLockWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(stemLockWaitNanos.get());
+  }
+
+  /** Return the longest time spent waiting for the stem map update lock,
+   * in ms */
+  public long getMaxStemLockWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(maxStemLockWaitNanos.get());
+  }
+
   private List<String> normalizeStems(final Collection<String> stems)
       throws MalformedURLException {
     return new ArrayList<String>() {{
@@ -2629,13 +3091,11 @@ public class PluginManager
   }
 
   public Collection<ArchivalUnit> getCandidateAusFromStem(String normStem) {
-    synchronized (hostAus) {
-      AuSearchSet searchSet = hostAus.get(normStem);
-      if (searchSet != null) {
-	return searchSet.getSortedAus();
-      }
-      return Collections.EMPTY_LIST;
+    AuSearchSet searchSet = hostAus.get(normStem);
+    if (searchSet != null) {
+      return searchSet.getSortedAus();
     }
+    return Collections.EMPTY_LIST;
   }  
 
   /** Return a collection of all AUs that have content on the host of this
@@ -2645,22 +3105,18 @@ public class PluginManager
   //  XXX Should do something about the redundant normalization involved in
   // calling more than one of these methods
   public SortedSet<ArchivalUnit> getAllStems() {
-    synchronized (hostAus) {
-      return new TreeSet(hostAus.keySet());
-    }
+    return new TreeSet(hostAus.keySet());
   }
 
   // Return  list of candiate AUs, used only for testing
   List<ArchivalUnit> getRawCandidateAus(String url) 
       throws MalformedURLException {
     String normStem = UrlUtil.getUrlPrefix(UrlUtil.normalizeUrl(url));
-    synchronized (hostAus) {
-      AuSearchSet searchSet = hostAus.get(normStem);
-      if (searchSet == null) {
-	return Collections.EMPTY_LIST;
-      }
-      return ListUtil.fromIterator(searchSet.iterator());
+    AuSearchSet searchSet = hostAus.get(normStem);
+    if (searchSet == null) {
+      return Collections.EMPTY_LIST;
     }
+    return ListUtil.fromIterator(searchSet.iterator());
   }
 
   /** Content requirements of the CU being searched for.  Some callers
@@ -2723,9 +3179,10 @@ public class PluginManager
   }
 
   private Map<String,RecentCu> recentCuMap = new LRUMap(20);
+  private UrlAuIndex urlAuIndex = new UrlAuIndex(this);
   private int recentCuHits = 0;
   private int recentCuMisses = 0;
-  private int recent404Hits = 0;
+  private final AtomicInteger recent404Hits = new AtomicInteger();
 
   public int getRecentCuHits() {
     return recentCuHits;
@@ -2736,7 +3193,13 @@ public class PluginManager
   }
 
   public int getRecent404Hits() {
-    return recent404Hits;
+    return recent404Hits.get();
+  }
+
+  /** Return the index used to avoid repository searches for URLs that
+   * aren't in an AU */
+  public UrlAuIndex getUrlAuIndex() {
+    return urlAuIndex;
   }
 
   public void flushRecentCuCache() {
@@ -2746,12 +3209,12 @@ public class PluginManager
   }
 
   /** Describes a search in progress and provides a way to wait for its
-   * result. */
+   * result.  The result future is shared by all threads waiting for the
+   * same search. */
   class UrlSearch {
     String url;
     CuContentReq contentReq;
-    OneShotSemaphore sem = new OneShotSemaphore();
-    CachedUrl result;
+    final CompletableFuture<CachedUrl> result = new CompletableFuture<>();
 
     UrlSearch(String url, CuContentReq contentReq) {
       this.url = url;
@@ -2765,22 +3228,24 @@ public class PluginManager
     }
 
     boolean hasResult() {
-      return sem.isFull();
+      return result.isDone();
     }
 
     CachedUrl getResult() {
       try {
-	sem.waitFull(Deadline.MAX);
+	return result.get();
       } catch (InterruptedException e) {
-	log.warning("UrlSearch timeout, shouldn't happen: " + url);
+	log.warning("UrlSearch interrupted, shouldn't happen: " + url);
+	return null;
+      } catch (ExecutionException e) {
+	// putResult() never completes exceptionally
+	log.warning("UrlSearch failed: " + url, e);
 	return null;
       }
-      return result;
     }
 
     void putResult(CachedUrl res) {
-      this.result = res;
-      sem.fill();
+      result.complete(res);
     }
 
     public boolean equals(Object obj) {
@@ -2800,22 +3265,44 @@ public class PluginManager
     }
   }
 
-  private Map<UrlSearch,UrlSearch> currentUrlSearches =
-    new HashMap<UrlSearch,UrlSearch>();
-  private int curSearchWaits = 0;
-  private int curSearchRes404 = 0;
-  private int curSearchResCu = 0;
+  private final ConcurrentMap<UrlSearch,UrlSearch> currentUrlSearches =
+    new ConcurrentHashMap<UrlSearch,UrlSearch>();
+  private final AtomicInteger curSearchWaits = new AtomicInteger();
+  private final AtomicInteger curSearchRes404 = new AtomicInteger();
+  private final AtomicInteger curSearchResCu = new AtomicInteger();
+  private final AtomicLong curSearchWaitNanos = new AtomicLong();
+  private final AtomicLong maxCurSearchWaitNanos = new AtomicLong();
 
-  int getUrlSearchWaits() {
-    return curSearchWaits;
+  /** Return the number of searches that waited for the result of an
+   * identical search already in progress */
+  public int getUrlSearchWaits() {
+    return curSearchWaits.get();
   }
 
-  int getUrlSearchRes404() {
-    return curSearchRes404;
+  /** Return the number of coalesced searches that found nothing */
+  public int getUrlSearchRes404() {
+    return curSearchRes404.get();
   }
 
-  int getUrlSearchResCu() {
-    return curSearchResCu;
+  /** Return the number of coalesced searches that found a CU */
+  public int getUrlSearchResCu() {
+    return curSearchResCu.get();
+  }
+
+  /** Return the total time spent waiting for concurrent searches, in ms */
+  public long getUrlSearchWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(curSearchWaitNanos.get());
+  }
+
+  /** Return the longest time spent waiting for a concurrent search, in
+   * ms */
+  public long getMaxUrlSearchWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(maxCurSearchWaitNanos.get());
+  }
+
+  /** Return the number of searches currently in progress */
+  public int getNumCurrentUrlSearches() {
+    return currentUrlSearches.size();
   }
 
   /**
@@ -2880,26 +3367,25 @@ public class PluginManager
     CachedUrl cu = null;
     if (paramPreventConcurrentSearches) {
       UrlSearch newSearch = new UrlSearch(url, contentReq);
-      UrlSearch oldSearch;
-      synchronized (currentUrlSearches) {
-	oldSearch = currentUrlSearches.get(newSearch);
-	if (oldSearch == null) {
-	  currentUrlSearches.put(newSearch, newSearch);
-	}
-      }
+      UrlSearch oldSearch = currentUrlSearches.putIfAbsent(newSearch,
+							   newSearch);
       if (oldSearch != null) {
 	if (log.isDebug2()) {
 	  log.debug2("Waiting for result from concurrent search: " + url);
 	}
-	curSearchWaits++;
+	curSearchWaits.incrementAndGet();
+	long start = System.nanoTime();
 	CachedUrl oldRes = oldSearch.getResult();
+	long wait = System.nanoTime() - start;
+	curSearchWaitNanos.addAndGet(wait);
+	updateMax(maxCurSearchWaitNanos, wait);
 	if (log.isDebug2()) {
 	  log.debug2("Got result: " + oldRes);
 	}
 	if (oldRes == null) {
-	  curSearchRes404++;
+	  curSearchRes404.incrementAndGet();
 	} else {
-	  curSearchResCu++;
+	  curSearchResCu.incrementAndGet();
 	}
 	return oldRes;
       }
@@ -2907,9 +3393,7 @@ public class PluginManager
 	cu = findTheCachedUrl0(url, contentReq);
       } finally {
 	newSearch.putResult(cu);
-	synchronized (currentUrlSearches) {
-	  currentUrlSearches.remove(newSearch);
-	}
+	currentUrlSearches.remove(newSearch, newSearch);
       }
     } else {
       cu = findTheCachedUrl0(url, contentReq);
@@ -2950,6 +3434,7 @@ public class PluginManager
     int v2AusConsidered;
     int v2AuUrlsConsidered;
     int v2RedundantUrls;
+    int v2IndexSkips;
 
     void addFrom(FindUrlStats o) {
       v1Invocations += o.v1Invocations;
@@ -2959,10 +3444,11 @@ public class PluginManager
       v2AusConsidered += o.v2AusConsidered;
       v2AuUrlsConsidered += o.v2AuUrlsConsidered;
       v2RedundantUrls += o.v2RedundantUrls;
+      v2IndexSkips += o.v2IndexSkips;
     }
 
     public String toString() {
-      return "[FindUrlStats: v1Inv: " + v1Invocations + ", v1Res: " + v1Results + ", v2nv: " + v2Invocations + ", v2Res: " + v2Results + ", v2Aus: " + v2AusConsidered + ", v2Urls: " + v2AuUrlsConsidered + ", v2Redundant: " + v2RedundantUrls;
+      return "[FindUrlStats: v1Inv: " + v1Invocations + ", v1Res: " + v1Results + ", v2nv: " + v2Invocations + ", v2Res: " + v2Results + ", v2Aus: " + v2AusConsidered + ", v2Urls: " + v2AuUrlsConsidered + ", v2Redundant: " + v2RedundantUrls + ", v2IndexSkips: " + v2IndexSkips;
     }
   }
 
@@ -2999,10 +3485,7 @@ public class PluginManager
       log.warning("findCachedUrls(" + url + ")", e);
       return Collections.EMPTY_LIST;
     }
-    AuSearchSet searchSet;
-    synchronized (hostAus) {
-      searchSet = hostAus.get(normStem);
-    }
+    AuSearchSet searchSet = hostAus.get(normStem);
     if (searchSet == null) {
       if (log.isDebug3() ) log.debug3("findCachedUrls: No AUs for " + normStem);
       return Collections.EMPTY_LIST;
@@ -3012,7 +3495,7 @@ public class PluginManager
       if (log.isDebug2()) {
 	log.debug2("404 cache hit: " + normUrl);
       }
-      recent404Hits++;
+      recent404Hits.incrementAndGet();
       return Collections.EMPTY_LIST;
     }    
 
@@ -3121,12 +3604,27 @@ public class PluginManager
           fUStats.v2RedundantUrls++;
           continue;
         }
+        // Skip the repository query if the index says this AU doesn't
+        // have the URL.  Another AU that normalizes to the same URL will
+        // consult its own index.
+        UrlAuIndex.Presence presence = urlAuIndex.check(au, noMembUrl);
+        if (presence == UrlAuIndex.Presence.Absent) {
+          if (isTrace) {
+            log.debug3("Not in URL index: " + noMembUrl);
+          }
+          fUStats.v2IndexSkips++;
+          continue;
+        }
         aus = new ArrayList<>();
         aus.add(au);
         urlAus.put(noMembUrl, aus);
 
         fUStats.v2AuUrlsConsidered++;
-        for (Artifact art : repoMgr.findArtifactsByUrl(noMembUrl)) {
+        List<Artifact> arts = repoMgr.findArtifactsByUrl(noMembUrl);
+        if (presence == UrlAuIndex.Presence.Maybe) {
+          urlAuIndex.recordResult(presence, hasArtifactInAu(arts, au));
+        }
+        for (Artifact art : arts) {
           ArchivalUnit artAu = getAuFromIdIfExists(art.getAuid());
           if (isTrace) {
             log.debug3("Checking art: " + art.getUri() + ", au: " + artAu);
@@ -3222,6 +3720,15 @@ public class PluginManager
     return res;
   }
 
+  private boolean hasArtifactInAu(List<Artifact> arts, ArchivalUnit au) {
+    for (Artifact art : arts) {
+      if (au.getAuId().equals(art.getAuid())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // A simple version which makes a single request to the repo for the URL.
   // Doesn't properly handle per-AU normalization.
   // Unused.
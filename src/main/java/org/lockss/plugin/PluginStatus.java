@@ -47,6 +47,9 @@ public class PluginStatus {
   final static String PLUGIN_DETAIL = "PluginDetail";
   public final static String ALL_TITLE_AUIDS = "AllAuids";
   final static String HTTP_RESULT_MAP = "HttpResultMap";
+  final static String URL_AU_INDEX = "UrlAuIndex";
+  final static String AU_SEARCH = "AuSearch";
+  final static String AU_STARTUP = "AuStartup";
 
   /** If true the definition of definable plugins will be displayed along
    * with its details. */
@@ -67,6 +70,12 @@ public class PluginStatus {
 				      new AllTitleAuids(daemon, mgr));
     statusServ.registerStatusAccessor(HTTP_RESULT_MAP,
 				      new HTTPResultMapping(daemon, mgr));
+    statusServ.registerStatusAccessor(URL_AU_INDEX,
+				      new UrlAuIndexStatus(daemon, mgr));
+    statusServ.registerStatusAccessor(AU_SEARCH,
+				      new AuSearchStatus(daemon, mgr));
+    statusServ.registerStatusAccessor(AU_STARTUP,
+				      new AuStartupStatus(daemon, mgr));
   }
 
   static void unregister(LockssDaemon daemon) {
@@ -75,6 +84,9 @@ public class PluginStatus {
     statusServ.unregisterStatusAccessor(PLUGIN_DETAIL);
     statusServ.unregisterStatusAccessor(ALL_TITLE_AUIDS);
     statusServ.unregisterStatusAccessor(HTTP_RESULT_MAP);
+    statusServ.unregisterStatusAccessor(URL_AU_INDEX);
+    statusServ.unregisterStatusAccessor(AU_SEARCH);
+    statusServ.unregisterStatusAccessor(AU_STARTUP);
   }
 
   PluginStatus(LockssDaemon daemon, PluginManager mgr) {
@@ -510,3 +522,239 @@ class AllTitleAuids extends PluginStatus implements StatusAccessor.DebugOnly {
     return rows;
   }
 }
+
+/**
+ * Statistics of the URL -> AU index used by findCachedUrl(), and the size
+ * and currency of each AU's index.
+ */
+class UrlAuIndexStatus extends PluginStatus implements StatusAccessor {
+
+  private final List colDescs =
+    ListUtil.list(
+		  new ColumnDescriptor("au", "AU",
+				       ColumnDescriptor.TYPE_STRING),
+		  new ColumnDescriptor("urls", "URLs",
+				       ColumnDescriptor.TYPE_INT),
+		  new ColumnDescriptor("bytes", "Size",
+				       ColumnDescriptor.TYPE_INT),
+		  new ColumnDescriptor("fpp", "Expected FP Rate",
+				       ColumnDescriptor.TYPE_PERCENT),
+		  new ColumnDescriptor("asof", "Valid As Of",
+				       ColumnDescriptor.TYPE_DATE),
+		  new ColumnDescriptor("current", "Current",
+				       ColumnDescriptor.TYPE_STRING)
+		  );
+
+  private final List sortRules =
+    ListUtil.list(new StatusTable.SortRule("au",
+					   CatalogueOrderComparator.SINGLETON));
+
+  UrlAuIndexStatus(LockssDaemon daemon, PluginManager mgr) {
+    super(daemon, mgr);
+  }
+
+  public String getDisplayName() {
+    return "URL Index";
+  }
+
+  public boolean requiresKey() {
+    return false;
+  }
+
+  public void populateTable(StatusTable table) {
+    UrlAuIndex index = mgr.getUrlAuIndex();
+    table.setColumnDescriptors(colDescs);
+    table.setDefaultSortRules(sortRules);
+    table.setSummaryInfo(getSummaryInfo(index));
+    table.setRows(getRows(index));
+  }
+
+  List getRows(UrlAuIndex index) {
+    List rows = new ArrayList();
+    for (UrlAuIndex.Entry ent : index.getEntries()) {
+      ArchivalUnit au = mgr.getAuFromIdIfExists(ent.auid);
+      if (au == null) {
+	continue;
+      }
+      Map row = new HashMap();
+      row.put("au", au.getName());
+      row.put("urls", ent.filter.getNumEntries());
+      row.put("bytes", ent.filter.getSizeBytes());
+      row.put("fpp", ent.filter.getExpectedFpp());
+      row.put("asof", ent.validAsOf);
+      row.put("current", index.isCurrent(ent, au) ? "Yes" : "No");
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  List getSummaryInfo(UrlAuIndex index) {
+    List res = new ArrayList();
+    res.add(new StatusTable.SummaryInfo("Enabled",
+					ColumnDescriptor.TYPE_STRING,
+					index.isEnabled() ? "Yes" : "No"));
+    res.add(new StatusTable.SummaryInfo("Indexed AUs",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumIndexed()));
+    res.add(new StatusTable.SummaryInfo("Index Size",
+					ColumnDescriptor.TYPE_STRING,
+					StringUtil.sizeToString(index.getIndexBytes())));
+    res.add(new StatusTable.SummaryInfo("Pending Builds",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumPendingBuilds()));
+    res.add(new StatusTable.SummaryInfo("Builds",
+					ColumnDescriptor.TYPE_STRING,
+					index.getNumBuilds() + " ("
+					+ index.getNumBuildFailures()
+					+ " failed), "
+					+ index.getNumLoaded() + " loaded, "
+					+ index.getNumIncrementalUpdates()
+					+ " incremental"));
+    res.add(new StatusTable.SummaryInfo("Total Build Time",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					index.getTotalBuildTime()));
+    res.add(new StatusTable.SummaryInfo("Searches Avoided",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumAbsent()));
+    res.add(new StatusTable.SummaryInfo("Hits",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumHits()));
+    res.add(new StatusTable.SummaryInfo("False Positives",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumFalsePositives()));
+    res.add(new StatusTable.SummaryInfo("Unindexed Lookups",
+					ColumnDescriptor.TYPE_INT,
+					index.getNumUnindexed()));
+    return res;
+  }
+}
+
+/** Summary of URL search activity: recent CU cache, coalescing of
+ * concurrent searches for the same URL, and contention on the stem map.
+ */
+class AuSearchStatus extends PluginStatus implements StatusAccessor {
+
+  AuSearchStatus(LockssDaemon daemon, PluginManager mgr) {
+    super(daemon, mgr);
+  }
+
+  public String getDisplayName() {
+    return "AU Search";
+  }
+
+  public boolean requiresKey() {
+    return false;
+  }
+
+  public void populateTable(StatusTable table) {
+    table.setSummaryInfo(getSummaryInfo());
+  }
+
+  List getSummaryInfo() {
+    List res = new ArrayList();
+    res.add(new StatusTable.SummaryInfo("URL Stems",
+					ColumnDescriptor.TYPE_INT,
+					mgr.getAllStems().size()));
+    res.add(new StatusTable.SummaryInfo("Recent CU Cache",
+					ColumnDescriptor.TYPE_STRING,
+					mgr.getRecentCuHits() + " hits, "
+					+ mgr.getRecentCuMisses()
+					+ " misses"));
+    res.add(new StatusTable.SummaryInfo("404 Cache Hits",
+					ColumnDescriptor.TYPE_INT,
+					mgr.getRecent404Hits()));
+    res.add(new StatusTable.SummaryInfo("Searches In Progress",
+					ColumnDescriptor.TYPE_INT,
+					mgr.getNumCurrentUrlSearches()));
+    res.add(new StatusTable.SummaryInfo("Coalesced Searches",
+					ColumnDescriptor.TYPE_STRING,
+					mgr.getUrlSearchWaits() + " ("
+					+ mgr.getUrlSearchResCu() + " found, "
+					+ mgr.getUrlSearchRes404()
+					+ " not found)"));
+    res.add(new StatusTable.SummaryInfo("Coalesced Wait Time",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					mgr.getUrlSearchWaitTime()));
+    res.add(new StatusTable.SummaryInfo("Max Coalesced Wait",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					mgr.getMaxUrlSearchWaitTime()));
+    res.add(new StatusTable.SummaryInfo("Stem Lock",
+					ColumnDescriptor.TYPE_STRING,
+					mgr.getStemLockAcquisitions()
+					+ " acquisitions, "
+					+ mgr.getStemLockContentions()
+					+ " contended"));
+    res.add(new StatusTable.SummaryInfo("Stem Lock Wait Time",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					mgr.getStemLockWaitTime()));
+    res.add(new StatusTable.SummaryInfo("Max Stem Lock Wait",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					mgr.getMaxStemLockWaitTime()));
+    return res;
+  }
+}
+
+/** Progress of starting the configured AUs at daemon startup.
+ */
+class AuStartupStatus extends PluginStatus implements StatusAccessor {
+
+  AuStartupStatus(LockssDaemon daemon, PluginManager mgr) {
+    super(daemon, mgr);
+  }
+
+  public String getDisplayName() {
+    return "AU Startup";
+  }
+
+  public boolean requiresKey() {
+    return false;
+  }
+
+  public void populateTable(StatusTable table) {
+    table.setSummaryInfo(getSummaryInfo(mgr.getAuStartupProgress()));
+  }
+
+  List getSummaryInfo(AuStartupProgress progress) {
+    List res = new ArrayList();
+    if (progress == null) {
+      res.add(new StatusTable.SummaryInfo("Status",
+					  ColumnDescriptor.TYPE_STRING,
+					  mgr.isStartAusOnDemand()
+					  ? "AUs started on demand"
+					  : "Not started"));
+      return res;
+    }
+    res.add(new StatusTable.SummaryInfo("Status",
+					ColumnDescriptor.TYPE_STRING,
+					progress.isRunning()
+					? "Starting" : "Done"));
+    res.add(new StatusTable.SummaryInfo("Threads",
+					ColumnDescriptor.TYPE_INT,
+					progress.getThreads()));
+    int total = progress.getTotal();
+    res.add(new StatusTable.SummaryInfo("AUs Processed",
+					ColumnDescriptor.TYPE_STRING,
+					progress.getNumDone()
+					+ (total >= 0 ? " of " + total : "")));
+    res.add(new StatusTable.SummaryInfo("Running",
+					ColumnDescriptor.TYPE_INT,
+					progress.getNumStarted()));
+    res.add(new StatusTable.SummaryInfo("Disabled or Failed",
+					ColumnDescriptor.TYPE_INT,
+					progress.getNumNotStarted()));
+    res.add(new StatusTable.SummaryInfo("Elapsed",
+					ColumnDescriptor.TYPE_TIME_INTERVAL,
+					progress.getElapsed()));
+    res.add(new StatusTable.SummaryInfo("Rate",
+					ColumnDescriptor.TYPE_STRING,
+					String.format("%.1f AUs/sec",
+						      progress.getRate())));
+    long eta = progress.getEta();
+    if (eta > 0) {
+      res.add(new StatusTable.SummaryInfo("ETA",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  eta));
+    }
+    return res;
+  }
+}
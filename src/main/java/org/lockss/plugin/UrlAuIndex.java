@@ -0,0 +1,562 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.plugin;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.lockss.config.*;
+import org.lockss.daemon.Crawler;
+import org.lockss.state.AuState;
+import org.lockss.util.*;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimeUtil;
+
+/**
+ * Index of the URLs stored in each AU, consulted by {@link
+ * PluginManager#findCachedUrl(String)} before querying the repository so
+ * that lookups of URLs on hosts shared by many AUs don't require a
+ * repository query for each distinct normalized form of the URL.
+ *
+ * Each AU's URLs are recorded in a {@link BloomFilter}, so a negative
+ * answer is definite and a positive one is usually, but not always,
+ * correct.  An AU's filter is used only while it's known to be current:
+ * it must have been built after the AU's last content change and no
+ * crawl may be in progress; otherwise the AU is treated as unindexed and
+ * searched as before.  Filters are built in the background when an AU is
+ * started or its content changes, updated in place with the URLs of a
+ * repair, discarded when the AU is deleted, and saved to disk so they
+ * survive restarts.
+ */
+public class UrlAuIndex extends AuEventHandler.Base {
+  private static final Logger log = Logger.getLogger();
+
+  static final String PREFIX = PluginManager.AU_SEARCH_SET_PREFIX + "urlIndex.";
+
+  /** If true, a per-AU index of URLs is used to avoid repository
+   * queries for URLs that are definitely not in an AU */
+  public static final String PARAM_ENABLED = PREFIX + "enabled";
+  public static final boolean DEFAULT_ENABLED = false;
+
+  /** Bits per URL allocated in each AU's Bloom filter.  10 gives a false
+   * positive rate of about 1%, 15 about 0.1%. */
+  public static final String PARAM_BITS_PER_URL = PREFIX + "bitsPerUrl";
+  public static final int DEFAULT_BITS_PER_URL = 10;
+
+  /** Absolute path, or path relative to the first platform disk, of the
+   * directory in which AU indices are saved.  If empty, indices aren't
+   * saved and must be rebuilt after a restart. */
+  public static final String PARAM_DIR = PREFIX + "dir";
+  public static final String DEFAULT_DIR = "urlindex";
+
+  /** If true, AU indices that can't be loaded from disk are built when
+   * the AU is started, else only when the AU is first searched */
+  public static final String PARAM_BUILD_AT_STARTUP = PREFIX + "buildAtStartup";
+  public static final boolean DEFAULT_BUILD_AT_STARTUP = false;
+
+  /** Number of threads building AU indices */
+  public static final String PARAM_BUILD_THREADS = PREFIX + "buildThreads";
+  public static final int DEFAULT_BUILD_THREADS = 1;
+
+  static final int FILE_MAGIC = 0x55414958;	// "UAIX"
+  static final int FILE_VERSION = 1;
+  static final String FILE_SUFFIX = ".urlidx";
+
+  /** Result of consulting the index */
+  public enum Presence {
+    /** URL is definitely not in the AU */
+    Absent,
+    /** URL is probably in the AU */
+    Maybe,
+    /** AU has no current index */
+    Unindexed,
+  }
+
+  /** One AU's index */
+  static class Entry {
+    final String auid;
+    final BloomFilter filter;
+    // Content changes after this time aren't reflected in the filter
+    volatile long validAsOf;
+
+    Entry(String auid, BloomFilter filter, long validAsOf) {
+      this.auid = auid;
+      this.filter = filter;
+      this.validAsOf = validAsOf;
+    }
+  }
+
+  private final PluginManager pluginMgr;
+  private final Map<String,Entry> entries =
+    new ConcurrentHashMap<String,Entry>();
+  private final Set<String> pendingBuilds =
+    Collections.synchronizedSet(new HashSet<String>());
+  private ThreadPoolExecutor buildExecutor;
+
+  private boolean enabled = DEFAULT_ENABLED;
+  private int bitsPerUrl = DEFAULT_BITS_PER_URL;
+  private boolean buildAtStartup = DEFAULT_BUILD_AT_STARTUP;
+  private int buildThreads = DEFAULT_BUILD_THREADS;
+  private String dirName = DEFAULT_DIR;
+  private File dir;
+
+  // Statistics
+  final AtomicLong numAbsent = new AtomicLong(); // definite misses
+  final AtomicLong numMaybe = new AtomicLong(); // filter said maybe
+  final AtomicLong numHits = new AtomicLong(); // maybe, and URL was found
+  final AtomicLong numFalsePositives = new AtomicLong(); // maybe, but wasn't
+  final AtomicLong numUnindexed = new AtomicLong(); // no index or not current
+  final AtomicInteger numBuilds = new AtomicInteger();
+  final AtomicInteger numBuildFailures = new AtomicInteger();
+  final AtomicInteger numIncrementalUpdates = new AtomicInteger();
+  final AtomicInteger numLoaded = new AtomicInteger();
+  final AtomicLong totalBuildTime = new AtomicLong();
+
+  public UrlAuIndex(PluginManager pluginMgr) {
+    this.pluginMgr = pluginMgr;
+  }
+
+  public void setConfig(Configuration config, Configuration oldConfig,
+			Configuration.Differences changedKeys) {
+    if (changedKeys.contains(PREFIX)) {
+      enabled = config.getBoolean(PARAM_ENABLED, DEFAULT_ENABLED);
+      bitsPerUrl = config.getInt(PARAM_BITS_PER_URL, DEFAULT_BITS_PER_URL);
+      buildAtStartup =
+	config.getBoolean(PARAM_BUILD_AT_STARTUP, DEFAULT_BUILD_AT_STARTUP);
+      buildThreads =
+	Math.max(1, config.getInt(PARAM_BUILD_THREADS, DEFAULT_BUILD_THREADS));
+      String newDir = config.get(PARAM_DIR, DEFAULT_DIR);
+      if (!StringUtil.equalStrings(newDir, dirName)) {
+	dirName = newDir;
+	dir = null;
+      }
+      if (buildExecutor != null) {
+	// Order matters: core size may not exceed max size
+	if (buildThreads > buildExecutor.getMaximumPoolSize()) {
+	  buildExecutor.setMaximumPoolSize(buildThreads);
+	  buildExecutor.setCorePoolSize(buildThreads);
+	} else {
+	  buildExecutor.setCorePoolSize(buildThreads);
+	  buildExecutor.setMaximumPoolSize(buildThreads);
+	}
+      }
+      if (!enabled) {
+	entries.clear();
+      }
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void stopService() {
+    if (buildExecutor != null) {
+      buildExecutor.shutdownNow();
+      buildExecutor = null;
+    }
+  }
+
+  /** Consult the index.
+   * @param au the AU
+   * @param url the URL, as normalized by the AU
+   * @return {@link Presence#Absent} if the URL is definitely not in the
+   * AU, {@link Presence#Maybe} if it may be, {@link Presence#Unindexed}
+   * if the index can't tell.
+   */
+  public Presence check(ArchivalUnit au, String url) {
+    if (!enabled) {
+      return Presence.Unindexed;
+    }
+    Entry ent = entries.get(au.getAuId());
+    if (ent == null || !isCurrent(ent, au)) {
+      numUnindexed.incrementAndGet();
+      scheduleBuild(au);
+      return Presence.Unindexed;
+    }
+    if (ent.filter.mightContain(url)) {
+      numMaybe.incrementAndGet();
+      return Presence.Maybe;
+    }
+    numAbsent.incrementAndGet();
+    return Presence.Absent;
+  }
+
+  /** Record whether the repository search prompted by a {@link
+   * Presence#Maybe} result found the URL in the AU */
+  public void recordResult(Presence presence, boolean found) {
+    if (presence == Presence.Maybe) {
+      if (found) {
+	numHits.incrementAndGet();
+      } else {
+	numFalsePositives.incrementAndGet();
+      }
+    }
+  }
+
+  /** Return true if the AU's index reflects its current content */
+  boolean isCurrent(Entry ent, ArchivalUnit au) {
+    AuState aus = getAuState(au);
+    if (aus == null || isCrawlInProgress(aus)) {
+      return false;
+    }
+    return ent.validAsOf > aus.getLastContentChange();
+  }
+
+  boolean isCrawlInProgress(AuState aus) {
+    return aus.isCrawlActive()
+      || aus.getLastCrawlResult() == Crawler.STATUS_RUNNING_AT_CRASH;
+  }
+
+  // overridable for testing
+  protected AuState getAuState(ArchivalUnit au) {
+    return AuUtil.getAuState(au);
+  }
+
+  // AuEventHandler
+
+  @Override
+  public void auCreated(AuEvent event, ArchivalUnit au) {
+    if (!enabled) {
+      return;
+    }
+    if (!loadIndex(au) && buildAtStartup) {
+      scheduleBuild(au);
+    }
+  }
+
+  @Override
+  public void auDeleted(AuEvent event, ArchivalUnit au) {
+    entries.remove(au.getAuId());
+    if (event.getType() == AuEvent.Type.Delete) {
+      File file = getIndexFile(au.getAuId());
+      if (file != null) {
+	file.delete();
+      }
+    }
+  }
+
+  @Override
+  public void auContentChanged(AuEvent event, ArchivalUnit au,
+			       AuEvent.ContentChangeInfo info) {
+    if (!enabled) {
+      return;
+    }
+    Entry ent = entries.get(au.getAuId());
+    Collection<String> urls = info.getUrls();
+    AuState aus = getAuState(au);
+    if (ent != null
+	&& info.getType() == AuEvent.ContentChangeInfo.Type.Repair
+	&& urls != null && urls.size() == info.getNumUrls()
+	&& aus != null && !isCrawlInProgress(aus)) {
+      // Complete list of repaired URLs; add them in place.  The repair
+      // itself advances the AU's last content change, so that can't be
+      // used to tell whether the index was current before it.  Instead,
+      // entries are discarded on any other content change, and stale
+      // entries aren't loaded, so one that's present reflects all changes
+      // but repairs, which have been added.
+      for (String url : urls) {
+	ent.filter.add(url);
+      }
+      ent.validAsOf = TimeBase.nowMs();
+      numIncrementalUpdates.incrementAndGet();
+      saveIndex(ent);
+      if (log.isDebug2()) {
+	log.debug2("Added " + urls.size() + " repaired URLs to index: " + au);
+      }
+    } else {
+      // The filter no longer reflects the AU's content
+      entries.remove(au.getAuId());
+      scheduleBuild(au);
+    }
+  }
+
+  /** Queue a background build of the AU's index, unless one is already
+   * pending or a crawl is in progress (in which case the end-of-crawl
+   * content change event will trigger it) */
+  void scheduleBuild(final ArchivalUnit au) {
+    AuState aus = getAuState(au);
+    if (aus == null || isCrawlInProgress(aus)) {
+      return;
+    }
+    final String auid = au.getAuId();
+    if (!pendingBuilds.add(auid)) {
+      return;
+    }
+    try {
+      getBuildExecutor().execute(new Runnable() {
+	  public void run() {
+	    try {
+	      buildIndex(au);
+	    } finally {
+	      pendingBuilds.remove(auid);
+	    }
+	  }});
+    } catch (RejectedExecutionException e) {
+      pendingBuilds.remove(auid);
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getBuildExecutor() {
+    if (buildExecutor == null) {
+      buildExecutor =
+	new ThreadPoolExecutor(buildThreads, buildThreads,
+			       60, TimeUnit.SECONDS,
+			       new LinkedBlockingQueue<Runnable>(),
+			       new ThreadFactory() {
+				 public Thread newThread(Runnable r) {
+				   Thread th = new Thread(r, "UrlAuIndex");
+				   th.setDaemon(true);
+				   th.setPriority(Thread.MIN_PRIORITY);
+				   return th;
+				 }});
+      buildExecutor.allowCoreThreadTimeOut(true);
+    }
+    return buildExecutor;
+  }
+
+  /** Build (or rebuild) the AU's index from the URLs in its CachedUrlSet */
+  void buildIndex(ArchivalUnit au) {
+    String auid = au.getAuId();
+    long start = TimeBase.nowMs();
+    try {
+      List<String> urls = new ArrayList<String>();
+      for (CachedUrl cu : getCuIterable(au)) {
+	try {
+	  urls.add(cu.getUrl());
+	} finally {
+	  AuUtil.safeRelease(cu);
+	}
+      }
+      BloomFilter filter = new BloomFilter(urls.size(), bitsPerUrl);
+      for (String url : urls) {
+	filter.add(url);
+      }
+      if (!pluginMgr.isActiveAu(au)) {
+	log.debug2("AU deleted while building index: " + au);
+	return;
+      }
+      Entry ent = new Entry(auid, filter, start);
+      if (!isCurrent(ent, au)) {
+	// A change made during the build might not be included, and its
+	// content change event may already have been processed
+	log.debug2("AU changed while building index: " + au);
+	return;
+      }
+      entries.put(auid, ent);
+      numBuilds.incrementAndGet();
+      totalBuildTime.addAndGet(TimeBase.msSince(start));
+      if (log.isDebug2()) {
+	log.debug2("Built index of " + urls.size() + " URLs in " +
+		   TimeUtil.timeIntervalToString(TimeBase.msSince(start)) +
+		   ": " + au);
+      }
+      saveIndex(ent);
+    } catch (RuntimeException e) {
+      log.warning("Couldn't build URL index: " + au, e);
+      numBuildFailures.incrementAndGet();
+      entries.remove(auid);
+    }
+  }
+
+  // overridable for testing
+  protected Iterable<CachedUrl> getCuIterable(ArchivalUnit au) {
+    return au.getAuCachedUrlSet().getCuIterable();
+  }
+
+  // Persistence
+
+  File getIndexDir() {
+    if (dir == null && !StringUtil.isNullString(dirName)) {
+      try {
+	dir = ConfigManager.getConfigManager().findConfiguredDataDir(PARAM_DIR,
+								     DEFAULT_DIR);
+      } catch (RuntimeException e) {
+	log.warning("Not saving URL indices: " + e.getMessage());
+	dirName = null;
+      }
+    }
+    return dir;
+  }
+
+  File getIndexFile(String auid) {
+    File d = getIndexDir();
+    if (d == null) {
+      return null;
+    }
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      byte[] digest = md5.digest(auid.getBytes(StandardCharsets.UTF_8));
+      return new File(d, new BigInteger(1, digest).toString(16) + FILE_SUFFIX);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void saveIndex(Entry ent) {
+    File file = getIndexFile(ent.auid);
+    if (file == null) {
+      return;
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeUTF(ent.auid);
+      out.writeLong(ent.validAsOf);
+      ent.filter.writeTo(out);
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+	// Windows-style rename doesn't replace
+	file.delete();
+	if (!tmp.renameTo(file)) {
+	  throw new IOException("Couldn't rename " + tmp + " to " + file);
+	}
+      }
+    } catch (IOException e) {
+      log.warning("Couldn't save URL index: " + ent.auid, e);
+      tmp.delete();
+    } finally {
+      IOUtil.safeClose(out);
+    }
+  }
+
+  /** Load the AU's saved index, if any and if it's current.  (It may
+   * cease to be current before it's used; that's checked then.) */
+  boolean loadIndex(ArchivalUnit au) {
+    String auid = au.getAuId();
+    File file = getIndexFile(auid);
+    if (file == null || !file.exists()) {
+      return false;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+	throw new IOException("Unknown URL index file format");
+      }
+      String fileAuid = in.readUTF();
+      if (!auid.equals(fileAuid)) {
+	throw new IOException("URL index file is for a different AU: " +
+			      fileAuid);
+      }
+      long validAsOf = in.readLong();
+      BloomFilter filter = BloomFilter.readFrom(in);
+      Entry ent = new Entry(auid, filter, validAsOf);
+      if (!isCurrent(ent, au)) {
+	log.debug2("Saved URL index not current, will rebuild: " + au);
+	return false;
+      }
+      entries.put(auid, ent);
+      numLoaded.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      log.warning("Couldn't load URL index, will rebuild: " + file, e);
+      file.delete();
+      return false;
+    } finally {
+      IOUtil.safeClose(in);
+    }
+  }
+
+  // Status
+
+  Entry getEntry(String auid) {
+    return entries.get(auid);
+  }
+
+  public int getNumIndexed() {
+    return entries.size();
+  }
+
+  public int getNumPendingBuilds() {
+    return pendingBuilds.size();
+  }
+
+  public long getIndexBytes() {
+    long res = 0;
+    for (Entry ent : entries.values()) {
+      res += ent.filter.getSizeBytes();
+    }
+    return res;
+  }
+
+  public long getNumAbsent() {
+    return numAbsent.get();
+  }
+
+  public long getNumMaybe() {
+    return numMaybe.get();
+  }
+
+  public long getNumHits() {
+    return numHits.get();
+  }
+
+  public long getNumFalsePositives() {
+    return numFalsePositives.get();
+  }
+
+  public long getNumUnindexed() {
+    return numUnindexed.get();
+  }
+
+  public int getNumBuilds() {
+    return numBuilds.get();
+  }
+
+  public int getNumBuildFailures() {
+    return numBuildFailures.get();
+  }
+
+  public int getNumIncrementalUpdates() {
+    return numIncrementalUpdates.get();
+  }
+
+  public int getNumLoaded() {
+    return numLoaded.get();
+  }
+
+  public long getTotalBuildTime() {
+    return totalBuildTime.get();
+  }
+
+  /** Return a snapshot of the per-AU index entries */
+  Collection<Entry> getEntries() {
+    return new ArrayList<Entry>(entries.values());
+  }
+}
@@ -59,6 +59,10 @@ public class BaseCachedUrl implements CachedUrl {
   protected String artifactUrl;
   protected static Logger logger = Logger.getLogger();
 
+  private static final ParamHandle.BooleanParam monitorInputStreamsParam =
+    CurrentConfig.booleanParam(LockssApp.PARAM_MONITOR_INPUT_STREAMS,
+                               LockssApp.DEFAULT_MONITOR_INPUT_STREAMS);
+
   protected Properties options;
 
   protected LockssRepository v2Repo;
@@ -81,15 +85,23 @@ public class BaseCachedUrl implements CachedUrl {
   private static final String PARAM_SHOULD_FILTER_HASH_STREAM =
     PREFIX + "filterHashStream";
   private static final boolean DEFAULT_SHOULD_FILTER_HASH_STREAM = true;
+  private static final ParamHandle.BooleanParam shouldFilterHashStreamParam =
+    CurrentConfig.booleanParam(PARAM_SHOULD_FILTER_HASH_STREAM,
+                               DEFAULT_SHOULD_FILTER_HASH_STREAM);
 
   public static final String PARAM_FILTER_USE_CHARSET =
     PREFIX + "filterUseCharset";
   public static final boolean DEFAULT_FILTER_USE_CHARSET = true;
+  private static final ParamHandle.BooleanParam filterUseCharsetParam =
+    CurrentConfig.booleanParam(PARAM_FILTER_USE_CHARSET,
+                               DEFAULT_FILTER_USE_CHARSET);
 
   /** Hide files with URLs that don't match the crawl rules (which may have
    * changed since files were collected) */
   public static final String PARAM_INCLUDED_ONLY = PREFIX + "includedOnly";
   static final boolean DEFAULT_INCLUDED_ONLY = true;
+  private static final ParamHandle.BooleanParam includedOnlyParam =
+    CurrentConfig.booleanParam(PARAM_INCLUDED_ONLY, DEFAULT_INCLUDED_ONLY);
 
   /** Check raw Content-Type property in addition to X-Lockss-content-type.
    * Disable only for backward compatibility. */
@@ -221,8 +233,7 @@ public class BaseCachedUrl implements CachedUrl {
    * @return an InputStream
    */
   public InputStream openForHashing(HashedInputStream.Hasher hasher) {
-    if (CurrentConfig.getBooleanParam(PARAM_SHOULD_FILTER_HASH_STREAM,
-				      DEFAULT_SHOULD_FILTER_HASH_STREAM)) {
+    if (shouldFilterHashStreamParam.get()) {
       logger.debug3("Filtering on, returning filtered stream");
       return getFilteredStream(hasher);
     } else {
@@ -253,8 +264,7 @@ public class BaseCachedUrl implements CachedUrl {
     if ("false".equalsIgnoreCase(incOpt)) {
       return false;
     }
-    return CurrentConfig.getBooleanParam(PARAM_INCLUDED_ONLY,
-					 DEFAULT_INCLUDED_ONLY);
+    return includedOnlyParam.get();
   }
 
   public boolean hasContent() {
@@ -356,8 +366,7 @@ public class BaseCachedUrl implements CachedUrl {
 
   public String getEncoding() {
     String res = null;
-    if (CurrentConfig.getBooleanParam(PARAM_FILTER_USE_CHARSET,
-				      DEFAULT_FILTER_USE_CHARSET)) {
+    if (filterUseCharsetParam.get()) {
       res = HeaderUtil.getCharsetFromContentType(getContentType());
     }
     if (res == null) {
@@ -619,13 +628,23 @@ public class BaseCachedUrl implements CachedUrl {
   /** Special behavior for CUs that are archive members.  This isn't
    * logically a subtype of CachedUrl because not all places that accept a
    * CachedUrl can operate an archive member, but it's the convenient way
-   * to implement it.  Perhaps it should be a supertype (interface)? */
+   * to implement it.  Perhaps it should be a supertype (interface)?
+   *
+   * Members are read directly from the archive CU if it has an {@link
+   * ArchiveMemberIndex} that includes the member, else via a copy of the
+   * archive in the {@link TFileCache}. */
   static class Member extends BaseCachedUrl {
     protected BaseCachedUrl bcu;
     protected ArchiveMemberSpec ams;
     protected TFileCache.Entry tfcEntry = null;
     protected TFile memberTf = null;
     protected CIProperties memberProps = null;
+    protected boolean indexChecked = false;
+    // Version of the archive the member index was built from
+    protected int indexArcVersion = -1;
+    protected ArchiveMemberIndex index = null;
+    protected ArchiveMemberIndex.Source indexSrc = null;
+    protected ArchiveMemberIndex.Member indexMemb = null;
 
     Member(ArchivalUnit au, String url, BaseCachedUrl bcu,
 	   ArchiveMemberSpec ams) {
@@ -654,6 +673,9 @@ public class BaseCachedUrl implements CachedUrl {
 	logger.debug3("No super content: " + this);
 	return false;
       }
+      if (getIndexedMember() != null) {
+	return true;
+      }
       try {
 	TFile tf = getTFile();
 	if (tf == null) {
@@ -677,6 +699,16 @@ public class BaseCachedUrl implements CachedUrl {
       if (!super.hasContent()) {
 	return null;
       }
+      ArchiveMemberIndex.Member im = getIndexedMember();
+      if (im != null) {
+	try {
+	  return monitor(index.openMember(indexSrc, im));
+	} catch (IOException e) {
+	  logger.warning("Couldn't open indexed member, using TFileCache: " +
+			 this, e);
+	  indexMemb = null;
+	}
+      }
       try {
 	TFile tf = getTFile();
 	if (tf == null) {
@@ -690,12 +722,7 @@ public class BaseCachedUrl implements CachedUrl {
 	if (!membtf.exists()) {
 	  return null;
 	}
-	InputStream is = new TFileInputStream(membtf);
-	if (CurrentConfig.getBooleanParam(LockssApp.PARAM_MONITOR_INPUT_STREAMS,
-					  LockssApp.DEFAULT_MONITOR_INPUT_STREAMS)) {
-	  is = new MonitoringInputStream(is, this.toString());
-	}
-	return is;
+	return monitor(new TFileInputStream(membtf));
       } catch (IOException e) {
 	logger.error("Couldn't open member for which exists() was true: " + this,
 		     e);
@@ -703,6 +730,13 @@ public class BaseCachedUrl implements CachedUrl {
       }
     }
 
+    private InputStream monitor(InputStream is) {
+      if (monitorInputStreamsParam.get()) {
+	is = new MonitoringInputStream(is, this.toString());
+      }
+      return is;
+    }
+
     /** Properties of an archive member are synthesized from its size and
      * extension, and the enclosing archive's collection properties
      * (collection date, Last-Modified) */
@@ -716,13 +750,30 @@ public class BaseCachedUrl implements CachedUrl {
 
     private CIProperties synthesizeProperties() {
       CIProperties res = new CIProperties();
-      try {
-	TFileCache.Entry ent = getTFileCacheEntry();
-	if (ent.getArcCuProps() != null) {
-	  res.putAll(ent.getArcCuProps());
+      ArchiveMemberIndex.Member im = getIndexedMember();
+      if (im != null) {
+	CachedUrl arcCu = au.makeCachedUrl(artifactUrl);
+	CachedUrl verCu = arcCu;
+	try {
+	  if (arcCu.getVersion() != indexArcVersion) {
+	    verCu = arcCu.getCuVersion(indexArcVersion);
+	  }
+	  res.putAll(TFileCache.getInheritedProps(verCu.getProperties()));
+	} finally {
+	  if (verCu != arcCu) {
+	    AuUtil.safeRelease(verCu);
+	  }
+	  AuUtil.safeRelease(arcCu);
+	}
+      } else {
+	try {
+	  TFileCache.Entry ent = getTFileCacheEntry();
+	  if (ent.getArcCuProps() != null) {
+	    res.putAll(ent.getArcCuProps());
+	  }
+	} catch (IOException e) {
+	  logger.warning("Couldn't copy archive props to member CU", e);
 	}
-      } catch (IOException e) {
-	logger.warning("Couldn't copy archive props to member CU", e);
       }
 
       res.put(CachedUrl.PROPERTY_NODE_URL, getUrl());
@@ -731,8 +782,8 @@ public class BaseCachedUrl implements CachedUrl {
       try {
 	// If member has last modified, overwrite any inherited from archive
 	// props.
-	TFile membtf = getMemberTFile();
-	long lastMod = membtf.lastModified();
+	long lastMod = (im != null)
+	  ? im.getLastModified() : getMemberTFile().lastModified();
 	if (lastMod > 0) {
 	  res.put(CachedUrl.PROPERTY_LAST_MODIFIED,
 		  DateTimeUtil.GMT_DATE_FORMATTER.format(new Date(lastMod)));
@@ -760,6 +811,10 @@ public class BaseCachedUrl implements CachedUrl {
 
     @Override
     public long getContentSize() {
+      ArchiveMemberIndex.Member im = getIndexedMember();
+      if (im != null) {
+	return im.getSize();
+      }
       try {
 	return getMemberTFile().length();
       } catch (IOException e) {
@@ -776,6 +831,32 @@ public class BaseCachedUrl implements CachedUrl {
 //       }
 //     }
 
+    /** Return the member's entry in the archive's member index, or null
+     * if the member must be accessed through the TFileCache */
+    private ArchiveMemberIndex.Member getIndexedMember() {
+      if (!indexChecked) {
+	indexChecked = true;
+	// Members created while iterating over a TFile already have one
+	if (memberTf == null) {
+	  TrueZipManager tzm = bcu.getDaemon().getTrueZipManager();
+	  CachedUrl arcCu = au.makeCachedUrl(artifactUrl);
+	  try {
+	    index = tzm.getMemberIndex(arcCu);
+	    if (index != null) {
+	      indexMemb = index.getMember(ams.getName());
+	      if (indexMemb != null) {
+		indexArcVersion = arcCu.getVersion();
+		indexSrc = tzm.getMemberIndexSource(arcCu);
+	      }
+	    }
+	  } finally {
+	    AuUtil.safeRelease(arcCu);
+	  }
+	}
+      }
+      return indexMemb;
+    }
+
     private TFile getMemberTFile() throws IOException {
       checkValidTfcEntry();
       if (memberTf == null) {
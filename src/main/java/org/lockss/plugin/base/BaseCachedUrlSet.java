@@ -371,6 +371,14 @@ public class BaseCachedUrlSet implements CachedUrlSet {
   }
 
   void calculateNodeSize() {
+    if (spec.isAu() && excludeFilesUnchangedAfter <= 0) {
+      // Whole AU, use the cached size if available
+      AuStatsCache statsCache = AuUtil.getAuStatsCache(au);
+      if (statsCache != null) {
+	totalNodeSize = statsCache.getContentSize(au, true);
+	return;
+      }
+    }
     calculateNodeSizeV2();
   }
 
@@ -57,6 +57,8 @@ public class BaseUrlFetcher implements UrlFetcher {
   public static final String PARAM_SO_KEEPALIVE =
       Configuration.PREFIX + "baseuc.socketKeepAlive";
   public static final boolean DEFAULT_SO_KEEPALIVE = false;
+  private static final ParamHandle.BooleanParam soKeepAliveParam =
+    CurrentConfig.booleanParam(PARAM_SO_KEEPALIVE, DEFAULT_SO_KEEPALIVE);
 
   /** Limit on rewinding the network input stream after checking for a
    * login page.  If LoginPageChecker returns false after reading father
@@ -64,6 +66,9 @@ public class BaseUrlFetcher implements UrlFetcher {
   public static final String PARAM_LOGIN_CHECKER_MARK_LIMIT =
       Configuration.PREFIX + "baseuc.loginPageCheckerMarkLimit";
   public static final int DEFAULT_LOGIN_CHECKER_MARK_LIMIT = 24 * 1024;
+  private static final ParamHandle.IntParam loginCheckerMarkLimitParam =
+    CurrentConfig.intParam(PARAM_LOGIN_CHECKER_MARK_LIMIT,
+                           DEFAULT_LOGIN_CHECKER_MARK_LIMIT);
 
   /** Maximum number of redirects that will be followed */
   static final int MAX_REDIRECTS = 10;
@@ -72,6 +77,9 @@ public class BaseUrlFetcher implements UrlFetcher {
   public static final String PARAM_NORMALIZE_REDIRECT_URL =
       Configuration.PREFIX + "baseuc.normalizeRedirectUrl";
   public static final boolean DEFAULT_NORMALIZE_REDIRECT_URL = true;
+  private static final ParamHandle.BooleanParam normalizeRedirectUrlParam =
+    CurrentConfig.booleanParam(PARAM_NORMALIZE_REDIRECT_URL,
+                               DEFAULT_NORMALIZE_REDIRECT_URL);
 
   public static final String SET_COOKIE_HEADER = "Set-Cookie";
   private static final String SHOULD_REFETCH_ON_SET_COOKIE =
@@ -84,18 +92,25 @@ public class BaseUrlFetcher implements UrlFetcher {
   public static final String PARAM_RECORD_REFERRER =
       Configuration.PREFIX + "baseuc.recordReferrer";
   public static final boolean DEFAULT_RECORD_REFERRER = true;
+  private static final ParamHandle.BooleanParam recordReferrerParam =
+    CurrentConfig.booleanParam(PARAM_RECORD_REFERRER, DEFAULT_RECORD_REFERRER);
 
   /** If true, X-Lockss-Auid: header will be included in proxy requests.
    * Use in order to get an accurate copy of an AU from the audit proxy. */
   public static final String PARAM_PROXY_BY_AUID =
       Configuration.PREFIX + "baseuc.proxyByAuid";
   public static final boolean DEFAULT_PROXY_BY_AUID = false;
+  private static final ParamHandle.BooleanParam proxyByAuidParam =
+    CurrentConfig.booleanParam(PARAM_PROXY_BY_AUID, DEFAULT_PROXY_BY_AUID);
 
   /** If true, any thread watchdog will be stopped while waiting on a rate
    * limiter. */
   public static final String PARAM_STOP_WATCHDOG_DURING_PAUSE =
       Configuration.PREFIX + "baseuc.stopWatchdogDuringPause";
   public static final boolean DEFAULT_STOP_WATCHDOG_DURING_PAUSE = false;
+  private static final ParamHandle.BooleanParam stopWatchdogDuringPauseParam =
+    CurrentConfig.booleanParam(PARAM_STOP_WATCHDOG_DURING_PAUSE,
+                               DEFAULT_STOP_WATCHDOG_DURING_PAUSE);
 
 
   protected final String origUrl;	// URL with which I was created
@@ -501,16 +516,14 @@ public class BaseUrlFetcher implements UrlFetcher {
         if (log.isDebug3()) log.debug3("Proxying through " + proxyHost
             + ":" + proxyPort);
         conn.setProxy(proxyHost, proxyPort);
-        if (CurrentConfig.getBooleanParam(PARAM_PROXY_BY_AUID,
-            DEFAULT_PROXY_BY_AUID)) {
+        if (proxyByAuidParam.get()) {
           conn.setRequestProperty(Constants.X_LOCKSS_AUID, au.getAuId());
         }
       }
       if (localAddr != null) {
         conn.setLocalAddress(localAddr);
       }
-      if (CurrentConfig.getBooleanParam(PARAM_SO_KEEPALIVE,
-          DEFAULT_SO_KEEPALIVE)) {
+      if (soKeepAliveParam.get()) {
         conn.setKeepAlive(true);
       }
       for (String cookie : au.getHttpCookies()) {
@@ -583,8 +596,7 @@ public class BaseUrlFetcher implements UrlFetcher {
       if (!input.markSupported()) {
         input = new BufferedInputStream(input);
       }
-      input.mark(CurrentConfig.getIntParam(PARAM_LOGIN_CHECKER_MARK_LIMIT,
-          DEFAULT_LOGIN_CHECKER_MARK_LIMIT));
+      input.mark(loginCheckerMarkLimitParam.get());
       String contentEncoding =
           headers.getProperty(CachedUrl.PROPERTY_CONTENT_ENCODING);
       InputStream uncIn =
@@ -672,9 +684,7 @@ public class BaseUrlFetcher implements UrlFetcher {
   protected void pauseBeforeFetch() {
     if (crl != null) {
       long wDogInterval = 0;
-      if (wdog != null &&
-          CurrentConfig.getBooleanParam(PARAM_STOP_WATCHDOG_DURING_PAUSE,
-              DEFAULT_STOP_WATCHDOG_DURING_PAUSE)) {
+      if (wdog != null && stopWatchdogDuringPauseParam.get()) {
         wDogInterval = wdog.getWDogInterval();
       }
       try {
@@ -758,8 +768,7 @@ public class BaseUrlFetcher implements UrlFetcher {
     try {
       String resolvedLocation = UrlUtil.resolveUri(fetchUrl, location);
       String newUrlString = resolvedLocation;
-      if (CurrentConfig.getBooleanParam(PARAM_NORMALIZE_REDIRECT_URL,
-          DEFAULT_NORMALIZE_REDIRECT_URL)) {
+      if (normalizeRedirectUrlParam.get()) {
         try {
           newUrlString = UrlUtil.normalizeUrl(resolvedLocation, au);
           log.debug3("Normalized to '" + newUrlString + "'");
@@ -847,8 +856,7 @@ public class BaseUrlFetcher implements UrlFetcher {
       }
       if (reqProps != null) {
         String referrer = reqProps.getProperty(Constants.HTTP_REFERER);
-        if (CurrentConfig.getBooleanParam(PARAM_RECORD_REFERRER,
-            DEFAULT_RECORD_REFERRER) &&
+        if (recordReferrerParam.get() &&
             !StringUtil.isNullString(referrer)) {
           props.setProperty(CachedUrl.PROPERTY_REQ_REFERRER,
               referrer);
@@ -301,9 +301,13 @@ public class DefaultUrlCacher implements UrlCacher {
     InputStream in = input;
     boolean currentWasSuspect = isCurrentVersionSuspect();
     Artifact uncommittedArt = null;
+    long prevBytes = 0;
     try {
-      alreadyHasContent =
-	v2Repo.getArtifact(v2Coll, au.getAuId(), url) != null;
+      Artifact prevArt = v2Repo.getArtifact(v2Coll, au.getAuId(), url);
+      alreadyHasContent = prevArt != null;
+      if (prevArt != null) {
+	prevBytes = prevArt.getContentLength();
+      }
     } catch (IOException ex) {
       logger.warning("Repository error checking for existing content: " + url,
 		     ex);
@@ -412,6 +416,9 @@ public class DefaultUrlCacher implements UrlCacher {
 	}
 
 	AuState aus = AuUtil.getAuState(au);
+	if (aus != null) {
+	  aus.contentStored(!alreadyHasContent, bytes, prevBytes);
+	}
 	if (aus != null && currentWasSuspect) {
 	  aus.incrementNumCurrentSuspectVersions(-1);
 	}
@@ -177,6 +177,21 @@ public class PollManager
       PREFIX + "queueRecalcInterval";
   static final long DEFAULT_REBUILD_POLL_QUEUE_INTERVAL = HOUR;
 
+  /** If true, the poll queue is filled from an incrementally maintained
+   * index of AU poll weights, which is updated when polls start and end
+   * and when AUs are created, deleted or change content.  If false, the
+   * weight of every AU is computed each time the queue is rebuilt. */
+  public static final String PARAM_USE_POLL_WEIGHT_INDEX =
+      PREFIX + "useWeightIndex";
+  public static final boolean DEFAULT_USE_POLL_WEIGHT_INDEX = true;
+
+  /** Interval at which the poll weight index is recomputed from all AUs,
+   * to pick up state changes that aren't signalled by events. */
+  public static final String PARAM_POLL_WEIGHT_INDEX_REFRESH_INTERVAL =
+      PREFIX + "weightIndexRefreshInterval";
+  public static final long DEFAULT_POLL_WEIGHT_INDEX_REFRESH_INTERVAL =
+      6 * HOUR;
+
   /** Interval to sleep when queue empty, before recalc. */
   public static final String PARAM_QUEUE_EMPTY_SLEEP =
       PREFIX + "queueEmptySleep";
@@ -373,6 +388,24 @@ public class PollManager
       DEFAULT_ENABLE_POLL_STARTER_THROTTLE;
   private long paramRebuildPollQueueInterval =
       DEFAULT_REBUILD_POLL_QUEUE_INTERVAL;
+  private boolean paramUsePollWeightIndex = DEFAULT_USE_POLL_WEIGHT_INDEX;
+  private long paramPollWeightIndexRefreshInterval =
+      DEFAULT_POLL_WEIGHT_INDEX_REFRESH_INTERVAL;
+  // Poll weight of eligible AUs, as a function of time
+  private PollWeightIndex<ArchivalUnit> pollWeightIndex =
+      new PollWeightIndex<ArchivalUnit>();
+  // AUs whose entry in pollWeightIndex must be recomputed
+  private Set<ArchivalUnit> pollWeightIndexDirty =
+      Collections.synchronizedSet(new HashSet<ArchivalUnit>());
+  // When expired, pollWeightIndex is recomputed from all AUs
+  private Deadline pollWeightIndexRefresh = Deadline.in(0);
+  // Poll queue rebuild stats
+  private int rebuildCount = 0;
+  private long lastRebuildTime = 0;
+  private long totalRebuildTime = 0;
+  private long maxRebuildTime = 0;
+  private int lastRebuildAusEvaluated = 0;
+  private long lastPollWeightIndexRefresh = 0;
   private long paramQueueEmptySleep = DEFAULT_QUEUE_EMPTY_SLEEP;
   private long paramMaxPollersSleep = DEFAULT_MAX_POLLERS_SLEEP;
   private int paramPollQueueMax = DEFAULT_POLL_QUEUE_MAX;
@@ -550,11 +583,19 @@ public class PollManager
       @Override
       public void auCreated(AuEvent event, ArchivalUnit au) {
         restoreAuPolls(au);
+        pollWeightChanged(au);
       }
 
       @Override
       public void auDeleted(AuEvent event, ArchivalUnit au) {
         cancelAuPolls(au);
+        pollWeightChanged(au);
+      }
+
+      @Override
+      public void auContentChanged(AuEvent event, ArchivalUnit au,
+                                   AuEvent.ContentChangeInfo info) {
+        pollWeightChanged(au);
       }
     };
     pluginMgr.registerAuEventHandler(auEventHandler);
@@ -735,6 +776,7 @@ public class PollManager
   public Poll callPoll(ArchivalUnit au, PollSpec pollspec) {
     AuState auState = AuUtil.getAuState(au);
     auState.pollAttempted();
+    pollWeightChanged(au);
     return callPoll0(pollspec);
   }
 
@@ -948,6 +990,7 @@ public class PollManager
     // todo(bhayes): No idea what this comment is saying. V1? V3?
     // mark the poll completed because if we need to call a repair poll
     entryManager.allowToExpire(key);
+    pollWeightChanged(pme.poll.getAu());
     try {
       theIDManager.storeIdentities();
     } catch (ProtocolException ex) {
@@ -1072,6 +1115,12 @@ public class PollManager
       paramRebuildPollQueueInterval =
           newConfig.getTimeInterval(PARAM_REBUILD_POLL_QUEUE_INTERVAL,
               DEFAULT_REBUILD_POLL_QUEUE_INTERVAL);
+      paramUsePollWeightIndex =
+          newConfig.getBoolean(PARAM_USE_POLL_WEIGHT_INDEX,
+              DEFAULT_USE_POLL_WEIGHT_INDEX);
+      paramPollWeightIndexRefreshInterval =
+          newConfig.getTimeInterval(PARAM_POLL_WEIGHT_INDEX_REFRESH_INTERVAL,
+              DEFAULT_POLL_WEIGHT_INDEX_REFRESH_INTERVAL);
       paramMinPollAttemptInterval =
           newConfig.getTimeInterval(PARAM_MIN_POLL_ATTEMPT_INTERVAL,
               DEFAULT_MIN_POLL_ATTEMPT_INTERVAL);
@@ -1233,6 +1282,8 @@ public class PollManager
                 DEFAULT_REPAIRER_THRESHOLD);
       }
 
+      // Weights depend on many of the params above
+      pollWeightIndexRefresh.expire();
       needRebuildPollQueue();
     }
     if (theRepairPolicy != null) {
@@ -1508,9 +1559,7 @@ public class PollManager
       boolean restored = false;
       // 1. See if there's a serialized poller.
       if (enablePollers) {
-        File poller = new File(dirs[ix],
-            V3PollerSerializer.POLLER_STATE_BEAN);
-        if (poller.exists()) {
+        if (V3PollerSerializer.hasPollerState(dirs[ix])) {
           if (paramDiscardSavedPolls) {
             theLog.debug("Discarding poll in directory " + dirs[ix]);
             FileUtil.delTree(dirs[ix]);
@@ -1553,15 +1602,13 @@ public class PollManager
 
       // 2. See if there's a serialized voter.
       if (enableVoters) {
-        File voter = new File(dirs[ix],
-            V3VoterSerializer.VOTER_USER_DATA_FILE);
-        if (voter.exists()) {
+        if (V3VoterSerializer.hasVoterState(dirs[ix])) {
           if (paramDiscardSavedPolls) {
             theLog.debug("Discarding vote in directory " + dirs[ix]);
             FileUtil.delTree(dirs[ix]);
             continue;
           }
-          theLog.info("Found serialized voter in file: " + voter);
+          theLog.info("Found serialized voter in dir: " + dirs[ix]);
           try {
             V3VoterSerializer voterSerializer =
                 new V3VoterSerializer(getDaemon(), dirs[ix]);
@@ -1903,6 +1950,25 @@ public class PollManager
     checkEligibleForPoll(au);
     AuState auState = AuUtil.getAuState(au);
     long lastEnd = auState.getLastTopLevelPollTime();
+    int numrisk = numPeersWithAuAtRisk(au);
+    long pollInterval = pollInterval(au, auState, numrisk);
+    if (lastEnd + pollInterval > TimeBase.nowMs()) {
+      theLog.debug3("Not ready for poll on AU " + au + " interval: "
+          + pollInterval);
+      return new PollWeight(PollVariant.PoR, 0.0);
+    }
+    long num = TimeBase.msSince(lastEnd);
+    long denom = pollInterval + auState.getPollDuration();
+    double weight = (double) num / (double) denom;
+    weight *= pollWeightMultiplier(au, numrisk);
+    long maxDelayBetweenPoR = pollInterval * maxDelayBetweenPoRMultiplier;
+    return new PollWeight(choosePollVariant(au, maxDelayBetweenPoR), weight);
+  }
+
+  /**
+   * Return the desired interval between polls on the AU.
+   */
+  long pollInterval(ArchivalUnit au, AuState auState, int numrisk) {
     long pollInterval;
     if (pollIntervalAgreementCurve != null &&
         pollIntervalAgreementLastResult.contains(auState.getLastPollResult())) {
@@ -1913,7 +1979,6 @@ public class PollManager
       pollInterval = paramToplevelPollInterval;
       theLog.debug3("Poll interval from prop: " + pollInterval);
     }
-    int numrisk = numPeersWithAuAtRisk(au);
     if (pollIntervalAtRiskPeersCurve != null) {
       int atRiskInterval = (int) pollIntervalAtRiskPeersCurve.getY(numrisk);
       if (atRiskInterval >= 0) {
@@ -1921,25 +1986,151 @@ public class PollManager
         theLog.debug3("Poll interval from risk: " + pollInterval);
       }
     }
-    if (lastEnd + pollInterval > TimeBase.nowMs()) {
-      theLog.debug3("Not ready for poll on AU " + au + " interval: "
-          + pollInterval);
-      return new PollWeight(PollVariant.PoR, 0.0);
-    }
-    long num = TimeBase.msSince(lastEnd);
-    long denom = pollInterval + auState.getPollDuration();
-    double weight = (double) num / (double) denom;
+    return pollInterval;
+  }
+
+  /**
+   * Return the product of the configured poll weight multipliers that
+   * apply to the AU.
+   */
+  double pollWeightMultiplier(ArchivalUnit au, int numrisk) {
+    double mult = 1.0;
     if (pollWeightAtRiskPeersCurve != null) {
-      weight *= pollWeightAtRiskPeersCurve.getY(numrisk);
+      mult *= pollWeightAtRiskPeersCurve.getY(numrisk);
     }
     if (pollPriorityAuidMap != null) {
-      weight *= pollPriorityAuidMap.getMatch(au.getAuId(), 1.0f);
+      mult *= pollPriorityAuidMap.getMatch(au.getAuId(), 1.0f);
     }
     if (pollPriorityAuMap != null) {
-      weight *= pollPriorityAuMap.getMatch(au, 1.0f);
+      mult *= pollPriorityAuMap.getMatch(au, 1.0f);
     }
-    long maxDelayBetweenPoR = pollInterval * maxDelayBetweenPoRMultiplier;
-    return new PollWeight(choosePollVariant(au, maxDelayBetweenPoR), weight);
+    return mult;
+  }
+
+  /**
+   * Note that the AU's poll weight may have changed.  Its entry in the
+   * poll weight index will be recomputed at the next queue rebuild.
+   */
+  void pollWeightChanged(ArchivalUnit au) {
+    if (au != null && paramUsePollWeightIndex) {
+      pollWeightIndexDirty.add(au);
+    }
+  }
+
+  /**
+   * Bring the poll weight index up to date, recomputing the entries of
+   * all AUs if it's time for a refresh, else of just those AUs that have
+   * changed.
+   * @return the number of AUs whose weight was computed
+   */
+  int updatePollWeightIndex() {
+    int cnt = 0;
+    if (pollWeightIndexRefresh.expired()) {
+      pollWeightIndexRefresh.expireIn(paramPollWeightIndexRefreshInterval);
+      pollWeightIndexDirty.clear();
+      pollWeightIndex.clear();
+      for (ArchivalUnit au : pluginMgr.getAllAus()) {
+        indexPollWeight(au);
+        cnt++;
+      }
+      lastPollWeightIndexRefresh = TimeBase.nowMs();
+    } else {
+      List<ArchivalUnit> changed;
+      synchronized (pollWeightIndexDirty) {
+        changed = new ArrayList<ArchivalUnit>(pollWeightIndexDirty);
+        pollWeightIndexDirty.clear();
+      }
+      for (ArchivalUnit au : changed) {
+        if (pluginMgr.isActiveAu(au)) {
+          indexPollWeight(au);
+          cnt++;
+        } else {
+          pollWeightIndex.remove(au);
+        }
+      }
+    }
+    return cnt;
+  }
+
+  /**
+   * Compute the AU's poll weight as a function of time and store it in
+   * the index.  The eligibility checks that depend on running polls are
+   * done when the AU is selected.
+   */
+  private void indexPollWeight(ArchivalUnit au) {
+    try {
+      checkAuClassAllowed(new PollReq(au));
+      AuState auState = AuUtil.getAuState(au);
+      if (!au.shouldCallTopLevelPoll(auState) ||
+          (!auState.hasCrawled() && !AuUtil.isPubDown(au))) {
+        pollWeightIndex.remove(au);
+        return;
+      }
+      long lastEnd = auState.getLastTopLevelPollTime();
+      int numrisk = numPeersWithAuAtRisk(au);
+      long pollInterval = pollInterval(au, auState, numrisk);
+      long denom = pollInterval + auState.getPollDuration();
+      double slope = pollWeightMultiplier(au, numrisk) / (double) denom;
+      // Weight is zero until the poll interval has elapsed since the last
+      // poll and the min interval has elapsed since the last attempt.
+      long readyTime =
+          Math.max(lastEnd + pollInterval,
+              auState.getLastPollAttempt() + paramMinPollAttemptInterval);
+      pollWeightIndex.put(au, slope, lastEnd, readyTime);
+    } catch (NotEligibleException e) {
+      pollWeightIndex.remove(au);
+    } catch (RuntimeException e) {
+      theLog.warning("Checking for pollworthiness: " + au.getName(), e);
+      // ignore AU if it caused an error
+      pollWeightIndex.remove(au);
+    }
+  }
+
+  /** Return the number of times the poll queue has been rebuilt */
+  public int getPollQueueRebuildCount() {
+    return rebuildCount;
+  }
+
+  /** Return the duration of the most recent poll queue rebuild */
+  public long getLastPollQueueRebuildTime() {
+    return lastRebuildTime;
+  }
+
+  /** Return the average duration of a poll queue rebuild */
+  public long getAvgPollQueueRebuildTime() {
+    return rebuildCount == 0 ? 0 : totalRebuildTime / rebuildCount;
+  }
+
+  /** Return the longest poll queue rebuild */
+  public long getMaxPollQueueRebuildTime() {
+    return maxRebuildTime;
+  }
+
+  /** Return the number of AUs whose poll weight was computed in the most
+   * recent poll queue rebuild */
+  public int getLastPollQueueRebuildAusEvaluated() {
+    return lastRebuildAusEvaluated;
+  }
+
+  /** Return true if the poll queue is filled from the poll weight index */
+  public boolean isUsePollWeightIndex() {
+    return paramUsePollWeightIndex;
+  }
+
+  /** Return the number of AUs in the poll weight index */
+  public int getPollWeightIndexSize() {
+    return pollWeightIndex.size();
+  }
+
+  /** Return the time the poll weight index was last recomputed from all
+   * AUs */
+  public long getLastPollWeightIndexRefresh() {
+    return lastPollWeightIndexRefresh;
+  }
+
+  /** For testing */
+  PollWeightIndex<ArchivalUnit> getPollWeightIndex() {
+    return pollWeightIndex;
   }
 
   int numPeersWithAuAtRisk(ArchivalUnit au) {
@@ -2824,8 +3015,12 @@ public class PollManager
       long startTime = TimeBase.nowMs();
 
       rebuildPollQueue0();
-      theLog.debug2("rebuildPollQueue(): " +
-          (TimeBase.nowMs() - startTime) + "ms");
+      long elapsed = TimeBase.nowMs() - startTime;
+      theLog.debug2("rebuildPollQueue(): " + elapsed + "ms");
+      rebuildCount++;
+      lastRebuildTime = elapsed;
+      totalRebuildTime += elapsed;
+      maxRebuildTime = Math.max(maxRebuildTime, elapsed);
     }
 
     /**
@@ -2848,7 +3043,13 @@ public class PollManager
           }
         }
         int availablePollCount = paramPollQueueMax - pollQueue.size();
-        if (availablePollCount > 0) {
+        if (paramUsePollWeightIndex) {
+          lastRebuildAusEvaluated = updatePollWeightIndex();
+          if (availablePollCount > 0) {
+            addFromPollWeightIndex(availablePollCount, highPriorityAus);
+          }
+        } else if (availablePollCount > 0) {
+          lastRebuildAusEvaluated = 0;
           Map<ArchivalUnit, PollWeight> weightMap =
               new HashMap<ArchivalUnit, PollWeight>();
           for (ArchivalUnit au : pluginMgr.getAllAus()) {
@@ -2857,6 +3058,7 @@ public class PollManager
                 // already tried above; might or might not have been added.
                 continue;
               }
+              lastRebuildAusEvaluated++;
               try {
                 PollWeight weight = pollWeight(au);
                 if (weight.value > 0.0) {
@@ -2892,6 +3094,52 @@ public class PollManager
         }
       }
     }
+
+    /**
+     * Add up to count AUs from the poll weight index, chosen at random in
+     * proportion to their current weight.  The weight and eligibility of
+     * each chosen AU are checked with {@link #pollWeight(ArchivalUnit)}, so
+     * an out-of-date index entry never causes an ineligible AU to be
+     * queued.
+     */
+    private void addFromPollWeightIndex(int count,
+                                        final Set<ArchivalUnit> exclude) {
+      final Map<ArchivalUnit, PollWeight> weights =
+          new HashMap<ArchivalUnit, PollWeight>();
+      PollWeightIndex.Filter<ArchivalUnit> filter =
+          new PollWeightIndex.Filter<ArchivalUnit>() {
+            public boolean accept(ArchivalUnit au) {
+              if (exclude.contains(au) || !pluginMgr.isActiveAu(au)) {
+                return false;
+              }
+              try {
+                PollWeight weight = pollWeight(au);
+                if (weight.value > 0.0) {
+                  weights.put(au, weight);
+                  return true;
+                }
+              } catch (NotEligibleException e) {
+                if (theLog.isDebug3()) {
+                  theLog.debug3("Not eligible for poll: " + au + " reason " + e);
+                }
+              } catch (RuntimeException e) {
+                theLog.warning("Checking for pollworthiness: " + au.getName(),
+                    e);
+              }
+              // Index entry is out of date
+              pollWeightChanged(au);
+              return false;
+            }
+          };
+      for (ArchivalUnit au :
+               pollWeightIndex.select(count, TimeBase.nowMs(), filter)) {
+        PollSpec spec =
+            new PollSpec(au.getAuCachedUrlSet(), Poll.V3_POLL);
+        spec.setPollVariant(weights.get(au).pollVariant());
+        PollReq req = new PollReq(au).setPollSpec(spec);
+        pollQueue.add(req);
+      }
+    }
   }
 
   class RouterMessageHandler implements LcapRouter.MessageHandler {
@@ -0,0 +1,353 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.poller;
+
+import java.util.*;
+
+import org.lockss.util.lang.LockssRandom;
+
+/**
+ * Maintains a set of items whose weights are linear functions of time,
+ * and selects weighted random samples from them in time logarithmic in
+ * the number of items.
+ *
+ * <p>An item's weight at time <i>t</i> is <code>slope * (t -
+ * origin)</code> if <i>t</i> &gt;= <code>readyTime</code>, and zero
+ * before that.  This is the form of the V3 poll weight, which grows in
+ * proportion to the time since the last poll once the poll interval has
+ * elapsed.  Because the weight's only time-dependent term is linear, the
+ * sum of the weights of any set of ready items is <code>t * &Sigma;slope -
+ * &Sigma;(slope * origin)</code>, so two Fenwick trees over those sums
+ * support weighted selection at any time without recomputing individual
+ * weights.
+ *
+ * <p>Items that aren't yet ready are kept in a queue ordered by ready
+ * time and added to the trees when their time comes.
+ */
+class PollWeightIndex<K> {
+  static final int INITIAL_CAPACITY = 64;
+
+  private class Entry {
+    final K key;
+    final double slope;
+    final double offset;	// slope * (origin - epoch)
+    final long readyTime;
+    int slot = -1;		// position in trees, -1 if not ready
+    boolean live = true;	// false once removed or replaced
+    boolean taken = false;	// already chosen in current selection
+
+    Entry(K key, double slope, double offset, long readyTime) {
+      this.key = key;
+      this.slope = slope;
+      this.offset = offset;
+      this.readyTime = readyTime;
+    }
+  }
+
+  private final Map<K,Entry> entries = new HashMap<K,Entry>();
+  private final PriorityQueue<Entry> waiting =
+    new PriorityQueue<Entry>(INITIAL_CAPACITY, new Comparator<Entry>() {
+	public int compare(Entry e1, Entry e2) {
+	  return Long.compare(e1.readyTime, e2.readyTime);
+	}});
+  private final Random random;
+
+  // Fenwick trees, 1-based, over slots.
+  private double[] slopeTree;
+  private double[] offsetTree;
+  private final List<Entry> slots = new ArrayList<Entry>();
+  private int capacity;
+  private final List<Integer> freeSlots = new ArrayList<Integer>();
+  private long epoch;
+  // Number of adds & removes since trees were built; used to bound
+  // accumulated floating point error.
+  private int changes = 0;
+
+  PollWeightIndex() {
+    this(new LockssRandom());
+  }
+
+  PollWeightIndex(Random random) {
+    this.random = random;
+    init();
+  }
+
+  private void init() {
+    capacity = INITIAL_CAPACITY;
+    slopeTree = new double[capacity + 1];
+    offsetTree = new double[capacity + 1];
+    slots.clear();
+    freeSlots.clear();
+    changes = 0;
+    epoch = -1;
+  }
+
+  /** Remove all items */
+  synchronized void clear() {
+    entries.clear();
+    waiting.clear();
+    init();
+  }
+
+  /** Return the number of items, whether ready or not */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /** Return the number of items that were ready at the time of the last
+   * selection */
+  synchronized int readySize() {
+    return entries.size() - waitingSize();
+  }
+
+  private int waitingSize() {
+    int res = 0;
+    for (Entry e : waiting) {
+      if (e.live) res++;
+    }
+    return res;
+  }
+
+  /** Return true if the key is in the index */
+  synchronized boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  /** Add an item or replace its weight function.
+   * @param key the item
+   * @param slope rate at which weight increases (per ms)
+   * @param origin time at which weight would be zero
+   * @param readyTime weight is zero before this time
+   */
+  synchronized void put(K key, double slope, long origin, long readyTime) {
+    remove(key);
+    if (!(slope > 0.0)) {
+      return;
+    }
+    if (epoch < 0) {
+      epoch = origin;
+    }
+    Entry e = new Entry(key, slope, slope * (origin - epoch), readyTime);
+    entries.put(key, e);
+    waiting.add(e);
+  }
+
+  /** Remove an item */
+  synchronized void remove(K key) {
+    Entry e = entries.remove(key);
+    if (e == null) {
+      return;
+    }
+    e.live = false;
+    if (e.slot >= 0) {
+      removeFromTree(e);
+    }
+    // Entries in the waiting queue are discarded when they reach the
+    // head.
+  }
+
+  /** Return the weight of the item at time now, or 0 if it isn't in the
+   * index */
+  synchronized double getWeight(K key, long now) {
+    Entry e = entries.get(key);
+    if (e == null || now < e.readyTime) {
+      return 0.0;
+    }
+    return weight(e.slope, e.offset, now - epoch);
+  }
+
+  /** Return the sum of the weights of all items at time now */
+  synchronized double getTotalWeight(long now) {
+    promote(now);
+    return Math.max(0.0, rangeWeight(capacity, now - epoch));
+  }
+
+  /** Select up to n distinct items, without replacement, each with
+   * probability proportional to its weight at time now.  Items rejected by
+   * the filter aren't counted toward n and aren't considered again.
+   * @param n maximum number of items to select
+   * @param now the time at which to evaluate weights
+   * @param filter if non-null, a selected item is included in the
+   * result only if the filter returns true
+   * @return the selected items, in the order chosen
+   */
+  synchronized List<K> select(int n, long now, Filter<K> filter) {
+    promote(now);
+    double t = now - epoch;
+    List<K> res = new ArrayList<K>(Math.max(0, Math.min(n, entries.size())));
+    List<Entry> taken = new ArrayList<Entry>();
+    try {
+      while (res.size() < n) {
+	double total = rangeWeight(capacity, t);
+	if (!(total > 0.0)) {
+	  break;
+	}
+	Entry e = find(random.nextDouble() * total, t);
+	if (e == null) {
+	  break;
+	}
+	// Remove it for the remainder of this selection
+	treeAdd(e.slot, -e.slope, -e.offset);
+	e.taken = true;
+	taken.add(e);
+	if (filter == null || filter.accept(e.key)) {
+	  res.add(e.key);
+	}
+      }
+    } finally {
+      for (Entry e : taken) {
+	treeAdd(e.slot, e.slope, e.offset);
+	e.taken = false;
+      }
+      if (changes > 4 * capacity) {
+	rebuildTrees(capacity);
+      }
+    }
+    return res;
+  }
+
+  /** Decides whether a selected item should be included in the result */
+  interface Filter<T> {
+    boolean accept(T key);
+  }
+
+  private static double weight(double slope, double offset, double t) {
+    return slope * t - offset;
+  }
+
+  /** Move items whose ready time has arrived into the trees */
+  private void promote(long now) {
+    Entry e;
+    while ((e = waiting.peek()) != null && e.readyTime <= now) {
+      waiting.poll();
+      if (e.live) {
+	addToTree(e);
+      }
+    }
+  }
+
+  private void addToTree(Entry e) {
+    int slot;
+    if (!freeSlots.isEmpty()) {
+      slot = freeSlots.remove(freeSlots.size() - 1);
+    } else {
+      if (slots.size() >= capacity) {
+	rebuildTrees(capacity * 2);
+      }
+      slot = slots.size();
+      slots.add(null);
+    }
+    e.slot = slot;
+    slots.set(slot, e);
+    treeAdd(slot, e.slope, e.offset);
+    changes++;
+  }
+
+  private void removeFromTree(Entry e) {
+    treeAdd(e.slot, -e.slope, -e.offset);
+    slots.set(e.slot, null);
+    freeSlots.add(e.slot);
+    e.slot = -1;
+    changes++;
+  }
+
+  /** Rebuild the trees from the slot array, which removes accumulated
+   * floating point error, optionally growing them */
+  private void rebuildTrees(int newCapacity) {
+    capacity = newCapacity;
+    slopeTree = new double[capacity + 1];
+    offsetTree = new double[capacity + 1];
+    // Linear-time Fenwick construction
+    for (int i = 1; i <= capacity; i++) {
+      Entry e = i <= slots.size() ? slots.get(i - 1) : null;
+      if (e != null) {
+	slopeTree[i] += e.slope;
+	offsetTree[i] += e.offset;
+      }
+      int parent = i + (i & -i);
+      if (parent <= capacity) {
+	slopeTree[parent] += slopeTree[i];
+	offsetTree[parent] += offsetTree[i];
+      }
+    }
+    changes = 0;
+  }
+
+  private void treeAdd(int slot, double dSlope, double dOffset) {
+    for (int i = slot + 1; i <= capacity; i += i & -i) {
+      slopeTree[i] += dSlope;
+      offsetTree[i] += dOffset;
+    }
+  }
+
+  /** Return the total weight of slots [0, n) at relative time t */
+  private double rangeWeight(int n, double t) {
+    double s = 0.0;
+    double o = 0.0;
+    for (int i = n; i > 0; i -= i & -i) {
+      s += slopeTree[i];
+      o += offsetTree[i];
+    }
+    return weight(s, o, t);
+  }
+
+  /** Return the entry in whose weight range the point falls */
+  private Entry find(double point, double t) {
+    int pos = 0;
+    double rem = point;
+    for (int step = Integer.highestOneBit(capacity); step > 0; step >>= 1) {
+      int next = pos + step;
+      if (next <= capacity) {
+	double w = weight(slopeTree[next], offsetTree[next], t);
+	if (w <= rem) {
+	  pos = next;
+	  rem -= w;
+	}
+      }
+    }
+    // pos is the 0-based slot whose range contains the point.  Rounding
+    // can leave it on an empty or already chosen slot; fall back to the
+    // nearest eligible slot.
+    for (int slot = Math.min(pos, slots.size() - 1); slot >= 0; slot--) {
+      if (isSelectable(slots.get(slot), t)) {
+	return slots.get(slot);
+      }
+    }
+    for (int slot = pos + 1; slot < slots.size(); slot++) {
+      if (isSelectable(slots.get(slot), t)) {
+	return slots.get(slot);
+      }
+    }
+    return null;
+  }
+
+  private boolean isSelectable(Entry e, double t) {
+    return e != null && !e.taken && weight(e.slope, e.offset, t) > 0.0;
+  }
+}
@@ -499,6 +499,8 @@ public class ParticipantUserData implements LockssSerializable {
   private String hashAlgorithm;
   private VoteBlocks voteBlocks;
   private VoteBlocks symmetricVoteBlocks;
+  // Highest VoteBlockCodec format the voter can decode
+  private int maxVoteBlockFormat = VoteBlockCodec.FORMAT_LEGACY;
   private List nominees;
   private byte[] pollerNonce;
   private byte[] voterNonce;
@@ -682,6 +684,16 @@ public class ParticipantUserData implements LockssSerializable {
     return voterNonce2 != null;
   }
 
+  /** Return the highest {@link VoteBlockCodec} format the voter has
+   * said it can decode */
+  public int getMaxVoteBlockFormat() {
+    return maxVoteBlockFormat;
+  }
+
+  public void setMaxVoteBlockFormat(int format) {
+    this.maxVoteBlockFormat = format;
+  }
+
   public void setIntroEffortProof(byte[] b) {
     this.introEffortProof = b;
   }
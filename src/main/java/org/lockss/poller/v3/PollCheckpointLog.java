@@ -0,0 +1,464 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.poller.v3;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+import org.lockss.util.*;
+import org.lockss.util.os.PlatformUtil;
+
+/**
+ * Append-only checkpoint log holding the serialized state of one poll.
+ * Each record associates a key with a compressed payload (or deletes the
+ * key); a later record for a key supersedes earlier ones, so saving one
+ * participant's state costs a single append rather than a rewrite of its
+ * file.  Opening a log scans only the record headers to build an index of
+ * live records; payloads are read and inflated when asked for.  The log
+ * is rewritten with only the live records when it has grown to more than
+ * a configurable multiple of their size.
+ *
+ * <p>File layout: a header (magic, version, kind), followed by records,
+ * each of which is <code>int length, byte type, short keyLength, key,
+ * int rawLength, payload, int crc32</code>.  A truncated or corrupt
+ * record, such as one left by a crash in the middle of an append, ends
+ * the log; it and anything following it are discarded when the log is
+ * opened.
+ */
+class PollCheckpointLog {
+  static final Logger log = Logger.getLogger();
+
+  /** Name of the checkpoint log file within a poll directory */
+  static final String LOG_FILE_NAME = "checkpoint.log";
+
+  /** Kind of poll recorded in the log header */
+  static final byte KIND_POLLER = 1;
+  static final byte KIND_VOTER = 2;
+
+  static final int MAGIC = 0x4c434b50;	// "LCKP"
+  static final short VERSION = 1;
+  static final int HEADER_LEN = 4 + 2 + 1;
+
+  static final byte REC_PUT = 1;
+  static final byte REC_DELETE = 2;
+
+  private final File file;
+  private final byte kind;
+  private final Map<String,Entry> index = new LinkedHashMap<String,Entry>();
+  private long length;
+  private long liveLength;
+  private int compactFactor = 4;
+  private long compactMinLength = 256 * 1024;
+  private boolean sync = false;
+
+  /** Location of the most recent record for a key */
+  private static class Entry {
+    long recOff;			// start of the record
+    int recLen;				// total record length
+    long dataOff;			// start of the payload
+    int dataLen;			// compressed payload length
+    int rawLen;				// uncompressed payload length
+  }
+
+  /**
+   * Open the log in <code>file</code>, creating it on the first append if
+   * it doesn't exist.
+   * @param file the log file
+   * @param kind the kind of poll, written in the header of a new log and
+   * checked against the header of an existing one
+   * @throws IOException if the file exists but isn't a log of the
+   * expected kind, or can't be read
+   */
+  PollCheckpointLog(File file, byte kind) throws IOException {
+    this.file = file;
+    this.kind = kind;
+    if (file.exists()) {
+      open();
+    }
+  }
+
+  void setCompaction(int factor, long minLength) {
+    this.compactFactor = factor;
+    this.compactMinLength = minLength;
+  }
+
+  void setSync(boolean sync) {
+    this.sync = sync;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /** Return the current size of the log file */
+  synchronized long getLength() {
+    return length;
+  }
+
+  /** Return the size the log would have if it were compacted */
+  synchronized long getLiveLength() {
+    return index.isEmpty() ? 0 : liveLength + HEADER_LEN;
+  }
+
+  /**
+   * Return the kind of poll recorded in the log file, or 0 if the file
+   * doesn't exist or isn't a checkpoint log.
+   */
+  static byte readKind(File file) {
+    if (!file.exists()) {
+      return 0;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(file));
+      if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+	return 0;
+      }
+      return in.readByte();
+    } catch (IOException e) {
+      return 0;
+    } finally {
+      IOUtil.safeClose(in);
+    }
+  }
+
+  synchronized boolean contains(String key) {
+    return index.containsKey(key);
+  }
+
+  /** Return the live keys that start with <code>prefix</code> */
+  synchronized List<String> keys(String prefix) {
+    List<String> res = new ArrayList<String>();
+    for (String key : index.keySet()) {
+      if (key.startsWith(prefix)) {
+	res.add(key);
+      }
+    }
+    return res;
+  }
+
+  /** Return the payload most recently stored under <code>key</code>, or
+   * null if there is none */
+  synchronized byte[] get(String key) throws IOException {
+    Entry ent = index.get(key);
+    if (ent == null) {
+      return null;
+    }
+    byte[] data = new byte[ent.dataLen];
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(ent.dataOff);
+      raf.readFully(data);
+    } finally {
+      IOUtil.safeClose(raf);
+    }
+    return inflate(data, ent.rawLen);
+  }
+
+  /** Append a record storing <code>data</code> under <code>key</code> */
+  synchronized void put(String key, byte[] data) throws IOException {
+    append(Collections.singletonList(encode(REC_PUT, key, data)));
+  }
+
+  /** Append a record deleting <code>key</code>.
+   * @return false if there was nothing stored under the key */
+  synchronized boolean delete(String key) throws IOException {
+    if (!index.containsKey(key)) {
+      return false;
+    }
+    append(Collections.singletonList(encode(REC_DELETE, key, null)));
+    return true;
+  }
+
+  /**
+   * Create the log from a set of payloads, atomically: either all of them
+   * are in the log or the log file doesn't exist.
+   * @throws IllegalStateException if the log file already exists
+   */
+  synchronized void create(Map<String,byte[]> entries) throws IOException {
+    if (file.exists()) {
+      throw new IllegalStateException("Checkpoint log already exists: "
+				      + file);
+    }
+    List<byte[]> recs = new ArrayList<byte[]>();
+    for (Map.Entry<String,byte[]> ent : entries.entrySet()) {
+      recs.add(encode(REC_PUT, ent.getKey(), ent.getValue()));
+    }
+    replaceWith(recs);
+  }
+
+  /**
+   * Rewrite the log so that it contains only the most recent record for
+   * each live key.
+   */
+  synchronized void compact() throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    long before = length;
+    List<byte[]> recs = new ArrayList<byte[]>(index.size());
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      for (Entry ent : index.values()) {
+	byte[] rec = new byte[ent.recLen];
+	raf.seek(ent.recOff);
+	raf.readFully(rec);
+	recs.add(rec);
+      }
+    } finally {
+      IOUtil.safeClose(raf);
+    }
+    replaceWith(recs);
+    log.debug2("Compacted " + file + " from " + before + " to " + length);
+  }
+
+  /** Atomically replace the log file with one containing the records */
+  private void replaceWith(List<byte[]> recs) throws IOException {
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    writeNew(tmp, recs);
+    if (!PlatformUtil.updateAtomically(tmp, file)) {
+      tmp.delete();
+      throw new IOException("Couldn't rename " + tmp + " to " + file);
+    }
+    index.clear();
+    length = HEADER_LEN;
+    liveLength = 0;
+    for (byte[] rec : recs) {
+      indexRecord(rec, length);
+      length += rec.length;
+    }
+  }
+
+  private void writeNew(File f, List<byte[]> recs) throws IOException {
+    FileOutputStream fos = new FileOutputStream(f);
+    try {
+      DataOutputStream out =
+	new DataOutputStream(new BufferedOutputStream(fos));
+      writeHeader(out);
+      for (byte[] rec : recs) {
+	out.write(rec);
+      }
+      out.flush();
+      if (sync) {
+	fos.getFD().sync();
+      }
+    } finally {
+      IOUtil.safeClose(fos);
+    }
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeByte(kind);
+  }
+
+  private void append(List<byte[]> recs) throws IOException {
+    if (!file.exists()) {
+      writeNew(file, Collections.<byte[]>emptyList());
+      length = HEADER_LEN;
+    }
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(length);
+      for (byte[] rec : recs) {
+	raf.write(rec);
+      }
+      if (sync) {
+	raf.getFD().sync();
+      }
+    } finally {
+      IOUtil.safeClose(raf);
+    }
+    for (byte[] rec : recs) {
+      indexRecord(rec, length);
+      length += rec.length;
+    }
+    if (length >= compactMinLength
+	&& length > (long)compactFactor * getLiveLength()) {
+      compact();
+    }
+  }
+
+  /** Read the header and scan the records, building the index.  Discard
+   * any trailing partial or corrupt record. */
+  private void open() throws IOException {
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    long fileLen = file.length();
+    long pos = 0;
+    try {
+      if (fileLen < HEADER_LEN
+	  || in.readInt() != MAGIC
+	  || in.readShort() != VERSION) {
+	throw new IOException("Not a poll checkpoint log: " + file);
+      }
+      byte k = in.readByte();
+      if (k != kind) {
+	throw new IOException("Checkpoint log " + file + " is of kind " + k
+			      + ", expected " + kind);
+      }
+      pos = HEADER_LEN;
+      while (pos < fileLen) {
+	if (fileLen - pos < 4) {
+	  break;
+	}
+	int bodyLen = in.readInt();
+	if (bodyLen < 7 || bodyLen > fileLen - pos - 8) {
+	  break;
+	}
+	byte[] rec = new byte[bodyLen + 8];
+	in.readFully(rec, 4, bodyLen + 4);
+	putInt(rec, 0, bodyLen);
+	CRC32 crc = new CRC32();
+	crc.update(rec, 0, bodyLen + 4);
+	if ((int)crc.getValue() != getInt(rec, bodyLen + 4)) {
+	  break;
+	}
+	indexRecord(rec, pos);
+	pos += rec.length;
+      }
+    } finally {
+      IOUtil.safeClose(in);
+    }
+    if (pos < fileLen) {
+      log.warning("Discarding " + (fileLen - pos)
+		  + " bytes of incomplete or corrupt records at end of "
+		  + file);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+	raf.setLength(pos);
+      } finally {
+	IOUtil.safeClose(raf);
+      }
+    }
+    length = pos;
+  }
+
+  /** Update the index with a complete record located at
+   * <code>off</code> */
+  private void indexRecord(byte[] rec, long off) {
+    byte type = rec[4];
+    int keyLen = ((rec[5] & 0xff) << 8) | (rec[6] & 0xff);
+    String key = new String(rec, 7, keyLen, StandardCharsets.UTF_8);
+    Entry old = index.remove(key);
+    if (old != null) {
+      liveLength -= old.recLen;
+    }
+    if (type == REC_PUT) {
+      Entry ent = new Entry();
+      ent.recOff = off;
+      ent.recLen = rec.length;
+      ent.rawLen = getInt(rec, 7 + keyLen);
+      ent.dataOff = off + 11 + keyLen;
+      ent.dataLen = rec.length - 4 - 11 - keyLen;
+      index.put(key, ent);
+      liveLength += rec.length;
+    }
+  }
+
+  /** Build a complete record, including length prefix and CRC */
+  private static byte[] encode(byte type, String key, byte[] data)
+      throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length > 0xffff) {
+      throw new IllegalArgumentException("Key too long: " + key);
+    }
+    byte[] payload = data == null ? new byte[0] : deflate(data);
+    int bodyLen = 1 + 2 + keyBytes.length + 4 + payload.length;
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(bodyLen + 8);
+    DataOutputStream out = new DataOutputStream(baos);
+    out.writeInt(bodyLen);
+    out.writeByte(type);
+    out.writeShort(keyBytes.length);
+    out.write(keyBytes);
+    out.writeInt(data == null ? 0 : data.length);
+    out.write(payload);
+    CRC32 crc = new CRC32();
+    crc.update(baos.toByteArray(), 0, bodyLen + 4);
+    out.writeInt((int)crc.getValue());
+    return baos.toByteArray();
+  }
+
+  private static byte[] deflate(byte[] data) {
+    Deflater def = new Deflater(Deflater.BEST_SPEED);
+    try {
+      def.setInput(data);
+      def.finish();
+      ByteArrayOutputStream out =
+	new ByteArrayOutputStream(Math.max(64, data.length / 4));
+      byte[] buf = new byte[8192];
+      while (!def.finished()) {
+	out.write(buf, 0, def.deflate(buf));
+      }
+      return out.toByteArray();
+    } finally {
+      def.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] data, int rawLen) throws IOException {
+    Inflater inf = new Inflater();
+    try {
+      inf.setInput(data);
+      byte[] res = new byte[rawLen];
+      int n = 0;
+      while (n < rawLen && !inf.finished()) {
+	int r = inf.inflate(res, n, rawLen - n);
+	if (r == 0 && (inf.needsInput() || inf.needsDictionary())) {
+	  break;
+	}
+	n += r;
+      }
+      if (n != rawLen) {
+	throw new IOException("Checkpoint record inflated to " + n
+			      + " bytes, expected " + rawLen);
+      }
+      return res;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt checkpoint record", e);
+    } finally {
+      inf.end();
+    }
+  }
+
+  private static int getInt(byte[] b, int off) {
+    return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+      | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+  }
+
+  private static void putInt(byte[] b, int off, int val) {
+    b[off] = (byte)(val >>> 24);
+    b[off + 1] = (byte)(val >>> 16);
+    b[off + 2] = (byte)(val >>> 8);
+    b[off + 3] = (byte)val;
+  }
+}
@@ -132,6 +132,7 @@ public class PollerActions {
       return V3Events.evtDeclinePoll;
     } else {
       ud.setVoterNonce(voterNonce);
+      ud.setMaxVoteBlockFormat(msg.getMaxVoteBlockFormat());
       ud.setStatus(V3Poller.PEER_STATUS_ACCEPTED_POLL);
       log.info("Peer " + ud.getVoterId() + " accepted invitation for poll " + 
                ud.getKey() + " and sent voter nonce " +
@@ -56,7 +56,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.collections.ListUtils;
+import org.lockss.config.Configuration;
 import org.lockss.config.CurrentConfig;
 import org.lockss.daemon.status.ColumnDescriptor;
 import org.lockss.daemon.status.OverviewAccessor;
@@ -108,9 +110,20 @@ public class V3PollStatus {
   public static final String PEER_VOTER_ONLY_URLS_TABLE_NAME =
       "V3PeerVoterOnlyUrlsTable";
 
+  /** Number of rows per page in the Polls and Votes tables when they're
+   * displayed interactively.  0 means all rows on one page. */
+  public static final String PARAM_ROWS_PER_PAGE =
+      Configuration.PREFIX + "poll.v3.statusRowsPerPage";
+  public static final int DEFAULT_ROWS_PER_PAGE = 500;
+
   protected PollManager pollManager;
   private static Logger theLog = Logger.getLogger();
 
+  static int getRowsPerPage() {
+    return CurrentConfig.getIntParam(PARAM_ROWS_PER_PAGE,
+        DEFAULT_ROWS_PER_PAGE);
+  }
+
   V3PollStatus(PollManager pollManager) {
     this.pollManager = pollManager;
   }
@@ -146,6 +159,8 @@ public class V3PollStatus {
   // Sort keys, not visible
   private static final String SORT_KEY1 = "sort1";
   private static final String SORT_KEY2 = "sort2";
+  private static final Set<String> SORT_COLS =
+      SetUtil.set(SORT_KEY1, SORT_KEY2);
 
   private static int SORT_BASE_ACTIVE = 0;
   private static int SORT_BASE_PENDING = 1;
@@ -232,7 +247,26 @@ public class V3PollStatus {
       table.setColumnDescriptors(colDescs, getDefaultCols(table));
       table.setSummaryInfo(getSummary(pollManager, table));
       table.setDefaultSortRules(sortRules);
-      table.setRows(getRows(key));
+      final List<PollRow> rowObjs = getRowObjects(key);
+      table.setRowSource(new StatusTable.RowSource<PollRow>() {
+            public Collection<PollRow> getRowObjects() {
+              return rowObjs;
+            }
+            public Map makeRow(PollRow pr, Set<String> cols) {
+              if (SORT_COLS.containsAll(cols)) {
+                Map row = new HashMap();
+                if (pr.poller != null) {
+                  putSortKeys(row, pr.poller);
+                } else {
+                  putPendingSortKeys(row, pr.rowNum);
+                }
+                return row;
+              }
+              return pr.poller != null
+                  ? V3PollerStatus.this.makeRow(pr.poller)
+                  : makePendingRow(pr.pendingAu, pr.rowNum);
+            }},
+          getRowsPerPage());
     }
 
     private List<String> getDefaultCols(StatusTable table) {
@@ -274,6 +308,32 @@ public class V3PollStatus {
             ColumnDescriptor.TYPE_TIME_INTERVAL,
             val));
       }
+      if (isDebug && pollManager.getPollQueueRebuildCount() > 0) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pollManager.getPollQueueRebuildCount());
+        sb.append(" rebuilds, last: ");
+        sb.append(pollManager.getLastPollQueueRebuildTime());
+        sb.append("ms, avg: ");
+        sb.append(pollManager.getAvgPollQueueRebuildTime());
+        sb.append("ms, max: ");
+        sb.append(pollManager.getMaxPollQueueRebuildTime());
+        sb.append("ms, ");
+        sb.append(pollManager.getLastPollQueueRebuildAusEvaluated());
+        sb.append(" AUs evaluated");
+        summary.add(new SummaryInfo("Poll Queue",
+            ColumnDescriptor.TYPE_STRING,
+            sb.toString()));
+        if (pollManager.isUsePollWeightIndex()) {
+          long lastRefresh = pollManager.getLastPollWeightIndexRefresh();
+          String refreshStr = lastRefresh > 0
+            ? TimeUtil.timeIntervalToString(TimeBase.msSince(lastRefresh))
+            + " ago" : "never";
+          summary.add(new SummaryInfo("Poll Weight Index",
+              ColumnDescriptor.TYPE_STRING,
+              pollManager.getPollWeightIndexSize() + " AUs, refreshed "
+              + refreshStr));
+        }
+      }
 //       List<ArchivalUnit> queue = pollManager.getPendingQueueAus();
 //       if (!queue.isEmpty()) {
 //         summary.add(new SummaryInfo("Queued",
@@ -305,22 +365,35 @@ public class V3PollStatus {
       return false;
     }
 
-    private List getRows(String key) {
-      List rows = new ArrayList();
+    /** A poll or pending poll, and its position in the queue */
+    private static class PollRow {
+      V3Poller poller;
+      ArchivalUnit pendingAu;
+      int rowNum;
+    }
+
+    /** Collect the polls and pending polls to be displayed.  Rows are
+     * built only for those on the page being displayed. */
+    private List<PollRow> getRowObjects(String key) {
+      List<PollRow> rows = new ArrayList<PollRow>();
       Collection v3Pollers = pollManager.getV3Pollers();
       for (Iterator it = v3Pollers.iterator(); it.hasNext(); ) {
         V3Poller poller = (V3Poller) it.next();
         if (key == null || key.equals(poller.getAu().getAuId())) {
-          rows.add(makeRow(poller));
+          PollRow pr = new PollRow();
+          pr.poller = poller;
+          rows.add(pr);
         }
       }
       int rowNum = 0;
       for (ArchivalUnit au : pollManager.getPendingQueueAus()) {
         if (key == null || key.equals(au.getAuId())) {
-          rows.add(makePendingRow(au, rowNum++));
+          PollRow pr = new PollRow();
+          pr.pendingAu = au;
+          pr.rowNum = rowNum++;
+          rows.add(pr);
         }
       }
-
       return rows;
     }
 
@@ -351,14 +424,10 @@ public class V3PollStatus {
       }
       row.put("start", new Long(poller.getCreateTime()));
       row.put("deadline", poller.getDeadline());
-      if (poller.isPollActive()) {
-        row.put(SORT_KEY1, SORT_BASE_ACTIVE);
-        row.put(SORT_KEY2, row.get("start"));
-      } else {
+      if (!poller.isPollActive()) {
         row.put("end", poller.getEndTime());
-        row.put(SORT_KEY1, SORT_BASE_DONE);
-        row.put(SORT_KEY2, row.get("end"));
       }
+      putSortKeys(row, poller);
       String skey = PollUtil.makeShortPollKey(poller.getKey());
       row.put("pollId", new StatusTable.Reference(skey,
           POLLER_DETAIL_TABLE_NAME,
@@ -366,13 +435,27 @@ public class V3PollStatus {
       return row;
     }
 
+    private void putSortKeys(Map row, V3Poller poller) {
+      if (poller.isPollActive()) {
+        row.put(SORT_KEY1, SORT_BASE_ACTIVE);
+        row.put(SORT_KEY2, new Long(poller.getCreateTime()));
+      } else {
+        row.put(SORT_KEY1, SORT_BASE_DONE);
+        row.put(SORT_KEY2, poller.getEndTime());
+      }
+    }
+
     private Map makePendingRow(ArchivalUnit au, int rowNum) {
       Map row = new HashMap();
       row.put("auId", makeAuRef(au, ArchivalUnitStatus.AU_STATUS_TABLE_NAME));
       row.put("status", "Pending");
+      putPendingSortKeys(row, rowNum);
+      return row;
+    }
+
+    private void putPendingSortKeys(Map row, int rowNum) {
       row.put(SORT_KEY1, SORT_BASE_PENDING);
       row.put(SORT_KEY2, Integer.MAX_VALUE - rowNum);
-      return row;
     }
   }
 
@@ -423,22 +506,26 @@ public class V3PollStatus {
         table.setSummaryInfo(getSummary(pollManager));
       }
       table.setDefaultSortRules(sortRules);
-      table.setRows(getRows());
+      final Collection<V3Voter> voters = pollManager.getV3Voters();
+      table.setRowSource(new StatusTable.RowSource<V3Voter>() {
+            public Collection<V3Voter> getRowObjects() {
+              return voters;
+            }
+            public Map makeRow(V3Voter voter, Set<String> cols) {
+              if (SORT_COLS.containsAll(cols)) {
+                Map row = new HashMap();
+                putSortKeys(row, voter);
+                return row;
+              }
+              return V3VoterStatus.this.makeRow(voter);
+            }},
+          getRowsPerPage());
     }
 
     public boolean requiresKey() {
       return false;
     }
 
-    private List getRows() {
-      List rows = new ArrayList();
-      Collection v3Voters = pollManager.getV3Voters();
-      for (Iterator it = v3Voters.iterator(); it.hasNext(); ) {
-        rows.add(makeRow((V3Voter) it.next()));
-      }
-      return rows;
-    }
-
     private Map makeRow(V3Voter voter) {
       Map row = new HashMap();
       ArchivalUnit au = voter.getAu();
@@ -451,6 +538,11 @@ public class V3PollStatus {
       row.put("pollId", new StatusTable.Reference(skey,
           VOTER_DETAIL_TABLE_NAME,
           voter.getKey()));
+      putSortKeys(row, voter);
+      return row;
+    }
+
+    private void putSortKeys(Map row, V3Voter voter) {
       if (voter.isPollActive()) {
         row.put(SORT_KEY1, SORT_BASE_ACTIVE);
         row.put(SORT_KEY2, voter.getCreateTime());
@@ -458,7 +550,6 @@ public class V3PollStatus {
         row.put(SORT_KEY1, SORT_BASE_DONE);
         row.put(SORT_KEY2, voter.getDeadline());
       }
-      return row;
     }
 
     private List getSummary(PollManager pollManager) {
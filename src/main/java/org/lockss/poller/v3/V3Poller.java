@@ -92,6 +92,7 @@ import org.lockss.protocol.PeerIdentityStatus;
 import org.lockss.protocol.V3LcapMessage;
 import org.lockss.protocol.V3LcapMessage.PollNak;
 import org.lockss.protocol.VoteBlock;
+import org.lockss.protocol.VoteBlockCodec;
 import org.lockss.protocol.VoteBlocks;
 import org.lockss.protocol.psm.PsmException;
 import org.lockss.protocol.psm.PsmInterp;
@@ -3129,7 +3130,9 @@ public class V3Poller implements Poll {
           log.debug2("Voter " + ud.getVoterId() + " has nonce2");
           VoteBlocks blocks;
           try {
-            blocks = new DiskVoteBlocks(getStateDir());
+            // Sent to the voter in the receipt
+            blocks = new DiskVoteBlocks(getStateDir(),
+                VoteBlockCodec.negotiateFormat(ud.getMaxVoteBlockFormat()));
           } catch (IOException ex) {
             log.error("Creating VoteBlocks failed for voter " +
                 ud.getVoterId() +
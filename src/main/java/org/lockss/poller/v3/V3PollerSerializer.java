@@ -45,6 +45,10 @@ public class V3PollerSerializer extends V3Serializer {
   public static final String POLLER_USER_DATA_PREFIX = "participant_";
   public static final String POLLER_USER_DATA_SUFFIX = ".xml";
 
+  /** Checkpoint log keys */
+  static final String POLLER_STATE_KEY = "poller_state";
+  static final String POLLER_USER_DATA_KEY_PREFIX = "participant:";
+
   private File pollerStateBeanFile;
 
   /** Mapping of peer identity to state file. */
@@ -54,6 +58,7 @@ public class V3PollerSerializer extends V3Serializer {
     super(daemon);
     this.pollerStateBeanFile = new File(pollDir, POLLER_STATE_BEAN);
     this.peerMapping = new HashMap();
+    initCheckpointLog(PollCheckpointLog.KIND_POLLER);
   }
 
   public V3PollerSerializer(LockssDaemon daemon,
@@ -74,6 +79,34 @@ public class V3PollerSerializer extends V3Serializer {
     } catch (Exception ex) {
       throw new PollSerializerException("Unable to restore PollerUserData", ex);
     }
+    initCheckpointLog(PollCheckpointLog.KIND_POLLER);
+    if (checkpointLog != null
+        && (pollerStateBeanFile.exists() || !peerMapping.isEmpty())) {
+      Map<String,File> files = new LinkedHashMap<String,File>();
+      if (pollerStateBeanFile.exists()) {
+        files.put(POLLER_STATE_KEY, pollerStateBeanFile);
+      }
+      for (Map.Entry<PeerIdentity,File> ent : peerMapping.entrySet()) {
+        files.put(userDataKey(ent.getKey()), ent.getValue());
+      }
+      migrateToCheckpointLog(files);
+      peerMapping.clear();
+    }
+  }
+
+  /**
+   * Return true if the directory holds a serialized poller, in either a
+   * checkpoint log or XML files.
+   */
+  public static boolean hasPollerState(File dir) {
+    return new File(dir, POLLER_STATE_BEAN).exists()
+      || (PollCheckpointLog.readKind(new File(dir,
+                                              PollCheckpointLog.LOG_FILE_NAME))
+          == PollCheckpointLog.KIND_POLLER);
+  }
+
+  private static String userDataKey(PeerIdentity id) {
+    return POLLER_USER_DATA_KEY_PREFIX + id.getIdString();
   }
 
   private static final class PollerUserDataFileFilter implements FileFilter {
@@ -95,8 +128,12 @@ public class V3PollerSerializer extends V3Serializer {
     if (!enabled) {
       return;
     }
-    log.debug2("Saving poll state in " + pollerStateBeanFile);
     try {
+      if (checkpointLog != null) {
+        putCheckpoint(POLLER_STATE_KEY, state);
+        return;
+      }
+      log.debug2("Saving poll state in " + pollerStateBeanFile);
       getSerializer().serialize(pollerStateBeanFile, state);
     } catch (Exception ex) {
       throw new PollSerializerException("Unable to save state for poll", ex);
@@ -109,6 +146,18 @@ public class V3PollerSerializer extends V3Serializer {
    * @throws PollSerializerException if the poller state cannot be loaded.
    */
   public PollerStateBean loadPollerState() throws PollSerializerException {
+    if (checkpointLog != null) {
+      PollerStateBean state;
+      try {
+        state = (PollerStateBean)getCheckpoint(POLLER_STATE_KEY);
+      } catch (Exception ex) {
+        throw new PollSerializerException("Unable to restore poll state", ex);
+      }
+      if (state == null) {
+        throw new PollSerializerException("No serialized state for poll");
+      }
+      return state;
+    }
     if (!pollerStateBeanFile.exists()) {
       throw new PollSerializerException("No serialized state for poll");
     }
@@ -133,6 +182,10 @@ public class V3PollerSerializer extends V3Serializer {
     PeerIdentity peerId = state.getVoterId();
     log.debug2("Saving voter state for participant " + state.getVoterId());
     try {
+      if (checkpointLog != null) {
+        putCheckpoint(userDataKey(peerId), state);
+        return;
+      }
       File outFile = getPollerUserDataFile(peerId);
       getSerializer().serialize(outFile, state);
     } catch (Exception ex) {
@@ -147,6 +200,20 @@ public class V3PollerSerializer extends V3Serializer {
    */
   public ParticipantUserData loadPollerUserData(PeerIdentity peerId)
       throws PollSerializerException {
+    if (checkpointLog != null) {
+      ParticipantUserData ud;
+      try {
+        ud = (ParticipantUserData)getCheckpoint(userDataKey(peerId));
+      } catch (Exception ex) {
+        throw new PollSerializerException("Unable to restore PollerUserData",
+                                          ex);
+      }
+      if (ud == null) {
+        throw new PollSerializerException("No serialized state for voter " +
+                                          peerId);
+      }
+      return ud;
+    }
     try {
       File in = peerMapping.get(peerId);
       if (in == null) {
@@ -167,6 +234,13 @@ public class V3PollerSerializer extends V3Serializer {
    */
   public void removePollerUserData(PeerIdentity id)
       throws IOException, SerializationException {
+    if (checkpointLog != null) {
+      if (!checkpointLog.delete(userDataKey(id))) {
+        log.warning("No poller user data in checkpoint log, can't remove " +
+                    id);
+      }
+      return;
+    }
     File f = peerMapping.get(id);
     if (f == null) {
       log.warning("Poller user data file does not exist, can't remove " + f);
@@ -205,6 +279,20 @@ public class V3PollerSerializer extends V3Serializer {
    */
   public Collection<ParticipantUserData> loadVoterStates()
       throws PollSerializerException {
+    if (checkpointLog != null) {
+      List<String> keys = checkpointLog.keys(POLLER_USER_DATA_KEY_PREFIX);
+      Collection<ParticipantUserData> innerCircleStates =
+        new ArrayList(keys.size());
+      try {
+        for (String key : keys) {
+          innerCircleStates.add((ParticipantUserData)getCheckpoint(key));
+        }
+      } catch (Exception ex) {
+        throw new PollSerializerException("Unable to restore inner circle",
+                                          ex);
+      }
+      return innerCircleStates;
+    }
     File[] files = pollDir.listFiles(voterFilter);
     Collection<ParticipantUserData> innerCircleStates =
       new ArrayList(files.length);
@@ -33,8 +33,10 @@ in this Software without prior written authorization from Stanford University.
 package org.lockss.poller.v3;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
 
-import org.lockss.app.LockssDaemon;
+import org.lockss.app.*;
 import org.lockss.config.*;
 import org.lockss.util.*;
 import org.lockss.util.io.FileUtil;
@@ -44,9 +46,35 @@ public abstract class V3Serializer {
 
   private static final String PREFIX = Configuration.PREFIX + "poll.v3.";
 
+  /** If true, poll state is checkpointed to an append-only log in the
+   * poll directory, rather than to one XML file per object.  Existing
+   * XML checkpoint directories are converted to logs when their polls
+   * are restored.  Directories that already contain a log are always
+   * read from and written to the log. */
+  public static final String PARAM_CHECKPOINT_LOG = PREFIX + "checkpointLog";
+  public static final boolean DEFAULT_CHECKPOINT_LOG = true;
+
+  /** The checkpoint log is compacted when it grows larger than this
+   * multiple of the size of its live records. */
+  public static final String PARAM_CHECKPOINT_COMPACT_FACTOR =
+    PREFIX + "checkpointCompactFactor";
+  public static final int DEFAULT_CHECKPOINT_COMPACT_FACTOR = 4;
+
+  /** The checkpoint log isn't compacted until it's at least this many
+   * bytes long. */
+  public static final String PARAM_CHECKPOINT_COMPACT_MIN_SIZE =
+    PREFIX + "checkpointCompactMinSize";
+  public static final long DEFAULT_CHECKPOINT_COMPACT_MIN_SIZE = 256 * 1024;
+
+  /** If true, each append to the checkpoint log is synced to disk. */
+  public static final String PARAM_CHECKPOINT_SYNC = PREFIX + "checkpointSync";
+  public static final boolean DEFAULT_CHECKPOINT_SYNC = false;
+
   protected File pollDir;
   protected LockssDaemon daemon;
   protected boolean enabled = true;
+  /** The checkpoint log, or null if state is stored in XML files */
+  protected PollCheckpointLog checkpointLog;
 
   static final Logger log = Logger.getLogger();
   
@@ -98,6 +126,89 @@ public abstract class V3Serializer {
     return new XStreamSerializer(daemon);
   }
 
+  /** Make a serializer that marshals to and from byte arrays, for the
+   * checkpoint log */
+  protected CheckpointSerializer getCheckpointSerializer() {
+    return new CheckpointSerializer(daemon);
+  }
+
+  /**
+   * Use the checkpoint log if there's already one in the poll directory,
+   * or if {@link #PARAM_CHECKPOINT_LOG} is true.  Otherwise leave {@link
+   * #checkpointLog} null; state will be stored in XML files.
+   * @param kind the kind of poll (poller or voter) stored in the log
+   */
+  protected void initCheckpointLog(byte kind) throws PollSerializerException {
+    File logFile = new File(pollDir, PollCheckpointLog.LOG_FILE_NAME);
+    if (!logFile.exists()
+	&& !CurrentConfig.getBooleanParam(PARAM_CHECKPOINT_LOG,
+					  DEFAULT_CHECKPOINT_LOG)) {
+      return;
+    }
+    try {
+      checkpointLog = new PollCheckpointLog(logFile, kind);
+    } catch (IOException ex) {
+      throw new PollSerializerException("Unable to open checkpoint log", ex);
+    }
+    checkpointLog.setCompaction(CurrentConfig.getIntParam(PARAM_CHECKPOINT_COMPACT_FACTOR,
+							  DEFAULT_CHECKPOINT_COMPACT_FACTOR),
+				CurrentConfig.getLongParam(PARAM_CHECKPOINT_COMPACT_MIN_SIZE,
+							   DEFAULT_CHECKPOINT_COMPACT_MIN_SIZE));
+    checkpointLog.setSync(CurrentConfig.getBooleanParam(PARAM_CHECKPOINT_SYNC,
+							DEFAULT_CHECKPOINT_SYNC));
+  }
+
+  /** Serialize an object and append it to the checkpoint log under
+   * <code>key</code> */
+  protected void putCheckpoint(String key, Object obj)
+      throws IOException, SerializationException {
+    checkpointLog.put(key, getCheckpointSerializer().toBytes(obj));
+  }
+
+  /** Return the object most recently stored in the checkpoint log under
+   * <code>key</code>, or null if none */
+  protected Object getCheckpoint(String key)
+      throws IOException, SerializationException {
+    byte[] data = checkpointLog.get(key);
+    if (data == null) {
+      return null;
+    }
+    return getSerializer().deserialize(new ByteArrayInputStream(data));
+  }
+
+  /**
+   * Move the contents of XML checkpoint files into the checkpoint log,
+   * then delete the files.  The XML is copied as is, not deserialized.
+   * If the log already exists the files are left over from an earlier
+   * migration that was interrupted before it could delete them.
+   * @param files map of checkpoint log key to XML file
+   */
+  protected void migrateToCheckpointLog(Map<String,File> files)
+      throws PollSerializerException {
+    try {
+      if (checkpointLog.getFile().exists()) {
+	log.warning("Removing XML checkpoint files already migrated to "
+		    + checkpointLog.getFile());
+      } else {
+	Map<String,byte[]> entries = new LinkedHashMap<String,byte[]>();
+	for (Map.Entry<String,File> ent : files.entrySet()) {
+	  entries.put(ent.getKey(), Files.readAllBytes(ent.getValue().toPath()));
+	}
+	checkpointLog.create(entries);
+	log.debug("Migrated " + entries.size() + " XML checkpoint files to "
+		  + checkpointLog.getFile());
+      }
+    } catch (IOException ex) {
+      throw new PollSerializerException("Unable to migrate poll state to "
+					+ "checkpoint log", ex);
+    }
+    for (File f : files.values()) {
+      if (!f.delete()) {
+	log.warning("Unable to delete migrated checkpoint file " + f);
+      }
+    }
+  }
+
   /**
    * Clean up all resources used by this poll. Removes the poll directory.
    */
@@ -106,6 +217,20 @@ public abstract class V3Serializer {
       log.warning("Unable to delete poll state directory: " + pollDir);
   }
 
+  /** An XStreamSerializer that can marshal to a byte array */
+  protected static class CheckpointSerializer extends XStreamSerializer {
+    public CheckpointSerializer(LockssApp lockssContext) {
+      super(lockssContext);
+    }
+
+    public byte[] toBytes(Object obj)
+	throws SerializationException, InterruptedIOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      serialize(out, obj);
+      return out.toByteArray();
+    }
+  }
+
   /**
    * PollSerializerException. Simply exception handling by wrapping IOException
    * and ObjectSerializer.SerializationException.
@@ -326,6 +326,7 @@ public class V3Voter implements Poll {
 			  msg.getEffortProof(),
 			  stateDir);
       voterUserData.setPollMessage(msg);
+      voterUserData.setVoteBlockFormat(VoteBlockCodec.negotiateFormat(msg.getMaxVoteBlockFormat()));
       voterUserData.setVoteDeadline(TimeBase.nowMs() + msg.getVoteDuration());
     } catch (IOException ex) {
       log.critical("IOException while trying to create VoterUserData: ", ex);
@@ -31,6 +31,7 @@
 package org.lockss.poller.v3;
 
 import java.io.*;
+import java.util.*;
 
 import org.lockss.app.*;
 import org.lockss.protocol.psm.*;
@@ -39,18 +40,38 @@ public class V3VoterSerializer extends V3Serializer {
 
   public static final String VOTER_USER_DATA_FILE = "voter_user_data.xml";
 
+  /** Checkpoint log key */
+  static final String VOTER_USER_DATA_KEY = "voter_user_data";
+
   private File voterUserDataFile;
 
   public V3VoterSerializer(LockssDaemon daemon)
       throws PollSerializerException {
     super(daemon);
     this.voterUserDataFile = new File(pollDir, VOTER_USER_DATA_FILE);
+    initCheckpointLog(PollCheckpointLog.KIND_VOTER);
   }
 
   public V3VoterSerializer(LockssDaemon daemon, File dir)
       throws PollSerializerException {
     super(daemon, dir);
     this.voterUserDataFile = new File(pollDir, VOTER_USER_DATA_FILE);
+    initCheckpointLog(PollCheckpointLog.KIND_VOTER);
+    if (checkpointLog != null && voterUserDataFile.exists()) {
+      migrateToCheckpointLog(Collections.singletonMap(VOTER_USER_DATA_KEY,
+                                                      voterUserDataFile));
+    }
+  }
+
+  /**
+   * Return true if the directory holds a serialized voter, in either a
+   * checkpoint log or an XML file.
+   */
+  public static boolean hasVoterState(File dir) {
+    return new File(dir, VOTER_USER_DATA_FILE).exists()
+      || (PollCheckpointLog.readKind(new File(dir,
+                                              PollCheckpointLog.LOG_FILE_NAME))
+          == PollCheckpointLog.KIND_VOTER);
   }
 
   public void saveVoterUserData(VoterUserData data)
@@ -59,6 +80,10 @@ public class V3VoterSerializer extends V3Serializer {
       return;
     }
     try {
+      if (checkpointLog != null) {
+        putCheckpoint(VOTER_USER_DATA_KEY, data);
+        return;
+      }
       getSerializer().serialize(voterUserDataFile, data);
     } catch (Exception ex) {
       throw new PollSerializerException("Unable to save VoterUserData", ex);
@@ -67,6 +92,19 @@ public class V3VoterSerializer extends V3Serializer {
 
   public VoterUserData loadVoterUserData()
       throws PollSerializerException {
+    if (checkpointLog != null) {
+      VoterUserData data;
+      try {
+        data = (VoterUserData)getCheckpoint(VOTER_USER_DATA_KEY);
+      } catch (Exception ex) {
+        throw new PollSerializerException("Unable to restore VoterUserData",
+                                          ex);
+      }
+      if (data == null) {
+        throw new PollSerializerException("No serialized VoterUserData");
+      }
+      return data;
+    }
     try {
       return (VoterUserData)getSerializer().deserialize(voterUserDataFile);
     } catch (Exception ex) {
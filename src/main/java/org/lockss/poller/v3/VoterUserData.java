@@ -328,6 +328,14 @@ public class VoterUserData
     this.voteBlocks = voteBlocks;
   }
 
+  /** Set the {@link VoteBlockCodec} format in which our vote will be
+   * stored and sent.  Must be called before any blocks are added. */
+  public void setVoteBlockFormat(int format) {
+    if (voteBlocks instanceof DiskVoteBlocks) {
+      ((DiskVoteBlocks)voteBlocks).setFormat(format);
+    }
+  }
+
   public VoteBlocks getSymmetricVoteBlocks() {
     return symmetricVoteBlocks;
   }
@@ -371,7 +379,10 @@ public class VoterUserData
    */
   public void enableSymmetricPoll(byte[] symmetricNonce) throws IOException {
     byte[] voterNonce2 = symmetricNonce;
-    VoteBlocks symmetricVoteBlocks = new DiskVoteBlocks(voter.getStateDir());
+    // Never sent, so may use any format we support
+    VoteBlocks symmetricVoteBlocks =
+      new DiskVoteBlocks(voter.getStateDir(),
+			 VoteBlockCodec.getConfiguredMaxFormat());
     setVoterNonce2AndBlocks(voterNonce2, symmetricVoteBlocks);
   }
 
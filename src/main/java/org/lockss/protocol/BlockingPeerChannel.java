@@ -107,9 +107,10 @@ class BlockingPeerChannel implements PeerChannel {
 
   private ChannelStats stats = new ChannelStats();
 
-  /** All other constructors should call this one
+  /** All other constructors, including those of subclasses, should call
+   * this one
    */
-  private BlockingPeerChannel(BlockingStreamComm scomm) {
+  protected BlockingPeerChannel(BlockingStreamComm scomm) {
     this.scomm = scomm;
     localPeer = scomm.getMyPeerId();
     rcvQueue = scomm.getReceiveQueue();
@@ -159,7 +160,7 @@ class BlockingPeerChannel implements PeerChannel {
     return peer;
   }
 
-  long getLastActiveTime() {
+  protected long getLastActiveTime() {
     return lastActiveTime;
   }
 
@@ -174,7 +175,7 @@ class BlockingPeerChannel implements PeerChannel {
     return didOpen;
   }
 
-  private void setState(ChannelState newState) {
+  protected void setState(ChannelState newState) {
     if (log.isDebug3()) log.debug3(p()+"State: " + state + " -> " + newState);
     if (state != prevState) {
       prevState = state;
@@ -446,17 +447,7 @@ class BlockingPeerChannel implements PeerChannel {
 	if (msg == null) msg = "Aborting " + peer.getIdString();
 	log.warning(msg, t);
       }
-      IOUtil.safeClose(sock);
-      IOUtil.safeClose(ins);
-      if (abort && socket_outs != null) {
-	// if aborting, don't close buffered stream as flush() might hang
-	IOUtil.safeClose(socket_outs);
-      } else {
-	IOUtil.safeClose(outs);
-      }
-      connecter = wtConnecter = stopThread(connecter);
-      reader = (ChannelReader)stopThread(reader);
-      writer = stopThread(writer);
+      closeConnection(abort);
       stateTrans(ChannelState.CLOSING, ChannelState.CLOSED);
     } else {
       // XXX This shouldn't be necessary.  stopChannel() previously called
@@ -467,6 +458,22 @@ class BlockingPeerChannel implements PeerChannel {
     }
   }
 
+  /** Close the socket and streams and stop the channel threads.  Called
+   * once, from stopChannel(), while in state CLOSING. */
+  protected void closeConnection(boolean abort) {
+    IOUtil.safeClose(sock);
+    IOUtil.safeClose(ins);
+    if (abort && socket_outs != null) {
+      // if aborting, don't close buffered stream as flush() might hang
+      IOUtil.safeClose(socket_outs);
+    } else {
+      IOUtil.safeClose(outs);
+    }
+    connecter = wtConnecter = stopThread(connecter);
+    reader = (ChannelReader)stopThread(reader);
+    writer = stopThread(writer);
+  }
+
   private ChannelRunner stopThread(ChannelRunner runner) {
     if (runner != null) {
       if (log.isDebug3()) log.debug3("Stopping " + runner.getName());
@@ -697,7 +704,13 @@ class BlockingPeerChannel implements PeerChannel {
       log.warning(msg);
       throw new ProtocolException(msg);
     }
-    String peerkey = new String(peerbuf, 0, plen);
+    processPeerId(new String(peerbuf, 0, plen));
+  }
+
+  /** Verify a peer id received from our peer, tell comm to associate us
+   * with id if not already.
+   */
+  protected void processPeerId(String peerkey) throws IOException {
     PeerIdentity pid = scomm.findPeerIdentity(peerkey);
     if (peer == null) {
       peer = pid;
@@ -748,26 +761,33 @@ class BlockingPeerChannel implements PeerChannel {
       copyBytes(ins, msgOut, len, stats.getInCount());
       logRate("Rcv", len, startTime);
       msgOut.close();
-      // update lastActiveTime *before* queuing message; produces more
-      // predictable behavior when running in simulated time in unit tests
-      lastRcvTime = lastActiveTime = TimeBase.nowMs();
-      RateLimiter limiter = scomm.getReceiveRateLimiter(peer);
-      if (limiter == null || limiter.isEventOk()) {
-	if (limiter != null) {
-	  limiter.event();
-	}
-	rcvQueue.put(msg);
-	countRcvdMsg();
-      } else {
-	scomm.rcvRateLimited(peer);
-	log.debug3("rcv rate limited");
-      }
+      enqueueReceivedMsg(msg);
     } catch (IOException e) {
       msg.delete();
       throw e;
     }
   }
 
+  /** Enqueue a completely received message for processing, subject to
+   * the peer's receive rate limiter
+   */
+  protected void enqueueReceivedMsg(PeerMessage msg) {
+    // update lastActiveTime *before* queuing message; produces more
+    // predictable behavior when running in simulated time in unit tests
+    noteReceived();
+    RateLimiter limiter = scomm.getReceiveRateLimiter(peer);
+    if (limiter == null || limiter.isEventOk()) {
+      if (limiter != null) {
+	limiter.event();
+      }
+      rcvQueue.put(msg);
+      countRcvdMsg();
+    } else {
+      scomm.rcvRateLimited(peer);
+      log.debug3("rcv rate limited");
+    }
+  }
+
   void countRcvdMsg() {
     stats.rcvdMsg();
     BlockingStreamComm.PeerData pd = scomm.getPeerData(peer);
@@ -844,7 +864,7 @@ class BlockingPeerChannel implements PeerChannel {
     return ByteArray.decodeByte(rcvHeader, HEADER_OFF_OP);
   }
 
-  private void logRate(String direction, long len, long startTime) {
+  void logRate(String direction, long len, long startTime) {
     if (startTime <= 0 || !log.isDebug()) {
       return;
     }
@@ -1059,7 +1079,7 @@ class BlockingPeerChannel implements PeerChannel {
     return sendQueue.size();
   }
 
-  boolean isOriginate() {
+  protected boolean isOriginate() {
     return isOriginate;
   }
 
@@ -1075,11 +1095,11 @@ class BlockingPeerChannel implements PeerChannel {
     return connecter != null;
   }
 
-  long getLastSendTime() {
+  protected long getLastSendTime() {
     return lastSendTime;
   }
 
-  long getLastRcvTime() {
+  protected long getLastRcvTime() {
     return lastRcvTime;
   }
 
@@ -1091,6 +1111,69 @@ class BlockingPeerChannel implements PeerChannel {
     return prevState;
   }
 
+  // Accessors for subclasses that do their own I/O
+
+  /** Return the lock that guards compound state transitions */
+  protected Object getStateLock() {
+    return stateLock;
+  }
+
+  protected void setPeer(PeerIdentity peer) {
+    this.peer = peer;
+  }
+
+  protected PeerAddress getPeerAddress() {
+    return pad;
+  }
+
+  protected void setPeerAddress(PeerAddress pad) {
+    this.pad = pad;
+  }
+
+  protected void setOriginate(boolean isOriginate) {
+    this.isOriginate = isOriginate;
+  }
+
+  protected PeerIdentity getLocalPeer() {
+    return localPeer;
+  }
+
+  /** Return the queue of messages waiting to be sent.  May be replaced by
+   * {@link #enqueueMsgs(Queue)}, so shouldn't be cached. */
+  protected Queue getSendQueue() {
+    return sendQueue;
+  }
+
+  /** Record that the connection was successfully opened */
+  protected void setDidOpen() {
+    didOpen = true;
+  }
+
+  /** Record the exception that caused the connection to fail */
+  protected void setConnectException(Throwable t) {
+    connectException = t;
+  }
+
+  /** Record that data has just been sent */
+  protected void noteSent() {
+    lastSendTime = lastActiveTime = TimeBase.nowMs();
+  }
+
+  /** Record that data has just been received */
+  protected void noteReceived() {
+    lastRcvTime = lastActiveTime = TimeBase.nowMs();
+  }
+
+  /** Return the buffer into which a message header is received */
+  protected byte[] getRcvHeader() {
+    return rcvHeader;
+  }
+
+  /** Return the buffer into which a peer id is received */
+  protected byte[] getPeerIdBuf() {
+    return peerbuf;
+  }
+
 
 
   abstract class ChannelRunner extends LockssRunnable {
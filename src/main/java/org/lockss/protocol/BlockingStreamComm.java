@@ -340,6 +340,7 @@ public class BlockingStreamComm
   private boolean paramAbortOnUnknownOp = DEFAULT_ABORT_ON_UNKNOWN_OP;
   private long lastHungCheckTime = 0;
   private PooledExecutor pool;
+  private SSLContext sslContext = null;
   protected SSLSocketFactory sslSocketFactory = null;
   protected SSLServerSocketFactory sslServerSocketFactory = null;
   private boolean paramDissociateOnNoSend = DEFAULT_DISSOCIATE_ON_NO_SEND;
@@ -666,8 +667,7 @@ public class BlockingStreamComm
       // new primary channel, if we have room
       if (nPrimary < paramMaxChannels) {
 	try {
-	  BlockingPeerChannel chan =
-	    getSocketFactory().newPeerChannel(BlockingStreamComm.this, pid);
+	  BlockingPeerChannel chan = newOriginatingChannel(pid);
 	  if (log.isDebug2()) log.debug2("Created " + chan);
 	  try {
 	    handOffQueuedMsgs(chan);
@@ -1148,7 +1148,6 @@ public class BlockingStreamComm
     TrustManager[] tma = tmf.getTrustManagers();
 
     // Now create an SSLContext from the KeyManager
-    SSLContext sslContext = null;
     try {
       RandomManager rmgr = getDaemon().getRandomManager();
       SecureRandom rng = rmgr.getSecureRandom();
@@ -1239,6 +1238,43 @@ public class BlockingStreamComm
     return sockFact;
   }
 
+  /** Return a new, unstarted, channel to the peer.  Overridable by
+   * implementations with a different channel type */
+  protected BlockingPeerChannel newOriginatingChannel(PeerIdentity pid)
+      throws IOException {
+    return getSocketFactory().newPeerChannel(this, pid);
+  }
+
+  protected String getBindAddr() {
+    return bindAddr;
+  }
+
+  protected boolean isSendFromBindAddr() {
+    return sendFromBindAddr;
+  }
+
+  protected int getListenBacklog() {
+    return paramBacklog;
+  }
+
+  protected boolean isUseV3OverSsl() {
+    return paramUseV3OverSsl;
+  }
+
+  protected boolean isSslClientAuth() {
+    return paramSslClientAuth;
+  }
+
+  protected long getSslHandshakeTimeout() {
+    return paramSslHandshakeTimeout;
+  }
+
+  /** Return the SSLContext used for V3 over SSL, or null if not
+   * initialized */
+  protected SSLContext getSslContext() {
+    return sslContext;
+  }
+
   long getConnectTimeout() {
     return paramConnectTimeout;
   }
@@ -1393,12 +1429,7 @@ public class BlockingStreamComm
   }
 
   void start() {
-    pool = new PooledExecutor(paramMaxPoolSize);
-    pool.setMinimumPoolSize(paramMinPoolSize);
-    pool.setKeepAliveTime(paramPoolKeepaliveTime);
-    log.debug2("Channel thread pool min, max: " +
-	      pool.getMinimumPoolSize() + ", " + pool.getMaximumPoolSize());
-    pool.abortWhenBlocked();
+    startChannelExecutor();
 
     rcvQueue = new FifoQueue();
     try {
@@ -1412,8 +1443,7 @@ public class BlockingStreamComm
       } else {
 	log.debug("Listening on port " + port);
       }
-      listenSock =
-	getSocketFactory().newServerSocket(bindAddr, port, paramBacklog);
+      openListenSocket(bindAddr, port);
     } catch (IOException e) {
       log.critical("Can't create listen socket", e);
       return;
@@ -1438,11 +1468,24 @@ public class BlockingStreamComm
       }
       stopThread(retryThread, timeout);
       retryThread = null;
-      stopThread(listenThread, timeout);
-      listenThread = null;
+      stopListener(timeout);
       stopThread(rcvThread, timeout);
       rcvThread = null;
     }
+    stopChannelExecutor(timeout);
+  }
+
+  /** Create the thread pool in which the channel threads run */
+  protected void startChannelExecutor() {
+    pool = new PooledExecutor(paramMaxPoolSize);
+    pool.setMinimumPoolSize(paramMinPoolSize);
+    pool.setKeepAliveTime(paramPoolKeepaliveTime);
+    log.debug2("Channel thread pool min, max: " +
+	      pool.getMinimumPoolSize() + ", " + pool.getMaximumPoolSize());
+    pool.abortWhenBlocked();
+  }
+
+  protected void stopChannelExecutor(Deadline timeout) {
     log.debug2("Shutting down pool");
     if (pool != null) {
       pool.shutdownNow();
@@ -1450,6 +1493,17 @@ public class BlockingStreamComm
     log.debug2("pool shut down ");
   }
 
+  /** Create the listen socket */
+  protected void openListenSocket(String bindAddr, int port) throws IOException {
+    listenSock = getSocketFactory().newServerSocket(bindAddr, port,
+						    paramBacklog);
+  }
+
+  protected void stopListener(Deadline timeout) {
+    stopThread(listenThread, timeout);
+    listenThread = null;
+  }
+
   List<PeerData> getAllPeerData() {
     synchronized (peers) {
       return new ArrayList<PeerData>(peers.values());
@@ -1784,26 +1838,35 @@ public class BlockingStreamComm
 
   private void disableSelectedProtocols(SSLServerSocket sock) {
     if (paramDisableSslServerProtocols == null) return;
-    Set<String> enaprotos = new HashSet<String>();
-    for (String s : sock.getEnabledProtocols()) {
-      if (paramDisableSslServerProtocols.contains(s)) {
-	continue;
-      }
-      enaprotos.add(s);
-    }
-    sock.setEnabledProtocols(enaprotos.toArray(new String[0]));
+    sock.setEnabledProtocols(removeDisabledProtocols(sock.getEnabledProtocols(),
+						     paramDisableSslServerProtocols));
   }
 
   private void disableSelectedProtocols(SSLSocket sock) {
     if (paramDisableSslClientProtocols == null) return;
+    sock.setEnabledProtocols(removeDisabledProtocols(sock.getEnabledProtocols(),
+						     paramDisableSslClientProtocols));
+  }
+
+  /** Disable the configured server or client protocols in an SSLEngine */
+  protected void disableSelectedProtocols(SSLEngine engine) {
+    List<String> disabled = engine.getUseClientMode()
+      ? paramDisableSslClientProtocols : paramDisableSslServerProtocols;
+    if (disabled == null) return;
+    engine.setEnabledProtocols(removeDisabledProtocols(engine.getEnabledProtocols(),
+						       disabled));
+  }
+
+  private String[] removeDisabledProtocols(String[] protos,
+					   List<String> disabled) {
     Set<String> enaprotos = new HashSet<String>();
-    for (String s : sock.getEnabledProtocols()) {
-      if (paramDisableSslClientProtocols.contains(s)) {
+    for (String s : protos) {
+      if (disabled.contains(s)) {
 	continue;
       }
       enaprotos.add(s);
     }
-    sock.setEnabledProtocols(enaprotos.toArray(new String[0]));
+    return enaprotos.toArray(new String[0]);
   }
 
   // Listen thread
@@ -42,8 +42,10 @@ import org.lockss.util.io.FileUtil;
 import org.lockss.config.*;
 
 /**
- * A VoteBlocks data structure backed by a disk file.  This implementation
- * is not thread-safe.
+ * A VoteBlocks data structure backed by a disk file.  The blocks are
+ * stored in one of the {@link VoteBlockCodec} formats, which is also the
+ * format in which they're sent in a {@link V3LcapMessage}.  This
+ * implementation is not thread-safe.
  * 
  * @author sethm
  */
@@ -53,6 +55,11 @@ public class DiskVoteBlocks implements VoteBlocks {
   private String m_filePath;
   private transient File m_file;
   private int m_size = 0;
+  // Absent in instances serialized before formats existed, so must
+  // default to legacy
+  private int m_format = VoteBlockCodec.FORMAT_LEGACY;
+  // URL of the last block added, for formats that compress URLs
+  private String m_lastUrl;
 
   /**
    * <p>
@@ -71,7 +78,23 @@ public class DiskVoteBlocks implements VoteBlocks {
    */
   public DiskVoteBlocks(int blocksToRead, InputStream from, File toDir)
       throws IOException {
-    this(toDir);
+    this(blocksToRead, from, toDir, VoteBlockCodec.FORMAT_LEGACY);
+  }
+
+  /**
+   * Decode a DiskVoteBlocks object encoded in the specified format from
+   * the supplied inputstream, to be stored in the supplied directory.
+   *
+   * @param blocksToRead Number of blocks to read from the InputStream.
+   * @param from Input stream from which to read.
+   * @param toDir Directory to use as temporary storage.
+   * @param format The {@link VoteBlockCodec} format of the blocks
+   * @throws IOException
+   */
+  public DiskVoteBlocks(int blocksToRead, InputStream from, File toDir,
+			int format)
+      throws IOException {
+    this(toDir, format);
     
     OutputStream os = new BufferedOutputStream(new FileOutputStream(m_file));
     try {
@@ -93,8 +116,47 @@ public class DiskVoteBlocks implements VoteBlocks {
    * @throws IOException
    */
   public DiskVoteBlocks(File toDir) throws IOException {
+    this(toDir, VoteBlockCodec.FORMAT_LEGACY);
+  }
+
+  /**
+   * Create a new VoteBlocks collection, stored in the specified format,
+   * to be backed by a file in the supplied directory.
+   *
+   * @param toDir  Directory to use as temporary storage.
+   * @param format The {@link VoteBlockCodec} format in which to store
+   * the blocks
+   * @throws IOException
+   */
+  public DiskVoteBlocks(File toDir, int format) throws IOException {
+    if (!VoteBlockCodec.isSupportedFormat(format)) {
+      throw new IllegalArgumentException("Unknown vote block format: " +
+					 format);
+    }
     m_file = FileUtil.createTempFile("voteblocks-", ".bin", toDir);
     m_filePath = m_file.getAbsolutePath();
+    m_format = format;
+  }
+
+  /** Return the {@link VoteBlockCodec} format in which the blocks are
+   * stored */
+  public int getFormat() {
+    return m_format;
+  }
+
+  /** Change the format in which blocks will be stored.  Allowed only
+   * while the collection is empty.
+   * @throws IllegalStateException if blocks have already been added
+   */
+  public void setFormat(int format) {
+    if (m_size != 0) {
+      throw new IllegalStateException("Can't change format of non-empty DiskVoteBlocks");
+    }
+    if (!VoteBlockCodec.isSupportedFormat(format)) {
+      throw new IllegalArgumentException("Unknown vote block format: " +
+					 format);
+    }
+    m_format = format;
   }
 
   /**
@@ -108,11 +170,13 @@ public class DiskVoteBlocks implements VoteBlocks {
   public synchronized void addVoteBlock(VoteBlock b) throws IOException {
     // Append to the end of the file.
     FileOutputStream fos = new FileOutputStream(m_file, true);
-    DataOutputStream dos = new DataOutputStream(fos);
+    DataOutputStream dos =
+      new DataOutputStream(new BufferedOutputStream(fos));
     try {
-      byte[] encodedBlock = b.getEncoded();
-      dos.writeShort(encodedBlock.length);
-      dos.write(encodedBlock);
+      VoteBlockCodec.Encoder enc =
+	VoteBlockCodec.newEncoder(m_format, dos, m_lastUrl);
+      enc.write(b);
+      m_lastUrl = enc.getPrevUrl();
       this.m_size++;
     } finally {
       dos.close();
@@ -202,22 +266,29 @@ public class DiskVoteBlocks implements VoteBlocks {
 }
 
   class Iterator implements VoteBlocksIterator {
-    private RandomAccessFile m_raf;
+    private DataInputStream m_in;
+    private VoteBlockCodec.Decoder m_decoder;
     private VoteBlock m_nextVB;  // Next block to be returned by next(), peek()
     
     public Iterator() throws FileNotFoundException {
       if (log.isDebug2()) {
-	log.debug2("Open raf: " + m_file);
+	log.debug2("Open file: " + m_file);
       }
-      m_raf = new RandomAccessFile(m_file, "r"); 
+      m_in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+      m_decoder = VoteBlockCodec.newDecoder(m_format, m_in);
     }
     
     /* Inherit documentation */
     public void release() {
       if (log.isDebug2()) {
-	log.debug2("Release raf: " + m_file);
+	log.debug2("Release file: " + m_file);
       }
-      IOUtil.safeClose(m_raf);
+      closeInput();
+    }
+
+    private void closeInput() {
+      IOUtil.safeClose(m_in);
+      m_in = null;
     }
 
     /* Inherit documentation */
@@ -251,14 +322,10 @@ public class DiskVoteBlocks implements VoteBlocks {
     /* This method automatically closes the file when it reaches the end. */
     protected void readVB() throws IOException {
       m_nextVB = null;
-      if (m_raf.getFD().valid()) {
-	try {
-	  short nextLen = m_raf.readShort();
-	  byte[] encodedBlock = new byte[nextLen];
-	  m_raf.readFully(encodedBlock);
-	  m_nextVB = new VoteBlock(encodedBlock);
-	} catch (java.io.EOFException e) {
-	  IOUtil.safeClose(m_raf);
+      if (m_in != null) {
+	m_nextVB = m_decoder.read();
+	if (m_nextVB == null) {
+	  closeInput();
 	}
       }
     }
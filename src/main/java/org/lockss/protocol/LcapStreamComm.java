@@ -60,6 +60,12 @@ public interface LcapStreamComm extends PeerMessage.Factory {
   static final String PARAM_ENABLED = PREFIX + "enabled";
   static final boolean DEFAULT_ENABLED = false;
 
+  /** If true at startup, the selector based {@link NioStreamComm} is used
+   * instead of {@link BlockingStreamComm}.  Can't be changed without
+   * restarting the daemon */
+  public static final String PARAM_USE_NIO = PREFIX + "useNio";
+  public static final boolean DEFAULT_USE_NIO = false;
+
   /** Listen socket backlog */
   public static final String PARAM_LISTEN_BACKLOG =
     PREFIX + "listenBacklog";
@@ -0,0 +1,1124 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.*;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+import org.lockss.util.*;
+import org.lockss.util.Queue;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+
+/** A stream connection to a peer that is multiplexed, along with many
+ * others, onto one of {@link NioStreamComm}'s selector threads.  The
+ * channel state machine, message framing, peer association and
+ * accounting are inherited from {@link BlockingPeerChannel}; only the
+ * socket I/O differs.  All I/O and all changes to the receive and send
+ * state happen in the channel's selector thread.  Other threads interact
+ * with the channel only by queueing messages, which causes the selector
+ * thread to be woken, and by stopping the channel.
+ */
+class NioPeerChannel extends BlockingPeerChannel {
+  static Logger log = Logger.getLogger();
+
+  // Limits on the work done for one channel per selection, so a busy
+  // channel can't starve the others on the same selector
+  static final int MAX_READS_PER_EVENT = 16;
+  static final int MAX_WRITES_PER_EVENT = 16;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  private NioStreamComm nscomm;
+  private SocketChannel sockChan;
+  private volatile NioStreamComm.SelectorThread selThread;
+  private volatile SelectionKey key;
+  private volatile Transport transport;
+  private AtomicBoolean updatePending = new AtomicBoolean(false);
+
+  private long connectStart = 0;
+  private long openTime = 0;
+  private long drainStart = 0;
+  private volatile boolean inputClosed = false;
+  private boolean outputShutdown = false;
+
+  // Receive state
+  private ByteBuffer rcvBuf;
+  private int rcvHdrPos = 0;		// header bytes received so far
+  private long rcvRemaining = -1;	// body bytes still expected, -1
+					// while reading header
+  private int rcvOp;
+  private int peerIdLen;
+  private PeerMessage rcvMsg;
+  private OutputStream rcvMsgOut;
+  private long rcvStartTime;
+
+  // Send state
+  private ByteBuffer sndBuf;
+  private byte[] sndHdr = new byte[HEADER_LEN];
+  private boolean peerIdSent = false;
+  private volatile PeerMessage sndMsg;
+  private InputStream sndMsgIn;
+  private long sndRemaining;
+  private long sndStartTime;
+
+  private NioPeerChannel(NioStreamComm scomm, int bufSize) {
+    super(scomm);
+    nscomm = scomm;
+    rcvBuf = ByteBuffer.allocate(bufSize);
+    sndBuf = ByteBuffer.allocate(bufSize);
+    sndBuf.flip();			// empty, in read mode
+  }
+
+  /** Create a channel to be connected to the peer; doesn't attempt to
+   * connect (yet)
+   * @param scomm parent stream comm
+   * @param peer the peer to talk to
+   */
+  NioPeerChannel(NioStreamComm scomm, PeerIdentity peer) {
+    this(scomm, scomm.getBufferSize());
+    setPeer(peer);
+    setState(ChannelState.INIT);
+  }
+
+  /** Create a channel from an existing (incoming) connection.  The peer
+   * identity is not yet known.
+   * @param scomm parent stream comm
+   * @param sockChan the connected, non-blocking, SocketChannel
+   */
+  NioPeerChannel(NioStreamComm scomm, SocketChannel sockChan) {
+    this(scomm, scomm.getBufferSize());
+    this.sockChan = sockChan;
+    setState(ChannelState.ACCEPTED);
+  }
+
+  void setSelectorThread(NioStreamComm.SelectorThread th) {
+    selThread = th;
+  }
+
+  // Entry points from NioStreamComm and BlockingStreamComm.PeerData
+
+  /** Arrange for the selector thread to connect to the peer */
+  @Override
+  public void startOriginate() throws IOException {
+    setOriginate(true);
+    PeerAddress pad = getPeer().getPeerAddress();
+    if (!(pad instanceof PeerAddress.Tcp)) {
+      throw new IllegalArgumentException("Wrong type of PeerAddress: " + pad);
+    }
+    setPeerAddress(pad);
+    if (stateTrans(ChannelState.INIT, ChannelState.CONNECTING,
+		   "startOriginate")) {
+      connectStart = TimeBase.nowMs();
+      nscomm.assignSelector(this).submit(new Runnable() {
+	  public void run() {
+	    connect();
+	  }});
+    }
+  }
+
+  /** Arrange for the selector thread to start processing an incoming
+   * connection */
+  @Override
+  public void startIncoming() {
+    if (stateTrans(ChannelState.ACCEPTED, ChannelState.STARTING,
+		   "startIncoming")) {
+      nscomm.assignSelector(this).submit(new Runnable() {
+	  public void run() {
+	    try {
+	      key = selThread.register(sockChan, NioPeerChannel.this, 0);
+	      startConnectedChannel(false);
+	    } catch (IOException e) {
+	      abortChannel(e);
+	    }
+	  }});
+    }
+  }
+
+  @Override
+  public boolean send(PeerMessage msg) {
+    if (super.send(msg)) {
+      requestInterestUpdate();
+      return true;
+    }
+    return false;
+  }
+
+  /** Enqueue all messages on queue to be sent */
+  @Override
+  public synchronized void enqueueMsgs(Queue queue) {
+    PeerMessage msg;
+    try {
+      while ((msg = (PeerMessage)queue.get(Deadline.EXPIRED)) != null) {
+	if (log.isDebug3()) log.debug3("Enqueued " + msg);
+	getSendQueue().put(msg);
+      }
+    } catch (InterruptedException e) {
+      log.critical("Impossible");
+    }
+    requestInterestUpdate();
+  }
+
+  /** Cancel the selection key and close the socket.  Any partially
+   * received message is discarded by the selector thread. */
+  @Override
+  protected void closeConnection(boolean abort) {
+    SelectionKey k = key;
+    if (k != null) {
+      k.cancel();
+    }
+    IOUtil.safeClose(sockChan);
+    runInSelector(new Runnable() {
+	public void run() {
+	  releaseMessageStreams();
+	}});
+  }
+
+  // The selector thread does all the work; there are no reader, writer or
+  // connecter threads.  These report the equivalent states, for the
+  // status table.
+
+  @Override
+  boolean hasConnecter() {
+    return isState(ChannelState.CONNECTING);
+  }
+
+  @Override
+  boolean hasReader() {
+    return transport != null && !inputClosed && !isClosed();
+  }
+
+  @Override
+  boolean hasWriter() {
+    return sndMsg != null;
+  }
+
+  // Methods below are called only in the selector thread
+
+  /** Open a non-blocking connection to the peer */
+  void connect() {
+    if (!isState(ChannelState.CONNECTING)) {
+      // aborted before selector thread got to it
+      return;
+    }
+    PeerAddress.Tcp tpad = (PeerAddress.Tcp)getPeerAddress();
+    try {
+      sockChan = nscomm.openSocketChannel();
+      key = selThread.register(sockChan, this, 0);
+      InetSocketAddress addr =
+	new InetSocketAddress(tpad.getIPAddr().getInetAddr(), tpad.getPort());
+      if (sockChan.connect(addr)) {
+	connected();
+      } else {
+	key.interestOps(SelectionKey.OP_CONNECT);
+      }
+    } catch (IOException e) {
+      connectFailed(e);
+    }
+  }
+
+  private void finishConnect() {
+    try {
+      if (!sockChan.finishConnect()) {
+	return;
+      }
+    } catch (IOException e) {
+      connectFailed(e);
+      return;
+    }
+    try {
+      connected();
+    } catch (IOException e) {
+      abortChannel(e);
+    }
+  }
+
+  private void connected() throws IOException {
+    log.debug2("Connected to " + getPeer());
+    if (!nscomm.isUseV3OverSsl()) {
+      // SSL channels aren't considered open until the handshake succeeds
+      setDidOpen();
+    }
+    if (stateTrans(ChannelState.CONNECTING, ChannelState.STARTING)) {
+      startConnectedChannel(true);
+    }
+  }
+
+  private void connectFailed(IOException e) {
+    if (e instanceof SocketException) {
+      setConnectException(e);
+    }
+    stateTrans(ChannelState.CONNECTING, ChannelState.DISSOCIATING);
+    abortChannel("Connect failed to " + getPeer() + ": " + e.toString());
+    stateTrans(ChannelState.DISSOCIATING, ChannelState.CONNECT_FAIL);
+  }
+
+  private void startConnectedChannel(boolean clientMode) throws IOException {
+    assertState(ChannelState.STARTING, "startConnectedChannel");
+    Transport trans = nscomm.isUseV3OverSsl()
+      ? new SslTransport(clientMode) : new PlainTransport();
+    openTime = TimeBase.nowMs();
+    transport = trans;
+    stateTrans(ChannelState.STARTING, ChannelState.OPEN);
+    trans.start();
+    updateInterest();
+  }
+
+  /** Process a ready event from the selector */
+  void handleSelected(SelectionKey k) {
+    try {
+      if (k.isConnectable()) {
+	finishConnect();
+      }
+      if (k.isValid() && k.isReadable()) {
+	handleReadable();
+      }
+      if (k.isValid() && k.isWritable()) {
+	handleWritable();
+      }
+      updateInterest();
+    } catch (CancelledKeyException e) {
+      // Channel was stopped by another thread
+      abortChannel();
+    } catch (SSLPeerUnverifiedException e) {
+      // Error already logged by SslTransport
+      abortChannel();
+    } catch (IOException e) {
+      handleIOException(e);
+    } catch (RuntimeException e) {
+      abortChannel("handleSelected", e);
+    }
+  }
+
+  private void handleIOException(IOException e) {
+    Transport trans = transport;
+    if (isOriginate() && trans != null && !trans.isReady()) {
+      // Failure during SSL handshake counts as connect failure
+      setConnectException(e);
+    }
+    if (isClosed()) {
+      abortChannel();
+    } else if (log.isDebug3()) {
+      abortChannel("handleSelected", e);
+    } else {
+      abortChannel("handleSelected: " + e.toString());
+    }
+  }
+
+  void updateInterest() {
+    SelectionKey k = key;
+    if (k == null || !k.isValid() || transport == null) {
+      return;
+    }
+    int ops = 0;
+    if (!inputClosed) {
+      ops |= SelectionKey.OP_READ;
+    }
+    if (wantWrite()) {
+      ops |= SelectionKey.OP_WRITE;
+    }
+    if (k.interestOps() != ops) {
+      k.interestOps(ops);
+    }
+  }
+
+  private boolean wantWrite() {
+    Transport trans = transport;
+    if (trans == null) {
+      return false;
+    }
+    if (trans.hasPendingOutput()) {
+      return true;
+    }
+    if (!trans.isReady() || outputShutdown
+	|| !(isOpen() || isState(ChannelState.DRAIN_OUTPUT))) {
+      return false;
+    }
+    return !peerIdSent || sndBuf.hasRemaining() || sndMsg != null
+      || !isSendIdle();
+  }
+
+  /** Called in other threads when there may be new data to send */
+  void requestInterestUpdate() {
+    NioStreamComm.SelectorThread th = selThread;
+    if (th != null && updatePending.compareAndSet(false, true)) {
+      th.submit(new Runnable() {
+	  public void run() {
+	    updatePending.set(false);
+	    updateInterest();
+	  }});
+    }
+  }
+
+  private void runInSelector(Runnable r) {
+    NioStreamComm.SelectorThread th = selThread;
+    if (th == null || Thread.currentThread() == th) {
+      r.run();
+    } else {
+      th.submit(r);
+    }
+  }
+
+  /** Called periodically by the selector thread to enforce connect,
+   * handshake, idle and drain timeouts */
+  void checkTimeouts() {
+    long now = TimeBase.nowMs();
+    switch (getState()) {
+    case CONNECTING:
+      if (now - connectStart > nscomm.getConnectTimeout()) {
+	connectFailed(new ConnectException("Connect timed out"));
+      }
+      break;
+    case OPEN:
+      Transport trans = transport;
+      if (trans == null) {
+	break;
+      }
+      if (!trans.isReady()) {
+	if (now - openTime > nscomm.getSslHandshakeTimeout()) {
+	  abortChannel(p()+"SSL handshake timed out");
+	}
+	break;
+      }
+      if (isSendIdle() && !trans.hasPendingOutput()
+	  && now - Math.max(getLastActiveTime(), openTime)
+	  > nscomm.getChannelIdleTime()) {
+	startDrainInput();
+      }
+      break;
+    case DRAIN_INPUT:
+      if (now - Math.max(drainStart, getLastRcvTime())
+	  > nscomm.getDrainInputTime()) {
+	abortChannel(p()+"Aborting DRAIN_INPUT");
+      }
+      break;
+    default:
+    }
+  }
+
+  /** Channel has been idle long enough to close.  Shut down output only,
+   * in case peer is now sending a message */
+  private void startDrainInput() {
+    synchronized (getStateLock()) {
+      if (!isSendIdle()
+	  || !stateTrans(ChannelState.OPEN, ChannelState.DRAIN_INPUT)) {
+	return;
+      }
+    }
+    drainStart = TimeBase.nowMs();
+    // No longer can send messages so must dissociate now
+    nscomm.dissociateChannelFromPeer(this, getPeer(), null);
+    try {
+      log.debug2("Shutdown output");
+      transport.shutdownOutput();
+      outputShutdown = true;
+      updateInterest();
+    } catch (IOException e) {
+      abortChannel("shutdownOutput", e);
+    }
+  }
+
+  // Receiving
+
+  private void handleReadable() throws IOException {
+    Transport trans = transport;
+    for (int ix = 0; ix < MAX_READS_PER_EVENT; ix++) {
+      if (inputClosed || isClosed()) {
+	return;
+      }
+      rcvBuf.clear();
+      int n = trans.read(rcvBuf);
+      if (n < 0) {
+	inputEof();
+	return;
+      }
+      if (n == 0) {
+	return;
+      }
+      noteReceived();
+      getStats().rcvdBytes(n);
+      rcvBuf.flip();
+      processInput(rcvBuf);
+    }
+    if (trans.hasBufferedInput()) {
+      // Decrypted input remains but the socket might not become readable
+      // again, so come back for it after other channels have had a turn
+      selThread.submit(new Runnable() {
+	  public void run() {
+	    SelectionKey k = key;
+	    if (k != null) {
+	      try {
+		handleReadable();
+		updateInterest();
+	      } catch (IOException e) {
+		handleIOException(e);
+	      } catch (CancelledKeyException e) {
+		abortChannel();
+	      }
+	    }
+	  }});
+    }
+  }
+
+  /** Consume received bytes, processing each message as it completes */
+  private void processInput(ByteBuffer in) throws IOException {
+    while (in.hasRemaining() && !isClosed()) {
+      if (rcvRemaining < 0) {
+	int n = Math.min(in.remaining(), HEADER_LEN - rcvHdrPos);
+	in.get(getRcvHeader(), rcvHdrPos, n);
+	rcvHdrPos += n;
+	if (rcvHdrPos < HEADER_LEN) {
+	  return;
+	}
+	rcvHdrPos = 0;
+	startRcvMessage();
+      } else if (rcvOp == OP_PEERID) {
+	int n = (int)Math.min(in.remaining(), rcvRemaining);
+	in.get(getPeerIdBuf(), peerIdLen - (int)rcvRemaining, n);
+	rcvRemaining -= n;
+      } else {
+	int n = (int)Math.min(in.remaining(), rcvRemaining);
+	rcvMsgOut.write(in.array(), in.arrayOffset() + in.position(), n);
+	in.position(in.position() + n);
+	rcvRemaining -= n;
+      }
+      if (rcvRemaining == 0) {
+	finishRcvMessage();
+      }
+    }
+  }
+
+  /** A complete header has been received into rcvHeader */
+  private void startRcvMessage() throws IOException {
+    if (getRcvHeader()[HEADER_OFF_CHECK] != HEADER_CHECK) {
+      throw new ProtocolException("Message doesn't start with " +
+				  HEADER_CHECK);
+    }
+    rcvOp = getRcvdMessageOp();
+    long len = getRcvdMessageLength();
+    if (getPeer() == null && rcvOp != OP_PEERID) {
+      throw new ProtocolException("Didn't receive peerid first: " + rcvOp);
+    }
+    switch (rcvOp) {
+    case OP_PEERID:
+      if (len > MAX_PEERID_LEN) {
+	String msg = "Peerid too long: " + len;
+	log.warning(msg);
+	throw new ProtocolException(msg);
+      }
+      peerIdLen = (int)len;
+      rcvRemaining = len;
+      break;
+    case OP_DATA:
+      int proto = ByteArray.decodeInt(getRcvHeader(), HEADER_OFF_PROTO);
+      if (log.isDebug3()) log.debug3("Got data hdr: " + proto +
+				     ", len: " + len);
+      if (len > nscomm.getMaxMessageSize()) {
+	throw new ProtocolException("Too-large incoming message: " + len);
+      }
+      rcvStartTime = 0;
+      if (len >= nscomm.getMinMeasuredMessageSize()) {
+	rcvStartTime = TimeBase.nowMs();
+      }
+      rcvMsg = nscomm.newPeerMessage(len);
+      rcvMsg.setProtocol(proto);
+      rcvMsg.setSender(getPeer());
+      rcvMsgOut = rcvMsg.getOutputStream();
+      rcvRemaining = len;
+      break;
+    case OP_CLOSE:
+      // Not implemented yet
+      break;
+    default:
+      String msg = "Received unknown opcode: " + rcvOp;
+      if (nscomm.getAbortOnUnknownOp()) {
+	throw new ProtocolException(msg);
+      } else {
+	log.debug(msg);
+      }
+    }
+  }
+
+  /** The body of the current message has been completely received */
+  private void finishRcvMessage() throws IOException {
+    rcvRemaining = -1;
+    if (rcvOp == OP_PEERID) {
+      processPeerId(new String(getPeerIdBuf(), 0, peerIdLen));
+    } else {
+      PeerMessage msg = rcvMsg;
+      OutputStream msgOut = rcvMsgOut;
+      rcvMsg = null;
+      rcvMsgOut = null;
+      try {
+	msgOut.close();
+      } catch (IOException e) {
+	msg.delete();
+	throw e;
+      }
+      logRate("Rcv", msg.getDataSize(), rcvStartTime);
+      enqueueReceivedMsg(msg);
+    }
+  }
+
+  /** Input stream closed by peer, drain output if necessary */
+  private void inputEof() {
+    inputClosed = true;
+    if (log.isDebug2()) log.debug2(p()+"Input closed");
+    if (rcvRemaining >= 0 || rcvHdrPos > 0) {
+      abortChannel(p()+"Connection closed in middle of message");
+      return;
+    }
+    synchronized (getStateLock()) {
+      if (!isSendIdle() && isOpen()) {
+	stateTrans(ChannelState.OPEN, ChannelState.DRAIN_OUTPUT);
+      } else {
+	notStateTrans(stopIgnStates, ChannelState.NEED_CLOSE);
+      }
+    }
+    if (isState(ChannelState.NEED_CLOSE)) {
+      stopChannel();
+    }
+  }
+
+  // Sending
+
+  private void handleWritable() throws IOException {
+    Transport trans = transport;
+    if (trans.hasPendingOutput() && !trans.flush()) {
+      return;
+    }
+    if (!trans.isReady() || outputShutdown) {
+      return;
+    }
+    for (int ix = 0; ix < MAX_WRITES_PER_EVENT; ix++) {
+      if (!sndBuf.hasRemaining()) {
+	if (sndMsg != null && sndRemaining == 0) {
+	  if (!finishSendMessage()) {
+	    return;
+	  }
+	}
+	if (!fillSendBuffer()) {
+	  return;
+	}
+      }
+      int n = trans.write(sndBuf);
+      if (n > 0) {
+	noteSent();
+      }
+      if (sndBuf.hasRemaining() || trans.hasPendingOutput()) {
+	// socket buffer full, wait for OP_WRITE
+	return;
+      }
+    }
+  }
+
+  /** Refill sndBuf with the next bytes to send: the peerid message, if
+   * not yet sent, then message headers and data.  A buffer never holds
+   * the end of one data message and the start of the next.
+   * @return false if there's nothing to send
+   */
+  private boolean fillSendBuffer() throws IOException {
+    sndBuf.clear();
+    try {
+      if (!peerIdSent) {
+	byte[] idBytes = getLocalPeer().getIdString().getBytes();
+	if (log.isDebug3()) log.debug3("Sending peerid: " + getLocalPeer());
+	putHeader(OP_PEERID, idBytes.length, 0);
+	sndBuf.put(idBytes);
+	getStats().sentBytes(idBytes.length);
+	peerIdSent = true;
+      }
+      while (sndBuf.hasRemaining()) {
+	if (sndMsg == null) {
+	  PeerMessage msg = (PeerMessage)getSendQueue().peek();
+	  if (msg == null || sndBuf.remaining() < HEADER_LEN) {
+	    break;
+	  }
+	  startSendMessage(msg);
+	}
+	if (sndRemaining > 0) {
+	  int n = sndMsgIn.read(sndBuf.array(),
+				sndBuf.arrayOffset() + sndBuf.position(),
+				(int)Math.min(sndBuf.remaining(),
+					      sndRemaining));
+	  if (n < 0) {
+	    throw new ProtocolException("Message data shorter than size: "
+					+ sndMsg);
+	  }
+	  sndBuf.position(sndBuf.position() + n);
+	  sndRemaining -= n;
+	  getStats().sentBytes(n);
+	}
+	if (sndRemaining == 0) {
+	  // Message is complete once this buffer has been written
+	  break;
+	}
+      }
+    } finally {
+      sndBuf.flip();
+    }
+    return sndBuf.hasRemaining();
+  }
+
+  private void startSendMessage(PeerMessage msg) throws IOException {
+    long len = msg.getDataSize();
+    if (log.isDebug3()) log.debug3("Sending data: " + msg.getProtocol() +
+				   ", len: " + len);
+    sndStartTime = 0;
+    if (len >= nscomm.getMinMeasuredMessageSize()) {
+      sndStartTime = TimeBase.nowMs();
+    }
+    noteSent();
+    msg.setLastRetry(getLastSendTime());
+    sndMsg = msg;
+    sndMsgIn = msg.getInputStream();
+    sndRemaining = len;
+    putHeader(OP_DATA, len, msg.getProtocol());
+  }
+
+  private void putHeader(int op, long len, int proto) {
+    sndHdr[HEADER_OFF_CHECK] = HEADER_CHECK;
+    sndHdr[HEADER_OFF_OP] = (byte)op;
+    ByteArray.encodeLong(len, sndHdr, HEADER_OFF_LEN);
+    ByteArray.encodeInt(proto, sndHdr, HEADER_OFF_PROTO);
+    sndBuf.put(sndHdr);
+    getStats().sentBytes(HEADER_LEN);
+  }
+
+  /** The last bytes of sndMsg have been written.  Remove it from the
+   * queue and close the channel if draining output and nothing left to
+   * send.
+   * @return false if the channel has been closed
+   */
+  private boolean finishSendMessage() throws IOException {
+    PeerMessage msg = sndMsg;
+    sndMsg = null;
+    IOUtil.safeClose(sndMsgIn);
+    sndMsgIn = null;
+    countSentMsg();
+    logRate("Send", msg.getDataSize(), sndStartTime);
+    try {
+      if (msg != getSendQueue().get(Deadline.EXPIRED)) {
+	throw new IllegalStateException("Send queue not behaving as FIFO");
+      }
+    } catch (InterruptedException e) {
+      // can't happen (get doesn't wait)
+    }
+    nscomm.countMessageRetries(msg);
+    msg.delete();
+    noteSent();
+    synchronized (getStateLock()) {
+      // if draining output and nothing left to send, close.
+      if (isSendIdle()) {
+	stateTrans(ChannelState.DRAIN_OUTPUT, ChannelState.NEED_CLOSE);
+      }
+    }
+    if (isState(ChannelState.NEED_CLOSE)) {
+      stopChannel();
+      return false;
+    }
+    return true;
+  }
+
+  private void releaseMessageStreams() {
+    if (rcvMsg != null) {
+      IOUtil.safeClose(rcvMsgOut);
+      rcvMsg.delete();
+      rcvMsg = null;
+      rcvMsgOut = null;
+    }
+    // sndMsg is still on the send queue, which has been handed back to
+    // the PeerData for retry
+    IOUtil.safeClose(sndMsgIn);
+    sndMsgIn = null;
+    sndMsg = null;
+  }
+
+  public String toString() {
+    PeerIdentity pid = getPeer();
+    return "[NChan(" + getState() + "): " +
+      (pid != null ? pid.toString() : "(none)")
+      + "]";
+  }
+
+  /** Moves bytes between the channel's buffers and the socket, with or
+   * without SSL.  Reads and writes never block. */
+  interface Transport {
+    /** Begin, e.g., SSL handshake */
+    void start() throws IOException;
+    /** True once any handshake is complete and application data can
+     * flow */
+    boolean isReady();
+    /** Read available application data into dst.
+     * @return number of bytes read, or -1 at EOF */
+    int read(ByteBuffer dst) throws IOException;
+    /** Write as much of src as possible.
+     * @return number of application bytes consumed */
+    int write(ByteBuffer src) throws IOException;
+    /** True if there are already-encoded bytes waiting to be written to
+     * the socket */
+    boolean hasPendingOutput();
+    /** True if input has been read from the socket that hasn't yet been
+     * returned by read() */
+    boolean hasBufferedInput();
+    /** Write pending output.
+     * @return true if it was all written */
+    boolean flush() throws IOException;
+    /** Shut down the output side of the connection */
+    void shutdownOutput() throws IOException;
+  }
+
+  class PlainTransport implements Transport {
+    public void start() {
+    }
+
+    public boolean isReady() {
+      return true;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+      return sockChan.read(dst);
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+      return sockChan.write(src);
+    }
+
+    public boolean hasPendingOutput() {
+      return false;
+    }
+
+    public boolean hasBufferedInput() {
+      return false;
+    }
+
+    public boolean flush() {
+      return true;
+    }
+
+    public void shutdownOutput() throws IOException {
+      sockChan.shutdownOutput();
+    }
+  }
+
+  /** SSLEngine based transport.  All buffers are kept in write mode
+   * between calls. */
+  class SslTransport implements Transport {
+    private SSLEngine engine;
+    private ByteBuffer netIn;		// read from socket, not yet unwrapped
+    private ByteBuffer netOut;		// wrapped, not yet written to socket
+    private ByteBuffer appIn;		// unwrapped, not yet returned
+    private volatile boolean handshaking = true;
+    private boolean verified = false;
+    private boolean netEof = false;
+    private boolean inboundClosed = false;
+    private boolean underflow = false;
+    private boolean shutdownPending = false;
+
+    SslTransport(boolean clientMode) throws IOException {
+      engine = nscomm.newSslEngine(clientMode);
+      SSLSession session = engine.getSession();
+      netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+      netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+      appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+    }
+
+    public void start() throws IOException {
+      engine.beginHandshake();
+      progressHandshake();
+    }
+
+    public boolean isReady() {
+      return !handshaking;
+    }
+
+    public boolean hasPendingOutput() {
+      return netOut.position() > 0;
+    }
+
+    public boolean hasBufferedInput() {
+      return appIn.position() > 0 || (netIn.position() > 0 && !underflow);
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+      if (checkHandshake()) {
+	return netEof ? -1 : 0;
+      }
+      if (appIn.position() == 0) {
+	readNet();
+	unwrap();
+	if (checkHandshake()) {
+	  return netEof ? -1 : 0;
+	}
+      }
+      if (appIn.position() > 0) {
+	appIn.flip();
+	int n = Math.min(appIn.remaining(), dst.remaining());
+	ByteBuffer slice = appIn.duplicate();
+	slice.limit(slice.position() + n);
+	dst.put(slice);
+	appIn.position(appIn.position() + n);
+	appIn.compact();
+	return n;
+      }
+      return (netEof || inboundClosed) ? -1 : 0;
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+      if (checkHandshake()) {
+	return 0;
+      }
+      if (hasPendingOutput() && !flush()) {
+	return 0;
+      }
+      int start = src.remaining();
+      while (src.hasRemaining()) {
+	int before = src.remaining();
+	if (!wrap(src) || !flush() || src.remaining() == before) {
+	  break;
+	}
+      }
+      return start - src.remaining();
+    }
+
+    public boolean flush() throws IOException {
+      netOut.flip();
+      try {
+	sockChan.write(netOut);
+	return !netOut.hasRemaining();
+      } finally {
+	netOut.compact();
+	if (netOut.position() == 0 && shutdownPending) {
+	  shutdownPending = false;
+	  sockChan.shutdownOutput();
+	}
+      }
+    }
+
+    public void shutdownOutput() throws IOException {
+      engine.closeOutbound();
+      while (!engine.isOutboundDone()) {
+	SSLEngineResult res = engine.wrap(EMPTY, netOut);
+	if (res.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+	  if (!flush()) {
+	    break;
+	  }
+	} else if (res.bytesProduced() == 0) {
+	  break;
+	}
+      }
+      shutdownPending = true;
+      flush();
+    }
+
+    /** If a handshake is in progress (initial or renegotiation), advance
+     * it as far as possible.
+     * @return true if still handshaking */
+    private boolean checkHandshake() throws IOException {
+      if (!handshaking && engine.getHandshakeStatus()
+	  != HandshakeStatus.NOT_HANDSHAKING) {
+	handshaking = true;
+      }
+      if (handshaking) {
+	progressHandshake();
+      }
+      return handshaking;
+    }
+
+    /** Drive the handshake as far as possible without blocking */
+    private void progressHandshake() throws IOException {
+      while (handshaking) {
+	HandshakeStatus hs = engine.getHandshakeStatus();
+	if (hs == HandshakeStatus.NEED_TASK) {
+	  runDelegatedTasks();
+	} else if (hs == HandshakeStatus.NEED_WRAP) {
+	  if (!wrap(EMPTY) || !flush()) {
+	    // socket full, continue when writable
+	    return;
+	  }
+	} else if (hs == HandshakeStatus.NOT_HANDSHAKING
+		   || hs == HandshakeStatus.FINISHED) {
+	  handshakeDone();
+	} else {
+	  // NEED_UNWRAP (or NEED_UNWRAP_AGAIN on newer JDKs)
+	  if (!unwrap()) {
+	    if (readNet() <= 0) {
+	      return;
+	    }
+	  }
+	}
+      }
+    }
+
+    private void handshakeDone() throws SSLPeerUnverifiedException {
+      handshaking = false;
+      if (verified) {
+	return;
+      }
+      verified = true;
+      if (nscomm.isSslClientAuth()) {
+	SSLSession session = engine.getSession();
+	try {
+	  session.getPeerCertificates();
+	  log.debug(session.getPeerHost() + " via " + session.getProtocol()
+		    + " verified");
+	} catch (SSLPeerUnverifiedException e) {
+	  log.error(sockChan.socket().getInetAddress() + ":"
+		    + sockChan.socket().getPort() + " not verified");
+	  throw e;
+	}
+      }
+      if (isOriginate()) {
+	setDidOpen();
+      }
+      // Application data may now be sent
+      updateInterest();
+    }
+
+    private void runDelegatedTasks() {
+      Runnable task;
+      while ((task = engine.getDelegatedTask()) != null) {
+	task.run();
+      }
+    }
+
+    /** Read from the socket into netIn.
+     * @return bytes read, -1 at EOF */
+    private int readNet() throws IOException {
+      if (netEof) {
+	return -1;
+      }
+      int n = sockChan.read(netIn);
+      if (n < 0) {
+	netEof = true;
+	if (handshaking) {
+	  throw new EOFException("Connection closed during SSL handshake");
+	}
+      } else if (n > 0) {
+	underflow = false;
+      }
+      return n;
+    }
+
+    /** Unwrap as much buffered network data as possible into appIn.
+     * @return true if any progress was made */
+    private boolean unwrap() throws IOException {
+      boolean progress = false;
+      netIn.flip();
+      try {
+	while (true) {
+	  SSLEngineResult res = engine.unwrap(netIn, appIn);
+	  if (res.bytesConsumed() > 0 || res.bytesProduced() > 0) {
+	    progress = true;
+	  }
+	  switch (res.getStatus()) {
+	  case OK:
+	    if (res.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+	      runDelegatedTasks();
+	    }
+	    if (res.bytesConsumed() == 0 && res.bytesProduced() == 0) {
+	      return progress;
+	    }
+	    if (handshaking
+		&& engine.getHandshakeStatus() != HandshakeStatus.NEED_UNWRAP) {
+	      // let progressHandshake() deal with the next step
+	      return progress;
+	    }
+	    if (!netIn.hasRemaining()) {
+	      return progress;
+	    }
+	    break;
+	  case BUFFER_UNDERFLOW:
+	    underflow = true;
+	    return progress;
+	  case BUFFER_OVERFLOW:
+	    if (appIn.position() > 0) {
+	      // return what we have before unwrapping more
+	      return progress;
+	    }
+	    appIn = enlarge(appIn,
+			    engine.getSession().getApplicationBufferSize());
+	    break;
+	  case CLOSED:
+	    inboundClosed = true;
+	    return true;
+	  }
+	}
+      } finally {
+	netIn.compact();
+	if (underflow && !netIn.hasRemaining()) {
+	  // Buffer is full but doesn't hold a complete packet
+	  netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+	}
+      }
+    }
+
+    /** Wrap src into netOut.
+     * @return false if netOut is full and couldn't be flushed */
+    private boolean wrap(ByteBuffer src) throws IOException {
+      while (true) {
+	SSLEngineResult res = engine.wrap(src, netOut);
+	switch (res.getStatus()) {
+	case OK:
+	  if (res.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+	    runDelegatedTasks();
+	  }
+	  return true;
+	case BUFFER_OVERFLOW:
+	  if (netOut.position() > 0) {
+	    if (!flush()) {
+	      return false;
+	    }
+	  } else {
+	    netOut = enlarge(netOut,
+			     engine.getSession().getPacketBufferSize());
+	  }
+	  break;
+	case CLOSED:
+	  throw new SSLException("SSLEngine closed");
+	default:
+	  throw new SSLException("Unexpected wrap status: " + res.getStatus());
+	}
+      }
+    }
+
+    private ByteBuffer enlarge(ByteBuffer buf, int minSize) {
+      ByteBuffer res =
+	ByteBuffer.allocate(Math.max(minSize, buf.capacity() * 2));
+      buf.flip();
+      res.put(buf);
+      return res;
+    }
+  }
+}
@@ -0,0 +1,389 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.*;
+
+import org.lockss.config.*;
+import org.lockss.util.*;
+import org.lockss.util.net.IPAddr;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Selector based implementation of {@link LcapStreamComm}.  Rather than
+ * a reader and a writer thread per channel, all channels are multiplexed
+ * onto a small, fixed number of selector threads, so the thread count
+ * doesn't grow with the number of peers.  Peer and channel management,
+ * message framing, retry and rate limiting are inherited unchanged from
+ * {@link BlockingStreamComm}.  SSL is handled by {@link SSLEngine}.
+ * Selected with {@link LcapStreamComm#PARAM_USE_NIO}.
+ */
+public class NioStreamComm extends BlockingStreamComm {
+  static Logger log = Logger.getLogger();
+
+  static final String NIO_PREFIX = PREFIX + "nio.";
+
+  /** Number of selector threads among which channels are distributed.
+   * Can't be changed while running. */
+  public static final String PARAM_NUM_SELECTORS = NIO_PREFIX + "selectors";
+  public static final int DEFAULT_NUM_SELECTORS = 2;
+
+  /** Interval at which channel connect, handshake and idle timeouts are
+   * checked */
+  public static final String PARAM_TIMEOUT_CHECK_INTERVAL =
+    NIO_PREFIX + "timeoutCheckInterval";
+  public static final long DEFAULT_TIMEOUT_CHECK_INTERVAL = Constants.SECOND;
+
+  /** Size of each channel's send and receive buffers */
+  public static final String PARAM_BUFFER_SIZE = NIO_PREFIX + "bufferSize";
+  public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+  static final String WDOG_PARAM_SELECT = "SSelect";
+  static final long WDOG_DEFAULT_SELECT = 1 * Constants.HOUR;
+
+  static final String PRIORITY_PARAM_SELECT = "SSelect";
+  static final int PRIORITY_DEFAULT_SELECT = -1;
+
+  private int paramNumSelectors = DEFAULT_NUM_SELECTORS;
+  private long paramTimeoutCheckInterval = DEFAULT_TIMEOUT_CHECK_INTERVAL;
+  private int paramBufferSize = DEFAULT_BUFFER_SIZE;
+
+  private SelectorThread[] selThreads;
+  private AtomicInteger nextSelector = new AtomicInteger();
+  private ServerSocketChannel listenChan;
+
+  // Attachment that identifies the listen socket's key
+  private static final Object ACCEPTOR = new Object();
+
+  public NioStreamComm() {
+    super();
+  }
+
+  @Override
+  public void setConfig(Configuration config,
+			Configuration prevConfig,
+			Configuration.Differences changedKeys) {
+    if (changedKeys.contains(PREFIX)) {
+      paramNumSelectors = Math.max(1, config.getInt(PARAM_NUM_SELECTORS,
+						    DEFAULT_NUM_SELECTORS));
+      paramTimeoutCheckInterval =
+	config.getTimeInterval(PARAM_TIMEOUT_CHECK_INTERVAL,
+			       DEFAULT_TIMEOUT_CHECK_INTERVAL);
+      paramBufferSize = config.getInt(PARAM_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+    super.setConfig(config, prevConfig, changedKeys);
+  }
+
+  int getBufferSize() {
+    return paramBufferSize;
+  }
+
+  long getTimeoutCheckInterval() {
+    return paramTimeoutCheckInterval;
+  }
+
+  /** Open the selectors and start their threads instead of creating a
+   * channel thread pool */
+  @Override
+  protected void startChannelExecutor() {
+    SelectorThread[] threads = new SelectorThread[paramNumSelectors];
+    try {
+      for (int ix = 0; ix < threads.length; ix++) {
+	threads[ix] =
+	  new SelectorThread("SCommSelect-" + ix + ": " +
+			     getMyPeerId().getIdString(),
+			     Selector.open());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Can't open selector", e);
+    }
+    selThreads = threads;
+    for (SelectorThread th : threads) {
+      th.start();
+      th.waitRunning();
+    }
+    log.debug2("Started " + threads.length + " selector threads");
+  }
+
+  @Override
+  protected void stopChannelExecutor(Deadline timeout) {
+    SelectorThread[] threads = selThreads;
+    if (threads != null) {
+      for (SelectorThread th : threads) {
+	stopThread(th, timeout);
+      }
+      selThreads = null;
+    }
+  }
+
+  @Override
+  protected void openListenSocket(String bindAddr, int port) throws IOException {
+    ServerSocketChannel ssc = ServerSocketChannel.open();
+    try {
+      ssc.socket().setReuseAddress(true);
+      InetSocketAddress addr = (bindAddr == null)
+	? new InetSocketAddress(port) : new InetSocketAddress(bindAddr, port);
+      ssc.socket().bind(addr, getListenBacklog());
+      ssc.configureBlocking(false);
+    } catch (IOException e) {
+      IOUtil.safeClose(ssc);
+      throw e;
+    }
+    listenChan = ssc;
+  }
+
+  /** Register the listen socket with the first selector */
+  @Override
+  void ensureListener() {
+    final ServerSocketChannel ssc = listenChan;
+    final SelectorThread th = selThreads[0];
+    log.info("Listening in " + th.getName());
+    th.submit(new Runnable() {
+	public void run() {
+	  try {
+	    th.register(ssc, ACCEPTOR, SelectionKey.OP_ACCEPT);
+	  } catch (IOException e) {
+	    log.critical("Can't register listen socket", e);
+	  }
+	}});
+  }
+
+  @Override
+  protected void stopListener(Deadline timeout) {
+    IOUtil.safeClose(listenChan);
+  }
+
+  @Override
+  protected BlockingPeerChannel newOriginatingChannel(PeerIdentity pid) {
+    return new NioPeerChannel(this, pid);
+  }
+
+  /** Choose the selector thread that will handle the channel */
+  SelectorThread assignSelector(NioPeerChannel chan) {
+    SelectorThread[] threads = selThreads;
+    if (threads == null) {
+      throw new IllegalStateException("Not running");
+    }
+    SelectorThread th =
+      threads[Math.floorMod(nextSelector.getAndIncrement(), threads.length)];
+    chan.setSelectorThread(th);
+    return th;
+  }
+
+  /** Open a non-blocking socket, not yet connected */
+  SocketChannel openSocketChannel() throws IOException {
+    SocketChannel sc = SocketChannel.open();
+    try {
+      sc.configureBlocking(false);
+      if (isSendFromBindAddr() && getBindAddr() != null) {
+	sc.socket().bind(new InetSocketAddress(getBindAddr(), 0));
+      }
+      setupOpenSocket(sc.socket());
+    } catch (IOException e) {
+      IOUtil.safeClose(sc);
+      throw e;
+    }
+    return sc;
+  }
+
+  /** Create an SSLEngine configured like the SSL sockets used by
+   * BlockingStreamComm */
+  SSLEngine newSslEngine(boolean clientMode) throws IOException {
+    SSLContext sslContext = getSslContext();
+    if (sslContext == null) {
+      throw new IOException("V3 over SSL requested but no SSLContext");
+    }
+    SSLEngine engine = sslContext.createSSLEngine();
+    engine.setUseClientMode(clientMode);
+    if (!clientMode) {
+      engine.setNeedClientAuth(isSslClientAuth());
+    }
+    disableSelectedProtocols(engine);
+    return engine;
+  }
+
+  // Called in selector thread when listen socket is ready
+  void acceptConnections(ServerSocketChannel ssc) {
+    SocketChannel sc;
+    try {
+      while ((sc = ssc.accept()) != null) {
+	try {
+	  processIncomingConnection(sc);
+	} catch (IOException e) {
+	  log.warning("Listener", e);
+	  IOUtil.safeClose(sc);
+	}
+      }
+    } catch (IOException e) {
+      if (listenChan.isOpen()) {
+	log.warning("Listener", e);
+      }
+    }
+  }
+
+  // process a connection returned by accept()
+  void processIncomingConnection(SocketChannel sc) throws IOException {
+    sc.configureBlocking(false);
+    setupOpenSocket(sc.socket());
+    log.debug2("Accepted connection from " +
+	       new IPAddr(sc.socket().getInetAddress()));
+    NioPeerChannel chan = new NioPeerChannel(this, sc);
+    chan.startIncoming();
+  }
+
+  /** Runs a Selector, dispatching I/O events to the channels registered
+   * with it.  Other threads may interact with the selector only through
+   * {@link #submit(Runnable)}. */
+  class SelectorThread extends CommThread {
+    private volatile boolean goOn = true;
+    private Selector selector;
+    private java.util.Queue<Runnable> tasks =
+      new ConcurrentLinkedQueue<Runnable>();
+    private long lastTimeoutCheck = 0;
+
+    SelectorThread(String name, Selector selector) {
+      super(name);
+      this.selector = selector;
+    }
+
+    /** Run the task in the selector thread */
+    void submit(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    /** Register a channel with this selector.  Must be called in the
+     * selector thread. */
+    SelectionKey register(SelectableChannel ch, Object att, int ops)
+	throws IOException {
+      return ch.register(selector, ops, att);
+    }
+
+    public void lockssRun() {
+      setPriority(PRIORITY_PARAM_SELECT, PRIORITY_DEFAULT_SELECT);
+      triggerWDogOnExit(true);
+      startWDog(WDOG_PARAM_SELECT, WDOG_DEFAULT_SELECT);
+      nowRunning();
+
+      try {
+	while (goOn) {
+	  pokeWDog();
+	  try {
+	    selector.select(getTimeoutCheckInterval());
+	  } catch (IOException e) {
+	    log.error("select()", e);
+	    continue;
+	  }
+	  if (!goOn) {
+	    break;
+	  }
+	  runTasks();
+	  processSelectedKeys();
+	  long now = TimeBase.nowMs();
+	  if (now - lastTimeoutCheck >= getTimeoutCheckInterval()) {
+	    lastTimeoutCheck = now;
+	    checkTimeouts();
+	  }
+	}
+      } finally {
+	closeAll();
+      }
+    }
+
+    private void runTasks() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+	try {
+	  task.run();
+	} catch (RuntimeException e) {
+	  log.error("Selector task threw", e);
+	}
+      }
+    }
+
+    private void processSelectedKeys() {
+      Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+      while (iter.hasNext()) {
+	SelectionKey key = iter.next();
+	iter.remove();
+	if (!key.isValid()) {
+	  continue;
+	}
+	Object att = key.attachment();
+	if (att == ACCEPTOR) {
+	  acceptConnections((ServerSocketChannel)key.channel());
+	} else if (att instanceof NioPeerChannel) {
+	  ((NioPeerChannel)att).handleSelected(key);
+	}
+      }
+    }
+
+    private void checkTimeouts() {
+      for (SelectionKey key : selector.keys()) {
+	Object att = key.attachment();
+	if (key.isValid() && att instanceof NioPeerChannel) {
+	  try {
+	    ((NioPeerChannel)att).checkTimeouts();
+	  } catch (RuntimeException e) {
+	    log.error("checkTimeouts", e);
+	  }
+	}
+      }
+    }
+
+    private void closeAll() {
+      runTasks();
+      for (SelectionKey key : selector.keys()) {
+	Object att = key.attachment();
+	if (att instanceof NioPeerChannel) {
+	  ((NioPeerChannel)att).abortChannel();
+	}
+      }
+      try {
+	selector.close();
+      } catch (IOException e) {
+	log.warning("Closing selector", e);
+      }
+    }
+
+    void stopCommThread() {
+      stopWDog();
+      triggerWDogOnExit(false);
+      goOn = false;
+      selector.wakeup();
+    }
+  }
+}
@@ -164,6 +164,13 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
 
   /** In Vote messages: A list of vote blocks for this vote. */
   VoteBlocks m_voteBlocks;
+
+  /** In received messages: the highest {@link VoteBlockCodec} format
+   * the sender can decode.  Peers that predate the compact format don't
+   * send it, and can receive only {@link VoteBlockCodec#FORMAT_LEGACY}.
+   * The format is advertised in the properties rather than by bumping
+   * the protocol rev, as older peers reject any rev but their own. */
+  private int m_maxVoteBlockFormat = VoteBlockCodec.FORMAT_LEGACY;
   
   /*
    * Note:  voteDeadline has been deprecated in favor of voteDuration.  
@@ -478,6 +485,10 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
       log.debug3("V3LcapMessage with modulus: " + m_modulus);
     }
     m_sampleNonce = m_props.getByteArray("sampleNonce", ByteArray.EMPTY_BYTE_ARRAY);
+    m_maxVoteBlockFormat =
+      m_props.getInt("maxvbformat", VoteBlockCodec.FORMAT_LEGACY);
+    int voteBlockFormat =
+      m_props.getInt("vbformat", VoteBlockCodec.FORMAT_LEGACY);
     String nakString = m_props.getProperty("nak");
     if (nakString != null) {
       try {
@@ -493,6 +504,10 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     m_repairDataLen = dis.readLong();
 
     if (voteBlockCount > 0) {
+      if (!VoteBlockCodec.isSupportedFormat(voteBlockFormat)) {
+	throw new ProtocolException("Unsupported vote block format: " +
+				    voteBlockFormat);
+      }
       // Find the directory associated with this poll's state.
       File stateDir =
         ((LockssDaemon)m_daemon).getPollManager().getStateDir(m_key);
@@ -500,7 +515,8 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
       // (They would get stored in the system tempdir, where they would
       // accumulate because nothing knows to delete them.)
       if (stateDir != null) {
-	m_voteBlocks = new DiskVoteBlocks(voteBlockCount, dis, stateDir);
+	m_voteBlocks = new DiskVoteBlocks(voteBlockCount, dis, stateDir,
+					  voteBlockFormat);
       }
     }
 
@@ -676,6 +692,14 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     if (m_weightedAgreementHint >= 0.0) {
       m_props.putDouble("weightedAgreementHint", m_weightedAgreementHint);
     }
+    int maxVoteBlockFormat = VoteBlockCodec.getConfiguredMaxFormat();
+    if (maxVoteBlockFormat != VoteBlockCodec.FORMAT_LEGACY) {
+      m_props.putInt("maxvbformat", maxVoteBlockFormat);
+    }
+    int voteBlockFormat = getVoteBlockFormat();
+    if (voteBlockFormat != VoteBlockCodec.FORMAT_LEGACY) {
+      m_props.putInt("vbformat", voteBlockFormat);
+    }
   }
 
   /**
@@ -904,6 +928,21 @@ public class V3LcapMessage extends LcapMessage implements LockssSerializable {
     m_voteBlocks = voteBlocks;
   }
 
+  /** Return the {@link VoteBlockCodec} format of the vote blocks in this
+   * message */
+  public int getVoteBlockFormat() {
+    if (m_voteBlocks instanceof DiskVoteBlocks) {
+      return ((DiskVoteBlocks)m_voteBlocks).getFormat();
+    }
+    return VoteBlockCodec.FORMAT_LEGACY;
+  }
+
+  /** Return the highest {@link VoteBlockCodec} format the sender of this
+   * message can decode */
+  public int getMaxVoteBlockFormat() {
+    return m_maxVoteBlockFormat;
+  }
+
   public void setRepairProps(CIProperties props) {
     if (props != null) {
       m_repairProps = EncodedProperty.fromProps(props);
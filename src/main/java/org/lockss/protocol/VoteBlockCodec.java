@@ -0,0 +1,374 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import org.lockss.config.*;
+import org.lockss.util.*;
+
+/**
+ * Streaming encoders and decoders for sequences of {@link VoteBlock}s, as
+ * stored by {@link DiskVoteBlocks} and sent in {@link V3LcapMessage}s.
+ *
+ * <p>Two formats are supported:
+ * <ul>
+ * <li>{@link #FORMAT_LEGACY}: each block is a 2-byte length followed by
+ * the block's {@link EncodedProperty} form ({@link
+ * VoteBlock#getEncoded()}).  Understood by all peers.</li>
+ * <li>{@link #FORMAT_COMPACT}: a fixed field layout with variable-length
+ * integers and raw hash bytes.  Each URL is stored as the length of the
+ * prefix it shares with the previous block's URL, followed by the
+ * remainder, so the blocks must be read in the order they were
+ * written.</li>
+ * </ul>
+ *
+ * The compact format is used only with peers that have advertised they
+ * can decode it; see {@link #negotiateFormat(int)}.
+ */
+public class VoteBlockCodec {
+
+  /** 2-byte length + EncodedProperty per block */
+  public static final int FORMAT_LEGACY = 0;
+  /** Varint fields, raw hashes, prefix-compressed URLs */
+  public static final int FORMAT_COMPACT = 1;
+
+  /** Highest format this code can read and write */
+  public static final int MAX_FORMAT = FORMAT_COMPACT;
+
+  /** The highest vote block encoding format this peer advertises and
+   * uses.  0 restricts it to the legacy encoding understood by all
+   * peers. */
+  public static final String PARAM_MAX_VOTE_BLOCK_FORMAT =
+    Configuration.PREFIX + "poll.v3.maxVoteBlockFormat";
+  public static final int DEFAULT_MAX_VOTE_BLOCK_FORMAT = FORMAT_COMPACT;
+
+  // Version flag bits in compact format
+  private static final int FLAG_HASH_ERROR = 1;
+
+  // Upper bounds on the peer-supplied lengths in compact blocks, checked
+  // before anything is allocated.  Far larger than any legitimate value;
+  // a legacy block, URL and all, can't exceed 32767 bytes.
+  static final int MAX_URL_BYTES = 64 * 1024;
+  static final int MAX_HASH_BYTES = 1024;
+  static final int MAX_VERSIONS = 64 * 1024;
+
+  /** Return true if vote blocks in the format can be read and written */
+  public static boolean isSupportedFormat(int format) {
+    return format >= FORMAT_LEGACY && format <= MAX_FORMAT;
+  }
+
+  /** Return the highest format this peer is configured to advertise */
+  public static int getConfiguredMaxFormat() {
+    int max = CurrentConfig.getIntParam(PARAM_MAX_VOTE_BLOCK_FORMAT,
+					DEFAULT_MAX_VOTE_BLOCK_FORMAT);
+    return Math.max(FORMAT_LEGACY, Math.min(max, MAX_FORMAT));
+  }
+
+  /** Return the format to use for vote blocks that will be sent to a peer
+   * that advertised it can decode formats up to peerMax */
+  public static int negotiateFormat(int peerMax) {
+    return Math.max(FORMAT_LEGACY, Math.min(peerMax, getConfiguredMaxFormat()));
+  }
+
+  /** Return an Encoder that writes blocks in the format to out.
+   * @param prevUrl the URL of the last block already written to the
+   * underlying stream, or null if none.  Only used by formats that
+   * compress URLs.
+   */
+  public static Encoder newEncoder(int format, DataOutput out,
+				   String prevUrl) {
+    switch (format) {
+    case FORMAT_LEGACY:
+      return new LegacyEncoder(out);
+    case FORMAT_COMPACT:
+      return new CompactEncoder(out, prevUrl);
+    default:
+      throw new IllegalArgumentException("Unknown vote block format: " +
+					 format);
+    }
+  }
+
+  /** Return a Decoder that reads blocks in the format from in, which must
+   * be positioned at the first block */
+  public static Decoder newDecoder(int format, DataInput in) {
+    switch (format) {
+    case FORMAT_LEGACY:
+      return new LegacyDecoder(in);
+    case FORMAT_COMPACT:
+      return new CompactDecoder(in);
+    default:
+      throw new IllegalArgumentException("Unknown vote block format: " +
+					 format);
+    }
+  }
+
+  /** Writes a sequence of VoteBlocks */
+  public static abstract class Encoder {
+    protected final DataOutput out;
+    protected String prevUrl;
+
+    protected Encoder(DataOutput out, String prevUrl) {
+      this.out = out;
+      this.prevUrl = prevUrl;
+    }
+
+    /** Append the block */
+    public void write(VoteBlock vb) throws IOException {
+      write0(vb);
+      prevUrl = vb.getUrl();
+    }
+
+    /** Return the URL of the last block written */
+    public String getPrevUrl() {
+      return prevUrl;
+    }
+
+    protected abstract void write0(VoteBlock vb) throws IOException;
+  }
+
+  /** Reads a sequence of VoteBlocks */
+  public static abstract class Decoder {
+    protected final DataInput in;
+
+    protected Decoder(DataInput in) {
+      this.in = in;
+    }
+
+    /** Return the next block, or null at the end of the input.
+     * @throws IOException if the input is malformed or ends in the
+     * middle of a block
+     */
+    public abstract VoteBlock read() throws IOException;
+  }
+
+  static class LegacyEncoder extends Encoder {
+    LegacyEncoder(DataOutput out) {
+      super(out, null);
+    }
+
+    protected void write0(VoteBlock vb) throws IOException {
+      byte[] encodedBlock = vb.getEncoded();
+      out.writeShort(encodedBlock.length);
+      out.write(encodedBlock);
+    }
+  }
+
+  static class LegacyDecoder extends Decoder {
+    LegacyDecoder(DataInput in) {
+      super(in);
+    }
+
+    // A truncated final block is silently ignored, as it always has been
+    public VoteBlock read() throws IOException {
+      try {
+	short len = in.readShort();
+	byte[] encodedBlock = new byte[len];
+	in.readFully(encodedBlock);
+	return new VoteBlock(encodedBlock);
+      } catch (EOFException e) {
+	return null;
+      }
+    }
+  }
+
+  /*
+   * Compact block layout:
+   *   varint  length of prefix shared with previous URL (chars)
+   *   varint  length of UTF-8 URL suffix (bytes)
+   *   bytes   URL suffix
+   *   varint  vote type
+   *   varint  number of versions
+   * For each version:
+   *   byte    flags (FLAG_HASH_ERROR)
+   *   varint  filtered offset, filtered length,
+   *           unfiltered offset, unfiltered length (zigzag)
+   *   varint  plain hash length, followed by hash bytes
+   *   varint  nonced hash length, followed by hash bytes
+   */
+
+  static class CompactEncoder extends Encoder {
+    CompactEncoder(DataOutput out, String prevUrl) {
+      super(out, prevUrl);
+    }
+
+    protected void write0(VoteBlock vb) throws IOException {
+      String url = vb.getUrl();
+      int shared = sharedPrefixLength(prevUrl, url);
+      byte[] suffix = url.substring(shared).getBytes(StandardCharsets.UTF_8);
+      writeVarLong(out, shared);
+      writeVarLong(out, suffix.length);
+      out.write(suffix);
+      writeVarLong(out, vb.getVoteType());
+      writeVarLong(out, vb.size());
+      for (int ix = 0; ix < vb.size(); ix++) {
+	VoteBlock.Version ver = vb.getVersion(ix);
+	out.writeByte(ver.getHashError() ? FLAG_HASH_ERROR : 0);
+	writeSignedVarLong(out, ver.getFilteredOffset());
+	writeSignedVarLong(out, ver.getFilteredLength());
+	writeSignedVarLong(out, ver.getUnfilteredOffset());
+	writeSignedVarLong(out, ver.getUnfilteredLength());
+	writeBytes(out, ver.getPlainHash());
+	writeBytes(out, ver.getHash());
+      }
+    }
+  }
+
+  static class CompactDecoder extends Decoder {
+    private String prevUrl;
+
+    CompactDecoder(DataInput in) {
+      super(in);
+    }
+
+    public VoteBlock read() throws IOException {
+      int first;
+      try {
+	first = in.readUnsignedByte();
+      } catch (EOFException e) {
+	return null;
+      }
+      int shared = (int)readVarLong(in, first);
+      int suffixLen = readLength(in, MAX_URL_BYTES, "URL suffix");
+      if (shared > 0 && (prevUrl == null || shared > prevUrl.length())) {
+	throw new ProtocolException("Bad URL prefix length: " + shared);
+      }
+      byte[] suffix = new byte[suffixLen];
+      in.readFully(suffix);
+      String url = new String(suffix, StandardCharsets.UTF_8);
+      if (shared > 0) {
+	url = prevUrl.substring(0, shared) + url;
+      }
+      VoteBlock vb = new VoteBlock(url, (int)readVarLong(in));
+      int nVersions = readLength(in, MAX_VERSIONS, "version count");
+      for (int ix = 0; ix < nVersions; ix++) {
+	int flags = in.readUnsignedByte();
+	long fOffset = readSignedVarLong(in);
+	long fLength = readSignedVarLong(in);
+	long uOffset = readSignedVarLong(in);
+	long uLength = readSignedVarLong(in);
+	byte[] plainHash = readBytes(in);
+	byte[] noncedHash = readBytes(in);
+	vb.addVersion(fOffset, fLength, uOffset, uLength,
+		      plainHash, noncedHash,
+		      (flags & FLAG_HASH_ERROR) != 0);
+      }
+      prevUrl = url;
+      return vb;
+    }
+  }
+
+  /** Return the length of the common prefix of the two strings, not
+   * splitting a surrogate pair */
+  static int sharedPrefixLength(String s1, String s2) {
+    if (s1 == null || s2 == null) {
+      return 0;
+    }
+    int max = Math.min(s1.length(), s2.length());
+    int ix = 0;
+    while (ix < max && s1.charAt(ix) == s2.charAt(ix)) {
+      ix++;
+    }
+    if (ix > 0 && Character.isHighSurrogate(s1.charAt(ix - 1))) {
+      ix--;
+    }
+    return ix;
+  }
+
+  static void writeBytes(DataOutput out, byte[] b) throws IOException {
+    if (b == null) {
+      b = ByteArray.EMPTY_BYTE_ARRAY;
+    }
+    writeVarLong(out, b.length);
+    out.write(b);
+  }
+
+  static byte[] readBytes(DataInput in) throws IOException {
+    int len = readLength(in, MAX_HASH_BYTES, "hash");
+    if (len == 0) {
+      return ByteArray.EMPTY_BYTE_ARRAY;
+    }
+    byte[] res = new byte[len];
+    in.readFully(res);
+    return res;
+  }
+
+  /** Write a non-negative long in 7-bit groups, low-order first, high
+   * bit set on all but the last byte */
+  static void writeVarLong(DataOutput out, long val) throws IOException {
+    while ((val & ~0x7FL) != 0) {
+      out.writeByte((int)((val & 0x7F) | 0x80));
+      val >>>= 7;
+    }
+    out.writeByte((int)val);
+  }
+
+  /** Write a long that may be negative, zigzag-encoded so that small
+   * magnitudes are short */
+  static void writeSignedVarLong(DataOutput out, long val)
+      throws IOException {
+    writeVarLong(out, (val << 1) ^ (val >> 63));
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    return readVarLong(in, in.readUnsignedByte());
+  }
+
+  // first is the first byte, already read
+  static long readVarLong(DataInput in, int first) throws IOException {
+    long res = first & 0x7F;
+    int shift = 7;
+    int b = first;
+    while ((b & 0x80) != 0) {
+      if (shift > 63) {
+	throw new ProtocolException("Malformed varint");
+      }
+      b = in.readUnsignedByte();
+      res |= (long)(b & 0x7F) << shift;
+      shift += 7;
+    }
+    return res;
+  }
+
+  static long readSignedVarLong(DataInput in) throws IOException {
+    long raw = readVarLong(in);
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  /** Read a length, throwing ProtocolException if it exceeds max */
+  static int readLength(DataInput in, int max, String what)
+      throws IOException {
+    long len = readVarLong(in);
+    if (len < 0 || len > max) {
+      throw new ProtocolException("Bad " + what + " length: " + len);
+    }
+    return (int)len;
+  }
+}
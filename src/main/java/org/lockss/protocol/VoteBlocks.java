@@ -58,10 +58,13 @@ public interface VoteBlocks extends LockssSerializable {
    * 
    * <p>To be considered compatible with the encoded form of a V3LcapMessage,
    * this method <b>must</b> guarantee that it returns a stream consisting
-   * of the following byte sequence, one per VoteBlock object:</p>
+   * of the VoteBlocks encoded in one of the {@link VoteBlockCodec}
+   * formats.  Unless the implementation is a {@link DiskVoteBlocks}, which
+   * records its format, that must be {@link
+   * VoteBlockCodec#FORMAT_LEGACY}:</p>
    * 
    * <ul>
-   *   <li><b>One Byte</b>: The length of the encoded VoteBlock</li>
+   *   <li><b>Two Bytes</b>: The length of the encoded VoteBlock</li>
    *   <li><b><i>len</i> Bytes</b>: The result of calling <tt>getEncoded()</tt>
    *   on the VoteBlock.</li>
    * </ul>
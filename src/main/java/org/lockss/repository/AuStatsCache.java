@@ -0,0 +1,272 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.repository;
+
+import java.util.*;
+import org.lockss.config.*;
+import org.lockss.daemon.*;
+import org.lockss.log.*;
+import org.lockss.plugin.*;
+import org.lockss.state.*;
+import org.lockss.util.*;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+
+/**
+ * Cache of per-AU aggregate statistics: the number of URLs with
+ * content, the total size of their current versions and the total size
+ * of all versions.  Lets status pages, poll scheduling and hash
+ * estimation get these without enumerating the AU's content.
+ *
+ * The statistics live in the {@link AuState}.  They're adjusted as
+ * content is stored, saved when crawls and polls finish, and recomputed
+ * from the AU's content by a background thread when they're unknown,
+ * older than <tt>maxAge</tt>, incomplete because the daemon exited before
+ * saving adjustments, or explicitly invalidated.  A
+ * version stored while the AU is being recomputed may be counted twice
+ * or not at all; the next recomputation corrects it.
+ */
+public class AuStatsCache {
+  private static L4JLogger log = L4JLogger.getLogger();
+
+  static final String PREFIX = RepositoryManager.PREFIX + "auStats.";
+
+  /** If true, AU content size, URL count and disk usage are served from
+   * the statistics stored in the AuState.  If false, content size is
+   * computed on each request and the others are unknown. */
+  public static final String PARAM_ENABLED = PREFIX + "enabled";
+  public static final boolean DEFAULT_ENABLED = true;
+
+  /** Statistics that were last recomputed longer ago than this are still
+   * served, but the AU is queued to be recomputed */
+  public static final String PARAM_MAX_AGE = PREFIX + "maxAge";
+  public static final long DEFAULT_MAX_AGE = Constants.DAY;
+
+  static final String PRIORITY_PARAM_AU_STATS = "AuStats";
+  static final int PRIORITY_DEFAULT_AU_STATS = Thread.NORM_PRIORITY - 1;
+
+  private boolean enabled = DEFAULT_ENABLED;
+  private long maxAge = DEFAULT_MAX_AGE;
+
+  // AUs waiting to be recomputed, in request order
+  private final Set<ArchivalUnit> queue = new LinkedHashSet<>();
+  private final BinarySemaphore queueSem = new BinarySemaphore();
+  private ReconcileThread reconcileThread;
+
+  public void setConfig(Configuration config, Configuration oldConfig,
+			Configuration.Differences changedKeys) {
+    if (changedKeys.contains(PREFIX)) {
+      enabled = config.getBoolean(PARAM_ENABLED, DEFAULT_ENABLED);
+      maxAge = config.getTimeInterval(PARAM_MAX_AGE, DEFAULT_MAX_AGE);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Return the total size of the current versions of the AU's content.
+   * If unknown and calcIfUnknown is false, it is computed by the
+   * CachedUrlSet, as it would be without the cache, and the AU is queued
+   * to be recomputed. */
+  public long getContentSize(ArchivalUnit au, boolean calcIfUnknown) {
+    AuState aus = getAuStateWithStats(au, calcIfUnknown);
+    if (aus != null) {
+      return aus.getAuContentSize();
+    }
+    return au.getAuCachedUrlSet().getContentSize();
+  }
+
+  /** Return the number of URLs in the AU with content, or -1 if unknown
+   * and calcIfUnknown is false */
+  public long getUrlCount(ArchivalUnit au, boolean calcIfUnknown) {
+    AuState aus = getAuStateWithStats(au, calcIfUnknown);
+    return aus != null ? aus.getAuUrlCount() : -1;
+  }
+
+  /** Return the total size of all versions of the AU's content, or -1 if
+   * unknown and calcIfUnknown is false */
+  public long getDiskUsage(ArchivalUnit au, boolean calcIfUnknown) {
+    AuState aus = getAuStateWithStats(au, calcIfUnknown);
+    return aus != null ? aus.getAuDiskUsage() : -1;
+  }
+
+  /** Queue the AU's statistics to be recomputed, <i>eg</i>, after content
+   * has been removed */
+  public void invalidate(ArchivalUnit au) {
+    queueReconcile(au);
+  }
+
+  /** Forget any pending work for a deleted AU */
+  public void auDeleted(ArchivalUnit au) {
+    synchronized (queue) {
+      queue.remove(au);
+    }
+  }
+
+  /** Return the AU's AuState if its statistics are known, after
+   * recomputing them if calcIfUnknown is true.  Queue them to be
+   * recomputed if unknown or stale. */
+  private AuState getAuStateWithStats(ArchivalUnit au,
+				      boolean calcIfUnknown) {
+    AuState aus = AuUtil.getAuState(au);
+    if (aus == null) {
+      return null;
+    }
+    if (!aus.hasAuStats()) {
+      if (calcIfUnknown && reconcile(au, aus)) {
+	return aus;
+      }
+      queueReconcile(au);
+      return null;
+    }
+    if (aus.isAuStatsIncomplete()
+	|| TimeBase.msSince(aus.getAuStatsTime()) > maxAge) {
+      queueReconcile(au);
+    }
+    return aus;
+  }
+
+  void queueReconcile(ArchivalUnit au) {
+    synchronized (queue) {
+      if (!queue.add(au)) {
+	return;
+      }
+    }
+    queueSem.give();
+  }
+
+  int getQueueSize() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+  ArchivalUnit nextQueued() {
+    synchronized (queue) {
+      Iterator<ArchivalUnit> iter = queue.iterator();
+      if (!iter.hasNext()) {
+	return null;
+      }
+      ArchivalUnit au = iter.next();
+      iter.remove();
+      return au;
+    }
+  }
+
+  /** Recompute the AU's statistics from its content and store them in
+   * its AuState.
+   * @return true if successful
+   */
+  public boolean reconcile(ArchivalUnit au) {
+    AuState aus = AuUtil.getAuState(au);
+    return aus != null && reconcile(au, aus);
+  }
+
+  boolean reconcile(ArchivalUnit au, AuState aus) {
+    long urls = 0;
+    long size = 0;
+    long du = 0;
+    try {
+      for (CachedUrl cu : au.getAuCachedUrlSet().getCuIterable()) {
+	try {
+	  long cuSize = cu.getContentSize();
+	  urls++;
+	  size += cuSize;
+	  if (cu.getVersion() > 1) {
+	    for (CachedUrl ver : cu.getCuVersions()) {
+	      du += ver.getContentSize();
+	    }
+	  } else {
+	    du += cuSize;
+	  }
+	} finally {
+	  AuUtil.safeRelease(cu);
+	}
+      }
+    } catch (RuntimeException e) {
+      log.warn("Couldn't compute statistics for {}", au.getName(), e);
+      return false;
+    }
+    log.debug2("Stats for {}: {} URLs, {} bytes, {} bytes all versions",
+	       au.getName(), urls, size, du);
+    aus.setAuStats(urls, size, du);
+    return true;
+  }
+
+  /** Start the background thread that recomputes queued AUs */
+  public void startReconciler() {
+    if (reconcileThread == null) {
+      reconcileThread = new ReconcileThread();
+      new Thread(reconcileThread).start();
+    }
+  }
+
+  /** Stop the background thread */
+  public void stopReconciler() {
+    if (reconcileThread != null) {
+      reconcileThread.stopReconciler();
+      reconcileThread.waitExited(Deadline.in(Constants.SECOND));
+      reconcileThread = null;
+    }
+  }
+
+  private class ReconcileThread extends LockssRunnable {
+    private volatile boolean goOn = true;
+
+    ReconcileThread() {
+      super("AuStats");
+    }
+
+    public void lockssRun() {
+      triggerWDogOnExit(true);
+      setPriority(PRIORITY_PARAM_AU_STATS, PRIORITY_DEFAULT_AU_STATS);
+      while (goOn) {
+	try {
+	  ArchivalUnit au = nextQueued();
+	  if (au == null) {
+	    queueSem.take(Deadline.MAX);
+	  } else if (enabled) {
+	    reconcile(au);
+	  }
+	} catch (InterruptedException e) {
+	  // check goOn
+	} catch (RuntimeException e) {
+	  log.warn("Unexpected exception recomputing AU stats", e);
+	}
+      }
+      triggerWDogOnExit(false);
+    }
+
+    void stopReconciler() {
+      goOn = false;
+      interruptThread();
+    }
+  }
+}
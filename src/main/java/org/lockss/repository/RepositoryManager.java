@@ -136,6 +136,7 @@ public class RepositoryManager
   private RepoSpec v2Repo = null;
 
   private AuEventHandler auEventHandler;
+  private AuStatsCache auStatsCache = new AuStatsCache();
 
   PlatformUtil.DF paramDFWarn =
       PlatformUtil.DF.makeThreshold(DEFAULT_DISK_WARN_FRRE_MB,
@@ -154,11 +155,17 @@ public class RepositoryManager
       public void auCreated(AuEvent event, ArchivalUnit au) {
 	flushAuidRepoMap();
       }
+      @Override
+      public void auDeleted(AuEvent event, ArchivalUnit au) {
+	auStatsCache.auDeleted(au);
+      }
     };
     getDaemon().getPluginManager().registerAuEventHandler(auEventHandler);
+    auStatsCache.startReconciler();
   }
 
   public void stopService() {
+    auStatsCache.stopReconciler();
     if (auEventHandler != null) {
       getDaemon().getPluginManager().unregisterAuEventHandler(auEventHandler);
       auEventHandler = null;
@@ -191,6 +198,7 @@ public class RepositoryManager
       processV2RepoSpec(config.get(PARAM_V2_REPOSITORY, DEFAULT_V2_REPOSITORY));
       reconfigureRepos(config);
     }
+    auStatsCache.setConfig(config, oldConfig, changedKeys);
   }
 
   static Pattern REPO_SPEC_PATTERN =
@@ -378,6 +386,11 @@ public class RepositoryManager
     }
   }
 
+  /** Return the cache of per-AU content statistics */
+  public AuStatsCache getAuStatsCache() {
+    return auStatsCache;
+  }
+
   /** Return list of known repository URLs.  Currently there's just one. */
   public List<String> getRepositoryUrlList() {
     if (v2Repo == null) {
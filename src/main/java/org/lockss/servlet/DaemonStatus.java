@@ -118,6 +118,9 @@ public class DaemonStatus extends BaseDaemonStatus {
       log.debug2("Debug user.  Setting OPTION_DEBUG_USER");
       tableOptions.set(StatusTable.OPTION_DEBUG_USER);
     }
+    if (outputFmt == OUTPUT_HTML) {
+      tableOptions.set(StatusTable.OPTION_PAGED);
+    }
     for (Iterator iter = StringUtil.breakAt(optionsParam, ',').iterator();
 	 iter.hasNext(); ) {
       String s = (String)iter.next();
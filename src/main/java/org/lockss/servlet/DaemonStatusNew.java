@@ -120,6 +120,9 @@ public class DaemonStatusNew extends BaseDaemonStatus {
       log.debug2("Debug user.  Setting OPTION_DEBUG_USER");
       tableOptions.set(StatusTable.OPTION_DEBUG_USER);
     }
+    if (outputFmt == OUTPUT_HTML) {
+      tableOptions.set(StatusTable.OPTION_PAGED);
+    }
 
     for (Iterator iter = StringUtil.breakAt(optionsParam, ',').iterator();
 	 iter.hasNext(); ) {
@@ -527,6 +527,9 @@ public class DebugPanel extends LockssServlet {
       }
       org.lockss.laaws.rs.model.Artifact delArt =
 	v2Repo.getArtifact(coll, au.getAuId(), url);
+      if (cnt > 0) {
+	daemon.getRepositoryManager().getAuStatsCache().invalidate(au);
+      }
       if (delArt == null) {
 	statusMsg ="Deleted " + StringUtil.numberOfUnits(cnt, "version") +
 	  " of " + url;
@@ -194,6 +194,14 @@ public class MetadataMonitor extends LockssServlet {
       "Lists the Archival Units in the DB that have been deleted in the daemon";
   private static final String LIST_DB_AUS_DELETED_IN_DAEMON_HEADER =
       "Archival Units In DB But Deleted in Daemon";
+  private static final String SHOW_INGEST_STATISTICS_LINK =
+      "Metadata Ingest Statistics";
+  private static final String SHOW_INGEST_STATISTICS_ACTION =
+      "showIngestStatistics";
+  private static final String SHOW_INGEST_STATISTICS_HELP =
+      "Shows the throughput of the batched metadata ingest jobs";
+  private static final String SHOW_INGEST_STATISTICS_HEADER =
+      "Metadata Ingest Statistics";
 
   private static final String BACK_LINK_PREFIX = "Back to ";
 
@@ -269,6 +277,8 @@ public class MetadataMonitor extends LockssServlet {
 	listAusWithoutMetadataItems();
       } else if (LIST_DB_AUS_DELETED_IN_DAEMON_ACTION.equals(action)) {
 	listDbAusDeletedInDaemon();
+      } else if (SHOW_INGEST_STATISTICS_ACTION.equals(action)) {
+	showIngestStatistics();
       } else {
 	if (action != null) {
 	  errMsg = "Invalid operation '" + action + "'";
@@ -406,9 +416,48 @@ public class MetadataMonitor extends LockssServlet {
 	ACTION + LIST_DB_AUS_DELETED_IN_DAEMON_ACTION,
 	LIST_DB_AUS_DELETED_IN_DAEMON_HELP));
 
+    // Show the statistics of the metadata ingest jobs.
+    list.add(getMenuDescriptor(myDescr,
+	SHOW_INGEST_STATISTICS_LINK,
+	ACTION + SHOW_INGEST_STATISTICS_ACTION,
+	SHOW_INGEST_STATISTICS_HELP));
+
     return list.iterator();
   }
 
+  /**
+   * Displays the statistics of the batched metadata ingest jobs.
+   * 
+   * @throws IOException
+   */
+  private void showIngestStatistics() throws IOException {
+    final String DEBUG_HEADER = "showIngestStatistics(): ";
+    if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Starting...");
+
+    String attributes = "align=\"center\" cellspacing=\"4\" cellpadding=\"5\"";
+
+    // Create the results table.
+    Table results = new Table(0, attributes);
+    results.newRow();
+    results.newCell("align=\"center\" class=\"colhead\"");
+    results.add("Statistic");
+    results.newCell("align=\"center\" class=\"colhead\"");
+    results.add("Value");
+
+    // Loop through the statistics.
+    for (Map.Entry<String, Object> stat
+	: mdManager.getIngestStatistics().entrySet()) {
+      results.newRow();
+      results.newCell("align=\"left\"");
+      results.add(stat.getKey());
+      results.newCell("align=\"right\"");
+      results.add(String.valueOf(stat.getValue()));
+    }
+
+    makeTablePage(SHOW_INGEST_STATISTICS_HEADER, results);
+    if (log.isDebug2()) log.debug2(DEBUG_HEADER + "Done.");
+  }
+
   /**
    * Displays the names of the publishers in the database.
    * 
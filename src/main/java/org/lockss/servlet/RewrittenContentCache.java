@@ -0,0 +1,583 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.servlet;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.lockss.app.LockssDaemon;
+import org.lockss.config.*;
+import org.lockss.daemon.status.*;
+import org.lockss.plugin.*;
+import org.lockss.util.*;
+import org.lockss.util.io.FileUtil;
+
+/**
+ * Bounded cache of link-rewritten response bodies for {@link
+ * ServeContent}, so that repeated requests for the same stored content
+ * needn't rerun the AU's {@link org.lockss.rewriter.LinkRewriterFactory}.
+ * The caller supplies a key that captures everything the rewritten body
+ * depends on (AU, URL, artifact version, rewrite style, link prefix,
+ * plugin version); storing a new version changes the key, so stale
+ * entries are never served, and they're dropped when the AU's content
+ * changes.  Small bodies are held in memory, larger ones in files in a
+ * temp dir; each tier is evicted LRU to stay within its size limit.  The
+ * temp dir is deleted by {@link #stop()} and when {@value #PARAM_DIR}
+ * changes.
+ */
+public class RewrittenContentCache {
+  private static final Logger log = Logger.getLogger();
+
+  public static final String PREFIX = ServeContent.PREFIX + "rewriteCache.";
+
+  /** If true, rewritten content is cached */
+  public static final String PARAM_ENABLED = PREFIX + "enabled";
+  public static final boolean DEFAULT_ENABLED = true;
+
+  /** Maximum total bytes of rewritten content held in memory */
+  public static final String PARAM_MAX_MEMORY = PREFIX + "maxMemory";
+  public static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
+
+  /** Maximum total bytes of rewritten content held on disk */
+  public static final String PARAM_MAX_DISK = PREFIX + "maxDisk";
+  public static final long DEFAULT_MAX_DISK = 256 * 1024 * 1024;
+
+  /** Rewritten bodies larger than this are stored on disk rather than in
+   * memory */
+  public static final String PARAM_MAX_MEMORY_ENTRY =
+    PREFIX + "maxMemoryEntry";
+  public static final int DEFAULT_MAX_MEMORY_ENTRY = 64 * 1024;
+
+  /** Rewritten bodies larger than this aren't cached */
+  public static final String PARAM_MAX_ENTRY = PREFIX + "maxEntry";
+  public static final long DEFAULT_MAX_ENTRY = 16 * 1024 * 1024;
+
+  /** Parent of the temp dir in which large entries are stored.  If not
+   * set, the system temp dir is used. */
+  public static final String PARAM_DIR = PREFIX + "dir";
+  public static final String DEFAULT_DIR = null;
+
+  public static final String STATUS_TABLE_NAME = "RewrittenContentCache";
+
+  private boolean enabled = DEFAULT_ENABLED;
+  private long maxMemory = DEFAULT_MAX_MEMORY;
+  private long maxDisk = DEFAULT_MAX_DISK;
+  private int maxMemoryEntry = DEFAULT_MAX_MEMORY_ENTRY;
+  private long maxEntry = DEFAULT_MAX_ENTRY;
+  private String parentDirName = DEFAULT_DIR;
+  private File dir;
+
+  // Identifies the configuration under which cached content was
+  // rewritten.  Distinct across daemon restarts, so ETags sent by a
+  // previous instance don't match.
+  private final String instanceId =
+    Long.toString(System.currentTimeMillis(), 36);
+  private long configChanges = 0;
+  private volatile String generation = instanceId + ".0";
+
+  // Access-ordered, so iteration visits least recently used first
+  private final LinkedHashMap<String,Entry> entries =
+    new LinkedHashMap<String,Entry>(16, 0.75f, true);
+  private long memoryBytes = 0;
+  private long diskBytes = 0;
+
+  private boolean registered = false;
+  private PluginManager pluginMgr;
+  private AuEventHandler auEventHandler;
+
+  // Statistics, guarded by this
+  long hits;
+  long misses;
+  long stores;
+  long tooLarge;
+  long evictions;
+  long invalidations;
+
+  public void setConfig(Configuration config, Configuration oldConfig,
+			Configuration.Differences diffs) {
+    enabled = config.getBoolean(PARAM_ENABLED, DEFAULT_ENABLED);
+    maxMemory = config.getSize(PARAM_MAX_MEMORY, DEFAULT_MAX_MEMORY);
+    maxDisk = config.getSize(PARAM_MAX_DISK, DEFAULT_MAX_DISK);
+    maxMemoryEntry = (int)config.getSize(PARAM_MAX_MEMORY_ENTRY,
+					 DEFAULT_MAX_MEMORY_ENTRY);
+    maxEntry = config.getSize(PARAM_MAX_ENTRY, DEFAULT_MAX_ENTRY);
+    String pdir = config.get(PARAM_DIR, DEFAULT_DIR);
+    synchronized (this) {
+      // Config changes may affect rewriting, so start afresh
+      clear();
+      if (!StringUtil.equalStrings(pdir, parentDirName)) {
+	parentDirName = pdir;
+	deleteDir();
+      }
+      generation = instanceId + "." + ++configChanges;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Return a string that changes whenever the cache is cleared because
+   * the configuration changed.  Must be included in cache keys, and thus
+   * in ETags. */
+  public String getGeneration() {
+    return generation;
+  }
+
+  /** Register for AU events and status.  Idempotent. */
+  public synchronized void register(LockssDaemon daemon) {
+    if (registered) {
+      return;
+    }
+    registered = true;
+    pluginMgr = daemon.getPluginManager();
+    auEventHandler = new AuEventHandler.Base() {
+	@Override
+	public void auDeleted(AuEvent event, ArchivalUnit au) {
+	  invalidateAu(au.getAuId());
+	}
+	@Override
+	public void auContentChanged(AuEvent event, ArchivalUnit au,
+				     AuEvent.ContentChangeInfo info) {
+	  if (info != null && info.hasUrls()) {
+	    invalidateUrls(au.getAuId(), info.getUrls());
+	  } else {
+	    invalidateAu(au.getAuId());
+	  }
+	}
+      };
+    pluginMgr.registerAuEventHandler(auEventHandler);
+    daemon.getStatusService().registerStatusAccessor(STATUS_TABLE_NAME,
+						     new Status());
+  }
+
+  /** Return the entry for the key, or null */
+  public Entry get(String key) {
+    if (!enabled) {
+      return null;
+    }
+    synchronized (this) {
+      Entry ent = entries.get(key);
+      if (ent != null) {
+	hits++;
+      } else {
+	misses++;
+      }
+      return ent;
+    }
+  }
+
+  /** Store a rewritten body that's entirely in memory */
+  public void put(String key, String auid, String url, String charset,
+		  byte[] data, int len) {
+    if (!enabled) {
+      return;
+    }
+    if (len > maxEntry) {
+      synchronized (this) {
+	tooLarge++;
+      }
+      return;
+    }
+    if (len > maxMemoryEntry) {
+      Recorder rec = startRecording(key, auid, url);
+      rec.write(data, 0, len);
+      rec.commit(charset);
+      return;
+    }
+    byte[] copy = (data.length == len) ? data : Arrays.copyOf(data, len);
+    addEntry(new Entry(key, auid, url, charset, len, copy, null));
+  }
+
+  /** Return an OutputStream that records a rewritten body as it's
+   * written, to be stored by {@link Recorder#commit(String)} if
+   * completely written, or discarded by {@link Recorder#close()}
+   * otherwise. */
+  public Recorder startRecording(String key, String auid, String url) {
+    return new Recorder(key, auid, url);
+  }
+
+  /** Return the ETag to send with the rewritten body for the key */
+  public static String getETag(String key) {
+    return "\"" + hash(key) + "\"";
+  }
+
+  synchronized void addEntry(Entry ent) {
+    Entry old = entries.put(ent.key, ent);
+    if (old != null) {
+      removed(old);
+    }
+    if (ent.data != null) {
+      memoryBytes += ent.length;
+    } else {
+      diskBytes += ent.length;
+    }
+    stores++;
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Entry> iter = entries.values().iterator();
+    while ((memoryBytes > maxMemory || diskBytes > maxDisk)
+	   && iter.hasNext()) {
+      Entry ent = iter.next();
+      if ((ent.data != null && memoryBytes > maxMemory)
+	  || (ent.file != null && diskBytes > maxDisk)) {
+	iter.remove();
+	removed(ent);
+	evictions++;
+      }
+    }
+  }
+
+  // Must be called with lock held after removing from map
+  private void removed(Entry ent) {
+    if (ent.data != null) {
+      memoryBytes -= ent.length;
+    } else if (ent.file != null) {
+      diskBytes -= ent.length;
+      // If the file is being served, on Unix the open stream remains
+      // valid, else reading fails and the body is rewritten afresh
+      ent.file.delete();
+    }
+  }
+
+  /** Remove all entries for the AU */
+  public void invalidateAu(String auid) {
+    invalidate(auid, null);
+  }
+
+  /** Remove all entries for the URLs in the AU */
+  public void invalidateUrls(String auid, Collection<String> urls) {
+    invalidate(auid, new HashSet<String>(urls));
+  }
+
+  private synchronized void invalidate(String auid, Set<String> urls) {
+    for (Iterator<Entry> iter = entries.values().iterator();
+	 iter.hasNext(); ) {
+      Entry ent = iter.next();
+      if (ent.auid.equals(auid) && (urls == null || urls.contains(ent.url))) {
+	iter.remove();
+	removed(ent);
+	invalidations++;
+      }
+    }
+  }
+
+  /** Remove all entries */
+  public synchronized void clear() {
+    for (Entry ent : entries.values()) {
+      removed(ent);
+    }
+    entries.clear();
+  }
+
+  /** Remove all entries and delete the temp dir.  The cache remains
+   * usable; a new temp dir is created when needed. */
+  public synchronized void stop() {
+    clear();
+    deleteDir();
+  }
+
+  // Must be called with lock held, after clear()
+  private void deleteDir() {
+    if (dir != null) {
+      if (!FileUtil.delTree(dir)) {
+	log.warning("Couldn't delete rewritten content dir: " + dir);
+      }
+      dir = null;
+    }
+  }
+
+  synchronized File getDir() throws IOException {
+    if (dir == null) {
+      File parent = StringUtil.isNullString(parentDirName)
+	? null : new File(parentDirName);
+      if (parent != null) {
+	FileUtil.ensureDirExists(parent);
+      }
+      dir = FileUtil.createTempDir("rewritten", "", parent);
+    }
+    return dir;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  public synchronized long getDiskBytes() {
+    return diskBytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getStores() {
+    return stores;
+  }
+
+  public synchronized long getTooLarge() {
+    return tooLarge;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized long getInvalidations() {
+    return invalidations;
+  }
+
+  /** Fraction of lookups that were hits */
+  public synchronized double getHitRatio() {
+    long total = hits + misses;
+    return total == 0 ? 0.0 : (double)hits / (double)total;
+  }
+
+  static String hash(String key) {
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      byte[] digest = md5.digest(key.getBytes(StandardCharsets.UTF_8));
+      return new BigInteger(1, digest).toString(16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** A cached rewritten body */
+  public static class Entry {
+    final String key;
+    final String auid;
+    final String url;
+    final String charset;
+    final long length;
+    final byte[] data;
+    final File file;
+
+    Entry(String key, String auid, String url, String charset, long length,
+	  byte[] data, File file) {
+      this.key = key;
+      this.auid = auid;
+      this.url = url;
+      this.charset = charset;
+      this.length = length;
+      this.data = data;
+      this.file = file;
+    }
+
+    /** Length of the rewritten body */
+    public long getLength() {
+      return length;
+    }
+
+    /** Charset of the rewritten body, if the rewriter changed it, else
+     * null */
+    public String getCharset() {
+      return charset;
+    }
+
+    public String getETag() {
+      return RewrittenContentCache.getETag(key);
+    }
+
+    /** Open a stream on the rewritten body */
+    public InputStream openStream() throws IOException {
+      if (data != null) {
+	return new ByteArrayInputStream(data);
+      }
+      return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    public String toString() {
+      return "[RCC.Entry: " + url + ", " + length +
+	(data != null ? " (mem)" : " (disk)") + "]";
+    }
+  }
+
+  /** Accumulates a rewritten body as it's sent, in memory until it
+   * exceeds {@value #PARAM_MAX_MEMORY_ENTRY} then in a file.  Never
+   * throws; recording is abandoned if the body is too large or can't be
+   * written. */
+  public class Recorder extends OutputStream {
+    private final String key;
+    private final String auid;
+    private final String url;
+    private UnsynchronizedByteArrayOutputStream baos =
+      new UnsynchronizedByteArrayOutputStream();
+    private File file;
+    private OutputStream fos;
+    private long count = 0;
+    private boolean abandoned = false;
+    private boolean committed = false;
+
+    Recorder(String key, String auid, String url) {
+      this.key = key;
+      this.auid = auid;
+      this.url = url;
+    }
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (abandoned) {
+	return;
+      }
+      count += len;
+      if (count > maxEntry) {
+	synchronized (RewrittenContentCache.this) {
+	  tooLarge++;
+	}
+	abandon();
+	return;
+      }
+      try {
+	if (fos == null && count > maxMemoryEntry) {
+	  file = FileUtil.createTempFile("rewritten", ".body", getDir());
+	  fos = new BufferedOutputStream(new FileOutputStream(file));
+	  baos.writeTo(fos);
+	  baos = null;
+	}
+	if (fos != null) {
+	  fos.write(b, off, len);
+	} else {
+	  baos.write(b, off, len);
+	}
+      } catch (IOException e) {
+	log.warning("Couldn't record rewritten content for " + url, e);
+	abandon();
+      }
+    }
+
+    /** Store the recorded body in the cache */
+    public void commit(String charset) {
+      if (abandoned || committed) {
+	return;
+      }
+      committed = true;
+      if (fos != null) {
+	try {
+	  fos.close();
+	} catch (IOException e) {
+	  log.warning("Couldn't record rewritten content for " + url, e);
+	  abandon();
+	  return;
+	}
+	addEntry(new Entry(key, auid, url, charset, count, null, file));
+      } else {
+	addEntry(new Entry(key, auid, url, charset, count,
+			   baos.toByteArray(), null));
+      }
+    }
+
+    private void abandon() {
+      abandoned = true;
+      baos = null;
+      IOUtil.safeClose(fos);
+      if (file != null) {
+	file.delete();
+      }
+    }
+
+    /** Discard the recording if it hasn't been committed */
+    @Override
+    public void close() {
+      if (!committed) {
+	abandon();
+      }
+    }
+  }
+
+  class Status implements StatusAccessor {
+
+    public String getDisplayName() {
+      return "Rewritten Content Cache";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      List<StatusTable.SummaryInfo> res = new ArrayList<>();
+      res.add(new StatusTable.SummaryInfo("Enabled",
+					  ColumnDescriptor.TYPE_STRING,
+					  enabled));
+      res.add(new StatusTable.SummaryInfo("Entries",
+					  ColumnDescriptor.TYPE_INT,
+					  size()));
+      res.add(new StatusTable.SummaryInfo("Memory",
+					  ColumnDescriptor.TYPE_STRING,
+					  StringUtil.sizeToString(getMemoryBytes())));
+      res.add(new StatusTable.SummaryInfo("Disk",
+					  ColumnDescriptor.TYPE_STRING,
+					  StringUtil.sizeToString(getDiskBytes())));
+      res.add(new StatusTable.SummaryInfo("Hits",
+					  ColumnDescriptor.TYPE_INT,
+					  getHits()));
+      res.add(new StatusTable.SummaryInfo("Misses",
+					  ColumnDescriptor.TYPE_INT,
+					  getMisses()));
+      if (getHits() + getMisses() > 0) {
+	res.add(new StatusTable.SummaryInfo("Hit ratio",
+					    ColumnDescriptor.TYPE_PERCENT,
+					    getHitRatio()));
+      }
+      res.add(new StatusTable.SummaryInfo("Stores",
+					  ColumnDescriptor.TYPE_INT,
+					  getStores()));
+      res.add(new StatusTable.SummaryInfo("Too large",
+					  ColumnDescriptor.TYPE_INT,
+					  getTooLarge()));
+      res.add(new StatusTable.SummaryInfo("Evictions",
+					  ColumnDescriptor.TYPE_INT,
+					  getEvictions()));
+      res.add(new StatusTable.SummaryInfo("Invalidations",
+					  ColumnDescriptor.TYPE_INT,
+					  getInvalidations()));
+      table.setSummaryInfo(res);
+    }
+  }
+}
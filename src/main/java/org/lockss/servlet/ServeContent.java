@@ -39,6 +39,7 @@ import org.apache.commons.collections.*;
 //HC3 import org.apache.commons.httpclient.util.DateParseException;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.ObjectUtils;
@@ -305,6 +306,9 @@ public class ServeContent extends LockssServlet {
   private static int loginCheckerBufSize =
     BaseUrlFetcher.DEFAULT_LOGIN_CHECKER_MARK_LIMIT;
 
+  private static final RewrittenContentCache rewriteCache =
+    new RewrittenContentCache();
+
 
   private ArchivalUnit au;
   private ArchivalUnit explicitAu;
@@ -346,6 +350,24 @@ public class ServeContent extends LockssServlet {
     pluginMgr = daemon.getPluginManager();
     proxyMgr = daemon.getProxyManager();
     openUrlResolver = new OpenUrlResolver(daemon);
+    rewriteCache.register(daemon);
+  }
+
+  public void destroy() {
+    rewriteCache.stop();
+    super.destroy();
+  }
+
+  static RewrittenContentCache getRewrittenContentCache() {
+    return rewriteCache;
+  }
+
+  /** Called by ServletUtil.setConfig() on every config change, as any
+   * config change might affect the output of link rewriters */
+  static void setRewriteCacheConfig(Configuration config,
+				    Configuration oldConfig,
+				    Configuration.Differences diffs) {
+    rewriteCache.setConfig(config, oldConfig, diffs);
   }
 
   /** Called by ServletUtil.setConfig() */
@@ -1194,10 +1216,109 @@ public class ServeContent extends LockssServlet {
     // Indicate the AU the content came from
     resp.setHeader(Constants.X_LOCKSS_FROM_AUID, au.getAuId());
 
-    // rewrite content from cache
+    // rewrite content from cache, or serve previously rewritten content
+    LinkRewriterFactory lrf = getLinkRewriterFactory(mimeType);
+    String cacheKey = getRewriteCacheKey(lrf, mimeType);
+    if (cacheKey != null && serveFromRewriteCache(cacheKey)) {
+      return;
+    }
     CharsetUtil.InputStreamAndCharset isc = CharsetUtil.getCharsetStream(cu);
-    handleRewriteInputStream(isc.getInStream(), mimeType,
-			     isc.getCharset(), cu.getContentSize());
+    handleRewriteInputStream(lrf, isc.getInStream(), mimeType,
+			     isc.getCharset(), cu.getContentSize(), cacheKey);
+  }
+
+  /** Return the key under which the rewritten content of the current CU
+   * is cached, or null if it shouldn't be cached.  The key must include
+   * everything the rewritten content depends on. */
+  String getRewriteCacheKey(LinkRewriterFactory lrf, String mimeType) {
+    if (lrf == null
+	|| !rewriteCache.isEnabled()
+	|| (isMementoRequest() && !rewriteMementoResponses)) {
+      return null;
+    }
+    try {
+      StringBuilder sb = new StringBuilder();
+      sb.append(au.getAuId());
+      sb.append('|');
+      sb.append(cu.getUrl());
+      sb.append('|');
+      sb.append(cu.getVersion());
+      sb.append('|');
+      sb.append(baseUrl != null ? baseUrl : url);
+      sb.append('|');
+      sb.append(mimeType);
+      sb.append('|');
+      sb.append(rewriteStyle);
+      sb.append('|');
+      // Captures absoluteLinks, servlet path and, for absolute links, host
+      sb.append(makeLinkTransform().rewrite(""));
+      sb.append('|');
+      sb.append(au.getPlugin().getVersion());
+      sb.append('|');
+      // Changes on any config change, which may affect rewriting
+      sb.append(rewriteCache.getGeneration());
+      return sb.toString();
+    } catch (RuntimeException e) {
+      log.warning("Couldn't compute rewrite cache key, not caching: " + url,
+		  e);
+      return null;
+    }
+  }
+
+  static final String HEADER_ETAG = "ETag";
+  static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+  /** Send an ETag for the rewritten content and, if the client already
+   * has it or it's in the rewrite cache, serve it without rewriting.
+   * @return true if the response has been sent */
+  boolean serveFromRewriteCache(String cacheKey) throws IOException {
+    String etag = RewrittenContentCache.getETag(cacheKey);
+    resp.setHeader(HEADER_ETAG, etag);
+    String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+    if (ifNoneMatch != null && isETagMatch(ifNoneMatch, etag)) {
+      if (log.isDebug3()) {
+	log.debug3("Rewritten content not modified for: " + url);
+      }
+      resp.setStatus(HttpResponse.__304_Not_Modified);
+      return true;
+    }
+    RewrittenContentCache.Entry ent = rewriteCache.get(cacheKey);
+    if (ent == null) {
+      return false;
+    }
+    InputStream in;
+    try {
+      in = ent.openStream();
+    } catch (IOException e) {
+      // Evicted since lookup
+      log.debug2("Couldn't open cached rewritten content: " + ent, e);
+      return false;
+    }
+    if (log.isDebug2()) {
+      log.debug2("Serving cached rewritten content: " + ent);
+    }
+    OutputStream outStr = null;
+    try {
+      if (!StringUtil.isNullString(ent.getCharset())) {
+	resp.setCharacterEncoding(ent.getCharset());
+      }
+      setContentLength(ent.getLength());
+      outStr = resp.getOutputStream();
+      StreamUtil.copy(in, outStr);
+    } finally {
+      IOUtil.safeClose(outStr);
+      IOUtil.safeClose(in);
+    }
+    return true;
+  }
+
+  static boolean isETagMatch(String ifNoneMatch, String etag) {
+    for (String tag : StringUtil.breakAt(ifNoneMatch, ',', 0, true, true)) {
+      if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+	return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -1601,8 +1722,21 @@ public class ServeContent extends LockssServlet {
                                           String mimeType,
                                           String charset,
                                           long length) throws IOException {
+    handleRewriteInputStream(lrf, original, mimeType, charset, length, null);
+  }
+
+  /** Rewrite and send the content.  If cacheKey is non-null the
+   * rewritten content is also stored in the rewrite cache. */
+  protected void handleRewriteInputStream(LinkRewriterFactory lrf,
+                                          InputStream original,
+                                          String mimeType,
+                                          String charset,
+                                          long length,
+                                          String cacheKey)
+      throws IOException {
     InputStream rewritten = original;
     OutputStream outStr = null;
+    RewrittenContentCache.Recorder recorder = null;
     try {
       if (lrf == null || (isMementoRequest() && !rewriteMementoResponses)) {
         // No rewriting, set length and copy
@@ -1637,14 +1771,19 @@ public class ServeContent extends LockssServlet {
         } catch (PluginException e) {
           log.error("Can't create link rewriter, not rewriting", e);
         }
+        if (rewritten == original) {
+          // Not rewritten, don't cache
+          cacheKey = null;
+        }
         // If the rewritten stream knows the charset used to encode it,
         // send that in the response in place of the original file's
         // charset.
+        String rewrittenCharset = null;
         if (rewritten instanceof EncodedThing) {
 	  // Note; getCharset() looks at the output stream so will cause
 	  // the parser and transform to be invoked here, not where the
 	  // stream is read below
-          String rewrittenCharset = ((EncodedThing)rewritten).getCharset();
+          rewrittenCharset = ((EncodedThing)rewritten).getCharset();
           log.debug3("rewrittenCharset: " + rewrittenCharset);
           if (!StringUtil.isNullString(rewrittenCharset)) {
             resp.setCharacterEncoding(rewrittenCharset);
@@ -1659,12 +1798,26 @@ public class ServeContent extends LockssServlet {
           setContentLength(bytes);
           outStr = resp.getOutputStream();
           baos.writeTo(outStr);
+          if (cacheKey != null) {
+            rewriteCache.put(cacheKey, au.getAuId(), cu.getUrl(),
+                             rewrittenCharset, baos.toByteArray(),
+                             (int)bytes);
+          }
+        } else if (cacheKey != null) {
+          // Record the rewritten content as it's sent
+          recorder = rewriteCache.startRecording(cacheKey, au.getAuId(),
+                                                 cu.getUrl());
+          outStr = new TeeOutputStream(resp.getOutputStream(), recorder);
+          StreamUtil.copy(rewritten, outStr);
+          outStr.flush();
+          recorder.commit(rewrittenCharset);
         } else {
           outStr = resp.getOutputStream();
           StreamUtil.copy(rewritten, outStr);
         }
       }
     } finally {
+      IOUtil.safeClose(recorder);
       IOUtil.safeClose(outStr);
       IOUtil.safeClose(original);
       IOUtil.safeClose(rewritten);
@@ -375,6 +375,7 @@ public class ServletUtil {
     if (diffs.contains(ServeContent.PREFIX)) {
       ServeContent.setConfig(config, oldConfig, diffs);
     }
+    ServeContent.setRewriteCacheConfig(config, oldConfig, diffs);
     if (diffs.contains(HashCUS.PREFIX)) {
       HashCUS.setConfig(config, oldConfig, diffs);
     }
@@ -87,6 +87,14 @@ public class ArchivalUnitStatus
   public static final boolean DEFAULT_PEER_ARGEEMENTS_USE_REPUTATION_TRANSFERS =
       true;
 
+  /**
+   * Number of rows per page in the AU summary and AU Ids tables when
+   * they're displayed interactively.  0 means all rows on one page.
+   */
+  public static final String PARAM_AU_SUMMARY_ROWS_PER_PAGE =
+      PREFIX + "auSummaryRowsPerPage";
+  static final int DEFAULT_AU_SUMMARY_ROWS_PER_PAGE = 500;
+
   public static final String SERVICE_STATUS_TABLE_NAME =
       "ArchivalUnitStatusTable";
   public static final String AUIDS_TABLE_NAME = "AuIds";
@@ -104,6 +112,7 @@ public class ArchivalUnitStatus
   private static final Logger logger = Logger.getLogger();
 
   private static int defaultNumRows = DEFAULT_MAX_NODES_TO_DISPLAY;
+  private static int auSummaryRowsPerPage = DEFAULT_AU_SUMMARY_ROWS_PER_PAGE;
   private static boolean isContentIsLink = DEFAULT_CONTENT_IS_LINK;
   private static boolean includeNeedsRecrawl = DEFAULT_INCLUDE_NEEDS_RECRAWL;
   private static boolean peerArgeementsUseReputationTransfers =
@@ -172,6 +181,8 @@ public class ArchivalUnitStatus
       Configuration.Differences changedKeys) {
     defaultNumRows = config.getInt(PARAM_MAX_NODES_TO_DISPLAY,
         DEFAULT_MAX_NODES_TO_DISPLAY);
+    auSummaryRowsPerPage = config.getInt(PARAM_AU_SUMMARY_ROWS_PER_PAGE,
+        DEFAULT_AU_SUMMARY_ROWS_PER_PAGE);
     isContentIsLink = config.getBoolean(PARAM_CONTENT_IS_LINK,
         DEFAULT_CONTENT_IS_LINK);
     includeNeedsRecrawl = config.getBoolean(PARAM_INCLUDE_NEEDS_RECRAWL,
@@ -263,16 +274,22 @@ public class ArchivalUnitStatus
       table.setColumnDescriptors(cols);
 //       table.setColumnDescriptors(cols, DEFAULT_AU_SUMMARY_COLUMNS);
       table.setDefaultSortRules(sortRules);
-      Set<String> inclCols = new HashSet<String>();
-      for (ColumnDescriptor cd : table.getColumnDescriptors()) {
-        inclCols.add(cd.getColumnName());
-      }
       Stats stats = new Stats();
-      table.setRows(getRows(table, inclCols, stats));
-      table.setSummaryInfo(getSummaryInfo(table, inclCols, stats));
+      final List<ArchivalUnit> aus = getAus(table, stats);
+      // Rows are built only for the page being displayed, and only the
+      // sort columns are computed for the others.
+      table.setRowSource(new StatusTable.RowSource<ArchivalUnit>() {
+          public Collection<ArchivalUnit> getRowObjects() {
+            return aus;
+          }
+          public Map makeRow(ArchivalUnit au, Set<String> cols) {
+            return AuSummary.this.makeRow(au, cols);
+          }},
+        auSummaryRowsPerPage);
+      table.setSummaryInfo(getSummaryInfo(table, stats));
     }
 
-    private List getRows(StatusTable table, Set<String> inclCols, Stats stats)
+    private List<ArchivalUnit> getAus(StatusTable table, Stats stats)
         throws StatusService.NoSuchTableException {
       PluginManager pluginMgr = theDaemon.getPluginManager();
 
@@ -298,33 +315,35 @@ public class ArchivalUnitStatus
       }
       boolean includeInternalAus =
           table.getOptions().get(StatusTable.OPTION_DEBUG_USER);
-      List rowL = new ArrayList();
       Collection<ArchivalUnit> aus;
       if (onlyPlug != null) {
         aus = onlyPlug.getAllAus();
       } else {
         aus = pluginMgr.getAllAus();
       }
+      List<ArchivalUnit> res = new ArrayList<ArchivalUnit>(aus.size());
       for (ArchivalUnit au : aus) {
         if (!includeInternalAus && pluginMgr.isInternalAu(au)) {
           continue;
         }
-        try {
-          rowL.add(makeRow(au, inclCols));
-          stats.aus++;
-        } catch (Exception e) {
-          logger.warning("Unexpected exception building row", e);
-        }
+        res.add(au);
       }
+      stats.aus = res.size();
       stats.restarting = pluginMgr.getNumAusRestarting();
-      return rowL;
+      return res;
     }
 
-    private Map makeRow(ArchivalUnit au, Set inclCols) {
-      AuState auState = AuUtil.getAuState(au);
+    /** Columns whose values come from the AuState */
+    private static final Set<String> auStateCols =
+        SetUtil.set("AuLastCrawl", "AuLastCrawlAttempt",
+            "AuLastCrawlResultMsg", "AuLastPoll", "Damaged", "Subscribed");
+
+    private Map makeRow(ArchivalUnit au, Set<String> inclCols) {
       HashMap rowMap = new HashMap();
-      rowMap.put("AuName",
-		 AuStatus.makeAuRef(au.getName(), au.getAuId(), true));
+      if (inclCols.contains("AuName")) {
+        rowMap.put("AuName",
+                   AuStatus.makeAuRef(au.getName(), au.getAuId(), true));
+      }
       if (inclCols.contains("AuSize")) {
         long contentSize = AuUtil.getAuContentSize(au, false);
         if (contentSize != -1) {
@@ -337,6 +356,24 @@ public class ArchivalUnitStatus
           rowMap.put("DiskUsage", new Double(((double)du) / (1024*1024)));
         }
       }
+      if (inclCols.contains("Peers")) {
+        rowMap.put("Peers", PeerRepair.makeAuRef("peers", au.getAuId()));
+      }
+      if (inclCols.contains("AuPolls")) {
+        try {
+          PollManager.V3PollStatusAccessor v3status =
+            theDaemon.getPollManager().getV3Status();
+          int numPolls = v3status.getNumPolls(au.getAuId());
+          rowMap.put("AuPolls", pollsRef(new Integer(numPolls), au));
+        } catch (RuntimeException e) {
+          logger.warning("Can't get poll status for " + au.getName() + ": " +
+                         e.getMessage());
+        }
+      }
+      if (Collections.disjoint(inclCols, auStateCols)) {
+        return rowMap;
+      }
+      AuState auState = AuUtil.getAuState(au);
       long lastCrawl = auState.getLastCrawlTime();
       long lastAttempt = auState.getLastCrawlAttempt();
       int lastResultCode = auState.getLastCrawlResult();
@@ -352,30 +389,36 @@ public class ArchivalUnitStatus
         lastResult = "Successful";
       }
       rowMap.put("AuLastCrawlAttempt", new Long(lastAttempt));
-      Object lastCrawlStatus =
-          lastCrawlStatus(au, lastCrawl, lastResultCode, lastResult);
-      if (lastCrawlStatus != null) {
-        if (lastResultCode == Crawler.STATUS_SUCCESSFUL &&
-            auState.hasNoSubstance()) {
-          lastCrawlStatus =
-              new StatusTable.DisplayedValue(lastCrawlStatus).addFootnote(SingleCrawlStatusAccessor.FOOT_NO_SUBSTANCE_CRAWL_STATUS);
+      if (inclCols.contains("AuLastCrawlResultMsg")) {
+        Object lastCrawlStatus =
+            lastCrawlStatus(au, lastCrawl, lastResultCode, lastResult);
+        if (lastCrawlStatus != null) {
+          if (lastResultCode == Crawler.STATUS_SUCCESSFUL &&
+              auState.hasNoSubstance()) {
+            lastCrawlStatus =
+                new StatusTable.DisplayedValue(lastCrawlStatus).addFootnote(SingleCrawlStatusAccessor.FOOT_NO_SUBSTANCE_CRAWL_STATUS);
+          }
+          rowMap.put("AuLastCrawlResultMsg", lastCrawlStatus);
         }
-        rowMap.put("AuLastCrawlResultMsg", lastCrawlStatus);
       }
 
-      rowMap.put("Peers", PeerRepair.makeAuRef("peers", au.getAuId()));
       rowMap.put("AuLastPoll", new Long(auState.getLastTimePollCompleted()));
 
-      Object stat;
-      try {
-	PollManager.V3PollStatusAccessor v3status =
-	  theDaemon.getPollManager().getV3Status();
-	int numPolls = v3status.getNumPolls(au.getAuId());
-	rowMap.put("AuPolls", pollsRef(new Integer(numPolls), au));
-      } catch (RuntimeException e) {
-	logger.warning("Can't get poll status for " + au.getName() + ": " +
-		       e.getMessage());
+      if (inclCols.contains("Damaged")) {
+        rowMap.put("Damaged", getStatus(au, auState));
       }
+
+      if (inclCols.contains("Subscribed")
+          && theDaemon.isDetectClockssSubscription()) {
+        rowMap.put("Subscribed",
+            auState.getClockssSubscriptionStatusString());
+      }
+
+      return rowMap;
+    }
+
+    private Object getStatus(ArchivalUnit au, AuState auState) {
+      Object stat;
       // Percent damaged.  It's scary to see '0% Agreement' if there's no
       // history, so we just show a friendlier message.
       //
@@ -414,15 +457,7 @@ public class ArchivalUnitStatus
         String flagStr = StringUtil.separatedString(flags, " (", ",", ")");
         stat = ListUtil.list(stat, flagStr);
       }
-
-      rowMap.put("Damaged", stat);
-
-      if (theDaemon.isDetectClockssSubscription()) {
-        rowMap.put("Subscribed",
-            AuUtil.getAuState(au).getClockssSubscriptionStatusString());
-      }
-
-      return rowMap;
+      return stat;
     }
 
     String lastCrawlStatus(ArchivalUnit au, long lastCrawl,
@@ -447,8 +482,7 @@ public class ArchivalUnitStatus
           au.getAuId());
     }
 
-    private List getSummaryInfo(StatusTable table, Set<String> inclCols,
-        Stats stats) {
+    private List getSummaryInfo(StatusTable table, Stats stats) {
       List res = new ArrayList();
       String numaus = StringUtil.numberOfUnits(stats.aus, "Archival Unit",
           "Archival Units");
@@ -504,51 +538,53 @@ public class ArchivalUnitStatus
       table.setColumnDescriptors(columnDescriptors, defaultCols);
       table.setDefaultSortRules(sortRules);
       Stats stats = new Stats();
-      table.setRows(getRows(table, stats));
+      final List<ArchivalUnit> aus = getAus(table, stats);
+      table.setRowSource(new StatusTable.RowSource<ArchivalUnit>() {
+          public Collection<ArchivalUnit> getRowObjects() {
+            return aus;
+          }
+          public Map makeRow(ArchivalUnit au, Set<String> cols) {
+            return AuIds.this.makeRow(au, cols);
+          }},
+        auSummaryRowsPerPage);
       table.setSummaryInfo(getSummaryInfo(stats));
     }
 
-    private List getRows(StatusTable table,
-        Stats stats) {
+    private List<ArchivalUnit> getAus(StatusTable table, Stats stats) {
       PluginManager pluginMgr = theDaemon.getPluginManager();
 
       boolean includeInternalAus =
           table.getOptions().get(StatusTable.OPTION_DEBUG_USER);
-      List rowL = new ArrayList();
-      for (Iterator iter = pluginMgr.getAllAus().iterator();
-          iter.hasNext(); ) {
-        ArchivalUnit au = (ArchivalUnit)iter.next();
+      List<ArchivalUnit> res = new ArrayList<ArchivalUnit>();
+      for (ArchivalUnit au : pluginMgr.getAllAus()) {
         if (!includeInternalAus && pluginMgr.isInternalAu(au)) {
           continue;
         }
-        try {
-          rowL.add(makeRow(table, au));
-          stats.aus++;
-        } catch (Exception e) {
-          logger.warning("Unexpected execption building row", e);
-        }
+        res.add(au);
       }
+      stats.aus = res.size();
       stats.restarting = pluginMgr.getNumAusRestarting();
-      return rowL;
+      return res;
     }
 
-    private Map makeRow(StatusTable table,
-        ArchivalUnit au) {
+    private Map makeRow(ArchivalUnit au, Set<String> inclCols) {
       HashMap rowMap = new HashMap();
       rowMap.put("AuId", au.getAuId());
-      rowMap.put("AuName",
-		 AuStatus.makeAuRef(au.getName(), au.getAuId(), true));
-      if (table.isIncludeColumn("CrawlPool")) {
+      if (inclCols.contains("AuName")) {
+        rowMap.put("AuName",
+                   AuStatus.makeAuRef(au.getName(), au.getAuId(), true));
+      }
+      if (inclCols.contains("CrawlPool")) {
         String rateKey = au.getFetchRateLimiterKey();
         rowMap.put("CrawlPool", rateKey != null ? rateKey : au.getAuId());
       }
-      if (table.isIncludeColumn("Publisher")) {
+      if (inclCols.contains("Publisher")) {
         String pub = AuUtil.getTitleAttribute(au, "publisher");
         if (!StringUtil.isNullString(pub)) {
           rowMap.put("Publisher", pub);
         }
       }
-      if (table.isIncludeColumn("Year")) {
+      if (inclCols.contains("Year")) {
         String year = AuUtil.getTitleAttribute(au, "year");
         if (!StringUtil.isNullString(year)) {
           rowMap.put("Year", year);
@@ -929,6 +965,7 @@ public class ArchivalUnitStatus
 
       long contentSize = AuUtil.getAuContentSize(au, false);
       long du = AuUtil.getAuDiskUsage(au, false);
+      long urlCount = AuUtil.getAuUrlCount(au, false);
 
       List res = new ArrayList();
       res.add(new StatusTable.SummaryInfo("Volume",
@@ -955,6 +992,11 @@ public class ArchivalUnitStatus
 //             ColumnDescriptor.TYPE_STRING,
 //             "Awaiting recalc"));
       }
+      if (urlCount != -1) {
+        res.add(new StatusTable.SummaryInfo("URLs",
+            ColumnDescriptor.TYPE_INT,
+            new Long(urlCount)));
+      }
       if (du != -1) {
         res.add(new StatusTable.SummaryInfo("Disk Usage (MB)",
             ColumnDescriptor.TYPE_FLOAT,
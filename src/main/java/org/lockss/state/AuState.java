@@ -74,6 +74,9 @@ public class AuState implements LockssSerializable {
 
   private transient int batchSaveDepth = 0;
 
+  // true if the AU stats have been adjusted since they were last saved
+  private transient boolean auStatsChanged = false;
+
   // deprecated, kept for compatibility with old state files
   protected transient long lastTreeWalk = -1;
 
@@ -542,6 +545,98 @@ public class AuState implements LockssSerializable {
     }
   }
 
+  static final String[] AU_STATS_FIELDS =
+    {"auUrlCount", "auContentSize", "auDiskUsage", "auStatsUnsaved"};
+
+  /** Return true if the AU's aggregate content statistics are known */
+  public boolean hasAuStats() {
+    return bean.auUrlCount >= 0;
+  }
+
+  /** Return the number of URLs with content, or -1 if unknown */
+  public long getAuUrlCount() {
+    return bean.auUrlCount;
+  }
+
+  /** Return the total size of the current versions, or -1 if unknown */
+  public long getAuContentSize() {
+    return bean.auContentSize;
+  }
+
+  /** Return the total size of all versions, or -1 if unknown */
+  public long getAuDiskUsage() {
+    return bean.auDiskUsage;
+  }
+
+  /** Return the time the statistics were last recomputed, or -1 */
+  public long getAuStatsTime() {
+    return bean.auStatsTime;
+  }
+
+  /** Return true if the statistics were adjusted by a previous run (or
+   * another AuState instance) that didn't save the adjustments, so they
+   * may be wrong and should be recomputed */
+  public synchronized boolean isAuStatsIncomplete() {
+    return bean.auStatsUnsaved && !auStatsChanged;
+  }
+
+  /** Set the aggregate content statistics, as computed from the AU's
+   * content, and save them. */
+  public synchronized void setAuStats(long urlCount, long contentSize,
+				      long diskUsage) {
+    bean.auUrlCount = urlCount;
+    bean.auContentSize = contentSize;
+    bean.auDiskUsage = diskUsage;
+    bean.auStatsTime = TimeBase.nowMs();
+    bean.auStatsUnsaved = false;
+    auStatsChanged = false;
+    needSave("auUrlCount", "auContentSize", "auDiskUsage", "auStatsTime",
+	     "auStatsUnsaved");
+  }
+
+  /** Adjust the aggregate content statistics to account for a newly
+   * stored version.  Does nothing if the statistics aren't known, or are
+   * incomplete (see {@link #isAuStatsIncomplete()}).  The change is saved
+   * when the crawl or poll finishes; until then the saved state records
+   * that there are unsaved changes, so if the daemon exits first the
+   * statistics are recomputed.
+   * @param isNewUrl true if the URL had no previous version
+   * @param size the size of the new version
+   * @param prevSize the size of the version it replaces as current
+   */
+  public synchronized void contentStored(boolean isNewUrl, long size,
+					 long prevSize) {
+    if (!hasAuStats() || isAuStatsIncomplete()) {
+      return;
+    }
+    if (isNewUrl) {
+      bean.auUrlCount++;
+    }
+    bean.auContentSize += size - prevSize;
+    bean.auDiskUsage += size;
+    if (!auStatsChanged) {
+      // First change since the stats were saved
+      auStatsChanged = true;
+      bean.auStatsUnsaved = true;
+      needSave("auStatsUnsaved");
+    }
+  }
+
+  /** Append the AU stats fields to the list of fields to be saved if
+   * they've changed since they were last saved */
+  private String[] withChangedAuStats(String... fields) {
+    if (!auStatsChanged) {
+      return fields;
+    }
+    auStatsChanged = false;
+    bean.auStatsUnsaved = false;
+    String[] res =
+      Arrays.copyOf(fields, fields.length + AU_STATS_FIELDS.length);
+    System.arraycopy(AU_STATS_FIELDS, 0, res, fields.length,
+		     AU_STATS_FIELDS.length);
+    return res;
+  }
+
   /**
    * Returns the running average poll duration, or 0 if unknown
    */
@@ -641,8 +736,8 @@ public class AuState implements LockssSerializable {
       break;
     }
     previousCrawlState = null;
-    needSave("lastCrawlTime", "lastCrawlAttempt",
-	     "lastCrawlResult", "lastCrawlResultMsg");
+    needSave(withChangedAuStats("lastCrawlTime", "lastCrawlAttempt",
+				"lastCrawlResult", "lastCrawlResultMsg"));
   }
 
   /**
@@ -717,8 +812,9 @@ public class AuState implements LockssSerializable {
       }
       break;
     }
-    needSave("lastTopLevelPollTime", "lastPollResult", "pollDuration",
-	     "lastPoPPoll", "lastPoPPollResult", "lastLocalHashScan");
+    needSave(withChangedAuStats("lastTopLevelPollTime", "lastPollResult",
+				"pollDuration", "lastPoPPoll",
+				"lastPoPPollResult", "lastLocalHashScan"));
   }
 
   /**
@@ -86,6 +86,12 @@ public class AuStateBean {
 					  // not predicted by permission URLs
   // The indication of whether metadata extraction is enabled for this AU.
   protected boolean isMetadataExtractionEnabled = true;
+  // Aggregate content statistics, maintained by AuStatsCache
+  protected long auUrlCount = -1;	// # URLs with content
+  protected long auContentSize = -1;	// total size of current versions
+  protected long auDiskUsage = -1;	// total size of all versions
+  protected long auStatsTime = -1;	// last time stats were recomputed
+  protected boolean auStatsUnsaved = false; // stats changed since saved
 
   protected String auId = null;
 
@@ -477,6 +483,66 @@ public class AuStateBean {
   {
     this.isMetadataExtractionEnabled = isMetadataExtractionEnabled;
   }
+  /**
+   * @return the auUrlCount
+   */
+  public long getAuUrlCount() {
+    return auUrlCount;
+  }
+  /**
+   * @param auUrlCount the auUrlCount to set
+   */
+  public void setAuUrlCount(long auUrlCount) {
+    this.auUrlCount = auUrlCount;
+  }
+  /**
+   * @return the auContentSize
+   */
+  public long getAuContentSize() {
+    return auContentSize;
+  }
+  /**
+   * @param auContentSize the auContentSize to set
+   */
+  public void setAuContentSize(long auContentSize) {
+    this.auContentSize = auContentSize;
+  }
+  /**
+   * @return the auDiskUsage
+   */
+  public long getAuDiskUsage() {
+    return auDiskUsage;
+  }
+  /**
+   * @param auDiskUsage the auDiskUsage to set
+   */
+  public void setAuDiskUsage(long auDiskUsage) {
+    this.auDiskUsage = auDiskUsage;
+  }
+  /**
+   * @return the auStatsTime
+   */
+  public long getAuStatsTime() {
+    return auStatsTime;
+  }
+  /**
+   * @param auStatsTime the auStatsTime to set
+   */
+  public void setAuStatsTime(long auStatsTime) {
+    this.auStatsTime = auStatsTime;
+  }
+  /**
+   * @return the auStatsUnsaved
+   */
+  public boolean isAuStatsUnsaved() {
+    return auStatsUnsaved;
+  }
+  /**
+   * @param auStatsUnsaved the auStatsUnsaved to set
+   */
+  public void setAuStatsUnsaved(boolean auStatsUnsaved) {
+    this.auStatsUnsaved = auStatsUnsaved;
+  }
   
   /**
    * @return the AUID
@@ -549,8 +615,13 @@ public class AuStateBean {
   public String toString() {
     return new ToStringBuilder(this)
         .append("accessType", accessType)
+        .append("auContentSize", auContentSize)
         .append("auCreationTime", auCreationTime)
+        .append("auDiskUsage", auDiskUsage)
         .append("auId", auId)
+        .append("auStatsTime", auStatsTime)
+        .append("auStatsUnsaved", auStatsUnsaved)
+        .append("auUrlCount", auUrlCount)
         .append("averageHashDuration", averageHashDuration)
         .append("cdnStems", cdnStems)
         .append("clockssSubscriptionStatus", clockssSubscriptionStatus)
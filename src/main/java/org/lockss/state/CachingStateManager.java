@@ -30,11 +30,18 @@ package org.lockss.state;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.activemq.broker.*;
 import org.apache.activemq.store.*;
 
 import org.lockss.app.*;
 import org.lockss.daemon.*;
+import org.lockss.daemon.status.*;
 import org.lockss.log.*;
 import org.lockss.util.*;
 import org.lockss.config.*;
@@ -50,6 +57,13 @@ import org.lockss.state.AuSuspectUrlVersions.SuspectUrlVersion;
  * accessing AuState in the course of their work with an AU, and the state
  * service, where not all AUs will necessarily exist (so AuState cannot
  * exist) but still want to cache bean data to avoid extra DB accesses.
+ *
+ * Reads of cached objects take no StateManager lock.  Operations that
+ * create, replace or store an AU's objects are serialized by a lock
+ * specific to that AU, so a slow store for one AU doesn't block access to
+ * the state of other AUs.  Store and notify hooks run after the AU's lock
+ * has been released, on copies of the state objects, in the order the
+ * changes were made; see {@link DeferredStore}.
  */
 public abstract class CachingStateManager extends BaseStateManager {
 
@@ -76,8 +90,54 @@ public abstract class CachingStateManager extends BaseStateManager {
     = PREFIX + "noPeerSetMapsCacheSize";
   public static final int DEFAULT_NO_PEER_SET_MAPS_CACHE_SIZE = 50;
 
+  /** Name of the status table showing per-AU lock contention */
+  public static final String LOCK_STATUS_TABLE_NAME = "StateManagerLocks";
+
   protected AuEventHandler auEventHandler;
 
+  /** Per-AU locks, created on demand */
+  private final ConcurrentMap<String,ReentrantLock> auLocks =
+    new ConcurrentHashMap<>();
+
+  /** Per-AU sequencers that keep writes to backing store in order,
+   * created on demand.  See {@link DeferredStore}. */
+  private final ConcurrentMap<String,StoreSequencer> auStoreSeqs =
+    new ConcurrentHashMap<>();
+
+  // Whether the subclass overrides any of the store or notify hooks for
+  // each type of state object.  If not there's nothing to defer, and no
+  // need to copy the object.
+  private final boolean hasAuStateHooks =
+    overridesHook("doStoreAuStateBean",
+		  String.class, AuStateBean.class, Set.class)
+    || overridesHook("doNotifyAuStateChanged",
+		     String.class, String.class, String.class);
+  private final boolean hasAuAgreementsHooks =
+    overridesHook("doStoreAuAgreementsNew", String.class, AuAgreements.class)
+    || overridesHook("doStoreAuAgreementsUpdate",
+		     String.class, AuAgreements.class, Set.class)
+    || overridesHook("doNotifyAuAgreementsChanged",
+		     String.class, String.class, String.class);
+  private final boolean hasAuSuspectUrlVersionsHooks =
+    overridesHook("doStoreAuSuspectUrlVersionsNew",
+		  String.class, AuSuspectUrlVersions.class)
+    || overridesHook("doStoreAuSuspectUrlVersionsUpdate",
+		     String.class, AuSuspectUrlVersions.class, Set.class)
+    || overridesHook("doNotifyAuSuspectUrlVersionsChanged",
+		     String.class, String.class, String.class);
+  private final boolean hasNoAuPeerSetHooks =
+    overridesHook("doStoreNoAuPeerSetNew", String.class, DatedPeerIdSet.class)
+    || overridesHook("doStoreNoAuPeerSetUpdate",
+		     String.class, DatedPeerIdSet.class, Set.class)
+    || overridesHook("doNotifyNoAuPeerSetChanged",
+		     String.class, String.class, String.class);
+
+  // Lock contention metrics
+  private final AtomicLong lockAcquisitions = new AtomicLong();
+  private final AtomicLong lockContentions = new AtomicLong();
+  private final AtomicLong lockWaitNanos = new AtomicLong();
+  private final AtomicLong maxLockWaitNanos = new AtomicLong();
+
   @Override
   public void initService(LockssDaemon daemon) throws LockssAppException {
     super.initService(daemon);
@@ -101,9 +161,13 @@ public abstract class CachingStateManager extends BaseStateManager {
     if (pluginMgr != null) {
       pluginMgr.registerAuEventHandler(auEventHandler);
     }
+    getDaemon().getStatusService()
+      .registerStatusAccessor(LOCK_STATUS_TABLE_NAME, new LockStatus());
   }
 
   public void stopService() {
+    getDaemon().getStatusService()
+      .unregisterStatusAccessor(LOCK_STATUS_TABLE_NAME);
     stopJms();
     if (auEventHandler != null) {
       if (pluginMgr != null) {
@@ -121,6 +185,178 @@ public abstract class CachingStateManager extends BaseStateManager {
     handleAuDeletedNoAuPeerSet(au);
   }
 
+  // /////////////////////////////////////////////////////////////////
+  // Per-AU locks
+  // /////////////////////////////////////////////////////////////////
+
+  /** Acquire the lock for the AU's state objects, recording whether it
+   * had to wait.  Caller must release it with {@link Lock#unlock()} in a
+   * finally block.
+   * @param key the auid
+   * @return the acquired lock
+   */
+  protected Lock lockAu(String key) {
+    ReentrantLock lock = getLock(auLocks, key);
+    lockAcquisitions.incrementAndGet();
+    if (!lock.tryLock()) {
+      lockContentions.incrementAndGet();
+      long start = System.nanoTime();
+      lock.lock();
+      long wait = System.nanoTime() - start;
+      lockWaitNanos.addAndGet(wait);
+      long max;
+      while (wait > (max = maxLockWaitNanos.get())
+	     && !maxLockWaitNanos.compareAndSet(max, wait)) {
+      }
+    }
+    return lock;
+  }
+
+  private ReentrantLock getLock(ConcurrentMap<String,ReentrantLock> locks,
+				String key) {
+    ReentrantLock lock = locks.get(key);
+    if (lock == null) {
+      ReentrantLock newLock = new ReentrantLock();
+      lock = locks.putIfAbsent(key, newLock);
+      if (lock == null) {
+	lock = newLock;
+      }
+    }
+    return lock;
+  }
+
+  /** Return true if some class below BaseStateManager declares the named
+   * hook method */
+  private boolean overridesHook(String name, Class<?>... paramTypes) {
+    for (Class<?> cls = getClass();
+	 cls != null && cls != BaseStateManager.class;
+	 cls = cls.getSuperclass()) {
+      try {
+	cls.getDeclaredMethod(name, paramTypes);
+	return true;
+      } catch (NoSuchMethodException e) {
+	// try superclass
+      }
+    }
+    return false;
+  }
+
+  /** Hands out sequence numbers to an AU's DeferredStores, in the order
+   * they're created, and lets them run only in that order */
+  static class StoreSequencer {
+    private long nextSeq = 0;
+    private long nextToRun = 0;
+
+    synchronized long next() {
+      return nextSeq++;
+    }
+
+    /** Wait until it's seq's turn */
+    synchronized void awaitTurn(long seq) {
+      boolean interrupted = false;
+      while (seq != nextToRun) {
+	try {
+	  wait();
+	} catch (InterruptedException e) {
+	  // A store that's been sequenced must run, else later ones for
+	  // this AU would wait forever
+	  interrupted = true;
+	}
+      }
+      if (interrupted) {
+	Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized void done() {
+      nextToRun++;
+      notifyAll();
+    }
+  }
+
+  /** A write to backing store, and change notification, that's run after
+   * the AU's lock has been released, so a slow store doesn't block
+   * access to the AU's state.  It must be created with the AU's lock
+   * held, once nothing else can fail, and must then be run after
+   * releasing that lock.  It's given a sequence number when it's
+   * created, and waits for the AU's earlier stores to finish before
+   * running, so the AU's writes are made in the order the changes were
+   * made.  The store hooks are passed copies of the state objects, made
+   * with the AU's lock held, so they neither see nor interfere with later
+   * changes.  A new object is copied before it's put in the cache, as
+   * copying takes the object's monitor, which other threads hold while
+   * waiting for the AU's lock. */
+  protected abstract class DeferredStore {
+    private final StoreSequencer seqr;
+    private final long seq;
+
+    protected DeferredStore(String key) {
+      seqr = getStoreSequencer(key);
+      seq = seqr.next();
+    }
+
+    /** Call the store and notify hooks */
+    protected abstract void store();
+
+    public void run() {
+      seqr.awaitTurn(seq);
+      try {
+	store();
+      } finally {
+	seqr.done();
+      }
+    }
+  }
+
+  private StoreSequencer getStoreSequencer(String key) {
+    StoreSequencer seqr = auStoreSeqs.get(key);
+    if (seqr == null) {
+      StoreSequencer newSeqr = new StoreSequencer();
+      seqr = auStoreSeqs.putIfAbsent(key, newSeqr);
+      if (seqr == null) {
+	seqr = newSeqr;
+      }
+    }
+    return seqr;
+  }
+
+  /** Run the DeferredStore, if any.  Must be called after the AU's lock
+   * has been released. */
+  protected void runStore(DeferredStore store) {
+    if (store != null) {
+      store.run();
+    }
+  }
+
+  /** Return the number of times a per-AU lock was acquired */
+  public long getLockAcquisitions() {
+    return lockAcquisitions.get();
+  }
+
+  /** Return the number of times a per-AU lock was held by another thread
+   * when requested */
+  public long getLockContentions() {
+    return lockContentions.get();
+  }
+
+  /** Return the total time spent waiting for per-AU locks, in ms */
+  public long getLockWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(lockWaitNanos.get());
+  }
+
+  /** Return the longest time spent waiting for a per-AU lock, in ms */
+  public long getMaxLockWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLockWaitNanos.get());
+  }
+
+  /** Reset the lock contention metrics */
+  public void resetLockStats() {
+    lockAcquisitions.set(0);
+    lockContentions.set(0);
+    lockWaitNanos.set(0);
+    maxLockWaitNanos.set(0);
+  }
+
 
   // /////////////////////////////////////////////////////////////////
   // AuState
@@ -136,29 +372,76 @@ public abstract class CachingStateManager extends BaseStateManager {
   /** Return the current singleton AuState for the AU, creating one if
    * necessary. */
   @Override
-  public synchronized AuState getAuState(ArchivalUnit au) {
+  public AuState getAuState(ArchivalUnit au) {
     String key = auKey(au);
     AuState aus = auStates.get(key);
-    if (aus == null) {
-      AuStateBean ausb = auStateBeans.get(key);
-      if (ausb != null) {
-	// Create an AuState, move the item from bean to main cache.  No
-	// store needed here has been exists and has been stored
-	aus = new AuState(au, this, ausb);
-	putAuState(key, aus);
-      }
+    if (aus != null) {
+      log.debug2("getAuState({}) [{}] = {}", au, key, aus);
+      return aus;
     }
-    log.debug2("getAuState({}) [{}] = {}", au, key, aus);
-    if (aus == null) {
-      aus = handleAuStateCacheMiss(au);
+    DeferredStore store = null;
+    Lock lock = lockAu(key);
+    try {
+      // Check again, another thread may have created it
+      aus = auStates.get(key);
+      if (aus == null) {
+	AuStateBean ausb = auStateBeans.get(key);
+	if (ausb != null) {
+	  // Create an AuState, move the item from bean to main cache.  No
+	  // store needed here has been exists and has been stored
+	  aus = new AuState(au, this, ausb);
+	  putAuState(key, aus);
+	}
+      }
+      log.debug2("getAuState({}) [{}] = {}", au, key, aus);
+      if (aus == null) {
+	aus = handleAuStateCacheMiss(au);
+	if (aus == null) {
+	  // Create a new default object and store in the DB
+	  aus = newDefaultAuState(au);
+	  store = deferStoreAuStateBean(key, aus.getBean(), null, null, null);
+	  putAuState(key, aus);
+	  log.debug2("handleAuStateCacheMiss: new bean for {}", key);
+	}
+      }
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
     return aus;
   }
 
   /** Return the current singleton AuStateBean for the auid, creating one
    * if necessary. */
   @Override
-  public synchronized AuStateBean getAuStateBean(String key) {
+  public AuStateBean getAuStateBean(String key) {
+    AuStateBean ausb = getCachedAuStateBean(key);
+    if (ausb != null) {
+      return ausb;
+    }
+    DeferredStore store = null;
+    Lock lock = lockAu(key);
+    try {
+      // Check again, another thread may have created it
+      ausb = getCachedAuStateBean(key);
+      if (ausb == null) {
+	ausb = handleAuStateBeanCacheMiss(key);
+	if (ausb == null) {
+	  ausb = newDefaultAuStateBean(key);
+	  store = deferStoreAuStateBean(key, ausb, null, null, null);
+	  auStateBeans.put(key, ausb);
+	  log.debug2("handleAuStateBeanCacheMiss: new bean for {}", key);
+	}
+      }
+    } finally {
+      lock.unlock();
+    }
+    runStore(store);
+    return ausb;
+  }
+
+  /** Return the cached AuStateBean for the auid, or null. */
+  private AuStateBean getCachedAuStateBean(String key) {
     // first look for a cached AuState, return its bean
     AuState aus = auStates.get(key);
     if (aus != null) {
@@ -168,9 +451,6 @@ public abstract class CachingStateManager extends BaseStateManager {
 
     AuStateBean ausb = auStateBeans.get(key);
     log.debug2("getAuStateBean({}) = {}", key, ausb);
-    if (ausb == null) {
-      ausb = handleAuStateBeanCacheMiss(key);
-    }
     return ausb;
   }
 
@@ -178,18 +458,20 @@ public abstract class CachingStateManager extends BaseStateManager {
    * @param aus The source of the new values.
    */
   @Override
-  public synchronized void updateAuState(AuState aus, Set<String> fields) {
+  public void updateAuState(AuState aus, Set<String> fields) {
     String key = auKey(aus.getArchivalUnit());
     log.debug2("updateAuState: {}: {}", key, fields);
-    AuState cur = auStates.get(key);
+    DeferredStore store;
+    Lock lock = lockAu(key);
     try {
+      AuState cur = auStates.get(key);
       if (cur != null) {
 	if (cur != aus) {
 	  throw new IllegalStateException("Attempt to store from wrong AuState instance");
 	}
 	String jsonChange = aus.toJson(fields);
-	doStoreAuStateBean(key, aus.getBean(), fields);
-	doNotifyAuStateChanged(key, jsonChange, null);
+	store = deferStoreAuStateBean(key, aus.getBean(), fields,
+				      jsonChange, null);
       } else if (isStoreOfMissingAuStateAllowed(fields)) {
 	AuStateBean curbean = auStateBeans.get(key);
 	if (curbean != null) { // FIXME
@@ -197,51 +479,55 @@ public abstract class CachingStateManager extends BaseStateManager {
 	}
 
 	// XXX log?
+	store = deferStoreAuStateBean(key, aus.getBean(), null, null, null);
 	putAuState(key, aus);
-	doStoreAuStateBean(key, aus.getBean(), null);
       } else {
 	throw new IllegalStateException("Attempt to apply partial update to AuState not in cache");
       }
     } catch (IOException e) {
       log.error("Couldn't serialize AuState: {}", aus, e);
       throw new StateLoadStoreException("Couldn't serialize AuState: " + aus);
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
   }
 
   /** Update the stored AuState with the values of the listed fields.
    * @param aus The source of the new values.
    */
   @Override
-  public synchronized void updateAuStateBean(String key,
-					     AuStateBean ausb,
-					     Set<String> fields) {
+  public void updateAuStateBean(String key,
+				AuStateBean ausb,
+				Set<String> fields) {
     updateAuStateBean(key, ausb, fields, null);
   }
 
-  public synchronized void updateAuStateBean(String key,
-					     AuStateBean ausb,
-					     Set<String> fields,
-					     String cookie) {
+  public void updateAuStateBean(String key,
+				AuStateBean ausb,
+				Set<String> fields,
+				String cookie) {
     log.debug2("Updating AuState: {}: {}", key, fields);
-    AuState curaus = auStates.get(key);
-    AuStateBean curausb;
-    if (curaus != null) {
-      curausb = curaus.getBean();
-    } else {
-      curausb = auStateBeans.get(key);
-    }
+    DeferredStore store;
+    Lock lock = lockAu(key);
     try {
+      AuState curaus = auStates.get(key);
+      AuStateBean curausb;
+      if (curaus != null) {
+	curausb = curaus.getBean();
+      } else {
+	curausb = auStateBeans.get(key);
+      }
       if (curausb != null) {
 	if (curausb != ausb) {
 	  throw new IllegalStateException("Attempt to store from wrong AuStateBean instance");
 	}
 	String jsonChange = ausb.toJson(fields);
-	doStoreAuStateBean(key, ausb, fields);
-	doNotifyAuStateChanged(key, jsonChange, cookie);
+	store = deferStoreAuStateBean(key, ausb, fields, jsonChange, cookie);
       } else if (isStoreOfMissingAuStateAllowed(fields)) {
 	// XXX log?
+	store = deferStoreAuStateBean(key, ausb, null, null, null);
 	auStateBeans.put(key, ausb);
-	doStoreAuStateBean(key, ausb, null);
       } else {
 	throw new IllegalStateException("Attempt to apply partial update to AuStateBean not in cache: " + key);
       }
@@ -249,7 +535,10 @@ public abstract class CachingStateManager extends BaseStateManager {
       log.error("Couldn't serialize AuStateBean: {}", ausb, e);
       throw new StateLoadStoreException("Couldn't serialize AuStateBean: " +
 					ausb);
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
   }
 
   /** Update AuState from a json string
@@ -282,24 +571,38 @@ public abstract class CachingStateManager extends BaseStateManager {
   /** Store an AuState not obtained from StateManager.  Useful in tests.
    * Can only be called once per AU. */
   @Override
-  public synchronized void storeAuState(AuState aus) {
+  public void storeAuState(AuState aus) {
     String key = auKey(aus.getArchivalUnit());
-    if (auStates.containsKey(key)) {
-      throw new IllegalStateException("Storing 2nd AuState: " + key);
+    DeferredStore store;
+    Lock lock = lockAu(key);
+    try {
+      if (auStates.containsKey(key)) {
+	throw new IllegalStateException("Storing 2nd AuState: " + key);
+      }
+      store = deferStoreAuStateBean(key, aus.getBean(), null, null, null);
+      putAuState(key, aus);
+    } finally {
+      lock.unlock();
     }
-    putAuState(key, aus);
-    doStoreAuStateBean(key, aus.getBean(), null);
+    runStore(store);
   }
 
   /** Store an AuStateBean not obtained from StateManager.  Useful in
    * tests.  Can only be called once per AU. */
   @Override
-  public synchronized void storeAuStateBean(String key, AuStateBean ausb) {
-    if (hasAuState(key)) {
-      throw new IllegalStateException("Storing 2nd AuState: " + key);
+  public void storeAuStateBean(String key, AuStateBean ausb) {
+    DeferredStore store;
+    Lock lock = lockAu(key);
+    try {
+      if (hasAuState(key)) {
+	throw new IllegalStateException("Storing 2nd AuState: " + key);
+      }
+      store = deferStoreAuStateBean(key, ausb, null, null, null);
+      auStateBeans.put(key, ausb);
+    } finally {
+      lock.unlock();
     }
-    auStateBeans.put(key, ausb);
-    doStoreAuStateBean(key, ausb, null);
+    runStore(store);
   }
 
   /** Return true if an AuState(Bean) exists for the given auid
@@ -313,13 +616,21 @@ public abstract class CachingStateManager extends BaseStateManager {
   /** Default behavior when AU is deleted/deactivated is to remove AuState
    * from cache.  Persistent implementations should not remove it from
    * storage. */
-  protected synchronized void handleAuDeletedAuState(ArchivalUnit au) {
-    auStates.remove(auKey(au));
-    auStateBeans.remove(auKey(au));
+  protected void handleAuDeletedAuState(ArchivalUnit au) {
+    String key = auKey(au);
+    Lock lock = lockAu(key);
+    try {
+      auStates.remove(key);
+      auStateBeans.remove(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
-  /** Handle a cache miss.  Call hooks to load an object from backing
-   * store, if any, or to create and store new default object. */
+  /** Handle a cache miss.  Call hook to load an object from backing
+   * store, if any.  Called with the AU's lock held.
+   * @return the loaded object, or null if none, in which case the caller
+   * creates and stores a new default object after releasing the lock. */
   protected AuState handleAuStateCacheMiss(ArchivalUnit au) {
     String key = auKey(au);
     AuStateBean ausb = doLoadAuStateBean(key);
@@ -331,30 +642,50 @@ public abstract class CachingStateManager extends BaseStateManager {
       log.debug2("handleAuStateCacheMiss: loaded bean for {}", key);
       return aus;
     }
-    // Else create a new default object and store in the DB
-    AuState aus = newDefaultAuState(au);
-    putAuState(key, aus);
-    log.debug2("handleAuStateCacheMiss: new bean for {}", key);
-    doStoreAuStateBean(key, aus.getBean(), null);
-    return aus;
+    return null;
   }
 
-  /** Handle a cache miss.  Call hooks to load an object from backing
-   * store, if any, or to create and store new default object. */
+  /** Handle a cache miss.  Call hook to load an object from backing
+   * store, if any.  Called with the AU's lock held.
+   * @return the loaded object, or null if none, in which case the caller
+   * creates and stores a new default object after releasing the lock. */
   protected AuStateBean handleAuStateBeanCacheMiss(String key) {
     AuStateBean ausb = doLoadAuStateBean(key);
     if (ausb != null) {
       log.debug2("handleAuStateBeanCacheMiss: loaded bean for {}", key);
       auStateBeans.put(key, ausb);
-    } else {
-      ausb = newDefaultAuStateBean(key);
-      auStateBeans.put(key, ausb);
-      log.debug2("handleAuStateBeanCacheMiss: new bean for {}", key);
-      doStoreAuStateBean(key, ausb, null);
     }
     return ausb;
   }
 
+  /** Return a DeferredStore that stores a copy of the AuStateBean and, if
+   * jsonChange is non-null, sends a change notification.  Called with the
+   * AU's lock held.  Returns null if there are no hooks to call. */
+  private DeferredStore deferStoreAuStateBean(final String key,
+					      AuStateBean ausb,
+					      final Set<String> fields,
+					      final String jsonChange,
+					      final String cookie) {
+    if (!hasAuStateHooks) {
+      return null;
+    }
+    final AuStateBean copy;
+    try {
+      copy = AuStateBean.fromJson(key, ausb.toJson(), daemon);
+    } catch (IOException e) {
+      log.error("Couldn't copy AuStateBean: {}", ausb, e);
+      throw new StateLoadStoreException("Couldn't copy AuStateBean: " + ausb);
+    }
+    return new DeferredStore(key) {
+      protected void store() {
+	doStoreAuStateBean(key, copy, fields);
+	if (jsonChange != null) {
+	  doNotifyAuStateChanged(key, jsonChange, cookie);
+	}
+      }
+    };
+  }
+
   /** Put an AuState in the auStates map, and remove any AuStateBean entry
    * from auStateBeans. */
   protected void putAuState(String key, AuState aus) {
@@ -362,16 +693,18 @@ public abstract class CachingStateManager extends BaseStateManager {
     auStateBeans.remove(key);
   }
 
-  /** @return a Map suitable for an AuState cache.  By default a HashMap,
-   * for a complete cache. */
+  /** @return a Map suitable for an AuState cache.  Must be safe for
+   * concurrent access.  By default a ConcurrentHashMap, for a complete
+   * cache. */
   protected Map<String,AuState> newAuStateMap() {
-    return new HashMap<>();
+    return new ConcurrentHashMap<>();
   }
 
-  /** @return a Map suitable for an AuStateBean cache.  By default a
-   * HashMap, for a complete cache. */
+  /** @return a Map suitable for an AuStateBean cache.  Must be safe for
+   * concurrent access.  By default a ConcurrentHashMap, for a complete
+   * cache. */
   protected Map<String,AuStateBean> newAuStateBeanMap() {
-    return new HashMap<>();
+    return new ConcurrentHashMap<>();
   }
 
   /** Return true if an update call for an unknown AuState should be
@@ -391,40 +724,57 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Return the current singleton AuAgreements for the auid, creating one
    * if necessary. */
-  public synchronized AuAgreements getAuAgreements(String key) {
+  public AuAgreements getAuAgreements(String key) {
     AuAgreements aua = agmnts.get(key);
     log.debug2("getAuAgreements({}) = {}", key, aua);
-    if (aua == null) {
-      aua = handleAuAgreementsCacheMiss(key);
+    if (aua != null) {
+      return aua;
+    }
+    DeferredStore store = null;
+    Lock lock = lockAu(key);
+    try {
+      // Check again, another thread may have created it
+      aua = agmnts.get(key);
+      if (aua == null) {
+	aua = handleAuAgreementsCacheMiss(key);
+	if (aua == null) {
+	  aua = newDefaultAuAgreements(key);
+	  store = deferStoreAuAgreements(key, aua, null, null, null);
+	  agmnts.put(key, aua);
+	}
+      }
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
     return aua;
   }
 
-  public synchronized void updateAuAgreements(String key,
+  public void updateAuAgreements(String key,
 					      AuAgreements aua,
 					      Set<PeerIdentity> peers) {
     updateAuAgreements(key, aua, peers, null);
   }
 
-  public synchronized void updateAuAgreements(String key,
-					      AuAgreements aua,
-					      Set<PeerIdentity> peers,
-					      String cookie) {
+  public void updateAuAgreements(String key,
+				 AuAgreements aua,
+				 Set<PeerIdentity> peers,
+				 String cookie) {
     log.debug2("Updating AuAgreements: {}: {}", key, peers);
-    AuAgreements curaua = agmnts.get(key);
+    DeferredStore store;
+    Lock lock = lockAu(key);
     try {
+      AuAgreements curaua = agmnts.get(key);
       if (curaua != null) {
 	if (curaua != aua) {
 	  throw new IllegalStateException("Attempt to store from wrong AuAgreements instance");
 	}
 	String json = aua.toJson(peers);
-	doStoreAuAgreementsUpdate(key, aua, peers);
-	doNotifyAuAgreementsChanged(key, json, cookie);
+	store = deferStoreAuAgreements(key, aua, peers, json, cookie);
       } else if (isStoreOfMissingAuAgreementsAllowed(peers)) {
 	// XXX log?
+	store = deferStoreAuAgreements(key, aua, null, null, null);
 	agmnts.put(key, aua);
-	String json = aua.toJson(peers);
-	doStoreAuAgreementsNew(key, aua);
       } else {
 	throw new IllegalStateException("Attempt to apply partial update to AuAgreements not in cache: " + key);
       }
@@ -432,7 +782,10 @@ public abstract class CachingStateManager extends BaseStateManager {
       log.error("Couldn't serialize AuAgreements: {}", aua, e);
       throw new StateLoadStoreException("Couldn't serialize AuAgreements: " +
 					aua);
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
   }
 
   /** Entry point from state service to store changes to an AuAgreements.  Write
@@ -452,37 +805,66 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Store an AuAgreements not obtained from StateManager.  Useful in tests.
    * Can only be called once per AU. */
-  public synchronized void storeAuAgreements(String key, AuAgreements aua) {
+  public void storeAuAgreements(String key, AuAgreements aua) {
     updateAuAgreements(key, aua, null);
   }
 
   /** Default behavior when AU is deleted/deactivated is to remove
    * AuAgreements from cache.  Persistent implementations should not remove
    * it from storage. */
-  protected synchronized void handleAuDeletedAuAgreements(ArchivalUnit au) {
-    agmnts.remove(auKey(au));
+  protected void handleAuDeletedAuAgreements(ArchivalUnit au) {
+    String key = auKey(au);
+    Lock lock = lockAu(key);
+    try {
+      agmnts.remove(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
-  /** Handle a cache miss.  Call hooks to load an object from backing
-   * store, if any, or to create and store new default object. */
+  /** Handle a cache miss.  Call hook to load an object from backing
+   * store, if any.  Called with the AU's lock held.
+   * @return the loaded object, or null if none, in which case the caller
+   * creates and stores a new default object after releasing the lock. */
   protected AuAgreements handleAuAgreementsCacheMiss(String key) {
     AuAgreements aua = doLoadAuAgreements(key);
     if (aua != null) {
       agmnts.put(key, aua);
-    } else {
-      aua = newDefaultAuAgreements(key);
-      agmnts.put(key, aua);
-      try {
-	String json = aua.toJson();
-	doStoreAuAgreementsNew(key, aua);
-      } catch (IOException e) {
-	log.error("Couldn't serialize AuAgreements: {}", aua, e);
-	throw new StateLoadStoreException("Couldn't serialize AuAgreements: " + aua);
-      }
     }
     return aua;
   }
 
+  /** Return a DeferredStore that stores a copy of the AuAgreements.  If
+   * json is non-null it's an update of the listed peers, followed by a
+   * change notification, else it's a new object.  Called with the AU's
+   * lock held.  Returns null if there are no hooks to call. */
+  private DeferredStore deferStoreAuAgreements(final String key,
+					       AuAgreements aua,
+					       final Set<PeerIdentity> peers,
+					       final String json,
+					       final String cookie) {
+    if (!hasAuAgreementsHooks) {
+      return null;
+    }
+    final AuAgreements copy;
+    try {
+      copy = AuAgreements.fromJson(key, aua.toJson(), daemon);
+    } catch (IOException e) {
+      log.error("Couldn't copy AuAgreements: {}", aua, e);
+      throw new StateLoadStoreException("Couldn't copy AuAgreements: " + aua);
+    }
+    return new DeferredStore(key) {
+      protected void store() {
+	if (json != null) {
+	  doStoreAuAgreementsUpdate(key, copy, peers);
+	  doNotifyAuAgreementsChanged(key, json, cookie);
+	} else {
+	  doStoreAuAgreementsNew(key, copy);
+	}
+      }
+    };
+  }
+
   /** Return true if an AuAgreements exists for the given auid
    * @param key the auid
    */
@@ -519,19 +901,36 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Return the current singleton AuSuspectUrlVersions for the auid,
    * creating one if necessary. */
-  public synchronized AuSuspectUrlVersions getAuSuspectUrlVersions(String key) {
+  public AuSuspectUrlVersions getAuSuspectUrlVersions(String key) {
     AuSuspectUrlVersions asuv = suspectVers.get(key);
     log.debug2("getAuSuspectUrlVersions({}) = {}", key, asuv);
-    if (asuv == null) {
-      asuv = handleAuSuspectUrlVersionsCacheMiss(key);
+    if (asuv != null) {
+      return asuv;
+    }
+    DeferredStore store = null;
+    Lock lock = lockAu(key);
+    try {
+      // Check again, another thread may have created it
+      asuv = suspectVers.get(key);
+      if (asuv == null) {
+	asuv = handleAuSuspectUrlVersionsCacheMiss(key);
+	if (asuv == null) {
+	  asuv = newDefaultAuSuspectUrlVersions(key);
+	  store = deferStoreAuSuspectUrlVersions(key, asuv, null, null, null);
+	  suspectVers.put(key, asuv);
+	}
+      }
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
     return asuv;
   }
 
   /** Completely replace the stored AuSuspectUrlVersions with the data from
    * this one.
    */
-  public synchronized void updateAuSuspectUrlVersions(String key,
+  public void updateAuSuspectUrlVersions(String key,
 					     AuSuspectUrlVersions asuv) {
     updateAuSuspectUrlVersions(key, asuv, null);
   }
@@ -540,31 +939,32 @@ public abstract class CachingStateManager extends BaseStateManager {
    * this one.  The versions arg is intended for future use, to support
    * incremental udpate.  It's currently always null.
    */
-  public synchronized void updateAuSuspectUrlVersions(String key,
+  public void updateAuSuspectUrlVersions(String key,
 					      AuSuspectUrlVersions asuv,
 					      Set<SuspectUrlVersion> versions) {
     updateAuSuspectUrlVersions(key, asuv, versions, null);
   }
 
-  public synchronized void updateAuSuspectUrlVersions(String key,
-					      AuSuspectUrlVersions asuv,
-					      Set<SuspectUrlVersion> versions,
-					      String cookie) {
+  public void updateAuSuspectUrlVersions(String key,
+				 AuSuspectUrlVersions asuv,
+				 Set<SuspectUrlVersion> versions,
+				 String cookie) {
     log.debug2("Updating suspectUrlVersions: {}: {}", key, asuv);
-    AuSuspectUrlVersions curasuv = suspectVers.get(key);
+    DeferredStore store;
+    Lock lock = lockAu(key);
     try {
+      AuSuspectUrlVersions curasuv = suspectVers.get(key);
       if (curasuv != null) {
 	if (curasuv != asuv) {
 	  throw new IllegalStateException("Attempt to store from wrong AuSuspectUrlVersions instance");
 	}
 	String json = asuv.toJson(versions);
-	doStoreAuSuspectUrlVersionsUpdate(key, asuv, versions);
-	doNotifyAuSuspectUrlVersionsChanged(key, json, cookie);
+	store = deferStoreAuSuspectUrlVersions(key, asuv, versions,
+					       json, cookie);
       } else if (isStoreOfMissingAuSuspectUrlVersionsAllowed(versions)) {
 	// XXX log?
- 	suspectVers.put(key, asuv);
- 	String json = asuv.toJson(versions);
- 	doStoreAuSuspectUrlVersionsNew(key, asuv);
+	store = deferStoreAuSuspectUrlVersions(key, asuv, null, null, null);
+	suspectVers.put(key, asuv);
       } else {
 	throw new IllegalStateException("Attempt to apply partial update to AuSuspectUrlVersions not in cache: " + key);
       }
@@ -572,7 +972,10 @@ public abstract class CachingStateManager extends BaseStateManager {
       log.error("Couldn't serialize AuSuspectUrlVersions: {}", asuv, e);
       throw new StateLoadStoreException("Couldn't serialize AuSuspectUrlVersions: " +
 	  asuv);
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
   }
 
   /** Entry point from state service to store changes to an AuSuspectUrlVersions.  Write
@@ -592,7 +995,7 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Store an AuSuspectUrlVersions not obtained from StateManager.  Useful in tests.
    * Can only be called once per AU. */
-  public synchronized void storeAuSuspectUrlVersions(String key,
+  public void storeAuSuspectUrlVersions(String key,
       AuSuspectUrlVersions asuv) {
     updateAuSuspectUrlVersions(key, asuv, null);
   }
@@ -600,31 +1003,61 @@ public abstract class CachingStateManager extends BaseStateManager {
   /** Default behavior when AU is deleted/deactivated is to remove
    * AuSuspectUrlVersions from cache.  Persistent implementations should not remove
    * it from storage. */
-  protected synchronized void handleAuDeletedAuSuspectUrlVersions(ArchivalUnit au) {
-    suspectVers.remove(auKey(au));
+  protected void handleAuDeletedAuSuspectUrlVersions(ArchivalUnit au) {
+    String key = auKey(au);
+    Lock lock = lockAu(key);
+    try {
+      suspectVers.remove(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
-  /** Handle a cache miss.  Call hooks to load an object from backing
-   * store, if any, or to create and store new default object. */
+  /** Handle a cache miss.  Call hook to load an object from backing
+   * store, if any.  Called with the AU's lock held.
+   * @return the loaded object, or null if none, in which case the caller
+   * creates and stores a new default object after releasing the lock. */
   protected AuSuspectUrlVersions handleAuSuspectUrlVersionsCacheMiss(String key) {
     AuSuspectUrlVersions asuv = doLoadAuSuspectUrlVersions(key);
     log.debug2("handleAuSuspectUrlVersionsCacheMiss: {}", asuv);
     if (asuv != null) {
       suspectVers.put(key, asuv);
-    } else {
-      asuv = newDefaultAuSuspectUrlVersions(key);
-      suspectVers.put(key, asuv);
-      try {
-	String json = asuv.toJson();
- 	doStoreAuSuspectUrlVersionsNew(key, asuv);
-      } catch (IOException e) {
- 	log.error("Couldn't serialize AuSuspectUrlVersions: {}", asuv, e);
- 	throw new StateLoadStoreException("Couldn't serialize AuSuspectUrlVersions: " + asuv);
-      }
     }
     return asuv;
   }
 
+  /** Return a DeferredStore that stores a copy of the
+   * AuSuspectUrlVersions.  If json is non-null it's an update, followed
+   * by a change notification, else it's a new object.  Called with the
+   * AU's lock held.  Returns null if there are no hooks to call. */
+  private DeferredStore
+    deferStoreAuSuspectUrlVersions(final String key,
+				   AuSuspectUrlVersions asuv,
+				   final Set<SuspectUrlVersion> versions,
+				   final String json,
+				   final String cookie) {
+    if (!hasAuSuspectUrlVersionsHooks) {
+      return null;
+    }
+    final AuSuspectUrlVersions copy;
+    try {
+      copy = AuSuspectUrlVersions.fromJson(key, asuv.toJson(), daemon);
+    } catch (IOException e) {
+      log.error("Couldn't copy AuSuspectUrlVersions: {}", asuv, e);
+      throw new StateLoadStoreException("Couldn't copy AuSuspectUrlVersions: " + asuv);
+    }
+    return new DeferredStore(key) {
+      protected void store() {
+	if (json != null) {
+	  doStoreAuSuspectUrlVersionsUpdate(key, copy, versions);
+	  doNotifyAuSuspectUrlVersionsChanged(key, json, cookie);
+	} else {
+	  doStoreAuSuspectUrlVersionsNew(key, copy);
+	}
+      }
+    };
+  }
+
   /** Return true if an AuSuspectUrlVersions exists for the given auid
    * @param key the auid
    */
@@ -661,45 +1094,62 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Return the current singleton NoAuPeerSet for the auid,
    * creating one if necessary. */
-  public synchronized DatedPeerIdSet getNoAuPeerSet(String key) {
+  public DatedPeerIdSet getNoAuPeerSet(String key) {
     DatedPeerIdSet naps = noAuPeerSets.get(key);
     log.debug2("getNoAuPeerSet({}) = {}", key, naps);
-    if (naps == null) {
-      naps = handleNoAuPeerSetCacheMiss(key);
+    if (naps != null) {
+      return naps;
     }
+    DeferredStore store = null;
+    Lock lock = lockAu(key);
+    try {
+      // Check again, another thread may have created it
+      naps = noAuPeerSets.get(key);
+      if (naps == null) {
+	naps = handleNoAuPeerSetCacheMiss(key);
+	if (naps == null) {
+	  naps = newDefaultNoAuPeerSet(key);
+	  store = deferStoreNoAuPeerSet(key, naps, null, null, null);
+	  noAuPeerSets.put(key, naps);
+	}
+      }
+    } finally {
+      lock.unlock();
+    }
+    runStore(store);
     return naps;
   }
 
-  public synchronized void updateNoAuPeerSet(String key,
+  public void updateNoAuPeerSet(String key,
 					     DatedPeerIdSet naps) {
     updateNoAuPeerSet(key, naps, null);
   }
 
-  public synchronized void updateNoAuPeerSet(String key,
+  public void updateNoAuPeerSet(String key,
 					     DatedPeerIdSet naps,
 					     Set<PeerIdentity> peers) {
     updateNoAuPeerSet(key, naps, peers, null);
   }
 
-  public synchronized void updateNoAuPeerSet(String key,
-					     DatedPeerIdSet naps,
-					     Set<PeerIdentity> peers,
-					     String cookie) {
+  public void updateNoAuPeerSet(String key,
+				DatedPeerIdSet naps,
+				Set<PeerIdentity> peers,
+				String cookie) {
     log.debug2("Updating NoAuPeerSet: {}: {})", key, naps);
-    DatedPeerIdSet curnaps = noAuPeerSets.get(key);
+    DeferredStore store;
+    Lock lock = lockAu(key);
     try {
+      DatedPeerIdSet curnaps = noAuPeerSets.get(key);
       if (curnaps != null) {
 	if (curnaps != naps) {
 	  throw new IllegalStateException("Attempt to store from wrong NoAuPeerSet instance");
 	}
 	String json = naps.toJson(peers);
-	doStoreNoAuPeerSetUpdate(key, naps, peers);
-	doNotifyNoAuPeerSetChanged(key, json, cookie);
+	store = deferStoreNoAuPeerSet(key, naps, peers, json, cookie);
       } else if (isStoreOfMissingNoAuPeerSetAllowed(peers)) {
 	// XXX log?
+	store = deferStoreNoAuPeerSet(key, naps, null, null, null);
 	noAuPeerSets.put(key, naps);
-	String json = naps.toJson(peers);
-	doStoreNoAuPeerSetNew(key, naps);
       } else {
 	throw new IllegalStateException("Attempt to apply partial update to NoAuPeerSet not in cache: " + key);
       }
@@ -707,7 +1157,10 @@ public abstract class CachingStateManager extends BaseStateManager {
       log.error("Couldn't serialize NoAuPeerSet: {}", naps, e);
       throw new StateLoadStoreException("Couldn't serialize NoAuPeerSet: " +
 					naps);
+    } finally {
+      lock.unlock();
     }
+    runStore(store);
   }
 
   /** Entry point from state service to store changes to an NoAuPeerSet.  Write
@@ -726,37 +1179,66 @@ public abstract class CachingStateManager extends BaseStateManager {
 
   /** Store an NoAuPeerSet not obtained from StateManager.  Useful in tests.
    * Can only be called once per AU. */
-  public synchronized void storeNoAuPeerSet(String key, DatedPeerIdSet naps) {
+  public void storeNoAuPeerSet(String key, DatedPeerIdSet naps) {
     updateNoAuPeerSet(key, naps, null);
   }
 
   /** Default behavior when AU is deleted/deactivated is to remove
    * NoAuPeerSet from cache.  Persistent implementations should not remove
    * it from storage. */
-  protected synchronized void handleAuDeletedNoAuPeerSet(ArchivalUnit au) {
-    noAuPeerSets.remove(auKey(au));
+  protected void handleAuDeletedNoAuPeerSet(ArchivalUnit au) {
+    String key = auKey(au);
+    Lock lock = lockAu(key);
+    try {
+      noAuPeerSets.remove(key);
+    } finally {
+      lock.unlock();
+    }
   }
 
-  /** Handle a cache miss.  Call hooks to load an object from backing
-   * store, if any, or to create and store new default object. */
+  /** Handle a cache miss.  Call hook to load an object from backing
+   * store, if any.  Called with the AU's lock held.
+   * @return the loaded object, or null if none, in which case the caller
+   * creates and stores a new default object after releasing the lock. */
   protected DatedPeerIdSet handleNoAuPeerSetCacheMiss(String key) {
     DatedPeerIdSet naps = doLoadNoAuPeerSet(key);
     if (naps != null) {
       noAuPeerSets.put(key, naps);
-    } else {
-      naps = newDefaultNoAuPeerSet(key);
-      noAuPeerSets.put(key, naps);
-      try {
- 	String json = naps.toJson();
- 	doStoreNoAuPeerSetNew(key, naps);
-      } catch (IOException e) {
- 	log.error("Couldn't serialize NoAuPeerSet: {}", naps, e);
- 	throw new StateLoadStoreException("Couldn't serialize NoAuPeerSet: " + naps);
-      }
     }
     return naps;
   }
 
+  /** Return a DeferredStore that stores a copy of the NoAuPeerSet.  If
+   * json is non-null it's an update of the listed peers, followed by a
+   * change notification, else it's a new object.  Called with the AU's
+   * lock held.  Returns null if there are no hooks to call. */
+  private DeferredStore deferStoreNoAuPeerSet(final String key,
+					      DatedPeerIdSet naps,
+					      final Set<PeerIdentity> peers,
+					      final String json,
+					      final String cookie) {
+    if (!hasNoAuPeerSetHooks) {
+      return null;
+    }
+    final DatedPeerIdSet copy;
+    try {
+      copy = DatedPeerIdSetImpl.fromJson(key, naps.toJson(), daemon);
+    } catch (IOException e) {
+      log.error("Couldn't copy NoAuPeerSet: {}", naps, e);
+      throw new StateLoadStoreException("Couldn't copy NoAuPeerSet: " + naps);
+    }
+    return new DeferredStore(key) {
+      protected void store() {
+	if (json != null) {
+	  doStoreNoAuPeerSetUpdate(key, copy, peers);
+	  doNotifyNoAuPeerSetChanged(key, json, cookie);
+	} else {
+	  doStoreNoAuPeerSetNew(key, copy);
+	}
+      }
+    };
+  }
+
   /** Return true if an NoAuPeerSet exists for the given auid
    * @param key the auid
    */
@@ -784,4 +1266,46 @@ public abstract class CachingStateManager extends BaseStateManager {
     return peers == null || peers.isEmpty();
   }
 
+  // /////////////////////////////////////////////////////////////////
+  // Status
+  // /////////////////////////////////////////////////////////////////
+
+  /** Summary of per-AU lock contention */
+  class LockStatus implements StatusAccessor {
+
+    public String getDisplayName() {
+      return "State Manager Locks";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      long acq = getLockAcquisitions();
+      long cont = getLockContentions();
+      List<StatusTable.SummaryInfo> res = new ArrayList<>();
+      res.add(new StatusTable.SummaryInfo("AU locks",
+					  ColumnDescriptor.TYPE_INT,
+					  auLocks.size()));
+      res.add(new StatusTable.SummaryInfo("Acquisitions",
+					  ColumnDescriptor.TYPE_INT,
+					  acq));
+      res.add(new StatusTable.SummaryInfo("Contended",
+					  ColumnDescriptor.TYPE_INT,
+					  cont));
+      if (acq > 0) {
+	res.add(new StatusTable.SummaryInfo("Contention rate",
+					    ColumnDescriptor.TYPE_PERCENT,
+					    (double)cont / (double)acq));
+      }
+      res.add(new StatusTable.SummaryInfo("Total wait",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  getLockWaitTime()));
+      res.add(new StatusTable.SummaryInfo("Max wait",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  getMaxLockWaitTime()));
+      table.setSummaryInfo(res);
+    }
+  }
 }
@@ -30,6 +30,10 @@ package org.lockss.state;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import org.apache.activemq.broker.*;
 import org.apache.activemq.store.*;
 
@@ -41,15 +45,61 @@ import org.lockss.config.*;
 import org.lockss.plugin.*;
 import org.lockss.protocol.*;
 import org.lockss.util.rest.exception.LockssRestException;
+import org.lockss.util.rest.exception.LockssRestHttpException;
 import org.lockss.state.AuSuspectUrlVersions.SuspectUrlVersion;
 
 /** Caching StateManager that accesses state objects from a REST
- * StateService.  Receives notifications of changes sent by service. */
+ * StateService.  Receives notifications of changes sent by service.
+ * State objects of AUs started at daemon startup may be prefetched in
+ * bulk (see {@link #prefetchState(Collection)}); once cached they're kept
+ * current by the change notifications. */
 
 public class ClientStateManager extends CachingStateManager {
 
   protected static L4JLogger log = L4JLogger.getLogger();
 
+  public static final String PREFETCH_PREFIX = PREFIX + "prefetch.";
+
+  /** If true, the state objects of AUs about to be started are loaded
+   * from the state service in bulk, rather than with one request per AU
+   * per object type when first used. */
+  public static final String PARAM_PREFETCH_ENABLED =
+    PREFETCH_PREFIX + "enabled";
+  public static final boolean DEFAULT_PREFETCH_ENABLED = true;
+
+  /** Maximum number of AUs whose state objects are requested in one bulk
+   * request */
+  public static final String PARAM_PREFETCH_BATCH_SIZE =
+    PREFETCH_PREFIX + "batchSize";
+  public static final int DEFAULT_PREFETCH_BATCH_SIZE = 100;
+
+  /** Types of state object to prefetch: any of <tt>AuState</tt>,
+   * <tt>AuAgreements</tt>, <tt>AuSuspectUrlVersions</tt> and
+   * <tt>NoAuPeerSet</tt>.  All but AuState are held in LRU caches, so are
+   * worth prefetching only if the cache is large enough to hold all
+   * AUs. */
+  public static final String PARAM_PREFETCH_TYPES =
+    PREFETCH_PREFIX + "types";
+  public static final List<String> DEFAULT_PREFETCH_TYPES =
+    Collections.singletonList("AuState");
+
+  private boolean prefetchEnabled = DEFAULT_PREFETCH_ENABLED;
+  private int prefetchBatchSize = DEFAULT_PREFETCH_BATCH_SIZE;
+  private List<String> prefetchTypes = DEFAULT_PREFETCH_TYPES;
+
+  // Types for which the service doesn't support bulk requests
+  private Set<String> bulkUnsupported = ConcurrentHashMap.newKeySet();
+
+  // For each type and AU with a bulk request outstanding, the number of
+  // change notifications received while the object wasn't cached.
+  // Incremented and checked only with the AU's lock held.
+  private final Map<String,AtomicInteger> prefetchPending =
+    new ConcurrentHashMap<>();
+
+  // Prefetch stats
+  private final AtomicLong prefetchRequests = new AtomicLong();
+  private final AtomicLong prefetchLoaded = new AtomicLong();
+
   // Unique client identifier
   private String cliendId =
     org.apache.commons.lang3.RandomStringUtils.randomAlphabetic(8);
@@ -74,6 +124,238 @@ public class ClientStateManager extends CachingStateManager {
     super.stopService();
   }
 
+  @Override
+  public void setConfig(Configuration config, Configuration oldConfig,
+			Configuration.Differences changedKeys) {
+    super.setConfig(config, oldConfig, changedKeys);
+    if (changedKeys.contains(PREFETCH_PREFIX)) {
+      prefetchEnabled = config.getBoolean(PARAM_PREFETCH_ENABLED,
+					  DEFAULT_PREFETCH_ENABLED);
+      prefetchBatchSize = Math.max(1,
+				   config.getInt(PARAM_PREFETCH_BATCH_SIZE,
+						 DEFAULT_PREFETCH_BATCH_SIZE));
+      prefetchTypes = config.getList(PARAM_PREFETCH_TYPES,
+				     DEFAULT_PREFETCH_TYPES);
+    }
+  }
+
+
+  // /////////////////////////////////////////////////////////////////
+  // Prefetch
+  // /////////////////////////////////////////////////////////////////
+
+  /** Load the state objects of the AUs that aren't already cached, with
+   * one request per {@link #PARAM_PREFETCH_BATCH_SIZE} AUs per object
+   * type.  Objects the service doesn't have are left to be created on
+   * demand.  If the service doesn't support bulk requests for a type,
+   * that type is thereafter loaded only on demand.
+   * @param keys the auids
+   */
+  @Override
+  public void prefetchState(Collection<String> keys) {
+    if (!prefetchEnabled || keys.isEmpty()) {
+      return;
+    }
+    for (String type : prefetchTypes) {
+      List<String> batch = new ArrayList<>();
+      for (String key : keys) {
+	if (bulkUnsupported.contains(type)) {
+	  break;
+	}
+	if (!isCached(type, key)) {
+	  batch.add(key);
+	  if (batch.size() >= prefetchBatchSize) {
+	    prefetchBatch(type, batch);
+	    batch = new ArrayList<>();
+	  }
+	}
+      }
+      if (!batch.isEmpty() && !bulkUnsupported.contains(type)) {
+	prefetchBatch(type, batch);
+      }
+    }
+  }
+
+  /** Return the number of bulk requests made by {@link
+   * #prefetchState(Collection)} */
+  public long getPrefetchRequests() {
+    return prefetchRequests.get();
+  }
+
+  /** Return the number of state objects loaded into the cache by {@link
+   * #prefetchState(Collection)} */
+  public long getPrefetchLoaded() {
+    return prefetchLoaded.get();
+  }
+
+  private boolean isCached(String type, String key) {
+    switch (type) {
+    case "AuState":
+      return hasAuState(key);
+    case "AuAgreements":
+      return hasAuAgreements(key);
+    case "AuSuspectUrlVersions":
+      return hasAuSuspectUrlVersions(key);
+    case "NoAuPeerSet":
+      return hasNoAuPeerSet(key);
+    default:
+      log.warn("Unknown state object type in {}: {}",
+	       PARAM_PREFETCH_TYPES, type);
+      bulkUnsupported.add(type);
+      return true;
+    }
+  }
+
+  private void prefetchBatch(String type, List<String> keys) {
+    // Register the keys before the request, so that changes received
+    // before the response is cached can be detected
+    for (String key : keys) {
+      prefetchPending.put(pendingKey(type, key), new AtomicInteger());
+    }
+    try {
+      prefetchBatch0(type, keys);
+    } finally {
+      for (String key : keys) {
+	prefetchPending.remove(pendingKey(type, key));
+      }
+    }
+  }
+
+  private void prefetchBatch0(String type, List<String> keys) {
+    Map<String,String> jsons;
+    try {
+      prefetchRequests.incrementAndGet();
+      jsons = doLoadBulkJson(type, keys);
+    } catch (LockssRestHttpException lrhe) {
+      switch (lrhe.getHttpStatusCode()) {
+      case 404:
+      case 405:
+      case 501:
+	log.info("State service doesn't support bulk {} requests, " +
+		 "will load on demand", type);
+	bulkUnsupported.add(type);
+	break;
+      default:
+	log.warn("Couldn't prefetch {} for {} AUs", type, keys.size(), lrhe);
+      }
+      return;
+    } catch (LockssRestException lre) {
+      log.warn("Couldn't prefetch {} for {} AUs", type, keys.size(), lre);
+      return;
+    }
+    log.debug2("Prefetched {} {} for {} AUs", jsons.size(), type, keys.size());
+    for (Map.Entry<String,String> ent : jsons.entrySet()) {
+      String key = ent.getKey();
+      String json = ent.getValue();
+      Lock lock = lockAu(key);
+      try {
+	// Don't replace an object loaded or created in the meantime
+	if (isCached(type, key)) {
+	  continue;
+	}
+	// The response may predate a change received in the meantime, which
+	// couldn't be applied as the object wasn't cached.  Leave it to be
+	// loaded on demand.
+	AtomicInteger changes = prefetchPending.get(pendingKey(type, key));
+	if (changes != null && changes.get() > 0) {
+	  log.debug2("Not caching prefetched {} for {}, changed during request",
+		     type, key);
+	  continue;
+	}
+	cacheFromJson(type, key, json);
+	prefetchLoaded.incrementAndGet();
+      } catch (IOException e) {
+	log.error("Couldn't deserialize {}: {}", type, json, e);
+      } finally {
+	lock.unlock();
+      }
+    }
+  }
+
+  private static String pendingKey(String type, String key) {
+    return type + "|" + key;
+  }
+
+  /** Record a change notification for an object that isn't cached, so
+   * that an outstanding prefetch doesn't cache a copy that predates it.
+   * Called with the AU's lock held. */
+  private void notePrefetchPendingChange(String type, String key) {
+    AtomicInteger changes = prefetchPending.get(pendingKey(type, key));
+    if (changes != null) {
+      changes.incrementAndGet();
+    }
+  }
+
+  /** Remove from the cache the AuStateBeans prefetched for AUs that
+   * weren't started.  AuStates that have been instantiated are left
+   * alone, as are other state objects, which are held in LRU caches.
+   * @param keys the auids
+   */
+  @Override
+  public void discardPrefetchedState(Collection<String> keys) {
+    for (String key : keys) {
+      Lock lock = lockAu(key);
+      try {
+	if (auStateBeans.remove(key) != null) {
+	  log.debug2("Discarded prefetched AuStateBean: {}", key);
+	}
+      } finally {
+	lock.unlock();
+      }
+    }
+  }
+
+  /** Deserialize a prefetched object into the cache.  Called with the
+   * AU's lock held. */
+  private void cacheFromJson(String type, String key, String json)
+      throws IOException {
+    switch (type) {
+    case "AuState":
+      // Held as a bean until the AU's AuState is requested
+      auStateBeans.put(key, new AuStateBean().updateFromJson(json, daemon));
+      break;
+    case "AuAgreements":
+      AuAgreements aua = newDefaultAuAgreements(key);
+      aua.updateFromJson(json, daemon);
+      putAuAgreements(key, aua);
+      break;
+    case "AuSuspectUrlVersions":
+      AuSuspectUrlVersions asuv = newDefaultAuSuspectUrlVersions(key);
+      asuv.updateFromJson(json, daemon);
+      putAuSuspectUrlVersions(key, asuv);
+      break;
+    case "NoAuPeerSet":
+      DatedPeerIdSet naps = newDefaultNoAuPeerSet(key);
+      naps.updateFromJson(json, daemon);
+      putNoAuPeerSet(key, naps);
+      break;
+    }
+  }
+
+  /** Request the serialized objects of the type for the auids from the
+   * StateService.
+   * @return map from auid to json, for those AUs the service has an
+   * object for
+   */
+  protected Map<String,String> doLoadBulkJson(String type,
+					      Collection<String> keys)
+      throws LockssRestException {
+    RestConfigClient client = configMgr.getRestConfigClient();
+    switch (type) {
+    case "AuState":
+      return client.getArchivalUnitStates(keys);
+    case "AuAgreements":
+      return client.getArchivalUnitsAgreements(keys);
+    case "AuSuspectUrlVersions":
+      return client.getArchivalUnitsSuspectUrlVersions(keys);
+    case "NoAuPeerSet":
+      return client.getNoAuPeersForAus(keys);
+    default:
+      throw new IllegalArgumentException("Unknown state object type: "
+					 + type);
+    }
+  }
+
 
   // /////////////////////////////////////////////////////////////////
   // AuState
@@ -91,22 +373,37 @@ public class ClientStateManager extends CachingStateManager {
     try {
       boolean doit = false;
       AuState cur;
-      synchronized (this) {
+      AuStateBean curBean = null;
+      Lock lock = lockAu(auid);
+      try {
 	cur = auStates.get(auid);
 	if (cur == null) {
-	  log.debug2("Ignoring partial update for AuState we don't have: {}", auid);
-	  return;
+	  // Prefetched state is held as a bean until the AuState is needed
+	  curBean = auStateBeans.get(auid);
+	  if (curBean == null) {
+	    log.debug2("Ignoring partial update for AuState we don't have: {}",
+		       auid);
+	    notePrefetchPendingChange("AuState", auid);
+	    return;
+	  }
 	}
-	log.debug2("Updating: {} from {}", cur, json);
+	log.debug2("Updating: {} from {}", cur != null ? cur : curBean, json);
 	if (isMyUpdate(cookie, json)) {
 	  log.debug2("Ignoring my AuState change: {}: {}", cookie, json);
 	} else {
 	  doit = true;
 	}
+      } finally {
+	lock.unlock();
       }
-      // Must not udpate object while holding StateManager lock
+      // Must not update object while holding its AU lock, as its
+      // synchronized store methods acquire that lock
       if (doit) {
-	cur.updateFromJson(json, daemon);
+	if (cur != null) {
+	  cur.updateFromJson(json, daemon);
+	} else {
+	  curBean.updateFromJson(json, daemon);
+	}
       }
     } catch (IOException e) {
       log.error("Couldn't deserialize AuState: {}", json, e);
@@ -195,10 +492,12 @@ public class ClientStateManager extends CachingStateManager {
     try {
       boolean doit = false;
       AuAgreements cur;
-      synchronized (this) {
+      Lock lock = lockAu(auid);
+      try {
 	cur = agmnts.get(auid);
 	if (cur == null) {
 	  log.debug2("Ignoring partial update for AuAgreements we don't have: {}", auid);
+	  notePrefetchPendingChange("AuAgreements", auid);
 	  return;
 	}
 	log.debug2("Updating: {} from {}", cur, json);
@@ -207,8 +506,11 @@ public class ClientStateManager extends CachingStateManager {
 	} else {
 	  doit = true;
 	}
+      } finally {
+	lock.unlock();
       }
-      // Must not udpate object while holding StateManager lock
+      // Must not update object while holding its AU lock, as its
+      // synchronized store methods acquire that lock
       if (doit) {
 	cur.updateFromJson(json, daemon);
       }
@@ -274,10 +576,12 @@ public class ClientStateManager extends CachingStateManager {
     try {
       boolean doit = false;
       AuSuspectUrlVersions cur;
-      synchronized (this) {
+      Lock lock = lockAu(auid);
+      try {
 	cur = suspectVers.get(auid);
 	if (cur == null) {
 	  log.debug2("Ignoring partial update for AuSuspectUrlVersions we don't have: {}", auid);
+	  notePrefetchPendingChange("AuSuspectUrlVersions", auid);
 	  return;
 	}
 	log.debug2("Updating: {} from {}", cur, json);
@@ -286,8 +590,11 @@ public class ClientStateManager extends CachingStateManager {
 	} else {
 	  doit = true;
 	}
+      } finally {
+	lock.unlock();
       }
-      // Must not udpate object while holding StateManager lock
+      // Must not update object while holding its AU lock, as its
+      // synchronized store methods acquire that lock
       if (doit) {
 	cur.updateFromJson(json, daemon);
       }
@@ -353,11 +660,13 @@ public class ClientStateManager extends CachingStateManager {
     try {
       boolean doit = false;
       DatedPeerIdSet cur;
-      synchronized (this) {
+      Lock lock = lockAu(auid);
+      try {
 	cur = noAuPeerSets.get(auid);
 	if (cur == null) {
 	  log.debug2("Ignoring partial update for NoAuPeerSet we don't have: {}",
 		     auid);
+	  notePrefetchPendingChange("NoAuPeerSet", auid);
 	  return;
 	}
 	log.debug2("Updating: {} from {}", cur, json);
@@ -366,8 +675,11 @@ public class ClientStateManager extends CachingStateManager {
 	} else {
 	  doit = true;
 	}
+      } finally {
+	lock.unlock();
       }
-      // Must not udpate object while holding StateManager lock
+      // Must not update object while holding its AU lock, as its
+      // synchronized store methods acquire that lock
       if (doit) {
 	cur.updateFromJson(json, daemon);
       }
@@ -532,6 +532,76 @@ public class DbStateManagerSql extends ConfigManagerSql implements StateStore {
 	PluginManager.auKeyFromAuId(key), aua);
   }
 
+  /** Like the single-AU update, replaces each AU's entire stored state
+   * in one transaction. */
+  @Override
+  public void updateArchivalUnitStates(Map<String,AuStateBean> ausbs)
+      throws DbException {
+    log.debug2("ausbs.size() = {}", ausbs.size());
+
+    Connection conn = null;
+
+    try {
+      // Get a connection to the database.
+      conn = getConnection();
+
+      // Update the states.
+      for (Map.Entry<String,AuStateBean> ent : ausbs.entrySet()) {
+	String key = ent.getKey();
+	updateArchivalUnitState(conn, PluginManager.pluginIdFromAuId(key),
+				PluginManager.auKeyFromAuId(key),
+				ent.getValue());
+      }
+
+      // Commit the transaction.
+      ConfigDbManager.commitOrRollback(conn, log);
+    } catch (DbException dbe) {
+      String message = "Cannot update AU states";
+      log.error(message, dbe);
+      log.error("ausbs.keySet() = {}", ausbs.keySet());
+      throw dbe;
+    } finally {
+      DbManager.safeRollbackAndClose(conn);
+    }
+
+    log.debug2("Done");
+  }
+
+  /** Like the single-AU update, replaces each AU's entire stored poll
+   * agreements in one transaction. */
+  @Override
+  public void updateAllAuAgreements(Map<String,AuAgreements> auas)
+      throws DbException {
+    log.debug2("auas.size() = {}", auas.size());
+
+    Connection conn = null;
+
+    try {
+      // Get a connection to the database.
+      conn = getConnection();
+
+      // Update the poll agreements.
+      for (Map.Entry<String,AuAgreements> ent : auas.entrySet()) {
+	String key = ent.getKey();
+	updateArchivalUnitAgreements(conn, PluginManager.pluginIdFromAuId(key),
+				     PluginManager.auKeyFromAuId(key),
+				     ent.getValue());
+      }
+
+      // Commit the transaction.
+      ConfigDbManager.commitOrRollback(conn, log);
+    } catch (DbException dbe) {
+      String message = "Cannot update AU poll agreements";
+      log.error(message, dbe);
+      log.error("auas.keySet() = {}", auas.keySet());
+      throw dbe;
+    } finally {
+      DbManager.safeRollbackAndClose(conn);
+    }
+
+    log.debug2("Done");
+  }
+
   protected static final Set<String> auId_auCreationTime =
       Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("auId", "auCreationTime")));
 
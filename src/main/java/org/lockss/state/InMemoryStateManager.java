@@ -30,6 +30,8 @@ package org.lockss.state;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import org.apache.activemq.broker.*;
 import org.apache.activemq.store.*;
 
@@ -53,21 +55,28 @@ public class InMemoryStateManager extends CachingStateManager {
   // deleted/deactivated.  Serializing is a more realistic way to
   // save/restore the state, plus it provides a convenient way to restore
   // the data into an AuState object with a different AU.
-  protected Map<String,String> deletedAuStates = new HashMap<>();
-  protected Map<String,String> deletedAuAgreementses = new HashMap<>();
-  protected Map<String,String> deletedAuSuspectUrlVersionses = new HashMap<>();
-  protected Map<String,String> deletedNoAuPeerSets = new HashMap<>();
+  protected Map<String,String> deletedAuStates = new ConcurrentHashMap<>();
+  protected Map<String,String> deletedAuAgreementses = new ConcurrentHashMap<>();
+  protected Map<String,String> deletedAuSuspectUrlVersionses = new ConcurrentHashMap<>();
+  protected Map<String,String> deletedNoAuPeerSets = new ConcurrentHashMap<>();
 
   /** When AU deleted, backup any existing AuState to the deletedAuStates
    * map and delete from cache */
-  protected synchronized void handleAuDeleted(ArchivalUnit au) {
+  protected void handleAuDeleted(ArchivalUnit au) {
     // Serialize the AU's AuState to "backing" store so it can be restored
     // if the AU is reactivated.
     String key = auKey(au);
-    saveDeletedAuAuState(key);
-    saveDeletedAuAuAgreements(key);
-    saveDeletedAuAuSuspectUrlVersions(key);
-    super.handleAuDeleted(au);
+    // Hold the AU's lock so no update can slip in between the save and
+    // the removal from the cache
+    Lock lock = lockAu(key);
+    try {
+      saveDeletedAuAuState(key);
+      saveDeletedAuAuAgreements(key);
+      saveDeletedAuAuSuspectUrlVersions(key);
+      super.handleAuDeleted(au);
+    } finally {
+      lock.unlock();
+    }
   }
 
   // /////////////////////////////////////////////////////////////////
@@ -30,21 +30,144 @@ package org.lockss.state;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.lockss.app.*;
 import org.lockss.log.*;
+import org.lockss.config.Configuration;
 import org.lockss.config.db.ConfigDbManager;
+import org.lockss.daemon.LockssRunnable;
+import org.lockss.daemon.status.*;
 import org.lockss.plugin.*;
 import org.lockss.protocol.*;
 import org.lockss.state.AuSuspectUrlVersions.SuspectUrlVersion;
-
-/** StateManager that saves and loads state from persistent storage. */
+import org.lockss.util.Constants;
+import org.lockss.util.time.TimeBase;
+
+/** StateManager that saves and loads state from persistent storage.
+ *
+ * Optionally, AuState and AuAgreements changes are written behind: they
+ * are queued per AU and persisted by a background thread, so an object
+ * that changes many times in a short interval is written once.  The
+ * queued changes for an AU are written before that AU's state is loaded
+ * from the store, when the object is explicitly stored, and when the
+ * service is stopped.
+ */
 public class PersistentStateManager extends CachingStateManager {
 
   protected static L4JLogger log = L4JLogger.getLogger();
 
+  static final String WRITE_BEHIND_PREFIX = PREFIX + "writeBehind.";
+
+  /** If true, AuState and AuAgreements changes are written to the
+   * database by a background thread, which coalesces multiple changes to
+   * the same AU.  Changes not yet written are lost if the process
+   * dies. */
+  public static final String PARAM_WRITE_BEHIND_ENABLED =
+    WRITE_BEHIND_PREFIX + "enabled";
+  public static final boolean DEFAULT_WRITE_BEHIND_ENABLED = false;
+
+  /** Interval at which queued changes are written */
+  public static final String PARAM_WRITE_BEHIND_INTERVAL =
+    WRITE_BEHIND_PREFIX + "interval";
+  public static final long DEFAULT_WRITE_BEHIND_INTERVAL = Constants.SECOND;
+
+  /** Maximum number of AUs whose state is written in one transaction */
+  public static final String PARAM_WRITE_BEHIND_MAX_BATCH =
+    WRITE_BEHIND_PREFIX + "maxBatch";
+  public static final int DEFAULT_WRITE_BEHIND_MAX_BATCH = 200;
+
+  /** Name of the write-behind status table */
+  public static final String WRITE_BEHIND_STATUS_TABLE_NAME =
+    "StateWriteBehind";
+
   // The database state manager SQL executor.
   private StateStore stateStore = null;
 
+  private boolean wbEnabled = DEFAULT_WRITE_BEHIND_ENABLED;
+  private long wbInterval = DEFAULT_WRITE_BEHIND_INTERVAL;
+  private int wbMaxBatch = DEFAULT_WRITE_BEHIND_MAX_BATCH;
+  private boolean isStarted = false;
+  private volatile WriteBehindRunner wbRunner;
+
+  // Objects waiting to be written, in order of first change.  These are
+  // the private copies CachingStateManager passes to the store hooks, made
+  // with the AU's lock held; a later change to the same AU replaces the
+  // entry without changing its position.  The store always writes whole
+  // objects, so the field or peer sets of the coalesced changes aren't
+  // kept.  Guarded by pendingLock.
+  private Map<String,AuStateBean> pendingAuStates = new LinkedHashMap<>();
+  private Map<String,AuAgreements> pendingAuAgreements = new LinkedHashMap<>();
+  private final Object pendingLock = new Object();
+
+  // AUs whose state is currently being written.  A key that's in flight
+  // isn't taken again until its write completes, so writes of the same AU
+  // can't be reordered, and a load waits for it so it can't read the
+  // store before the write completes.  Guarded by pendingLock, which is
+  // notified when an entry is removed.
+  private Set<String> inFlight = new HashSet<>();
+
+  // Write-behind stats
+  private final AtomicLong wbChanges = new AtomicLong();
+  private final AtomicLong wbWrites = new AtomicLong();
+  private final AtomicLong wbFlushes = new AtomicLong();
+  private final AtomicLong wbFlushTime = new AtomicLong();
+  private final AtomicLong wbMaxFlushTime = new AtomicLong();
+  private final AtomicLong wbErrors = new AtomicLong();
+
+  @Override
+  public void startService() {
+    super.startService();
+    getDaemon().getStatusService()
+      .registerStatusAccessor(WRITE_BEHIND_STATUS_TABLE_NAME,
+			      new WriteBehindStatus());
+    synchronized (this) {
+      isStarted = true;
+      if (wbEnabled) {
+	startWriteBehind();
+      }
+    }
+  }
+
+  @Override
+  public void stopService() {
+    synchronized (this) {
+      isStarted = false;
+      stopWriteBehind();
+    }
+    // Changes made while the runner was stopping are queued.  Write them
+    // without holding the manager lock.
+    flushWriteBehind();
+    getDaemon().getStatusService()
+      .unregisterStatusAccessor(WRITE_BEHIND_STATUS_TABLE_NAME);
+    super.stopService();
+  }
+
+  @Override
+  public void setConfig(Configuration config, Configuration oldConfig,
+			Configuration.Differences changedKeys) {
+    super.setConfig(config, oldConfig, changedKeys);
+    if (changedKeys.contains(WRITE_BEHIND_PREFIX)) {
+      wbInterval = config.getTimeInterval(PARAM_WRITE_BEHIND_INTERVAL,
+					  DEFAULT_WRITE_BEHIND_INTERVAL);
+      wbMaxBatch = config.getInt(PARAM_WRITE_BEHIND_MAX_BATCH,
+				 DEFAULT_WRITE_BEHIND_MAX_BATCH);
+      synchronized (this) {
+	wbEnabled = config.getBoolean(PARAM_WRITE_BEHIND_ENABLED,
+				      DEFAULT_WRITE_BEHIND_ENABLED);
+	if (!isStarted) {
+	  // startService() will start it
+	} else if (wbEnabled) {
+	  startWriteBehind();
+	} else {
+	  stopWriteBehind();
+	}
+      }
+      if (!isWriteBehind()) {
+	flushWriteBehind();
+      }
+    }
+  }
+
 
   // /////////////////////////////////////////////////////////////////
   // AuState
@@ -65,6 +188,14 @@ public class PersistentStateManager extends CachingStateManager {
     log.debug2("ausb = {}", ausb);
     log.debug2("fields = {}", fields);
 
+    if (isWriteBehind()) {
+      synchronized (pendingLock) {
+	pendingAuStates.put(key, ausb);
+      }
+      wbChanges.incrementAndGet();
+      return;
+    }
+
     try {
       Long auSeq =
 	getStateStore().updateArchivalUnitState(key, ausb, fields);
@@ -90,6 +221,7 @@ public class PersistentStateManager extends CachingStateManager {
       throws StateLoadStoreException {
     AuStateBean res = null;
 
+    flushWriteBehind(key);
     try {
       res = getStateStore().findArchivalUnitState(key);
 
@@ -132,6 +264,7 @@ public class PersistentStateManager extends CachingStateManager {
   protected AuAgreements doLoadAuAgreements(String key) {
     AuAgreements res = null;
 
+    flushWriteBehind(key);
     try {
       res = getStateStore().findAuAgreements(key);
     } catch (IOException ioe) {
@@ -162,6 +295,14 @@ public class PersistentStateManager extends CachingStateManager {
     log.debug2("aua = {}", aua);
     log.debug2("peers = {}", peers);
 
+    if (isWriteBehind()) {
+      synchronized (pendingLock) {
+	pendingAuAgreements.put(key, aua);
+      }
+      wbChanges.incrementAndGet();
+      return;
+    }
+
     try {
       Long auSeq = getStateStore().updateAuAgreements(key, aua, peers);
       log.trace("auSeq = {}", auSeq);
@@ -311,6 +452,316 @@ public class PersistentStateManager extends CachingStateManager {
     log.debug2("Done");
   }
 
+  // /////////////////////////////////////////////////////////////////
+  // Write-behind
+  // /////////////////////////////////////////////////////////////////
+
+  /** Explicit stores are written immediately */
+  @Override
+  public void storeAuState(AuState aus) {
+    super.storeAuState(aus);
+    flushWriteBehind(auKey(aus.getArchivalUnit()));
+  }
+
+  @Override
+  public void storeAuStateBean(String key, AuStateBean ausb) {
+    super.storeAuStateBean(key, ausb);
+    flushWriteBehind(key);
+  }
+
+  @Override
+  public void storeAuAgreements(String key, AuAgreements aua) {
+    super.storeAuAgreements(key, aua);
+    flushWriteBehind(key);
+  }
+
+  /** Return true if changes are currently being queued rather than
+   * written immediately. */
+  protected boolean isWriteBehind() {
+    return wbRunner != null;
+  }
+
+  private void startWriteBehind() {
+    if (wbRunner == null) {
+      log.debug("Starting write-behind");
+      wbRunner = new WriteBehindRunner();
+      new Thread(wbRunner).start();
+    }
+  }
+
+  /** Stop the write-behind thread.  Changes queued before or while it
+   * stops are written by the next call to {@link #flushWriteBehind()},
+   * which the caller should make without holding the manager lock. */
+  private void stopWriteBehind() {
+    WriteBehindRunner runner = wbRunner;
+    if (runner != null) {
+      log.debug("Stopping write-behind");
+      wbRunner = null;
+      runner.stopRunner();
+    }
+  }
+
+  /** Write all queued changes. */
+  public void flushWriteBehind() {
+    while (true) {
+      List<String> keys;
+      synchronized (pendingLock) {
+	keys = pendingKeys();
+      }
+      if (keys.isEmpty()) {
+	return;
+      }
+      Map<String,AuStateBean> ausbs = new LinkedHashMap<>();
+      Map<String,AuAgreements> auas = new LinkedHashMap<>();
+      for (String key : keys) {
+	takePending(key, ausbs, auas);
+      }
+      if (ausbs.isEmpty() && auas.isEmpty()) {
+	// Another thread took them first
+	continue;
+      }
+      if (!writePending(ausbs, auas)) {
+	// Requeued, try again next time
+	return;
+      }
+    }
+  }
+
+  /** Write any queued changes to the AU's state objects.  If a write of
+   * the AU's state is already in progress, wait for it to finish. */
+  void flushWriteBehind(String key) {
+    Map<String,AuStateBean> ausbs = new LinkedHashMap<>();
+    Map<String,AuAgreements> auas = new LinkedHashMap<>();
+    takePending(key, ausbs, auas);
+    if (!ausbs.isEmpty() || !auas.isEmpty()) {
+      writePending(ausbs, auas);
+    }
+  }
+
+  /** Return the keys of up to maxBatch of the oldest queued AUs that
+   * aren't currently being written.  Must be called with pendingLock
+   * held */
+  private List<String> pendingKeys() {
+    Set<String> res = new LinkedHashSet<>();
+    addPendingKeys(res, pendingAuStates.keySet());
+    addPendingKeys(res, pendingAuAgreements.keySet());
+    return new ArrayList<>(res);
+  }
+
+  private void addPendingKeys(Set<String> res, Set<String> keys) {
+    for (Iterator<String> iter = keys.iterator();
+	 iter.hasNext() && res.size() < wbMaxBatch; ) {
+      String key = iter.next();
+      if (!inFlight.contains(key)) {
+	res.add(key);
+      }
+    }
+  }
+
+  /** Remove the AU's queued objects, if any, mark it in flight and add
+   * them to the maps.  Waits if the AU is already in flight. */
+  private void takePending(String key,
+			   Map<String,AuStateBean> ausbs,
+			   Map<String,AuAgreements> auas) {
+    synchronized (pendingLock) {
+      while (inFlight.contains(key)) {
+	try {
+	  pendingLock.wait();
+	} catch (InterruptedException e) {
+	  Thread.currentThread().interrupt();
+	  return;
+	}
+      }
+      AuStateBean ausb = pendingAuStates.remove(key);
+      AuAgreements aua = pendingAuAgreements.remove(key);
+      if (ausb != null) {
+	ausbs.put(key, ausb);
+      }
+      if (aua != null) {
+	auas.put(key, aua);
+      }
+      if (ausb != null || aua != null) {
+	inFlight.add(key);
+      }
+    }
+  }
+
+  /** Write a batch of objects, then clear their in-flight marks.
+   * If the write fails, requeue any objects that haven't been changed
+   * again since they were taken from the queue.
+   * @return true if the write succeeded */
+  private boolean writePending(Map<String,AuStateBean> ausbs,
+			       Map<String,AuAgreements> auas) {
+    long start = TimeBase.nowMs();
+    try {
+      if (!ausbs.isEmpty()) {
+	getStateStore().updateArchivalUnitStates(ausbs);
+      }
+      if (!auas.isEmpty()) {
+	getStateStore().updateAllAuAgreements(auas);
+      }
+    } catch (StoreException | RuntimeException e) {
+      log.error("Couldn't write {} AuStates, {} AuAgreements, will retry",
+		ausbs.size(), auas.size(), e);
+      wbErrors.incrementAndGet();
+      synchronized (pendingLock) {
+	requeue(pendingAuStates, ausbs);
+	requeue(pendingAuAgreements, auas);
+	clearInFlight(ausbs, auas);
+      }
+      return false;
+    }
+    synchronized (pendingLock) {
+      clearInFlight(ausbs, auas);
+    }
+    long elapsed = TimeBase.msSince(start);
+    wbWrites.addAndGet(ausbs.size() + auas.size());
+    wbFlushes.incrementAndGet();
+    wbFlushTime.addAndGet(elapsed);
+    if (elapsed > wbMaxFlushTime.get()) {
+      wbMaxFlushTime.set(elapsed);
+    }
+    return true;
+  }
+
+  /** Must be called with pendingLock held */
+  private void clearInFlight(Map<String,AuStateBean> ausbs,
+			     Map<String,AuAgreements> auas) {
+    inFlight.removeAll(ausbs.keySet());
+    inFlight.removeAll(auas.keySet());
+    pendingLock.notifyAll();
+  }
+
+  private <T> void requeue(Map<String,T> pending, Map<String,T> failed) {
+    for (Map.Entry<String,T> ent : failed.entrySet()) {
+      if (!pending.containsKey(ent.getKey())) {
+	pending.put(ent.getKey(), ent.getValue());
+      }
+    }
+  }
+
+  /** Return the number of AU changes queued for writing */
+  public int getWriteBehindPending() {
+    synchronized (pendingLock) {
+      return pendingAuStates.size() + pendingAuAgreements.size();
+    }
+  }
+
+  /** Return the number of changes that have been queued */
+  public long getWriteBehindChanges() {
+    return wbChanges.get();
+  }
+
+  /** Return the number of objects written by the write-behind queue */
+  public long getWriteBehindWrites() {
+    return wbWrites.get();
+  }
+
+  /** Return the number of write-behind transactions */
+  public long getWriteBehindFlushes() {
+    return wbFlushes.get();
+  }
+
+  /** Return the total time spent writing, in ms */
+  public long getWriteBehindFlushTime() {
+    return wbFlushTime.get();
+  }
+
+  /** Return the longest time spent in one write, in ms */
+  public long getWriteBehindMaxFlushTime() {
+    return wbMaxFlushTime.get();
+  }
+
+  /** Return the number of writes that failed and were requeued */
+  public long getWriteBehindErrors() {
+    return wbErrors.get();
+  }
+
+  /** Periodically writes queued changes */
+  private class WriteBehindRunner extends LockssRunnable {
+    static final String PRIORITY_PARAM_WRITE_BEHIND = "StateWriteBehind";
+    static final int PRIORITY_DEFAULT_WRITE_BEHIND = Thread.NORM_PRIORITY;
+
+    private volatile boolean goOn = true;
+
+    WriteBehindRunner() {
+      super("StateWriteBehind");
+    }
+
+    public void lockssRun() {
+      setPriority(PRIORITY_PARAM_WRITE_BEHIND, PRIORITY_DEFAULT_WRITE_BEHIND);
+      nowRunning();
+      while (goOn) {
+	try {
+	  Thread.sleep(wbInterval);
+	} catch (InterruptedException e) {
+	  // Just wake up and check for exit
+	}
+	try {
+	  flushWriteBehind();
+	} catch (RuntimeException e) {
+	  log.error("Unexpected error writing state", e);
+	}
+      }
+    }
+
+    void stopRunner() {
+      goOn = false;
+      interruptThread();
+    }
+  }
+
+  /** Summary of write-behind activity */
+  class WriteBehindStatus implements StatusAccessor {
+
+    public String getDisplayName() {
+      return "State Write-Behind";
+    }
+
+    public boolean requiresKey() {
+      return false;
+    }
+
+    public void populateTable(StatusTable table) {
+      List<StatusTable.SummaryInfo> res = new ArrayList<>();
+      res.add(new StatusTable.SummaryInfo("Enabled",
+					  ColumnDescriptor.TYPE_STRING,
+					  isWriteBehind() ? "Yes" : "No"));
+      long changes = getWriteBehindChanges();
+      long writes = getWriteBehindWrites();
+      long flushes = getWriteBehindFlushes();
+      res.add(new StatusTable.SummaryInfo("Pending",
+					  ColumnDescriptor.TYPE_INT,
+					  getWriteBehindPending()));
+      res.add(new StatusTable.SummaryInfo("Changes",
+					  ColumnDescriptor.TYPE_INT,
+					  changes));
+      res.add(new StatusTable.SummaryInfo("Objects written",
+					  ColumnDescriptor.TYPE_INT,
+					  writes));
+      if (writes > 0) {
+	res.add(new StatusTable.SummaryInfo("Coalescing ratio",
+					    ColumnDescriptor.TYPE_FLOAT,
+					    (double)changes / (double)writes));
+      }
+      res.add(new StatusTable.SummaryInfo("Transactions",
+					  ColumnDescriptor.TYPE_INT,
+					  flushes));
+      if (flushes > 0) {
+	res.add(new StatusTable.SummaryInfo("Avg write time",
+					    ColumnDescriptor.TYPE_TIME_INTERVAL,
+					    getWriteBehindFlushTime() / flushes));
+      }
+      res.add(new StatusTable.SummaryInfo("Max write time",
+					  ColumnDescriptor.TYPE_TIME_INTERVAL,
+					  getWriteBehindMaxFlushTime()));
+      res.add(new StatusTable.SummaryInfo("Failed writes",
+					  ColumnDescriptor.TYPE_INT,
+					  getWriteBehindErrors()));
+      table.setSummaryInfo(res);
+    }
+  }
+
   /**
    * Provides the StateStore to use to load and store state objects in
    * persistent store.  Currently creates a DbStateManagerSql, overriden in
@@ -202,6 +202,23 @@ public interface StateManager extends LockssManager {
   public boolean hasNoAuPeerSet(String key);
 
 
+  /** Hint that the state objects of the AUs will soon be needed, so that
+   * implementations that load them from a remote service may load them in
+   * bulk.  By default does nothing.
+   * @param keys the auids
+   */
+  default public void prefetchState(Collection<String> keys) {
+  }
+
+  /** Hint that the AUs, whose state may have been prefetched by {@link
+   * #prefetchState(Collection)}, weren't started, so their prefetched
+   * state needn't be kept.  By default does nothing.
+   * @param keys the auids
+   */
+  default public void discardPrefetchedState(Collection<String> keys) {
+  }
+
+
   /** Load/store exception.  Clients of AuState aren't prepared for checked
    * exceptions; this is used to turn them into RuntimeExceptions */
   public static class StateLoadStoreException extends RuntimeException {
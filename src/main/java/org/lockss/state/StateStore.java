@@ -87,6 +87,42 @@ public interface StateStore {
 				 Set<PeerIdentity> peers)
       throws StoreException;
 
+  /**
+   * Stores the complete AuStateBeans of several AUs.  Implementations
+   * should do so in a single transaction if they can; the default stores
+   * them one at a time.  There's no field set: all fields of each bean
+   * are written.
+   *
+   * @param ausbs
+   *          A Map from auid to the AuStateBean to store.
+   * @throws StoreException
+   *           if any problem occurred accessing the store.
+   */
+  public default void updateArchivalUnitStates(Map<String,AuStateBean> ausbs)
+      throws StoreException {
+    for (Map.Entry<String,AuStateBean> ent : ausbs.entrySet()) {
+      updateArchivalUnitState(ent.getKey(), ent.getValue(), null);
+    }
+  }
+
+  /**
+   * Stores the complete AuAgreements of several AUs.  Implementations
+   * should do so in a single transaction if they can; the default stores
+   * them one at a time.  There's no peer set: all agreements of each AU
+   * are written.
+   *
+   * @param auas
+   *          A Map from auid to the AuAgreements to store.
+   * @throws StoreException
+   *           if any problem occurred accessing the store.
+   */
+  public default void updateAllAuAgreements(Map<String,AuAgreements> auas)
+      throws StoreException {
+    for (Map.Entry<String,AuAgreements> ent : auas.entrySet()) {
+      updateAuAgreements(ent.getKey(), ent.getValue(), null);
+    }
+  }
+
   /**
    * Provides the AuSuspectUrlVersions associated with the key (an AUID).
    * 
@@ -0,0 +1,660 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.truezip;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.lockss.util.*;
+
+/**
+ * Index of the members of a zip or tar archive, recording where each
+ * member's data lies in the archive, so that a single member can be read
+ * by skipping directly to it in a stream of the archive's content,
+ * without first copying the whole archive into a {@link TFileCache}.
+ *
+ * A zip index is built from the archive's central directory, which is
+ * read from the end of the archive; a tar index requires one sequential
+ * pass over the headers, skipping member data.  Archives and members the
+ * index can't handle (compressed tars, zip64, split or self-extracting
+ * zips, encrypted or unusually compressed members, links, directories)
+ * are simply absent from the index, and must be accessed through the
+ * TFileCache.
+ */
+public class ArchiveMemberIndex {
+  private static final Logger log = Logger.getLogger();
+
+  static final int FILE_MAGIC = 0x414d4958;	// "AMIX"
+  static final int FILE_VERSION = 1;
+
+  static final int METHOD_STORED = 0;
+  static final int METHOD_DEFLATED = 8;
+
+  static final int ZIP_LOC_SIG = 0x04034b50;
+  static final int ZIP_CEN_SIG = 0x02014b50;
+  static final int ZIP_END_SIG = 0x06054b50;
+  static final int ZIP_LOC_HDR_LEN = 30;
+  static final int ZIP_CEN_HDR_LEN = 46;
+  static final int ZIP_END_HDR_LEN = 22;
+  static final int ZIP_MAX_COMMENT_LEN = 0xffff;
+  // Central directories larger than this aren't indexed
+  static final int ZIP_MAX_CEN_LEN = 64 * 1024 * 1024;
+
+  static final int TAR_BLOCK = 512;
+
+  static final Charset ZIP_DEFAULT_CHARSET = Charset.forName("IBM437");
+
+  /** Archive formats that can be indexed */
+  public enum Format {ZIP, TAR}
+
+  /** Supplies streams of an archive's content.  Each call to {@link
+   * #open()} must return a new stream positioned at the start of the same
+   * content. */
+  public interface Source {
+    InputStream open() throws IOException;
+    long length();
+  }
+
+  /** Location and attributes of one archive member */
+  public static class Member {
+    final String name;
+    // zip: offset of local header; tar: offset of data
+    final long offset;
+    final long compSize;
+    final long size;
+    final int method;
+    final long lastModified;
+
+    Member(String name, long offset, long compSize, long size,
+	   int method, long lastModified) {
+      this.name = name;
+      this.offset = offset;
+      this.compSize = compSize;
+      this.size = size;
+      this.method = method;
+      this.lastModified = lastModified;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Uncompressed size of the member */
+    public long getSize() {
+      return size;
+    }
+
+    /** Modification time of the member, or 0 if unknown */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public String toString() {
+      return "[Member: " + name + ", off: " + offset + ", size: " + size + "]";
+    }
+  }
+
+  private final String key;
+  private final Format format;
+  private final Map<String,Member> members;
+
+  ArchiveMemberIndex(String key, Format format, Map<String,Member> members) {
+    this.key = key;
+    this.format = format;
+    this.members = members;
+  }
+
+  /** Return the indexable format corresponding to an archive file
+   * extension, or null if archives of that type can't be indexed.
+   * @param ext extension, as returned by {@link
+   * org.lockss.plugin.ArchiveFileTypes#getArchiveExtension(CachedUrl)} */
+  public static Format getFormat(String ext) {
+    if (ext == null) {
+      return null;
+    }
+    if (ext.equalsIgnoreCase(".zip")) {
+      return Format.ZIP;
+    }
+    if (ext.equalsIgnoreCase(".tar")) {
+      return Format.TAR;
+    }
+    return null;
+  }
+
+  /** Build an index of the archive's members.
+   * @param key identifies the archive version being indexed
+   * @param format the archive's format
+   * @param src supplies the archive's content
+   * @return the index, or null if the archive can't be indexed
+   * @throws IOException if the archive content can't be read or is
+   * malformed
+   */
+  public static ArchiveMemberIndex build(String key, Format format,
+					 Source src)
+      throws IOException {
+    Map<String,Member> map;
+    switch (format) {
+    case ZIP:
+      map = buildZip(src);
+      break;
+    case TAR:
+      map = buildTar(src);
+      break;
+    default:
+      map = null;
+    }
+    if (map == null) {
+      return null;
+    }
+    return new ArchiveMemberIndex(key, format, map);
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /** Number of indexed members */
+  public int size() {
+    return members.size();
+  }
+
+  /** Return the named member, or null if it isn't in the index */
+  public Member getMember(String name) {
+    return members.get(normalizeName(name));
+  }
+
+  /** Open a stream on the member's (uncompressed) content.
+   * @param src supplies the content of the archive from which the index
+   * was built
+   * @param memb the member to open
+   */
+  public InputStream openMember(Source src, Member memb) throws IOException {
+    InputStream in = src.open();
+    boolean ok = false;
+    try {
+      long dataOff = memb.offset;
+      if (format == Format.ZIP) {
+	IOUtils.skipFully(in, memb.offset);
+	byte[] loc = new byte[ZIP_LOC_HDR_LEN];
+	IOUtils.readFully(in, loc);
+	if (getInt(loc, 0) != ZIP_LOC_SIG) {
+	  throw new ZipException("Bad local header signature at " +
+				 memb.offset + " for " + memb.name);
+	}
+	dataOff = getShort(loc, 26) + getShort(loc, 28);
+      }
+      IOUtils.skipFully(in, dataOff);
+      InputStream res = new BoundedInputStream(in, memb.compSize);
+      if (memb.method == METHOD_DEFLATED) {
+	res = new MemberInflaterInputStream(res);
+      }
+      ok = true;
+      return res;
+    } finally {
+      if (!ok) {
+	IOUtil.safeClose(in);
+      }
+    }
+  }
+
+  /** Inflates raw deflate data, releasing the Inflater when closed */
+  static class MemberInflaterInputStream extends InflaterInputStream {
+    private boolean closed = false;
+
+    MemberInflaterInputStream(InputStream in) {
+      super(in, new Inflater(true));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+	closed = true;
+	inf.end();
+	super.close();
+      }
+    }
+  }
+
+  // Zip
+
+  static Map<String,Member> buildZip(Source src) throws IOException {
+    long len = src.length();
+    if (len < ZIP_END_HDR_LEN) {
+      log.debug2("Too short to be a zip");
+      return null;
+    }
+    // Check that the archive begins with a local header (or is empty);
+    // others (spanned, self-extracting) are left to TrueZip
+    byte[] head = new byte[4];
+    InputStream in = src.open();
+    try {
+      IOUtils.readFully(in, head);
+    } finally {
+      IOUtil.safeClose(in);
+    }
+    int sig = getInt(head, 0);
+    if (sig != ZIP_LOC_SIG && sig != ZIP_END_SIG) {
+      log.debug2("Not a simple zip, sig: " + Integer.toHexString(sig));
+      return null;
+    }
+    // Read the tail, which contains the end record and (usually) the
+    // central directory
+    int tailLen = (int)Math.min(len, ZIP_END_HDR_LEN + ZIP_MAX_COMMENT_LEN);
+    long tailOff = len - tailLen;
+    byte[] tail = new byte[tailLen];
+    in = src.open();
+    try {
+      IOUtils.skipFully(in, tailOff);
+      IOUtils.readFully(in, tail);
+    } finally {
+      IOUtil.safeClose(in);
+    }
+    int endPos = -1;
+    for (int ix = tailLen - ZIP_END_HDR_LEN; ix >= 0; ix--) {
+      if (getInt(tail, ix) == ZIP_END_SIG
+	  && ix + ZIP_END_HDR_LEN + getShort(tail, ix + 20) == tailLen) {
+	endPos = ix;
+	break;
+      }
+    }
+    if (endPos < 0) {
+      log.debug2("No zip end record");
+      return null;
+    }
+    int thisDisk = getShort(tail, endPos + 4);
+    int cenDisk = getShort(tail, endPos + 6);
+    int nDiskEntries = getShort(tail, endPos + 8);
+    int nEntries = getShort(tail, endPos + 10);
+    long cenLen = getUInt(tail, endPos + 12);
+    long cenOff = getUInt(tail, endPos + 16);
+    if (thisDisk != 0 || cenDisk != 0 || nDiskEntries != nEntries) {
+      log.debug2("Multi-disk zip");
+      return null;
+    }
+    if (nEntries == 0xffff || cenLen == 0xffffffffL || cenOff == 0xffffffffL) {
+      log.debug2("Zip64");
+      return null;
+    }
+    if (cenOff + cenLen != tailOff + endPos || cenLen > ZIP_MAX_CEN_LEN) {
+      // Prepended data would make recorded offsets wrong
+      log.debug2("Zip central directory not where expected");
+      return null;
+    }
+    byte[] cen;
+    int cenPos;
+    if (cenOff >= tailOff) {
+      cen = tail;
+      cenPos = (int)(cenOff - tailOff);
+    } else {
+      cen = new byte[(int)cenLen];
+      cenPos = 0;
+      in = src.open();
+      try {
+	IOUtils.skipFully(in, cenOff);
+	IOUtils.readFully(in, cen);
+      } finally {
+	IOUtil.safeClose(in);
+      }
+    }
+    Map<String,Member> res = new HashMap<String,Member>(nEntries * 4 / 3 + 1);
+    for (int ix = 0; ix < nEntries; ix++) {
+      if (cenPos + ZIP_CEN_HDR_LEN > cen.length
+	  || getInt(cen, cenPos) != ZIP_CEN_SIG) {
+	throw new ZipException("Bad central directory entry " + ix);
+      }
+      int flags = getShort(cen, cenPos + 8);
+      int method = getShort(cen, cenPos + 10);
+      int dosTime = getShort(cen, cenPos + 12);
+      int dosDate = getShort(cen, cenPos + 14);
+      long compSize = getUInt(cen, cenPos + 20);
+      long size = getUInt(cen, cenPos + 24);
+      int nameLen = getShort(cen, cenPos + 28);
+      int extraLen = getShort(cen, cenPos + 30);
+      int commentLen = getShort(cen, cenPos + 32);
+      long locOff = getUInt(cen, cenPos + 42);
+      int namePos = cenPos + ZIP_CEN_HDR_LEN;
+      if (namePos + nameLen > cen.length) {
+	throw new ZipException("Truncated central directory entry " + ix);
+      }
+      Charset cs = (flags & 0x800) != 0
+	? StandardCharsets.UTF_8 : ZIP_DEFAULT_CHARSET;
+      String name = new String(cen, namePos, nameLen, cs);
+      cenPos = namePos + nameLen + extraLen + commentLen;
+      if (name.endsWith("/")
+	  || (flags & 1) != 0
+	  || (method != METHOD_STORED && method != METHOD_DEFLATED)) {
+	// Directory, encrypted or unsupported compression
+	continue;
+      }
+      name = normalizeName(name);
+      res.put(name, new Member(name, locOff, compSize, size, method,
+			       dosToJavaTime(dosDate, dosTime)));
+    }
+    return res;
+  }
+
+  /** Convert MS-DOS date and time, which are in local time, to Java time */
+  static long dosToJavaTime(int dosDate, int dosTime) {
+    Calendar cal = Calendar.getInstance();
+    cal.clear();
+    cal.set(1980 + ((dosDate >> 9) & 0x7f),
+	    ((dosDate >> 5) & 0x0f) - 1,
+	    dosDate & 0x1f,
+	    (dosTime >> 11) & 0x1f,
+	    (dosTime >> 5) & 0x3f,
+	    (dosTime << 1) & 0x3e);
+    return cal.getTimeInMillis();
+  }
+
+  // Tar
+
+  static Map<String,Member> buildTar(Source src) throws IOException {
+    Map<String,Member> res = new HashMap<String,Member>();
+    byte[] hdr = new byte[TAR_BLOCK];
+    InputStream in = new BufferedInputStream(src.open());
+    try {
+      long pos = 0;
+      String longName = null;
+      Map<String,String> pax = null;
+      while (true) {
+	int n = StreamUtil.readBytes(in, hdr, TAR_BLOCK);
+	if (n == 0) {
+	  break;
+	}
+	if (n < TAR_BLOCK) {
+	  throw new EOFException("Truncated tar header at " + pos);
+	}
+	pos += TAR_BLOCK;
+	if (isZeroBlock(hdr)) {
+	  // End of archive
+	  break;
+	}
+	if (!isTarChecksumValid(hdr)) {
+	  if (pos == TAR_BLOCK) {
+	    log.debug2("Not a tar");
+	    return null;
+	  }
+	  throw new IOException("Bad tar header checksum at " + (pos - TAR_BLOCK));
+	}
+	long size = parseTarNumber(hdr, 124, 12);
+	long mtime = parseTarNumber(hdr, 136, 12);
+	byte type = hdr[156];
+	long dataPos = pos;
+	switch (type) {
+	case 'L':			// GNU long name
+	  longName = readTarString(in, size);
+	  break;
+	case 'x':			// pax extended header
+	  pax = parsePax(readTarString(in, size));
+	  break;
+	case '0':
+	case '\0':
+	case '7':
+	  String name = longName;
+	  if (name == null) {
+	    name = getTarString(hdr, 0, 100);
+	    if (hdr[257] == 'u' && hdr[258] == 's' && hdr[259] == 't'
+		&& hdr[260] == 'a' && hdr[261] == 'r'
+		&& hdr[345] != 0) {
+	      name = getTarString(hdr, 345, 155) + "/" + name;
+	    }
+	  }
+	  if (pax != null) {
+	    if (pax.containsKey("path")) {
+	      name = pax.get("path");
+	    }
+	    if (pax.containsKey("size")) {
+	      size = Long.parseLong(pax.get("size"));
+	    }
+	    if (pax.containsKey("mtime")) {
+	      mtime = (long)Double.parseDouble(pax.get("mtime"));
+	    }
+	  }
+	  if (!name.endsWith("/")) {
+	    name = normalizeName(name);
+	    res.put(name, new Member(name, dataPos, size, size, METHOD_STORED,
+				     mtime * 1000));
+	  }
+	  IOUtils.skipFully(in, size);
+	  longName = null;
+	  pax = null;
+	  break;
+	default:
+	  // Directories, links, global headers, etc.
+	  IOUtils.skipFully(in, size);
+	  longName = null;
+	  pax = null;
+	}
+	long padded = roundUpToBlock(size);
+	IOUtils.skipFully(in, padded - size);
+	pos = dataPos + padded;
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed tar header", e);
+    } finally {
+      IOUtil.safeClose(in);
+    }
+    return res;
+  }
+
+  static long roundUpToBlock(long size) {
+    return (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+  }
+
+  static boolean isZeroBlock(byte[] hdr) {
+    for (byte b : hdr) {
+      if (b != 0) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean isTarChecksumValid(byte[] hdr) {
+    long stored;
+    try {
+      stored = parseTarNumber(hdr, 148, 8);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    long unsigned = 0;
+    long signed = 0;
+    for (int ix = 0; ix < TAR_BLOCK; ix++) {
+      byte b = (ix >= 148 && ix < 156) ? (byte)' ' : hdr[ix];
+      unsigned += b & 0xff;
+      signed += b;
+    }
+    return stored == unsigned || stored == signed;
+  }
+
+  /** Parse a tar numeric field: NUL- or space-terminated octal, or
+   * big-endian binary if the high bit of the first byte is set */
+  static long parseTarNumber(byte[] hdr, int off, int len) {
+    if ((hdr[off] & 0x80) != 0) {
+      long res = hdr[off] & 0x7f;
+      for (int ix = 1; ix < len; ix++) {
+	res = (res << 8) | (hdr[off + ix] & 0xff);
+      }
+      return res;
+    }
+    long res = 0;
+    int end = off + len;
+    int ix = off;
+    while (ix < end && (hdr[ix] == ' ' || hdr[ix] == 0)) {
+      ix++;
+    }
+    for (; ix < end; ix++) {
+      byte b = hdr[ix];
+      if (b == 0 || b == ' ') {
+	break;
+      }
+      if (b < '0' || b > '7') {
+	throw new NumberFormatException("Bad octal digit in tar header: " + b);
+      }
+      res = (res << 3) + (b - '0');
+    }
+    return res;
+  }
+
+  static String getTarString(byte[] hdr, int off, int len) {
+    int end = off;
+    while (end < off + len && hdr[end] != 0) {
+      end++;
+    }
+    return new String(hdr, off, end - off, StandardCharsets.UTF_8);
+  }
+
+  static String readTarString(InputStream in, long size) throws IOException {
+    if (size > ZIP_MAX_CEN_LEN) {
+      throw new IOException("Unreasonably large tar extended header: " + size);
+    }
+    byte[] buf = new byte[(int)size];
+    IOUtils.readFully(in, buf);
+    int end = 0;
+    while (end < buf.length && buf[end] != 0) {
+      end++;
+    }
+    return new String(buf, 0, end, StandardCharsets.UTF_8);
+  }
+
+  /** Parse pax records ("<len> <key>=<value>\n") */
+  static Map<String,String> parsePax(String s) {
+    Map<String,String> res = new HashMap<String,String>();
+    int pos = 0;
+    while (pos < s.length()) {
+      int sp = s.indexOf(' ', pos);
+      if (sp < 0) {
+	break;
+      }
+      int recLen = Integer.parseInt(s.substring(pos, sp));
+      int end = pos + recLen;
+      if (recLen <= 0 || end > s.length()) {
+	break;
+      }
+      String rec = s.substring(sp + 1, end - 1);
+      int eq = rec.indexOf('=');
+      if (eq > 0) {
+	res.put(rec.substring(0, eq), rec.substring(eq + 1));
+      }
+      pos = end;
+    }
+    return res;
+  }
+
+  /** Remove any leading slashes or ./ components, which TrueZip
+   * ignores */
+  static String normalizeName(String name) {
+    while (true) {
+      if (name.startsWith("/")) {
+	name = name.substring(1);
+      } else if (name.startsWith("./")) {
+	name = name.substring(2);
+      } else {
+	return name;
+      }
+    }
+  }
+
+  static int getShort(byte[] b, int off) {
+    return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+  }
+
+  static int getInt(byte[] b, int off) {
+    return getShort(b, off) | (getShort(b, off + 2) << 16);
+  }
+
+  static long getUInt(byte[] b, int off) {
+    return getInt(b, off) & 0xffffffffL;
+  }
+
+  // Persistence
+
+  /** Write the index to a stream */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(FILE_MAGIC);
+    out.writeInt(FILE_VERSION);
+    out.writeUTF(key);
+    out.writeUTF(format.name());
+    out.writeInt(members.size());
+    for (Member memb : members.values()) {
+      out.writeUTF(memb.name);
+      out.writeLong(memb.offset);
+      out.writeLong(memb.compSize);
+      out.writeLong(memb.size);
+      out.writeShort(memb.method);
+      out.writeLong(memb.lastModified);
+    }
+  }
+
+  /** Read an index previously written by {@link
+   * #writeTo(DataOutputStream)}.
+   * @param in the stream
+   * @param expectedKey the key the index must have
+   * @throws IOException if the stream doesn't contain an index with the
+   * expected key
+   */
+  public static ArchiveMemberIndex readFrom(DataInputStream in,
+					    String expectedKey)
+      throws IOException {
+    if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+      throw new IOException("Unknown member index file format");
+    }
+    String key = in.readUTF();
+    if (!key.equals(expectedKey)) {
+      throw new IOException("Member index is for a different archive: " + key);
+    }
+    Format format;
+    try {
+      format = Format.valueOf(in.readUTF());
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Unknown archive format in member index", e);
+    }
+    int n = in.readInt();
+    Map<String,Member> map = new HashMap<String,Member>(n * 4 / 3 + 1);
+    for (int ix = 0; ix < n; ix++) {
+      String name = in.readUTF();
+      map.put(name, new Member(name, in.readLong(), in.readLong(),
+			       in.readLong(), in.readShort(), in.readLong()));
+    }
+    return new ArchiveMemberIndex(key, format, map);
+  }
+
+  public String toString() {
+    return "[ArchiveMemberIndex: " + key + ", " + format + ", " +
+      members.size() + " members]";
+  }
+}
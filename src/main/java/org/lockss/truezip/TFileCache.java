@@ -183,6 +183,18 @@ public class TFileCache {
 // 		  "Expires"
 		  );
 
+  /** Return the subset of an archive CU's properties that should be
+   * inherited by its members */
+  public static CIProperties getInheritedProps(CIProperties cuProps) {
+    CIProperties res = new CIProperties();
+    for (String key : INHERIT_PROP_KEYS) {
+      if (cuProps.containsKey(key)) {
+	res.put(key, cuProps.get(key));
+      }
+    }
+    return res;
+  }
+
   void handleSplitZipArchive(TFile tf, CachedUrl cu, InputStream zipIs,
                              long digits) throws IOException {
     String prefix = "splitzip.";
@@ -398,16 +410,7 @@ public class TFileCache {
       }
 
       // Set properties
-      CIProperties cuProps = cu.getProperties();
-      CIProperties arcProps = new CIProperties();
-
-      for (String key : INHERIT_PROP_KEYS) {
-        if (cuProps.containsKey(key)) {
-          arcProps.put(key, cuProps.get(key));
-        }
-
-        ent.arcCuProps = arcProps;
-      }
+      ent.arcCuProps = getInheritedProps(cu.getProperties());
 
       ent.valid = true;
 
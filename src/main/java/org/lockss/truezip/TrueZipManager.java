@@ -32,8 +32,11 @@ package org.lockss.truezip;
 
 import java.io.*;
 import java.util.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 
+import org.apache.commons.collections.map.LRUMap;
 import de.schlichtherle.truezip.file.*;
 import de.schlichtherle.truezip.fs.FsSyncException;
 
@@ -44,7 +47,9 @@ import org.lockss.util.*;
 import org.lockss.util.io.FileUtil;
 import org.lockss.config.*;
 
-/** Sets global TrueZip config, manages a TFileCache instance
+/** Sets global TrueZip config, manages a TFileCache instance and the
+ * {@link ArchiveMemberIndex}es used to read archive members without
+ * copying the archive into the TFileCache.
  */
 public class TrueZipManager extends BaseLockssManager
   implements ConfigurableManager  {
@@ -68,6 +73,32 @@ public class TrueZipManager extends BaseLockssManager
     PREFIX + "cacheMaxFiles";
   public static final int DEFAULT_CACHE_MAX_FILES = 100;
 
+  /** If true, archive members are read directly from the stored archive
+   * using an index of the archive's members, when possible.  Archives
+   * that can't be indexed are still copied into the TFile cache. */
+  public static final String PARAM_MEMBER_INDEX_ENABLED =
+    PREFIX + "memberIndex.enabled";
+  public static final boolean DEFAULT_MEMBER_INDEX_ENABLED = true;
+
+  /** Absolute path, or path relative to the first platform disk, of the
+   * directory in which archive member indices are saved.  If empty, or
+   * if the directory can't be found, indices are kept only in memory. */
+  public static final String PARAM_MEMBER_INDEX_DIR =
+    PREFIX + "memberIndex.dir";
+  public static final String DEFAULT_MEMBER_INDEX_DIR = "memberindex";
+
+  /** Maximum number of archive member indices kept in memory */
+  public static final String PARAM_MEMBER_INDEX_CACHE_SIZE =
+    PREFIX + "memberIndex.cacheSize";
+  public static final int DEFAULT_MEMBER_INDEX_CACHE_SIZE = 100;
+
+  static final String MEMBER_INDEX_FILE_SUFFIX = ".amidx";
+
+  // Cached for archives that can't be indexed, so they aren't reexamined
+  static final ArchiveMemberIndex UNINDEXABLE =
+    new ArchiveMemberIndex(null, null,
+			   Collections.<String,ArchiveMemberIndex.Member>emptyMap());
+
   // Hack for testing
   private static File tempDir = null;
 
@@ -78,6 +109,16 @@ public class TrueZipManager extends BaseLockssManager
   String cacheDir;
   TFileCache tfc;
 
+  boolean memberIndexEnabled = DEFAULT_MEMBER_INDEX_ENABLED;
+  String memberIndexDirName = DEFAULT_MEMBER_INDEX_DIR;
+  File memberIndexDir;
+  LRUMap memberIndices = new LRUMap(DEFAULT_MEMBER_INDEX_CACHE_SIZE);
+
+  // Statistics
+  int numIndicesBuilt;
+  int numIndicesLoaded;
+  int numUnindexable;
+
   public void startService() {
     super.startService();
     TConfig config = TConfig.get();
@@ -114,6 +155,24 @@ public class TrueZipManager extends BaseLockssManager
       int maxFiles = config.getInt(PARAM_CACHE_MAX_FILES,
 				   DEFAULT_CACHE_MAX_FILES);
       tfc.setMaxSize(maxMb * 1024 * 1024, maxFiles);
+
+      memberIndexEnabled = config.getBoolean(PARAM_MEMBER_INDEX_ENABLED,
+					     DEFAULT_MEMBER_INDEX_ENABLED);
+      String dirName = config.get(PARAM_MEMBER_INDEX_DIR,
+				  DEFAULT_MEMBER_INDEX_DIR);
+      if (!StringUtil.equalStrings(dirName, memberIndexDirName)) {
+	memberIndexDirName = dirName;
+	memberIndexDir = null;
+      }
+      int cacheSize = config.getInt(PARAM_MEMBER_INDEX_CACHE_SIZE,
+				    DEFAULT_MEMBER_INDEX_CACHE_SIZE);
+      synchronized (memberIndices) {
+	if (cacheSize != memberIndices.maxSize()) {
+	  LRUMap newMap = new LRUMap(cacheSize);
+	  newMap.putAll(memberIndices);
+	  memberIndices = newMap;
+	}
+      }
     }
   }
 
@@ -168,4 +227,227 @@ public class TrueZipManager extends BaseLockssManager
       throws FsSyncException {
     getTFileCache().markArchiveAsFlushable(tf, cu);
   }
+
+  // Archive member indices
+
+  /** Return the member index for the current version of an archive CU,
+   * loading it from disk or building it if necessary.
+   * @param arcCu the archive CU
+   * @return the index, or null if member indices are disabled or the
+   * archive can't be indexed, in which case the TFileCache must be used
+   */
+  public ArchiveMemberIndex getMemberIndex(CachedUrl arcCu) {
+    if (!memberIndexEnabled) {
+      return null;
+    }
+    ArchiveMemberIndex.Format format =
+      ArchiveMemberIndex.getFormat(ArchiveFileTypes.getArchiveExtension(arcCu));
+    if (format == null || !arcCu.hasContent()) {
+      return null;
+    }
+    String key = getMemberIndexKey(arcCu);
+    ArchiveMemberIndex index;
+    LRUMap map = memberIndices;
+    synchronized (map) {
+      index = (ArchiveMemberIndex)map.get(key);
+    }
+    if (index == null) {
+      index = loadMemberIndex(key);
+      if (index == null) {
+	index = buildMemberIndex(key, format, arcCu);
+      }
+      synchronized (map) {
+	map.put(key, index);
+      }
+    }
+    return index == UNINDEXABLE ? null : index;
+  }
+
+  /** Return a Source that reads the version of the archive CU from which
+   * its member index was built */
+  public ArchiveMemberIndex.Source getMemberIndexSource(CachedUrl arcCu) {
+    return new CuSource(arcCu);
+  }
+
+  String getMemberIndexKey(CachedUrl arcCu) {
+    return arcCu.getArchivalUnit().getAuId() + "|" + arcCu.getUrl() + "|" +
+      arcCu.getVersion();
+  }
+
+  ArchiveMemberIndex buildMemberIndex(String key,
+				      ArchiveMemberIndex.Format format,
+				      CachedUrl arcCu) {
+    try {
+      ArchiveMemberIndex index =
+	ArchiveMemberIndex.build(key, format, new CuSource(arcCu));
+      if (index == null) {
+	log.debug("Can't index archive members, using TFileCache: " + arcCu);
+	numUnindexable++;
+	return UNINDEXABLE;
+      }
+      numIndicesBuilt++;
+      log.debug2("Built " + index);
+      saveMemberIndex(index);
+      return index;
+    } catch (IOException | RuntimeException e) {
+      log.warning("Couldn't index archive members, using TFileCache: " +
+		  arcCu, e);
+      numUnindexable++;
+      return UNINDEXABLE;
+    }
+  }
+
+  File getMemberIndexDir() {
+    if (memberIndexDir == null
+	&& !StringUtil.isNullString(memberIndexDirName)) {
+      try {
+	memberIndexDir = ConfigManager.getConfigManager()
+	  .findConfiguredDataDir(PARAM_MEMBER_INDEX_DIR,
+				 DEFAULT_MEMBER_INDEX_DIR);
+      } catch (RuntimeException e) {
+	log.warning("Not saving archive member indices: " + e.getMessage());
+	memberIndexDirName = null;
+      }
+    }
+    return memberIndexDir;
+  }
+
+  File getMemberIndexFile(String key) {
+    File dir = getMemberIndexDir();
+    if (dir == null) {
+      return null;
+    }
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      byte[] digest = md5.digest(key.getBytes(StandardCharsets.UTF_8));
+      return new File(dir, new BigInteger(1, digest).toString(16) +
+		      MEMBER_INDEX_FILE_SUFFIX);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void saveMemberIndex(ArchiveMemberIndex index) {
+    File file = getMemberIndexFile(index.getKey());
+    if (file == null) {
+      return;
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      index.writeTo(out);
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+	file.delete();
+	if (!tmp.renameTo(file)) {
+	  throw new IOException("Couldn't rename " + tmp + " to " + file);
+	}
+      }
+    } catch (IOException e) {
+      log.warning("Couldn't save archive member index: " + index.getKey(), e);
+      tmp.delete();
+    } finally {
+      IOUtil.safeClose(out);
+    }
+  }
+
+  ArchiveMemberIndex loadMemberIndex(String key) {
+    File file = getMemberIndexFile(key);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      ArchiveMemberIndex index = ArchiveMemberIndex.readFrom(in, key);
+      numIndicesLoaded++;
+      return index;
+    } catch (IOException e) {
+      log.warning("Couldn't load archive member index, will rebuild: " +
+		  file, e);
+      file.delete();
+      return null;
+    } finally {
+      IOUtil.safeClose(in);
+    }
+  }
+
+  public int getNumMemberIndicesBuilt() {
+    return numIndicesBuilt;
+  }
+
+  public int getNumMemberIndicesLoaded() {
+    return numIndicesLoaded;
+  }
+
+  public int getNumUnindexableArchives() {
+    return numUnindexable;
+  }
+
+  /** Reads a specific version of an archive CU.  Each stream is obtained
+   * from a new CU so that several may be open at once. */
+  static class CuSource implements ArchiveMemberIndex.Source {
+    private final ArchivalUnit au;
+    private final String url;
+    private final int version;
+    private final long length;
+
+    CuSource(CachedUrl cu) {
+      this.au = cu.getArchivalUnit();
+      this.url = cu.getUrl();
+      this.version = cu.getVersion();
+      this.length = cu.getContentSize();
+    }
+
+    /** The returned stream releases the CachedUrl(s) when closed */
+    public InputStream open() throws IOException {
+      final CachedUrl cu = au.makeCachedUrl(url);
+      CachedUrl verCu = cu;
+      InputStream in = null;
+      try {
+	if (cu.getVersion() != version) {
+	  verCu = cu.getCuVersion(version);
+	}
+	in = verCu.getUnfilteredInputStream();
+	if (in == null) {
+	  throw new IOException("Archive has no content: " + url +
+				", version " + version);
+	}
+      } finally {
+	if (in == null) {
+	  release(cu, verCu);
+	}
+      }
+      final CachedUrl relCu = verCu;
+      return new FilterInputStream(in) {
+	private boolean closed = false;
+
+	@Override
+	public void close() throws IOException {
+	  if (closed) {
+	    return;
+	  }
+	  closed = true;
+	  try {
+	    super.close();
+	  } finally {
+	    release(cu, relCu);
+	  }
+	}
+      };
+    }
+
+    private static void release(CachedUrl cu, CachedUrl verCu) {
+      AuUtil.safeRelease(cu);
+      if (verCu != cu) {
+	AuUtil.safeRelease(verCu);
+      }
+    }
+
+    public long length() {
+      return length;
+    }
+  }
 }
@@ -0,0 +1,184 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.util;
+
+import java.io.*;
+
+/**
+ * A Bloom filter of strings.  Membership tests never return a false
+ * negative; the false positive rate depends on the number of bits per
+ * entry (about 1% at 10 bits/entry, 0.1% at 15).  Entries can't be
+ * removed.  Hash positions are derived from a 64-bit FNV-1a hash of the
+ * string's chars by double hashing.  {@link #add(String)} is
+ * synchronized; {@link #mightContain(String)} isn't, so may fail to see
+ * an entry added concurrently by another thread.
+ */
+public class BloomFilter {
+  static final int SERIAL_VERSION = 1;
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashes;
+  private int numEntries;
+
+  /**
+   * Create a filter sized for the expected number of entries.
+   * @param expectedEntries number of entries expected to be added
+   * @param bitsPerEntry bits to allocate per expected entry
+   */
+  public BloomFilter(int expectedEntries, int bitsPerEntry) {
+    if (bitsPerEntry < 1) {
+      throw new IllegalArgumentException("bitsPerEntry must be positive: " +
+					 bitsPerEntry);
+    }
+    long nbits = Math.max(64, (long)Math.max(1, expectedEntries) * bitsPerEntry);
+    int words = (int)Math.min(Integer.MAX_VALUE - 8, (nbits + 63) / 64);
+    this.bits = new long[words];
+    this.numBits = (long)words * 64;
+    // Optimal number of hashes is (bits/entry) * ln 2
+    this.numHashes = Math.max(1, (int)Math.round(bitsPerEntry * Math.log(2)));
+  }
+
+  private BloomFilter(long[] bits, int numHashes, int numEntries) {
+    this.bits = bits;
+    this.numBits = (long)bits.length * 64;
+    this.numHashes = numHashes;
+    this.numEntries = numEntries;
+  }
+
+  /** Add the string to the filter */
+  public synchronized void add(String s) {
+    long h1 = hash(s);
+    long h2 = mix(h1);
+    for (int i = 0; i < numHashes; i++) {
+      long bit = index(h1 + i * h2);
+      bits[(int)(bit >>> 6)] |= (1L << bit);
+    }
+    numEntries++;
+  }
+
+  /** Return false if the string has definitely not been added to the
+   * filter, true if it probably has. */
+  public boolean mightContain(String s) {
+    long h1 = hash(s);
+    long h2 = mix(h1);
+    for (int i = 0; i < numHashes; i++) {
+      long bit = index(h1 + i * h2);
+      if ((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /** Return the number of strings added (including duplicates) */
+  public int getNumEntries() {
+    return numEntries;
+  }
+
+  /** Return the size of the bit array in bytes */
+  public long getSizeBytes() {
+    return (long)bits.length * 8;
+  }
+
+  public int getNumHashes() {
+    return numHashes;
+  }
+
+  /** Return the expected false positive probability given the number of
+   * entries that have been added */
+  public double getExpectedFpp() {
+    return Math.pow(1 - Math.exp(-(double)numHashes * numEntries / numBits),
+		    numHashes);
+  }
+
+  /** Write the filter to a stream, from which it can be recreated with
+   * {@link #readFrom(DataInput)} */
+  public synchronized void writeTo(DataOutput out) throws IOException {
+    out.writeInt(SERIAL_VERSION);
+    out.writeInt(numHashes);
+    out.writeInt(numEntries);
+    out.writeInt(bits.length);
+    for (long word : bits) {
+      out.writeLong(word);
+    }
+  }
+
+  /** Read a filter written by {@link #writeTo(DataOutput)} */
+  public static BloomFilter readFrom(DataInput in) throws IOException {
+    int ver = in.readInt();
+    if (ver != SERIAL_VERSION) {
+      throw new IOException("Unknown BloomFilter version: " + ver);
+    }
+    int numHashes = in.readInt();
+    int numEntries = in.readInt();
+    int words = in.readInt();
+    if (numHashes < 1 || words < 1 || numEntries < 0) {
+      throw new IOException("Corrupt BloomFilter header: " + numHashes +
+			    ", " + words + ", " + numEntries);
+    }
+    long[] bits = new long[words];
+    for (int ix = 0; ix < words; ix++) {
+      bits[ix] = in.readLong();
+    }
+    return new BloomFilter(bits, numHashes, numEntries);
+  }
+
+  private long index(long h) {
+    return (h & Long.MAX_VALUE) % numBits;
+  }
+
+  // 64-bit FNV-1a
+  static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int ix = 0; ix < s.length(); ix++) {
+      char c = s.charAt(ix);
+      h ^= (c & 0xff);
+      h *= 0x100000001b3L;
+      h ^= (c >>> 8);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // Finalizer from MurmurHash3, used to derive the second hash
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h | 1;
+  }
+
+  public String toString() {
+    return "[BloomFilter: " + numEntries + " entries, " + numBits +
+      " bits, " + numHashes + " hashes]";
+  }
+}
@@ -112,6 +112,14 @@ public class IOUtil {
       f.close();
     } catch (Exception e) {}
   }
+
+  /** Call close() on the nio Channel, ignoring any errors */
+  public static void safeClose(java.nio.channels.Channel c) {
+    try {
+      c.close();
+    } catch (Exception e) {}
+  }
+
   /** Call release() on the LockssUrlConnection, ignoring any errors */
   public static void safeRelease(LockssUrlConnection conn) {
     try {
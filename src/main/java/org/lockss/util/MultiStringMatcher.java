@@ -0,0 +1,367 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.util;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton that finds occurrences of any of a set of
+ * strings in a single pass over the input.  Each string may independently
+ * be matched case-sensitively or case-insensitively (using the same case
+ * folding as {@link CharRing#indexOf(String, int, boolean)}).  Instances
+ * are immutable and may be shared.
+ *
+ * <p>Feed characters one at a time to {@link #next(int, char)}, starting
+ * from {@link #ROOT}.  After each character {@link #hasOutput(int)} tells
+ * whether some string may end there, and {@link #match(int, char[], int)}
+ * returns the longest one that does.  {@link #depth(int)} is the length of
+ * the longest suffix of the input that is a prefix of some string, so no
+ * occurrence not already reported can start before that point.
+ */
+public class MultiStringMatcher {
+
+  /** The initial state */
+  public static final int ROOT = 0;
+
+  private final String[] strings;
+  private final boolean[] ignoreCase;
+  // True if the automaton is built on folded chars
+  private final boolean fold;
+  // True if some strings must be checked for an exact case match
+  private final boolean mixedCase;
+  private final int maxLen;
+
+  // Per state: sorted transition chars and their target states
+  private char[][] keys;
+  private int[][] targets;
+  private int[] fail;
+  private int[] depth;
+  // Indices of the strings ending at this state, or null
+  private int[][] outputs;
+  // Nearest proper suffix state with outputs, or ROOT
+  private int[] dictLink;
+  // Root transitions for (unfolded) ASCII chars
+  private int[] rootAscii = new int[128];
+  // Complete transition table for (unfolded) ASCII chars, indexed by
+  // state * 128 + char, if not too big
+  private int[] asciiDelta;
+  private boolean[] hasOutput;
+
+  // Don't build asciiDelta for more states than this
+  static final int MAX_DELTA_STATES = 8 * 1024;
+
+  /**
+   * Create a matcher for the strings, all with the same case sensitivity
+   * @param strings the strings to look for
+   * @param ignoreCase true for case-insensitive matching
+   */
+  public MultiStringMatcher(String[] strings, boolean ignoreCase) {
+    this(strings, fillArray(strings, ignoreCase));
+  }
+
+  /**
+   * Create a matcher for the strings
+   * @param strings the strings to look for
+   * @param ignoreCase per string, true for case-insensitive matching
+   */
+  public MultiStringMatcher(String[] strings, boolean[] ignoreCase) {
+    if (strings == null || strings.length == 0) {
+      throw new IllegalArgumentException("Called with no strings");
+    }
+    if (ignoreCase == null || ignoreCase.length != strings.length) {
+      throw new IllegalArgumentException("ignoreCase must be same length as strings");
+    }
+    boolean anyIgnore = false;
+    boolean anyExact = false;
+    int max = 0;
+    for (int ix = 0; ix < strings.length; ix++) {
+      if (StringUtil.isNullString(strings[ix])) {
+	throw new IllegalArgumentException("Called with a null or empty string");
+      }
+      max = Math.max(max, strings[ix].length());
+      if (ignoreCase[ix]) {
+	anyIgnore = true;
+      } else {
+	anyExact = true;
+      }
+    }
+    this.strings = strings.clone();
+    this.ignoreCase = ignoreCase.clone();
+    this.fold = anyIgnore;
+    this.mixedCase = anyIgnore && anyExact;
+    this.maxLen = max;
+    build();
+  }
+
+  private static boolean[] fillArray(String[] strings, boolean val) {
+    if (strings == null) {
+      throw new IllegalArgumentException("Called with no strings");
+    }
+    boolean[] res = new boolean[strings.length];
+    Arrays.fill(res, val);
+    return res;
+  }
+
+  /** Return the number of strings */
+  public int size() {
+    return strings.length;
+  }
+
+  /** Return the nth string */
+  public String getString(int n) {
+    return strings[n];
+  }
+
+  /** Return the length of the nth string */
+  public int length(int n) {
+    return strings[n].length();
+  }
+
+  /** Return the length of the longest string */
+  public int getMaxLength() {
+    return maxLen;
+  }
+
+  /** Return the number of chars of the input consumed by the state that
+   * may still be part of an occurrence */
+  public int depth(int state) {
+    return depth[state];
+  }
+
+  /** Return the state after consuming a char */
+  public int next(int state, char c) {
+    if (c < 128) {
+      if (asciiDelta != null) {
+	return asciiDelta[(state << 7) + c];
+      }
+      if (state == ROOT) {
+	return rootAscii[c];
+      }
+    }
+    if (fold) {
+      c = Character.toUpperCase(c);
+    }
+    while (true) {
+      if (state == ROOT) {
+	if (c < 128) {
+	  return rootAscii[c];
+	}
+	int t = child(ROOT, c);
+	return t < 0 ? ROOT : t;
+      }
+      int t = child(state, c);
+      if (t >= 0) {
+	return t;
+      }
+      state = fail[state];
+    }
+  }
+
+  /** Return the index of the first char in buf, starting at from, that
+   * might begin one of the strings, or to if none.  Characters skipped
+   * would leave the matcher in {@link #ROOT}. */
+  public int skipFromRoot(char[] buf, int from, int to) {
+    int ix = from;
+    while (ix < to) {
+      char c = buf[ix];
+      if (c >= 128 || rootAscii[c] != ROOT) {
+	break;
+      }
+      ix++;
+    }
+    return ix;
+  }
+
+  /** Return true if some string may end at this state */
+  public boolean hasOutput(int state) {
+    return hasOutput[state];
+  }
+
+  /**
+   * Return the index of the longest string that ends at the state, or -1
+   * @param state the state after consuming the char at <code>end-1</code>
+   * @param buf the input, used to check case-sensitive strings when
+   * others are case-insensitive
+   * @param end index in buf after the last char consumed
+   */
+  public int match(int state, char[] buf, int end) {
+    int s = outputs[state] != null ? state : dictLink[state];
+    for (; s != ROOT; s = dictLink[s]) {
+      for (int n : outputs[s]) {
+	if (!mixedCase || ignoreCase[n] || exactMatch(n, buf, end)) {
+	  return n;
+	}
+      }
+    }
+    return -1;
+  }
+
+  private boolean exactMatch(int n, char[] buf, int end) {
+    String str = strings[n];
+    int len = str.length();
+    int start = end - len;
+    if (start < 0) {
+      return false;
+    }
+    for (int ix = 0; ix < len; ix++) {
+      if (buf[start + ix] != str.charAt(ix)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  private int child(int state, char c) {
+    char[] k = keys[state];
+    if (k == null) {
+      return -1;
+    }
+    int ix = Arrays.binarySearch(k, c);
+    return ix < 0 ? -1 : targets[state][ix];
+  }
+
+  private void build() {
+    // Build the trie
+    List<TreeMap<Character,Integer>> trie =
+      new ArrayList<TreeMap<Character,Integer>>();
+    List<Integer> depths = new ArrayList<Integer>();
+    List<List<Integer>> outs = new ArrayList<List<Integer>>();
+    trie.add(new TreeMap<Character,Integer>());
+    depths.add(0);
+    outs.add(null);
+    for (int n = 0; n < strings.length; n++) {
+      String str = strings[n];
+      int state = ROOT;
+      for (int ix = 0; ix < str.length(); ix++) {
+	char c = str.charAt(ix);
+	if (fold) {
+	  c = Character.toUpperCase(c);
+	}
+	Integer t = trie.get(state).get(c);
+	if (t == null) {
+	  t = trie.size();
+	  trie.add(new TreeMap<Character,Integer>());
+	  depths.add(ix + 1);
+	  outs.add(null);
+	  trie.get(state).put(c, t);
+	}
+	state = t;
+      }
+      if (outs.get(state) == null) {
+	outs.set(state, new ArrayList<Integer>());
+      }
+      outs.get(state).add(n);
+    }
+    int nStates = trie.size();
+    keys = new char[nStates][];
+    targets = new int[nStates][];
+    depth = new int[nStates];
+    outputs = new int[nStates][];
+    fail = new int[nStates];
+    dictLink = new int[nStates];
+    for (int s = 0; s < nStates; s++) {
+      TreeMap<Character,Integer> children = trie.get(s);
+      if (!children.isEmpty()) {
+	keys[s] = new char[children.size()];
+	targets[s] = new int[children.size()];
+	int ix = 0;
+	for (Map.Entry<Character,Integer> ent : children.entrySet()) {
+	  keys[s][ix] = ent.getKey();
+	  targets[s][ix] = ent.getValue();
+	  ix++;
+	}
+      }
+      depth[s] = depths.get(s);
+      List<Integer> out = outs.get(s);
+      if (out != null) {
+	outputs[s] = new int[out.size()];
+	for (int ix = 0; ix < out.size(); ix++) {
+	  outputs[s][ix] = out.get(ix);
+	}
+      }
+    }
+    // Failure and dictionary links, breadth first
+    List<Integer> order = new ArrayList<Integer>(nStates);
+    order.add(ROOT);
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    if (keys[ROOT] != null) {
+      for (int t : targets[ROOT]) {
+	fail[t] = ROOT;
+	dictLink[t] = ROOT;
+	queue.add(t);
+	order.add(t);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int u = queue.removeFirst();
+      if (keys[u] == null) {
+	continue;
+      }
+      for (int ix = 0; ix < keys[u].length; ix++) {
+	char c = keys[u][ix];
+	int v = targets[u][ix];
+	int f = fail[u];
+	int t;
+	while ((t = child(f, c)) < 0 && f != ROOT) {
+	  f = fail[f];
+	}
+	fail[v] = t < 0 ? ROOT : t;
+	dictLink[v] = outputs[fail[v]] != null ? fail[v] : dictLink[fail[v]];
+	queue.add(v);
+	order.add(v);
+      }
+    }
+    for (char c = 0; c < 128; c++) {
+      int t = child(ROOT, fold ? Character.toUpperCase(c) : c);
+      rootAscii[c] = t < 0 ? ROOT : t;
+    }
+    hasOutput = new boolean[nStates];
+    for (int s = 0; s < nStates; s++) {
+      hasOutput[s] = outputs[s] != null || dictLink[s] != ROOT;
+    }
+    if (nStates <= MAX_DELTA_STATES) {
+      // Each state's failure state precedes it in breadth first order
+      asciiDelta = new int[nStates << 7];
+      for (int s : order) {
+	for (char c = 0; c < 128; c++) {
+	  int t = child(s, fold ? Character.toUpperCase(c) : c);
+	  if (t < 0) {
+	    t = s == ROOT ? ROOT : asciiDelta[(fail[s] << 7) + c];
+	  }
+	  asciiDelta[(s << 7) + c] = t;
+	}
+      }
+    }
+  }
+
+  public String toString() {
+    return "[MultiStringMatcher: " + strings.length + " strings, "
+      + keys.length + " states]";
+  }
+}
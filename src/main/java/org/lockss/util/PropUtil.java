@@ -207,10 +207,38 @@ public class PropUtil {
     return res;
   }
 
+  /**
+   * Like {@link #differentKeysAndPrefixes(PropertyTree, PropertyTree)},
+   * but examines only the candidate keys.  The caller must ensure that
+   * every key whose value might differ is among the candidates.
+   * @param p1 first PropertyTree
+   * @param p2 second PropertyTree
+   * @param candidateKeys the keys to compare
+   * @return Set of keys and prefixes whose values differ.  Returns empty
+   * set if there are no differences.
+   * @throws NullPointerException if either PropertyTree is null
+   */
+  public static Set differentKeysAndPrefixes(PropertyTree p1,
+					     PropertyTree p2,
+					     Collection candidateKeys) {
+    Set res = new HashSet();
+    for (Iterator iter = candidateKeys.iterator(); iter.hasNext();) {
+      String key = (String)iter.next();
+      if (p1.containsKey(key)) {
+	if (! isKeySame(key, p1, p2)) {
+	  addKeyAndPrefixes(res, key);
+	}
+      } else if (p2.containsKey(key)) {
+	addKeyAndPrefixes(res, key);
+      }
+    }
+    return res;
+  }
+
   /** Add the key and all its prefixes to the set.  Proceeds from longest
    * to shortest, stopping if it generates a prefix already in the set
    * (because all shorter prefixes must already be in the set */
-  private static void addKeyAndPrefixes(Set set, String key) {
+  public static void addKeyAndPrefixes(Set set, String key) {
     if (set.add(key)) {
       int len = key.length();
       int pos = len;
@@ -130,6 +130,9 @@ import org.lockss.util.*;
 public class HttpClientUrlConnection extends BaseLockssUrlConnection {
   public static Logger log = Logger.getLogger();
 
+  private static final ParamHandle.StringParam cookiePolicyParam =
+    CurrentConfig.stringParam(PARAM_COOKIE_POLICY, DEFAULT_COOKIE_POLICY);
+
   /* Accept header value.  Can be overridden by plugin. */
   static final String PARAM_ACCEPT_HEADER = PREFIX + "acceptHeader";
   static final String DEFAULT_ACCEPT_HEADER =
@@ -138,6 +141,8 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
   /** Charset to be used to encode/decode HTTP result headers. */
   static final String PARAM_HEADER_CHARSET = PREFIX + "httpHeaderCharset";
   static final String DEFAULT_HEADER_CHARSET = "ISO-8859-1";
+  private static final ParamHandle.StringParam headerCharsetParam =
+    CurrentConfig.stringParam(PARAM_HEADER_CHARSET, DEFAULT_HEADER_CHARSET);
 
   /** Repeated response headers normally get combined on receipe into a
    * single header with a comma-separated value.  Headers in this list do
@@ -151,12 +156,18 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
    * be wrapped in an EofBugInputStream */
   static final String PARAM_USE_WRAPPER_STREAM = PREFIX + "useWrapperStream";
   static final boolean DEFAULT_USE_WRAPPER_STREAM = true;
+  private static final ParamHandle.BooleanParam useWrapperStreamParam =
+    CurrentConfig.booleanParam(PARAM_USE_WRAPPER_STREAM,
+                               DEFAULT_USE_WRAPPER_STREAM);
 
   /* If true, any connection on which credentials are set will preemptively
    * send the credentials.  If false they will be sent only after receiving
    * 401, which currently happens on every request. */
   static final String PARAM_USE_PREEMPTIVE_AUTH = PREFIX + "usePreemptiveAuth";
   static final boolean DEFAULT_USE_PREEMPTIVE_AUTH = true;
+  private static final ParamHandle.BooleanParam usePreemptiveAuthParam =
+    CurrentConfig.booleanParam(PARAM_USE_PREEMPTIVE_AUTH,
+                               DEFAULT_USE_PREEMPTIVE_AUTH);
 
   /** Choices for trustworthiness required of server. */
   public enum ServerTrustLevel {Trusted, SelfSigned, Untrusted};
@@ -351,8 +362,7 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
   static String getCookiePolicy(String policy) {
     final String DEBUG_HEADER = "getCookiePolicy(): ";
     if (policy == null) {
-      policy =
-	  CurrentConfig.getParam(PARAM_COOKIE_POLICY, DEFAULT_COOKIE_POLICY);
+      policy = cookiePolicyParam.get();
     }
 
     if (log.isDebug3()) log.debug3(DEBUG_HEADER + "policy = " + policy);
@@ -380,8 +390,7 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
 
   private static Charset getCharset(String charSetText) {
     if (charSetText == null) {
-      charSetText =
-	  CurrentConfig.getParam(PARAM_HEADER_CHARSET, DEFAULT_HEADER_CHARSET);
+      charSetText = headerCharsetParam.get();
     }
 
     Charset charSet = Consts.ISO_8859_1;
@@ -940,8 +949,7 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
     context.setCredentialsProvider(provider);
 
     // Check whether preemptive authentication is to be used.
-    if (CurrentConfig.getBooleanParam(PARAM_USE_PREEMPTIVE_AUTH,
-                                      DEFAULT_USE_PREEMPTIVE_AUTH)) {
+    if (usePreemptiveAuthParam.get()) {
 //HC3       HttpClientParams params = client.getParams();
 //HC3       params.setAuthenticationPreemptive(true);
       // Yes.
@@ -1164,8 +1172,7 @@ public class HttpClientUrlConnection extends BaseLockssUrlConnection {
       log.debug2("Returning null input stream");
       return null;
     }
-    if (CurrentConfig.getBooleanParam(PARAM_USE_WRAPPER_STREAM,
-                                      DEFAULT_USE_WRAPPER_STREAM)) {
+    if (useWrapperStreamParam.get()) {
       return new EofBugInputStream(in);
     }
     return in;
@@ -0,0 +1,113 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import org.lockss.test.*;
+
+/** Measure the retained heap per key of a large sealed config, unpacked
+ * (PropertyTree) and packed ({@link PackedConfigTree}).  The config
+ * resembles the title database of a box with many AUs.  Not run as part
+ * of the unit tests; run with main(), optionally with the number of AUs
+ * as an argument, and with a heap large enough to hold the config
+ * (<code>-Xmx2g</code> for the default 50,000 AUs). */
+public class MeasureConfigMemory extends LockssTestCase {
+
+  static final int DEFAULT_AUS = 50000;
+
+  static int numAus = DEFAULT_AUS;
+
+  // Hold the config being measured so it isn't collected
+  Configuration retained;
+
+  public void tearDown() throws Exception {
+    ConfigurationPropTreeImpl.setPackMinSize(
+        ConfigurationPropTreeImpl.DEFAULT_PACK_MIN_SIZE);
+    super.tearDown();
+  }
+
+  /** Build a title-db-like config with six keys per AU, and a few values
+   * shared among many AUs, as in real title databases. */
+  Configuration buildConfig(int aus) {
+    Configuration config = ConfigManager.newConfiguration();
+    for (int ix = 0; ix < aus; ix++) {
+      String pre = "org.lockss.title.Publisher" + (ix % 100) +
+	"Journal" + (ix / 100) + "Volume" + ix + ".";
+      config.put(pre + "title", "Journal " + (ix / 100) + " Volume " + ix);
+      config.put(pre + "journalTitle", "Journal " + (ix / 100));
+      config.put(pre + "plugin",
+		 "org.lockss.plugin.publisher" + (ix % 100) + ".Plugin");
+      config.put(pre + "param.1.key", "base_url");
+      config.put(pre + "param.1.value",
+		 "http://publisher" + (ix % 100) + ".example.com/");
+      config.put(pre + "param.2.key", "volume");
+    }
+    return config;
+  }
+
+  static long usedMemory() throws InterruptedException {
+    Runtime rt = Runtime.getRuntime();
+    for (int ix = 0; ix < 5; ix++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  void measure(String label, int packMinSize) throws Exception {
+    ConfigurationPropTreeImpl.setPackMinSize(packMinSize);
+    retained = null;
+    long before = usedMemory();
+    Configuration config = buildConfig(numAus);
+    config.seal();
+    retained = config;
+    long after = usedMemory();
+    int keys = config.keySet().size();
+    System.out.println(label + ": " + keys + " keys, " +
+		       ((after - before) / 1024) + " KB, " +
+		       ((after - before) / keys) + " bytes/key" +
+		       (((ConfigurationPropTreeImpl)config).isPacked()
+			? "" : " (not packed)"));
+  }
+
+  public void testUnpacked() throws Exception {
+    measure("PropertyTree", -1);
+  }
+
+  public void testPacked() throws Exception {
+    measure("PackedConfigTree", 1);
+  }
+
+  public static void main(String[] argv) {
+    if (argv.length > 0) {
+      numAus = Integer.parseInt(argv[0]);
+    }
+    String[] testCaseList = { MeasureConfigMemory.class.getName()};
+    junit.textui.TestRunner.main(testCaseList);
+  }
+}
@@ -296,6 +296,111 @@ public class TestConfigManager extends LockssTestCase4 {
 
   }
 
+  void rewriteFile(String url, String content) throws IOException {
+    File file = new File(new URL(url).getPath());
+    long lastMod = file.lastModified();
+    try (Writer wrtr = new FileWriter(file)) {
+      wrtr.write(content);
+    }
+    // Ensure the change is noticed even if the mtime granularity is coarse
+    file.setLastModified(lastMod + 10 * Constants.SECOND);
+  }
+
+  @Test
+  public void testIncrementalReload() throws IOException {
+    Configuration.Callback cb = new Configuration.Callback() {
+	public void configurationChanged(Configuration newConfig,
+					 Configuration oldConfig,
+					 Configuration.Differences diffs) {
+	  cbDiffs = diffs;
+	}
+      };
+    String tdbProps =
+      "org.lockss.title.title1.title=Air & Space volume 3\n" +
+      "org.lockss.title.title1.plugin=org.lockss.testplugin1\n" +
+      "org.lockss.title.title1.param.1.key=volume\n" +
+      "org.lockss.title.title1.param.1.value=3\n";
+    String u1 = FileTestUtil.urlOfString("a=1\nb=2\n");
+    String u2 = FileTestUtil.urlOfString(tdbProps);
+    List urls = ListUtil.list(u1, u2);
+    assertTrue(mgr.updateConfig(urls));
+    ConfigManager.ConfigLoad load = mgr.getLastReload();
+    assertTrue(load.isInstalled());
+    assertFalse(load.isIncremental());
+    assertFalse(load.isTdbShared());
+    Configuration config1 = mgr.getCurrentConfig();
+    Tdb tdb1 = config1.getTdb();
+    assertEquals(1, tdb1.getTdbAuCount());
+
+    mgr.registerConfigurationCallback(cb);
+    cbDiffs = null;
+
+    // Change one file, the other (with the tdb) is unchanged
+    rewriteFile(u1, "a=1\nb=3\nc=4\n");
+    assertTrue(mgr.updateConfig(urls));
+    load = mgr.getLastReload();
+    assertTrue(load.isInstalled());
+    assertTrue(load.isIncremental());
+    assertTrue(load.isTdbShared());
+    assertEquals(1, load.getNumChangedSources());
+    Configuration config2 = mgr.getCurrentConfig();
+    assertEquals("3", config2.get("b"));
+    assertEquals("4", config2.get("c"));
+    assertSame(tdb1, config2.getTdb());
+    assertEquals(SetUtil.set("b", "c"), cbDiffs.getDifferenceSet());
+    // Incremental differences must match full comparison
+    assertEquals(config2.differences(config1).getDifferenceSet(),
+		 cbDiffs.getDifferenceSet());
+    assertEquals(0, cbDiffs.getTdbAuDifferenceCount());
+    for (ConfigManager.ConfigSource src : load.getSources()) {
+      if (src.getName().equals(u1)) {
+	assertTrue(src.isChanged());
+      } else if (src.getName().equals(u2)) {
+	assertFalse(src.isChanged());
+      }
+    }
+
+    // Reloaded file with same contents, config unchanged
+    cbDiffs = null;
+    rewriteFile(u1, "a=1\nb=3\nc=4\n");
+    assertFalse(mgr.updateConfig(urls));
+    load = mgr.getLastReload();
+    assertFalse(load.isInstalled());
+    assertTrue(load.isIncremental());
+    assertNull(cbDiffs);
+    assertSame(config2, mgr.getCurrentConfig());
+
+    // Change the tdb file, Tdb must be rebuilt
+    rewriteFile(u2, tdbProps +
+		"org.lockss.title.title2.title=Air & Space volume 4\n" +
+		"org.lockss.title.title2.plugin=org.lockss.testplugin1\n" +
+		"org.lockss.title.title2.param.1.key=volume\n" +
+		"org.lockss.title.title2.param.1.value=4\n");
+    assertTrue(mgr.updateConfig(urls));
+    load = mgr.getLastReload();
+    assertTrue(load.isIncremental());
+    assertFalse(load.isTdbShared());
+    Configuration config3 = mgr.getCurrentConfig();
+    assertEquals(2, config3.getTdbAuCount());
+    assertEquals(1, cbDiffs.getTdbAuDifferenceCount());
+    assertEmpty(cbDiffs.getDifferenceSet());
+    mgr.unregisterConfigurationCallback(cb);
+  }
+
+  @Test
+  public void testIncrementalReloadDisabled() throws IOException {
+    String u1 = FileTestUtil.urlOfString("a=1\nb=2\n");
+    String u2 =
+      FileTestUtil.urlOfString(PARAM_INCREMENTAL_RELOAD + "=false\n");
+    List urls = ListUtil.list(u1, u2);
+    assertTrue(mgr.updateConfig(urls));
+    rewriteFile(u1, "a=1\nb=3\n");
+    assertTrue(mgr.updateConfig(urls));
+    ConfigManager.ConfigLoad load = mgr.getLastReload();
+    assertTrue(load.isInstalled());
+    assertFalse(load.isIncremental());
+  }
+
   @Test
   public void testShouldParamBeLogged() {
     assertFalse(mgr.shouldParamBeLogged(PREFIX_TITLE_DB + "foo.xxx"));
@@ -1542,6 +1647,28 @@ public class TestConfigManager extends LockssTestCase4 {
     assertEquals(1, c2.size());
     assertTrue(c2.contains(auConfiguration));
 
+    // Store a second Archival Unit configuration.
+    Map<String, String> auConfig2 = new HashMap<>();
+    auConfig2.put("foo", "11");
+    AuConfiguration auConfiguration2 =
+	new AuConfiguration("other&auid", auConfig2);
+    mgr.storeArchivalUnitConfiguration(auConfiguration2);
+
+    // Verify that both are counted and processed.
+    assertEquals(2, mgr.countArchivalUnitConfigurations());
+    List<AuConfiguration> processed = new ArrayList<>();
+    mgr.processAllArchivalUnitConfiguration(100, processed::add);
+    assertEquals(2, processed.size());
+    assertTrue(processed.contains(auConfiguration));
+    assertTrue(processed.contains(auConfiguration2));
+
+    // Read one configuration per chunk.
+    processed.clear();
+    mgr.processAllArchivalUnitConfiguration(1, processed::add);
+    assertEquals(2, processed.size());
+    assertTrue(processed.contains(auConfiguration));
+    assertTrue(processed.contains(auConfiguration2));
+
     log.debug2("Done");
   }
 
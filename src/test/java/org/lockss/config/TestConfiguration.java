@@ -64,6 +64,8 @@ public class TestConfiguration extends LockssTestCase4 {
 
   @After
   public void tearDown() throws Exception {
+    ConfigurationPropTreeImpl.setPackMinSize(
+        ConfigurationPropTreeImpl.DEFAULT_PACK_MIN_SIZE);
     super.tearDown();
   }
 
@@ -453,6 +455,57 @@ public class TestConfiguration extends LockssTestCase4 {
 		       ListUtil.fromIterator(tdbDiffs.newTdbAuIterator()));
   }
 
+  @Test
+  public void testDifferencesCandidates() throws TdbException {
+    Configuration c1 = newConfiguration();
+    c1.put("a", "1");
+    c1.put("b.x", "3");
+    c1.put("c", "0");
+    Tdb tdb = newTdb();
+    c1.setTdb(tdb);
+    Configuration c2 = newConfiguration();
+    c2.put("a", "4");
+    c2.put("b.x", "3");
+    c2.put("b.y", "8");
+    c2.put("c", "1");
+    c2.setTdb(tdb);
+    // "c" differs but isn't a candidate
+    Differences diffs = c1.differences(c2, ListUtil.list("a", "b.x", "b.y"));
+    assertFalse(diffs.isAllKeys());
+    assertEquals(SetUtil.set("a", "b.", "b", "b.y"),
+		 diffs.getDifferenceSet());
+    // Shared Tdb has no differences
+    assertEquals(0, diffs.getTdbAuDifferenceCount());
+    assertEmpty(diffs.getTdbDifferencePluginIds());
+  }
+
+  @Test
+  public void testKeyJournal() {
+    Configuration c1 = newConfiguration();
+    c1.put("a", "1");
+    c1.startKeyJournal();
+    c1.put("b", "2");
+    c1.remove("a");
+    assertEquals(SetUtil.set("a", "b"), c1.stopKeyJournal());
+    c1.put("c", "3");
+    assertNull(c1.stopKeyJournal());
+  }
+
+  @Test
+  public void testCopyFromSharedTdb() throws TdbException {
+    Tdb tdb = newTdb();
+    tdb.seal();
+    Configuration c1 = newConfiguration();
+    c1.setTdb(tdb);
+    Configuration c2 = newConfiguration();
+    c2.setTdb(newTdb("X2"));
+    c1.copyFrom(c2);
+    // Sealed Tdb must not be modified, c1 should get a merged copy
+    assertNotSame(tdb, c1.getTdb());
+    assertEquals(4, tdb.getTdbAuCount());
+    assertEquals(8, c1.getTdbAuCount());
+  }
+
   @Test
   public void testLoad() throws IOException, Configuration.InvalidParam {
     String f = FileTestUtil.urlOfString(c1);
@@ -851,6 +904,100 @@ public class TestConfiguration extends LockssTestCase4 {
     assertEquals("b", c3.get("foo.bar.p2"));
   }
 
+  ConfigurationPropTreeImpl packableConfig() {
+    ConfigurationPropTreeImpl config =
+      (ConfigurationPropTreeImpl)newConfiguration();
+    for (int ix = 0; ix < 100; ix++) {
+      config.put("org.lockss.au.a" + (ix % 10) + ".p" + ix, "v" + (ix % 7));
+    }
+    config.put("org.lockss.foo", "bar");
+    config.put("org.lockss.list", "a;b;c");
+    return config;
+  }
+
+  @Test
+  public void testPackOnSeal() throws Exception {
+    ConfigurationPropTreeImpl.setPackMinSize(-1);
+    ConfigurationPropTreeImpl c1 = packableConfig();
+    c1.seal();
+    assertFalse(c1.isPacked());
+
+    ConfigurationPropTreeImpl.setPackMinSize(200);
+    ConfigurationPropTreeImpl c2 = packableConfig();
+    c2.seal();
+    assertFalse(c2.isPacked());
+
+    ConfigurationPropTreeImpl.setPackMinSize(100);
+    ConfigurationPropTreeImpl c3 = packableConfig();
+    assertFalse(c3.isPacked());
+    c3.seal();
+    assertTrue(c3.isPacked());
+    assertTrue(c3.isSealed());
+
+    // Packed and unpacked configs are indistinguishable
+    assertEquals(c1, c3);
+    assertEquals(c3, c1);
+    assertEmpty(c1.differentKeys(c3));
+    assertEmpty(c3.differentKeys(c1));
+    assertEquals(c1.keySet(), c3.keySet());
+    assertEquals("bar", c3.get("org.lockss.foo"));
+    assertEquals("v3", c3.get("org.lockss.au.a3.p3"));
+    assertTrue(c3.containsKey("org.lockss.au.a3.p3"));
+    assertFalse(c3.containsKey("org.lockss.au.a3"));
+    assertEquals(ListUtil.list("a", "b", "c"), c3.getList("org.lockss.list"));
+    assertEquals(SetUtil.fromIterator(c1.nodeIterator("org.lockss")),
+		 SetUtil.fromIterator(c3.nodeIterator("org.lockss")));
+    assertFalse(c3.nodeIterator("org.lockss.none").hasNext());
+
+    Configuration sub1 = c1.getConfigTree("org.lockss.au.a4");
+    Configuration sub3 = c3.getConfigTree("org.lockss.au.a4");
+    assertTrue(sub3.isSealed());
+    assertEquals(10, sub3.keySet().size());
+    assertEquals(sub1, sub3);
+    assertEquals("v2", sub3.get("p44"));
+    assertTrue(c3.getConfigTree("org.lockss.none").isEmpty());
+
+    ByteArrayOutputStream os1 = new ByteArrayOutputStream();
+    ByteArrayOutputStream os3 = new ByteArrayOutputStream();
+    c1.store(os1, null);
+    c3.store(os3, null);
+    assertEquals(os1.toString().replaceFirst("#.*\n", ""),
+		 os3.toString().replaceFirst("#.*\n", ""));
+
+    try {
+      c3.put("org.lockss.foo", "baz");
+      fail("Shouldn't be able to modify packed config");
+    } catch (IllegalStateException e) {
+    }
+
+    // Differences between packed and unpacked
+    ConfigurationPropTreeImpl.setPackMinSize(-1);
+    ConfigurationPropTreeImpl c4 = packableConfig();
+    c4.put("org.lockss.foo", "baz");
+    c4.remove("org.lockss.au.a1.p1");
+    c4.put("org.lockss.new", "1");
+    c4.seal();
+    Set exp = SetUtil.set("org.lockss.foo", "org.lockss.au.a1.p1",
+			  "org.lockss.new", "org.lockss", "org.lockss.",
+			  "org", "org.", "org.lockss.au", "org.lockss.au.",
+			  "org.lockss.au.a1", "org.lockss.au.a1.");
+    assertEquals(exp, c3.differentKeys(c4));
+    assertEquals(exp, c4.differentKeys(c3));
+    assertEquals(SetUtil.set("org.lockss.foo", "org.lockss", "org.lockss.",
+			     "org", "org."),
+		 c3.differentKeys(c4, ListUtil.list("org.lockss.foo",
+						    "org.lockss.au.a2.p2")));
+    Configuration.Differences diffs = c4.differences(c3);
+    assertTrue(diffs.contains("org.lockss.new"));
+    assertFalse(diffs.contains("org.lockss.au.a2"));
+
+    // Copy of a packed config is an ordinary mutable config
+    Configuration copy = c3.copy();
+    assertEquals(c3, copy);
+    copy.put("org.lockss.foo", "baz");
+    assertEquals("baz", copy.get("org.lockss.foo"));
+  }
+
   private ConfigFile loadFCF(String url) throws IOException {
     FileConfigFile cf = new FileConfigFile(url, null);
     cf.reload();
@@ -0,0 +1,160 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import java.util.*;
+import org.junit.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestPackedConfigTree extends LockssTestCase4 {
+
+  PropertyTree tree(String... kvs) {
+    PropertyTree res = new PropertyTree();
+    for (int ix = 0; ix < kvs.length; ix += 2) {
+      res.put(kvs[ix], kvs[ix + 1]);
+    }
+    return res;
+  }
+
+  PackedConfigTree pack(String... kvs) {
+    PackedConfigTree res = PackedConfigTree.fromPropertyTree(tree(kvs));
+    assertNotNull(res);
+    return res;
+  }
+
+  @Test
+  public void testEmpty() {
+    PackedConfigTree pt = pack();
+    assertTrue(pt.isEmpty());
+    assertEquals(0, pt.size());
+    assertEmpty(pt.keySet());
+    assertNull(pt.get("a"));
+    assertFalse(pt.containsKey("a"));
+    assertNull(pt.getTree("a"));
+  }
+
+  @Test
+  public void testGet() {
+    PackedConfigTree pt = pack("a", "1",
+			       "a.b", "2",
+			       "a.b.c", "3",
+			       "a.bb", "4",
+			       "a-b", "5",
+			       "x.y.z", "6",
+			       "a.c", "2");
+    assertEquals(7, pt.size());
+    assertFalse(pt.isEmpty());
+    assertEquals("1", pt.get("a"));
+    assertEquals("2", pt.get("a.b"));
+    assertEquals("3", pt.get("a.b.c"));
+    assertEquals("4", pt.get("a.bb"));
+    assertEquals("5", pt.get("a-b"));
+    assertEquals("6", pt.get("x.y.z"));
+    assertEquals("2", pt.get("a.c"));
+    // Equal values share one instance
+    assertSame(pt.get("a.b"), pt.get("a.c"));
+    assertNull(pt.get("x"));
+    assertNull(pt.get("x.y"));
+    assertNull(pt.get("a.b.c.d"));
+    assertNull(pt.get("b"));
+    assertNull(pt.get(""));
+    assertNull(pt.get(null));
+    // Empty segments are ignored by get(), as in PropertyTree
+    assertEquals("3", pt.get("a..b.c"));
+    assertEquals("2", pt.get("a.b."));
+    // but containsKey() requires an exact match
+    assertTrue(pt.containsKey("a.b"));
+    assertFalse(pt.containsKey("a..b"));
+    assertFalse(pt.containsKey("a.b."));
+    assertFalse(pt.containsKey("x.y"));
+    assertEquals(SetUtil.set("a", "a.b", "a.b.c", "a.bb", "a-b", "x.y.z",
+			     "a.c"),
+		 new HashSet(pt.keySet()));
+    assertTrue(pt.keySet().contains("a.bb"));
+    assertFalse(pt.keySet().contains("x.y"));
+  }
+
+  @Test
+  public void testUnpackable() {
+    assertNull(PackedConfigTree.fromPropertyTree(tree("a..b", "1")));
+    assertNull(PackedConfigTree.fromPropertyTree(tree("a.b.", "1")));
+    assertNull(PackedConfigTree.fromPropertyTree(tree("a.*.b", "1")));
+    PropertyTree pt = tree("a.b", "1");
+    pt.put("a.c", ListUtil.list("x"));
+    assertNull(PackedConfigTree.fromPropertyTree(pt));
+  }
+
+  @Test
+  public void testSubTree() {
+    PackedConfigTree pt = pack("org.lockss.au.a1.k1", "v1",
+			       "org.lockss.au.a1.k2", "v2",
+			       "org.lockss.au.a2.k1", "v3",
+			       "org.lockss.au", "root",
+			       "org.lockss.foo", "bar");
+    PackedConfigTree au = pt.getTree("org.lockss.au");
+    assertEquals(3, au.size());
+    // Value at the root of the subtree isn't part of it
+    assertEquals(SetUtil.set("a1.k1", "a1.k2", "a2.k1"),
+		 new HashSet(au.keySet()));
+    assertEquals("v2", au.get("a1.k2"));
+    assertNull(au.get("foo"));
+    assertEquals(SetUtil.set("a1", "a2"),
+		 SetUtil.fromIterator(au.getNodes(null)));
+    assertEquals(SetUtil.set("k1", "k2"),
+		 SetUtil.fromIterator(au.getNodes("a1")));
+    assertEquals(SetUtil.set("k1", "k2"),
+		 SetUtil.fromIterator(pt.getNodes("org.lockss.au.a1")));
+    assertEquals(SetUtil.set("au", "foo"),
+		 SetUtil.fromIterator(pt.getNodes("org.lockss")));
+    assertNull(pt.getNodes("org.lockss.bar"));
+    assertEquals(1, au.getTree("a2").size());
+    assertNull(au.getTree("a3"));
+  }
+
+  @Test
+  public void testMatchesPropertyTree() {
+    PropertyTree props = new PropertyTree();
+    for (int ix = 0; ix < 500; ix++) {
+      props.put("org.lockss.sub" + (ix % 7) + ".p" + (ix % 13) + ".k" + ix,
+		"val" + (ix % 17));
+      props.put("org.lockss.sub" + (ix % 7) + ".x" + ix, "v" + ix);
+    }
+    PackedConfigTree pt = PackedConfigTree.fromPropertyTree(props);
+    assertEquals(props.size(), pt.size());
+    assertEquals(props.keySet(), new HashSet(pt.keySet()));
+    for (Object key : props.keySet()) {
+      assertEquals(props.get(key), pt.get((String)key));
+    }
+    PropertyTree sub = props.getTree("org.lockss.sub3");
+    PackedConfigTree psub = pt.getTree("org.lockss.sub3");
+    assertEquals(sub.keySet(), new HashSet(psub.keySet()));
+    assertEquals(sub, pt.getTree("org.lockss.sub3").toPropertyTree());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import java.lang.ref.WeakReference;
+import org.junit.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestParamHandle extends LockssTestCase4 {
+
+  static final String PFX = "org.lockss.test.handle.";
+
+  @Test
+  public void testBoolean() {
+    ParamHandle.BooleanParam h = CurrentConfig.booleanParam(PFX + "b", true);
+    assertEquals(PFX + "b", h.getKey());
+    assertTrue(h.get());
+    ConfigurationUtil.addFromArgs(PFX + "b", "false");
+    assertFalse(h.get());
+    ConfigurationUtil.addFromArgs(PFX + "b", "true");
+    assertTrue(h.get());
+    // Unparseable value yields default
+    ParamHandle.BooleanParam h2 =
+      CurrentConfig.booleanParam(PFX + "b2", false);
+    ConfigurationUtil.addFromArgs(PFX + "b2", "maybe");
+    assertFalse(h2.get());
+  }
+
+  @Test
+  public void testNumeric() {
+    ParamHandle.IntParam hi = CurrentConfig.intParam(PFX + "i", 7);
+    ParamHandle.LongParam hl = CurrentConfig.longParam(PFX + "l", 8L);
+    ParamHandle.DoubleParam hd = CurrentConfig.doubleParam(PFX + "d", 1.5);
+    assertEquals(7, hi.get());
+    assertEquals(8L, hl.get());
+    assertEquals(1.5, hd.get(), 0.0);
+    ConfigurationUtil.addFromArgs(PFX + "i", "42",
+				  PFX + "l", "12345678901");
+    ConfigurationUtil.addFromArgs(PFX + "d", "2.25");
+    assertEquals(42, hi.get());
+    assertEquals(12345678901L, hl.get());
+    assertEquals(2.25, hd.get(), 0.0);
+    ConfigurationUtil.addFromArgs(PFX + "i", "forty-two");
+    assertEquals(7, hi.get());
+  }
+
+  @Test
+  public void testTimeIntervalSizePercentage() {
+    ParamHandle.TimeIntervalParam ht =
+      CurrentConfig.timeIntervalParam(PFX + "t", Constants.MINUTE);
+    ParamHandle.SizeParam hs = CurrentConfig.sizeParam(PFX + "s", 100);
+    ParamHandle.PercentageParam hp =
+      CurrentConfig.percentageParam(PFX + "p", 0.5);
+    assertEquals(Constants.MINUTE, ht.get());
+    assertEquals(100, hs.get());
+    assertEquals(0.5, hp.get(), 0.0);
+    ConfigurationUtil.addFromArgs(PFX + "t", "3h",
+				  PFX + "s", "100kb");
+    ConfigurationUtil.addFromArgs(PFX + "p", "20");
+    assertEquals(3 * Constants.HOUR, ht.get());
+    assertEquals(100 * 1024, hs.get());
+    assertEquals(0.2, hp.get(), 0.0000001);
+  }
+
+  @Test
+  public void testString() {
+    ParamHandle.StringParam h = CurrentConfig.stringParam(PFX + "str", "def");
+    assertEquals("def", h.get());
+    ConfigurationUtil.addFromArgs(PFX + "str", "val");
+    assertEquals("val", h.get());
+    ParamHandle.StringParam hnull = CurrentConfig.stringParam(PFX + "x", null);
+    assertNull(hnull.get());
+  }
+
+  @Test
+  public void testResolvedOncePerConfig() {
+    ParamHandle.IntParam h = CurrentConfig.intParam(PFX + "i", 1);
+    ConfigurationUtil.addFromArgs(PFX + "i", "2");
+    for (int ix = 0; ix < 10; ix++) {
+      assertEquals(2, h.get());
+    }
+    assertEquals(1, h.getResolveCount());
+    // Installing a new config invalidates, even if the param is unchanged
+    ConfigurationUtil.addFromArgs(PFX + "other", "x");
+    assertEquals(2, h.get());
+    assertEquals(2, h.get());
+    assertEquals(2, h.getResolveCount());
+  }
+
+  @Test
+  public void testExplicitConfig() {
+    ParamHandle.IntParam h = CurrentConfig.intParam(PFX + "i", 1);
+    Configuration c1 = ConfigurationUtil.fromArgs(PFX + "i", "10");
+    Configuration c2 = ConfigurationUtil.fromArgs(PFX + "i", "20");
+    assertEquals(10, h.get(c1));
+    assertEquals(10, h.get(c1));
+    assertEquals(1, h.getResolveCount());
+    assertEquals(20, h.get(c2));
+    assertEquals(10, h.get(c1));
+    assertEquals(1, h.get());
+  }
+
+  @Test
+  public void testDoesntRetainConfig() {
+    ParamHandle.IntParam h = CurrentConfig.intParam(PFX + "i", 1);
+    Configuration c1 = ConfigurationUtil.fromArgs(PFX + "i", "10");
+    assertEquals(10, h.get(c1));
+    WeakReference<Configuration> ref = new WeakReference<>(c1);
+    c1 = null;
+    for (int ix = 0; ix < 10 && ref.get() != null; ix++) {
+      System.gc();
+    }
+    assertNull(ref.get());
+    // and a new config with the same value is resolved again
+    assertEquals(10, h.get(ConfigurationUtil.fromArgs(PFX + "i", "10")));
+    assertEquals(2, h.getResolveCount());
+  }
+}
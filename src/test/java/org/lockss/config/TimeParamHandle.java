@@ -0,0 +1,158 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.config;
+
+import java.util.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+/** Compare the per-call cost of CurrentConfig.getXxxParam() with that of
+ * the equivalent {@link ParamHandle}.  Not run as part of the unit tests;
+ * run with main() */
+public class TimeParamHandle extends LockssTiming {
+
+  static final int CALLS = 1000000;
+  static final int CONFIG_SIZE = 2000;
+
+  static final String PFX = "org.lockss.baseuc.";
+  static final String PARAM_BOOL = PFX + "recordReferrer";
+  static final String PARAM_INT = PFX + "loginPageCheckerMarkLimit";
+  static final String PARAM_INTERVAL = PFX + "retryPause";
+  static final String PARAM_UNSET = PFX + "notSet";
+
+  static final ParamHandle.BooleanParam boolParam =
+    CurrentConfig.booleanParam(PARAM_BOOL, false);
+  static final ParamHandle.IntParam intParam =
+    CurrentConfig.intParam(PARAM_INT, 0);
+  static final ParamHandle.TimeIntervalParam intervalParam =
+    CurrentConfig.timeIntervalParam(PARAM_INTERVAL, 0);
+  static final ParamHandle.TimeIntervalParam unsetParam =
+    CurrentConfig.timeIntervalParam(PARAM_UNSET, 0);
+
+  long sink;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    // Config of realistic size, with the params of interest among them
+    Properties props = new Properties();
+    for (int ix = 0; ix < CONFIG_SIZE; ix++) {
+      props.put("org.lockss.timing.sub" + (ix % 50) + ".param" + ix,
+		Integer.toString(ix));
+    }
+    props.put(PARAM_BOOL, "true");
+    props.put(PARAM_INT, "24576");
+    props.put(PARAM_INTERVAL, "2h30m");
+    ConfigurationUtil.setCurrentConfigFromProps(props);
+  }
+
+  public void testBooleanLookup() throws Exception {
+    time(CALLS + " getBooleanParam()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       if (CurrentConfig.getBooleanParam(PARAM_BOOL, false)) sink++;
+	     }
+	   }});
+  }
+
+  public void testBooleanHandle() throws Exception {
+    time(CALLS + " BooleanParam.get()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       if (boolParam.get()) sink++;
+	     }
+	   }});
+  }
+
+  public void testIntLookup() throws Exception {
+    time(CALLS + " getIntParam()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += CurrentConfig.getIntParam(PARAM_INT, 0);
+	     }
+	   }});
+  }
+
+  public void testIntHandle() throws Exception {
+    time(CALLS + " IntParam.get()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += intParam.get();
+	     }
+	   }});
+  }
+
+  public void testTimeIntervalLookup() throws Exception {
+    time(CALLS + " getTimeIntervalParam()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += CurrentConfig.getTimeIntervalParam(PARAM_INTERVAL, 0);
+	     }
+	   }});
+  }
+
+  public void testTimeIntervalHandle() throws Exception {
+    time(CALLS + " TimeIntervalParam.get()",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += intervalParam.get();
+	     }
+	   }});
+  }
+
+  public void testUnsetLookup() throws Exception {
+    time(CALLS + " getTimeIntervalParam(), not set",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += CurrentConfig.getTimeIntervalParam(PARAM_UNSET, 0);
+	     }
+	   }});
+  }
+
+  public void testUnsetHandle() throws Exception {
+    time(CALLS + " TimeIntervalParam.get(), not set",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     for (int ix = 0; ix < CALLS; ix++) {
+	       sink += unsetParam.get();
+	     }
+	   }});
+  }
+
+  public static void main(String[] argv) {
+    String[] testCaseList = { TimeParamHandle.class.getName()};
+    junit.textui.TestRunner.main(testCaseList);
+  }
+}
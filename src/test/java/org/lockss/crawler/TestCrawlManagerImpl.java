@@ -1293,6 +1293,8 @@ public class TestCrawlManagerImpl extends LockssTestCase {
 
     public void testOdcQueue() throws Exception {
       Properties p = new Properties();
+      // Exercises the full rebuild done when the queue runs out
+      p.put(CrawlManagerImpl.PARAM_INCREMENTAL_CRAWL_QUEUE, "false");
       p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
       p.put(CrawlManagerImpl.PARAM_SHARED_QUEUE_MAX, "4");
       p.put(CrawlManagerImpl.PARAM_UNSHARED_QUEUE_MAX, "3");
@@ -1400,6 +1402,8 @@ public class TestCrawlManagerImpl extends LockssTestCase {
 
     public void testOdcQueueWithConcurrentPool() throws Exception {
       Properties p = new Properties();
+      // Exercises the full rebuild done when the queue runs out
+      p.put(CrawlManagerImpl.PARAM_INCREMENTAL_CRAWL_QUEUE, "false");
       p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
       p.put(CrawlManagerImpl.PARAM_SHARED_QUEUE_MAX, "4");
       p.put(CrawlManagerImpl.PARAM_UNSHARED_QUEUE_MAX, "3");
@@ -1477,6 +1481,159 @@ public class TestCrawlManagerImpl extends LockssTestCase {
 
     }
 
+    public void testIncrementalOdcQueue() throws Exception {
+      TimeBase.setSimulated(10000);
+      Properties p = new Properties();
+      p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
+      p.put(CrawlManagerImpl.PARAM_CRAWLER_THREAD_POOL_MAX, "3");
+      p.put(CrawlManagerImpl.PARAM_FAVOR_UNSHARED_RATE_THREADS, "1");
+      p.put(CrawlManagerImpl.PARAM_REBUILD_CRAWL_QUEUE_INTERVAL, "1h");
+      p.put(CrawlManagerImpl.PARAM_INELIGIBLE_RECHECK_INTERVAL, "10m");
+      theDaemon.setAusStarted(true);
+      ConfigurationUtil.addFromProps(p);
+      crawlManager.startService();
+      CrawlManagerStatus cms = crawlManager.getStatus();
+
+      MockArchivalUnit[] aus = makeMockAus(6);
+      registerAus(aus);
+      setAu(aus[0], 0, -1, 1000);
+      setAu(aus[1], 0, -1, 2000);
+      setAu(aus[2], 0, -1, 1500, "foo");
+      setAu(aus[3], 0, -1, 2500, "foo");
+      setAu(aus[4], 0, -1, 500);
+      aus[4].setShouldCrawlForNewContent(false);
+      setAu(aus[5], 0, -1, 100);
+      aus[5].setCrawlWindow(new MockCrawlWindow(false));
+
+      // First request builds queues from all AUs
+      assertEquals(aus[2], crawlManager.nextReq().getAu());
+      assertEquals(1, crawlManager.rebuildCount);
+      crawlManager.addToRunningRateKeys(aus[2]);
+      // pool foo is full
+      assertEquals(aus[0], crawlManager.nextReq().getAu());
+      crawlManager.addToRunningRateKeys(aus[0]);
+      assertEquals(aus[1], crawlManager.nextReq().getAu());
+      crawlManager.addToRunningRateKeys(aus[1]);
+      assertNull(crawlManager.nextReq());
+
+      // End of crawl in pool foo makes next AU in pool available, without
+      // examining all AUs
+      aus[2].setShouldCrawlForNewContent(false);
+      crawlManager.delFromRunningRateKeys(aus[2]);
+      assertEquals(aus[3], crawlManager.nextReq().getAu());
+      crawlManager.addToRunningRateKeys(aus[3]);
+      aus[3].setShouldCrawlForNewContent(false);
+      assertNull(crawlManager.nextReq());
+
+      // Ended crawl of AU that still wants to crawl puts it back in queue
+      crawlManager.delFromRunningRateKeys(aus[0]);
+      assertEquals(aus[0], crawlManager.nextReq().getAu());
+      aus[0].setShouldCrawlForNewContent(false);
+
+      // AU whose window opens is found when it's rechecked
+      aus[5].setCrawlWindow(new MockCrawlWindow(true));
+      assertNull(crawlManager.nextReq());
+      assertTrue(TimeBase.msUntil(crawlManager.getNextRecheckTime()) <=
+                 10 * Constants.MINUTE);
+      TimeBase.step(10 * Constants.MINUTE);
+      assertEquals(aus[5], crawlManager.nextReq().getAu());
+      aus[5].setShouldCrawlForNewContent(false);
+
+      // New AU
+      MockArchivalUnit au6 = newMockArchivalUnit("mau6");
+      PluginTestUtil.registerArchivalUnit(plugin, au6);
+      crawlManager.auEventCreated(AuEvent.forAu(au6, AuEvent.Type.Create),
+                                  au6);
+      assertEquals(au6, crawlManager.nextReq().getAu());
+      au6.setShouldCrawlForNewContent(false);
+
+      // Explicitly requested crawl
+      crawlManager.startNewContentCrawl(aus[4], 1, null, null);
+      assertEquals(aus[4], crawlManager.nextReq().getAu());
+      crawlManager.addToRunningRateKeys(aus[4]);
+
+      // Stale entry isn't returned
+      MockArchivalUnit au7 = newMockArchivalUnit("mau7");
+      PluginTestUtil.registerArchivalUnit(plugin, au7);
+      crawlManager.auEventCreated(AuEvent.forAu(au7, AuEvent.Type.Create),
+                                  au7);
+      assertEquals(1, crawlManager.updateCrawlQueue());
+      assertEquals(1, crawlManager.getPendingQueue().size());
+      au7.setShouldCrawlForNewContent(false);
+      assertNull(crawlManager.nextReq());
+
+      // Deleted AU is removed from queue
+      MockArchivalUnit au8 = newMockArchivalUnit("mau8");
+      PluginTestUtil.registerArchivalUnit(plugin, au8);
+      crawlManager.auEventCreated(AuEvent.forAu(au8, AuEvent.Type.Create),
+                                  au8);
+      crawlManager.updateCrawlQueue();
+      assertEquals(1, crawlManager.getPendingQueue().size());
+      crawlManager.auEventDeleted(AuEvent.forAu(au8, AuEvent.Type.Delete),
+                                  au8);
+      assertEmpty(crawlManager.getPendingQueue());
+      assertNull(crawlManager.nextReq());
+
+      assertEquals(1, crawlManager.rebuildCount);
+      assertEquals(1, cms.getQueueRebuildCount());
+      assertTrue(cms.getQueueUpdateCount() > 0);
+      assertTrue(cms.getQueueUpdateAuCount() >= cms.getQueueUpdateCount());
+
+      // All AUs examined periodically
+      au8.setShouldCrawlForNewContent(false);
+      TimeBase.step(Constants.HOUR);
+      assertNull(crawlManager.nextReq());
+      assertEquals(2, crawlManager.rebuildCount);
+      assertEquals(2, cms.getQueueRebuildCount());
+    }
+
+    public void testIncrementalOdcQueueAuStateChange() throws Exception {
+      TimeBase.setSimulated(10000);
+      Properties p = new Properties();
+      p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "-1");
+      p.put(CrawlManagerImpl.PARAM_REBUILD_CRAWL_QUEUE_INTERVAL, "1h");
+      theDaemon.setAusStarted(true);
+      ConfigurationUtil.addFromProps(p);
+      crawlManager.startService();
+
+      MockArchivalUnit[] aus = makeMockAus(4);
+      registerAus(aus);
+      setAu(aus[0], 0, -1, 500);
+      setAu(aus[1], 0, -1, 1000);
+      setAu(aus[2], 0, -1, 2000);
+      setAu(aus[3], 0, -1, 3000);
+
+      // First request builds queues from all AUs
+      assertEquals(aus[0], crawlManager.nextReq().getAu());
+      aus[0].setShouldCrawlForNewContent(false);
+      assertEquals(1, crawlManager.rebuildCount);
+
+      // AU's crawl time changes while it's queued (e.g., by another
+      // service); it's moved to its current place when it reaches the head
+      setAu(aus[1], 0, -1, 2500);
+      assertEquals(aus[2], crawlManager.nextReq().getAu());
+      aus[2].setShouldCrawlForNewContent(false);
+
+      // Changed AU can still be removed from the queue
+      setAu(aus[3], 0, -1, 100);
+      crawlManager.auEventDeleted(AuEvent.forAu(aus[3], AuEvent.Type.Delete),
+                                  aus[3]);
+      assertEquals(ListUtil.list(aus[1]),
+                   auList(crawlManager.getPendingQueue()));
+      assertEquals(aus[1], crawlManager.nextReq().getAu());
+      aus[1].setShouldCrawlForNewContent(false);
+      assertNull(crawlManager.nextReq());
+      assertEquals(1, crawlManager.rebuildCount);
+    }
+
+    List<ArchivalUnit> auList(Collection<CrawlReq> reqs) {
+      List<ArchivalUnit> res = new ArrayList<ArchivalUnit>();
+      for (CrawlReq req : reqs) {
+        res.add(req.getAu());
+      }
+      return res;
+    }
+
     public void testCrawlPriorityAuidPatterns() {
       ConfigurationUtil.addFromArgs(CrawlManagerImpl.PARAM_CRAWL_PRIORITY_AUID_MAP,
           "foo(4|5),3;bar,5;baz,-1");
@@ -1603,6 +1760,7 @@ public class TestCrawlManagerImpl extends LockssTestCase {
       p.put(CrawlManagerImpl.PARAM_START_CRAWLS_INTERVAL, "10");
       p.put(CrawlManagerImpl.PARAM_QUEUE_RECALC_AFTER_NEW_AU, "200");
       p.put(CrawlManagerImpl.PARAM_QUEUE_EMPTY_SLEEP, "500");
+      p.put(CrawlManagerImpl.PARAM_INCREMENTAL_CRAWL_QUEUE, "false");
 
       p.put(CrawlManagerImpl.PARAM_SHARED_QUEUE_MAX, "10");
       p.put(CrawlManagerImpl.PARAM_UNSHARED_QUEUE_MAX, "10");
@@ -147,6 +147,63 @@ public class TestCrawlQueue extends LockssTestCase {
     assertEquals(ListUtil.list(c5, c4, c3, c2, c1), lst);
   }
 
+  public void testSpillIll() {
+    CrawlQueue cq =
+      new CrawlQueue(new CrawlQueue.AlphabeticalBreadthFirstUrlComparator());
+    assertFalse(cq.isSpillable());
+    try {
+      cq.enableSpill(10);
+      fail("Priority queue shouldn't be spillable");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testSpill() {
+    CrawlQueue cq = new CrawlQueue(null);
+    assertTrue(cq.isSpillable());
+    cq.enableSpill(3);
+    List<CrawlUrlData> exp = new ArrayList<CrawlUrlData>();
+    for (int ix = 0; ix < 10; ix++) {
+      CrawlUrlData curl = new CrawlUrlData("u" + ix, ix % 4);
+      if (ix == 5) {
+	curl.setReferrer("ref5");
+	curl.setFetched(true);
+      }
+      cq.add(curl);
+      exp.add(curl);
+    }
+    assertEquals(10, cq.size());
+    assertEquals(7, cq.numUnreadSpilled());
+    assertEquals(7, cq.getNumSpilled());
+    assertEquals(1, cq.getNumSpillFiles());
+    // in-memory entries can be retrieved, spilled ones are only known
+    assertSame(exp.get(1), cq.get("u1"));
+    assertNull(cq.get("u5"));
+    assertTrue(cq.contains("u5"));
+    assertFalse(cq.contains("u10"));
+
+    for (int ix = 0; ix < 10; ix++) {
+      assertFalse(cq.isEmpty());
+      CrawlUrlData curl = cq.remove();
+      assertEquals(exp.get(ix).getUrl(), curl.getUrl());
+      assertEquals(exp.get(ix).getDepth(), curl.getDepth());
+      assertEquals(exp.get(ix).getReferrer(), curl.getReferrer());
+      assertEquals(exp.get(ix).isFetched(), curl.isFetched());
+      if (ix == 4) {
+	// added while spill file non-empty, must go after spilled entries
+	cq.add(new CrawlUrlData("late", 1));
+      }
+    }
+    assertEquals("late", cq.remove().getUrl());
+    assertTrue(cq.isEmpty());
+    assertEquals(0, cq.numUnreadSpilled());
+    assertEquals(7, cq.getMaxSpilled());
+    assertTrue(cq.getSpillBytes() > 0);
+    // Spill file has been drained and released
+    assertFalse(cq.contains("u5"));
+    cq.close();
+  }
+
   class DeepestFirstUrlOrderComparator implements Comparator<CrawlUrl> {
     public int compare(CrawlUrl curl1, CrawlUrl curl2) {
       int res = curl2.getDepth() - curl1.getDepth();
@@ -921,6 +921,77 @@ public class TestFollowLinkCrawler extends LockssTestCase {
 		 crawlUrls(ListUtil.list(url1, url2, url3)));
   }
 
+  public void testConcurrentFetch() {
+    ConfigurationUtil.addFromArgs(FollowLinkCrawler.PARAM_FETCH_THREADS, "3");
+    String url1= "http://www.example.com/link1.html";
+    String url2= "http://www.example.com/link2.html";
+    String url3= "http://www.example.com/link3.html";
+    String url4= "http://www.example.com/link4.html";
+    String url5= "http://www.example.com/link5.html";
+
+    crawler.setUrlsToFollow(ListUtil.list(url1, url2));
+    extractor.addUrlsToReturn(url1, SetUtil.set(url2, url3, url4));
+    extractor.addUrlsToReturn(url2, SetUtil.set(url1, url4, url5));
+    assertEquals(SetUtil.set(startUrl, url1, url2, url3, url4, url5),
+		 crawlUrls(ListUtil.list(url1, url2, url3, url4, url5)));
+    assertTrue(crawler.isConcurrentFetch());
+    assertEquals(SetUtil.set(startUrl, url1, url2, url3, url4, url5),
+		 crawler.fetched);
+    assertEmpty(crawler.inFlightUrls);
+  }
+
+  public void testSwitchToCompactTracking() {
+    ConfigurationUtil.addFromArgs(FollowLinkCrawler.PARAM_MAX_IN_MEMORY_URLS,
+				  "5",
+				  FollowLinkCrawler.PARAM_FRONTIER_HOT_WINDOW,
+				  "2");
+    String url1= "http://www.example.com/link1.html";
+    String url2= "http://www.example.com/link2.html";
+    String url3= "http://www.example.com/link3.html";
+    String url4= "http://www.example.com/link4.html";
+    String url5= "http://www.example.com/link5.html";
+    String url6= "http://www.example.com/link6.html";
+    String url7= "http://www.example.com/link7.html";
+
+    crawler.setUrlsToFollow(ListUtil.list(url1, url2, url3));
+    // After url1 the crawl knows 7 URLs and switches to fingerprints
+    extractor.addUrlsToReturn(url1, SetUtil.set(url2, url4, url5, url6));
+    // url1 is now known only by fingerprint, url7 is spilled
+    extractor.addUrlsToReturn(url2, SetUtil.set(url1, url6, url7));
+    extractor.addUrlsToReturn(url7, SetUtil.set(startUrl, url1));
+    assertEquals(SetUtil.set(startUrl, url1, url2, url3, url4, url5, url6,
+			     url7),
+		 crawlUrls(ListUtil.list(url1, url2, url3, url4, url5, url6,
+					 url7)));
+    assertTrue(crawler.isCompactTracking());
+    assertEmpty(crawler.processedUrls);
+    assertEquals(8, crawler.processedFps.size());
+
+    CrawlerStatus status = crawler.getCrawlerStatus();
+    assertTrue(status.isCompactTracking());
+    assertEquals(1, status.getNumSpilled());
+    assertEquals(1, status.getMaxSpilled());
+    assertEquals(1, status.getNumSpillFiles());
+    assertTrue(status.getSpillBytes() > 0);
+    assertEquals(8, status.getNumFetched());
+  }
+
+  public void testNoCompactTrackingBelowLimit() {
+    ConfigurationUtil.addFromArgs(FollowLinkCrawler.PARAM_MAX_IN_MEMORY_URLS,
+				  "10");
+    String url1= "http://www.example.com/link1.html";
+    String url2= "http://www.example.com/link2.html";
+
+    crawler.setUrlsToFollow(ListUtil.list(url1));
+    extractor.addUrlsToReturn(url1, SetUtil.set(url1, url2));
+    assertEquals(SetUtil.set(startUrl, url1, url2),
+		 crawlUrls(ListUtil.list(url1, url2)));
+    assertFalse(crawler.isCompactTracking());
+    assertNull(crawler.processedFps);
+    assertFalse(crawler.getCrawlerStatus().isCompactTracking());
+    assertEquals(0, crawler.getCrawlerStatus().getNumSpillFiles());
+  }
+
 //   public void testCrawlListPreservesUncrawledUrls() {
 //     setProperty(TestableFollowLinkCrawler.PARAM_PERSIST_CRAWL_LIST, "true");
 //     String url1= "http://www.example.com/link1.html";
@@ -1392,7 +1463,7 @@ public class TestFollowLinkCrawler extends LockssTestCase {
 
     Set<String> urlsToFollow = new HashSet<String>();
     Set<String> nonStartUrlsToFollow = new HashSet<String>();
-    Set fetched = new HashSet();
+    Set fetched = Collections.synchronizedSet(new HashSet());
     boolean isFailOnStartUrlError = true;
     List<PermissionChecker> daemonPermissionCheckers;
 
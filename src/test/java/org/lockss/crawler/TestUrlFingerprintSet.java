@@ -0,0 +1,63 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.crawler;
+
+import org.lockss.test.*;
+
+public class TestUrlFingerprintSet extends LockssTestCase {
+
+  public void testAddContains() {
+    UrlFingerprintSet set = new UrlFingerprintSet(4);
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains("http://example.com/"));
+    assertTrue(set.add("http://example.com/"));
+    assertFalse(set.add("http://example.com/"));
+    assertTrue(set.contains("http://example.com/"));
+    assertFalse(set.contains("http://example.com"));
+    assertEquals(1, set.size());
+  }
+
+  public void testGrow() {
+    UrlFingerprintSet set = new UrlFingerprintSet(4);
+    long initialBytes = set.getTableBytes();
+    for (int ix = 0; ix < 10000; ix++) {
+      assertTrue(set.add("http://example.com/page" + ix + ".html"));
+    }
+    assertEquals(10000, set.size());
+    assertTrue(set.getTableBytes() > initialBytes);
+    assertTrue(set.getTableBytes() <= 10000 * 16 * 2);
+    for (int ix = 0; ix < 10000; ix++) {
+      assertTrue(set.contains("http://example.com/page" + ix + ".html"));
+      assertFalse(set.contains("http://example.com/other" + ix + ".html"));
+    }
+    set.clear();
+    assertEquals(0, set.size());
+    assertFalse(set.contains("http://example.com/page1.html"));
+  }
+}
@@ -452,6 +452,167 @@ public class TestStatusTable extends LockssTestCase {
 						   new Properties())));
   }
 
+  /** RowSource over Integers; records the columns requested for each
+   * object */
+  static class IntRowSource implements StatusTable.RowSource<Integer> {
+    List<Integer> objs;
+    Map<Integer,List<Set<String>>> requested =
+      new HashMap<Integer,List<Set<String>>>();
+
+    IntRowSource(List<Integer> objs) {
+      this.objs = objs;
+    }
+
+    public Collection<Integer> getRowObjects() {
+      return objs;
+    }
+
+    public Map makeRow(Integer obj, Set<String> cols) {
+      List<Set<String>> lst = requested.get(obj);
+      if (lst == null) {
+	lst = new ArrayList<Set<String>>();
+	requested.put(obj, lst);
+      }
+      lst.add(new HashSet<String>(cols));
+      if (obj < 0) {
+	throw new RuntimeException("Negative obj");
+      }
+      Map row = new HashMap();
+      if (cols.contains("num")) {
+	row.put("num", obj);
+      }
+      if (cols.contains("neg")) {
+	row.put("neg", -obj);
+      }
+      if (cols.contains("name")) {
+	row.put("name", "n" + obj);
+      }
+      return row;
+    }
+  }
+
+  List rowSourceCols() {
+    return ListUtil.list(new ColumnDescriptor("num", "Num",
+					      ColumnDescriptor.TYPE_INT),
+			 new ColumnDescriptor("neg", "Neg",
+					      ColumnDescriptor.TYPE_INT),
+			 new ColumnDescriptor("name", "Name",
+					      ColumnDescriptor.TYPE_STRING));
+  }
+
+  List<Integer> rowNums(List<Map> rows) {
+    List<Integer> res = new ArrayList<Integer>();
+    for (Map row : rows) {
+      if (row.get("num") instanceof Integer) {
+	res.add((Integer)row.get("num"));
+      }
+    }
+    return res;
+  }
+
+  public void testRowSourceAllRows() {
+    IntRowSource src = new IntRowSource(ListUtil.list(3, 1, 2));
+    table.setColumnDescriptors(rowSourceCols());
+    table.setRowSource(src, 2);
+    assertEquals(-1, table.getTotalRows());
+    // Not paged, all rows are returned
+    List<Map> rows = table.getSortedRows();
+    assertEquals(ListUtil.list(1, 2, 3), rowNums(rows));
+    assertEquals(3, rows.size());
+    assertEquals("n2", rows.get(1).get("name"));
+    assertEquals(3, table.getTotalRows());
+
+    rows = table.getSortedRows(ListUtil.list(new StatusTable.SortRule("neg",
+								      true)));
+    assertEquals(ListUtil.list(3, 2, 1), rowNums(rows));
+  }
+
+  public void testRowSourceEmpty() {
+    table.setColumnDescriptors(rowSourceCols());
+    table.setRowSource(new IntRowSource(new ArrayList<Integer>()));
+    assertEmpty(table.getSortedRows());
+    assertEquals(0, table.getTotalRows());
+  }
+
+  public void testRowSourceRequestedCols() {
+    IntRowSource src = new IntRowSource(ListUtil.list(5, 4, 3, 2, 1));
+    table.setColumnDescriptors(rowSourceCols());
+    table.getOptions().set(StatusTable.OPTION_PAGED);
+    table.setRowSource(src, 2);
+    table.getSortedRows(ListUtil.list(new StatusTable.SortRule("neg",
+							       true)));
+    Set<String> sortCols = SetUtil.set("neg");
+    Set<String> allCols = SetUtil.set("num", "neg", "name");
+    // Rows on the page are built twice, the others only with the sort col
+    assertEquals(ListUtil.list(sortCols, allCols), src.requested.get(5));
+    assertEquals(ListUtil.list(sortCols, allCols), src.requested.get(4));
+    assertEquals(ListUtil.list(sortCols), src.requested.get(3));
+    assertEquals(ListUtil.list(sortCols), src.requested.get(1));
+  }
+
+  public void testRowSourcePaged() {
+    List<Integer> objs = new ArrayList<Integer>();
+    for (int ix = 10; ix > 0; ix--) {
+      objs.add(ix);
+    }
+    table.setColumnDescriptors(rowSourceCols());
+    table.getOptions().set(StatusTable.OPTION_PAGED);
+    table.setProperty("other", "val");
+    table.setRowSource(new IntRowSource(objs), 4);
+
+    List<Map> rows = table.getSortedRows();
+    assertEquals(ListUtil.list(1, 2, 3, 4), rowNums(rows));
+    assertEquals(10, table.getTotalRows());
+    assertEquals(5, rows.size());
+    StatusTable.Reference ref =
+      (StatusTable.Reference)rows.get(4).get("num");
+    assertEquals("Next (5-8)", ref.getValue());
+    assertEquals("table1", ref.getTableName());
+    assertEquals("4", ref.getProperties().getProperty("skiprows"));
+    assertEquals("4", ref.getProperties().getProperty("numrows"));
+    assertEquals("val", ref.getProperties().getProperty("other"));
+    assertNull(ref.getProperties().getProperty("sort"));
+
+    // Explicit page, non-default sort order
+    table.setProperty("skiprows", "6");
+    table.setProperty("numrows", "3");
+    rows = table.getSortedRows(ListUtil.list(new StatusTable.SortRule("neg",
+								      true)));
+    assertEquals(ListUtil.list(4, 3, 2), rowNums(rows));
+    assertEquals(5, rows.size());
+    StatusTable.Reference prev =
+      (StatusTable.Reference)rows.get(0).get("num");
+    assertEquals("Previous (4-6)", prev.getValue());
+    assertEquals("3", prev.getProperties().getProperty("skiprows"));
+    assertEquals("Aneg", prev.getProperties().getProperty("sort"));
+    StatusTable.Reference next =
+      (StatusTable.Reference)rows.get(4).get("num");
+    assertEquals("9", next.getProperties().getProperty("skiprows"));
+    assertEquals("val", next.getProperties().getProperty("other"));
+
+    // Last page has no Next link
+    table.setProperty("skiprows", "8");
+    rows = table.getSortedRows();
+    assertEquals(ListUtil.list(9, 10), rowNums(rows));
+    assertEquals(3, rows.size());
+  }
+
+  public void testRowSourceNumRowsNotPaged() {
+    table.setColumnDescriptors(rowSourceCols());
+    table.setProperty("numrows", "2");
+    table.setRowSource(new IntRowSource(ListUtil.list(3, 1, 2)));
+    List<Map> rows = table.getSortedRows();
+    assertEquals(ListUtil.list(1, 2), rowNums(rows));
+    assertEquals(3, table.getTotalRows());
+  }
+
+  public void testRowSourceException() {
+    table.setColumnDescriptors(rowSourceCols());
+    table.setRowSource(new IntRowSource(ListUtil.list(3, -1, 2)));
+    assertEquals(ListUtil.list(2, 3), rowNums(table.getSortedRows()));
+    assertEquals(2, table.getTotalRows());
+  }
+
   public void testSummaryInfo() {
     StatusTable.SummaryInfo si =
       new StatusTable.SummaryInfo("Foo", ColumnDescriptor.TYPE_STRING, "val");
@@ -0,0 +1,217 @@
+/*
+
+ Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+ all rights reserved.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+ STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+ IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+ Except as contained in this notice, the name of Stanford University shall not
+ be used in advertising or otherwise to promote the sale, use or other dealings
+ in this Software without prior written authorization from Stanford University.
+
+ */
+package org.lockss.exporter.counter;
+
+import java.util.*;
+import org.lockss.config.ConfigManager;
+import org.lockss.test.*;
+import org.lockss.util.ListUtil;
+
+/**
+ * Test class for org.lockss.exporter.counter.CounterReportsRequestQueue.
+ * 
+ * @version 1.0
+ */
+public class TestCounterReportsRequestQueue extends LockssTestCase {
+
+  private CounterReportsRequestQueue makeQueue(String policy) {
+    ConfigurationUtil.addFromArgs(CounterReportsRequestQueue.PARAM_QUEUE_SIZE,
+	"2", CounterReportsRequestQueue.PARAM_OVERFLOW_POLICY, policy,
+	CounterReportsRequestQueue.PARAM_FLUSH_INTERVAL, "10");
+    CounterReportsRequestQueue queue =
+	new CounterReportsRequestQueue(null, null);
+    queue.setConfig(ConfigManager.getCurrentConfig());
+    return queue;
+  }
+
+  private CounterReportsRequestQueue.Request makeRequest(String url) {
+    return new CounterReportsRequestQueue.Request(url, false, null, 0);
+  }
+
+  /**
+   * Tests the default configuration.
+   */
+  public void testDefaults() {
+    CounterReportsRequestQueue queue =
+	new CounterReportsRequestQueue(null, null);
+    queue.setConfig(ConfigManager.getCurrentConfig());
+    assertTrue(queue.isAsync());
+    assertEquals(0, queue.getQueueDepth());
+    assertTrue(queue.flush(0));
+  }
+
+  /**
+   * Tests that new requests are dropped when the queue is full.
+   */
+  public void testDropNewest() {
+    CounterReportsRequestQueue queue = makeQueue("DropNewest");
+    assertTrue(queue.enqueue(makeRequest("u1")));
+    assertTrue(queue.enqueue(makeRequest("u2")));
+    assertFalse(queue.enqueue(makeRequest("u3")));
+    assertEquals(2, queue.getQueueDepth());
+  }
+
+  /**
+   * Tests that the oldest request is dropped when the queue is full.
+   */
+  public void testDropOldest() {
+    CounterReportsRequestQueue queue = makeQueue("DropOldest");
+    assertTrue(queue.enqueue(makeRequest("u1")));
+    assertTrue(queue.enqueue(makeRequest("u2")));
+    assertTrue(queue.enqueue(makeRequest("u3")));
+    assertEquals(2, queue.getQueueDepth());
+    assertEquals(1, queue.getDroppedCount());
+  }
+
+  /**
+   * Tests that a request is dropped when the queue stays full while waiting.
+   */
+  public void testBlock() {
+    CounterReportsRequestQueue queue = makeQueue("Block");
+    assertTrue(queue.enqueue(makeRequest("u1")));
+    assertTrue(queue.enqueue(makeRequest("u2")));
+    assertFalse(queue.enqueue(makeRequest("u3")));
+    assertEquals(2, queue.getQueueDepth());
+  }
+
+  private MyQueue makeWriterQueue(MyManager mgr, String async,
+      String batchSize) {
+    ConfigurationUtil.addFromArgs(CounterReportsRequestQueue.PARAM_ASYNC,
+	async, CounterReportsRequestQueue.PARAM_BATCH_SIZE, batchSize,
+	CounterReportsRequestQueue.PARAM_FLUSH_INTERVAL, "1h");
+    MyQueue queue = new MyQueue(mgr);
+    queue.setConfig(ConfigManager.getCurrentConfig());
+    return queue;
+  }
+
+  private void record(CounterReportsRequestQueue queue, String... urls) {
+    for (String url : urls) {
+      queue.record(url, false, null);
+    }
+  }
+
+  /**
+   * Tests that the writer thread persists full batches without waiting for
+   * the flush interval, and that a flush persists a partial batch.
+   */
+  public void testWriterBatches() throws Exception {
+    MyManager mgr = new MyManager();
+    MyQueue queue = makeWriterQueue(mgr, "true", "3");
+    queue.start();
+    try {
+      record(queue, "full1", "full2", "full3", "full4", "full5", "full6",
+	  "other");
+      assertTrue(mgr.persisted.take(TIMEOUT_SHOULDNT));
+      assertTrue(mgr.persisted.take(TIMEOUT_SHOULDNT));
+      assertEquals(ListUtil.list("full1", "full2", "full3"),
+	  mgr.batches.get(0));
+      assertEquals(ListUtil.list("full4", "full5", "full6"),
+	  mgr.batches.get(1));
+      // The last one waits for the batch to fill or the flush interval
+      assertEquals(0, queue.getIgnoredCount());
+
+      assertTrue(queue.flush(TIMEOUT_SHOULDNT));
+      assertEquals(0, queue.getQueueDepth());
+      assertEquals(2, mgr.batches.size());
+      assertEquals(7, queue.getQueuedCount());
+      assertEquals(6, queue.getPersistedCount());
+      assertEquals(1, queue.getIgnoredCount());
+      assertEquals(2, queue.getBatchCount());
+      assertNotSame(Thread.currentThread(), mgr.persistThread);
+    } finally {
+      queue.stop(TIMEOUT_SHOULDNT);
+    }
+  }
+
+  /**
+   * Tests that stopping the queue persists the requests still queued, and
+   * that later requests are persisted synchronously.
+   */
+  public void testFlushOnStop() throws Exception {
+    MyManager mgr = new MyManager();
+    MyQueue queue = makeWriterQueue(mgr, "true", "100");
+    queue.start();
+    record(queue, "full1", "full2", "full3");
+    queue.stop(TIMEOUT_SHOULDNT);
+    assertEquals(ListUtil.list(ListUtil.list("full1", "full2", "full3")),
+	mgr.batches);
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(3, queue.getPersistedCount());
+
+    record(queue, "full4");
+    assertEquals(2, mgr.batches.size());
+    assertEquals(ListUtil.list("full4"), mgr.batches.get(1));
+    assertSame(Thread.currentThread(), mgr.persistThread);
+  }
+
+  /**
+   * Tests that requests are persisted by the recording thread when the
+   * queue isn't asynchronous.
+   */
+  public void testSync() throws Exception {
+    MyManager mgr = new MyManager();
+    MyQueue queue = makeWriterQueue(mgr, "false", "100");
+    queue.start();
+    record(queue, "full1", "other", "full2");
+    assertEquals(ListUtil.list(ListUtil.list("full1"),
+	ListUtil.list("full2")), mgr.batches);
+    assertSame(Thread.currentThread(), mgr.persistThread);
+    assertEquals(0, queue.getQueuedCount());
+    assertEquals(1, queue.getIgnoredCount());
+  }
+
+  // Persists nothing, records the URLs of each batch.
+  static class MyManager extends CounterReportsManager {
+    List<List<String>> batches = new Vector<List<String>>();
+    SimpleBinarySemaphore persisted = new SimpleBinarySemaphore();
+    volatile Thread persistThread;
+
+    @Override
+    void persistRequests(List<CounterReportsRequestQueue.Request> requests) {
+      List<String> urls = new ArrayList<String>();
+      for (CounterReportsRequestQueue.Request req : requests) {
+	urls.add(req.url);
+      }
+      persistThread = Thread.currentThread();
+      batches.add(urls);
+      persisted.give();
+    }
+  }
+
+  // URLs starting with "full" are full-text URLs; no database needed.
+  static class MyQueue extends CounterReportsRequestQueue {
+    MyQueue(CounterReportsManager mgr) {
+      super(mgr, null);
+    }
+
+    @Override
+    Long findMatchingFullTextMdItemId(String url) {
+      return url.startsWith("full") ? 1L : null;
+    }
+  }
+}
@@ -33,6 +33,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import org.junit.Test;
 import org.lockss.daemon.Cron;
 import org.lockss.db.DbException;
 import org.lockss.db.DbManager;
@@ -184,6 +185,7 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase4 {
    * 
    * @throws Exception if there are problems running the test.
    */
+  @Test
   public void testRecordMultipleRequests() throws Exception {
 
     CounterReportsRequestRecorder recorder =
@@ -272,6 +274,37 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase4 {
     checkRequestByPublisherInvolvementRowCount(true, 2);
   }
 
+  /**
+   * Tests the request queue metrics and the URL lookup cache.
+   * 
+   * @throws Exception if there are problems running the test.
+   */
+  @Test
+  public void testQueueMetrics() throws Exception {
+    CounterReportsRequestRecorder recorder =
+	CounterReportsRequestRecorder.getInstance();
+    CounterReportsRequestQueue queue = counterReportsManager.getRequestQueue();
+    assertTrue(queue.isAsync());
+
+    for (int i = 0; i < 3; i++) {
+      recorder.recordRequest(RECORDABLE_URL,
+	  CounterReportsRequestRecorder.PublisherContacted.FALSE, 200, null);
+      recorder.recordRequest(IGNORABLE_URL,
+	  CounterReportsRequestRecorder.PublisherContacted.FALSE, 200, null);
+    }
+
+    checkRequestRowCount(3);
+    assertEquals(0, queue.getQueueDepth());
+    assertEquals(6, queue.getQueuedCount());
+    assertEquals(0, queue.getDroppedCount());
+    assertEquals(3, queue.getPersistedCount());
+    assertEquals(3, queue.getIgnoredCount());
+    assertEquals(0, queue.getFailedCount());
+    // Each URL is looked up in the database only once.
+    assertEquals(2, queue.getLookupCount());
+    assertEquals(4, queue.getCacheHitCount());
+  }
+
   /**
    * Checks the expected count of rows in the request table.
    * 
@@ -281,6 +314,9 @@ public class TestCounterReportsRequestRecorder extends LockssTestCase4 {
    */
   private void checkRequestRowCount(int expected)
       throws SQLException, DbException {
+    // Wait for queued requests to be persisted.
+    assertTrue(counterReportsManager.getRequestQueue().flush(TIMEOUT_SHOULDNT));
+
     Connection conn = null;
     PreparedStatement statement = null;
     ResultSet resultSet = null;
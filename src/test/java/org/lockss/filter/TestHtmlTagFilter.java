@@ -335,6 +335,75 @@ public class TestHtmlTagFilter extends LockssTestCase {
 		       ListUtil.list(tagPair2, tagPair1));
   }
 
+  public void testMultiPairNoNesting() throws IOException {
+    ConfigurationUtil.addFromArgs(HtmlTagFilter.PARAM_MULTI_PAIR, "true");
+    assertTrue(HtmlTagFilter.makeNestedFilter(new StringReader("blah"),
+					      ListUtil.list(tagPair1, tagPair2))
+	       instanceof MultiHtmlTagFilter);
+    String content =
+      "This "+startTag1+"is "+endTag1
+      +"test "+startTag2+"content"+endTag2+"here";
+    String expectedContent = "This test here";
+    assertFilterString(expectedContent, content,
+		       ListUtil.list(tagPair1, tagPair2));
+  }
+
+  public void testMultiPairNesting() throws IOException {
+    ConfigurationUtil.addFromArgs(HtmlTagFilter.PARAM_MULTI_PAIR, "true");
+    String content =
+      "This "+startTag1+"is "+startTag2
+      +"test "+endTag2+"content"+endTag1+"here";
+    assertFilterString("This here", content,
+		       ListUtil.list(tagPair2, tagPair1));
+    content =
+      "This "+startTag1+"is "+startTag1+"test "+endTag1+"content"+endTag1
+      +startTag2+startTag2+"a"+endTag2+"b"+endTag2+"here";
+    assertFilterString("This here", content,
+		       ListUtil.list(tagPair1, tagPair2));
+    HtmlTagFilter.TagPair noNest =
+      new HtmlTagFilter.TagPair(startTag2, endTag2, false, false);
+    assertFilterString("This b"+endTag2+"here", content,
+		       ListUtil.list(tagPair1, noNest));
+  }
+
+  public void testMultiPairIgnoreCase() throws IOException {
+    ConfigurationUtil.addFromArgs(HtmlTagFilter.PARAM_MULTI_PAIR, "true");
+    HtmlTagFilter.TagPair icPair =
+      new HtmlTagFilter.TagPair(startTag2, endTag2, true);
+    String content =
+      "This <START>is "+endTag1+startTag1+"x"+endTag1
+      +"test <SCRIPT>content</Script>here";
+    assertFilterString("This <START>is "+endTag1+"test here", content,
+		       ListUtil.list(tagPair1, icPair));
+  }
+
+  // Where regions of different pairs partially overlap, the one that
+  // starts first wins regardless of list order
+  public void testMultiPairOverlapping() throws IOException {
+    ConfigurationUtil.addFromArgs(HtmlTagFilter.PARAM_MULTI_PAIR, "true");
+    String content =
+      startTag2+startTag1+endTag2+"blah1"+endTag1+endTag2+"blah2";
+    String expectedContent = "blah1"+endTag1+endTag2+"blah2";
+    assertFilterString(expectedContent, content,
+		       ListUtil.list(tagPair1, tagPair2));
+    assertFilterString(expectedContent, content,
+		       ListUtil.list(tagPair2, tagPair1));
+  }
+
+  public void testMultiPairNoEndTag() throws IOException {
+    ConfigurationUtil.addFromArgs(HtmlTagFilter.PARAM_MULTI_PAIR, "true");
+    String content = "This "+startTag1+"is "+startTag2+"test content";
+    assertFilterString("This ", content, ListUtil.list(tagPair2, tagPair1));
+
+    ConfigurationUtil.addFromArgs(PARAM_THROW_IF_NO_END_TAG, "true");
+    try {
+      assertFilterString("This ", content, ListUtil.list(tagPair2, tagPair1));
+      fail("Trying to filter content with missing end tag should throw");
+    } catch (HtmlTagFilter.MissingEndTagException ex) {
+      //expected
+    }
+  }
+
   /**
    * To catch an old error case involving single char reads when the string
    * be filtered matched the size of the buffer
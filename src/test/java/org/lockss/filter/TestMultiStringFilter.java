@@ -0,0 +1,247 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestMultiStringFilter extends LockssTestCase {
+
+  MultiStringFilter make(String input, int buflen, String[] strs,
+			 String[] repls, boolean ignoreCase) {
+    MultiStringFilter filt =
+      new MultiStringFilter(new StringReader(input), buflen, strs, repls);
+    filt.setIgnoreCase(ignoreCase);
+    return filt;
+  }
+
+  /** Check that the filtered string matches expected.  Tests with varying
+   * filter buffer lengths and read buffer lengths */
+  void assertFilterString(String expected, String input, String[] strs,
+			  String[] repls, boolean ignoreCase)
+      throws IOException {
+    for (int len1 = 1; len1 <= input.length() + 2; len1++) {
+      for (int len2 = 1; len2 <= input.length() + 2; len2++) {
+	Reader reader = make(input, len1, strs, repls, ignoreCase);
+	assertReaderMatchesString(expected, reader, len2);
+	assertEquals(-1, reader.read());
+	reader = make(input, len1, strs, repls, ignoreCase);
+	assertOffsetReaderMatchesString(expected, reader, len2);
+	assertEquals(-1, reader.read());
+      }
+    }
+    Reader reader = make(input, -1, strs, repls, ignoreCase);
+    assertReaderMatchesStringSlow(expected, reader);
+    assertEquals(-1, reader.read());
+  }
+
+  void assertFilterString(String expected, String input, String[] strs)
+      throws IOException {
+    assertFilterString(expected, input, strs, null, false);
+  }
+
+  public void testIll() {
+    try {
+      new MultiStringFilter(null, new String[] {"a"});
+      fail("Null reader should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new MultiStringFilter(new StringReader("a"), new String[0]);
+      fail("No strings should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new MultiStringFilter(new StringReader("a"), new String[] {"a", ""});
+      fail("Empty string should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new MultiStringFilter(new StringReader("a"), new String[] {"a", "b"},
+			    new String[] {"c"});
+      fail("Mismatched replacements should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testNoMatch() throws IOException {
+    assertFilterString("", "", new String[] {"foo", "bar"});
+    assertFilterString("This is a test string", "This is a test string",
+		       new String[] {"foo", "bar"});
+  }
+
+  public void testRemove() throws IOException {
+    assertFilterString("This is a test string",
+		       "ThisREMOVE is a ALSOtest stringREMOVE",
+		       new String[] {"REMOVE", "ALSO"});
+    assertFilterString("", "REMOVEALSOREMOVE",
+		       new String[] {"REMOVE", "ALSO"});
+    assertFilterString("REMThis is a test string",
+		       "REMThis is a test string",
+		       new String[] {"REMOVE", "ALSO"});
+  }
+
+  public void testReplace() throws IOException {
+    assertFilterString("ThisREPLACE is a GONEtest string",
+		       "ThisREMOVE is a ALSOtest string",
+		       new String[] {"REMOVE", "ALSO"},
+		       new String[] {"REPLACE", "GONE"}, false);
+    assertFilterString("ThisREPLACE is a test string",
+		       "ThisREMOVE is a ALSOtest string",
+		       new String[] {"REMOVE", "ALSO"},
+		       new String[] {"REPLACE", null}, false);
+  }
+
+  public void testIgnoreCase() throws IOException {
+    assertFilterString("ThisREPLACE is a GONEtest string",
+		       "ThisRemove is a aLSotest string",
+		       new String[] {"REMOVE", "ALSO"},
+		       new String[] {"REPLACE", "GONE"}, true);
+    assertFilterString("ThisRemove is a aLSotest string",
+		       "ThisRemove is a aLSotest string",
+		       new String[] {"REMOVE", "ALSO"},
+		       new String[] {"REPLACE", "GONE"}, false);
+  }
+
+  public void testOverlapping() throws IOException {
+    String[] strs = {"bcd", "abc", "cdef", "b"};
+    // Leftmost occurrence wins
+    assertFilterString("xdx", "xabcdx", strs);
+    assertFilterString("xefx", "xbcdefx", strs);
+    // then the longest
+    assertFilterString("x2-x", "xabcdefx",
+		       new String[] {"abc", "abcd", "ab", "ef"},
+		       new String[] {"1", "2", "3", "-"}, false);
+    // Non-overlapping occurrences after a match are found
+    assertFilterString("xx", "xabcdefx", new String[] {"abc", "def", "cd"});
+    // Prefix of a longer string
+    assertFilterString("aaaax", "aaabaax",
+		       new String[] {"ab", "aaac"},
+		       new String[] {"", ""}, false);
+  }
+
+  public void testNestedFilter() throws IOException {
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "true");
+    List<String> strs = ListUtil.list("REMOVE", "ALSO");
+    StringFilter filt =
+      StringFilter.makeNestedFilter(new StringReader("ThisREMOVE is a ALSOtest"),
+				    strs);
+    assertTrue(filt instanceof MultiStringFilter);
+    assertReaderMatchesString("This is a test", filt);
+
+    filt = StringFilter.makeNestedFilter(new StringReader("ThisRemove is"),
+					 new String[][] {
+					   {"REMOVE", "REPLACE"},
+					   {"ALSO"}},
+					 true);
+    assertTrue(filt instanceof MultiStringFilter);
+    assertReaderMatchesString("ThisREPLACE is", filt);
+
+    // A single string doesn't need a MultiStringFilter
+    filt = StringFilter.makeNestedFilter(new StringReader("ThisREMOVE is"),
+					 ListUtil.list("REMOVE"));
+    assertFalse(filt instanceof MultiStringFilter);
+    assertReaderMatchesString("This is", filt);
+
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "false");
+    filt = StringFilter.makeNestedFilter(new StringReader("ThisREMOVE is a ALSOtest"),
+					 strs);
+    assertFalse(filt instanceof MultiStringFilter);
+    assertReaderMatchesString("This is a test", filt);
+  }
+
+  public void testNestedFilterDefault() throws IOException {
+    StringFilter filt =
+      StringFilter.makeNestedFilter(new StringReader("ThisREMOVE is a ALSOtest"),
+				    ListUtil.list("REMOVE", "ALSO"));
+    assertFalse(filt instanceof MultiStringFilter);
+    assertReaderMatchesString("This is a test", filt);
+  }
+
+  // Cases where the chain and the single pass produce different output
+  public void testNestedFilterDiffers() throws IOException {
+    String[][] pairs = {{"a", "b"}, {"b", "c"}};
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "false");
+    StringFilter filt =
+      StringFilter.makeNestedFilter(new StringReader("xay"), pairs, false);
+    assertReaderMatchesString("xcy", filt);
+    // ignoreCase on the chain applies only to the last string
+    filt = StringFilter.makeNestedFilter(new StringReader("xXyY"),
+					 ListUtil.list("X", "Y"));
+    filt.setIgnoreCase(true);
+    assertReaderMatchesString("x", filt);
+
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "true");
+    filt = StringFilter.makeNestedFilter(new StringReader("xay"), pairs, false);
+    assertReaderMatchesString("xby", filt);
+    filt = StringFilter.makeNestedFilter(new StringReader("xXyY"),
+					 ListUtil.list("X", "Y"));
+    filt.setIgnoreCase(true);
+    assertReaderMatchesString("", filt);
+  }
+
+  public void testSetIgnoreCaseAfterRead() throws IOException {
+    MultiStringFilter filt = make("abc", -1, new String[] {"b", "c"},
+				  null, false);
+    assertEquals('a', filt.read());
+    try {
+      filt.setIgnoreCase(true);
+      fail("setIgnoreCase() after read() should throw");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  public void testLarge() throws IOException {
+    StringBuilder in = new StringBuilder();
+    StringBuilder exp = new StringBuilder();
+    for (int ix = 0; ix < 5000; ix++) {
+      in.append("line " + ix + " <b>bold</b>&nbsp;text\n");
+      exp.append("line " + ix + " bold text\n");
+    }
+    StringFilter filt =
+      StringFilter.makeNestedFilter(new StringReader(in.toString()),
+				    new String[][] {
+				      {"<b>"}, {"</b>"}, {"&nbsp;", " "}},
+				    false);
+    assertReaderMatchesString(exp.toString(), filt);
+  }
+
+  public void testClose() throws IOException {
+    Reader filt = make("abc", -1, new String[] {"b", "c"}, null, false);
+    filt.close();
+    try {
+      filt.read();
+      fail("read() after close() should throw");
+    } catch (IOException e) {
+    }
+  }
+}
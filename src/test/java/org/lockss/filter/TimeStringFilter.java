@@ -125,6 +125,57 @@ public class TimeStringFilter extends LockssTiming {
 	   }});
   }
 
+  // Twenty strings, a few of which occur in the file
+  static final List<String> MANY_STRINGS =
+    ListUtil.list("Apteryx", "wingless", "feathers", "kiwi", "ostrich",
+		  "emu", "cassowary", "rhea", "penguin", "dodo",
+		  "moa", "tinamou", "takahe", "kakapo", "weka",
+		  "<script>", "</div>", "&nbsp;", "Copyright", "Printed");
+
+  public void testNestedChain() throws Exception {
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "false");
+    time(file, "Nested chain, " + MANY_STRINGS.size() + " strings",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     InputStream is =
+	       new BufferedInputStream(new FileInputStream(file));
+	     Reader rdr = new InputStreamReader(is);
+	     StringFilter sf = StringFilter.makeNestedFilter(rdr, MANY_STRINGS);
+	     incrBytesProcessed(readAll(sf, true));
+	     rdr.close();
+	   }});
+  }
+
+  public void testMultiPattern() throws Exception {
+    ConfigurationUtil.addFromArgs(StringFilter.PARAM_MULTI_PATTERN, "true");
+    time(file, "Multi pattern, " + MANY_STRINGS.size() + " strings",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     InputStream is =
+	       new BufferedInputStream(new FileInputStream(file));
+	     Reader rdr = new InputStreamReader(is);
+	     StringFilter sf = StringFilter.makeNestedFilter(rdr, MANY_STRINGS);
+	     incrBytesProcessed(readAll(sf, true));
+	     rdr.close();
+	   }});
+  }
+
+  public void testMultiPatternIgnoreCase() throws Exception {
+    time(file, "Multi pattern, ignore case, " + MANY_STRINGS.size() +
+	 " strings",
+	 new Computation() {
+	   public void execute() throws Exception {
+	     InputStream is =
+	       new BufferedInputStream(new FileInputStream(file));
+	     Reader rdr = new InputStreamReader(is);
+	     String[] strs = MANY_STRINGS.toArray(new String[0]);
+	     StringFilter sf = new MultiStringFilter(rdr, strs);
+	     sf.setIgnoreCase(true);
+	     incrBytesProcessed(readAll(sf, true));
+	     rdr.close();
+	   }});
+  }
+
   public static void main(String[] argv) {
     String[] testCaseList = { TimeStringFilter.class.getName()};
     junit.textui.TestRunner.main(testCaseList);
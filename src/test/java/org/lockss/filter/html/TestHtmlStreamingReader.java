@@ -0,0 +1,177 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.filter.html;
+
+import java.io.*;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+import org.htmlparser.*;
+import org.htmlparser.filters.*;
+
+public class TestHtmlStreamingReader extends LockssTestCase {
+
+  static String ISO = "ISO-8859-1";
+  static String UTF8 = "UTF-8";
+
+  static String DOC =
+    "<html><head><title>Title</title>" +
+    "<script type=\"text/javascript\">if (a < b) { x = \"</div>\"; }</script>" +
+    "<style>div.ad { color: red }</style>" +
+    "</head><body>\n" +
+    "<!-- generated 2021-01-01 -->\n" +
+    "<div class=\"header\">Site <b>header</b></div>\n" +
+    "<div id=\"main\"><p>First para<p>Second para\n" +
+    "<table><tr><td>one<td>two<tr><td>three</table>\n" +
+    "<ul><li>l1<li>l2 <div class=\"ad\">ad text</ul>after list\n" +
+    "<span class=\"date\">Jan 1</span> text</div>\n" +
+    "<div class=\"footer\">Footer <div>nested <i>it</i></div> more</div>" +
+    "</b> stray end\n" +
+    "<form><input type=\"hidden\" name=\"x\" value=\"123\"></form>\n" +
+    "</body></html>";
+
+  String filter(String input, HtmlTransform xform, boolean streaming)
+      throws IOException {
+    InputStream in = new StringInputStream(input);
+    HtmlFilterInputStream filt =
+      new HtmlFilterInputStream(in, xform).setStreaming(streaming);
+    String res = StringUtil.fromInputStream(filt);
+    filt.close();
+    return res;
+  }
+
+  void assertSameAsTree(String input, HtmlTransform xform)
+      throws IOException {
+    assertTrue(HtmlStreamingReader.isStreamable(xform));
+    assertEquals(filter(input, xform, false), filter(input, xform, true));
+  }
+
+  HtmlTransform exclude(NodeFilter filter) {
+    return HtmlNodeFilterTransform.exclude(filter);
+  }
+
+  public void testIsStreamable() {
+    assertTrue(HtmlStreamingReader.isStreamable(exclude(HtmlNodeFilters.tag("div"))));
+    assertTrue(HtmlStreamingReader.isStreamable(exclude(HtmlNodeFilters.comment())));
+    assertTrue(HtmlStreamingReader.isStreamable(new HtmlCompoundTransform(exclude(HtmlNodeFilters.tagWithAttributeRegex("div", "class", "ad")), exclude(new OrFilter(HtmlNodeFilters.commentWithString("gen"), new StringFilter("Jan"))))));
+
+    // include, non-local filters and arbitrary transforms aren't
+    assertFalse(HtmlStreamingReader.isStreamable(HtmlNodeFilterTransform.include(HtmlNodeFilters.tag("div"))));
+    assertFalse(HtmlStreamingReader.isStreamable(exclude(new HasChildFilter(HtmlNodeFilters.tag("b")))));
+    assertFalse(HtmlStreamingReader.isStreamable(new HtmlCompoundTransform(exclude(HtmlNodeFilters.tag("div")), exclude(new HasParentFilter(HtmlNodeFilters.tag("b"))))));
+    assertFalse(HtmlStreamingReader.isStreamable(new MockHtmlTransform(ListUtil.list(new NodeList()))));
+  }
+
+  public void testExcludeTag() throws IOException {
+    HtmlTransform xform = exclude(HtmlNodeFilters.tag("div"));
+    assertEquals("<b>a</b>c", filter("<b>a</b><div>b<div>x</div>y</div>c",
+				      xform, true));
+    assertSameAsTree(DOC, xform);
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tag("table")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tag("li")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tag("tr")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tag("script")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tag("input")));
+  }
+
+  public void testExcludeAttribute() throws IOException {
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tagWithAttribute("div", "class", "footer")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tagWithAttributeRegex("div", "class", "head|ad")));
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.tagWithAttribute("div", "id")));
+  }
+
+  public void testExcludeTextAndComments() throws IOException {
+    assertSameAsTree(DOC, exclude(HtmlNodeFilters.comment()));
+    assertSameAsTree(DOC, exclude(new StringFilter("para")));
+    assertSameAsTree(DOC, exclude(new RegexFilter("[0-9]")));
+  }
+
+  public void testCompound() throws IOException {
+    HtmlTransform xform = new HtmlCompoundTransform(
+      exclude(new OrFilter(HtmlNodeFilters.tagWithAttribute("div", "class", "header"),
+			   HtmlNodeFilters.tagWithAttribute("span", "class", "date"))),
+      exclude(HtmlNodeFilters.comment()),
+      exclude(new OrFilter(HtmlNodeFilters.tag("script"),
+			   HtmlNodeFilters.tag("form"))));
+    assertSameAsTree(DOC, xform);
+  }
+
+  public void testLarge() throws IOException {
+    StringBuilder sb = new StringBuilder("<html><body>");
+    for (int ix = 0; ix < 2000; ix++) {
+      sb.append("<div class=\"ad\">ad " + ix + "</div>");
+      sb.append("<p>para " + ix + " <!-- c" + ix + " --></p>\n");
+    }
+    sb.append("</body></html>");
+    HtmlTransform xform = new HtmlCompoundTransform(
+      exclude(HtmlNodeFilters.tagWithAttribute("div", "class", "ad")),
+      exclude(HtmlNodeFilters.comment()));
+    String res = filter(sb.toString(), xform, true);
+    assertEquals(filter(sb.toString(), xform, false), res);
+    assertFalse(res.contains("ad 1"));
+    assertTrue(res.contains("para 1999"));
+  }
+
+  public void testFallback() throws IOException {
+    // Not streamable, falls back to the tree
+    HtmlTransform xform =
+      exclude(new HasChildFilter(HtmlNodeFilters.tag("i")));
+    assertEquals(filter(DOC, xform, false), filter(DOC, xform, true));
+  }
+
+  public void testConfig() throws IOException {
+    HtmlTransform xform = exclude(HtmlNodeFilters.tag("div"));
+    ConfigurationUtil.addFromArgs(HtmlFilterInputStream.PARAM_STREAMING,
+				  "true");
+    InputStream filt =
+      new HtmlFilterInputStream(new StringInputStream(DOC), xform);
+    assertEquals(filter(DOC, xform, false), StringUtil.fromInputStream(filt));
+  }
+
+  public void testEncodingChange() throws Exception {
+    String in1 = "<html><head>" +
+      "<META http-equiv=Content-Type content=\"text/html; charset=utf-8\">" +
+      "</head><body>" +
+      "<div class=\"ad\">ad</div>abc\u00e91234" +
+      "</body></html>";
+    String exp1 = "<html><head>" +
+      "<META http-equiv=Content-Type content=\"text/html; charset=utf-8\">" +
+      "</head><body>" +
+      "abc\u00e91234" +
+      "</body></html>";
+
+    InputStream in = new ReaderInputStream(new StringReader(in1), UTF8);
+    HtmlFilterInputStream filt =
+      new HtmlFilterInputStream(in, ISO, ISO,
+				exclude(HtmlNodeFilters.tag("div")))
+      .setStreaming(true);
+    assertEquals(UTF8, filt.getCharset());
+    assertInputStreamMatchesString(exp1, filt, UTF8);
+  }
+}
@@ -0,0 +1,278 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.hasher;
+
+import java.util.*;
+import java.security.MessageDigest;
+import org.lockss.daemon.*;
+import org.lockss.util.*;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimerUtil;
+import org.lockss.test.*;
+import org.lockss.plugin.*;
+
+
+/**
+ * Test class for org.lockss.hasher.HashSvcParallelImpl
+ */
+
+public class TestHashSvcParallelImpl extends LockssTestCase {
+  private static Logger log = Logger.getLogger();
+
+  protected MockLockssDaemon theDaemon;
+
+  private HashSvcParallelImpl svc;
+  private MockArchivalUnit au;
+  MockCachedUrlSet cus;
+  static final String hashAlgorithm = "SHA-1";
+  static MessageDigest dig;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    ConfigurationUtil.addFromArgs(HashSvcParallelImpl.PARAM_NUM_WORKERS, "2");
+    theDaemon = getMockLockssDaemon();
+    svc = new HashSvcParallelImpl();
+    theDaemon.setHashService(svc);
+    svc.initService(theDaemon);
+    svc.startService();
+    if (dig == null) {
+      dig = MessageDigest.getInstance(hashAlgorithm);
+    }
+    au = new MockArchivalUnit();
+    cus = makeCus(au);
+  }
+
+  public void tearDown() throws Exception {
+    svc.stopService();
+    super.tearDown();
+  }
+
+  MockCachedUrlSet makeCus(MockArchivalUnit au) {
+    MockCachedUrlSet res = new MockCachedUrlSet();
+    res.setArchivalUnit(au);
+    return res;
+  }
+
+  boolean hashContent(MockCachedUrlSet cus, CachedUrlSetHasher hasher,
+		      int duration, long deadInOrAt, HashService.Callback cb) {
+    cus.setContentHasher(hasher);
+    cus.setEstimatedHashDuration(duration);
+    Deadline deadline =
+      (TimeBase.isSimulated()
+       ? Deadline.at(deadInOrAt) : Deadline.in(deadInOrAt));
+    return svc.scheduleHash(cus.getContentHasher(dig),
+			    deadline, cb, null);
+  }
+
+  boolean hashContent(int duration, long deadInOrAt) {
+    return hashContent(cus, new MyMockCUSH(cus), duration, deadInOrAt, null);
+  }
+
+  public void testWorkers() throws Exception {
+    assertEquals(2, svc.getNumWorkers());
+    ConfigurationUtil.addFromArgs(HashSvcParallelImpl.PARAM_NUM_WORKERS, "3");
+    assertEquals(3, svc.getNumWorkers());
+    ConfigurationUtil.addFromArgs(HashSvcParallelImpl.PARAM_NUM_WORKERS, "1");
+    assertEquals(1, svc.getNumWorkers());
+  }
+
+  public void testSchedule() throws Exception {
+    TimeBase.setSimulated();
+    // Two workers can do 1000ms of work in the next 500ms
+    assertTrue(hashContent(400, 500));
+    assertTrue(hashContent(400, 500));
+    assertTrue(svc.canHashBeScheduledBefore(200, Deadline.at(500)));
+    assertFalse(svc.canHashBeScheduledBefore(300, Deadline.at(500)));
+    assertFalse(hashContent(300, 500));
+    // One request can't use more than one worker
+    assertFalse(svc.canHashBeScheduledBefore(1100, Deadline.at(1000)));
+    assertTrue(svc.canHashBeScheduledBefore(1100, Deadline.at(2000)));
+    // A later request can't prevent earlier ones from finishing in time
+    assertTrue(hashContent(900, 1000));
+    assertTrue(svc.canHashBeScheduledBefore(300, Deadline.at(800)));
+    assertFalse(svc.canHashBeScheduledBefore(400, Deadline.at(800)));
+    assertTrue(svc.canHashBeScheduledBefore(100, Deadline.at(2000)));
+  }
+
+  public void testCancel() throws Exception {
+    TimeBase.setSimulated();
+    assertTrue(hashContent(300, 500));
+    assertFalse(svc.isIdle());
+    svc.cancelAuHashes(new MockArchivalUnit());
+    assertFalse(svc.isIdle());
+    svc.cancelAuHashes(au);
+    assertTrue(svc.isIdle());
+  }
+
+  public void testTimeout() throws Exception {
+    TimeBase.setSimulated();
+    final SimpleQueue q = new SimpleQueue.Fifo();
+
+    HashService.Callback cb = new HashService.Callback() {
+	public void hashingFinished(CachedUrlSet urlset,
+				    long timeUsed,
+				    Object cookie,
+				    CachedUrlSetHasher hasher,
+				    Exception e) {
+	  q.put(e);
+	}
+      };
+
+    assertTrue(hashContent(cus, new MyMockCUSH(cus), 300, 500, cb));
+    assertFalse(svc.isIdle());
+    TimeBase.step(10000);
+    Exception cbex = (Exception)q.get(TIMEOUT_SHOULDNT);
+    assertClass(HashService.Timeout.class, cbex);
+    assertTrue(svc.isIdle());
+  }
+
+  public void testConcurrent() throws Exception {
+    final SimpleQueue q = new SimpleQueue.Fifo();
+    HashService.Callback cb = new HashService.Callback() {
+	public void hashingFinished(CachedUrlSet urlset,
+				    long timeUsed,
+				    Object cookie,
+				    CachedUrlSetHasher hasher,
+				    Exception e) {
+	  q.put(e == null ? "ok" : e.toString());
+	}
+      };
+    // Each hasher finishes only once both are being hashed at the same
+    // time, so this succeeds only if the requests run concurrently
+    Barrier barrier = new Barrier(2);
+    MockCachedUrlSet cus2 = makeCus(new MockArchivalUnit());
+    assertTrue(hashContent(cus, new BarrierCUSH(cus, barrier), 1000,
+			   TIMEOUT_SHOULDNT, cb));
+    assertTrue(hashContent(cus2, new BarrierCUSH(cus2, barrier), 1000,
+			   TIMEOUT_SHOULDNT, cb));
+    assertEquals("ok", q.get(TIMEOUT_SHOULDNT));
+    assertEquals("ok", q.get(TIMEOUT_SHOULDNT));
+    assertTrue(svc.isIdle());
+  }
+
+  public void testOnePerAu() throws Exception {
+    final SimpleQueue q = new SimpleQueue.Fifo();
+    HashService.Callback cb = new HashService.Callback() {
+	public void hashingFinished(CachedUrlSet urlset,
+				    long timeUsed,
+				    Object cookie,
+				    CachedUrlSetHasher hasher,
+				    Exception e) {
+	  q.put(e == null ? "ok" : e.toString());
+	}
+      };
+    // Two requests on the same AU are never hashed at the same time, so
+    // neither finishes before its deadline
+    Barrier barrier = new Barrier(2);
+    MockCachedUrlSet cus2 = makeCus(au);
+    assertTrue(hashContent(cus, new BarrierCUSH(cus, barrier), 500,
+			   2000, cb));
+    assertTrue(hashContent(cus2, new BarrierCUSH(cus2, barrier), 500,
+			   2000, cb));
+    assertMatchesRE("Timeout", (String)q.get(TIMEOUT_SHOULDNT));
+    assertMatchesRE("Timeout", (String)q.get(TIMEOUT_SHOULDNT));
+  }
+
+  // Lets n threads proceed once all n have arrived
+  static class Barrier {
+    int waiting;
+
+    Barrier(int n) {
+      waiting = n;
+    }
+
+    synchronized boolean arrive(long timeout) throws InterruptedException {
+      if (--waiting <= 0) {
+	notifyAll();
+	return true;
+      }
+      long until = System.currentTimeMillis() + timeout;
+      while (waiting > 0) {
+	long remaining = until - System.currentTimeMillis();
+	if (remaining <= 0) {
+	  waiting++;
+	  return false;
+	}
+	wait(remaining);
+      }
+      return true;
+    }
+  }
+
+  public class MyMockCUSH extends MockCachedUrlSetHasher {
+    CachedUrlSet cus;
+
+    MyMockCUSH(CachedUrlSet cus) {
+      super();
+      this.cus = cus;
+    }
+
+    public CachedUrlSet getCachedUrlSet() {
+      return cus;
+    }
+
+    public long getEstimatedHashDuration() {
+      return cus.estimatedHashDuration();
+    }
+
+    public int hashStep(int numBytes) {
+      // don't spin while time stands still
+      TimerUtil.guaranteedSleep(5);
+      return 0;
+    }
+    public boolean finished() {
+      return false;
+    }
+  }
+
+  // Finishes once the barrier has been passed
+  public class BarrierCUSH extends MyMockCUSH {
+    Barrier barrier;
+    boolean passed = false;
+
+    BarrierCUSH(CachedUrlSet cus, Barrier barrier) {
+      super(cus);
+      this.barrier = barrier;
+    }
+
+    public int hashStep(int numBytes) {
+      try {
+	passed = barrier.arrive(100);
+      } catch (InterruptedException e) {
+	throw new RuntimeException(e);
+      }
+      return passed ? 100 : 0;
+    }
+    public boolean finished() {
+      return passed;
+    }
+  }
+
+}
@@ -137,6 +137,7 @@ public class TestMetadataManager extends LockssTestCase {
     runMetadataMonitorTest();
     runPublicationIntervalTest();
     runMetadataControlTest();
+    runIngestBatchTest();
   }
 
   private void runTestFindPublication() throws Exception {
@@ -769,6 +770,64 @@ public class TestMetadataManager extends LockssTestCase {
     assertEquals(0, metadataManager.getPublicationsWithMultiplePids().size());
   }
 
+  private void runIngestBatchTest() throws Exception {
+    ConfigurationUtil.addFromArgs(MetadataIngestBatch.PARAM_COMMIT_GROUP_SIZE,
+	"2", MetadataIngestBatch.PARAM_MAX_BATCH_ROWS, "2");
+    Connection conn = dbManager.getConnection();
+    MetadataIngestBatch batch = metadataManager.newIngestBatch(conn);
+
+    Long publisherSeq = batch.findOrCreatePublisher("Batch Publisher");
+    assertNotNull(publisherSeq);
+    assertEquals(publisherSeq, batch.findOrCreatePublisher("Batch Publisher"));
+    Long publicationSeq = batch.findOrCreatePublication(publisherSeq,
+	"1234-5679", null, null, null, MetadataField.PUBLICATION_TYPE_JOURNAL,
+	null, null, "Batch Journal", null);
+    assertNotNull(publicationSeq);
+    assertEquals(publicationSeq, batch.findOrCreatePublication(publisherSeq,
+	"1234-5679", null, null, null, MetadataField.PUBLICATION_TYPE_JOURNAL,
+	null, null, "Batch Journal", null));
+    Long parentSeq =
+	metadataManager.findPublicationMetadataItem(conn, publicationSeq);
+    Long mdItemTypeSeq =
+	batch.findMetadataItemType(MD_ITEM_TYPE_JOURNAL_ARTICLE);
+    assertEquals(mdItemTypeSeq,
+	batch.findMetadataItemType(MD_ITEM_TYPE_JOURNAL_ARTICLE));
+    assertEquals(3, batch.getCacheHitCount());
+    assertEquals(3, batch.getCacheMissCount());
+
+    for (int i = 1; i <= 3; i++) {
+      ArticleMetadata md = new ArticleMetadata();
+      md.put(MetadataField.FIELD_ARTICLE_TITLE, "Batch Article " + i);
+      md.put(MetadataField.FIELD_ACCESS_URL,
+	  "http://www.example.com/batch/" + i);
+      md.put(MetadataField.FIELD_DOI, "10.9999/batch." + i);
+      md.put(MetadataField.FIELD_DATE, "2020");
+      assertNotNull(batch.addItem(parentSeq, mdItemTypeSeq, null, md, 0));
+    }
+
+    assertEquals(3, batch.getItemCount());
+    // One commit after the first two items.
+    assertEquals(1, batch.getCommitCount());
+    batch.close();
+    assertEquals(2, batch.getCommitCount());
+    // 3 md_item, 3 name, 3 URL and 3 DOI rows.
+    assertEquals(12, batch.getRowCount());
+    assertEquals(6, batch.getBatchCount());
+
+    String query = "select count(*) from " + DOI_TABLE
+	+ " where " + DOI_COLUMN + " like '10.9999/batch.%'";
+    PreparedStatement stmt = dbManager.prepareStatement(conn, query);
+    ResultSet resultSet = dbManager.executeQuery(stmt);
+    assertTrue(resultSet.next());
+    assertEquals(3, resultSet.getInt(1));
+    MetadataDbManager.safeRollbackAndClose(conn);
+
+    Map<String, Object> stats = metadataManager.getIngestStatistics();
+    assertEquals(1L, stats.get("Jobs"));
+    assertEquals(3L, stats.get("Metadata items"));
+    assertEquals(12L, stats.get("Rows written"));
+  }
+
   private void runPublicationIntervalTest() throws Exception {
     Connection conn = dbManager.getConnection();
     
@@ -0,0 +1,99 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.plugin;
+
+import org.lockss.util.time.TimeBase;
+import org.lockss.test.*;
+
+/**
+ * Test class for org.lockss.plugin.AuStartupProgress
+ */
+public class TestAuStartupProgress extends LockssTestCase {
+
+  public void setUp() throws Exception {
+    super.setUp();
+    TimeBase.setSimulated(10000);
+  }
+
+  public void tearDown() throws Exception {
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  public void testUnknownTotal() {
+    AuStartupProgress prog = new AuStartupProgress(1);
+    assertEquals(1, prog.getThreads());
+    assertTrue(prog.isRunning());
+    assertEquals(-1, prog.getTotal());
+    assertEquals(0.0, prog.getRate(), 0.0);
+    assertEquals(-1, prog.getEta());
+    prog.auRead();
+    prog.auRead();
+    prog.auDone(true);
+    TimeBase.step(1000);
+    assertEquals(-1, prog.getTotal());
+    assertEquals(-1, prog.getEta());
+    assertEquals(1.0, prog.getRate(), 0.0001);
+    prog.auDone(false);
+    prog.finished();
+    assertFalse(prog.isRunning());
+    assertEquals(2, prog.getTotal());
+    assertEquals(2, prog.getNumDone());
+    assertEquals(1, prog.getNumStarted());
+    assertEquals(1, prog.getNumNotStarted());
+    assertEquals(0, prog.getEta());
+    assertEquals(1000, prog.getElapsed());
+    TimeBase.step(1000);
+    assertEquals(1000, prog.getElapsed());
+  }
+
+  public void testEta() {
+    AuStartupProgress prog = new AuStartupProgress(4);
+    prog.setExpected(100);
+    assertEquals(100, prog.getTotal());
+    assertEquals(-1, prog.getEta());
+    for (int ix = 0; ix < 25; ix++) {
+      prog.auRead();
+      prog.auDone(true);
+    }
+    TimeBase.step(5000);
+    assertEquals(5.0, prog.getRate(), 0.0001);
+    assertEquals(15000, prog.getEta());
+    assertMatchesRE("25 of 100 AUs processed \\(25 running\\) .* ETA ",
+		    prog.toString());
+    // More AUs than were counted
+    for (int ix = 0; ix < 80; ix++) {
+      prog.auRead();
+    }
+    assertEquals(105, prog.getTotal());
+    prog.finished();
+    assertEquals(105, prog.getTotal());
+    assertEquals(0, prog.getEta());
+  }
+}
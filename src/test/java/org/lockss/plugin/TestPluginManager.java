@@ -831,6 +831,52 @@ public class TestPluginManager extends LockssTestCase4 {
     assertNotNull(au2);
     assertSame(cod_mpi, au2.getPlugin());
     assertEquals(cod_tc2.getConfig(), au2.getConfiguration());
+    AuStartupProgress progress = mgr.getAuStartupProgress();
+    assertFalse(progress.isRunning());
+    assertEquals(1, progress.getThreads());
+    assertEquals(2, progress.getNumStarted());
+  }
+
+  @Test
+  public void testCreateAusAtStartupParallel() throws Exception {
+    ConfigurationUtil.addFromArgs(PluginManager.PARAM_AU_STARTUP_THREADS, "3",
+				  PluginManager.PARAM_AU_STARTUP_BATCH_SIZE,
+				  "1");
+    startAllSetup();
+    // Store three AU configs in DB, one disabled
+    String auid1 = cod_tc1.getAuId(mgr);
+    mgr.updateAuInDatabase(auid1, cod_tc1.getConfig());
+    String auid2 = cod_tc2.getAuId(mgr);
+    mgr.updateAuInDatabase(auid2, cod_tc2.getConfig());
+    Configuration auc3 =
+      ConfigurationUtil.fromArgs(MockPlugin.CONFIG_PROP_1, "a3",
+				 MockPlugin.CONFIG_PROP_2, "foo");
+    String auid3 = PluginManager.generateAuId(cod_mpi, auc3);
+    auc3.put(PluginManager.AU_PARAM_DISABLED, "true");
+    mgr.updateAuInDatabase(auid3, auc3);
+    mgr.registerAuEventHandler(new MyAuEventHandler());
+    // Kick off process that starts AUs
+    mgr.setLoadablePluginsReady(false);
+    mgr.startLoadablePlugins();
+    // Ensure that enabled AUs now exist, and were announced
+    ArchivalUnit au1 = mgr.getAuFromIdIfExists(auid1);
+    assertNotNull(au1);
+    assertSame(cod_mpi, au1.getPlugin());
+    assertEquals(cod_tc1.getConfig(), au1.getConfiguration());
+    ArchivalUnit au2 = mgr.getAuFromIdIfExists(auid2);
+    assertNotNull(au2);
+    assertEquals(cod_tc2.getConfig(), au2.getConfiguration());
+    assertNull(mgr.getAuFromIdIfExists(auid3));
+    assertTrue(mgr.isActiveAu(au1));
+    assertTrue(mgr.isActiveAu(au2));
+    assertSameElements(ListUtil.list(au1, au2), createEvents);
+    AuStartupProgress progress = mgr.getAuStartupProgress();
+    assertFalse(progress.isRunning());
+    assertEquals(3, progress.getThreads());
+    assertEquals(3, progress.getTotal());
+    assertEquals(2, progress.getNumStarted());
+    assertEquals(1, progress.getNumNotStarted());
+    assertEquals(0, progress.getEta());
   }
 
   @Test
@@ -1870,6 +1916,72 @@ public class TestPluginManager extends LockssTestCase4 {
     return p;
   }
 
+  /** Calls findCachedUrl() in a separate thread */
+  class Finder extends Thread {
+    String url;
+    CachedUrl result;
+
+    Finder(String url) {
+      this.url = url;
+    }
+
+    public void run() {
+      result = mgr.findCachedUrl(url, CuContentReq.DontCare);
+    }
+  }
+
+  @Test
+  public void testConcurrentSearchesShareResult() throws Exception {
+    mgr.startService();
+    String url = "http://foo.bar/concurrent";
+    MockCachedUrl cu = new MockCachedUrl(url);
+    SimpleQueue queue = mgr.ensureFindUrlQueue(url);
+
+    // First search blocks in findTheCachedUrl0() until queue is filled
+    Finder f1 = new Finder(url);
+    f1.start();
+    Deadline dl = Deadline.in(TIMEOUT_SHOULDNT);
+    while (mgr.getNumCurrentUrlSearches() == 0 && !dl.expired()) {
+      TimerUtil.guaranteedSleep(10);
+    }
+    assertEquals(1, mgr.getNumCurrentUrlSearches());
+
+    // Second search for same URL should wait for the first one's result
+    Finder f2 = new Finder(url);
+    f2.start();
+    while (mgr.getUrlSearchWaits() == 0 && !dl.expired()) {
+      TimerUtil.guaranteedSleep(10);
+    }
+    assertEquals(1, mgr.getUrlSearchWaits());
+
+    queue.put(cu);
+    f1.join(TIMEOUT_SHOULDNT);
+    f2.join(TIMEOUT_SHOULDNT);
+    assertSame(cu, f1.result);
+    assertSame(cu, f2.result);
+    assertEquals(1, mgr.getUrlSearchResCu());
+    assertEquals(0, mgr.getUrlSearchRes404());
+    assertEquals(0, mgr.getNumCurrentUrlSearches());
+    assertTrue(mgr.getUrlSearchWaitTime() >= 0);
+    assertTrue(mgr.getMaxUrlSearchWaitTime()
+	       <= mgr.getUrlSearchWaitTime());
+  }
+
+  @Test
+  public void testAuStemLockStats() throws Exception {
+    mgr.startService();
+    MockArchivalUnit mau = new MockArchivalUnit();
+    String stem = "http://stem.example.com/";
+    long acq = mgr.getStemLockAcquisitions();
+    mgr.addAuStem(stem, mau);
+    assertEquals(acq + 1, mgr.getStemLockAcquisitions());
+    assertTrue(mgr.getAllStems().contains(stem));
+    assertEquals(ListUtil.list(mau),
+		 new ArrayList(mgr.getCandidateAusFromStem(stem)));
+    assertTrue(mgr.getStemLockContentions() <= acq + 1);
+    assertTrue(mgr.getMaxStemLockWaitTime() <= mgr.getStemLockWaitTime());
+  }
+
   AuState setUpAuState(MockArchivalUnit mau) {
     AuState aus = AuTestUtil.setUpMockAus(mau);
 //     aus.storeAuState();
@@ -0,0 +1,309 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.plugin;
+
+import java.io.*;
+import java.util.*;
+
+import org.lockss.config.*;
+import org.lockss.daemon.Crawler;
+import org.lockss.state.*;
+import org.lockss.util.*;
+import org.lockss.util.test.FileTestUtil;
+import org.lockss.util.time.TimeBase;
+import org.lockss.test.*;
+
+/**
+ * Test class for org.lockss.plugin.UrlAuIndex
+ */
+public class TestUrlAuIndex extends LockssTestCase {
+
+  static final String URL1 = "http://example.com/foo/1.html";
+  static final String URL2 = "http://example.com/foo/2.html";
+  static final String URL3 = "http://example.com/foo/3.html";
+
+  MyPluginManager pluginMgr;
+  MyUrlAuIndex index;
+  MockArchivalUnit mau;
+  MockAuState maus;
+  File dir;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    TimeBase.setSimulated(10000);
+    dir = getTempDir();
+    pluginMgr = new MyPluginManager();
+    mau = new MockArchivalUnit("au1");
+    maus = new MockAuState(mau);
+    maus.setLastContentChange(5000);
+    index = makeIndex();
+    ConfigurationUtil.addFromArgs(UrlAuIndex.PARAM_ENABLED, "true",
+				  UrlAuIndex.PARAM_DIR,
+				  dir.getAbsolutePath());
+    configure(index);
+  }
+
+  public void tearDown() throws Exception {
+    index.stopService();
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  MyUrlAuIndex makeIndex() {
+    MyUrlAuIndex res = new MyUrlAuIndex(pluginMgr);
+    res.auStates.put(mau.getAuId(), maus);
+    res.urls.put(mau.getAuId(), ListUtil.list(URL1, URL2));
+    return res;
+  }
+
+  void configure(UrlAuIndex idx) {
+    Configuration config = ConfigManager.getCurrentConfig();
+    idx.setConfig(config, null, config.differences(null));
+  }
+
+  public void testDisabled() {
+    ConfigurationUtil.addFromArgs(UrlAuIndex.PARAM_ENABLED, "false");
+    configure(index);
+    assertFalse(index.isEnabled());
+    assertEquals(UrlAuIndex.Presence.Unindexed, index.check(mau, URL1));
+    assertEmpty(index.scheduled);
+  }
+
+  public void testUnindexedSchedulesBuild() {
+    assertEquals(UrlAuIndex.Presence.Unindexed, index.check(mau, URL1));
+    assertEquals(ListUtil.list(mau), index.scheduled);
+    assertEquals(1, index.getNumUnindexed());
+  }
+
+  public void testBuildAndCheck() {
+    index.buildIndex(mau);
+    assertEquals(1, index.getNumIndexed());
+    assertEquals(1, index.getNumBuilds());
+    assertTrue(index.getIndexBytes() > 0);
+    assertEquals(UrlAuIndex.Presence.Maybe, index.check(mau, URL1));
+    assertEquals(UrlAuIndex.Presence.Maybe, index.check(mau, URL2));
+    assertEquals(UrlAuIndex.Presence.Absent, index.check(mau, URL3));
+    assertEquals(2, index.getNumMaybe());
+    assertEquals(1, index.getNumAbsent());
+    assertEquals(0, index.getNumUnindexed());
+    assertEmpty(index.scheduled);
+
+    index.recordResult(UrlAuIndex.Presence.Maybe, true);
+    index.recordResult(UrlAuIndex.Presence.Maybe, false);
+    index.recordResult(UrlAuIndex.Presence.Unindexed, true);
+    assertEquals(1, index.getNumHits());
+    assertEquals(1, index.getNumFalsePositives());
+  }
+
+  public void testNotCurrentAfterContentChange() {
+    index.buildIndex(mau);
+    assertEquals(UrlAuIndex.Presence.Absent, index.check(mau, URL3));
+    TimeBase.step(100);
+    maus.setLastContentChange(TimeBase.nowMs());
+    assertEquals(UrlAuIndex.Presence.Unindexed, index.check(mau, URL3));
+    assertEquals(ListUtil.list(mau), index.scheduled);
+  }
+
+  public void testNotCurrentDuringCrawl() {
+    index.buildIndex(mau);
+    maus.setLastCrawlResult(Crawler.STATUS_RUNNING_AT_CRASH, null);
+    assertEquals(UrlAuIndex.Presence.Unindexed, index.check(mau, URL3));
+  }
+
+  public void testPersistence() {
+    index.buildIndex(mau);
+    File file = index.getIndexFile(mau.getAuId());
+    assertTrue(file.exists());
+    assertEquals(dir, file.getParentFile());
+
+    MyUrlAuIndex index2 = makeIndex();
+    configure(index2);
+    index2.auCreated(AuEvent.forAu(mau, AuEvent.Type.StartupCreate), mau);
+    assertEquals(1, index2.getNumLoaded());
+    assertEmpty(index2.scheduled);
+    assertEquals(UrlAuIndex.Presence.Maybe, index2.check(mau, URL1));
+    assertEquals(UrlAuIndex.Presence.Absent, index2.check(mau, URL3));
+  }
+
+  public void testLoadCorrupt() throws Exception {
+    File file = index.getIndexFile(mau.getAuId());
+    FileTestUtil.writeFile(file, "not an index");
+    assertFalse(index.loadIndex(mau));
+    assertFalse(file.exists());
+    assertEquals(0, index.getNumIndexed());
+  }
+
+  public void testRepairAddsUrls() {
+    index.buildIndex(mau);
+    assertEquals(UrlAuIndex.Presence.Absent, index.check(mau, URL3));
+    TimeBase.step(100);
+    maus.setLastContentChange(TimeBase.nowMs());
+    TimeBase.step(100);
+    AuEvent.ContentChangeInfo info = new AuEvent.ContentChangeInfo()
+      .setType(AuEvent.ContentChangeInfo.Type.Repair)
+      .setUrls(ListUtil.list(URL3))
+      .setNumUrls(1)
+      .setComplete(true);
+    index.auContentChanged(AuEvent.forAu(mau, AuEvent.Type.ContentChanged)
+			   .setChangeInfo(info),
+			   mau, info);
+    assertEquals(1, index.getNumIncrementalUpdates());
+    assertEmpty(index.scheduled);
+    assertEquals(UrlAuIndex.Presence.Maybe, index.check(mau, URL3));
+  }
+
+  public void testRepairAfterCrawlDoesntRevalidate() {
+    index.buildIndex(mau);
+    TimeBase.step(100);
+    maus.setLastContentChange(TimeBase.nowMs());
+    AuEvent.ContentChangeInfo info = new AuEvent.ContentChangeInfo()
+      .setType(AuEvent.ContentChangeInfo.Type.Crawl)
+      .setNumUrls(10)
+      .setComplete(true);
+    index.auContentChanged(AuEvent.forAu(mau, AuEvent.Type.ContentChanged)
+			   .setChangeInfo(info),
+			   mau, info);
+    assertEquals(0, index.getNumIndexed());
+    TimeBase.step(100);
+    info = new AuEvent.ContentChangeInfo()
+      .setType(AuEvent.ContentChangeInfo.Type.Repair)
+      .setUrls(ListUtil.list(URL3))
+      .setNumUrls(1)
+      .setComplete(true);
+    index.auContentChanged(AuEvent.forAu(mau, AuEvent.Type.ContentChanged)
+			   .setChangeInfo(info),
+			   mau, info);
+    assertEquals(0, index.getNumIncrementalUpdates());
+    assertEquals(UrlAuIndex.Presence.Unindexed, index.check(mau, URL1));
+  }
+
+  public void testRepairDuringCrawlInvalidates() {
+    index.buildIndex(mau);
+    maus.setLastCrawlResult(Crawler.STATUS_RUNNING_AT_CRASH, null);
+    AuEvent.ContentChangeInfo info = new AuEvent.ContentChangeInfo()
+      .setType(AuEvent.ContentChangeInfo.Type.Repair)
+      .setUrls(ListUtil.list(URL3))
+      .setNumUrls(1)
+      .setComplete(true);
+    index.auContentChanged(AuEvent.forAu(mau, AuEvent.Type.ContentChanged)
+			   .setChangeInfo(info),
+			   mau, info);
+    assertEquals(0, index.getNumIncrementalUpdates());
+    assertEquals(0, index.getNumIndexed());
+  }
+
+  public void testStaleSavedIndexNotLoaded() {
+    index.buildIndex(mau);
+    TimeBase.step(100);
+    maus.setLastContentChange(TimeBase.nowMs());
+
+    MyUrlAuIndex index2 = makeIndex();
+    configure(index2);
+    assertFalse(index2.loadIndex(mau));
+    assertEquals(0, index2.getNumLoaded());
+    assertEquals(0, index2.getNumIndexed());
+  }
+
+  public void testChangeDuringBuild() {
+    maus.setLastContentChange(TimeBase.nowMs());
+    index.buildIndex(mau);
+    assertEquals(0, index.getNumIndexed());
+    assertEquals(0, index.getNumBuilds());
+  }
+
+  public void testCrawlSchedulesRebuild() {
+    index.buildIndex(mau);
+    AuEvent.ContentChangeInfo info = new AuEvent.ContentChangeInfo()
+      .setType(AuEvent.ContentChangeInfo.Type.Crawl)
+      .setNumUrls(10)
+      .setComplete(true);
+    index.auContentChanged(AuEvent.forAu(mau, AuEvent.Type.ContentChanged)
+			   .setChangeInfo(info),
+			   mau, info);
+    assertEquals(0, index.getNumIncrementalUpdates());
+    assertEquals(ListUtil.list(mau), index.scheduled);
+  }
+
+  public void testDelete() {
+    index.buildIndex(mau);
+    File file = index.getIndexFile(mau.getAuId());
+    assertTrue(file.exists());
+    index.auDeleted(AuEvent.forAu(mau, AuEvent.Type.Deactivate), mau);
+    assertEquals(0, index.getNumIndexed());
+    assertTrue(file.exists());
+    index.buildIndex(mau);
+    index.auDeleted(AuEvent.forAu(mau, AuEvent.Type.Delete), mau);
+    assertEquals(0, index.getNumIndexed());
+    assertFalse(file.exists());
+  }
+
+  public void testInactiveAuNotIndexed() {
+    pluginMgr.active = false;
+    index.buildIndex(mau);
+    assertEquals(0, index.getNumIndexed());
+  }
+
+  static class MyPluginManager extends PluginManager {
+    boolean active = true;
+
+    @Override
+    public boolean isActiveAu(ArchivalUnit au) {
+      return active;
+    }
+  }
+
+  static class MyUrlAuIndex extends UrlAuIndex {
+    Map<String,AuState> auStates = new HashMap<String,AuState>();
+    Map<String,List<String>> urls = new HashMap<String,List<String>>();
+    List<ArchivalUnit> scheduled = new ArrayList<ArchivalUnit>();
+
+    MyUrlAuIndex(PluginManager pluginMgr) {
+      super(pluginMgr);
+    }
+
+    @Override
+    protected AuState getAuState(ArchivalUnit au) {
+      return auStates.get(au.getAuId());
+    }
+
+    @Override
+    protected Iterable<CachedUrl> getCuIterable(ArchivalUnit au) {
+      List<CachedUrl> res = new ArrayList<CachedUrl>();
+      for (String url : urls.get(au.getAuId())) {
+	res.add(new MockCachedUrl(url, au));
+      }
+      return res;
+    }
+
+    @Override
+    void scheduleBuild(ArchivalUnit au) {
+      scheduled.add(au);
+    }
+  }
+}
@@ -279,6 +279,38 @@ public class TestArchiveMembers extends LockssTestCase {
 			aurl, "branch5/branch2/001file.bin");
   }
 
+  public void testReadMemberIndexed() throws Exception {
+    PluginTestUtil.crawlSimAu(simau);
+    TrueZipManager tzm = daemon.getTrueZipManager();
+    String aurl = "http://www.example.com/branch1/branch1/zip5.zip";
+
+    assertArchiveMember("file 1, depth 0, branch 0", "text/html", 226,
+			aurl, "001file.html");
+    assertEquals(1, tzm.getNumMemberIndicesBuilt());
+    assertArchiveMember("<key>file</key><value>2</value>.*<key>depth</key><value>2</value>",
+			"application/xml", 230,
+			aurl, "branch5/branch2/002file.xml");
+    assertNoArchiveMember(aurl, "none.html");
+    // Index is reused
+    assertEquals(1, tzm.getNumMemberIndicesBuilt());
+  }
+
+  public void testReadMemberNoIndex() throws Exception {
+    ConfigurationUtil.addFromArgs(TrueZipManager.PARAM_MEMBER_INDEX_ENABLED,
+				  "false");
+    PluginTestUtil.crawlSimAu(simau);
+    TrueZipManager tzm = daemon.getTrueZipManager();
+    String aurl = "http://www.example.com/branch1/branch1/zip5.zip";
+
+    assertArchiveMember("file 1, depth 0, branch 0", "text/html", 226,
+			aurl, "001file.html");
+    assertArchiveMember("<key>file</key><value>2</value>.*<key>depth</key><value>2</value>",
+			"application/xml", 230,
+			aurl, "branch5/branch2/002file.xml");
+    assertNoArchiveMember(aurl, "none.html");
+    assertEquals(0, tzm.getNumMemberIndicesBuilt());
+  }
+
   public void testSplitZips() throws Exception {
     PluginTestUtil.crawlSimAu(simau);
 
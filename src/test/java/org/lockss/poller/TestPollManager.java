@@ -259,27 +259,7 @@ public class TestPollManager extends LockssTestCase4 {
     }
   }    
 
-  static final int C = V3Poller.POLLER_STATUS_COMPLETE;
-  static final int NC = V3Poller.POLLER_STATUS_NO_QUORUM;
-
-  @Test
-  public void testPollQueue() throws Exception {
-    testau.setShouldCallTopLevelPoll(false);
-
-    Properties p = new Properties();
-    p.put(PollManager.PARAM_REBUILD_POLL_QUEUE_INTERVAL, "");
-    p.put(PollManager.PARAM_POLL_QUEUE_MAX, "8");
-    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_CURVE,
-	  "[50,75],[50,500]");
-    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_LAST_RESULT, "1;6");
-    p.put(PollManager.PARAM_TOPLEVEL_POLL_INTERVAL, "300");
-    p.put(PollManager.PARAM_MIN_POLL_ATTEMPT_INTERVAL, "1");
-    p.put(PollManager.PARAM_MIN_TIME_BETWEEN_ANY_POLL, "1");
-
-    ConfigurationUtil.addFromProps(p);
-    theDaemon.setAusStarted(true);
-    TimeBase.setSimulated(1000);
-
+  MockArchivalUnit[] setUpQueueAus() throws Exception {
     MockArchivalUnit[] aus = makeMockAus(16);
     registerAus(aus);
 
@@ -303,6 +283,34 @@ public class TestPollManager extends LockssTestCase4 {
     setAu(aus[13], "2013", 350, 100, NC, 10, .9);
     setAu(aus[14], "2014", 350, 450,  C, 10, .2);
     setAu(aus[15], "2015", 350, 100, NC, 10, .2);
+    return aus;
+  }
+
+  static final int C = V3Poller.POLLER_STATUS_COMPLETE;
+  static final int NC = V3Poller.POLLER_STATUS_NO_QUORUM;
+
+  @Test
+  public void testPollQueue() throws Exception {
+    testau.setShouldCallTopLevelPoll(false);
+
+    Properties p = new Properties();
+    // weightOrder() examines the map passed to weightedRandomSelection(),
+    // which is used only when the weight of every AU is computed
+    p.put(PollManager.PARAM_USE_POLL_WEIGHT_INDEX, "false");
+    p.put(PollManager.PARAM_REBUILD_POLL_QUEUE_INTERVAL, "");
+    p.put(PollManager.PARAM_POLL_QUEUE_MAX, "8");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_CURVE,
+	  "[50,75],[50,500]");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_LAST_RESULT, "1;6");
+    p.put(PollManager.PARAM_TOPLEVEL_POLL_INTERVAL, "300");
+    p.put(PollManager.PARAM_MIN_POLL_ATTEMPT_INTERVAL, "1");
+    p.put(PollManager.PARAM_MIN_TIME_BETWEEN_ANY_POLL, "1");
+
+    ConfigurationUtil.addFromProps(p);
+    theDaemon.setAusStarted(true);
+    TimeBase.setSimulated(1000);
+
+    MockArchivalUnit[] aus = setUpQueueAus();
 
     String p1 = "TCP:[127.0.0.1]:12";
     String p2 = "TCP:[127.0.0.2]:12";
@@ -386,6 +394,94 @@ public class TestPollManager extends LockssTestCase4 {
     assertEquals(exp6, weightOrder());
 }
 
+  @Test
+  public void testPollQueueFromWeightIndex() throws Exception {
+    testau.setShouldCallTopLevelPoll(false);
+
+    Properties p = new Properties();
+    p.put(PollManager.PARAM_REBUILD_POLL_QUEUE_INTERVAL, "1h");
+    p.put(PollManager.PARAM_POLL_QUEUE_MAX, "8");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_CURVE,
+	  "[50,75],[50,500]");
+    p.put(PollManager.PARAM_POLL_INTERVAL_AGREEMENT_LAST_RESULT, "1;6");
+    p.put(PollManager.PARAM_TOPLEVEL_POLL_INTERVAL, "300");
+    p.put(PollManager.PARAM_MIN_POLL_ATTEMPT_INTERVAL, "1");
+    p.put(PollManager.PARAM_MIN_TIME_BETWEEN_ANY_POLL, "1");
+
+    ConfigurationUtil.addFromProps(p);
+    theDaemon.setAusStarted(true);
+    TimeBase.setSimulated(1000);
+
+    MockArchivalUnit[] aus = setUpQueueAus();
+    int numAus = theDaemon.getPluginManager().getAllAus().size();
+
+    // First rebuild computes the weight of every AU
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertNull(pollmanager.getWeightMap());
+    assertEquals(numAus, pollmanager.getLastPollQueueRebuildAusEvaluated());
+    assertEquals(16, pollmanager.getPollWeightIndexSize());
+    PollWeightIndex<ArchivalUnit> index = pollmanager.getPollWeightIndex();
+    for (ArchivalUnit au : aus) {
+      assertEquals(au.getName(),
+		   pollmanager.pollWeight(au).value(),
+		   index.getWeight(au, TimeBase.nowMs()), .000001);
+    }
+    assertEquals(11, index.readySize());
+
+    List exp = ListUtil.list(aus[14], aus[10], aus[13], aus[15],
+			     aus[11], aus[9], aus[1], aus[3],
+			     aus[5], aus[7], aus[12]);
+    List<ArchivalUnit> queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(8, queue.size());
+    assertTrue(queue+"", exp.containsAll(queue));
+
+    // Weights grow with time, without recomputing
+    TimeBase.step(100);
+    for (ArchivalUnit au : aus) {
+      assertEquals(au.getName(),
+		   pollmanager.pollWeight(au).value(),
+		   index.getWeight(au, TimeBase.nowMs()), .000001);
+    }
+
+    // Only changed AUs are recomputed
+    MockAuState aus14 = (MockAuState)AuUtil.getAuState(aus[14]);
+    aus14.setLastToplevalPoll(TimeBase.nowMs());
+    pollmanager.pollWeightChanged(aus[14]);
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(1, pollmanager.getLastPollQueueRebuildAusEvaluated());
+    assertEquals(0.0, index.getWeight(aus[14], TimeBase.nowMs()), 0.0);
+    queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(8, queue.size());
+    assertFalse(queue.contains(aus[14]));
+    assertTrue(queue+"", exp.containsAll(queue));
+
+    // A stale entry doesn't cause an unready AU to be queued
+    MockAuState aus10 = (MockAuState)AuUtil.getAuState(aus[10]);
+    aus10.setLastToplevalPoll(TimeBase.nowMs());
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(0, pollmanager.getLastPollQueueRebuildAusEvaluated());
+    queue = pollmanager.pollQueue.getPendingQueueAus();
+    assertEquals(8, queue.size());
+    assertFalse(queue.contains(aus[10]));
+    assertFalse(queue.contains(aus[14]));
+    // and the stale entry has been corrected
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(0.0, index.getWeight(aus[10], TimeBase.nowMs()), 0.0);
+
+    // Config change causes all weights to be recomputed
+    ConfigurationUtil.addFromArgs(PollManager.PARAM_POLL_QUEUE_MAX, "4");
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(numAus, pollmanager.getLastPollQueueRebuildAusEvaluated());
+    assertEquals(4, pollmanager.pollQueue.getPendingQueueAus().size());
+
+    // AU deletion removes it from the index
+    pollmanager.pollWeightChanged(aus[10]);
+    PluginTestUtil.unregisterArchivalUnit(aus[10]);
+    pollmanager.pollQueue.rebuildPollQueue();
+    assertEquals(15, pollmanager.getPollWeightIndexSize());
+    assertTrue(pollmanager.getPollQueueRebuildCount() >= 5);
+  }
+
   List<ArchivalUnit> weightOrder() {
     final Map<ArchivalUnit,PollManager.PollWeight> weightMap =
       pollmanager.getWeightMap();
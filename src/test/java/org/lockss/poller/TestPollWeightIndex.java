@@ -0,0 +1,151 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.poller;
+
+import java.util.*;
+
+import org.junit.*;
+import org.lockss.test.*;
+import org.lockss.util.ListUtil;
+
+public class TestPollWeightIndex extends LockssTestCase4 {
+
+  PollWeightIndex<String> index;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    index = new PollWeightIndex<String>(new Random(1234));
+  }
+
+  @Test
+  public void testWeight() {
+    assertEquals(0, index.size());
+    assertEquals(0.0, index.getTotalWeight(1000), 0.0);
+    index.put("a", 0.5, 100, 200);
+    index.put("b", 2.0, 500, 1000);
+    assertEquals(2, index.size());
+    assertTrue(index.contains("a"));
+    assertFalse(index.contains("c"));
+    assertEquals(0.0, index.getWeight("c", 1000), 0.0);
+
+    // Zero weight until ready time
+    assertEquals(0.0, index.getWeight("a", 150), 0.0);
+    assertEquals(50.0, index.getWeight("a", 200), .00001);
+    assertEquals(0.0, index.getWeight("b", 999), 0.0);
+    assertEquals(50.0, index.getTotalWeight(200), .00001);
+    assertEquals(1, index.readySize());
+
+    assertEquals(450.0, index.getWeight("a", 1000), .00001);
+    assertEquals(1000.0, index.getWeight("b", 1000), .00001);
+    assertEquals(1450.0, index.getTotalWeight(1000), .00001);
+    assertEquals(2, index.readySize());
+
+    // Replacing an entry
+    index.put("a", 1.0, 900, 900);
+    assertEquals(2, index.size());
+    assertEquals(100.0, index.getWeight("a", 1000), .00001);
+    assertEquals(1100.0, index.getTotalWeight(1000), .00001);
+
+    // Non-positive slope removes entry
+    index.put("b", 0.0, 500, 1000);
+    assertFalse(index.contains("b"));
+    assertEquals(100.0, index.getTotalWeight(1000), .00001);
+
+    index.remove("a");
+    index.remove("a");
+    assertEquals(0, index.size());
+    assertEquals(0.0, index.getTotalWeight(1000), 0.0);
+  }
+
+  @Test
+  public void testManyEntries() {
+    // Enough entries and changes to cause the trees to grow and be rebuilt
+    double exp = 0;
+    for (int ix = 0; ix < 1000; ix++) {
+      index.put("k" + ix, ix + 1, 0, 0);
+    }
+    for (int ix = 0; ix < 1000; ix += 2) {
+      index.remove("k" + ix);
+    }
+    for (int ix = 0; ix < 1000; ix += 4) {
+      index.put("k" + ix, 1, 0, 0);
+    }
+    for (int ix = 0; ix < 1000; ix++) {
+      exp += index.getWeight("k" + ix, 10);
+    }
+    assertEquals(750, index.size());
+    assertEquals(exp, index.getTotalWeight(10), .001);
+  }
+
+  @Test
+  public void testSelect() {
+    index.put("a", 1.0, 0, 0);
+    index.put("b", 1.0, 0, 0);
+    index.put("c", 1.0, 0, 500);
+    index.put("d", 1.0, 0, 0);
+    assertEquals(Collections.EMPTY_LIST, index.select(0, 100, null));
+
+    // Without replacement, and excluding unready entries
+    List<String> sel = index.select(5, 100, null);
+    assertEquals(3, sel.size());
+    assertSameElements(ListUtil.list("a", "b", "d"), sel);
+    // Selection doesn't change the index
+    assertEquals(4, index.size());
+
+    sel = index.select(5, 500, null);
+    assertSameElements(ListUtil.list("a", "b", "c", "d"), sel);
+
+    // Rejected entries aren't selected and don't count toward n
+    PollWeightIndex.Filter<String> filter =
+      new PollWeightIndex.Filter<String>() {
+	public boolean accept(String key) {
+	  return !key.equals("b");
+	}};
+    sel = index.select(2, 600, filter);
+    assertEquals(2, sel.size());
+    assertFalse(sel.contains("b"));
+    sel = index.select(5, 600, filter);
+    assertSameElements(ListUtil.list("a", "c", "d"), sel);
+  }
+
+  @Test
+  public void testSelectProportional() {
+    index.put("light", 1.0, 0, 0);
+    index.put("heavy", 3.0, 0, 0);
+    int heavy = 0;
+    for (int ix = 0; ix < 4000; ix++) {
+      if (index.select(1, 100, null).contains("heavy")) {
+	heavy++;
+      }
+    }
+    // Expect 3000
+    assertTrue("heavy selected " + heavy, heavy > 2800 && heavy < 3200);
+  }
+}
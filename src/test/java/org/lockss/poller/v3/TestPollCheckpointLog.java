@@ -0,0 +1,203 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.poller.v3;
+
+import java.io.*;
+import java.util.*;
+import org.lockss.test.*;
+
+public class TestPollCheckpointLog extends LockssTestCase {
+
+  File dir;
+  File file;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = getTempDir();
+    file = new File(dir, PollCheckpointLog.LOG_FILE_NAME);
+  }
+
+  byte[] bytes(String s) throws Exception {
+    return s.getBytes("UTF-8");
+  }
+
+  String str(byte[] b) throws Exception {
+    return b == null ? null : new String(b, "UTF-8");
+  }
+
+  PollCheckpointLog open() throws Exception {
+    return new PollCheckpointLog(file, PollCheckpointLog.KIND_POLLER);
+  }
+
+  public void testPutGet() throws Exception {
+    PollCheckpointLog cpl = open();
+    assertFalse(file.exists());
+    assertNull(cpl.get("a"));
+    cpl.put("a", bytes("one"));
+    cpl.put("b", bytes("two"));
+    assertTrue(file.exists());
+    assertEquals("one", str(cpl.get("a")));
+    assertEquals("two", str(cpl.get("b")));
+    cpl.put("a", bytes("three"));
+    assertEquals("three", str(cpl.get("a")));
+    assertTrue(cpl.contains("b"));
+    assertFalse(cpl.contains("c"));
+  }
+
+  public void testDelete() throws Exception {
+    PollCheckpointLog cpl = open();
+    cpl.put("p:1", bytes("one"));
+    cpl.put("p:2", bytes("two"));
+    cpl.put("x", bytes("three"));
+    assertSameElements(Arrays.asList("p:1", "p:2"), cpl.keys("p:"));
+    assertTrue(cpl.delete("p:1"));
+    assertFalse(cpl.delete("p:1"));
+    assertNull(cpl.get("p:1"));
+    assertEquals(Arrays.asList("p:2"), cpl.keys("p:"));
+
+    cpl = open();
+    assertNull(cpl.get("p:1"));
+    assertEquals("two", str(cpl.get("p:2")));
+    assertEquals("three", str(cpl.get("x")));
+  }
+
+  public void testReopen() throws Exception {
+    PollCheckpointLog cpl = open();
+    StringBuilder sb = new StringBuilder();
+    for (int ix = 0; ix < 1000; ix++) {
+      sb.append("<element>").append(ix).append("</element>");
+    }
+    String big = sb.toString();
+    cpl.put("a", bytes("one"));
+    cpl.put("big", bytes(big));
+    cpl.put("a", bytes("two"));
+    // Repetitive payload is compressed
+    assertTrue(cpl.getLength() < big.length() / 2);
+
+    cpl = open();
+    assertEquals("two", str(cpl.get("a")));
+    assertEquals(big, str(cpl.get("big")));
+    assertEquals(PollCheckpointLog.KIND_POLLER,
+                 PollCheckpointLog.readKind(file));
+  }
+
+  public void testWrongKind() throws Exception {
+    open().put("a", bytes("one"));
+    try {
+      new PollCheckpointLog(file, PollCheckpointLog.KIND_VOTER);
+      fail("Opening log of wrong kind should throw");
+    } catch (IOException e) {
+    }
+  }
+
+  public void testReadKind() throws Exception {
+    assertEquals(0, PollCheckpointLog.readKind(file));
+    FileOutputStream fos = new FileOutputStream(file);
+    fos.write(bytes("<xml/>"));
+    fos.close();
+    assertEquals(0, PollCheckpointLog.readKind(file));
+  }
+
+  public void testTruncatedTail() throws Exception {
+    PollCheckpointLog cpl = open();
+    cpl.put("a", bytes("one"));
+    cpl.put("b", bytes("two"));
+    long len = cpl.getLength();
+    cpl.put("a", bytes("three"));
+    // Simulate a crash in the middle of the last append
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(cpl.getLength() - 3);
+    raf.close();
+
+    cpl = open();
+    assertEquals(len, cpl.getLength());
+    assertEquals(len, file.length());
+    assertEquals("one", str(cpl.get("a")));
+    assertEquals("two", str(cpl.get("b")));
+    cpl.put("c", bytes("four"));
+    cpl = open();
+    assertEquals("four", str(cpl.get("c")));
+  }
+
+  public void testCorruptRecord() throws Exception {
+    PollCheckpointLog cpl = open();
+    cpl.put("a", bytes("one"));
+    long len = cpl.getLength();
+    cpl.put("b", bytes("two"));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(cpl.getLength() - 6);
+    raf.write(0x55);
+    raf.close();
+
+    cpl = open();
+    assertEquals(len, cpl.getLength());
+    assertEquals("one", str(cpl.get("a")));
+    assertNull(cpl.get("b"));
+  }
+
+  public void testCompaction() throws Exception {
+    PollCheckpointLog cpl = open();
+    cpl.setCompaction(3, 1000);
+    for (int ix = 0; ix < 500; ix++) {
+      cpl.put("p:" + (ix % 5), bytes("value " + ix));
+      assertTrue(cpl.getLength() < 3000);
+    }
+    cpl.delete("p:0");
+    for (int ix = 1; ix < 5; ix++) {
+      assertEquals("value " + (495 + ix), str(cpl.get("p:" + ix)));
+    }
+    cpl.compact();
+    assertEquals(cpl.getLiveLength(), cpl.getLength());
+    assertEquals(file.length(), cpl.getLength());
+
+    cpl = open();
+    assertNull(cpl.get("p:0"));
+    for (int ix = 1; ix < 5; ix++) {
+      assertEquals("value " + (495 + ix), str(cpl.get("p:" + ix)));
+    }
+  }
+
+  public void testCreate() throws Exception {
+    PollCheckpointLog cpl = open();
+    Map<String,byte[]> entries = new LinkedHashMap<String,byte[]>();
+    entries.put("a", bytes("one"));
+    entries.put("b", bytes("two"));
+    cpl.create(entries);
+    assertEquals("one", str(cpl.get("a")));
+    cpl = open();
+    assertEquals("two", str(cpl.get("b")));
+    assertFalse(new File(dir, PollCheckpointLog.LOG_FILE_NAME + ".tmp")
+                .exists());
+    try {
+      cpl.create(entries);
+      fail("create() on existing log should throw");
+    } catch (IllegalStateException e) {
+    }
+  }
+}
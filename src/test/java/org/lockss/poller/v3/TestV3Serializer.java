@@ -174,6 +174,125 @@ public class TestV3Serializer extends LockssTestCase {
     assertEqualInnerCircles(uds1, uds3);
   }
 
+  public void testRemovePollerUserData() throws Exception {
+    V3PollerSerializer pollerSerializer = new V3PollerSerializer(theDaemon);
+    File pollDir = (File)PrivilegedAccessor.getValue(pollerSerializer,
+                                                     "pollDir");
+    ParticipantUserData ud1 =
+      makePollerUserData("TCP:[10.1.1.1]:8000", pollerSerializer);
+    ParticipantUserData ud2 =
+      makePollerUserData("TCP:[10.1.1.2]:8000", pollerSerializer);
+    pollerSerializer.savePollerUserData(ud1);
+    pollerSerializer.savePollerUserData(ud2);
+    pollerSerializer.removePollerUserData(ud1.getVoterId());
+    assertEqualInnerCircles(ListUtil.list(ud2),
+                            pollerSerializer.loadVoterStates());
+    pollerSerializer = new V3PollerSerializer(theDaemon, pollDir);
+    assertEqualInnerCircles(ListUtil.list(ud2),
+                            pollerSerializer.loadVoterStates());
+    try {
+      pollerSerializer.loadPollerUserData(ud1.getVoterId());
+      fail("Should have thrown");
+    } catch (V3Serializer.PollSerializerException ex) {
+      // expected.
+    }
+  }
+
+  public void testCheckpointLog() throws Exception {
+    V3PollerSerializer pollerSerializer = new V3PollerSerializer(theDaemon);
+    File pollDir = (File)PrivilegedAccessor.getValue(pollerSerializer,
+                                                     "pollDir");
+    pollerSerializer.savePollerState(makePollerStateBean(pollerSerializer));
+    pollerSerializer.savePollerUserData(makePollerUserData(pollerSerializer));
+    assertEquals(ListUtil.list(PollCheckpointLog.LOG_FILE_NAME),
+                 Arrays.asList(pollDir.list()));
+    assertTrue(V3PollerSerializer.hasPollerState(pollDir));
+    assertFalse(V3VoterSerializer.hasVoterState(pollDir));
+
+    V3VoterSerializer voterSerializer = new V3VoterSerializer(theDaemon);
+    pollDir = (File)PrivilegedAccessor.getValue(voterSerializer, "pollDir");
+    voterSerializer.saveVoterUserData(makeVoterUserData(voterSerializer));
+    assertEquals(ListUtil.list(PollCheckpointLog.LOG_FILE_NAME),
+                 Arrays.asList(pollDir.list()));
+    assertFalse(V3PollerSerializer.hasPollerState(pollDir));
+    assertTrue(V3VoterSerializer.hasVoterState(pollDir));
+  }
+
+  public void testXmlFiles() throws Exception {
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "false");
+    V3PollerSerializer pollerSerializer = new V3PollerSerializer(theDaemon);
+    File pollDir = (File)PrivilegedAccessor.getValue(pollerSerializer,
+                                                     "pollDir");
+    PollerStateBean psb1 = makePollerStateBean(pollerSerializer);
+    ParticipantUserData ud1 = makePollerUserData(pollerSerializer);
+    pollerSerializer.savePollerState(psb1);
+    pollerSerializer.savePollerUserData(ud1);
+    assertTrue(new File(pollDir,
+                        V3PollerSerializer.POLLER_STATE_BEAN).exists());
+    assertFalse(new File(pollDir, PollCheckpointLog.LOG_FILE_NAME).exists());
+    assertTrue(V3PollerSerializer.hasPollerState(pollDir));
+    pollerSerializer = new V3PollerSerializer(theDaemon, pollDir);
+    V3PollTestUtil.assertEqualPollerStateBeans(psb1,
+                                               pollerSerializer.loadPollerState());
+    V3PollTestUtil.assertEqualParticipantUserData(ud1,
+        pollerSerializer.loadPollerUserData(ud1.getVoterId()));
+  }
+
+  public void testMigratePoller() throws Exception {
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "false");
+    V3PollerSerializer pollerSerializer = new V3PollerSerializer(theDaemon);
+    File pollDir = (File)PrivilegedAccessor.getValue(pollerSerializer,
+                                                     "pollDir");
+    PollerStateBean psb1 = makePollerStateBean(pollerSerializer);
+    List uds1 =
+      ListUtil.list(makePollerUserData("TCP:[10.1.1.1]:8000",
+                                       pollerSerializer),
+                    makePollerUserData("TCP:[10.1.1.2]:8000",
+                                       pollerSerializer));
+    pollerSerializer.savePollerState(psb1);
+    for (Iterator iter = uds1.iterator(); iter.hasNext(); ) {
+      pollerSerializer.savePollerUserData((ParticipantUserData)iter.next());
+    }
+    assertEquals(3, pollDir.list().length);
+
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "true");
+    pollerSerializer = new V3PollerSerializer(theDaemon, pollDir);
+    assertEquals(ListUtil.list(PollCheckpointLog.LOG_FILE_NAME),
+                 Arrays.asList(pollDir.list()));
+    V3PollTestUtil.assertEqualPollerStateBeans(psb1,
+                                               pollerSerializer.loadPollerState());
+    assertEqualInnerCircles(uds1, pollerSerializer.loadVoterStates());
+    ParticipantUserData ud = (ParticipantUserData)uds1.get(1);
+    V3PollTestUtil.assertEqualParticipantUserData(ud,
+        pollerSerializer.loadPollerUserData(ud.getVoterId()));
+
+    // Once migrated, the log is used even if disabled
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "false");
+    pollerSerializer = new V3PollerSerializer(theDaemon, pollDir);
+    V3PollTestUtil.assertEqualPollerStateBeans(psb1,
+                                               pollerSerializer.loadPollerState());
+    assertEqualInnerCircles(uds1, pollerSerializer.loadVoterStates());
+  }
+
+  public void testMigrateVoter() throws Exception {
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "false");
+    V3VoterSerializer voterSerializer = new V3VoterSerializer(theDaemon);
+    File pollDir = (File)PrivilegedAccessor.getValue(voterSerializer,
+                                                     "pollDir");
+    VoterUserData ud1 = makeVoterUserData(voterSerializer);
+    voterSerializer.saveVoterUserData(ud1);
+    assertTrue(new File(pollDir,
+                        V3VoterSerializer.VOTER_USER_DATA_FILE).exists());
+
+    ConfigurationUtil.addFromArgs(V3Serializer.PARAM_CHECKPOINT_LOG, "true");
+    voterSerializer = new V3VoterSerializer(theDaemon, pollDir);
+    assertEquals(ListUtil.list(PollCheckpointLog.LOG_FILE_NAME),
+                 Arrays.asList(pollDir.list()));
+    V3PollTestUtil.assertEqualVoterUserData(ud1,
+                                            voterSerializer.loadVoterUserData());
+    assertTrue(V3VoterSerializer.hasVoterState(pollDir));
+  }
+
 
   private PollerStateBean makePollerStateBean(V3PollerSerializer serializer)
       throws IdentityManager.MalformedIdentityKeyException {
@@ -105,6 +105,60 @@ public class TestDiskVoteBlocks extends LockssTestCase {
     assertEquals((VoteBlock) voteBlockList.get(2), iter.next());
   }
 
+  public void testCompactFormat() throws Exception {
+    List<VoteBlock> voteBlockList = V3TestUtils.makeVoteBlockList(20);
+    DiskVoteBlocks legacy = makeDiskVoteBlocks(voteBlockList);
+    DiskVoteBlocks dvb =
+      new DiskVoteBlocks(tempDir, VoteBlockCodec.FORMAT_COMPACT);
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT, dvb.getFormat());
+    for (VoteBlock vb : voteBlockList) {
+      dvb.addVoteBlock(vb);
+    }
+    assertEquals(20, dvb.size());
+    assertTrue(dvb.getEstimatedEncodedLength() <
+	       legacy.getEstimatedEncodedLength());
+    assertEquals(voteBlockList, readAll(dvb));
+    assertEquals(voteBlockList.get(7),
+		 dvb.getVoteBlock(voteBlockList.get(7).getUrl()));
+
+    // Copy through the stream constructor, as when received in a message
+    DiskVoteBlocks copy =
+      new DiskVoteBlocks(20, dvb.getInputStream(), tempDir,
+			 VoteBlockCodec.FORMAT_COMPACT);
+    assertEquals(voteBlockList, readAll(copy));
+  }
+
+  public void testSetFormat() throws Exception {
+    DiskVoteBlocks dvb = new DiskVoteBlocks(tempDir);
+    assertEquals(VoteBlockCodec.FORMAT_LEGACY, dvb.getFormat());
+    dvb.setFormat(VoteBlockCodec.FORMAT_COMPACT);
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT, dvb.getFormat());
+    try {
+      dvb.setFormat(17);
+      fail("setFormat(17) should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    dvb.addVoteBlock(V3TestUtils.makeVoteBlock("http://foo/"));
+    try {
+      dvb.setFormat(VoteBlockCodec.FORMAT_LEGACY);
+      fail("setFormat() on non-empty DiskVoteBlocks should throw");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  List<VoteBlock> readAll(VoteBlocks vbs) throws IOException {
+    List<VoteBlock> res = new ArrayList<VoteBlock>();
+    VoteBlocksIterator iter = vbs.iterator();
+    try {
+      while (iter.hasNext()) {
+	res.add(iter.next());
+      }
+    } finally {
+      iter.release();
+    }
+    return res;
+  }
+
   /*
    * Test method for 'org.lockss.protocol.DiskVoteBlocks.iterator()'
    */
@@ -0,0 +1,312 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.protocol;
+
+import java.util.*;
+import java.io.*;
+import javax.net.ssl.*;
+
+import org.lockss.protocol.BlockingStreamComm.PeerData;
+import org.lockss.config.*;
+import org.lockss.daemon.*;
+import org.lockss.util.*;
+import org.lockss.util.time.Deadline;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimerUtil;
+import org.lockss.test.*;
+
+/**
+ * This is the test class for org.lockss.protocol.NioStreamComm
+ */
+public class TestNioStreamComm extends LockssTestCase {
+  public static Class testedClasses[] = {
+    NioStreamComm.class,
+    NioPeerChannel.class,
+  };
+
+  static Logger log = Logger.getLogger();
+
+  static int createCounter = 1;
+
+  String testStr1 = "This is test data 1";
+  String testStr2 = "This message contains a null \000 character";
+
+  private MockLockssDaemon daemon;
+  Properties cprops;
+  PeerIdentity pid1, pid2;
+  MyNioStreamComm comm1, comm2;
+  SimpleQueue rcvdMsgs1, rcvdMsgs2;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    daemon = getMockLockssDaemon();
+    String tempDirPath = getTempDir().getAbsolutePath() + File.separator;
+    cprops = new Properties();
+    cprops.setProperty(IdentityManager.PARAM_IDDB_DIR, tempDirPath + "iddb");
+    cprops.setProperty(IdentityManager.PARAM_LOCAL_IP, "127.0.0.1");
+    cprops.setProperty(LcapStreamComm.PARAM_ENABLED, "true");
+    cprops.setProperty(NioStreamComm.PARAM_TIMEOUT_CHECK_INTERVAL, "100");
+    ConfigurationUtil.setCurrentConfigFromProps(cprops);
+    daemon.setDaemonInited(true);
+    pid1 = findPeerId(TcpTestUtil.findUnboundTcpPort());
+    pid2 = findPeerId(TcpTestUtil.findUnboundTcpPort());
+    rcvdMsgs1 = new SimpleQueue.Fifo();
+    rcvdMsgs2 = new SimpleQueue.Fifo();
+  }
+
+  public void tearDown() throws Exception {
+    if (comm1 != null) comm1.stopService();
+    if (comm2 != null) comm2.stopService();
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  PeerIdentity findPeerId(int port)
+      throws IdentityManager.MalformedIdentityKeyException {
+    return V3TestUtils.findPeerIdentity(daemon,
+					IDUtil.ipAddrToKey("127.0.0.1", port));
+  }
+
+  MyNioStreamComm setupComm(PeerIdentity pid, SimpleQueue rcvdMsgs) {
+    MyNioStreamComm comm = new MyNioStreamComm(pid);
+    comm.initService(daemon);
+    comm.startService();
+    for (int proto = 1; proto <= 3; proto++) {
+      comm.registerMessageHandler(proto, new MessageHandler(rcvdMsgs));
+    }
+    return comm;
+  }
+
+  void setupComms() {
+    comm1 = setupComm(pid1, rcvdMsgs1);
+    comm2 = setupComm(pid2, rcvdMsgs2);
+  }
+
+  PeerMessage makePeerMessage(int proto, String data, int rpt)
+      throws IOException {
+    PeerMessage pm = new MyMemoryPeerMessage();
+    pm.setProtocol(proto);
+    byte[] bdata = data.getBytes();
+    OutputStream os = pm.getOutputStream();
+    for (int ix = rpt; ix > 0; ix--) {
+      os.write(bdata);
+    }
+    os.close();
+    return pm;
+  }
+
+  public void assertEqualsMessageFrom(PeerMessage expectedMsg,
+				      PeerIdentity expectedPid,
+				      PeerMessage actualMsg) {
+    assertNotNull("Null message", actualMsg);
+    assertEquals(expectedPid, actualMsg.getSender());
+    assertTrue("Expected " + expectedMsg + " but was " + actualMsg,
+	       expectedMsg.equalsButSender(actualMsg));
+  }
+
+  BlockingPeerChannel getChannel(BlockingStreamComm comm, PeerIdentity pid) {
+    PeerData pdata = comm.getPeerData(pid);
+    return pdata == null ? null : pdata.getPrimaryChannel();
+  }
+
+  public void testChooseStreamComm() {
+    assertEquals("org.lockss.protocol.BlockingStreamComm",
+		 daemon.chooseStreamComm());
+    ConfigurationUtil.addFromArgs(LcapStreamComm.PARAM_USE_NIO, "true");
+    assertEquals("org.lockss.protocol.NioStreamComm",
+		 daemon.chooseStreamComm());
+  }
+
+  public void testSendBothWays() throws IOException {
+    setupComms();
+    PeerMessage msg1 = makePeerMessage(1, testStr1, 1);
+    PeerMessage msg2 = makePeerMessage(2, testStr2, 1);
+    comm1.sendTo(msg1, pid2);
+    PeerMessage msgIn = (PeerMessage)rcvdMsgs2.get(TIMEOUT_SHOULDNT);
+    assertEqualsMessageFrom(msg1, pid1, msgIn);
+    assertTrue(getChannel(comm1, pid2) instanceof NioPeerChannel);
+    comm2.sendTo(msg2, pid1);
+    msgIn = (PeerMessage)rcvdMsgs1.get(TIMEOUT_SHOULDNT);
+    assertEqualsMessageFrom(msg2, pid2, msgIn);
+  }
+
+  static final String KS_NAME = "ks1";
+  static final String KS_PASSWORD = "Bad Password";
+  static final String KEY_PASSWORD = "No Donut!";
+
+  /** Configure V3 over SSL with client auth, both comms using the same
+   * key */
+  void setUpSsl() throws Exception {
+    File keyStoreFile = new File(getTempDir("TestNioStreamComm"),
+				 "test.keystore");
+    Properties ksp = new Properties();
+    ksp.put(KeyStoreUtil.PROP_KEYSTORE_FILE, keyStoreFile.toString());
+    ksp.put(KeyStoreUtil.PROP_KEYSTORE_PASSWORD, KS_PASSWORD);
+    ksp.put(KeyStoreUtil.PROP_KEY_PASSWORD, KEY_PASSWORD);
+    KeyStoreUtil.createKeyStore(ksp);
+
+    String pref = LockssKeyStoreManager.PARAM_KEYSTORE + ".id1.";
+    cprops.setProperty(pref + LockssKeyStoreManager.KEYSTORE_PARAM_NAME,
+		       KS_NAME);
+    cprops.setProperty(pref + LockssKeyStoreManager.KEYSTORE_PARAM_FILE,
+		       keyStoreFile.toString());
+    cprops.setProperty(pref + LockssKeyStoreManager.KEYSTORE_PARAM_TYPE,
+		       "PKCS12");
+    cprops.setProperty(pref + LockssKeyStoreManager.KEYSTORE_PARAM_PASSWORD,
+		       KS_PASSWORD);
+    cprops.setProperty(pref +
+		       LockssKeyStoreManager.KEYSTORE_PARAM_KEY_PASSWORD,
+		       KEY_PASSWORD);
+    cprops.setProperty(BlockingStreamComm.PARAM_USE_V3_OVER_SSL, "true");
+    cprops.setProperty(BlockingStreamComm.PARAM_SSL_KEYSTORE_NAME, KS_NAME);
+    cprops.setProperty(BlockingStreamComm.PARAM_USE_SSL_CLIENT_AUTH, "true");
+    ConfigurationUtil.setCurrentConfigFromProps(cprops);
+
+    RandomManager rmgr = new TestingRandomManager();
+    rmgr.initService(daemon);
+    daemon.setRandomManager(rmgr);
+    daemon.getKeystoreManager().startService();
+  }
+
+  public void testSendBothWaysSsl() throws Exception {
+    setUpSsl();
+    setupComms();
+    assertNotNull(comm1.getSslContext());
+
+    // Server engines require client auth, and both have the configured
+    // protocols disabled
+    SSLEngine engine = comm1.newSslEngine(false);
+    assertTrue(engine.getNeedClientAuth());
+    assertFalse(ListUtil.fromArray(engine.getEnabledProtocols())
+		.contains("SSLv3"));
+    engine = comm1.newSslEngine(true);
+    assertTrue(engine.getUseClientMode());
+    assertFalse(ListUtil.fromArray(engine.getEnabledProtocols())
+		.contains("SSLv3"));
+
+    // Large enough to span several SSL records
+    PeerMessage msg1 = makePeerMessage(1, testStr1, 2000);
+    PeerMessage msg2 = makePeerMessage(2, testStr2, 1);
+    comm1.sendTo(msg1, pid2);
+    PeerMessage msgIn = (PeerMessage)rcvdMsgs2.get(TIMEOUT_SHOULDNT);
+    assertEqualsMessageFrom(msg1, pid1, msgIn);
+    assertTrue(getChannel(comm1, pid2) instanceof NioPeerChannel);
+    comm2.sendTo(msg2, pid1);
+    msgIn = (PeerMessage)rcvdMsgs1.get(TIMEOUT_SHOULDNT);
+    assertEqualsMessageFrom(msg2, pid2, msgIn);
+  }
+
+  public void testManyMessagesInOrder() throws IOException {
+    setupComms();
+    List<PeerMessage> sent = new ArrayList<PeerMessage>();
+    for (int ix = 0; ix < 50; ix++) {
+      PeerMessage msg = makePeerMessage(1 + ix % 3, "msg " + ix, ix);
+      sent.add(msg);
+      comm1.sendTo(msg, pid2);
+    }
+    for (PeerMessage msg : sent) {
+      assertEqualsMessageFrom(msg, pid1,
+			      (PeerMessage)rcvdMsgs2.get(TIMEOUT_SHOULDNT));
+    }
+  }
+
+  // Message larger than the channel buffers, received into a file
+  public void testLargeFileMessage() throws IOException {
+    cprops.setProperty(BlockingStreamComm.PARAM_MIN_FILE_MESSAGE_SIZE,
+		       "1000");
+    cprops.setProperty(NioStreamComm.PARAM_BUFFER_SIZE, "1024");
+    ConfigurationUtil.setCurrentConfigFromProps(cprops);
+    setupComms();
+    PeerMessage msg1 = makePeerMessage(1, testStr1, 1);
+    PeerMessage msg2 =
+      makePeerMessage(1, "1234567890123456789012345678901234567890", 1000);
+    comm1.sendTo(msg1, pid2);
+    comm1.sendTo(msg2, pid2);
+    PeerMessage msgIn = (PeerMessage)rcvdMsgs2.get(TIMEOUT_SHOULDNT);
+    assertEqualsMessageFrom(msg1, pid1, msgIn);
+    assertTrue(msgIn.toString(), msgIn instanceof MemoryPeerMessage);
+    msgIn = (PeerMessage)rcvdMsgs2.get(TIMEOUT_SHOULDNT);
+    try {
+      assertEqualsMessageFrom(msg2, pid1, msgIn);
+      assertTrue(msgIn.toString(), msgIn instanceof FilePeerMessage);
+    } finally {
+      msgIn.delete();
+    }
+  }
+
+  public void testChannelCloseAfterIdle() throws IOException {
+    TimeBase.setSimulated(1000);
+    cprops.setProperty(BlockingStreamComm.PARAM_CHANNEL_IDLE_TIME, "5000");
+    ConfigurationUtil.setCurrentConfigFromProps(cprops);
+    setupComms();
+    comm1.sendTo(makePeerMessage(1, testStr1, 1), pid2);
+    assertNotNull(rcvdMsgs2.get(TIMEOUT_SHOULDNT));
+    assertNotNull(getChannel(comm1, pid2));
+    TimeBase.step(6000);
+    Deadline dl = Deadline.in(TIMEOUT_SHOULDNT);
+    while (getChannel(comm1, pid2) != null && !dl.expired()) {
+      TimerUtil.guaranteedSleep(10);
+    }
+    assertNull("Idle channel wasn't closed", getChannel(comm1, pid2));
+  }
+
+  class MyNioStreamComm extends NioStreamComm {
+    PeerIdentity localId;
+    int uniqueId;
+
+    MyNioStreamComm(PeerIdentity localId) {
+      this.localId = localId;
+      uniqueId = createCounter++;
+    }
+
+    protected String getStatusAccessorName(String base) {
+      return base + "Nio" + uniqueId;
+    }
+
+    protected PeerIdentity getLocalPeerIdentity() {
+      return localId;
+    }
+  }
+
+  class MessageHandler implements BlockingStreamComm.MessageHandler {
+    SimpleQueue queue;
+    public MessageHandler(SimpleQueue queue) {
+      this.queue = queue;
+    }
+    public void handleMessage(PeerMessage msg) {
+      queue.put(msg);
+    }
+  }
+
+  // Suppress delete() so sent messages can be compared with received
+  static class MyMemoryPeerMessage extends MemoryPeerMessage {
+    public void delete() {
+    }
+  }
+}
@@ -386,6 +386,38 @@ public class TestV3LcapMessage extends LockssTestCase {
     
   }
   
+  public void testCompactVoteBlocks() throws Exception {
+    List<VoteBlock> testVoteBlocks = V3TestUtils.makeVoteBlockList(21);
+    V3LcapMessage testMsg = makeTestVoteMessage(Collections.EMPTY_LIST);
+    DiskVoteBlocks dvb =
+      new DiskVoteBlocks(tempDir, VoteBlockCodec.FORMAT_COMPACT);
+    for (VoteBlock vb : testVoteBlocks) {
+      dvb.addVoteBlock(vb);
+    }
+    testMsg.setVoteBlocks(dvb);
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT, testMsg.getVoteBlockFormat());
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(testMsg.getInputStream(), tempDir, theDaemon);
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT,
+		 decodedMsg.getVoteBlockFormat());
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT,
+		 decodedMsg.getMaxVoteBlockFormat());
+    assertEqualMessages(testMsg, decodedMsg);
+  }
+
+  public void testMaxVoteBlockFormatLegacy() throws Exception {
+    ConfigurationUtil.addFromArgs(VoteBlockCodec.PARAM_MAX_VOTE_BLOCK_FORMAT,
+				  "0");
+    V3LcapMessage testMsg =
+      makeTestVoteMessage(V3TestUtils.makeVoteBlockList(3));
+    assertEquals(VoteBlockCodec.FORMAT_LEGACY, testMsg.getVoteBlockFormat());
+    V3LcapMessage decodedMsg =
+      new V3LcapMessage(testMsg.getInputStream(), tempDir, theDaemon);
+    assertEquals(VoteBlockCodec.FORMAT_LEGACY,
+		 decodedMsg.getMaxVoteBlockFormat());
+    assertEqualMessages(testMsg, decodedMsg);
+  }
+
   private void assertEqualMessages(V3LcapMessage a, V3LcapMessage b)
       throws Exception {
     assertTrue(a.getOriginatorId() == b.getOriginatorId());
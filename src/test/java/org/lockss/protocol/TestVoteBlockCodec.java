@@ -0,0 +1,227 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.protocol;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.io.output.UnsynchronizedByteArrayOutputStream;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestVoteBlockCodec extends LockssTestCase {
+
+  byte[] encode(int format, List<VoteBlock> blocks) throws IOException {
+    UnsynchronizedByteArrayOutputStream bos =
+      new UnsynchronizedByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    VoteBlockCodec.Encoder enc = VoteBlockCodec.newEncoder(format, dos, null);
+    for (VoteBlock vb : blocks) {
+      enc.write(vb);
+    }
+    dos.flush();
+    return bos.toByteArray();
+  }
+
+  List<VoteBlock> decode(int format, byte[] bytes) throws IOException {
+    VoteBlockCodec.Decoder dec =
+      VoteBlockCodec.newDecoder(format,
+				new DataInputStream(new ByteArrayInputStream(bytes)));
+    List<VoteBlock> res = new ArrayList<VoteBlock>();
+    VoteBlock vb;
+    while ((vb = dec.read()) != null) {
+      res.add(vb);
+    }
+    return res;
+  }
+
+  VoteBlock makeBlock(String url, int nver) {
+    VoteBlock vb = new VoteBlock(url, VoteBlock.CONTENT_VOTE);
+    for (int ix = 0; ix < nver; ix++) {
+      vb.addVersion(ix, 1000L + ix, 7L * ix, 123456789012L,
+		    ByteArray.makeRandomBytes(20),
+		    ByteArray.makeRandomBytes(20),
+		    ix == 1);
+    }
+    return vb;
+  }
+
+  public void testRoundTrip() throws Exception {
+    List<VoteBlock> blocks =
+      ListUtil.list(makeBlock("http://example.com/", 1),
+		    makeBlock("http://example.com/a/b/c.html", 3),
+		    makeBlock("http://example.com/a/b/d.html", 0),
+		    makeBlock("http://example.com/a/e\u00e9\ud83d\ude00x", 2),
+		    makeBlock("http://example.com/a/e\u00e9\ud83d\ude01", 1),
+		    makeBlock("http://other.org/", 1));
+    byte[] compact = encode(VoteBlockCodec.FORMAT_COMPACT, blocks);
+    List<VoteBlock> res = decode(VoteBlockCodec.FORMAT_COMPACT, compact);
+    assertEquals(blocks, res);
+    // equals() ignores these
+    for (int ix = 0; ix < blocks.size(); ix++) {
+      VoteBlock exp = blocks.get(ix);
+      VoteBlock act = res.get(ix);
+      assertEquals(exp.getUrl(), act.getUrl());
+      for (int jx = 0; jx < exp.size(); jx++) {
+	assertEquals(exp.getVersion(jx).getHashError(),
+		     act.getVersion(jx).getHashError());
+      }
+    }
+    byte[] legacy = encode(VoteBlockCodec.FORMAT_LEGACY, blocks);
+    List<VoteBlock> legacyRes = decode(VoteBlockCodec.FORMAT_LEGACY, legacy);
+    assertEquals(blocks.size(), legacyRes.size());
+    for (int ix = 0; ix < blocks.size(); ix++) {
+      assertEquals(blocks.get(ix).getUrl(), legacyRes.get(ix).getUrl());
+    }
+    assertTrue("compact: " + compact.length + ", legacy: " + legacy.length,
+	       compact.length < legacy.length);
+  }
+
+  public void testEmpty() throws Exception {
+    assertEmpty(decode(VoteBlockCodec.FORMAT_COMPACT, new byte[0]));
+    assertEmpty(decode(VoteBlockCodec.FORMAT_LEGACY, new byte[0]));
+  }
+
+  public void testTruncated() throws Exception {
+    byte[] enc = encode(VoteBlockCodec.FORMAT_COMPACT,
+			ListUtil.list(makeBlock("http://example.com/x", 1)));
+    try {
+      decode(VoteBlockCodec.FORMAT_COMPACT,
+	     Arrays.copyOf(enc, enc.length - 3));
+      fail("Truncated block should throw");
+    } catch (EOFException e) {
+    }
+  }
+
+  public void testBadPrefix() throws Exception {
+    byte[] enc = encode(VoteBlockCodec.FORMAT_COMPACT,
+			ListUtil.list(makeBlock("http://example.com/x", 1)));
+    // First byte is shared prefix length, must be 0 for first block
+    enc[0] = 5;
+    try {
+      decode(VoteBlockCodec.FORMAT_COMPACT, enc);
+      fail("Bad prefix length should throw");
+    } catch (ProtocolException e) {
+    }
+  }
+
+  byte[] encodeRaw(long... vals) throws IOException {
+    UnsynchronizedByteArrayOutputStream bos =
+      new UnsynchronizedByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    for (long val : vals) {
+      VoteBlockCodec.writeVarLong(dos, val);
+    }
+    dos.flush();
+    return bos.toByteArray();
+  }
+
+  void assertBadLength(byte[] enc) throws IOException {
+    try {
+      decode(VoteBlockCodec.FORMAT_COMPACT, enc);
+      fail("Oversize length should throw");
+    } catch (ProtocolException e) {
+      assertMatchesRE("length", e.getMessage());
+    }
+  }
+
+  public void testBadLengths() throws Exception {
+    // shared, suffix length
+    assertBadLength(encodeRaw(0, VoteBlockCodec.MAX_URL_BYTES + 1));
+    assertBadLength(encodeRaw(0, Integer.MAX_VALUE));
+    // shared, suffix length, (empty suffix), vote type, version count
+    assertBadLength(encodeRaw(0, 0, VoteBlock.CONTENT_VOTE,
+			      VoteBlockCodec.MAX_VERSIONS + 1));
+    // one version: flags, 4 offsets/lengths, plain hash length
+    assertBadLength(encodeRaw(0, 0, VoteBlock.CONTENT_VOTE, 1,
+			      0, 0, 0, 0, 0,
+			      VoteBlockCodec.MAX_HASH_BYTES + 1));
+  }
+
+  public void testEncoderContinuation() throws Exception {
+    // An encoder given the previous URL continues the prefix chain
+    VoteBlock vb1 = makeBlock("http://example.com/a/1", 1);
+    VoteBlock vb2 = makeBlock("http://example.com/a/2", 1);
+    UnsynchronizedByteArrayOutputStream bos =
+      new UnsynchronizedByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(bos);
+    VoteBlockCodec.newEncoder(VoteBlockCodec.FORMAT_COMPACT, dos, null)
+      .write(vb1);
+    VoteBlockCodec.Encoder enc =
+      VoteBlockCodec.newEncoder(VoteBlockCodec.FORMAT_COMPACT, dos,
+				vb1.getUrl());
+    enc.write(vb2);
+    assertEquals(vb2.getUrl(), enc.getPrevUrl());
+    assertEquals(ListUtil.list(vb1, vb2),
+		 decode(VoteBlockCodec.FORMAT_COMPACT, bos.toByteArray()));
+  }
+
+  public void testVarLong() throws Exception {
+    long[] vals = {0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE,
+		   Long.MAX_VALUE, -1, -64, -65, Long.MIN_VALUE};
+    for (long val : vals) {
+      UnsynchronizedByteArrayOutputStream bos =
+	new UnsynchronizedByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bos);
+      VoteBlockCodec.writeSignedVarLong(dos, val);
+      if (val >= 0) {
+	VoteBlockCodec.writeVarLong(dos, val);
+      }
+      DataInputStream dis =
+	new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+      assertEquals(val, VoteBlockCodec.readSignedVarLong(dis));
+      if (val >= 0) {
+	assertEquals(val, VoteBlockCodec.readVarLong(dis));
+      }
+    }
+  }
+
+  public void testSharedPrefixLength() {
+    assertEquals(0, VoteBlockCodec.sharedPrefixLength(null, "abc"));
+    assertEquals(0, VoteBlockCodec.sharedPrefixLength("xbc", "abc"));
+    assertEquals(2, VoteBlockCodec.sharedPrefixLength("abd", "abc"));
+    assertEquals(3, VoteBlockCodec.sharedPrefixLength("abc", "abcd"));
+    // Don't split surrogate pair
+    assertEquals(1, VoteBlockCodec.sharedPrefixLength("a\ud83d\ude00",
+						      "a\ud83d\ude01"));
+  }
+
+  public void testNegotiate() {
+    assertEquals(VoteBlockCodec.FORMAT_LEGACY,
+		 VoteBlockCodec.negotiateFormat(VoteBlockCodec.FORMAT_LEGACY));
+    assertEquals(VoteBlockCodec.FORMAT_COMPACT,
+		 VoteBlockCodec.negotiateFormat(VoteBlockCodec.FORMAT_COMPACT));
+    assertEquals(VoteBlockCodec.MAX_FORMAT,
+		 VoteBlockCodec.negotiateFormat(99));
+    ConfigurationUtil.addFromArgs(VoteBlockCodec.PARAM_MAX_VOTE_BLOCK_FORMAT,
+				  "0");
+    assertEquals(VoteBlockCodec.FORMAT_LEGACY,
+		 VoteBlockCodec.negotiateFormat(VoteBlockCodec.FORMAT_COMPACT));
+  }
+}
@@ -0,0 +1,165 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.repository;
+
+import java.util.*;
+
+import org.lockss.plugin.*;
+import org.lockss.state.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+import org.lockss.util.time.TimeBase;
+import org.lockss.util.time.TimerUtil;
+
+public class TestAuStatsCache extends LockssTestCase {
+  MockLockssDaemon daemon;
+  MockArchivalUnit mau;
+  MockCachedUrlSet mcus;
+  AuStatsCache cache;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    daemon = getMockLockssDaemon();
+    daemon.setUpStateManager();
+    mau = new MockArchivalUnit(new MockPlugin(daemon));
+    mcus = new MockCachedUrlSet(mau);
+    mau.setAuCachedUrlSet(mcus);
+    cache = daemon.getRepositoryManager().getAuStatsCache();
+  }
+
+  public void tearDown() throws Exception {
+    TimeBase.setReal();
+    super.tearDown();
+  }
+
+  void setContent() {
+    MockCachedUrl cu1 = new MockCachedUrl("http://example.com/1", mau);
+    cu1.setContent("aaaa");
+    cu1.setVersion(1);
+    MockCachedUrl cu2 = new MockCachedUrl("http://example.com/2", mau);
+    cu2.setContent("bb");
+    cu2.addVersion("cccccc");
+    cu2.setVersion(2);
+    mcus.setHashItSource(ListUtil.list(cu1, cu2));
+    // The CachedUrlSet's own computation, used when stats are unknown
+    mcus.setContentSize(1234);
+  }
+
+  public void testEnabled() {
+    assertTrue(cache.isEnabled());
+    assertSame(cache, AuUtil.getAuStatsCache(mau));
+    ConfigurationUtil.addFromArgs(AuStatsCache.PARAM_ENABLED, "false");
+    assertFalse(cache.isEnabled());
+    assertNull(AuUtil.getAuStatsCache(mau));
+  }
+
+  public void testUnknown() {
+    setContent();
+    AuState aus = AuUtil.getAuState(mau);
+    assertEquals(1234, cache.getContentSize(mau, false));
+    assertEquals(-1, cache.getUrlCount(mau, false));
+    assertEquals(-1, cache.getDiskUsage(mau, false));
+    assertFalse(aus.hasAuStats());
+    // Queued once
+    assertEquals(1, cache.getQueueSize());
+  }
+
+  public void testCalcIfUnknown() {
+    TimeBase.setSimulated(1000);
+    setContent();
+    assertEquals(6, cache.getContentSize(mau, true));
+    assertEquals(2, cache.getUrlCount(mau, false));
+    assertEquals(12, cache.getDiskUsage(mau, false));
+    assertEquals(0, cache.getQueueSize());
+    assertEquals(1000, AuUtil.getAuState(mau).getAuStatsTime());
+    assertEquals(6, AuUtil.getAuContentSize(mau, false));
+    assertEquals(2, AuUtil.getAuUrlCount(mau, false));
+    assertEquals(12, AuUtil.getAuDiskUsage(mau, false));
+  }
+
+  public void testStale() {
+    TimeBase.setSimulated(1000);
+    setContent();
+    assertTrue(cache.reconcile(mau));
+    assertEquals(2, cache.getUrlCount(mau, false));
+    assertEquals(0, cache.getQueueSize());
+
+    // Content stored through the UrlCacher adjusts the stats
+    AuUtil.getAuState(mau).contentStored(true, 10, 0);
+    assertEquals(3, cache.getUrlCount(mau, false));
+    assertEquals(16, cache.getContentSize(mau, false));
+
+    // Stale stats are still served, and queued to be recomputed
+    TimeBase.step(AuStatsCache.DEFAULT_MAX_AGE + 1);
+    assertEquals(3, cache.getUrlCount(mau, false));
+    assertEquals(1, cache.getQueueSize());
+    assertSame(mau, cache.nextQueued());
+    assertNull(cache.nextQueued());
+  }
+
+  public void testIncomplete() {
+    TimeBase.setSimulated(1000);
+    setContent();
+    assertTrue(cache.reconcile(mau));
+    assertEquals(0, cache.getQueueSize());
+    // Stats adjusted but not saved by a previous run are served, and
+    // queued to be recomputed
+    AuState aus = AuUtil.getAuState(mau);
+    aus.getBean().setAuStatsUnsaved(true);
+    assertTrue(aus.isAuStatsIncomplete());
+    assertEquals(2, cache.getUrlCount(mau, false));
+    assertEquals(1, cache.getQueueSize());
+    assertTrue(cache.reconcile(mau));
+    assertFalse(aus.isAuStatsIncomplete());
+  }
+
+  public void testInvalidate() {
+    cache.invalidate(mau);
+    cache.invalidate(mau);
+    assertEquals(1, cache.getQueueSize());
+    cache.auDeleted(mau);
+    assertEquals(0, cache.getQueueSize());
+  }
+
+  public void testReconciler() throws Exception {
+    setContent();
+    cache.startReconciler();
+    try {
+      cache.invalidate(mau);
+      AuState aus = AuUtil.getAuState(mau);
+      for (int ix = 0; ix < 100 && !aus.hasAuStats(); ix++) {
+	TimerUtil.guaranteedSleep(10);
+      }
+      assertEquals(2, aus.getAuUrlCount());
+      assertEquals(6, aus.getAuContentSize());
+    } finally {
+      cache.stopReconciler();
+    }
+  }
+}
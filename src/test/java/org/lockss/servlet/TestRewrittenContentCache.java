@@ -0,0 +1,259 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.servlet;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.lockss.config.*;
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestRewrittenContentCache extends LockssTestCase {
+
+  static final String AUID = "auid1";
+  static final String AUID2 = "auid2";
+
+  RewrittenContentCache rcc;
+  File dir;
+
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = getTempDir();
+    rcc = new RewrittenContentCache();
+    config(1000, 10000, 100, 5000);
+  }
+
+  void config(long maxMem, long maxDisk, int maxMemEnt, long maxEnt) {
+    config(maxMem, maxDisk, maxMemEnt, maxEnt, dir);
+  }
+
+  void config(long maxMem, long maxDisk, int maxMemEnt, long maxEnt,
+	      File dir) {
+    Configuration config = ConfigManager.newConfiguration();
+    config.put(RewrittenContentCache.PARAM_MAX_MEMORY, "" + maxMem);
+    config.put(RewrittenContentCache.PARAM_MAX_DISK, "" + maxDisk);
+    config.put(RewrittenContentCache.PARAM_MAX_MEMORY_ENTRY, "" + maxMemEnt);
+    config.put(RewrittenContentCache.PARAM_MAX_ENTRY, "" + maxEnt);
+    config.put(RewrittenContentCache.PARAM_DIR, dir.toString());
+    rcc.setConfig(config, null, null);
+  }
+
+  byte[] bytes(int len, char ch) {
+    byte[] res = new byte[len];
+    Arrays.fill(res, (byte)ch);
+    return res;
+  }
+
+  String content(RewrittenContentCache.Entry ent) throws IOException {
+    InputStream in = ent.openStream();
+    try {
+      return StringUtil.fromInputStream(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  String key(String auid, String url) {
+    return auid + "|" + url + "|1";
+  }
+
+  void put(String auid, String url, int len, char ch) {
+    rcc.put(key(auid, url), auid, url, null, bytes(len, ch), len);
+  }
+
+  public void testPutGet() throws Exception {
+    assertNull(rcc.get(key(AUID, "u1")));
+    byte[] data = "rewritten content".getBytes();
+    rcc.put(key(AUID, "u1"), AUID, "u1", "UTF-8", data, 9);
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID, "u1"));
+    assertNotNull(ent);
+    assertEquals(9, ent.getLength());
+    assertEquals("UTF-8", ent.getCharset());
+    assertEquals("rewritten", content(ent));
+    assertEquals(9, rcc.getMemoryBytes());
+    assertEquals(0, rcc.getDiskBytes());
+    assertEquals(1, rcc.getHits());
+    assertEquals(1, rcc.getMisses());
+    assertEquals(0.5, rcc.getHitRatio(), 0.0001);
+  }
+
+  public void testLargeOnDisk() throws Exception {
+    put(AUID, "u1", 500, 'a');
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID, "u1"));
+    assertEquals(StringUtils.repeat("a", 500), content(ent));
+    assertEquals(0, rcc.getMemoryBytes());
+    assertEquals(500, rcc.getDiskBytes());
+    // Too large to cache at all
+    put(AUID, "u2", 6000, 'b');
+    assertNull(rcc.get(key(AUID, "u2")));
+    assertEquals(1, rcc.size());
+  }
+
+  public void testRecorder() throws Exception {
+    RewrittenContentCache.Recorder rec =
+      rcc.startRecording(key(AUID, "u1"), AUID, "u1");
+    for (int ix = 0; ix < 30; ix++) {
+      rec.write(bytes(10, 'x'));
+    }
+    rec.commit("ISO-8859-1");
+    rec.close();
+    RewrittenContentCache.Entry ent = rcc.get(key(AUID, "u1"));
+    assertEquals(300, ent.getLength());
+    assertEquals("ISO-8859-1", ent.getCharset());
+    assertEquals(StringUtils.repeat("x", 300), content(ent));
+    assertEquals(300, rcc.getDiskBytes());
+
+    // Not committed (e.g., client disconnected)
+    rec = rcc.startRecording(key(AUID, "u2"), AUID, "u2");
+    rec.write(bytes(50, 'y'));
+    rec.close();
+    rec.commit(null);
+    assertNull(rcc.get(key(AUID, "u2")));
+
+    // Too large
+    rec = rcc.startRecording(key(AUID, "u3"), AUID, "u3");
+    for (int ix = 0; ix < 10; ix++) {
+      rec.write(bytes(1000, 'z'));
+    }
+    rec.commit(null);
+    assertNull(rcc.get(key(AUID, "u3")));
+    assertEquals(1, rcc.size());
+    // Only the committed file remains
+    assertEquals(1, dir.listFiles()[0].list().length);
+  }
+
+  public void testEvictLru() throws Exception {
+    put(AUID, "u1", 100, 'a');
+    put(AUID, "u2", 100, 'a');
+    for (int ix = 3; ix <= 10; ix++) {
+      put(AUID, "u" + ix, 100, 'a');
+    }
+    assertEquals(1000, rcc.getMemoryBytes());
+    // Touch u1 so u2 is least recently used
+    assertNotNull(rcc.get(key(AUID, "u1")));
+    put(AUID, "u11", 100, 'a');
+    assertEquals(1000, rcc.getMemoryBytes());
+    assertNotNull(rcc.get(key(AUID, "u1")));
+    assertNull(rcc.get(key(AUID, "u2")));
+    assertEquals(1, rcc.getEvictions());
+  }
+
+  public void testInvalidate() throws Exception {
+    put(AUID, "u1", 10, 'a');
+    put(AUID, "u2", 200, 'a');
+    put(AUID, "u3", 10, 'a');
+    put(AUID2, "u1", 10, 'a');
+    rcc.invalidateUrls(AUID, ListUtil.list("u1", "u2"));
+    assertNull(rcc.get(key(AUID, "u1")));
+    assertNull(rcc.get(key(AUID, "u2")));
+    assertNotNull(rcc.get(key(AUID, "u3")));
+    assertNotNull(rcc.get(key(AUID2, "u1")));
+    assertEquals(0, rcc.getDiskBytes());
+    rcc.invalidateAu(AUID2);
+    assertNull(rcc.get(key(AUID2, "u1")));
+    assertEquals(1, rcc.size());
+    assertEquals(3, rcc.getInvalidations());
+  }
+
+  public void testDisabled() throws Exception {
+    ConfigurationUtil.addFromArgs(RewrittenContentCache.PARAM_ENABLED, "false");
+    rcc.setConfig(ConfigManager.getCurrentConfig(), null, null);
+    assertFalse(rcc.isEnabled());
+    put(AUID, "u1", 10, 'a');
+    assertNull(rcc.get(key(AUID, "u1")));
+    assertEquals(0, rcc.size());
+  }
+
+  public void testConfigClears() throws Exception {
+    put(AUID, "u1", 10, 'a');
+    assertEquals(1, rcc.size());
+    config(1000, 10000, 100, 5000);
+    assertEquals(0, rcc.size());
+  }
+
+  public void testStopDeletesDir() throws Exception {
+    put(AUID, "u1", 500, 'a');
+    assertEquals(1, dir.list().length);
+    rcc.stop();
+    assertEquals(0, rcc.size());
+    assertEquals(0, rcc.getDiskBytes());
+    assertEquals(0, dir.list().length);
+    // Still usable
+    put(AUID, "u1", 500, 'a');
+    assertNotNull(rcc.get(key(AUID, "u1")));
+    assertEquals(1, dir.list().length);
+  }
+
+  public void testDirChangeDeletesDir() throws Exception {
+    put(AUID, "u1", 500, 'a');
+    assertEquals(1, dir.list().length);
+    File dir2 = getTempDir();
+    config(1000, 10000, 100, 5000, dir2);
+    assertEquals(0, dir.list().length);
+    put(AUID, "u1", 500, 'a');
+    assertEquals(0, dir.list().length);
+    assertEquals(1, dir2.list().length);
+    // Same dir, not deleted
+    config(1000, 10000, 100, 5000, dir2);
+    assertEquals(1, dir2.list().length);
+  }
+
+  public void testTooLarge() throws Exception {
+    put(AUID, "u1", 6000, 'a');
+    RewrittenContentCache.Recorder rec =
+      rcc.startRecording(key(AUID, "u2"), AUID, "u2");
+    rec.write(bytes(6000, 'b'));
+    rec.commit(null);
+    assertEquals(2, rcc.getTooLarge());
+  }
+
+  public void testConfigChangesGeneration() throws Exception {
+    String gen = rcc.getGeneration();
+    assertEquals(gen, rcc.getGeneration());
+    config(1000, 10000, 100, 5000);
+    assertNotEquals(gen, rcc.getGeneration());
+    assertNotEquals(gen, new RewrittenContentCache().getGeneration());
+  }
+
+  public void testETag() {
+    String etag = RewrittenContentCache.getETag(key(AUID, "u1"));
+    assertMatchesRE("^\"[0-9a-f]+\"$", etag);
+    assertEquals(etag, RewrittenContentCache.getETag(key(AUID, "u1")));
+    assertNotEquals(etag, RewrittenContentCache.getETag(key(AUID, "u2")));
+
+    assertTrue(ServeContent.isETagMatch(etag, etag));
+    assertTrue(ServeContent.isETagMatch("\"foo\", " + etag, etag));
+    assertTrue(ServeContent.isETagMatch("W/" + etag, etag));
+    assertTrue(ServeContent.isETagMatch("*", etag));
+    assertFalse(ServeContent.isETagMatch("\"foo\"", etag));
+  }
+}
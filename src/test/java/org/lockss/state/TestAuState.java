@@ -635,6 +635,63 @@ public class TestAuState extends LockssTestCase {
 		 aus.getCdnStems());
   }
 
+  public void testAuStats() {
+    TimeBase.setSimulated(10000);
+    AuState aus = stateMgr.getAuState(mau);
+    assertFalse(aus.hasAuStats());
+    assertEquals(-1, aus.getAuUrlCount());
+    assertEquals(-1, aus.getAuContentSize());
+    assertEquals(-1, aus.getAuDiskUsage());
+    assertEquals(-1, aus.getAuStatsTime());
+    // No effect when stats are unknown
+    aus.contentStored(true, 100, 0);
+    assertFalse(aus.hasAuStats());
+
+    aus.setAuStats(3, 300, 500);
+    assertTrue(aus.hasAuStats());
+    assertEquals(3, aus.getAuUrlCount());
+    assertEquals(300, aus.getAuContentSize());
+    assertEquals(500, aus.getAuDiskUsage());
+    assertEquals(10000, aus.getAuStatsTime());
+    int updates = stateMgr.getAuStateUpdateCount();
+
+    // New URL
+    aus.contentStored(true, 100, 0);
+    // New version of existing URL
+    aus.contentStored(false, 40, 20);
+    assertEquals(4, aus.getAuUrlCount());
+    assertEquals(420, aus.getAuContentSize());
+    assertEquals(640, aus.getAuDiskUsage());
+    assertEquals(10000, aus.getAuStatsTime());
+    assertFalse(aus.isAuStatsIncomplete());
+    // Only the fact that there are unsaved changes is saved, once, until
+    // the crawl finishes
+    assertEquals(updates + 1, stateMgr.getAuStateUpdateCount());
+    assertTrue(aus.getBean().isAuStatsUnsaved());
+    aus.newCrawlFinished(Crawler.STATUS_SUCCESSFUL, null);
+    assertEquals(updates + 2, stateMgr.getAuStateUpdateCount());
+    assertFalse(aus.getBean().isAuStatsUnsaved());
+  }
+
+  public void testAuStatsIncomplete() throws IOException {
+    AuState aus = stateMgr.getAuState(mau);
+    aus.setAuStats(3, 300, 500);
+    aus.contentStored(true, 100, 0);
+    // As loaded after the daemon exited before the crawl finished
+    AuState loaded = makeAuState(mau, -1, -1, -1, -1, 123, null,
+				 1, -1.0, 1.0, stateMgr);
+    loaded.updateFromJson(aus.toJson(), getMockLockssDaemon());
+    assertEquals(4, loaded.getAuUrlCount());
+    assertTrue(loaded.isAuStatsIncomplete());
+    // Adjustments are ignored until the stats are recomputed
+    loaded.contentStored(true, 100, 0);
+    assertEquals(4, loaded.getAuUrlCount());
+    loaded.setAuStats(5, 500, 700);
+    assertFalse(loaded.isAuStatsIncomplete());
+    loaded.contentStored(true, 100, 0);
+    assertEquals(6, loaded.getAuUrlCount());
+  }
+
   String ausFields[] = {
     "auId",
     "lastCrawlTime",
@@ -668,7 +725,12 @@ public class TestAuState extends LockssTestCase {
     "metadataVersion",
     "substanceVersion",
     "averageHashDuration",
-    "isMetadataExtractionEnabled"};
+    "isMetadataExtractionEnabled",
+    "auUrlCount",
+    "auContentSize",
+    "auDiskUsage",
+    "auStatsTime",
+    "auStatsUnsaved"};
 
   String ignFields[] = {
     "lastPollAttempt",
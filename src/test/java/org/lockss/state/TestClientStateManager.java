@@ -243,14 +243,174 @@ public class TestClientStateManager extends StateTestCase {
 
   }
 
+  String auStateJson(long lastMetadataIndex) throws IOException {
+    AuStateBean ausb = new AuStateBean();
+    ausb.setLastMetadataIndex(lastMetadataIndex);
+    return ausb.toJson();
+  }
+
+  @Test
+  public void testPrefetchAuState() throws Exception {
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1234)));
+    assertFalse(stateMgr.hasAuState(AUID1));
+
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertEquals(ListUtil.list(ListUtil.list(AUID1, AUID2)),
+		 myStateMgr.getBulkRequests());
+    assertEquals(1, myStateMgr.getPrefetchRequests());
+    assertEquals(1, myStateMgr.getPrefetchLoaded());
+    assertTrue(stateMgr.hasAuState(AUID1));
+    // Objects not in the service are left to be created on demand
+    assertFalse(stateMgr.hasAuState(AUID2));
+
+    AuState aus1 = stateMgr.getAuState(mau1);
+    assertEquals(1234, aus1.getLastMetadataIndex());
+    assertSame(aus1, stateMgr.getAuState(mau1));
+    assertEquals(-1, stateMgr.getAuState(mau2).getLastMetadataIndex());
+
+    // Cached objects aren't requested again
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertEquals(1, myStateMgr.getPrefetchRequests());
+  }
+
+  @Test
+  public void testPrefetchBatchSize() throws Exception {
+    ConfigurationUtil.addFromArgs(ClientStateManager.PARAM_PREFETCH_BATCH_SIZE,
+				  "1");
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1),
+				       AUID2, auStateJson(2)));
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertEquals(ListUtil.list(ListUtil.list(AUID1), ListUtil.list(AUID2)),
+		 myStateMgr.getBulkRequests());
+    assertEquals(2, myStateMgr.getPrefetchLoaded());
+    assertEquals(2, stateMgr.getAuState(mau2).getLastMetadataIndex());
+  }
+
+  @Test
+  public void testPrefetchDisabled() throws Exception {
+    ConfigurationUtil.addFromArgs(ClientStateManager.PARAM_PREFETCH_ENABLED,
+				  "false");
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1234)));
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertEmpty(myStateMgr.getBulkRequests());
+    assertFalse(stateMgr.hasAuState(AUID1));
+  }
+
+  @Test
+  public void testPrefetchAuAgreements() throws Exception {
+    ConfigurationUtil.addFromArgs(ClientStateManager.PARAM_PREFETCH_TYPES,
+				  "AuState;AuAgreements");
+    AuAgreements aua = AuAgreements.make(AUID1, idMgr);
+    aua.signalPartialAgreement(pid0, POR, .9f, 800);
+    myStateMgr.setBulkJson("AuAgreements", MapUtil.map(AUID1, aua.toJson()));
+
+    stateMgr.prefetchState(ListUtil.list(AUID1));
+    assertEquals(2, myStateMgr.getPrefetchRequests());
+    assertEquals(1, myStateMgr.getPrefetchLoaded());
+    assertTrue(stateMgr.hasAuAgreements(AUID1));
+    AuAgreements aua1 = stateMgr.getAuAgreements(AUID1);
+    assertAgreeTime(.9f, 800, aua1.findPeerAgreement(pid0, POR));
+  }
+
+  @Test
+  public void testReceiveNotificationForPrefetchedAuState()
+      throws Exception {
+    SimpleBinarySemaphore sem = new SimpleBinarySemaphore();
+    myStateMgr.setRcvSem(sem);
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1234)));
+    stateMgr.prefetchState(ListUtil.list(AUID1));
+
+    // Update arrives before the AuState has been requested
+    String json = AuUtil.mapToJson(MapUtil.map("lastMetadataIndex", 4321));
+    prod.sendMap(MapUtil.map("name", "AuState",
+			     "auid", AUID1,
+			     "json", json));
+    assertTrue(sem.take(TIMEOUT_SHOULDNT));
+    assertEquals(4321, stateMgr.getAuState(mau1).getLastMetadataIndex());
+  }
+
+  @Test
+  public void testNotificationDuringPrefetch() throws Exception {
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1234),
+				       AUID2, auStateJson(5678)));
+    // Update for AUID1 arrives after the service has produced the bulk
+    // response but before it has been cached
+    final String json =
+      AuUtil.mapToJson(MapUtil.map("lastMetadataIndex", 4321));
+    myStateMgr.setBulkHook(() ->
+			   myStateMgr.doReceiveAuStateChanged(AUID1, json,
+							      null));
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertEquals(1, myStateMgr.getPrefetchLoaded());
+    // Stale copy isn't cached, will be loaded on demand
+    assertFalse(stateMgr.hasAuState(AUID1));
+    assertTrue(stateMgr.hasAuState(AUID2));
+  }
+
+  @Test
+  public void testDiscardPrefetchedState() throws Exception {
+    myStateMgr.setBulkJson("AuState",
+			   MapUtil.map(AUID1, auStateJson(1234),
+				       AUID2, auStateJson(5678)));
+    stateMgr.prefetchState(ListUtil.list(AUID1, AUID2));
+    assertTrue(stateMgr.hasAuState(AUID1));
+    assertTrue(stateMgr.hasAuState(AUID2));
+    AuState aus2 = stateMgr.getAuState(mau2);
+
+    stateMgr.discardPrefetchedState(ListUtil.list(AUID1, AUID2));
+    assertFalse(stateMgr.hasAuState(AUID1));
+    // Instantiated AuState isn't discarded
+    assertTrue(stateMgr.hasAuState(AUID2));
+    assertSame(aus2, stateMgr.getAuState(mau2));
+  }
+
 
   static class MyClientStateManager extends ClientStateManager {
     private SimpleBinarySemaphore rcvSem;
+    private Map<String,Map<String,String>> bulkJson = new HashMap<>();
+    private List<List<String>> bulkRequests = new ArrayList<>();
+    private Runnable bulkHook;
 
     public void setRcvSem(SimpleBinarySemaphore sem) {
       this.rcvSem = sem;
     }
 
+    void setBulkJson(String type, Map<String,String> jsons) {
+      bulkJson.put(type, jsons);
+    }
+
+    List<List<String>> getBulkRequests() {
+      return bulkRequests;
+    }
+
+    void setBulkHook(Runnable hook) {
+      this.bulkHook = hook;
+    }
+
+    @Override
+    protected Map<String,String> doLoadBulkJson(String type,
+						Collection<String> keys) {
+      bulkRequests.add(new ArrayList<>(keys));
+      Map<String,String> res = new HashMap<>();
+      Map<String,String> jsons = bulkJson.get(type);
+      if (jsons != null) {
+	for (String key : keys) {
+	  if (jsons.containsKey(key)) {
+	    res.put(key, jsons.get(key));
+	  }
+	}
+      }
+      if (bulkHook != null) {
+	bulkHook.run();
+      }
+      return res;
+    }
+
 
     // /////////////////////////////////////////////////////////////////
     // AuState
@@ -28,15 +28,18 @@ in this Software without prior written authorization from Stanford University.
 
 package org.lockss.state;
 
+import java.util.*;
+import java.util.concurrent.locks.Lock;
 import org.junit.*;
 import org.lockss.plugin.*;
 import org.lockss.protocol.*;
 import static org.lockss.protocol.AgreementType.*;
 import org.lockss.test.*;
+import org.lockss.util.*;
 
 public class TestInMemoryStateManager extends StateTestCase {
 
-  InMemoryStateManager myStateMgr;
+  MyInMemoryStateManager myStateMgr;
 
   @Before
   public void setUp() throws Exception {
@@ -45,7 +48,7 @@ public class TestInMemoryStateManager extends StateTestCase {
 
   @Override
   protected StateManager makeStateManager() {
-    myStateMgr = new InMemoryStateManager();
+    myStateMgr = new MyInMemoryStateManager();
     return myStateMgr;
   }
 
@@ -145,4 +148,133 @@ public class TestInMemoryStateManager extends StateTestCase {
   void auEvent(ArchivalUnit au, AuEvent.Type type) {
     pluginMgr.signalAuEvent(au, AuEvent.forAu(au, type));
   }
+
+  @Test
+  public void testPerAuLocks() throws Exception {
+    myStateMgr.resetLockStats();
+    final SimpleBinarySemaphore sem1 = new SimpleBinarySemaphore();
+    final SimpleBinarySemaphore sem2 = new SimpleBinarySemaphore();
+    final AuAgreements[] res = new AuAgreements[2];
+    Lock lock = myStateMgr.lockAu(AUID1);
+    try {
+      // Holding AUID1's lock doesn't block access to AUID2
+      new Thread() {
+	public void run() {
+	  res[1] = stateMgr.getAuAgreements(AUID2);
+	  sem2.give();
+	}}.start();
+      assertTrue(sem2.take(TIMEOUT_SHOULDNT));
+      assertNotNull(res[1]);
+
+      // Creating AUID1's AuAgreements must wait
+      new Thread() {
+	public void run() {
+	  res[0] = stateMgr.getAuAgreements(AUID1);
+	  sem1.give();
+	}}.start();
+      assertFalse(sem1.take(TIMEOUT_SHOULD));
+      assertNull(res[0]);
+    } finally {
+      lock.unlock();
+    }
+    assertTrue(sem1.take(TIMEOUT_SHOULDNT));
+    assertSame(res[0], stateMgr.getAuAgreements(AUID1));
+    assertEquals(1, myStateMgr.getLockContentions());
+    assertEquals(3, myStateMgr.getLockAcquisitions());
+    assertTrue(myStateMgr.getMaxLockWaitTime() > 0);
+    assertTrue(myStateMgr.getLockWaitTime() >= myStateMgr.getMaxLockWaitTime());
+
+    // Cached objects are returned without locking
+    stateMgr.getAuAgreements(AUID2);
+    assertEquals(3, myStateMgr.getLockAcquisitions());
+  }
+
+  @Test
+  public void testStoreOutsideLock() throws Exception {
+    final AuAgreements aua = stateMgr.getAuAgreements(AUID1);
+    aua.signalPartialAgreement(pid0, POR, .8f, 400);
+    myStateMgr.storeStarted = new SimpleBinarySemaphore();
+    myStateMgr.storeGo = new SimpleBinarySemaphore();
+    final SimpleBinarySemaphore locked = new SimpleBinarySemaphore();
+    new Thread() {
+      public void run() {
+	stateMgr.updateAuAgreements(AUID1, aua, null);
+      }}.start();
+    assertTrue(myStateMgr.storeStarted.take(TIMEOUT_SHOULDNT));
+    // While the store hook is running, the AU's lock is available
+    new Thread() {
+      public void run() {
+	myStateMgr.lockAu(AUID1).unlock();
+	locked.give();
+      }}.start();
+    assertTrue(locked.take(TIMEOUT_SHOULDNT));
+    myStateMgr.storeGo.give();
+
+    // The hook was passed a copy
+    assertNotSame(aua, myStateMgr.stored);
+    assertEquals(aua.toJson(), myStateMgr.stored.toJson());
+  }
+
+  @Test
+  public void testStoreOrder() throws Exception {
+    final AuAgreements aua = stateMgr.getAuAgreements(AUID1);
+    aua.signalPartialAgreement(pid0, POR, .8f, 400);
+    String json1 = aua.toJson();
+    myStateMgr.storeStarted = new SimpleBinarySemaphore();
+    myStateMgr.storeGo = new SimpleBinarySemaphore();
+    final SimpleBinarySemaphore done2 = new SimpleBinarySemaphore();
+    final SimpleBinarySemaphore locked = new SimpleBinarySemaphore();
+    new Thread() {
+      public void run() {
+	stateMgr.updateAuAgreements(AUID1, aua, null);
+      }}.start();
+    assertTrue(myStateMgr.storeStarted.take(TIMEOUT_SHOULDNT));
+
+    // A second update while the first store is running waits for it,
+    // without holding the AU's lock
+    aua.signalPartialAgreement(pid1, POR, .7f, 500);
+    String json2 = aua.toJson();
+    new Thread() {
+      public void run() {
+	stateMgr.updateAuAgreements(AUID1, aua, null);
+	done2.give();
+      }}.start();
+    assertFalse(done2.take(TIMEOUT_SHOULD));
+    new Thread() {
+      public void run() {
+	myStateMgr.lockAu(AUID1).unlock();
+	locked.give();
+      }}.start();
+    assertTrue(locked.take(TIMEOUT_SHOULDNT));
+    assertEquals(ListUtil.list(json1), myStateMgr.storedJson);
+
+    myStateMgr.storeGo.give();
+    assertTrue(myStateMgr.storeStarted.take(TIMEOUT_SHOULDNT));
+    myStateMgr.storeGo.give();
+    assertTrue(done2.take(TIMEOUT_SHOULDNT));
+    assertEquals(ListUtil.list(json1, json2), myStateMgr.storedJson);
+  }
+
+  static class MyInMemoryStateManager extends InMemoryStateManager {
+    SimpleBinarySemaphore storeStarted;
+    SimpleBinarySemaphore storeGo;
+    AuAgreements stored;
+    List<String> storedJson = new Vector<>();
+
+    @Override
+    protected void doStoreAuAgreementsUpdate(String key, AuAgreements aua,
+					     Set<PeerIdentity> peers) {
+      stored = aua;
+      try {
+	storedJson.add(aua.toJson());
+      } catch (java.io.IOException e) {
+	throw new RuntimeException(e);
+      }
+      if (storeStarted != null) {
+	storeStarted.give();
+	storeGo.take(TIMEOUT_SHOULDNT);
+      }
+    }
+  }
+
 }
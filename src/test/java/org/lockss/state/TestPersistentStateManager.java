@@ -211,6 +211,78 @@ public class TestPersistentStateManager extends StateTestCase {
     stateMgr.storeAuStateFromJson(AUID1, json1);
   }
 
+  @Test
+  public void testWriteBehind() throws Exception {
+    final int[] stores = new int[1];
+    final AuStateBean[] written = new AuStateBean[1];
+    MyStateStore sstore = new MyStateStore() {
+	@Override
+	public Long updateArchivalUnitState(String auId, AuStateBean ausb,
+					    Set<String> fields)
+	    throws StoreException {
+	  stores[0]++;
+	  written[0] = ausb;
+	  return super.updateArchivalUnitState(auId, ausb, fields);
+	}
+      };
+    myStateMgr.setStateStore(sstore);
+    assertFalse(myStateMgr.isWriteBehind());
+    ConfigurationUtil.addFromArgs(PersistentStateManager.PARAM_WRITE_BEHIND_ENABLED,
+				  "true",
+				  PersistentStateManager.PARAM_WRITE_BEHIND_INTERVAL,
+				  "1h");
+    assertTrue(myStateMgr.isWriteBehind());
+
+    // Creation and three changes are queued
+    AuState aus1 = stateMgr.getAuState(mau1);
+    aus1.setLastMetadataIndex(1);
+    aus1.setLastMetadataIndex(2);
+    aus1.setLastMetadataIndex(3);
+    assertEquals(0, stores[0]);
+    assertNull(sstore.getStoredAuState(AUID1));
+    assertEquals(1, myStateMgr.getWriteBehindPending());
+    assertEquals(4, myStateMgr.getWriteBehindChanges());
+
+    // and written once, with the latest value
+    myStateMgr.flushWriteBehind();
+    assertEquals(1, stores[0]);
+    assertEquals(0, myStateMgr.getWriteBehindPending());
+    assertEquals(1, myStateMgr.getWriteBehindWrites());
+    assertEquals(1, myStateMgr.getWriteBehindFlushes());
+    assertEquals(3, sstore.getAuState(AUID1).getLastMetadataIndex());
+    // A copy is written, not the live bean
+    assertNotSame(aus1.getBean(), written[0]);
+    assertEquals(3, written[0].getLastMetadataIndex());
+
+    // Explicit stores are written immediately
+    AuStateBean b2 = stateMgr.newDefaultAuStateBean(AUID2);
+    b2.setLastCrawlAttempt(7777);
+    stateMgr.storeAuStateBean(AUID2, b2);
+    assertEquals(2, stores[0]);
+    assertEquals(7777, sstore.getAuState(AUID2).getLastCrawlAttempt());
+
+    // Queued changes are written before loading
+    aus1.setLastMetadataIndex(4);
+    assertEquals(2, stores[0]);
+    myStateMgr.doLoadAuStateBean(AUID1);
+    assertEquals(3, stores[0]);
+    assertEquals(4, sstore.getAuState(AUID1).getLastMetadataIndex());
+
+    // Queued changes are written when write-behind is disabled
+    AuAgreements aua1 = stateMgr.getAuAgreements(AUID1);
+    assertNull(sstore.getStoredAuAgreements(AUID1));
+    assertEquals(1, myStateMgr.getWriteBehindPending());
+    ConfigurationUtil.addFromArgs(PersistentStateManager.PARAM_WRITE_BEHIND_ENABLED,
+				  "false");
+    assertFalse(myStateMgr.isWriteBehind());
+    assertEquals(0, myStateMgr.getWriteBehindPending());
+    assertNotNull(sstore.getStoredAuAgreements(AUID1));
+
+    // and subsequent changes are written immediately
+    aus1.setLastMetadataIndex(5);
+    assertEquals(4, stores[0]);
+  }
+
 
   @Test
   public void testFuncAuAgreements() throws Exception {
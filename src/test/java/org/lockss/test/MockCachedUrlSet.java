@@ -58,7 +58,7 @@ public class MockCachedUrlSet implements CachedUrlSet {
   private boolean hasContentIsSet = false;
   private boolean hasContent = false;
 
-  private Set cachedUrls = new HashSet();
+  private Set cachedUrls = Collections.synchronizedSet(new HashSet());
   private Set forceCachedUrls = new HashSet();
 
   private Iterator flatIterator = null;
@@ -0,0 +1,337 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.truezip;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import org.lockss.test.*;
+import org.lockss.util.*;
+
+public class TestArchiveMemberIndex extends LockssTestCase {
+
+  static final String KEY = "auid|http://example.com/a.zip|1";
+
+  /** Source reading from a byte array */
+  static class ByteSource implements ArchiveMemberIndex.Source {
+    byte[] bytes;
+    int opens = 0;
+
+    ByteSource(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    public InputStream open() {
+      opens++;
+      return new ByteArrayInputStream(bytes);
+    }
+
+    public long length() {
+      return bytes.length;
+    }
+  }
+
+  String content(String name, int reps) {
+    return StringUtils.repeat("content of " + name + "\n", reps);
+  }
+
+  byte[] makeZip() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ZipOutputStream zos = new ZipOutputStream(bos);
+    zos.putNextEntry(new ZipEntry("dir/"));
+    zos.closeEntry();
+    addZipEntry(zos, "dir/deflated.txt", content("deflated", 1000),
+		ZipEntry.DEFLATED);
+    addZipEntry(zos, "stored.html", content("stored", 3), ZipEntry.STORED);
+    addZipEntry(zos, "empty", "", ZipEntry.DEFLATED);
+    zos.setComment("a comment");
+    zos.close();
+    return bos.toByteArray();
+  }
+
+  void addZipEntry(ZipOutputStream zos, String name, String content,
+		   int method) throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    ZipEntry ent = new ZipEntry(name);
+    ent.setMethod(method);
+    ent.setTime(1300000000000L);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      ent.setCrc(crc.getValue());
+      ent.setSize(bytes.length);
+      ent.setCompressedSize(bytes.length);
+    }
+    zos.putNextEntry(ent);
+    zos.write(bytes);
+    zos.closeEntry();
+  }
+
+  void assertMember(String expContent, ArchiveMemberIndex index,
+		    ArchiveMemberIndex.Source src, String name)
+      throws IOException {
+    ArchiveMemberIndex.Member memb = index.getMember(name);
+    assertNotNull("No member: " + name, memb);
+    assertEquals(expContent.length(), memb.getSize());
+    InputStream in = index.openMember(src, memb);
+    try {
+      assertEquals(expContent, StringUtil.fromInputStream(in));
+    } finally {
+      in.close();
+    }
+  }
+
+  public void testGetFormat() {
+    assertEquals(ArchiveMemberIndex.Format.ZIP,
+		 ArchiveMemberIndex.getFormat(".zip"));
+    assertEquals(ArchiveMemberIndex.Format.ZIP,
+		 ArchiveMemberIndex.getFormat(".ZIP"));
+    assertEquals(ArchiveMemberIndex.Format.TAR,
+		 ArchiveMemberIndex.getFormat(".tar"));
+    assertNull(ArchiveMemberIndex.getFormat(".tgz"));
+    assertNull(ArchiveMemberIndex.getFormat(".tar.gz"));
+    assertNull(ArchiveMemberIndex.getFormat(null));
+  }
+
+  public void testZip() throws Exception {
+    ByteSource src = new ByteSource(makeZip());
+    ArchiveMemberIndex index =
+      ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP, src);
+    assertNotNull(index);
+    assertEquals(KEY, index.getKey());
+    assertEquals(3, index.size());
+    assertMember(content("deflated", 1000), index, src, "dir/deflated.txt");
+    assertMember(content("stored", 3), index, src, "stored.html");
+    assertMember("", index, src, "empty");
+    assertMember(content("stored", 3), index, src, "/stored.html");
+    assertNull(index.getMember("dir/"));
+    assertNull(index.getMember("dir"));
+    assertNull(index.getMember("nosuch"));
+    ArchiveMemberIndex.Member memb = index.getMember("stored.html");
+    // DOS times have 2 second resolution
+    assertEquals(1300000000000L, memb.getLastModified(), 2000);
+  }
+
+  public void testZipCentralDirNotInTail() throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ZipOutputStream zos = new ZipOutputStream(bos);
+    // Enough incompressible content to push the central directory out
+    // of the tail buffer
+    Random rand = new Random(1);
+    byte[] big = new byte[100000];
+    rand.nextBytes(big);
+    zos.putNextEntry(new ZipEntry("big"));
+    zos.write(big);
+    zos.closeEntry();
+    for (int ix = 0; ix < 2000; ix++) {
+      zos.putNextEntry(new ZipEntry("member" + ix));
+      zos.write(("content " + ix).getBytes());
+      zos.closeEntry();
+    }
+    zos.close();
+    ByteSource src = new ByteSource(bos.toByteArray());
+    ArchiveMemberIndex index =
+      ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP, src);
+    assertNotNull(index);
+    assertEquals(2001, index.size());
+    assertMember("content 1234", index, src, "member1234");
+    ArchiveMemberIndex.Member memb = index.getMember("big");
+    InputStream in = index.openMember(src, memb);
+    assertEquals(big, IOUtils.toByteArray(in));
+    in.close();
+  }
+
+  public void testUnindexableZip() throws Exception {
+    byte[] zip = makeZip();
+    // Prepended data (e.g., self-extracting archive)
+    byte[] sfx = new byte[zip.length + 100];
+    System.arraycopy(zip, 0, sfx, 100, zip.length);
+    assertNull(ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP,
+					new ByteSource(sfx)));
+    // Spanned archive marker
+    byte[] spanned = new byte[zip.length + 4];
+    System.arraycopy(zip, 0, spanned, 4, zip.length);
+    spanned[0] = 'P';
+    spanned[1] = 'K';
+    spanned[2] = 7;
+    spanned[3] = 8;
+    assertNull(ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP,
+					new ByteSource(spanned)));
+    assertNull(ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP,
+					new ByteSource("not a zip file at all, no"
+						       .getBytes())));
+  }
+
+  public void testEmptyZip() throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ZipOutputStream zos = new ZipOutputStream(bos);
+    zos.finish();
+    zos.close();
+    ArchiveMemberIndex index =
+      ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP,
+			       new ByteSource(bos.toByteArray()));
+    assertNotNull(index);
+    assertEquals(0, index.size());
+  }
+
+  // Tar construction
+
+  void writeTarHeader(OutputStream out, String name, long size, char type,
+		      String prefix)
+      throws IOException {
+    byte[] hdr = new byte[512];
+    putTarString(hdr, 0, 100, name);
+    putTarString(hdr, 100, 8, "0000644");
+    putTarString(hdr, 108, 8, "0000000");
+    putTarString(hdr, 116, 8, "0000000");
+    putTarString(hdr, 124, 12, String.format("%011o", size));
+    putTarString(hdr, 136, 12, String.format("%011o", 1300000000L));
+    hdr[156] = (byte)type;
+    putTarString(hdr, 257, 6, "ustar");
+    putTarString(hdr, 263, 2, "00");
+    if (prefix != null) {
+      putTarString(hdr, 345, 155, prefix);
+    }
+    Arrays.fill(hdr, 148, 156, (byte)' ');
+    long sum = 0;
+    for (byte b : hdr) {
+      sum += b & 0xff;
+    }
+    putTarString(hdr, 148, 8, String.format("%06o", sum));
+    out.write(hdr);
+  }
+
+  void putTarString(byte[] hdr, int off, int len, String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(b, 0, hdr, off, Math.min(len, b.length));
+  }
+
+  void writeTarData(OutputStream out, byte[] data) throws IOException {
+    out.write(data);
+    int pad = (int)(ArchiveMemberIndex.roundUpToBlock(data.length)
+		    - data.length);
+    out.write(new byte[pad]);
+  }
+
+  void addTarFile(OutputStream out, String name, String content)
+      throws IOException {
+    byte[] data = content.getBytes(StandardCharsets.UTF_8);
+    writeTarHeader(out, name, data.length, '0', null);
+    writeTarData(out, data);
+  }
+
+  byte[] makeTar(String longName) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    writeTarHeader(bos, "dir/", 0, '5', null);
+    addTarFile(bos, "dir/one.txt", content("one", 100));
+    addTarFile(bos, "./two.xml", content("two", 1));
+    // Long name in ustar prefix
+    byte[] data = content("three", 2).getBytes();
+    writeTarHeader(bos, "three.txt", data.length, '0', "a/b/c");
+    writeTarData(bos, data);
+    // GNU long name
+    byte[] nameBytes = longName.getBytes(StandardCharsets.UTF_8);
+    writeTarHeader(bos, "././@LongLink", nameBytes.length, 'L', null);
+    writeTarData(bos, nameBytes);
+    addTarFile(bos, "truncated", content("long", 5));
+    // pax path
+    String rec = "path=pax/name.txt\n";
+    String paxRec = (rec.length() + 3) + " " + rec;
+    writeTarHeader(bos, "PaxHeader", paxRec.length(), 'x', null);
+    writeTarData(bos, paxRec.getBytes());
+    addTarFile(bos, "ignored.txt", content("pax", 4));
+    // symlink
+    writeTarHeader(bos, "link", 0, '2', null);
+    addTarFile(bos, "last", "");
+    bos.write(new byte[1024]);
+    return bos.toByteArray();
+  }
+
+  public void testTar() throws Exception {
+    String longName = "long/" + StringUtils.repeat("x", 150) + ".html";
+    ByteSource src = new ByteSource(makeTar(longName));
+    ArchiveMemberIndex index =
+      ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.TAR, src);
+    assertNotNull(index);
+    assertEquals(6, index.size());
+    assertMember(content("one", 100), index, src, "dir/one.txt");
+    assertMember(content("two", 1), index, src, "two.xml");
+    assertMember(content("three", 2), index, src, "a/b/c/three.txt");
+    assertMember(content("long", 5), index, src, longName);
+    assertMember(content("pax", 4), index, src, "pax/name.txt");
+    assertMember("", index, src, "last");
+    assertNull(index.getMember("dir"));
+    assertNull(index.getMember("link"));
+    assertNull(index.getMember("ignored.txt"));
+    assertEquals(1300000000000L,
+		 index.getMember("dir/one.txt").getLastModified());
+  }
+
+  public void testNotTar() throws Exception {
+    assertNull(ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.TAR,
+					new ByteSource(makeZip())));
+  }
+
+  public void testParsePax() {
+    assertEquals(MapUtil.map("path", "a/b", "size", "123"),
+		 ArchiveMemberIndex.parsePax("12 path=a/b\n12 size=123\n"));
+  }
+
+  public void testPersist() throws Exception {
+    ByteSource src = new ByteSource(makeZip());
+    ArchiveMemberIndex index =
+      ArchiveMemberIndex.build(KEY, ArchiveMemberIndex.Format.ZIP, src);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    index.writeTo(new DataOutputStream(bos));
+    byte[] bytes = bos.toByteArray();
+
+    ArchiveMemberIndex index2 =
+      ArchiveMemberIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)),
+				  KEY);
+    assertEquals(KEY, index2.getKey());
+    assertEquals(ArchiveMemberIndex.Format.ZIP, index2.getFormat());
+    assertEquals(3, index2.size());
+    assertMember(content("deflated", 1000), index2, src, "dir/deflated.txt");
+    assertMember(content("stored", 3), index2, src, "stored.html");
+    assertEquals(index.getMember("stored.html").getLastModified(),
+		 index2.getMember("stored.html").getLastModified());
+
+    try {
+      ArchiveMemberIndex.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)),
+				  "auid|http://example.com/a.zip|2");
+      fail("Should have thrown for wrong key");
+    } catch (IOException e) {
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.util;
+
+import java.io.*;
+import org.lockss.test.*;
+
+public class TestBloomFilter extends LockssTestCase {
+
+  public void testIll() {
+    try {
+      new BloomFilter(10, 0);
+      fail("bitsPerEntry 0 should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testNoFalseNegatives() {
+    BloomFilter bf = new BloomFilter(1000, 10);
+    assertEquals(7, bf.getNumHashes());
+    assertFalse(bf.mightContain("http://example.com/"));
+    for (int ix = 0; ix < 1000; ix++) {
+      bf.add("http://example.com/page" + ix + ".html");
+    }
+    assertEquals(1000, bf.getNumEntries());
+    for (int ix = 0; ix < 1000; ix++) {
+      assertTrue(bf.mightContain("http://example.com/page" + ix + ".html"));
+    }
+  }
+
+  public void testFalsePositiveRate() {
+    BloomFilter bf = new BloomFilter(10000, 10);
+    for (int ix = 0; ix < 10000; ix++) {
+      bf.add("http://example.com/in/" + ix);
+    }
+    int fp = 0;
+    for (int ix = 0; ix < 10000; ix++) {
+      if (bf.mightContain("http://example.com/out/" + ix)) {
+	fp++;
+      }
+    }
+    // Expected ~1%
+    assertTrue("False positives: " + fp, fp < 300);
+    assertTrue(bf.getExpectedFpp() < 0.02);
+  }
+
+  public void testSerialize() throws Exception {
+    BloomFilter bf = new BloomFilter(100, 12);
+    for (int ix = 0; ix < 100; ix++) {
+      bf.add("u" + ix);
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    bf.writeTo(new DataOutputStream(baos));
+    BloomFilter bf2 =
+      BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(bf.getNumEntries(), bf2.getNumEntries());
+    assertEquals(bf.getNumHashes(), bf2.getNumHashes());
+    assertEquals(bf.getSizeBytes(), bf2.getSizeBytes());
+    for (int ix = 0; ix < 100; ix++) {
+      assertTrue(bf2.mightContain("u" + ix));
+    }
+    byte[] bytes = baos.toByteArray();
+    bytes[3] = 9;
+    try {
+      BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+      fail("Bad version should throw");
+    } catch (IOException e) {
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+
+Copyright (c) 2021 Board of Trustees of Leland Stanford Jr. University,
+all rights reserved.
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL
+STANFORD UNIVERSITY BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR
+IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+Except as contained in this notice, the name of Stanford University shall not
+be used in advertising or otherwise to promote the sale, use or other dealings
+in this Software without prior written authorization from Stanford University.
+
+*/
+
+package org.lockss.util;
+
+import java.util.*;
+
+import org.lockss.test.*;
+
+public class TestMultiStringMatcher extends LockssTestCase {
+
+  /** Return the index of the longest string ending at each position */
+  List<Integer> matches(MultiStringMatcher m, String in) {
+    List<Integer> res = new ArrayList<Integer>();
+    char[] buf = in.toCharArray();
+    int state = MultiStringMatcher.ROOT;
+    for (int ix = 0; ix < buf.length; ix++) {
+      state = m.next(state, buf[ix]);
+      res.add(m.hasOutput(state) ? m.match(state, buf, ix + 1) : -1);
+    }
+    return res;
+  }
+
+  public void testIll() {
+    try {
+      new MultiStringMatcher(new String[0], false);
+      fail("Empty array should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new MultiStringMatcher(new String[] {"a", null}, false);
+      fail("Null string should throw");
+    } catch (IllegalArgumentException e) {
+    }
+    try {
+      new MultiStringMatcher(new String[] {"a", "b"}, new boolean[1]);
+      fail("Mismatched ignoreCase should throw");
+    } catch (IllegalArgumentException e) {
+    }
+  }
+
+  public void testMatch() {
+    MultiStringMatcher m =
+      new MultiStringMatcher(new String[] {"he", "she", "his", "hers"},
+			     false);
+    assertEquals(4, m.size());
+    assertEquals(4, m.getMaxLength());
+    assertEquals(ListUtil.list(-1, -1, -1, 1, -1, 3, -1, -1),
+		 matches(m, "ushersis"));
+    assertEquals(ListUtil.list(-1, -1, -1), matches(m, "SHE"));
+  }
+
+  public void testDepth() {
+    MultiStringMatcher m =
+      new MultiStringMatcher(new String[] {"abcd", "bcx"}, false);
+    int state = MultiStringMatcher.ROOT;
+    for (char c : "xabc".toCharArray()) {
+      state = m.next(state, c);
+    }
+    assertEquals(3, m.depth(state));
+    state = m.next(state, 'x');
+    assertEquals(3, m.depth(state));
+    assertEquals(1, m.match(state, "xabcx".toCharArray(), 5));
+    state = m.next(state, 'q');
+    assertEquals(0, m.depth(state));
+  }
+
+  public void testIgnoreCase() {
+    MultiStringMatcher m =
+      new MultiStringMatcher(new String[] {"he", "she"}, true);
+    assertEquals(ListUtil.list(-1, -1, 0, -1, -1, 1), matches(m, "xHeShE"));
+  }
+
+  public void testMixedCase() {
+    MultiStringMatcher m =
+      new MultiStringMatcher(new String[] {"SHE", "he"},
+			     new boolean[] {false, true});
+    assertEquals(ListUtil.list(-1, -1, 0), matches(m, "SHE"));
+    assertEquals(ListUtil.list(-1, -1, 1), matches(m, "sHE"));
+    assertEquals(ListUtil.list(-1, -1, 1), matches(m, "she"));
+  }
+
+  public void testNonAscii() {
+    MultiStringMatcher m =
+      new MultiStringMatcher(new String[] {"\u00e9t\u00e9",
+					       "\u4e2d\u6587"},
+			     true);
+    assertEquals(ListUtil.list(-1, -1, 0, -1, 1),
+		 matches(m, "\u00c9t\u00c9\u4e2d\u6587"));
+  }
+}
@@ -233,6 +233,29 @@ public class TestPropUtil extends LockssTestCase {
     assertEquals(exp, PropUtil.differentKeysAndPrefixes(pt2, pt1));
   }
 
+  public void testDifferentKeysAndPrefixesCandidates() {
+    PropertyTree pt1 = new PropertyTree();
+    PropertyTree pt2 = new PropertyTree();
+    pt1.put("foo.bar.same", "123");
+    pt2.put("foo.bar.same", "123");
+    pt1.put("foo.bar.diff", "123");
+    pt2.put("foo.bar.diff", "124");
+    pt1.put("x.y", "1");
+    pt2.put("z", "2");
+    // Non-candidate differences aren't reported
+    pt1.put("not.candidate", "1");
+    assertEquals(SetUtil.set("foo.bar.diff", "foo.bar.", "foo.bar",
+			     "foo.", "foo", "x.y", "x.", "x", "z"),
+		 PropUtil.differentKeysAndPrefixes(pt1, pt2,
+						   ListUtil.list("foo.bar.same",
+								 "foo.bar.diff",
+								 "x.y", "z",
+								 "absent")));
+    assertEmpty(PropUtil.differentKeysAndPrefixes(pt1, pt2,
+						  ListUtil.list("foo.bar.same",
+								"absent")));
+  }
+
   public void testDifferentKeysAndPrefixesDoubleDot() {
     // Due to oddities in PropertyTree (get(foo.bar) is same as get(foo..bar),
     // don't make any assertions about result, just ensure double dot doesn't